@@ -32,6 +32,7 @@ import java.util.Set;
 
 import org.alfresco.service.cmr.repository.AssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.security.AccessStatus;
 import org.alfresco.service.namespace.QName;
 
 public interface CMISNodeInfo
@@ -101,4 +102,14 @@ public interface CMISNodeInfo
     Map<QName, Serializable> getNodeProps();
 
     Set<QName> getNodeAspects();
+
+    /**
+     * Checks a permission on the node, remembering the answer until {@link #clearPermissions()} is called.
+     */
+    AccessStatus hasPermission(String permission);
+
+    /**
+     * Forgets the remembered permission checks, eg. once the ACL of the node may have changed.
+     */
+    void clearPermissions();
 }
\ No newline at end of file
@@ -280,6 +280,13 @@ public interface DictionaryDAO extends ModelQuery
      */
     void destroy();
 
+    /**
+     * Unload the Dictionary for the current tenant, eg. to release the memory held by an idle tenant.  Unlike
+     * {@link #destroy()} no reload is triggered; the dictionary is reloaded lazily on next use.  The core
+     * (default domain) dictionary is never unloaded.
+     */
+    void unload();
+
     // MT-specific
     boolean isModelInherited(QName name);
 
@@ -241,6 +241,24 @@ public class DictionaryDAOImpl implements DictionaryDAO, NamespaceDAO,
         }
     }
 
+    @Override
+    public void unload()
+    {
+        String tenant = tenantService.getCurrentUserDomain();
+        if (TenantService.DEFAULT_DOMAIN.equals(tenant))
+        {
+            return;
+        }
+
+        // note: local only - the dictionary will be lazily rebuilt (via the cache) on next use
+        dictionaryRegistryCache.remove(tenant);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Dictionary unloaded for tenant " + tenant);
+        }
+    }
+
     @Override
     public void reset()
     {
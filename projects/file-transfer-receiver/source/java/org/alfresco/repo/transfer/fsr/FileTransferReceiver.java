@@ -81,6 +81,7 @@ public class FileTransferReceiver implements TransferReceiver
     private static final String MSG_ERROR_WHILE_STAGING_SNAPSHOT = "transfer_service.receiver.error_staging_snapshot";
     private static final String MSG_ERROR_WHILE_STAGING_CONTENT = "transfer_service.receiver.error_staging_content";
     private static final String MSG_NO_SNAPSHOT_RECEIVED = "transfer_service.receiver.no_snapshot_received";
+    private static final String MSG_SEGMENTS_NOT_SUPPORTED = "transfer_service.receiver.segments_not_supported";
     private static final String MSG_ERROR_WHILE_COMMITTING_TRANSFER = "transfer_service.receiver.error_committing_transfer";
     private static final String MSG_ERROR_WHILE_GENERATING_REQUISITE = "transfer_service.receiver.error_generating_requisite";
     private static final String MSG_LOCK_TIMED_OUT = "transfer_service.receiver.lock_timed_out";
@@ -467,6 +468,21 @@ public class FileTransferReceiver implements TransferReceiver
     {
     }
 
+    public void saveSnapshotSegment(String transferId, int segment, InputStream openStream) throws TransferException
+    {
+        throw new TransferException(MSG_SEGMENTS_NOT_SUPPORTED, new Object[]{transferId});
+    }
+
+    public void generateSegmentRequsite(String transferId, int segment, OutputStream requsiteStream) throws TransferException
+    {
+        throw new TransferException(MSG_SEGMENTS_NOT_SUPPORTED, new Object[]{transferId});
+    }
+
+    public void commitSegment(String transferId, int segment) throws TransferException
+    {
+        throw new TransferException(MSG_SEGMENTS_NOT_SUPPORTED, new Object[]{transferId});
+    }
+
     public void saveContent(String transferId, String contentFileId, InputStream contentStream)
             throws TransferException
     {
@@ -25,11 +25,22 @@
  */
 package org.alfresco.repo.web.scripts.download;
 
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 
+import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.service.cmr.download.DownloadService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
 import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
 
 /**
  * Base class for download related webscripts.
@@ -46,6 +57,54 @@ abstract class AbstractDownloadWebscript extends DeclarativeWebScript
         this.downloadService = downloadSerivce;
     }
     
+    /**
+     * Helper method to read the requested nodeRefs from the JSON body of a request,
+     * which is an array of objects with a <tt>nodeRef</tt> property.
+     */
+    static List<NodeRef> getRequestedNodeRefs(WebScriptRequest req)
+    {
+        // Parse the JSON, if supplied
+        JSONArray json = null;
+        String contentType = req.getContentType();
+        if (contentType != null && contentType.indexOf(';') != -1)
+        {
+           contentType = contentType.substring(0, contentType.indexOf(';'));
+        }
+        
+        List<NodeRef> nodes = new LinkedList<NodeRef>();
+        if (MimetypeMap.MIMETYPE_JSON.equals(contentType))
+        {
+           JSONParser parser = new JSONParser();
+           try
+           {
+              json = (JSONArray)parser.parse(req.getContent().getContent());
+              for (int i = 0 ; i < json.size() ; i++)
+              {
+                JSONObject obj = (JSONObject)json.get(i);
+                String nodeRefString = (String)obj.get("nodeRef");
+                if (nodeRefString != null) 
+                {
+                    nodes.add(new NodeRef(nodeRefString));
+                }
+              }
+           }
+           catch (IOException io)
+           {
+               throw new WebScriptException(Status.STATUS_INTERNAL_SERVER_ERROR, "Unexpected IOException", io);
+           }
+           catch (org.json.simple.parser.ParseException je)
+           {
+               throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Unexpected ParseException", je);
+           }
+        }
+        
+        if (nodes.size() <= 0) 
+        {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "No nodeRefs provided");
+        }
+        return nodes;
+    }
+
     /**
      * Helper method to embed error informaion in a map.
      */
@@ -25,17 +25,11 @@
  */
 package org.alfresco.repo.web.scripts.download;
 
-import java.io.IOException;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
-import org.alfresco.repo.content.MimetypeMap;
 import org.alfresco.service.cmr.repository.NodeRef;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
 import org.springframework.extensions.webscripts.Cache;
 import org.springframework.extensions.webscripts.Status;
 import org.springframework.extensions.webscripts.WebScriptException;
@@ -57,46 +51,7 @@ public class DownloadPost extends AbstractDownloadWebscript
             throw new WebScriptException(Status.STATUS_BAD_REQUEST, error);
         }
         
-        
-        // Parse the JSON, if supplied
-        JSONArray json = null;
-        String contentType = req.getContentType();
-        if (contentType != null && contentType.indexOf(';') != -1)
-        {
-           contentType = contentType.substring(0, contentType.indexOf(';'));
-        }
-        
-        List<NodeRef> nodes = new LinkedList<NodeRef>();
-        if (MimetypeMap.MIMETYPE_JSON.equals(contentType))
-        {
-           JSONParser parser = new JSONParser();
-           try
-           {
-              json = (JSONArray)parser.parse(req.getContent().getContent());
-              for (int i = 0 ; i < json.size() ; i++)
-              {
-                JSONObject obj = (JSONObject)json.get(i);
-                String nodeRefString = (String)obj.get("nodeRef");
-                if (nodeRefString != null) 
-                {
-                    nodes.add(new NodeRef(nodeRefString));
-                }
-              }
-           }
-           catch (IOException io)
-           {
-               throw new WebScriptException(Status.STATUS_INTERNAL_SERVER_ERROR, "Unexpected IOException", io);
-           }
-           catch (org.json.simple.parser.ParseException je)
-           {
-               throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Unexpected ParseException", je);
-           }
-        }
-        
-        if (nodes.size() <= 0) 
-        {
-            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "No nodeRefs provided");
-        }
+        List<NodeRef> nodes = getRequestedNodeRefs(req);
         
         NodeRef downloadNode = downloadService.createDownload(nodes.toArray(new NodeRef[nodes.size()]), true);
         
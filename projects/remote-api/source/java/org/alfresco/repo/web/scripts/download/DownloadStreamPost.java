@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.download;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.download.DownloadServiceException;
+import org.alfresco.service.cmr.download.DownloadService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Web script that streams a zip of the requested nodes straight to the response.
+ * 
+ * Unlike {@link DownloadPost} nothing is stored in the repository: the archive is
+ * written as the nodes are visited, so the client gets the first bytes immediately.
+ */
+public class DownloadStreamPost extends AbstractWebScript
+{
+    private static final String DEFAULT_FILENAME = "download.zip";
+    
+    private DownloadService downloadService;
+    
+    public void setDownloadService(DownloadService downloadService)
+    {
+        this.downloadService = downloadService;
+    }
+    
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        List<NodeRef> nodes = AbstractDownloadWebscript.getRequestedNodeRefs(req);
+        
+        String filename = req.getParameter("filename");
+        if (filename == null || filename.trim().length() == 0)
+        {
+            filename = DEFAULT_FILENAME;
+        }
+        filename = filename.replace('"', '_').replace('\r', '_').replace('\n', '_');
+        
+        res.setContentType(MimetypeMap.MIMETYPE_ZIP);
+        res.setHeader("Content-Disposition", "attachment; filename=\"" + filename + "\"");
+        res.setHeader("Cache-Control", "no-cache");
+        
+        try
+        {
+            downloadService.streamDownload(nodes.toArray(new NodeRef[nodes.size()]), res.getOutputStream());
+        }
+        catch (DownloadServiceException e)
+        {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+}
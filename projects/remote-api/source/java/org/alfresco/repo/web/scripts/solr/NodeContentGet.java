@@ -28,24 +28,17 @@ package org.alfresco.repo.web.scripts.solr;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 import java.util.Locale;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.alfresco.model.ContentModel;
-import org.alfresco.repo.content.MimetypeMap;
-import org.alfresco.repo.content.transform.ContentTransformer;
-import org.alfresco.repo.content.transform.TransformerDebug;
 import org.alfresco.repo.domain.node.NodeDAO;
 import org.alfresco.repo.web.scripts.content.StreamContent;
-import org.alfresco.service.cmr.repository.ContentIOException;
 import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentService;
-import org.alfresco.service.cmr.repository.ContentWriter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.TransformationOptions;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.util.Pair;
 import org.apache.commons.httpclient.HttpStatus;
@@ -77,7 +70,7 @@ public class NodeContentGet extends StreamContent
     private NodeDAO nodeDAO;
     private NodeService nodeService;
     private ContentService contentService;
-    private TransformerDebug transformerDebug;
+    private TextContentTransformer textContentTransformer;
 
     public void setNodeDAO(NodeDAO nodeDAO)
     {
@@ -95,12 +88,11 @@ public class NodeContentGet extends StreamContent
     }
     
     /**
-     * Setter of the transformer debug. 
-     * @param transformerDebug TransformerDebug
+     * @param textContentTransformer the transformer of content to text, shared with {@link NodesTextContentPost}
      */
-    public void setTransformerDebug(TransformerDebug transformerDebug)
+    public void setTextContentTransformer(TextContentTransformer textContentTransformer)
     {
-        this.transformerDebug = transformerDebug;
+        this.textContentTransformer = textContentTransformer;
     }
 
     /**
@@ -111,9 +103,6 @@ public class NodeContentGet extends StreamContent
      */
     public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
     {
-        ContentReader textReader = null;
-        Exception transformException = null;
-
         String nodeIDString = req.getParameter("nodeId");
         if(nodeIDString == null)
         {
@@ -183,70 +172,24 @@ public class NodeContentGet extends StreamContent
             return;            
         }
         
-        try
+        TextContentTransformer.TransformedText transformedText = textContentTransformer.transform(nodeRef, reader);
+        if (transformedText.getTransformDuration() != null)
         {
-            // get the transformer
-            TransformationOptions options = new TransformationOptions();
-            options.setUse("index");
-            options.setSourceNodeRef(nodeRef);
-            transformerDebug.pushAvailable(reader.getContentUrl(), reader.getMimetype(), MimetypeMap.MIMETYPE_TEXT_PLAIN, options);
-            long sourceSize = reader.getSize();
-            List<ContentTransformer> transformers = contentService.getActiveTransformers(reader.getMimetype(), sourceSize, MimetypeMap.MIMETYPE_TEXT_PLAIN, options);
-            transformerDebug.availableTransformers(transformers, sourceSize, options, "SolrIndexer");
-
-            if (transformers.isEmpty())
-            {
-                res.setHeader(TRANSFORM_STATUS_HEADER, "noTransform");
-                res.setStatus(HttpStatus.SC_NO_CONTENT);
-                return;
-            }
-            ContentTransformer transformer = transformers.get(0);
-            
-            // Perform transformation catering for mimetype AND encoding
-            ContentWriter writer = contentService.getTempWriter();
-            writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
-            writer.setEncoding("UTF-8");                            // Expect transformers to produce UTF-8
-            
-            try
-            {
-                long start = System.currentTimeMillis();
-                transformer.transform(reader, writer);
-                long transformDuration = System.currentTimeMillis() - start;
-                res.setHeader(TRANSFORM_DURATION_HEADER, String.valueOf(transformDuration));
-            }
-            catch (ContentIOException e)
-            {
-                transformException = e;
-            }
-
-            if(transformException == null)
-            {
-                // point the reader to the new-written content
-                textReader = writer.getReader();
-                // Check that the reader is a view onto something concrete
-                if (textReader == null || !textReader.exists())
-                {
-                    transformException = new ContentIOException(
-                            "The transformation did not write any content, yet: \n"
-                            + "   transformer:     " + transformer + "\n" + "   temp writer:     " + writer);
-                }
-            }
-
-            if(transformException != null)
-            {
-                res.setHeader(TRANSFORM_STATUS_HEADER, "transformFailed");
-                res.setHeader(TRANSFORM_EXCEPTION_HEADER, transformException.getMessage());
-                res.setStatus(HttpStatus.SC_NO_CONTENT);
-            }
-            else
-            {
-                res.setStatus(HttpStatus.SC_OK);
-                streamContentImpl(req, res, textReader, null, null, false, modified, String.valueOf(modified.getTime()), null, null);            
-            }
+            res.setHeader(TRANSFORM_DURATION_HEADER, String.valueOf(transformedText.getTransformDuration()));
         }
-        finally
+        if (transformedText.isTransformed())
         {
-            transformerDebug.popAvailable();
+            res.setStatus(HttpStatus.SC_OK);
+            streamContentImpl(req, res, transformedText.getTextReader(), null, null, false, modified, String.valueOf(modified.getTime()), null, null);            
+        }
+        else
+        {
+            res.setHeader(TRANSFORM_STATUS_HEADER, transformedText.getStatus());
+            if (transformedText.getTransformException() != null)
+            {
+                res.setHeader(TRANSFORM_EXCEPTION_HEADER, transformedText.getTransformException());
+            }
+            res.setStatus(HttpStatus.SC_NO_CONTENT);
         }
     }
 }
@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.solr;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.extensions.surf.util.Content;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Support for SOLR: get the text content (transformed if required) of a content property of many nodes in one
+ * streamed response.
+ * <p/>
+ * The response is binary, with one record per requested node, in the order requested:
+ * <pre>
+ *   long    node ID
+ *   UTF     status: ok, noTransform, transformFailed or noContent
+ *   long    transformation duration in ms, or -1
+ *   UTF     transformation exception, or an empty string
+ *   long    text length in bytes, or -1 if there is no text
+ *   byte[]  the UTF-8 text
+ * </pre>
+ * followed by a node ID of -1.  Nodes that share content are transformed once.
+ *
+ * @since 5.2
+ */
+public class NodesTextContentPost extends AbstractWebScript
+{
+    protected static final Log logger = LogFactory.getLog(NodesTextContentPost.class);
+    
+    public static final String MIMETYPE_TEXT_CONTENTS = "application/octet-stream";
+    private static final int MAX_EXCEPTION_LENGTH = 1024;
+
+    private NodeDAO nodeDAO;
+    private ContentService contentService;
+    private TextContentTransformer textContentTransformer;
+    private int maxNodeIds = 1000;
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setContentService(ContentService contentService)
+    {
+        this.contentService = contentService;
+    }
+    
+    public void setTextContentTransformer(TextContentTransformer textContentTransformer)
+    {
+        this.textContentTransformer = textContentTransformer;
+    }
+
+    /**
+     * @param maxNodeIds        the most nodes that may be requested at once
+     */
+    public void setMaxNodeIds(int maxNodeIds)
+    {
+        this.maxNodeIds = maxNodeIds;
+    }
+
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        try
+        {
+            handle(req, res);
+        }
+        catch(JSONException e)
+        {
+            throw new WebScriptException("Invalid JSON", e);
+        }
+    }
+    
+    private void handle(WebScriptRequest req, WebScriptResponse res) throws JSONException, IOException
+    {
+        Content content = req.getContent();
+        if (content == null)
+        {
+            throw new WebScriptException("Request content is empty");
+        }
+        JSONObject o = new JSONObject(content.getContent());
+        JSONArray nodeIdsJSON = o.has("nodeIds") ? o.getJSONArray("nodeIds") : null;
+        if (nodeIdsJSON == null || nodeIdsJSON.length() == 0)
+        {
+            throw new WebScriptException(
+                    Status.STATUS_BAD_REQUEST,
+                    "Parameter 'nodeIds' must hold from 1 or more IDs.");
+        }
+        else if (nodeIdsJSON.length() > maxNodeIds)
+        {
+            throw new WebScriptException(
+                    Status.STATUS_BAD_REQUEST,
+                    "Parameter 'nodeIds' may hold at most " + maxNodeIds + " IDs.");
+        }
+        List<Long> nodeIds = new ArrayList<Long>(nodeIdsJSON.length());
+        for (int i = 0; i < nodeIdsJSON.length(); i++)
+        {
+            nodeIds.add(nodeIdsJSON.getLong(i));
+        }
+        QName propertyName = o.has("propertyQName") ? QName.createQName(o.getString("propertyQName")) : ContentModel.PROP_CONTENT;
+        
+        res.setStatus(Status.STATUS_OK);
+        res.setContentType(MIMETYPE_TEXT_CONTENTS);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(res.getOutputStream(), 65536));
+        
+        // The transformations of this request, in case the shared cache is not used or is too small
+        Map<String, TextContentTransformer.TransformedText> transformed = new HashMap<String, TextContentTransformer.TransformedText>();
+        long start = System.currentTimeMillis();
+        for (Long nodeId : nodeIds)
+        {
+            Pair<Long, NodeRef> pair = nodeDAO.getNodePair(nodeId);
+            ContentReader reader = (pair == null) ? null : contentService.getReader(pair.getSecond(), propertyName);
+            if (reader == null)
+            {
+                // As for a node that has been deleted
+                writeRecord(out, nodeId, TextContentTransformer.STATUS_NO_CONTENT, null, null, null);
+                continue;
+            }
+            String key = TextContentTransformer.getKey(reader);
+            TextContentTransformer.TransformedText transformedText = transformed.get(key);
+            if (transformedText == null)
+            {
+                transformedText = textContentTransformer.transform(pair.getSecond(), reader);
+                // Only text in a file can be read for a second node, and a failure is retried for each node
+                if (transformedText.isCacheable())
+                {
+                    transformed.put(key, transformedText);
+                }
+            }
+            writeRecord(out, nodeId, transformedText.getStatus(), transformedText.getTransformDuration(),
+                        transformedText.getTransformException(), transformedText.getTextReader());
+        }
+        out.writeLong(-1L);
+        out.flush();
+        
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Streamed text content of " + nodeIds.size() + " nodes (" + transformed.size() + " reusable transformations) in " +
+                        (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+    
+    private void writeRecord(DataOutputStream out, long nodeId, String status, Long transformDuration,
+                String transformException, ContentReader textReader) throws IOException
+    {
+        out.writeLong(nodeId);
+        out.writeUTF(status);
+        out.writeLong(transformDuration == null ? -1L : transformDuration);
+        String exception = (transformException == null) ? "" : transformException;
+        out.writeUTF(exception.length() > MAX_EXCEPTION_LENGTH ? exception.substring(0, MAX_EXCEPTION_LENGTH) : exception);
+        if (textReader == null)
+        {
+            out.writeLong(-1L);
+            return;
+        }
+        
+        long size = textReader.getSize();
+        out.writeLong(size);
+        InputStream is = textReader.getContentInputStream();
+        try
+        {
+            byte[] buffer = new byte[8192];
+            long remaining = size;
+            while (remaining > 0)
+            {
+                int read = is.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0)
+                {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+            // The length has been written, so pad if the text is shorter than its size
+            if (remaining > 0)
+            {
+                Arrays.fill(buffer, (byte) 0);
+                while (remaining > 0)
+                {
+                    int padding = (int) Math.min(buffer.length, remaining);
+                    out.write(buffer, 0, padding);
+                    remaining -= padding;
+                }
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.web.scripts.solr;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.content.filestore.FileContentReader;
+import org.alfresco.repo.content.transform.ContentTransformer;
+import org.alfresco.repo.content.transform.TransformerDebug;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.TransformationOptions;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Support for SOLR: transforms the content of node properties to text for indexing.
+ * <p/>
+ * The outcome of each transformation is cached against the content URL and mimetype of the source, so nodes and
+ * versions that share content are only transformed once.  The text itself stays in the temporary file written by the
+ * transformer, so entries must expire before the temporary files are cleaned up; an entry whose file has gone is
+ * simply transformed again.
+ *
+ * @since 5.2
+ */
+public class TextContentTransformer
+{
+    protected static final Log logger = LogFactory.getLog(TextContentTransformer.class);
+    
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_NO_TRANSFORM = "noTransform";
+    public static final String STATUS_TRANSFORM_FAILED = "transformFailed";
+    public static final String STATUS_NO_CONTENT = "noContent";
+    
+    private ContentService contentService;
+    private TransformerDebug transformerDebug;
+    private SimpleCache<String, TransformedText> transformedTextCache;
+    
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong transformations = new AtomicLong();
+
+    public void setContentService(ContentService contentService)
+    {
+        this.contentService = contentService;
+    }
+    
+    public void setTransformerDebug(TransformerDebug transformerDebug)
+    {
+        this.transformerDebug = transformerDebug;
+    }
+
+    /**
+     * @param transformedTextCache  the cache of transformations by source content URL (optional)
+     */
+    public void setTransformedTextCache(SimpleCache<String, TransformedText> transformedTextCache)
+    {
+        this.transformedTextCache = transformedTextCache;
+    }
+    
+    /**
+     * @return                      the number of transformations served from the cache
+     */
+    public long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+    
+    /**
+     * @return                      the number of transformations performed
+     */
+    public long getTransformations()
+    {
+        return transformations.get();
+    }
+    
+    /**
+     * @return                      the key identifying the source content of a transformation
+     */
+    public static String getKey(ContentReader reader)
+    {
+        return reader.getContentUrl() + "|" + reader.getMimetype();
+    }
+
+    /**
+     * Transform the content to text, reusing a cached transformation of the same content if there is one
+     * 
+     * @param nodeRef               the node, for the transformation options
+     * @param reader                the content of the node property
+     */
+    public TransformedText transform(NodeRef nodeRef, ContentReader reader)
+    {
+        String key = getKey(reader);
+        if (transformedTextCache != null)
+        {
+            TransformedText cached = transformedTextCache.get(key);
+            if (cached != null && cached.isAvailable())
+            {
+                cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+        
+        TransformedText transformedText = doTransform(nodeRef, reader);
+        transformations.incrementAndGet();
+        if (transformedTextCache != null && transformedText.isCacheable())
+        {
+            transformedTextCache.put(key, transformedText);
+        }
+        return transformedText;
+    }
+    
+    private TransformedText doTransform(NodeRef nodeRef, ContentReader reader)
+    {
+        try
+        {
+            // get the transformer
+            TransformationOptions options = new TransformationOptions();
+            options.setUse("index");
+            options.setSourceNodeRef(nodeRef);
+            transformerDebug.pushAvailable(reader.getContentUrl(), reader.getMimetype(), MimetypeMap.MIMETYPE_TEXT_PLAIN, options);
+            long sourceSize = reader.getSize();
+            List<ContentTransformer> transformers = contentService.getActiveTransformers(reader.getMimetype(), sourceSize, MimetypeMap.MIMETYPE_TEXT_PLAIN, options);
+            transformerDebug.availableTransformers(transformers, sourceSize, options, "SolrIndexer");
+
+            if (transformers.isEmpty())
+            {
+                return new TransformedText(STATUS_NO_TRANSFORM, null, null, null);
+            }
+            ContentTransformer transformer = transformers.get(0);
+            
+            // Perform transformation catering for mimetype AND encoding
+            ContentWriter writer = contentService.getTempWriter();
+            writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
+            writer.setEncoding("UTF-8");                            // Expect transformers to produce UTF-8
+            
+            Long transformDuration = null;
+            Exception transformException = null;
+            try
+            {
+                long start = System.currentTimeMillis();
+                transformer.transform(reader, writer);
+                transformDuration = System.currentTimeMillis() - start;
+            }
+            catch (ContentIOException e)
+            {
+                transformException = e;
+            }
+
+            ContentReader textReader = null;
+            if (transformException == null)
+            {
+                // point the reader to the new-written content
+                textReader = writer.getReader();
+                // Check that the reader is a view onto something concrete
+                if (textReader == null || !textReader.exists())
+                {
+                    transformException = new ContentIOException(
+                            "The transformation did not write any content, yet: \n"
+                            + "   transformer:     " + transformer + "\n" + "   temp writer:     " + writer);
+                }
+            }
+
+            if (transformException != null)
+            {
+                return new TransformedText(STATUS_TRANSFORM_FAILED, transformException.getMessage(), transformDuration, null);
+            }
+            return new TransformedText(STATUS_OK, null, transformDuration, textReader);
+        }
+        finally
+        {
+            transformerDebug.popAvailable();
+        }
+    }
+    
+    /**
+     * The outcome of a transformation to text
+     */
+    public static class TransformedText implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final String status;
+        private final String transformException;
+        private final Long transformDuration;
+        private final String textFile;
+        private final transient ContentReader textReader;
+        
+        private TransformedText(String status, String transformException, Long transformDuration, ContentReader textReader)
+        {
+            this.status = status;
+            this.transformException = transformException;
+            this.transformDuration = transformDuration;
+            this.textReader = textReader;
+            this.textFile = (textReader instanceof FileContentReader) ? ((FileContentReader) textReader).getFile().getPath() : null;
+        }
+        
+        public String getStatus()
+        {
+            return status;
+        }
+        
+        public String getTransformException()
+        {
+            return transformException;
+        }
+        
+        public Long getTransformDuration()
+        {
+            return transformDuration;
+        }
+        
+        /**
+         * @return              <tt>true</tt> if the transformation succeeded
+         */
+        public boolean isTransformed()
+        {
+            return STATUS_OK.equals(status);
+        }
+        
+        /**
+         * @return              the text if the transformation succeeded, otherwise <tt>null</tt>
+         */
+        public ContentReader getTextReader()
+        {
+            if (!isTransformed())
+            {
+                return null;
+            }
+            if (textFile == null)
+            {
+                // Not cached, so only read once
+                return textReader;
+            }
+            // A reader can only be read once, but cached text is shared
+            ContentReader reader = new FileContentReader(new File(textFile));
+            reader.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
+            reader.setEncoding("UTF-8");
+            return reader;
+        }
+        
+        /**
+         * A failed or missing transformation may succeed next time (e.g. once a transformer is available again),
+         * so only successful transformations to a file, which can be read again, are shared.
+         * 
+         * @return              <tt>true</tt> if the text can be handed out again for the same content
+         */
+        boolean isCacheable()
+        {
+            return isTransformed() && textFile != null;
+        }
+        
+        private boolean isAvailable()
+        {
+            return isCacheable() && new File(textFile).exists();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "TransformedText [status=" + status + ", transformDuration=" + transformDuration + ", textFile=" + textFile + "]";
+        }
+    }
+}
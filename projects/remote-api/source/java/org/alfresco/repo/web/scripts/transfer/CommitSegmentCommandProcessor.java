@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package org.alfresco.repo.web.scripts.transfer;
+
+import java.io.StringWriter;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.alfresco.service.cmr.transfer.TransferException;
+import org.alfresco.service.cmr.transfer.TransferReceiver;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+import org.springframework.extensions.webscripts.WrappingWebScriptRequest;
+import org.springframework.extensions.webscripts.json.JSONWriter;
+import org.springframework.extensions.webscripts.servlet.WebScriptServletRequest;
+
+/**
+ * This command processor is used to apply one segment of a snapshot sent in segments, ahead of the commit 
+ * of the transfer.   Unlike the commit of a transfer, the segment is applied before the response is sent.
+ * 
+ * @since 5.2
+ */
+public class CommitSegmentCommandProcessor implements CommandProcessor
+{
+    private static final String MSG_CAUGHT_UNEXPECTED_EXCEPTION = "transfer_service.receiver.caught_unexpected_exception";
+    
+    private static Log logger = LogFactory.getLog(CommitSegmentCommandProcessor.class);
+
+    private TransferReceiver receiver;
+
+    /*
+     * (non-Javadoc)
+     * 
+     * @see org.alfresco.repo.web.scripts.transfer.CommandProcessor#process(org.alfresco .web.scripts.WebScriptRequest,
+     * org.alfresco.web.scripts.WebScriptResponse)
+     */
+    public int process(WebScriptRequest req, WebScriptResponse resp)
+    {   
+
+        //Read the transfer id from the request
+        // Unwrap to a WebScriptServletRequest if we have one
+        WebScriptServletRequest webScriptServletRequest = null;
+        WebScriptRequest current = req;
+        do
+        {
+            if (current instanceof WebScriptServletRequest)
+            {
+                webScriptServletRequest = (WebScriptServletRequest) current;
+                current = null;
+            }
+            else if (current instanceof WrappingWebScriptRequest)
+            {
+                current = ((WrappingWebScriptRequest) req).getNext();
+            }
+            else
+            {
+                current = null;
+            }
+        }
+        while (current != null);
+        
+        HttpServletRequest servletRequest = webScriptServletRequest.getHttpServletRequest();
+        String transferId = servletRequest.getParameter("transferId");
+        int segment;
+        try
+        {
+            segment = Integer.parseInt(servletRequest.getParameter("segment"));
+        }
+        catch (NumberFormatException e)
+        {
+            segment = -1;
+        }
+
+        if ((transferId == null) || (segment < 0))
+        {
+            logger.debug("transferId or segment is missing");
+            resp.setStatus(Status.STATUS_BAD_REQUEST);
+            return Status.STATUS_BAD_REQUEST;
+        }
+        
+        try
+        {   
+            receiver.commitSegment(transferId, segment);
+
+            // return the transfer id once the segment has been applied
+            StringWriter stringWriter = new StringWriter(300);
+            JSONWriter jsonWriter = new JSONWriter(stringWriter);
+            jsonWriter.startObject();
+            jsonWriter.writeValue("transferId", transferId);
+            jsonWriter.endObject();
+            String response = stringWriter.toString();
+            
+            resp.setContentType("application/json");
+            resp.setContentEncoding("UTF-8");
+            int length = response.getBytes("UTF-8").length;
+            resp.addHeader("Content-Length", "" + length);
+            resp.setStatus(Status.STATUS_OK);
+            resp.getWriter().write(response);
+            
+            return Status.STATUS_OK;
+        } 
+        catch (Exception ex)
+        {
+            if (logger.isDebugEnabled()) 
+            {
+                logger.debug("caught exception :" + ex.toString(), ex);
+            }
+            if (ex instanceof TransferException)
+            {
+                throw (TransferException) ex;
+            }
+            throw new TransferException(MSG_CAUGHT_UNEXPECTED_EXCEPTION, ex);
+        }
+    }
+
+    /**
+     * @param receiver the receiver to set
+     */
+    public void setReceiver(TransferReceiver receiver)
+    {
+        this.receiver = receiver;
+    }
+
+    
+}
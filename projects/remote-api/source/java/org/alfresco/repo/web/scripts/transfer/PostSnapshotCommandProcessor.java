@@ -55,6 +55,8 @@ public class PostSnapshotCommandProcessor implements CommandProcessor
 {
     private TransferReceiver receiver;
     
+    private boolean segmented = false;
+    
     private static Log logger = LogFactory.getLog(PostSnapshotCommandProcessor.class);
 
     private static final String MSG_CAUGHT_UNEXPECTED_EXCEPTION = "transfer_service.receiver.caught_unexpected_exception";
@@ -107,6 +109,22 @@ public class PostSnapshotCommandProcessor implements CommandProcessor
             return Status.STATUS_BAD_REQUEST;
         }
         
+        //Read the segment number from the request, if the snapshot is sent in segments
+        int segment = 0;
+        if (segmented)
+        {
+            try
+            {
+                segment = Integer.parseInt(servletRequest.getParameter("segment"));
+            }
+            catch (NumberFormatException e)
+            {
+                logger.debug("bad request, segment missing");
+                resp.setStatus(Status.STATUS_BAD_REQUEST);
+                return Status.STATUS_BAD_REQUEST;
+            }
+        }
+        
         try 
         {
             logger.debug("about to upload manifest file");
@@ -119,7 +137,14 @@ public class PostSnapshotCommandProcessor implements CommandProcessor
                 if (!item.isFormField() && TransferCommons.PART_NAME_MANIFEST.equals(item.getFieldName())) 
                 {
                     logger.debug("got manifest file");
-                    receiver.saveSnapshot(transferId, item.openStream());
+                    if (segmented)
+                    {
+                        receiver.saveSnapshotSegment(transferId, segment, item.openStream());
+                    }
+                    else
+                    {
+                        receiver.saveSnapshot(transferId, item.openStream());
+                    }
                 }
             }
           
@@ -130,7 +155,14 @@ public class PostSnapshotCommandProcessor implements CommandProcessor
             resp.setContentType("text/xml");
             resp.setContentEncoding("utf-8");
    
-            receiver.generateRequsite(transferId, out);
+            if (segmented)
+            {
+                receiver.generateSegmentRequsite(transferId, segment, out);
+            }
+            else
+            {
+                receiver.generateRequsite(transferId, out);
+            }
             
             out.close();
                         
@@ -160,4 +192,12 @@ public class PostSnapshotCommandProcessor implements CommandProcessor
         this.receiver = receiver;
     }
 
+    /**
+     * @param segmented true if each request holds one segment of a snapshot sent in segments
+     */
+    public void setSegmented(boolean segmented)
+    {
+        this.segmented = segmented;
+    }
+
 }
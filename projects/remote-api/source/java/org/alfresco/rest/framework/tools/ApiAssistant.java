@@ -165,23 +165,7 @@ public class ApiAssistant {
      */
     public void renderErrorResponse(ErrorResponse errorResponse, final WebScriptResponse res) throws IOException {
 
-        String logId = "";
-
-        if (Status.STATUS_INTERNAL_SERVER_ERROR == errorResponse.getStatusCode() || logger.isDebugEnabled())
-        {
-            logId = org.alfresco.util.GUID.generate();
-            logger.error(logId+" : "+errorResponse.getStackTrace());
-        }
-
-        String stackMessage = I18NUtil.getMessage(DefaultExceptionResolver.STACK_MESSAGE_ID);
-
-        final ErrorResponse errorToWrite = new ErrorResponse(errorResponse.getErrorKey(),
-                errorResponse.getStatusCode(),
-                errorResponse.getBriefSummary(),
-                stackMessage,
-                logId,
-                errorResponse.getAdditionalState(),
-                DefaultExceptionResolver.ERROR_URL);
+        final ErrorResponse errorToWrite = toPublicErrorResponse(errorResponse);
 
         setContentInfoOnResponse(res, DEFAULT_JSON_CONTENT);
 
@@ -203,6 +187,32 @@ public class ApiAssistant {
         });
     }
 
+    /**
+     * Prepares an error so it can be written to the client, the stack trace is logged against a log id instead of being returned.
+     * @param errorResponse The resolved error
+     * @return ErrorResponse
+     */
+    public ErrorResponse toPublicErrorResponse(ErrorResponse errorResponse)
+    {
+        String logId = "";
+
+        if (Status.STATUS_INTERNAL_SERVER_ERROR == errorResponse.getStatusCode() || logger.isDebugEnabled())
+        {
+            logId = org.alfresco.util.GUID.generate();
+            logger.error(logId+" : "+errorResponse.getStackTrace());
+        }
+
+        String stackMessage = I18NUtil.getMessage(DefaultExceptionResolver.STACK_MESSAGE_ID);
+
+        return new ErrorResponse(errorResponse.getErrorKey(),
+                errorResponse.getStatusCode(),
+                errorResponse.getBriefSummary(),
+                stackMessage,
+                logId,
+                errorResponse.getAdditionalState(),
+                DefaultExceptionResolver.ERROR_URL);
+    }
+
     public JacksonHelper getJsonHelper() {
         return jsonHelper;
     }
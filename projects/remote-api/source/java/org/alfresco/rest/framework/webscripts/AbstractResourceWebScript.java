@@ -306,6 +306,11 @@ public abstract class AbstractResourceWebScript extends ApiWebScript implements
         return this.httpMethod;
     }
 
+    public ParamsExtractor getParamsExtractor()
+    {
+        return this.paramsExtractor;
+    }
+
     public void setStreamer(ContentStreamer streamer)
     {
         this.streamer = streamer;
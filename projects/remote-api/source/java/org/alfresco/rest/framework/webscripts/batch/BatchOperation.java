@@ -0,0 +1,122 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.rest.framework.webscripts.batch;
+
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.codehaus.jackson.JsonNode;
+import org.springframework.http.HttpMethod;
+
+/**
+ * A single operation inside a batch request.<br/>
+ * method - The http method to use, one of POST, PUT or DELETE<br/>
+ * url - The resource url relative to the api version eg. nodes/-root-/children?autoRename=true<br/>
+ * body - The JSON body the operation would have been sent with
+ */
+public class BatchOperation
+{
+    private String method;
+    private String url;
+    private JsonNode body;
+
+    public BatchOperation()
+    {
+    }
+
+    public BatchOperation(String method, String url, JsonNode body)
+    {
+        this.method = method;
+        this.url = url;
+        this.body = body;
+    }
+
+    public String getMethod()
+    {
+        return this.method;
+    }
+
+    public void setMethod(String method)
+    {
+        this.method = method;
+    }
+
+    public String getUrl()
+    {
+        return this.url;
+    }
+
+    public void setUrl(String url)
+    {
+        this.url = url;
+    }
+
+    public JsonNode getBody()
+    {
+        return this.body;
+    }
+
+    public void setBody(JsonNode body)
+    {
+        this.body = body;
+    }
+
+    /**
+     * Gets the HttpMethod of this operation, only methods which modify a resource are supported in a batch.
+     * @return HttpMethod
+     * @throws InvalidArgumentException if the method is missing or not supported.
+     */
+    public HttpMethod getHttpMethod()
+    {
+        if (method != null)
+        {
+            try
+            {
+                HttpMethod httpMethod = HttpMethod.valueOf(method.trim().toUpperCase());
+                switch (httpMethod)
+                {
+                    case POST:
+                    case PUT:
+                    case DELETE:
+                        return httpMethod;
+                    default:
+                        break;
+                }
+            }
+            catch (IllegalArgumentException error)
+            {
+                // Fall through
+            }
+        }
+        throw new InvalidArgumentException("Unsupported batch operation method: "+method);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("BatchOperation [method=").append(this.method).append(", url=").append(this.url).append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.rest.framework.webscripts.batch;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.rest.framework.core.ResourceLocator;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.extensions.surf.util.Content;
+import org.springframework.extensions.webscripts.Description.FormatStyle;
+import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.Runtime;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WrappingWebScriptRequest;
+
+/**
+ * Presents a single {@link BatchOperation} as if it was a WebScriptRequest of its own, so the
+ * existing ParamsExtractors can be used.  The template variables, request parameters and content
+ * come from the operation, everything else is delegated to the batch request.
+ */
+public class BatchOperationRequest implements WrappingWebScriptRequest
+{
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final String[] TEMPLATE_PATH = { ResourceLocator.COLLECTION_RESOURCE, ResourceLocator.ENTITY_ID,
+                ResourceLocator.RELATIONSHIP_RESOURCE, ResourceLocator.RELATIONSHIP_ID, ResourceLocator.PROPERTY };
+
+    private final WebScriptRequest req;
+    private final Match match;
+    private final String queryString;
+    private final Map<String, List<String>> parameters;
+    private final byte[] body;
+
+    public BatchOperationRequest(WebScriptRequest req, BatchOperation operation)
+    {
+        this.req = req;
+
+        String url = operation.getUrl();
+        if (StringUtils.isBlank(url))
+        {
+            throw new InvalidArgumentException("A batch operation must have a url");
+        }
+        int queryStart = url.indexOf('?');
+        String path = (queryStart < 0) ? url : url.substring(0, queryStart);
+        this.queryString = (queryStart < 0) ? null : url.substring(queryStart + 1);
+
+        Map<String, String> templateVars = new HashMap<String, String>(req.getServiceMatch().getTemplateVars());
+        templateVars.putAll(getTemplateVars(path));
+        this.match = new Match(req.getServiceMatch().getTemplate(), templateVars, path, req.getServiceMatch().getWebScript());
+        this.parameters = getParameters(queryString);
+        this.body = (operation.getBody() == null) ? new byte[0] : operation.getBody().toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps the path of an operation url onto the resource template variables eg. nodes/{entityId}/children
+     * @param path the url path, relative to the api version
+     * @return Map of template variables
+     */
+    static Map<String, String> getTemplateVars(String path)
+    {
+        String[] segments = StringUtils.split(path, '/');
+        if (segments.length == 0 || segments.length > TEMPLATE_PATH.length)
+        {
+            throw new InvalidArgumentException("Invalid batch operation url: " + path);
+        }
+
+        Map<String, String> templateVars = new HashMap<String, String>(segments.length);
+        for (int i = 0; i < segments.length; i++)
+        {
+            templateVars.put(TEMPLATE_PATH[i], decode(segments[i]));
+        }
+        return templateVars;
+    }
+
+    /**
+     * Parses a query string into request parameters, in the order they appear
+     * @param queryString String (may be null)
+     * @return Map of parameter values
+     */
+    static Map<String, List<String>> getParameters(String queryString)
+    {
+        if (StringUtils.isBlank(queryString))
+        {
+            return Collections.emptyMap();
+        }
+
+        Map<String, List<String>> parameters = new LinkedHashMap<String, List<String>>();
+        for (String pair : StringUtils.split(queryString, '&'))
+        {
+            int equals = pair.indexOf('=');
+            String name = decode((equals < 0) ? pair : pair.substring(0, equals));
+            String value = (equals < 0) ? "" : decode(pair.substring(equals + 1));
+            List<String> values = parameters.get(name);
+            if (values == null)
+            {
+                values = new ArrayList<String>(1);
+                parameters.put(name, values);
+            }
+            values.add(value);
+        }
+        return parameters;
+    }
+
+    private static String decode(String value)
+    {
+        try
+        {
+            return URLDecoder.decode(value, "UTF-8");
+        }
+        catch (UnsupportedEncodingException error)
+        {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    @Override
+    public WebScriptRequest getNext()
+    {
+        return req;
+    }
+
+    @Override
+    public Match getServiceMatch()
+    {
+        return match;
+    }
+
+    @Override
+    public String getQueryString()
+    {
+        return queryString;
+    }
+
+    @Override
+    public String[] getParameterNames()
+    {
+        return parameters.keySet().toArray(new String[parameters.size()]);
+    }
+
+    @Override
+    public String getParameter(String name)
+    {
+        List<String> values = parameters.get(name);
+        return (values == null || values.isEmpty()) ? null : values.get(0);
+    }
+
+    @Override
+    public String[] getParameterValues(String name)
+    {
+        List<String> values = parameters.get(name);
+        return (values == null) ? null : values.toArray(new String[values.size()]);
+    }
+
+    @Override
+    public String getContentType()
+    {
+        return JSON_CONTENT_TYPE;
+    }
+
+    @Override
+    public Content getContent()
+    {
+        return new Content()
+        {
+            @Override
+            public String getContent() throws IOException
+            {
+                return new String(body, StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String getEncoding()
+            {
+                return StandardCharsets.UTF_8.name();
+            }
+
+            @Override
+            public String getMimetype()
+            {
+                return JSON_CONTENT_TYPE;
+            }
+
+            @Override
+            public long getSize()
+            {
+                return body.length;
+            }
+
+            @Override
+            public InputStream getInputStream()
+            {
+                return new ByteArrayInputStream(body);
+            }
+
+            @Override
+            public BufferedReader getReader() throws IOException
+            {
+                return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+            }
+        };
+    }
+
+    @Override
+    public Object parseContent()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean forceSuccessStatus()
+    {
+        return req.forceSuccessStatus();
+    }
+
+    @Override
+    public String getAgent()
+    {
+        return req.getAgent();
+    }
+
+    @Override
+    public String getContextPath()
+    {
+        return req.getContextPath();
+    }
+
+    @Override
+    public String getExtensionPath()
+    {
+        return req.getExtensionPath();
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return req.getFormat();
+    }
+
+    @Override
+    public FormatStyle getFormatStyle()
+    {
+        return req.getFormatStyle();
+    }
+
+    @Override
+    public String getHeader(String name)
+    {
+        return req.getHeader(name);
+    }
+
+    @Override
+    public String[] getHeaderNames()
+    {
+        return req.getHeaderNames();
+    }
+
+    @Override
+    public String[] getHeaderValues(String name)
+    {
+        return req.getHeaderValues(name);
+    }
+
+    @Override
+    public String getJSONCallback()
+    {
+        return req.getJSONCallback();
+    }
+
+    @Override
+    public String getPathInfo()
+    {
+        return req.getPathInfo();
+    }
+
+    @Override
+    public Runtime getRuntime()
+    {
+        return req.getRuntime();
+    }
+
+    @Override
+    public String getServerPath()
+    {
+        return req.getServerPath();
+    }
+
+    @Override
+    public String getServiceContextPath()
+    {
+        return req.getServiceContextPath();
+    }
+
+    @Override
+    public String getServicePath()
+    {
+        return req.getServicePath();
+    }
+
+    @Override
+    public String getURL()
+    {
+        return req.getURL();
+    }
+
+    @Override
+    public boolean isGuest()
+    {
+        return req.isGuest();
+    }
+}
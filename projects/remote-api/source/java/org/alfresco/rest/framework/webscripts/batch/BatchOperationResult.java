@@ -0,0 +1,94 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.rest.framework.webscripts.batch;
+
+import org.alfresco.rest.framework.core.exceptions.ErrorResponse;
+
+/**
+ * The outcome of a single {@link BatchOperation}, either an entry or an error.
+ */
+public class BatchOperationResult
+{
+    private final int index;
+    private final int status;
+    private final Object entry;
+    private final ErrorResponse error;
+
+    private BatchOperationResult(int index, int status, Object entry, ErrorResponse error)
+    {
+        this.index = index;
+        this.status = status;
+        this.entry = entry;
+        this.error = error;
+    }
+
+    public static BatchOperationResult success(int index, int status, Object entry)
+    {
+        return new BatchOperationResult(index, status, entry, null);
+    }
+
+    public static BatchOperationResult failure(int index, ErrorResponse error)
+    {
+        return new BatchOperationResult(index, error.getStatusCode(), null, error);
+    }
+
+    /**
+     * The position of the operation in the batch request
+     * @return int
+     */
+    public int getIndex()
+    {
+        return this.index;
+    }
+
+    /**
+     * The http status the operation would have returned on its own
+     * @return int
+     */
+    public int getStatus()
+    {
+        return this.status;
+    }
+
+    public Object getEntry()
+    {
+        return this.entry;
+    }
+
+    public ErrorResponse getError()
+    {
+        return this.error;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        builder.append("BatchOperationResult [index=").append(this.index).append(", status=").append(this.status)
+               .append(", error=").append(this.error).append("]");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.rest.framework.webscripts.batch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.rest.framework.Api;
+import org.alfresco.rest.framework.core.ResourceInspector;
+import org.alfresco.rest.framework.core.ResourceLocator;
+import org.alfresco.rest.framework.core.ResourceOperation;
+import org.alfresco.rest.framework.core.ResourceWithMetadata;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.core.exceptions.RequestEntityTooLargeException;
+import org.alfresco.rest.framework.core.exceptions.UnsupportedResourceOperationException;
+import org.alfresco.rest.framework.jacksonextensions.JacksonHelper;
+import org.alfresco.rest.framework.resource.content.BinaryResource;
+import org.alfresco.rest.framework.resource.parameters.CollectionWithPagingInfo;
+import org.alfresco.rest.framework.resource.parameters.Params;
+import org.alfresco.rest.framework.tools.ApiAssistant;
+import org.alfresco.rest.framework.webscripts.AbstractResourceWebScript;
+import org.alfresco.rest.framework.webscripts.ApiWebScript;
+import org.alfresco.rest.framework.webscripts.ResourceWebScriptHelper;
+import org.alfresco.rest.framework.webscripts.WithResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.JsonMappingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+import org.springframework.http.HttpMethod;
+
+/**
+ * Executes a list of create/update/delete operations against existing Entity and Relationship resources
+ * in a single HTTP request.
+ *
+ * The operations are executed in order, in chunks of <i>chunkSize</i> operations per transaction. If an operation
+ * fails then its chunk is rolled back and re-executed with one transaction per operation, so every operation gets
+ * its own result and a failure never affects an operation in a different transaction.
+ *
+ * The operations are dispatched using the same {@link ResourceLocator} and ActionExecutors as the individual
+ * requests would have been.
+ */
+public class BatchWebScriptPost extends ApiWebScript
+{
+    private static Log logger = LogFactory.getLog(BatchWebScriptPost.class);
+
+    public static final String PARAM_CHUNK_SIZE = "chunkSize";
+
+    private ResourceLocator locator;
+    private ResourceWebScriptHelper helper;
+    private Map<HttpMethod, AbstractResourceWebScript> executors = new HashMap<HttpMethod, AbstractResourceWebScript>();
+    private int chunkSize = 100;
+    private int maxOperations = 1000;
+
+    @Override
+    public void execute(final Api api, final WebScriptRequest req, final WebScriptResponse res) throws IOException
+    {
+        try
+        {
+            final List<BatchOperation> operations = ResourceWebScriptHelper.extractJsonContentAsList(req, assistant.getJsonHelper(), BatchOperation.class);
+            if (operations.size() > maxOperations)
+            {
+                throw new RequestEntityTooLargeException();
+            }
+            final int size = getChunkSize(req);
+
+            final List<BatchOperationResult> results = new ArrayList<BatchOperationResult>(operations.size());
+            for (int offset = 0; offset < operations.size(); offset += size)
+            {
+                List<BatchOperation> chunk = operations.subList(offset, Math.min(offset + size, operations.size()));
+                results.addAll(executeChunk(api, req, res, chunk, offset));
+            }
+
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Executed a batch of " + operations.size() + " operations in chunks of " + size);
+            }
+            res.setStatus(Status.STATUS_OK);
+            res.setCache(ApiAssistant.CACHE_NEVER);
+            assistant.setContentInfoOnResponse(res, ApiAssistant.DEFAULT_JSON_CONTENT);
+            renderJsonResponse(res, CollectionWithPagingInfo.asPagedCollection(results.toArray()));
+        }
+        catch (RuntimeException runtimeException)
+        {
+            assistant.renderException(runtimeException, res);
+        }
+    }
+
+    /**
+     * Finds the number of operations per transaction, the client may ask for smaller chunks than the configured size.
+     * @param req WebScriptRequest
+     * @return int
+     */
+    protected int getChunkSize(WebScriptRequest req)
+    {
+        String requested = req.getParameter(PARAM_CHUNK_SIZE);
+        if (requested == null)
+        {
+            return chunkSize;
+        }
+        try
+        {
+            int size = Integer.parseInt(requested);
+            if (size < 1)
+            {
+                throw new InvalidArgumentException("Invalid " + PARAM_CHUNK_SIZE + ": " + requested);
+            }
+            return Math.min(size, chunkSize);
+        }
+        catch (NumberFormatException error)
+        {
+            throw new InvalidArgumentException("Invalid " + PARAM_CHUNK_SIZE + ": " + requested);
+        }
+    }
+
+    /**
+     * Executes a chunk of operations in a single transaction. If any of them fail the chunk is rolled back and
+     * each operation is executed again in a transaction of its own.
+     */
+    protected List<BatchOperationResult> executeChunk(final Api api, final WebScriptRequest req, final WebScriptResponse res,
+                final List<BatchOperation> chunk, final int offset)
+    {
+        if (chunk.size() > 1)
+        {
+            try
+            {
+                return transactionService.getRetryingTransactionHelper().doInTransaction(
+                        new RetryingTransactionHelper.RetryingTransactionCallback<List<BatchOperationResult>>()
+                        {
+                            @Override
+                            public List<BatchOperationResult> execute() throws Throwable
+                            {
+                                List<BatchOperationResult> results = new ArrayList<BatchOperationResult>(chunk.size());
+                                for (int i = 0; i < chunk.size(); i++)
+                                {
+                                    results.add(executeOperation(api, req, res, chunk.get(i), offset + i));
+                                }
+                                return results;
+                            }
+                        }, false, true);
+            }
+            catch (RuntimeException chunkFailure)
+            {
+                if (logger.isDebugEnabled())
+                {
+                    logger.debug("Batch chunk starting at " + offset + " failed, executing its operations individually: " + chunkFailure.getMessage());
+                }
+            }
+        }
+
+        List<BatchOperationResult> results = new ArrayList<BatchOperationResult>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++)
+        {
+            results.add(executeIsolated(api, req, res, chunk.get(i), offset + i));
+        }
+        return results;
+    }
+
+    /**
+     * Executes a single operation in its own transaction, any failure is returned as the result of the operation.
+     */
+    protected BatchOperationResult executeIsolated(final Api api, final WebScriptRequest req, final WebScriptResponse res,
+                final BatchOperation operation, final int index)
+    {
+        try
+        {
+            return transactionService.getRetryingTransactionHelper().doInTransaction(
+                    new RetryingTransactionHelper.RetryingTransactionCallback<BatchOperationResult>()
+                    {
+                        @Override
+                        public BatchOperationResult execute() throws Throwable
+                        {
+                            return executeOperation(api, req, res, operation, index);
+                        }
+                    }, false, true);
+        }
+        catch (Exception error)
+        {
+            return BatchOperationResult.failure(index, assistant.toPublicErrorResponse(assistant.resolveException(error)));
+        }
+    }
+
+    /**
+     * Locates the resource for the operation and executes it with the matching ActionExecutor, must be called
+     * inside a transaction.
+     */
+    protected BatchOperationResult executeOperation(Api api, WebScriptRequest req, WebScriptResponse res,
+                BatchOperation operation, int index) throws Throwable
+    {
+        final HttpMethod httpMethod = operation.getHttpMethod();
+        final AbstractResourceWebScript executor = executors.get(httpMethod);
+        if (executor == null)
+        {
+            throw new UnsupportedResourceOperationException(httpMethod + " is not supported in a batch");
+        }
+
+        final BatchOperationRequest operationReq = new BatchOperationRequest(req, operation);
+        final ResourceWithMetadata resource = locator.locateResource(api, operationReq.getServiceMatch().getTemplateVars(), httpMethod);
+        final Params params = executor.getParamsExtractor().extractParams(resource.getMetaData(), operationReq);
+        final ResourceOperation resourceOperation = resource.getMetaData().getOperation(httpMethod);
+        final WithResponse callBack = new WithResponse(resourceOperation.getSuccessStatus(), ApiAssistant.DEFAULT_JSON_CONTENT, ApiAssistant.CACHE_NEVER);
+
+        Object result = executor.executeAction(resource, params, callBack);
+        if (result instanceof BinaryResource)
+        {
+            throw new UnsupportedResourceOperationException("Binary content can not be returned in a batch");
+        }
+        String entityCollectionName = ResourceInspector.findEntityCollectionNameName(resource.getMetaData());
+        Object entry = helper.processAdditionsToTheResponse(res, api, entityCollectionName, params, result);
+        return BatchOperationResult.success(index, callBack.getStatus(), entry);
+    }
+
+    protected void renderJsonResponse(final WebScriptResponse res, final Object toSerialize) throws IOException
+    {
+        assistant.getJsonHelper().withWriter(res.getOutputStream(), new JacksonHelper.Writer()
+        {
+            @Override
+            public void writeContents(JsonGenerator generator, ObjectMapper objectMapper)
+                        throws JsonGenerationException, JsonMappingException, IOException
+            {
+                objectMapper.writeValue(generator, toSerialize);
+            }
+        });
+    }
+
+    public void setLocator(ResourceLocator locator)
+    {
+        this.locator = locator;
+    }
+
+    public void setHelper(ResourceWebScriptHelper helper)
+    {
+        this.helper = helper;
+    }
+
+    /**
+     * The resource webscripts to dispatch the operations to, one per HttpMethod
+     * @param executors List
+     */
+    public void setExecutors(List<AbstractResourceWebScript> executors)
+    {
+        this.executors = new HashMap<HttpMethod, AbstractResourceWebScript>();
+        for (AbstractResourceWebScript executor : executors)
+        {
+            this.executors.put(executor.getHttpMethod(), executor);
+        }
+    }
+
+    public void setChunkSize(int chunkSize)
+    {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setMaxOperations(int maxOperations)
+    {
+        this.maxOperations = maxOperations;
+    }
+}
@@ -37,7 +37,7 @@ import org.junit.runners.Suite.SuiteClasses;
 @SuiteClasses({ InspectorTests.class, JsonJacksonTests.class, ParamsExtractorTests.class,
             ResourceLocatorTests.class, ResourceWebScriptHelperTests.class, SerializeTests.class,
             WhereTests.class, ExecutionTests.class, WithResponseTest.class,
-            ExceptionResolverTests.class })
+            ExceptionResolverTests.class, BatchOperationRequestTest.class, BatchWebScriptPostTest.class })
 public class AllRestFrameworkTest
 {
 
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+
+package org.alfresco.rest.framework.tests.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.rest.framework.core.ResourceLocator;
+import org.alfresco.rest.framework.core.exceptions.InvalidArgumentException;
+import org.alfresco.rest.framework.webscripts.batch.BatchOperation;
+import org.alfresco.rest.framework.webscripts.batch.BatchOperationRequest;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.http.HttpMethod;
+
+/**
+ * Tests the mapping of batch operations onto resource requests
+ */
+public class BatchOperationRequestTest
+{
+    @Test
+    public void testTemplateVars() throws Exception
+    {
+        BatchOperationRequest req = new BatchOperationRequest(mockBatchRequest(), new BatchOperation("post", "nodes/-root-/children", null));
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        assertEquals("nodes", templateVars.get(ResourceLocator.COLLECTION_RESOURCE));
+        assertEquals("-root-", templateVars.get(ResourceLocator.ENTITY_ID));
+        assertEquals("children", templateVars.get(ResourceLocator.RELATIONSHIP_RESOURCE));
+        assertNull(templateVars.get(ResourceLocator.RELATIONSHIP_ID));
+        assertEquals("1", templateVars.get("apiVersion"));
+
+        req = new BatchOperationRequest(mockBatchRequest(), new BatchOperation("PUT", "/sites/a%20site/members/fred/content/", null));
+        templateVars = req.getServiceMatch().getTemplateVars();
+        assertEquals("sites", templateVars.get(ResourceLocator.COLLECTION_RESOURCE));
+        assertEquals("a site", templateVars.get(ResourceLocator.ENTITY_ID));
+        assertEquals("fred", templateVars.get(ResourceLocator.RELATIONSHIP_ID));
+        assertEquals("content", templateVars.get(ResourceLocator.PROPERTY));
+
+        try
+        {
+            new BatchOperationRequest(mockBatchRequest(), new BatchOperation("PUT", "a/b/c/d/e/f", null));
+            fail("Too many path segments");
+        }
+        catch (InvalidArgumentException error)
+        {
+            // expected
+        }
+
+        try
+        {
+            new BatchOperationRequest(mockBatchRequest(), new BatchOperation("PUT", " ", null));
+            fail("A url is required");
+        }
+        catch (InvalidArgumentException error)
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testParameters() throws Exception
+    {
+        BatchOperationRequest req = new BatchOperationRequest(mockBatchRequest(), new BatchOperation("POST", "nodes/-root-/children?autoRename=true&include=path&include=a%2Cb&fields", null));
+        assertEquals("autoRename=true&include=path&include=a%2Cb&fields", req.getQueryString());
+        assertArrayEquals(new String[] { "autoRename", "include", "fields" }, req.getParameterNames());
+        assertEquals("true", req.getParameter("autoRename"));
+        assertArrayEquals(new String[] { "path", "a,b" }, req.getParameterValues("include"));
+        assertEquals("", req.getParameter("fields"));
+        assertNull(req.getParameter("where"));
+
+        req = new BatchOperationRequest(mockBatchRequest(), new BatchOperation("DELETE", "nodes/abc", null));
+        assertNull(req.getQueryString());
+        assertEquals(0, req.getParameterNames().length);
+    }
+
+    @Test
+    public void testContent() throws Exception
+    {
+        ObjectMapper mapper = new ObjectMapper();
+        BatchOperationRequest req = new BatchOperationRequest(mockBatchRequest(),
+                    new BatchOperation("POST", "nodes/-root-/children", mapper.readTree("{\"name\":\"folder\",\"nodeType\":\"cm:folder\"}")));
+        assertEquals("application/json", req.getContentType());
+        assertEquals(mapper.readTree("{\"name\":\"folder\",\"nodeType\":\"cm:folder\"}"), mapper.readTree(req.getContent().getReader()));
+        // The content can be read again, eg. when the transaction is retried
+        assertEquals(mapper.readTree("{\"name\":\"folder\",\"nodeType\":\"cm:folder\"}"), mapper.readTree(req.getContent().getInputStream()));
+
+        req = new BatchOperationRequest(mockBatchRequest(), new BatchOperation("DELETE", "nodes/abc", null));
+        assertEquals(0, req.getContent().getSize());
+    }
+
+    @Test
+    public void testMethods() throws Exception
+    {
+        assertEquals(HttpMethod.POST, new BatchOperation("post", "nodes", null).getHttpMethod());
+        assertEquals(HttpMethod.PUT, new BatchOperation(" PUT ", "nodes", null).getHttpMethod());
+        assertEquals(HttpMethod.DELETE, new BatchOperation("Delete", "nodes", null).getHttpMethod());
+
+        for (String method : new String[] { "GET", "OPTIONS", "FETCH", null })
+        {
+            try
+            {
+                new BatchOperation(method, "nodes", null).getHttpMethod();
+                fail(method + " should not be supported in a batch");
+            }
+            catch (InvalidArgumentException error)
+            {
+                // expected
+            }
+        }
+    }
+
+    private WebScriptRequest mockBatchRequest()
+    {
+        Map<String, String> templateVars = new HashMap<String, String>();
+        templateVars.put("apiScope", "public");
+        templateVars.put("apiName", "alfresco");
+        templateVars.put("apiVersion", "1");
+        WebScriptRequest request = mock(WebScriptRequest.class);
+        when(request.getServiceMatch()).thenReturn(new Match(null, templateVars, null));
+        return request;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Alfresco Remote API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.rest.framework.tests.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.rest.framework.Api;
+import org.alfresco.rest.framework.core.exceptions.ErrorResponse;
+import org.alfresco.rest.framework.tools.ApiAssistant;
+import org.alfresco.rest.framework.webscripts.batch.BatchOperation;
+import org.alfresco.rest.framework.webscripts.batch.BatchOperationResult;
+import org.alfresco.rest.framework.webscripts.batch.BatchWebScriptPost;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+
+/**
+ * Tests the transactions that batch operations are executed in.
+ * <p>
+ * The transaction helper is replaced by one that only keeps the work of a transaction once its callback returns, so
+ * that the operations left in place by a rolled back chunk can be checked.
+ */
+public class BatchWebScriptPostTest
+{
+    private static final String FAIL = "fail";
+
+    private RetryingTransactionHelper transactionHelper;
+    private ErrorResponse error;
+    private TestBatchWebScriptPost batch;
+    private List<String> committed;
+    private List<String> pending;
+    private List<String> executed;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        committed = new ArrayList<String>();
+        pending = new ArrayList<String>();
+        executed = new ArrayList<String>();
+
+        transactionHelper = mock(RetryingTransactionHelper.class);
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                pending.clear();
+                try
+                {
+                    Object result = ((RetryingTransactionCallback<?>) invocation.getArguments()[0]).execute();
+                    committed.addAll(pending);
+                    return result;
+                }
+                finally
+                {
+                    pending.clear();
+                }
+            }
+        }).when(transactionHelper).doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean());
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(transactionHelper);
+
+        error = mock(ErrorResponse.class);
+        ApiAssistant assistant = mock(ApiAssistant.class);
+        when(assistant.resolveException(any(Exception.class))).thenReturn(error);
+        when(assistant.toPublicErrorResponse(error)).thenReturn(error);
+
+        batch = new TestBatchWebScriptPost();
+        batch.setTransactionService(transactionService);
+        batch.setAssistant(assistant);
+    }
+
+    @Test
+    public void testChunkCommittedInOneTransaction() throws Exception
+    {
+        List<BatchOperationResult> results = batch.executeChunk(operations("a", "b", "c"), 0);
+
+        assertEquals(Arrays.asList("a", "b", "c"), committed);
+        assertEquals(Arrays.asList("a", "b", "c"), executed);
+        assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); i++)
+        {
+            assertEquals(i, results.get(i).getIndex());
+            assertNull(results.get(i).getError());
+        }
+        verify(transactionHelper, times(1)).doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean());
+    }
+
+    @Test
+    public void testFailedChunkRolledBackAndRetriedPerOperation() throws Exception
+    {
+        List<BatchOperationResult> results = batch.executeChunk(operations("a", FAIL, "c"), 10);
+
+        // The chunk got as far as the failure, then each operation was retried in a transaction of its own
+        assertEquals(Arrays.asList("a", FAIL, "a", FAIL, "c"), executed);
+        // Only the retries left anything in place, and only for the operations that succeeded
+        assertEquals(Arrays.asList("a", "c"), committed);
+        verify(transactionHelper, times(4)).doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean());
+
+        assertEquals(3, results.size());
+        assertEquals(10, results.get(0).getIndex());
+        assertNull(results.get(0).getError());
+        assertEquals(11, results.get(1).getIndex());
+        assertSame(error, results.get(1).getError());
+        assertEquals(12, results.get(2).getIndex());
+        assertNull(results.get(2).getError());
+    }
+
+    @Test
+    public void testSingleOperationFailure() throws Exception
+    {
+        List<BatchOperationResult> results = batch.executeChunk(operations(FAIL), 0);
+
+        assertEquals(Arrays.asList(FAIL), executed);
+        assertEquals(0, committed.size());
+        assertSame(error, results.get(0).getError());
+        verify(transactionHelper, times(1)).doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean());
+    }
+
+    private static List<BatchOperation> operations(String... urls)
+    {
+        List<BatchOperation> operations = new ArrayList<BatchOperation>(urls.length);
+        for (String url : urls)
+        {
+            operations.add(new BatchOperation("POST", url, null));
+        }
+        return operations;
+    }
+
+    /**
+     * Records the operations instead of dispatching them to the resources.
+     */
+    private class TestBatchWebScriptPost extends BatchWebScriptPost
+    {
+        public List<BatchOperationResult> executeChunk(List<BatchOperation> chunk, int offset)
+        {
+            return executeChunk(null, mock(WebScriptRequest.class), mock(WebScriptResponse.class), chunk, offset);
+        }
+
+        @Override
+        protected BatchOperationResult executeOperation(Api api, WebScriptRequest req, WebScriptResponse res,
+                    BatchOperation operation, int index) throws Throwable
+        {
+            executed.add(operation.getUrl());
+            if (FAIL.equals(operation.getUrl()))
+            {
+                throw new IllegalStateException("Operation " + index + " failed");
+            }
+            pending.add(operation.getUrl());
+            return BatchOperationResult.success(index, 201, operation.getUrl());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+--
+-- Title:      Create Node Ancestor tables
+-- Database:   MySQL InnoDB
+-- Since:      V5.2 Schema 10004
+--
+-- Please contact support@alfresco.com if you need assistance with the upgrade.
+--
+
+CREATE TABLE alf_node_ancestor
+(
+    node_id BIGINT NOT NULL,
+    ancestor_id BIGINT NOT NULL,
+    depth INTEGER NOT NULL,
+    PRIMARY KEY (node_id, ancestor_id),
+    INDEX idx_alf_nanc_anc (ancestor_id)
+) ENGINE=InnoDB;
+
+--
+-- Record script finish
+--
+DELETE FROM alf_applied_patch WHERE id = 'patch.db-V5.2-NodeAncestorTables';
+INSERT INTO alf_applied_patch
+  (id, description, fixes_from_schema, fixes_to_schema, applied_to_schema, target_schema, applied_on_date, applied_to_server, was_executed, succeeded, report)
+  VALUES
+  (
+    'patch.db-V5.2-NodeAncestorTables', 'Manually executed script upgrade V5.2: Node Ancestor Tables',
+    0, 10003, -1, 10004, null, 'UNKNOWN', ${TRUE}, ${TRUE}, 'Script completed'
+  );
@@ -501,6 +501,14 @@ public class AlfrescoCmisServiceImpl extends AbstractCmisService implements Alfr
 
         if (max > 0)
         {
+            // load the whole page of children before building the objects for it
+            List<NodeRef> childNodeRefs = new ArrayList<NodeRef>(pageOfNodeInfos.getPage().size());
+            for (FileInfo child : pageOfNodeInfos.getPage())
+            {
+                childNodeRefs.add(child.getNodeRef());
+            }
+            connector.cacheNodes(childNodeRefs, renditionFilter);
+
             for (FileInfo child : pageOfNodeInfos.getPage())
             {
                 try
@@ -712,6 +720,13 @@ public class AlfrescoCmisServiceImpl extends AbstractCmisService implements Alfr
     {
         // get the children references
         List<ChildAssociationRef> childrenList = connector.getNodeService().getChildAssocs(folderNodeRef);
+        List<NodeRef> childNodeRefs = new ArrayList<NodeRef>(childrenList.size());
+        for (ChildAssociationRef child : childrenList)
+        {
+            childNodeRefs.add(child.getChildRef());
+        }
+        connector.cacheNodes(childNodeRefs, renditionFilter);
+
         for (ChildAssociationRef child : childrenList)
         {
             try
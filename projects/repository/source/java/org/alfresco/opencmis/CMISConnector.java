@@ -82,6 +82,7 @@ import org.alfresco.repo.Client;
 import org.alfresco.repo.Client.ClientType;
 import org.alfresco.repo.action.executer.ContentMetadataExtracter;
 import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.domain.node.NodeDAO;
 import org.alfresco.repo.events.EventPreparator;
 import org.alfresco.repo.events.EventPublisher;
 import org.alfresco.repo.model.filefolder.GetChildrenCannedQuery;
@@ -311,6 +312,7 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
     private TransactionService transactionService;
     private AuthenticationService authenticationService;
     private PermissionService permissionService;
+    private NodeDAO nodeDAO;
     private ModelDAO permissionModelDao;
     private CMISDictionaryService cmisDictionaryService;
     private CMISDictionaryService cmisDictionaryService11;
@@ -318,6 +320,7 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
     private CMISQueryService cmisQueryService11;
     private MimetypeService mimetypeService;
     private AuditService auditService;
+    private CMISTransactionChangeLog transactionChangeLog;
     private NamespaceService namespaceService;
     private SearchService searchService;
     private DictionaryService dictionaryService;
@@ -651,6 +654,19 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         this.permissionService = permissionService;
     }
 
+    public PermissionService getPermissionService()
+    {
+        return permissionService;
+    }
+
+    /**
+     * Sets the node DAO used to pre-load pages of objects.
+     */
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
     /**
      * Sets the permission model DAO.
      */
@@ -729,6 +745,19 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         this.auditService = auditService;
     }
 
+    /**
+     * Sets the transaction based change log, used instead of the audit trail when it is enabled.
+     */
+    public void setTransactionChangeLog(CMISTransactionChangeLog transactionChangeLog)
+    {
+        this.transactionChangeLog = transactionChangeLog;
+    }
+
+    private boolean isTransactionChangeLogEnabled()
+    {
+        return transactionChangeLog != null && transactionChangeLog.isEnabled();
+    }
+
     /**
      * Sets the namespace service.
      */
@@ -1498,6 +1527,26 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         }
     }
 
+    /**
+     * Pre-loads the nodes, aspects, properties and ACLs for a page of objects so that building their
+     * object data does not go back to the database node by node. The renditions of the nodes, and the
+     * rendition nodes themselves, are pre-loaded as well if renditions have been requested.
+     */
+    public void cacheNodes(List<NodeRef> nodeRefs, String renditionFilter)
+    {
+        if ((nodeDAO == null) || nodeRefs.isEmpty())
+        {
+            return;
+        }
+
+        nodeDAO.cacheNodes(nodeRefs);
+
+        if (!RENDITION_NONE.equals(renditionFilter))
+        {
+            getRenditionMapping().preloadRenditions(nodeRefs, nodeDAO);
+        }
+    }
+
     /**
      * Creates the CMIS object for a node.
      */
@@ -2303,13 +2352,22 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         Set<Action> allowableActions = new HashSet<Action>();
         result.setAllowableActions(allowableActions);
 
-        for (CMISActionEvaluator evaluator : info.getType().getActionEvaluators().values())
+        // evaluators that share a permission check it only once, but the answers are not kept beyond this
+        // evaluation as the ACL may change later in the request
+        try
         {
-            if (evaluator.isAllowed(info))
+            for (CMISActionEvaluator evaluator : info.getType().getActionEvaluators().values())
             {
-                allowableActions.add(evaluator.getAction());
+                if (evaluator.isAllowed(info))
+                {
+                    allowableActions.add(evaluator.getAction());
+                }
             }
         }
+        finally
+        {
+            info.clearPermissions();
+        }
 
         return result;
     }
@@ -2960,6 +3018,9 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         {
             CMISResultSetColumn[] columns = rs.getMetaData().getColumns();
 
+            // load the whole page of nodes up front rather than one row at a time
+            cacheNodes(rs.getNodeRefs(), fetchObject ? renditionFilter : RENDITION_NONE);
+
             for (CMISResultSetRow row : rs)
             {
                 NodeRef nodeRef = row.getNodeRef();
@@ -3637,6 +3698,11 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
      */
     public ObjectList getContentChanges(Holder<String> changeLogToken, BigInteger maxItems)
     {
+        if (isTransactionChangeLogEnabled())
+        {
+            return getTransactionContentChanges(changeLogToken, maxItems);
+        }
+
         final ObjectListImpl result = new ObjectListImpl();
         result.setObjects(new ArrayList<ObjectData>());
 
@@ -3697,6 +3763,72 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         return result;
     }
 
+    /**
+     * Returns content changes read from the node transactions rather than the audit trail.
+     * Deleted nodes are reported whatever their type was, as their type is no longer known.
+     */
+    private ObjectList getTransactionContentChanges(Holder<String> changeLogToken, BigInteger maxItems)
+    {
+        final ObjectListImpl result = new ObjectListImpl();
+        result.setObjects(new ArrayList<ObjectData>());
+
+        int maxResults = (maxItems == null ? 0 : maxItems.intValue());
+        maxResults = (maxResults < 1 ? objectsDefaultMaxItems.intValue() : maxResults);
+
+        String from = (changeLogToken == null ? null : changeLogToken.getValue());
+        String newChangeLogToken = transactionChangeLog.getChanges(from, getRootStoreRef(), maxResults,
+                new CMISTransactionChangeLog.ChangeCallback()
+        {
+            @Override
+            public boolean handleChange(NodeRef nodeRef, QName typeQName, boolean deleted, long commitTimeMs)
+            {
+                GregorianCalendar changeTime = new GregorianCalendar();
+                changeTime.setTimeInMillis(commitTimeMs);
+
+                if (deleted)
+                {
+                    result.getObjects().add(createChangeEvent(constructObjectId(nodeRef, null), ChangeType.DELETED, changeTime));
+                    return true;
+                }
+
+                TypeDefinitionWrapper type = getOpenCMISDictionaryService().findNodeType(typeQName);
+                if ((type == null)
+                        || (type.getBaseTypeId() != BaseTypeId.CMIS_DOCUMENT && type.getBaseTypeId() != BaseTypeId.CMIS_FOLDER)
+                        || filter(nodeRef))
+                {
+                    return false;
+                }
+                result.getObjects().add(createChangeEvent(createObjectId(nodeRef), ChangeType.UPDATED, changeTime));
+                return true;
+            }
+        });
+
+        result.setHasMoreItems(newChangeLogToken != null);
+        if (changeLogToken != null)
+        {
+            changeLogToken.setValue(newChangeLogToken);
+        }
+
+        return result;
+    }
+
+    private ObjectData createChangeEvent(String objectId, ChangeType changeType, GregorianCalendar changeTime)
+    {
+        ObjectDataImpl object = new ObjectDataImpl();
+
+        PropertiesImpl properties = new PropertiesImpl();
+        object.setProperties(properties);
+        PropertyIdImpl objectIdProperty = new PropertyIdImpl(PropertyIds.OBJECT_ID, objectId);
+        properties.addProperty(objectIdProperty);
+
+        ChangeEventInfoDataImpl changeEvent = new ChangeEventInfoDataImpl();
+        object.setChangeEventInfo(changeEvent);
+        changeEvent.setChangeType(changeType);
+        changeEvent.setChangeTime(changeTime);
+
+        return object;
+    }
+
     @SuppressWarnings("unchecked")
     private List<ObjectData> createChangeEvents(long time, Map<String, Serializable> values)
     {
@@ -3745,18 +3877,7 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
             String objectId = (String) valueMap.get(CMISChangeLogDataExtractor.KEY_OBJECT_ID);
 
             // build object
-            ObjectDataImpl object = new ObjectDataImpl();
-            result.add(object);
-
-            PropertiesImpl properties = new PropertiesImpl();
-            object.setProperties(properties);
-            PropertyIdImpl objectIdProperty = new PropertyIdImpl(PropertyIds.OBJECT_ID, objectId);
-            properties.addProperty(objectIdProperty);
-
-            ChangeEventInfoDataImpl changeEvent = new ChangeEventInfoDataImpl();
-            object.setChangeEventInfo(changeEvent);
-            changeEvent.setChangeType(changeType);
-            changeEvent.setChangeTime(changeTime);
+            result.add(createChangeEvent(objectId, changeType, changeTime));
         }
 
         return result;
@@ -3923,11 +4044,15 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         Descriptor currentDescriptor = descriptorService.getCurrentRepositoryDescriptor();
 
         // get change token
-        boolean auditEnabled = auditService.isAuditEnabled(CMIS_CHANGELOG_AUDIT_APPLICATION, "/"
+        boolean auditEnabled = isTransactionChangeLogEnabled() || auditService.isAuditEnabled(CMIS_CHANGELOG_AUDIT_APPLICATION, "/"
                 + CMIS_CHANGELOG_AUDIT_APPLICATION);
         String latestChangeLogToken = null;
 
-        if (auditEnabled)
+        if (isTransactionChangeLogEnabled())
+        {
+            latestChangeLogToken = transactionChangeLog.getLatestChangeLogToken();
+        }
+        else if (auditEnabled)
         {
             EntryIdCallback auditQueryCallback = new EntryIdCallback(false);
             AuditQueryParameters params = new AuditQueryParameters();
@@ -4056,7 +4181,7 @@ public class CMISConnector implements ApplicationContextAware, ApplicationListen
         if (renditionMapping == null)
         {
             renditionMapping = new CMISRenditionMapping(nodeService, contentService, renditionService,
-                    transactionService, kindToRenditionNames);
+                    transactionService, permissionService, kindToRenditionNames);
             
             singletonCache.put(KEY_CMIS_RENDITION_MAPPING_NODEREF, renditionMapping);
         }
@@ -52,6 +52,7 @@ import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.Path;
 import org.alfresco.service.cmr.repository.Path.ChildAssocElement;
+import org.alfresco.service.cmr.security.AccessStatus;
 import org.alfresco.service.cmr.version.Version;
 import org.alfresco.service.cmr.version.VersionDoesNotExistException;
 import org.alfresco.service.cmr.version.VersionHistory;
@@ -94,6 +95,7 @@ public class CMISNodeInfoImpl implements CMISNodeInfo
 
     private Map<QName,Serializable> nodeProps; // for nodeRef
     private Set<QName> nodeAspects; // for nodeRef
+    private Map<String, AccessStatus> permissions; // for nodeRef
 
     public CMISNodeInfoImpl()
     {
@@ -1119,6 +1121,28 @@ public class CMISNodeInfoImpl implements CMISNodeInfo
         return nodeProps;
     }
 
+    @Override
+    public AccessStatus hasPermission(String permission)
+    {
+        if (permissions == null)
+        {
+            permissions = new HashMap<String, AccessStatus>();
+        }
+        AccessStatus status = permissions.get(permission);
+        if (status == null)
+        {
+            status = connector.getPermissionService().hasPermission(nodeRef, permission);
+            permissions.put(permission, status);
+        }
+        return status;
+    }
+
+    @Override
+    public void clearPermissions()
+    {
+        permissions = null;
+    }
+
     public Set<QName> getNodeAspects()
     {
         if ((nodeAspects == null) && (nodeRef != null))
@@ -30,16 +30,23 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.model.RenditionModel;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.NodeDAO.ChildAssocRefQueryCallback;
 import org.alfresco.repo.rendition.executer.ImageRenderingEngine;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
 import org.alfresco.service.cmr.rendition.RenditionDefinition;
 import org.alfresco.service.cmr.rendition.RenditionService;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
@@ -47,18 +54,25 @@ import org.alfresco.service.cmr.repository.ContentReader;
 import org.alfresco.service.cmr.repository.ContentService;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.security.AccessStatus;
+import org.alfresco.service.cmr.security.PermissionService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
 import org.apache.chemistry.opencmis.commons.data.RenditionData;
 import org.apache.chemistry.opencmis.commons.exceptions.CmisFilterNotValidException;
 import org.apache.chemistry.opencmis.commons.impl.dataobjects.RenditionDataImpl;
 
 public class CMISRenditionMapping
 {
+    private static final String KEY_PRELOADED_RENDITIONS = CMISRenditionMapping.class.getName() + ".preloadedRenditions";
+
     private NodeService nodeService;
     private ContentService contentService;
     private RenditionService renditionService;
     private TransactionService transactionService;
+    private PermissionService permissionService;
 
     private Map<String, List<String>> kindToRenditionNames;
     private Map<String, String> renditionNamesToKind;
@@ -66,12 +80,13 @@ public class CMISRenditionMapping
 
     public CMISRenditionMapping(NodeService nodeService, ContentService contentService,
             RenditionService renditionService, TransactionService transactionService,
-            Map<String, List<String>> renditionKinds)
+            PermissionService permissionService, Map<String, List<String>> renditionKinds)
     {
         this.nodeService = nodeService;
         this.contentService = contentService;
         this.renditionService = renditionService;
         this.transactionService = transactionService;
+        this.permissionService = permissionService;
 
         if (renditionKinds == null)
         {
@@ -133,6 +148,125 @@ public class CMISRenditionMapping
         }, AuthenticationUtil.getSystemUserName());
     }
 
+    /**
+     * Looks up the renditions of a page of nodes and keeps them for the rest of the transaction, so that they
+     * are not looked up again while the objects are being built.
+     * <p/>
+     * The nodes must have been bulk loaded already: their aspects then come from the cache and the rendition
+     * associations are only queried for the nodes that have the <b>rn:renditioned</b> aspect.
+     * <p/>
+     * The DAO does not check permissions, so, as the rendition service would, only the renditions of nodes whose
+     * children can be read are pre-loaded and renditions that cannot be read are left out.
+     * 
+     * @param nodeRefs          the nodes whose renditions will be read
+     * @param nodeDAO           the DAO holding the bulk loaded nodes
+     * @return                  the readable rendition nodes of the given nodes, which are bulk loaded as well
+     */
+    public List<NodeRef> preloadRenditions(List<NodeRef> nodeRefs, NodeDAO nodeDAO)
+    {
+        List<NodeRef> renditionNodeRefs = new ArrayList<NodeRef>();
+        if (AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_NONE)
+        {
+            return renditionNodeRefs;
+        }
+
+        Map<NodeRef, List<ChildAssociationRef>> preloaded = TransactionalResourceHelper.getMap(KEY_PRELOADED_RENDITIONS);
+        Map<NodeRef, List<ChildAssociationRef>> found = new LinkedHashMap<NodeRef, List<ChildAssociationRef>>();
+        List<NodeRef> foundNodeRefs = new ArrayList<NodeRef>();
+        for (NodeRef nodeRef : nodeRefs)
+        {
+            if (preloaded.containsKey(nodeRef) || found.containsKey(nodeRef))
+            {
+                continue;
+            }
+            Pair<Long, NodeRef> nodePair = nodeDAO.getNodePair(nodeRef);
+            if (nodePair == null)
+            {
+                continue;
+            }
+            if (permissionService.hasPermission(nodeRef, PermissionService.READ_CHILDREN) != AccessStatus.ALLOWED)
+            {
+                // left to the rendition service, which denies the access
+                continue;
+            }
+            final List<ChildAssociationRef> renditionList = new ArrayList<ChildAssociationRef>();
+            if (nodeDAO.hasNodeAspect(nodePair.getFirst(), RenditionModel.ASPECT_RENDITIONED))
+            {
+                nodeDAO.getChildAssocs(nodePair.getFirst(), null, RenditionModel.ASSOC_RENDITION, null, null, null, new ChildAssocRefQueryCallback()
+                {
+                    @Override
+                    public boolean handle(Pair<Long, ChildAssociationRef> childAssocPair, Pair<Long, NodeRef> parentNodePair,
+                            Pair<Long, NodeRef> childNodePair)
+                    {
+                        // archived renditions are left out, as they are by the rendition service
+                        if (!childNodePair.getSecond().getStoreRef().equals(StoreRef.STORE_REF_ARCHIVE_SPACESSTORE))
+                        {
+                            renditionList.add(childAssocPair.getSecond());
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public boolean preLoadNodes()
+                    {
+                        // the rendition nodes of the whole page are loaded together afterwards
+                        return false;
+                    }
+
+                    @Override
+                    public boolean orderResults()
+                    {
+                        return true;
+                    }
+
+                    @Override
+                    public void done()
+                    {
+                    }
+                });
+            }
+            found.put(nodeRef, renditionList);
+            for (ChildAssociationRef rendition : renditionList)
+            {
+                foundNodeRefs.add(rendition.getChildRef());
+            }
+        }
+
+        // the rendition nodes are loaded together so that their ACLs are at hand for the read checks
+        if (!foundNodeRefs.isEmpty())
+        {
+            nodeDAO.cacheNodes(foundNodeRefs);
+        }
+        for (Entry<NodeRef, List<ChildAssociationRef>> entry : found.entrySet())
+        {
+            List<ChildAssociationRef> renditionList = new ArrayList<ChildAssociationRef>(entry.getValue().size());
+            for (ChildAssociationRef rendition : entry.getValue())
+            {
+                if (permissionService.hasReadPermission(rendition.getChildRef()) == AccessStatus.ALLOWED)
+                {
+                    renditionList.add(rendition);
+                    renditionNodeRefs.add(rendition.getChildRef());
+                }
+            }
+            preloaded.put(entry.getKey(), renditionList);
+        }
+        return renditionNodeRefs;
+    }
+
+    private List<ChildAssociationRef> getRenditionAssocs(NodeRef nodeRef)
+    {
+        if (AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_NONE)
+        {
+            Map<NodeRef, List<ChildAssociationRef>> preloaded = TransactionalResourceHelper.getMap(KEY_PRELOADED_RENDITIONS);
+            List<ChildAssociationRef> renditionList = preloaded.get(nodeRef);
+            if (renditionList != null)
+            {
+                return renditionList;
+            }
+        }
+        return renditionService.getRenditions(nodeRef);
+    }
+
     public List<RenditionData> getRenditions(NodeRef nodeRef, String renditionFilter, BigInteger maxItems,
             BigInteger skipCount)
     {
@@ -153,7 +287,7 @@ public class CMISRenditionMapping
         if (max > 0)
         {
             // find all renditions and filter them
-            List<ChildAssociationRef> renditionList = renditionService.getRenditions(nodeRef);
+            List<ChildAssociationRef> renditionList = getRenditionAssocs(nodeRef);
 
             int lastIndex = (max + skip > renditionList.size() ? renditionList.size() : max + skip) - 1;
             for (int i = skip; i <= lastIndex; i++)
@@ -0,0 +1,402 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.opencmis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.domain.node.Node;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.repo.domain.solr.SOLRDAO;
+import org.alfresco.repo.solr.NodeParameters;
+import org.alfresco.repo.solr.Transaction;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.Pair;
+import org.alfresco.util.PropertyCheck;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisInvalidArgumentException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * A CMIS change log that is derived directly from the node transactions (<b>alf_transaction</b> and the
+ * <b>alf_node.transaction_id</b> of each node) in the same way as the SOLR trackers, so the change log
+ * does not need the <b>CMISChangeLog</b> audit application.
+ * <p/>
+ * A change log token identifies the position of a node in the transaction log, being the commit time and
+ * id of its transaction and the id of the node, encoded in base 36 eg. <tt>kz3m1g8w.2fx1.9ix</tt>.
+ * Changes are read a batch of transactions at a time, only for as long as it takes to fill the page.
+ * <p/>
+ * Only the latest state of a node is known so a node is reported as <b>updated</b> (or <b>deleted</b>) in the
+ * last transaction that touched it.
+ * <p/>
+ * The commit time of a transaction is taken just before it commits, so a transaction can become visible after
+ * one with a later commit time. A token only moves forward, so such a transaction would be missed for good if it
+ * fell behind a token that has been handed out. Only transactions committed at least the
+ * {@link #setCommitTimeLagMs(long) commit time lag} ago are reported, and the latest token never goes beyond that;
+ * like the hole retention of the SOLR trackers, the lag defaults to an hour. A shorter lag gives fresher changes
+ * but loses any transaction that takes longer than the lag to become visible.
+ * 
+ * @since 5.2
+ */
+public class CMISTransactionChangeLog implements InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(CMISTransactionChangeLog.class);
+
+    private static final char TOKEN_SEPARATOR = '.';
+    private static final int TOKEN_RADIX = 36;
+
+    private SOLRDAO solrDAO;
+    private NodeDAO nodeDAO;
+    private QNameDAO qnameDAO;
+    private boolean enabled = false;
+    private int transactionBatchSize = 100;
+    private long commitTimeLagMs = 3600000L;
+
+    /**
+     * A callback for the changes, in transaction order
+     */
+    public interface ChangeCallback
+    {
+        /**
+         * @param nodeRef           the changed node
+         * @param typeQName         the type of the node, <tt>sys:deleted</tt> for deleted nodes
+         * @param deleted           <tt>true</tt> if the node has been deleted
+         * @param commitTimeMs      the commit time of the transaction that changed the node
+         * @return                  <tt>true</tt> if the change was included in the change log,
+         *                          <tt>false</tt> if it was filtered out
+         */
+        boolean handleChange(NodeRef nodeRef, QName typeQName, boolean deleted, long commitTimeMs);
+    }
+
+    public void setSolrDAO(SOLRDAO solrDAO)
+    {
+        this.solrDAO = solrDAO;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setQnameDAO(QNameDAO qnameDAO)
+    {
+        this.qnameDAO = qnameDAO;
+    }
+
+    /**
+     * @param enabled           <tt>true</tt> to serve the CMIS change log from the transactions instead of the audit trail
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * @param transactionBatchSize  the number of transactions to read at a time
+     */
+    public void setTransactionBatchSize(int transactionBatchSize)
+    {
+        this.transactionBatchSize = transactionBatchSize;
+    }
+
+    /**
+     * @param commitTimeLagMs       transactions committed more recently than this are not reported yet, allowing
+     *                              for transactions that are slow to become visible and for clock differences
+     *                              between cluster members
+     */
+    public void setCommitTimeLagMs(long commitTimeLagMs)
+    {
+        this.commitTimeLagMs = commitTimeLagMs;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        PropertyCheck.mandatory(this, "solrDAO", solrDAO);
+        PropertyCheck.mandatory(this, "nodeDAO", nodeDAO);
+        PropertyCheck.mandatory(this, "qnameDAO", qnameDAO);
+        if (transactionBatchSize < 1)
+        {
+            throw new IllegalArgumentException("'transactionBatchSize' must be greater than zero");
+        }
+    }
+
+    /**
+     * @return              the token of the latest transaction or <tt>"0"</tt> if there are none
+     */
+    public String getLatestChangeLogToken()
+    {
+        // Transaction ids are not in commit order, so the latest transaction is the last one to commit
+        Long maxCommitTime = nodeDAO.getMaxTxnCommitTime();
+        long toCommitTime = System.currentTimeMillis() - commitTimeLagMs;
+        if (maxCommitTime != null && maxCommitTime >= toCommitTime)
+        {
+            // Transactions that commit within the lag may still be joined by earlier ones
+            return new ChangeLogToken(toCommitTime, 0L, 0L).toString();
+        }
+        if (maxCommitTime != null)
+        {
+            List<Transaction> txns = solrDAO.getTransactions(null, maxCommitTime, null, maxCommitTime + 1, 0);
+            if (!txns.isEmpty())
+            {
+                Transaction txn = txns.get(txns.size() - 1);
+                return new ChangeLogToken(txn.getCommitTimeMs(), txn.getId(), 0L).toString();
+            }
+        }
+        return "0";
+    }
+
+    /**
+     * Reads the changes from the given token onwards.
+     * 
+     * @param changeLogToken    the token to start from (inclusive) or <tt>null</tt> to start at the beginning
+     * @param storeRef          the store to report changes for
+     * @param maxItems          the maximum number of changes to include
+     * @param callback          receives the changes
+     * @return                  the token of the first change that was not included or <tt>null</tt> if there
+     *                          are no further changes
+     */
+    public String getChanges(String changeLogToken, StoreRef storeRef, int maxItems, ChangeCallback callback)
+    {
+        ChangeLogToken from = ChangeLogToken.parse(changeLogToken);
+        Long toCommitTime = System.currentTimeMillis() - commitTimeLagMs;
+
+        // Transactions are in (commit time, id) order but ids are not in commit time order, so the id is only
+        // used to page through the transactions that share a commit time, starting with the token's own
+        Long fromCommitTime = from.commitTimeMs;
+        Long tiedCommitTime = from.commitTimeMs;
+        Long fromTxnId = from.txnId;
+        int included = 0;
+        while (true)
+        {
+            List<Transaction> txns;
+            if (tiedCommitTime == null)
+            {
+                txns = solrDAO.getTransactions(null, fromCommitTime, null, toCommitTime, transactionBatchSize);
+                if (txns.isEmpty())
+                {
+                    return null;
+                }
+            }
+            else
+            {
+                long tiedToCommitTime = Math.min(tiedCommitTime + 1, toCommitTime);
+                txns = solrDAO.getTransactions(fromTxnId, tiedCommitTime, null, tiedToCommitTime, transactionBatchSize);
+            }
+
+            Map<Long, Long> commitTimes = new HashMap<Long, Long>(txns.size() * 2);
+            List<Long> txnIds = new ArrayList<Long>(txns.size());
+            for (Transaction txn : txns)
+            {
+                if (from.isAfter(txn.getCommitTimeMs(), txn.getId(), Long.MAX_VALUE))
+                {
+                    continue;
+                }
+                commitTimes.put(txn.getId(), txn.getCommitTimeMs());
+                txnIds.add(txn.getId());
+            }
+
+            if (!txnIds.isEmpty())
+            {
+                NodeParameters nodeParameters = new NodeParameters();
+                nodeParameters.setTransactionIds(txnIds);
+                if (storeRef != null)
+                {
+                    nodeParameters.setStoreProtocol(storeRef.getProtocol());
+                    nodeParameters.setStoreIdentifier(storeRef.getIdentifier());
+                }
+                List<Node> nodes = new ArrayList<Node>(solrDAO.getNodes(nodeParameters));
+                sortByTransaction(nodes, commitTimes);
+
+                for (Node node : nodes)
+                {
+                    Long txnId = node.getTransaction().getId();
+                    long commitTimeMs = commitTimes.get(txnId);
+                    if (from.isAfter(commitTimeMs, txnId, node.getId()))
+                    {
+                        continue;
+                    }
+                    if (included >= maxItems)
+                    {
+                        return new ChangeLogToken(commitTimeMs, txnId, node.getId()).toString();
+                    }
+
+                    Pair<Long, QName> typeQName = qnameDAO.getQName(node.getTypeQNameId());
+                    boolean deleted = node.getDeleted(qnameDAO);
+                    if (callback.handleChange(node.getNodeRef(), typeQName == null ? null : typeQName.getSecond(), deleted, commitTimeMs))
+                    {
+                        included++;
+                    }
+                }
+            }
+
+            if (txns.size() < transactionBatchSize)
+            {
+                if (tiedCommitTime == null)
+                {
+                    return null;
+                }
+                // Done with this commit time, carry on from the next one
+                fromCommitTime = tiedCommitTime + 1;
+                tiedCommitTime = null;
+                fromTxnId = null;
+                from = new ChangeLogToken(fromCommitTime, 0L, 0L);
+            }
+            else
+            {
+                // Move on to the next batch, never going back over transactions that have been read
+                Transaction last = txns.get(txns.size() - 1);
+                if (!from.isAfter(last.getCommitTimeMs(), last.getId() + 1, 0L))
+                {
+                    from = new ChangeLogToken(last.getCommitTimeMs(), last.getId() + 1, 0L);
+                }
+                fromCommitTime = from.commitTimeMs;
+                if (tiedCommitTime != null || last.getCommitTimeMs().equals(txns.get(0).getCommitTimeMs()))
+                {
+                    // A whole batch of transactions with the same commit time, page through them by id
+                    tiedCommitTime = last.getCommitTimeMs();
+                    fromTxnId = last.getId() + 1;
+                }
+            }
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Reading next change log batch from " + from + ", " + included + " changes so far.");
+            }
+        }
+    }
+
+    /**
+     * The nodes are returned in node id order, put them back in the order of the transactions
+     */
+    private void sortByTransaction(List<Node> nodes, final Map<Long, Long> commitTimes)
+    {
+        Collections.sort(nodes, new Comparator<Node>()
+        {
+            @Override
+            public int compare(Node n1, Node n2)
+            {
+                Long txnId1 = n1.getTransaction().getId();
+                Long txnId2 = n2.getTransaction().getId();
+                int result = commitTimes.get(txnId1).compareTo(commitTimes.get(txnId2));
+                if (result == 0)
+                {
+                    result = txnId1.compareTo(txnId2);
+                }
+                if (result == 0)
+                {
+                    result = n1.getId().compareTo(n2.getId());
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * A position in the transaction log.
+     */
+    static class ChangeLogToken
+    {
+        private final Long commitTimeMs;
+        private final long txnId;
+        private final long nodeId;
+
+        ChangeLogToken(Long commitTimeMs, long txnId, long nodeId)
+        {
+            this.commitTimeMs = commitTimeMs;
+            this.txnId = txnId;
+            this.nodeId = nodeId;
+        }
+
+        static ChangeLogToken parse(String token)
+        {
+            if (token == null || token.length() == 0 || token.equals("0"))
+            {
+                return new ChangeLogToken(null, 0L, 0L);
+            }
+            String[] parts = token.split("\\" + TOKEN_SEPARATOR);
+            if (parts.length != 3)
+            {
+                throw new CmisInvalidArgumentException("Invalid change log token: " + token);
+            }
+            try
+            {
+                return new ChangeLogToken(
+                        Long.parseLong(parts[0], TOKEN_RADIX),
+                        Long.parseLong(parts[1], TOKEN_RADIX),
+                        Long.parseLong(parts[2], TOKEN_RADIX));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new CmisInvalidArgumentException("Invalid change log token: " + token);
+            }
+        }
+
+        /**
+         * @return          <tt>true</tt> if the given position comes before this token ie. it has been read already
+         */
+        boolean isAfter(long commitTimeMs, long txnId, long nodeId)
+        {
+            if (this.commitTimeMs == null)
+            {
+                return false;
+            }
+            if (commitTimeMs != this.commitTimeMs)
+            {
+                return commitTimeMs < this.commitTimeMs;
+            }
+            if (txnId != this.txnId)
+            {
+                return txnId < this.txnId;
+            }
+            return nodeId < this.nodeId;
+        }
+
+        @Override
+        public String toString()
+        {
+            if (commitTimeMs == null)
+            {
+                return "0";
+            }
+            return Long.toString(commitTimeMs, TOKEN_RADIX) + TOKEN_SEPARATOR
+                    + Long.toString(txnId, TOKEN_RADIX) + TOKEN_SEPARATOR
+                    + Long.toString(nodeId, TOKEN_RADIX);
+        }
+    }
+}
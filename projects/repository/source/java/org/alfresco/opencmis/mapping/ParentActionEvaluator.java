@@ -59,7 +59,15 @@ public class ParentActionEvaluator extends AbstractActionEvaluator
         List<CMISNodeInfo> parents = nodeInfo.getParents();
         if (!parents.isEmpty())
         {
-            return evaluator.isAllowed(parents.get(0));
+            CMISNodeInfo parent = parents.get(0);
+            try
+            {
+                return evaluator.isAllowed(parent);
+            }
+            finally
+            {
+                parent.clearPermissions();
+            }
         }
 
         return false;
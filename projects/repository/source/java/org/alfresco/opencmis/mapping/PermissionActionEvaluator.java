@@ -28,7 +28,6 @@ package org.alfresco.opencmis.mapping;
 import org.alfresco.opencmis.dictionary.CMISNodeInfo;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.security.AccessStatus;
-import org.alfresco.service.cmr.security.PermissionService;
 import org.apache.chemistry.opencmis.commons.enums.Action;
 
 /**
@@ -39,7 +38,6 @@ import org.apache.chemistry.opencmis.commons.enums.Action;
 public class PermissionActionEvaluator extends AbstractActionEvaluator
 {
     private String[] permissions;
-    private PermissionService permissionService;
 
     /**
      * Construct
@@ -52,14 +50,13 @@ public class PermissionActionEvaluator extends AbstractActionEvaluator
     {
         super(serviceRegistry, action);
         this.permissions = permission;
-        this.permissionService = serviceRegistry.getPermissionService();
     }
 
     public boolean isAllowed(CMISNodeInfo nodeInfo)
     {
         for (String permission : permissions)
         {
-            if (permissionService.hasPermission(nodeInfo.getNodeRef(), permission) == AccessStatus.DENIED)
+            if (nodeInfo.hasPermission(permission) == AccessStatus.DENIED)
             {
                 return false;
             }
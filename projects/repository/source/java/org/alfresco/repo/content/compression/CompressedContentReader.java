@@ -0,0 +1,148 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.alfresco.repo.content.AbstractContentReader;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+
+/**
+ * Reads content that a {@link CompressingContentStore} compressed, decompressing it on the way through.
+ * 
+ * @since 5.2
+ */
+public class CompressedContentReader extends AbstractContentReader
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ContentReader compressedReader;
+
+    private long size = -1L;
+
+    /**
+     * @param contentUrl the content URL
+     * @param compressedReader a reader onto the compressed content in the backing store
+     */
+    public CompressedContentReader(String contentUrl, ContentReader compressedReader)
+    {
+        super(contentUrl);
+        this.compressedReader = compressedReader;
+    }
+
+    @Override
+    protected ContentReader createReader() throws ContentIOException
+    {
+        return new CompressedContentReader(getContentUrl(), compressedReader.getReader());
+    }
+
+    @Override
+    protected ReadableByteChannel getDirectReadableChannel() throws ContentIOException
+    {
+        InputStream is = compressedReader.getContentInputStream();
+        InputStream inflaterStream = new InflaterInputStream(is, new Inflater(), BUFFER_SIZE)
+        {
+            @Override
+            public void close() throws IOException
+            {
+                try
+                {
+                    super.close();
+                }
+                finally
+                {
+                    inf.end();
+                }
+            }
+        };
+        return Channels.newChannel(inflaterStream);
+    }
+
+    @Override
+    public boolean exists()
+    {
+        return compressedReader.exists();
+    }
+
+    /**
+     * @return the uncompressed size, which is read from the end of the compressed content
+     */
+    @Override
+    public long getSize()
+    {
+        if (size < 0L)
+        {
+            size = exists() ? readSize() : 0L;
+        }
+        return size;
+    }
+
+    @Override
+    public long getLastModified()
+    {
+        return compressedReader.getLastModified();
+    }
+
+    private long readSize()
+    {
+        FileChannel channel = compressedReader.getReader().getFileChannel();
+        try
+        {
+            long position = channel.size() - CompressingContentStore.SIZE_TRAILER_LENGTH;
+            ByteBuffer trailer = ByteBuffer.allocate(CompressingContentStore.SIZE_TRAILER_LENGTH);
+            while (position >= 0L && trailer.hasRemaining())
+            {
+                int read = channel.read(trailer, position + trailer.position());
+                if (read < 0)
+                {
+                    break;
+                }
+            }
+            if (trailer.hasRemaining())
+            {
+                throw new ContentIOException("Compressed content has no size: " + this);
+            }
+            trailer.flip();
+            return trailer.getLong();
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to read the size of compressed content: " + this, e);
+        }
+        finally
+        {
+            try { channel.close(); } catch (IOException e) {}
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.compression;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentExistsException;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A content store wrapper that compresses content of selected mimetypes, such as XML, JSON and plain text, before it
+ * reaches the backing store.
+ * <p>
+ * The content URL of a writer is fixed before its mimetype is known, so the choice is made when the content is
+ * written and is recorded in the URL of the file in the backing store instead: compressed content is held under the
+ * content URL with {@link #COMPRESSED_URL_SUFFIX} appended, while all other content is held under the content URL
+ * itself, exactly as the backing store would hold it. Content written before this wrapper was introduced is therefore
+ * read as it always was, and uncompressed content keeps the random access that the backing store provides.
+ * <p>
+ * Compressed content is a zlib stream using the {@link #setCompressionLevel(int) configured level}, which defaults to
+ * the fastest, followed by the uncompressed size as eight bytes so that {@link ContentReader#getSize()} does not have
+ * to decompress it. Random access to compressed content is provided through a temporary file, as it is for any
+ * content that does not support it directly.
+ * 
+ * @since 5.2
+ */
+public class CompressingContentStore implements ContentStore
+{
+    private static final Log logger = LogFactory.getLog(CompressingContentStore.class);
+
+    /** Appended to the content URL to locate compressed content in the backing store */
+    public static final String COMPRESSED_URL_SUFFIX = ".deflate";
+
+    /** The number of bytes following the compressed stream that hold the uncompressed size */
+    static final int SIZE_TRAILER_LENGTH = 8;
+
+    /** Matches all subtypes of a mimetype, e.g. <tt>text/*</tt> */
+    private static final String WILDCARD_SUBTYPE = "/*";
+
+    private ContentStore backingStore;
+
+    private Set<String> mimetypes = Collections.emptySet();
+
+    private int compressionLevel = Deflater.BEST_SPEED;
+
+    /**
+     * @param backingStore the store holding the content
+     */
+    public void setBackingStore(ContentStore backingStore)
+    {
+        this.backingStore = backingStore;
+    }
+
+    /**
+     * @param mimetypes the mimetypes to compress, which may end in <tt>/*</tt> to match all of their subtypes
+     */
+    public void setMimetypes(Set<String> mimetypes)
+    {
+        this.mimetypes = new HashSet<String>(mimetypes);
+    }
+
+    /**
+     * @param compressionLevel the zlib compression level, from 1 (fastest) to 9 (smallest)
+     */
+    public void setCompressionLevel(int compressionLevel)
+    {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "backingStore", backingStore);
+        if (compressionLevel < Deflater.BEST_SPEED || compressionLevel > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9: " + compressionLevel);
+        }
+    }
+
+    ContentStore getBackingStore()
+    {
+        return backingStore;
+    }
+
+    int getCompressionLevel()
+    {
+        return compressionLevel;
+    }
+
+    /**
+     * @return <tt>true</tt> if content of the given mimetype is compressed
+     */
+    public boolean isCompressed(String mimetype)
+    {
+        if (mimetype == null)
+        {
+            return false;
+        }
+        if (mimetypes.contains(mimetype))
+        {
+            return true;
+        }
+        int slash = mimetype.indexOf('/');
+        return slash > 0 && mimetypes.contains(mimetype.substring(0, slash) + WILDCARD_SUBTYPE);
+    }
+
+    @Override
+    public boolean isContentUrlSupported(String contentUrl)
+    {
+        return backingStore.isContentUrlSupported(contentUrl);
+    }
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return backingStore.isWriteSupported();
+    }
+
+    @Override
+    public long getSpaceFree()
+    {
+        return backingStore.getSpaceFree();
+    }
+
+    @Override
+    public long getSpaceTotal()
+    {
+        return backingStore.getSpaceTotal();
+    }
+
+    @Override
+    public String getRootLocation()
+    {
+        return backingStore.getRootLocation();
+    }
+
+    @Override
+    public boolean exists(String contentUrl)
+    {
+        return backingStore.exists(contentUrl) || backingStore.exists(contentUrl + COMPRESSED_URL_SUFFIX);
+    }
+
+    @Override
+    public ContentReader getReader(String contentUrl)
+    {
+        String compressedUrl = contentUrl + COMPRESSED_URL_SUFFIX;
+        if (backingStore.isContentUrlSupported(contentUrl) && backingStore.exists(compressedUrl))
+        {
+            return new CompressedContentReader(contentUrl, backingStore.getReader(compressedUrl));
+        }
+        return backingStore.getReader(contentUrl);
+    }
+
+    @Override
+    public ContentWriter getWriter(ContentContext context)
+    {
+        String contentUrl = context.getContentUrl();
+        if (contentUrl != null && backingStore.exists(contentUrl + COMPRESSED_URL_SUFFIX))
+        {
+            throw new ContentExistsException(this, contentUrl);
+        }
+        // The backing store holds the content here unless it turns out to be compressed
+        ContentWriter backingWriter = backingStore.getWriter(new ContentContext(null, contentUrl));
+        ContentWriter writer = new CompressingContentWriter(this, backingWriter, context.getExistingContentReader());
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Fetched new writer: \n" +
+                    "   Store:   " + this + "\n" +
+                    "   Context: " + context + "\n" +
+                    "   Writer:  " + writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Lists the content URLs, with compressed content listed under its content URL.
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void getUrls(ContentUrlHandler handler) throws ContentIOException
+    {
+        backingStore.getUrls(new CompressedUrlHandler(handler));
+    }
+
+    /**
+     * Lists the content URLs, with compressed content listed under its content URL.
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void getUrls(Date createdAfter, Date createdBefore, ContentUrlHandler handler) throws ContentIOException
+    {
+        backingStore.getUrls(createdAfter, createdBefore, new CompressedUrlHandler(handler));
+    }
+
+    /**
+     * Deletes the content, whether it was compressed or not.
+     */
+    @Override
+    public boolean delete(String contentUrl)
+    {
+        boolean deletedCompressed = backingStore.delete(contentUrl + COMPRESSED_URL_SUFFIX);
+        boolean deleted = backingStore.delete(contentUrl);
+        return deletedCompressed && deleted;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CompressingContentStore[backingStore=" + backingStore + ", mimetypes=" + mimetypes + "]";
+    }
+
+    /**
+     * Strips the suffix from the URLs of compressed content.
+     */
+    @SuppressWarnings("deprecation")
+    private static class CompressedUrlHandler implements ContentUrlHandler
+    {
+        private final ContentUrlHandler handler;
+
+        private CompressedUrlHandler(ContentUrlHandler handler)
+        {
+            this.handler = handler;
+        }
+
+        @Override
+        public void handle(String contentUrl)
+        {
+            if (contentUrl.endsWith(COMPRESSED_URL_SUFFIX))
+            {
+                contentUrl = contentUrl.substring(0, contentUrl.length() - COMPRESSED_URL_SUFFIX.length());
+            }
+            handler.handle(contentUrl);
+        }
+    }
+}
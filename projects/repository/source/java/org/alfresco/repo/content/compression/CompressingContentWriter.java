@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.alfresco.repo.content.AbstractContentWriter;
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+
+/**
+ * Writes content through a {@link CompressingContentStore}, compressing it if its mimetype is one the store compresses.
+ * <p>
+ * The mimetype is checked when the content is written. Content that is not compressed is written by the backing
+ * store's writer, which keeps any random access it provides.
+ * 
+ * @since 5.2
+ */
+public class CompressingContentWriter extends AbstractContentWriter
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    private final CompressingContentStore store;
+
+    private final ContentWriter backingWriter;
+
+    private boolean compressed;
+
+    private long size;
+
+    /**
+     * @param store the store to write through
+     * @param backingWriter the backing store's writer onto the content URL
+     * @param existingContentReader the existing content, if any
+     */
+    public CompressingContentWriter(CompressingContentStore store, ContentWriter backingWriter, ContentReader existingContentReader)
+    {
+        super(backingWriter.getContentUrl(), existingContentReader);
+        this.store = store;
+        this.backingWriter = backingWriter;
+    }
+
+    @Override
+    protected ContentReader createReader() throws ContentIOException
+    {
+        return store.getReader(getContentUrl());
+    }
+
+    @Override
+    protected WritableByteChannel getDirectWritableChannel() throws ContentIOException
+    {
+        if (!store.isCompressed(getMimetype()))
+        {
+            return backingWriter.getWritableChannel();
+        }
+        compressed = true;
+        String contentUrl = getContentUrl();
+        ContentWriter compressedWriter = store.getBackingStore().getWriter(
+                new ContentContext(null, contentUrl + CompressingContentStore.COMPRESSED_URL_SUFFIX));
+        // The content is not held under its own URL after all
+        store.getBackingStore().delete(contentUrl);
+        OutputStream os = compressedWriter.getContentOutputStream();
+        return Channels.newChannel(new CompressingOutputStream(os, new Deflater(store.getCompressionLevel())));
+    }
+
+    /**
+     * @return the uncompressed size of the content written so far
+     */
+    @Override
+    public long getSize()
+    {
+        return compressed ? size : backingWriter.getSize();
+    }
+
+    /**
+     * Compresses and counts the bytes on their way to the backing store and follows them with the uncompressed size.
+     */
+    private class CompressingOutputStream extends DeflaterOutputStream
+    {
+        private boolean finished;
+
+        private CompressingOutputStream(OutputStream out, Deflater deflater)
+        {
+            super(out, deflater, BUFFER_SIZE);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            super.write(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (finished)
+            {
+                return;
+            }
+            finished = true;
+            try
+            {
+                finish();
+                byte[] trailer = ByteBuffer.allocate(CompressingContentStore.SIZE_TRAILER_LENGTH).putLong(size).array();
+                out.write(trailer);
+                out.close();
+            }
+            finally
+            {
+                def.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.dedup;
+
+import java.nio.channels.ReadableByteChannel;
+
+import org.alfresco.repo.content.AbstractContentReader;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+
+/**
+ * Reads content written through a {@link DeduplicatingContentStore} from the file that holds it, which may be shared
+ * with other content URLs.
+ * <p>
+ * This is deliberately not a {@link org.alfresco.repo.content.filestore.FileContentReader}, so that cleanup listeners
+ * that wipe files cannot reach a file that is still shared.
+ * 
+ * @since 5.2
+ */
+public class DeduplicatingContentReader extends AbstractContentReader
+{
+    private final ContentReader fileReader;
+
+    /**
+     * @param contentUrl the URL the content was written to
+     * @param fileReader a reader onto the file holding the content
+     */
+    public DeduplicatingContentReader(String contentUrl, ContentReader fileReader)
+    {
+        super(contentUrl);
+        this.fileReader = fileReader;
+    }
+
+    @Override
+    protected ContentReader createReader() throws ContentIOException
+    {
+        return new DeduplicatingContentReader(getContentUrl(), fileReader.getReader());
+    }
+
+    @Override
+    protected ReadableByteChannel getDirectReadableChannel() throws ContentIOException
+    {
+        return fileReader.getReadableChannel();
+    }
+
+    @Override
+    public boolean exists()
+    {
+        return fileReader.exists();
+    }
+
+    @Override
+    public long getSize()
+    {
+        return fileReader.getSize();
+    }
+
+    @Override
+    public long getLastModified()
+    {
+        return fileReader.getLastModified();
+    }
+}
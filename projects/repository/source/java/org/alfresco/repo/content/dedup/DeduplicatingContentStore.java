@@ -0,0 +1,587 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.dedup;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.management.DynamicMBeanExportOperations;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.BeanNameAware;
+
+/**
+ * A content store wrapper that keeps a single copy of identical content.
+ * <p>
+ * Every write is given its own content URL by the backing store, as usual, so the content URLs held against nodes,
+ * and the cleanup of orphaned content URLs, behave exactly as they do without this wrapper. While the content is
+ * streamed to the backing store it is hashed and, once the stream is closed, the hash is looked up. If the same
+ * content is already held then the new file is removed again and the new URL is recorded as another reference to the
+ * existing file; otherwise the new file becomes the one held for that hash.
+ * <p>
+ * Reads of a URL are served from the file held for its content. Deleting a URL, which is what the
+ * {@link org.alfresco.repo.content.cleanup.EagerContentStoreCleaner} does for orphaned content, removes one reference
+ * and the file is only removed from the backing store once no URLs refer to it. For this to work, the cleaners must
+ * be given this store and not the backing store. Content that was written before this wrapper was introduced is
+ * passed straight through to the backing store.
+ * <p>
+ * Copying content that this store already holds, using {@link ContentWriter#putContent(ContentReader)}, does not copy
+ * any bytes at all.
+ * <p>
+ * The mappings and reference counts are kept in the {@link AttributeService}, keyed by the name of this store. An
+ * optional {@link #setUrlHashCache(SimpleCache) cache} remembers the hash of each content URL, and which URLs were
+ * not written through this store, so that reads of existing content do not look up attributes every time.
+ * <p>
+ * References are recorded when the content stream is closed, in their own transactions, so that concurrent writers
+ * of the same content do not conflict for the length of the transaction that writes the node. If that transaction is
+ * rolled back, the reference stays committed: it is only removed when the content URL is deleted through this store,
+ * either straight away by the {@link org.alfresco.repo.content.cleanup.EagerContentStoreCleaner}, which deletes the
+ * new content URLs of a rolled back transaction, or later by the orphan cleanup. Until then the shared file is kept.
+ * 
+ * @since 5.2
+ */
+public class DeduplicatingContentStore implements ContentStore, BeanNameAware, DeduplicatingContentStoreMBean
+{
+    private static final Log logger = LogFactory.getLog(DeduplicatingContentStore.class);
+
+    /** The default JMX object name */
+    public static final String DEFAULT_OBJECT_NAME = "Alfresco:Name=ContentStore,Type=Deduplicating";
+
+    /** The digest used to identify content */
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** hash to the URL of the file held in the backing store */
+    private static final String KEY_HASH_URL = ".dedupHashUrl";
+    /** hash to the number of content URLs referring to it */
+    private static final String KEY_HASH_REFS = ".dedupHashRefs";
+    /** content URL to the hash of its content */
+    private static final String KEY_URL_HASH = ".dedupUrlHash";
+    /** URL of a file held in the backing store to the hash of its content */
+    private static final String KEY_FILE_HASH = ".dedupFileHash";
+
+    /** Cached for a content URL that was not written through this store; a hash is never empty */
+    private static final String NOT_DEDUPLICATED = "";
+    /** Cached for a content URL that is being written, so that it is not taken for one from before this store */
+    private static final String WRITING = "-";
+
+    private ContentStore backingStore;
+
+    private AttributeService attributeService;
+
+    private RetryingTransactionHelper transactionHelper;
+
+    private SimpleCache<String, String> urlHashCache;
+
+    private String storeName;
+
+    private DynamicMBeanExportOperations mbeanExporter;
+
+    private String objectName = DEFAULT_OBJECT_NAME;
+
+    private ObjectName registeredName;
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private final AtomicLong duplicateWriteCount = new AtomicLong();
+
+    private final AtomicLong logicalBytes = new AtomicLong();
+
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    /**
+     * @param backingStore the store holding the files
+     */
+    public void setBackingStore(ContentStore backingStore)
+    {
+        this.backingStore = backingStore;
+    }
+
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * @param transactionHelper used to record references in their own transactions
+     */
+    public void setTransactionHelper(RetryingTransactionHelper transactionHelper)
+    {
+        this.transactionHelper = transactionHelper;
+    }
+
+    /**
+     * @param urlHashCache optional cache of the hash of each content URL. In a cluster it must be invalidated across
+     *                     the cluster, since a released URL is removed from it.
+     */
+    public void setUrlHashCache(SimpleCache<String, String> urlHashCache)
+    {
+        this.urlHashCache = urlHashCache;
+    }
+
+    /**
+     * @param storeName the name under which the references are recorded, which defaults to the bean name
+     */
+    public void setStoreName(String storeName)
+    {
+        this.storeName = storeName;
+    }
+
+    @Override
+    public void setBeanName(String name)
+    {
+        if (storeName == null)
+        {
+            storeName = name;
+        }
+    }
+
+    /**
+     * @param mbeanExporter optional exporter used to publish the dedupe statistics over JMX
+     */
+    public void setMbeanExporter(DynamicMBeanExportOperations mbeanExporter)
+    {
+        this.mbeanExporter = mbeanExporter;
+    }
+
+    /**
+     * @param objectName the JMX object name to register under
+     */
+    public void setObjectName(String objectName)
+    {
+        this.objectName = objectName;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "backingStore", backingStore);
+        PropertyCheck.mandatory(this, "attributeService", attributeService);
+        PropertyCheck.mandatory(this, "transactionHelper", transactionHelper);
+        PropertyCheck.mandatory(this, "storeName", storeName);
+        // Fail now rather than on the first write
+        newDigest();
+        if (mbeanExporter != null)
+        {
+            try
+            {
+                registeredName = mbeanExporter.registerMBean(this, new ObjectName(objectName));
+            }
+            catch (MalformedObjectNameException e)
+            {
+                throw new AlfrescoRuntimeException("Invalid JMX object name: " + objectName, e);
+            }
+        }
+    }
+
+    public void destroy()
+    {
+        if (registeredName != null)
+        {
+            mbeanExporter.unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    @Override
+    public boolean isContentUrlSupported(String contentUrl)
+    {
+        return backingStore.isContentUrlSupported(contentUrl);
+    }
+
+    @Override
+    public boolean isWriteSupported()
+    {
+        return backingStore.isWriteSupported();
+    }
+
+    @Override
+    public long getSpaceFree()
+    {
+        return backingStore.getSpaceFree();
+    }
+
+    @Override
+    public long getSpaceTotal()
+    {
+        return backingStore.getSpaceTotal();
+    }
+
+    @Override
+    public String getRootLocation()
+    {
+        return backingStore.getRootLocation();
+    }
+
+    @Override
+    public boolean exists(String contentUrl)
+    {
+        String hash = lookupHash(contentUrl);
+        if (hash == null)
+        {
+            // A released URL whose file is still shared no longer exists
+            return false;
+        }
+        String fileUrl = getFileUrl(hash);
+        return backingStore.exists(fileUrl == null ? contentUrl : fileUrl);
+    }
+
+    @Override
+    public ContentReader getReader(String contentUrl)
+    {
+        String hash = lookupHash(contentUrl);
+        String fileUrl = (hash == null) ? null : getFileUrl(hash);
+        if (fileUrl == null)
+        {
+            // Not written through this store
+            return backingStore.getReader(contentUrl);
+        }
+        return new DeduplicatingContentReader(contentUrl, backingStore.getReader(fileUrl));
+    }
+
+    @Override
+    public ContentWriter getWriter(ContentContext context)
+    {
+        // The backing store cannot see existing content that is shared
+        ContentWriter backingWriter = backingStore.getWriter(new ContentContext(null, context.getContentUrl()));
+        if (urlHashCache != null)
+        {
+            urlHashCache.put(backingWriter.getContentUrl(), WRITING);
+        }
+        return new DeduplicatingContentWriter(this, backingWriter, context.getExistingContentReader());
+    }
+
+    /**
+     * Lists the files held in the backing store.
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void getUrls(ContentUrlHandler handler) throws ContentIOException
+    {
+        backingStore.getUrls(handler);
+    }
+
+    /**
+     * Lists the files held in the backing store.
+     */
+    @SuppressWarnings("deprecation")
+    @Override
+    public void getUrls(Date createdAfter, Date createdBefore, ContentUrlHandler handler) throws ContentIOException
+    {
+        backingStore.getUrls(createdAfter, createdBefore, handler);
+    }
+
+    /**
+     * Removes a reference to the content, removing the file from the backing store if it was the last one.
+     */
+    @Override
+    public boolean delete(final String contentUrl)
+    {
+        if (urlHashCache != null && NOT_DEDUPLICATED.equals(urlHashCache.get(contentUrl)))
+        {
+            urlHashCache.remove(contentUrl);
+            return backingStore.delete(contentUrl);
+        }
+        RetryingTransactionCallback<String[]> callback = new RetryingTransactionCallback<String[]>()
+        {
+            @Override
+            public String[] execute() throws Throwable
+            {
+                String hash = (String) attributeService.getAttribute(KEY_URL_HASH, storeName, contentUrl);
+                if (hash == null)
+                {
+                    if (attributeService.exists(KEY_FILE_HASH, storeName, contentUrl))
+                    {
+                        // The URL has already been released but its file is still shared
+                        return new String[0];
+                    }
+                    // Not written through this store
+                    return new String[] {contentUrl};
+                }
+                attributeService.removeAttribute(KEY_URL_HASH, storeName, contentUrl);
+                Integer refs = (Integer) attributeService.getAttribute(KEY_HASH_REFS, storeName, hash);
+                int remaining = (refs == null ? 0 : refs) - 1;
+                if (remaining > 0)
+                {
+                    attributeService.setAttribute(remaining, KEY_HASH_REFS, storeName, hash);
+                    return new String[0];
+                }
+                String fileUrl = (String) attributeService.getAttribute(KEY_HASH_URL, storeName, hash);
+                attributeService.removeAttribute(KEY_HASH_REFS, storeName, hash);
+                attributeService.removeAttribute(KEY_HASH_URL, storeName, hash);
+                if (fileUrl == null)
+                {
+                    return new String[0];
+                }
+                attributeService.removeAttribute(KEY_FILE_HASH, storeName, fileUrl);
+                return new String[] {fileUrl};
+            }
+        };
+        String[] fileUrls = transactionHelper.doInTransaction(callback, false, true);
+        if (urlHashCache != null)
+        {
+            urlHashCache.remove(contentUrl);
+        }
+        if (fileUrls.length == 0)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Released shared content: " + contentUrl);
+            }
+            return true;
+        }
+        return backingStore.delete(fileUrls[0]);
+    }
+
+    /**
+     * @return the URL of the file holding the content with the hash, or <tt>null</tt> for content that was not written
+     *         through this store
+     */
+    private String getFileUrl(String hash)
+    {
+        if (NOT_DEDUPLICATED.equals(hash))
+        {
+            return null;
+        }
+        return (String) attributeService.getAttribute(KEY_HASH_URL, storeName, hash);
+    }
+
+    /**
+     * @return the hash recorded for the content or <tt>null</tt> if the content was not written through this store
+     */
+    String getHash(String contentUrl)
+    {
+        String hash = lookupHash(contentUrl);
+        return NOT_DEDUPLICATED.equals(hash) ? null : hash;
+    }
+
+    /**
+     * Find the hash of the content of a URL, using the cache if there is one. A URL that is not written through this
+     * store keeps that state, so it is cached as well, unless it is being written.
+     * 
+     * @return the hash of the content, {@link #NOT_DEDUPLICATED} if the content was not written through this store or
+     *         <tt>null</tt> if the URL has been released but its file is still shared
+     */
+    private String lookupHash(String contentUrl)
+    {
+        String cached = (urlHashCache == null) ? null : urlHashCache.get(contentUrl);
+        if (cached != null && !WRITING.equals(cached))
+        {
+            return cached;
+        }
+        String hash = (String) attributeService.getAttribute(KEY_URL_HASH, storeName, contentUrl);
+        if (hash == null)
+        {
+            if (attributeService.exists(KEY_FILE_HASH, storeName, contentUrl))
+            {
+                return null;
+            }
+            hash = NOT_DEDUPLICATED;
+        }
+        if (urlHashCache != null && cached == null)
+        {
+            urlHashCache.put(contentUrl, hash);
+        }
+        return hash;
+    }
+
+    private void cacheHash(String contentUrl, String hash)
+    {
+        if (urlHashCache != null)
+        {
+            urlHashCache.put(contentUrl, hash);
+        }
+    }
+
+    MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new AlfrescoRuntimeException("Content digest is not available: " + DIGEST_ALGORITHM, e);
+        }
+    }
+
+    /**
+     * Record content that has just been written to the backing store under the given URL. If the same content is
+     * already held then the new file is removed and the URL shares the existing one.
+     * 
+     * @param contentUrl the URL the content was written to
+     * @param hash the hash of the content
+     * @param size the number of bytes written
+     */
+    void register(final String contentUrl, final String hash, long size)
+    {
+        RetryingTransactionCallback<Boolean> callback = new RetryingTransactionCallback<Boolean>()
+        {
+            @Override
+            public Boolean execute() throws Throwable
+            {
+                if (share(contentUrl, hash))
+                {
+                    return Boolean.TRUE;
+                }
+                // The file just written is now the one held for the content
+                String previousFileUrl = (String) attributeService.getAttribute(KEY_HASH_URL, storeName, hash);
+                if (previousFileUrl != null)
+                {
+                    // The file went missing, but the URLs referring to it are just as well served by this one
+                    attributeService.removeAttribute(KEY_FILE_HASH, storeName, previousFileUrl);
+                }
+                Integer refs = (Integer) attributeService.getAttribute(KEY_HASH_REFS, storeName, hash);
+                attributeService.setAttribute(contentUrl, KEY_HASH_URL, storeName, hash);
+                attributeService.setAttribute((refs == null ? 0 : refs) + 1, KEY_HASH_REFS, storeName, hash);
+                attributeService.setAttribute(hash, KEY_URL_HASH, storeName, contentUrl);
+                attributeService.setAttribute(hash, KEY_FILE_HASH, storeName, contentUrl);
+                return Boolean.FALSE;
+            }
+        };
+        boolean duplicate = transactionHelper.doInTransaction(callback, false, true);
+        cacheHash(contentUrl, hash);
+        writeCount.incrementAndGet();
+        logicalBytes.addAndGet(size);
+        if (duplicate)
+        {
+            duplicateWriteCount.incrementAndGet();
+            backingStore.delete(contentUrl);
+        }
+        else
+        {
+            storedBytes.addAndGet(size);
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug((duplicate ? "Shared" : "Stored") + " content " + hash + ": " + contentUrl);
+        }
+    }
+
+    /**
+     * Record content as another reference to content that is already held, if it is still held, so that it need not
+     * be written at all. The file the backing store created for the URL is removed.
+     * 
+     * @return <tt>true</tt> if the content is now shared
+     */
+    boolean registerExisting(final String contentUrl, final String hash, long size)
+    {
+        RetryingTransactionCallback<Boolean> callback = new RetryingTransactionCallback<Boolean>()
+        {
+            @Override
+            public Boolean execute() throws Throwable
+            {
+                return share(contentUrl, hash);
+            }
+        };
+        boolean shared = transactionHelper.doInTransaction(callback, false, true);
+        if (shared)
+        {
+            cacheHash(contentUrl, hash);
+            writeCount.incrementAndGet();
+            duplicateWriteCount.incrementAndGet();
+            logicalBytes.addAndGet(size);
+            backingStore.delete(contentUrl);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Shared content " + hash + " without copying: " + contentUrl);
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Add a reference to the file held for the content, if there is one. Must be called in a transaction.
+     */
+    private boolean share(String contentUrl, String hash)
+    {
+        String fileUrl = (String) attributeService.getAttribute(KEY_HASH_URL, storeName, hash);
+        if (fileUrl == null || fileUrl.equals(contentUrl) || !backingStore.exists(fileUrl))
+        {
+            return false;
+        }
+        Integer refs = (Integer) attributeService.getAttribute(KEY_HASH_REFS, storeName, hash);
+        attributeService.setAttribute((refs == null ? 0 : refs) + 1, KEY_HASH_REFS, storeName, hash);
+        attributeService.setAttribute(hash, KEY_URL_HASH, storeName, contentUrl);
+        return true;
+    }
+
+    @Override
+    public long getWriteCount()
+    {
+        return writeCount.get();
+    }
+
+    @Override
+    public long getDuplicateWriteCount()
+    {
+        return duplicateWriteCount.get();
+    }
+
+    @Override
+    public long getLogicalBytes()
+    {
+        return logicalBytes.get();
+    }
+
+    @Override
+    public long getStoredBytes()
+    {
+        return storedBytes.get();
+    }
+
+    @Override
+    public double getDedupeRatio()
+    {
+        long stored = storedBytes.get();
+        long logical = logicalBytes.get();
+        if (logical == 0)
+        {
+            return 1.0;
+        }
+        return stored == 0 ? Double.POSITIVE_INFINITY : (double) logical / stored;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DeduplicatingContentStore[name=" + storeName + ", backingStore=" + backingStore + "]";
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.dedup;
+
+/**
+ * A management interface for monitoring how much content a {@link DeduplicatingContentStore} has shared.
+ * <p>
+ * The counts cover the writes made since the store was started.
+ * 
+ * @since 5.2
+ */
+public interface DeduplicatingContentStoreMBean
+{
+    /**
+     * The number of content writes completed.
+     */
+    public long getWriteCount();
+
+    /**
+     * The number of writes whose content was already held and is now shared.
+     */
+    public long getDuplicateWriteCount();
+
+    /**
+     * The number of bytes written by clients.
+     */
+    public long getLogicalBytes();
+
+    /**
+     * The number of those bytes that had to be kept in the backing store.
+     */
+    public long getStoredBytes();
+
+    /**
+     * The ratio of bytes written to bytes stored, which is 1 where nothing has been shared and infinite
+     * where every write was already held.
+     */
+    public double getDedupeRatio();
+}
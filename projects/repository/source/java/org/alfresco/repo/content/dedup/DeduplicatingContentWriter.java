@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.dedup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
+
+import org.alfresco.repo.content.AbstractContentWriter;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Writes content to the backing store of a {@link DeduplicatingContentStore}, hashing it on the way through, and
+ * records it with the store once the stream is closed.
+ * 
+ * @since 5.2
+ */
+public class DeduplicatingContentWriter extends AbstractContentWriter
+{
+    private final DeduplicatingContentStore store;
+
+    private final ContentWriter backingWriter;
+
+    private boolean shared;
+
+    private long size;
+
+    /**
+     * @param store the store to record the content with
+     * @param backingWriter a writer onto a new URL in the backing store
+     * @param existingContentReader the existing content, if any
+     */
+    public DeduplicatingContentWriter(DeduplicatingContentStore store, ContentWriter backingWriter, ContentReader existingContentReader)
+    {
+        super(backingWriter.getContentUrl(), existingContentReader);
+        this.store = store;
+        this.backingWriter = backingWriter;
+    }
+
+    @Override
+    protected ContentReader createReader() throws ContentIOException
+    {
+        return store.getReader(getContentUrl());
+    }
+
+    @Override
+    protected WritableByteChannel getDirectWritableChannel() throws ContentIOException
+    {
+        if (shared)
+        {
+            // Nothing to write
+            return Channels.newChannel(new ByteArrayOutputStream(0));
+        }
+        OutputStream os = backingWriter.getContentOutputStream();
+        return Channels.newChannel(new HashingOutputStream(os, store.newDigest()));
+    }
+
+    /**
+     * Content that is already held by the store is shared without being copied.
+     */
+    @Override
+    public void putContent(ContentReader reader) throws ContentIOException
+    {
+        String hash = reader.getContentUrl() == null ? null : store.getHash(reader.getContentUrl());
+        if (hash != null && reader.exists())
+        {
+            long readerSize = reader.getSize();
+            if (store.registerExisting(getContentUrl(), hash, readerSize))
+            {
+                size = readerSize;
+                shared = true;
+                try
+                {
+                    // Let the listeners know the content is in place
+                    getWritableChannel().close();
+                }
+                catch (IOException e)
+                {
+                    throw new ContentIOException("Failed to close channel: " + this, e);
+                }
+                return;
+            }
+        }
+        super.putContent(reader);
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    @Override
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Hashes and counts the bytes on their way to the backing store and records the content once it is all there.
+     */
+    private class HashingOutputStream extends FilterOutputStream
+    {
+        private final MessageDigest digest;
+
+        private boolean closed;
+
+        private HashingOutputStream(OutputStream out, MessageDigest digest)
+        {
+            super(out);
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            out.write(b);
+            digest.update((byte) b);
+            size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            out.write(b, off, len);
+            digest.update(b, off, len);
+            size += len;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            super.close();
+            String hash = new String(Hex.encodeHex(digest.digest()));
+            store.register(getContentUrl(), hash, size);
+        }
+    }
+}
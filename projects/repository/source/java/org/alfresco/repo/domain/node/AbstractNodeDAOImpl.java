@@ -198,6 +198,11 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
     private ParentAssocsCache parentAssocsCache;
     private int parentAssocsCacheSize;
     private int parentAssocsCacheLimitFactor = 8;
+    
+    /**
+     * Whether the ancestor closure of nodes is materialised in <b>alf_node_ancestor</b>
+     */
+    private boolean nodeAncestorsEnabled = false;
         
     /**
      * Cache for fast lookups of child nodes by <b>cm:name</b>. 
@@ -404,6 +409,19 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         this.parentAssocsCacheLimitFactor = parentAssocsCacheLimitFactor;
     }
 
+    /**
+     * Sets whether the ancestors of each node are materialised in the database.  A new node extends
+     * the ancestors of its parent.  Moving, linking or unlinking a node discards the ancestors of its
+     * whole subtree (see {@link #deleteNodeAncestorsOfSubtree(Long)} for the cost); they, and those of
+     * nodes created while the option was off, are filled in by the node ancestors rebuild job.
+     * 
+     * @param nodeAncestorsEnabled  <tt>true</tt> to maintain and use the materialised ancestors
+     */
+    public void setNodeAncestorsEnabled(boolean nodeAncestorsEnabled)
+    {
+        this.nodeAncestorsEnabled = nodeAncestorsEnabled;
+    }
+
     /**
      * Set the cache that maintains lookups by child <b>cm:name</b>
      * 
@@ -1323,6 +1341,16 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         ParentAssocsInfo parentAssocsInfo = new ParentAssocsInfo(isRoot, isStoreRoot, assoc);
         setParentAssocsCached(nodeId, parentAssocsInfo);
         
+        // The new node's ancestors are its parent's, one level further up
+        if (nodeAncestorsEnabled)
+        {
+            Map<Long, Integer> parentAncestors = selectNodeAncestors(Collections.singletonList(parentNodeId)).get(parentNodeId);
+            if (parentAncestors != null)
+            {
+                insertNodeAncestors(nodeId, extendAncestors(nodeId, Collections.singletonList(parentAncestors)));
+            }
+        }
+        
         if (isDebugEnabled)
         {
             logger.debug(
@@ -1503,6 +1531,12 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         // Need the child node's name here in case it gets removed
         final String childNodeName = (String) getNodeProperty(childNodeId, ContentModel.PROP_NAME);
         
+        // The whole subtree is moving under new ancestors
+        if (nodeAncestorsEnabled && !EqualsHelper.nullSafeEquals(newParentNodeId, oldParentNodeId))
+        {
+            deleteNodeAncestorsOfSubtree(childNodeId);
+        }
+        
         // First attempt to move the node, which may rollback to a savepoint
         Node newChildNode = childNode;
         // Store
@@ -2053,6 +2087,12 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         invalidateNodeChildrenCaches(nodeId, true, true);
         invalidateNodeChildrenCaches(nodeId, false, true);
         
+        // Remove the materialised ancestors of the node and anything still below it
+        if (nodeAncestorsEnabled)
+        {
+            deleteNodeAncestorsOfSubtree(nodeId);
+        }
+        
         // Remove aspects
         deleteNodeAspects(nodeId, null);
         
@@ -3283,6 +3323,11 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         // update cache
         parentAssocInfo = parentAssocInfo.addAssoc(assocId, assoc);
         setParentAssocsCached(childNodeId, parentAssocInfo);
+        // The subtree has gained ancestors
+        if (nodeAncestorsEnabled)
+        {
+            deleteNodeAncestorsOfSubtree(childNodeId);
+        }
         // Done
         return assoc.getPair(qnameDAO);
     }
@@ -3314,6 +3359,11 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         // Update cache
         parentAssocInfo = parentAssocInfo.removeAssoc(assocId);
         setParentAssocsCached(childNodeId, parentAssocInfo);
+        // The subtree may have lost ancestors
+        if (nodeAncestorsEnabled)
+        {
+            deleteNodeAncestorsOfSubtree(childNodeId);
+        }
     }
 
     @Override
@@ -3877,6 +3927,12 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         // create storage for touched associations
         Stack<Long> assocIdStack = new Stack<Long>();
         
+        // load the whole ancestry in bulk rather than one level at a time
+        if (nodeAncestorsEnabled && !isParentAssocsCached(nodePair.getFirst()))
+        {
+            cacheNodeAncestors(Collections.singletonList(nodePair.getFirst()));
+        }
+        
         // call recursive method to sort it out
         prependPaths(nodePair, null, currentPath, paths, assocIdStack, primaryOnly);
         
@@ -3907,6 +3963,178 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         }
         return paths;
     }
+
+    /*
+     * Ancestors
+     */
+
+    @Override
+    public boolean isNodeAncestorsEnabled()
+    {
+        return nodeAncestorsEnabled;
+    }
+
+    @Override
+    public Map<Long, Integer> getNodeAncestors(Long nodeId)
+    {
+        if (nodeAncestorsEnabled)
+        {
+            Map<Long, Integer> ancestors = selectNodeAncestors(Collections.singletonList(nodeId)).get(nodeId);
+            if (ancestors != null)
+            {
+                ancestors.remove(nodeId);
+                return ancestors;
+            }
+        }
+        return walkNodeAncestors(nodeId);
+    }
+
+    @Override
+    public Set<Long> cacheNodeAncestors(List<Long> nodeIds)
+    {
+        Set<Long> allNodeIds = new TreeSet<Long>(nodeIds);
+        List<Long> unresolvedNodeIds = nodeIds;
+        if (nodeAncestorsEnabled)
+        {
+            // Pick up the materialised closures in batches
+            unresolvedNodeIds = new ArrayList<Long>(0);
+            int batchSize = 256;
+            for (int i = 0; i < nodeIds.size(); i += batchSize)
+            {
+                List<Long> batch = nodeIds.subList(i, Math.min(i + batchSize, nodeIds.size()));
+                Map<Long, Map<Long, Integer>> ancestorsByNodeId = selectNodeAncestors(batch);
+                for (Long nodeId : batch)
+                {
+                    Map<Long, Integer> ancestors = ancestorsByNodeId.get(nodeId);
+                    if (ancestors == null)
+                    {
+                        unresolvedNodeIds.add(nodeId);
+                    }
+                    else
+                    {
+                        allNodeIds.addAll(ancestors.keySet());
+                    }
+                }
+            }
+            // Bring in the known nodes and their parent associations
+            List<Long> knownNodeIds = new ArrayList<Long>(allNodeIds);
+            cacheNodesById(knownNodeIds);
+            cacheParentAssocs(knownNodeIds);
+        }
+        // Walk up from anything that has not been materialised yet
+        for (Long nodeId : unresolvedNodeIds)
+        {
+            if (exists(nodeId))
+            {
+                allNodeIds.addAll(walkNodeAncestors(nodeId).keySet());
+            }
+        }
+        return allNodeIds;
+    }
+
+    @Override
+    public int buildNodeAncestors(Long minNodeId, Long maxNodeId, boolean rebuild)
+    {
+        if (!nodeAncestorsEnabled)
+        {
+            return 0;
+        }
+        if (rebuild)
+        {
+            deleteNodeAncestors(minNodeId, maxNodeId);
+        }
+        List<Long> nodeIds = selectNodeIdsWithoutAncestors(minNodeId, maxNodeId);
+        cacheNodesById(nodeIds);
+        int count = 0;
+        for (Long nodeId : nodeIds)
+        {
+            if (!exists(nodeId))
+            {
+                continue;
+            }
+            // Reuse the closures of the parents where they have been built
+            List<Long> parentNodeIds = new ArrayList<Long>(3);
+            for (ChildAssocEntity assoc : getParentAssocsCached(nodeId).getParentAssocs().values())
+            {
+                parentNodeIds.add(assoc.getParentNode().getId());
+            }
+            Map<Long, Map<Long, Integer>> parentAncestors = selectNodeAncestors(parentNodeIds);
+            Map<Long, Integer> ancestors;
+            if (parentAncestors.size() == new HashSet<Long>(parentNodeIds).size())
+            {
+                ancestors = extendAncestors(nodeId, parentAncestors.values());
+            }
+            else
+            {
+                ancestors = walkNodeAncestors(nodeId);
+                ancestors.put(nodeId, 0);
+            }
+            insertNodeAncestors(nodeId, ancestors);
+            count++;
+        }
+        if (isDebugEnabled)
+        {
+            logger.debug("Built the ancestors of " + count + " nodes in ID range [" + minNodeId + ", " + maxNodeId + ")");
+        }
+        return count;
+    }
+
+    /**
+     * Builds the ancestors of a node from the ancestors of its parents
+     * 
+     * @return          the ancestors of the node, including itself at depth <tt>0</tt>
+     */
+    private Map<Long, Integer> extendAncestors(Long nodeId, Collection<Map<Long, Integer>> parentAncestors)
+    {
+        Map<Long, Integer> ancestors = new HashMap<Long, Integer>(31);
+        for (Map<Long, Integer> parentAncestor : parentAncestors)
+        {
+            for (Map.Entry<Long, Integer> entry : parentAncestor.entrySet())
+            {
+                Long ancestorId = entry.getKey();
+                int depth = entry.getValue() + 1;
+                Integer existingDepth = ancestors.get(ancestorId);
+                if (existingDepth == null || existingDepth > depth)
+                {
+                    ancestors.put(ancestorId, depth);
+                }
+            }
+        }
+        ancestors.put(nodeId, 0);
+        return ancestors;
+    }
+
+    /**
+     * Walks the parent associations, one level at a time, to find the ancestors of a node
+     * 
+     * @return          the ancestors of the node mapped to their minimum depth; the node itself is not included
+     */
+    private Map<Long, Integer> walkNodeAncestors(Long nodeId)
+    {
+        Map<Long, Integer> ancestors = new HashMap<Long, Integer>(31);
+        List<Long> level = Collections.singletonList(nodeId);
+        int depth = 0;
+        while (!level.isEmpty())
+        {
+            depth++;
+            cacheNodesById(level);
+            List<Long> nextLevel = new ArrayList<Long>(level.size());
+            for (Long levelNodeId : level)
+            {
+                for (ChildAssocEntity assoc : getParentAssocsCached(levelNodeId).getParentAssocs().values())
+                {
+                    Long parentNodeId = assoc.getParentNode().getId();
+                    if (!parentNodeId.equals(nodeId) && !ancestors.containsKey(parentNodeId))
+                    {
+                        ancestors.put(parentNodeId, depth);
+                        nextLevel.add(parentNodeId);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        return ancestors;
+    }
     
     private void bindFixAssocAndCollectLostAndFound(final Pair<Long, NodeRef> lostNodePair, final String lostName, final Long assocId, final boolean orphanChild)
     {
@@ -4414,6 +4642,83 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
         return value;
     }
     
+    /**
+     * @return Returns <tt>true</tt> if the node and its parent associations are already in the caches
+     */
+    private boolean isParentAssocsCached(Long nodeId)
+    {
+        Node node = nodesCache.getValue(nodeId);
+        if (node == null)
+        {
+            return false;
+        }
+        Pair<Long, String> cacheKey = new Pair<Long, String>(nodeId, node.getTransaction().getChangeTxnId());
+        return parentAssocsCache.get(cacheKey) != null;
+    }
+
+    /**
+     * Bulk-load the parent associations of cached nodes that do not have them cached yet.  Nodes without
+     * parents, nodes that are not cached and stale results are left to be loaded individually.
+     */
+    private void cacheParentAssocs(List<Long> nodeIds)
+    {
+        int batchSize = 256;
+        List<Long> batch = new ArrayList<Long>(batchSize);
+        for (Long nodeId : nodeIds)
+        {
+            Node node = nodesCache.getValue(nodeId);
+            if (node == null || node.getDeleted(qnameDAO) || isParentAssocsCached(nodeId))
+            {
+                continue;
+            }
+            batch.add(nodeId);
+            if (batch.size() >= batchSize)
+            {
+                cacheParentAssocsBatch(batch);
+                batch.clear();
+            }
+        }
+        if (batch.size() > 0)
+        {
+            cacheParentAssocsBatch(batch);
+        }
+    }
+
+    private void cacheParentAssocsBatch(List<Long> nodeIds)
+    {
+        Map<Long, List<ChildAssocEntity>> assocsByChildNodeId = new HashMap<Long, List<ChildAssocEntity>>(nodeIds.size() * 2);
+        for (ChildAssocEntity assoc : selectParentAssocs(nodeIds))
+        {
+            Long childNodeId = assoc.getChildNode().getId();
+            List<ChildAssocEntity> assocs = assocsByChildNodeId.get(childNodeId);
+            if (assocs == null)
+            {
+                assocs = new ArrayList<ChildAssocEntity>(2);
+                assocsByChildNodeId.put(childNodeId, assocs);
+            }
+            assocs.add(assoc);
+        }
+        for (Map.Entry<Long, List<ChildAssocEntity>> entry : assocsByChildNodeId.entrySet())
+        {
+            Long nodeId = entry.getKey();
+            List<ChildAssocEntity> assocs = entry.getValue();
+            Node node = nodesCache.getValue(nodeId);
+            if (node == null || !node.getNodeVersionKey().equals(assocs.get(0).getChildNode().getNodeVersionKey()))
+            {
+                // The cached node is not the version the associations were read for
+                continue;
+            }
+            boolean isRoot = hasNodeAspect(nodeId, ContentModel.ASPECT_ROOT);
+            boolean isStoreRoot = getNodeType(nodeId).equals(ContentModel.TYPE_STOREROOT);
+            Pair<Long, String> cacheKey = new Pair<Long, String>(nodeId, node.getTransaction().getChangeTxnId());
+            parentAssocsCache.put(cacheKey, new ParentAssocsInfo(isRoot, isStoreRoot, assocs));
+        }
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Pre-loaded parent associations of " + assocsByChildNodeId.size() + " nodes.");
+        }
+    }
+    
     /**
      * Update a node's parent associations.
      */
@@ -5105,6 +5410,25 @@ public abstract class AbstractNodeDAOImpl implements NodeDAO, BatchingDAO
             Boolean isPrimary,
             ChildAssocRefQueryCallback resultsCallback);
     protected abstract List<ChildAssocEntity> selectParentAssocs(Long childNodeId);
+    protected abstract List<ChildAssocEntity> selectParentAssocs(List<Long> childNodeIds);
+    /**
+     * @return              the ancestors (including the node itself at depth <tt>0</tt>) of each of the
+     *                      given nodes that has a materialised closure
+     */
+    protected abstract Map<Long, Map<Long, Integer>> selectNodeAncestors(List<Long> nodeIds);
+    protected abstract List<Long> selectNodeIdsWithoutAncestors(Long minNodeId, Long maxNodeId);
+    protected abstract void insertNodeAncestors(Long nodeId, Map<Long, Integer> ancestors);
+    /**
+     * Discard the ancestors of a node and of every node below it.  The rows are found through the
+     * <tt>ancestor_id</tt> index, but the statement deletes (and locks, until the transaction ends)
+     * about <i>descendants x depth</i> rows, so moving, linking or unlinking a large folder costs as
+     * much as the subtree is big.  The subtree is not rebuilt here; its nodes fall back to walking
+     * their parent associations until the node ancestors job fills them in again.
+     * 
+     * @return              the number of rows deleted
+     */
+    protected abstract int deleteNodeAncestorsOfSubtree(Long nodeId);
+    protected abstract int deleteNodeAncestors(Long minNodeId, Long maxNodeId);
     /**
      * No DB constraint, so multiple returned
      */
@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.domain.node;
+
+/**
+ * Bean to convey <b>alf_node_ancestor</b> data: one ancestor of a node and its
+ * minimum depth above the node.  Every node with a materialised closure also has
+ * a row for itself at depth <tt>0</tt>.
+ * 
+ * @since 5.2
+ */
+public class NodeAncestorEntity
+{
+    private Long nodeId;
+    private Long ancestorId;
+    private Integer depth;
+
+    /**
+     * Required default constructor
+     */
+    public NodeAncestorEntity()
+    {
+    }
+
+    public NodeAncestorEntity(Long nodeId, Long ancestorId, Integer depth)
+    {
+        this.nodeId = nodeId;
+        this.ancestorId = ancestorId;
+        this.depth = depth;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append("NodeAncestorEntity")
+          .append("[ nodeId=").append(nodeId)
+          .append(", ancestorId=").append(ancestorId)
+          .append(", depth=").append(depth)
+          .append("]");
+        return sb.toString();
+    }
+
+    public Long getNodeId()
+    {
+        return nodeId;
+    }
+
+    public void setNodeId(Long nodeId)
+    {
+        this.nodeId = nodeId;
+    }
+
+    public Long getAncestorId()
+    {
+        return ancestorId;
+    }
+
+    public void setAncestorId(Long ancestorId)
+    {
+        this.ancestorId = ancestorId;
+    }
+
+    public Integer getDepth()
+    {
+        return depth;
+    }
+
+    public void setDepth(Integer depth)
+    {
+        this.depth = depth;
+    }
+}
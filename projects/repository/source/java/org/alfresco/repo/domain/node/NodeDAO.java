@@ -767,6 +767,46 @@ public interface NodeDAO extends NodeBulkLoader
      */
     public void cycleCheck(Long nodeId);
 
+    /*
+     * Ancestors
+     */
+    
+    /**
+     * @return                      <tt>true</tt> if the ancestors of nodes are materialised in the database
+     */
+    public boolean isNodeAncestorsEnabled();
+    
+    /**
+     * Get the ancestors of a node, following both primary and secondary parent associations.
+     * The materialised ancestors are used if they have been built for the node; otherwise the
+     * parent associations are walked.
+     * 
+     * @param nodeId                the node ID
+     * @return                      Returns the IDs of the ancestors mapped to their minimum depth above
+     *                              the node (<tt>1</tt> for a parent).  The node itself is not included.
+     */
+    public Map<Long, Integer> getNodeAncestors(Long nodeId);
+    
+    /**
+     * Bulk-load the given nodes and all their ancestors, together with the parent associations
+     * needed to build their paths.
+     * 
+     * @param nodeIds               the IDs of the nodes to start from
+     * @return                      Returns the IDs of the given nodes and all their ancestors
+     */
+    public Set<Long> cacheNodeAncestors(List<Long> nodeIds);
+    
+    /**
+     * Materialise the ancestors of the nodes in an ID range that do not have them yet.
+     * This does nothing if the materialised ancestors are not enabled.
+     * 
+     * @param minNodeId             the minimum node ID (inclusive)
+     * @param maxNodeId             the maximum node ID (exclusive)
+     * @param rebuild               <tt>true</tt> to discard and rebuild the existing ancestors in the range
+     * @return                      Returns the number of nodes whose ancestors were written
+     */
+    public int buildNodeAncestors(Long minNodeId, Long maxNodeId, boolean rebuild);
+
     /*
      * Transactions
      */
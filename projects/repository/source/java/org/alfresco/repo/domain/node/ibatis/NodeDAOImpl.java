@@ -30,6 +30,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,6 +43,7 @@ import org.alfresco.repo.domain.node.AbstractNodeDAOImpl;
 import org.alfresco.repo.domain.node.ChildAssocEntity;
 import org.alfresco.repo.domain.node.ChildPropertyEntity;
 import org.alfresco.repo.domain.node.Node;
+import org.alfresco.repo.domain.node.NodeAncestorEntity;
 import org.alfresco.repo.domain.node.NodeAspectsEntity;
 import org.alfresco.repo.domain.node.NodeAssocEntity;
 import org.alfresco.repo.domain.node.NodeEntity;
@@ -143,6 +145,12 @@ public class NodeDAOImpl extends AbstractNodeDAOImpl
             "alfresco.node.select_ChildAssocsOfParentWithoutNodeAssocsOfType";
     private static final String SELECT_PARENT_ASSOCS_OF_CHILD = "alfresco.node.select_ParentAssocsOfChild";
     private static final String UPDATE_PARENT_ASSOCS_OF_CHILD = "alfresco.node.update_ParentAssocsOfChild";
+    private static final String SELECT_PARENT_ASSOCS_OF_CHILDREN = "alfresco.node.select_ParentAssocsOfChildren";
+    private static final String SELECT_NODE_ANCESTORS = "alfresco.node.select_NodeAncestors";
+    private static final String SELECT_NODE_IDS_WITHOUT_ANCESTORS = "alfresco.node.select_NodeIdsWithoutAncestors";
+    private static final String INSERT_NODE_ANCESTOR = "alfresco.node.insert_NodeAncestor";
+    private static final String DELETE_NODE_ANCESTORS_OF_SUBTREE = "alfresco.node.delete_NodeAncestorsOfSubtree";
+    private static final String DELETE_NODE_ANCESTORS_BY_NODE_ID_RANGE = "alfresco.node.delete_NodeAncestorsByNodeIdRange";
     private static final String DELETE_SUBSCRIPTIONS = "alfresco.node.delete_NodeSubscriptions";
     
     private static final String UPDATE_MOVE_PARENT_ASSOCS = "alfresco.node.update_MoveParentAssocs";
@@ -1515,6 +1523,97 @@ public class NodeDAOImpl extends AbstractNodeDAOImpl
         return template.selectList(SELECT_PARENT_ASSOCS_OF_CHILD, assoc);
     }
 
+    @Override
+    protected List<ChildAssocEntity> selectParentAssocs(List<Long> childNodeIds)
+    {
+        if (childNodeIds.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        IdsEntity ids = new IdsEntity();
+        ids.setIds(childNodeIds);
+        return template.selectList(SELECT_PARENT_ASSOCS_OF_CHILDREN, ids);
+    }
+
+    @Override
+    protected Map<Long, Map<Long, Integer>> selectNodeAncestors(List<Long> nodeIds)
+    {
+        if (nodeIds.isEmpty())
+        {
+            return Collections.emptyMap();
+        }
+        IdsEntity ids = new IdsEntity();
+        ids.setIds(nodeIds);
+        List<NodeAncestorEntity> rows = template.selectList(SELECT_NODE_ANCESTORS, ids);
+        
+        Map<Long, Map<Long, Integer>> results = new HashMap<Long, Map<Long, Integer>>(nodeIds.size() * 2);
+        for (NodeAncestorEntity row : rows)
+        {
+            Map<Long, Integer> ancestors = results.get(row.getNodeId());
+            if (ancestors == null)
+            {
+                ancestors = new HashMap<Long, Integer>(31);
+                results.put(row.getNodeId(), ancestors);
+            }
+            ancestors.put(row.getAncestorId(), row.getDepth());
+        }
+        // Only the nodes that carry their own row have been materialised
+        for (Iterator<Map.Entry<Long, Map<Long, Integer>>> it = results.entrySet().iterator(); it.hasNext(); /**/)
+        {
+            Map.Entry<Long, Map<Long, Integer>> entry = it.next();
+            if (!entry.getValue().containsKey(entry.getKey()))
+            {
+                it.remove();
+            }
+        }
+        return results;
+    }
+
+    @Override
+    protected List<Long> selectNodeIdsWithoutAncestors(Long minNodeId, Long maxNodeId)
+    {
+        IdsEntity ids = new IdsEntity();
+        ids.setIdOne(minNodeId);
+        ids.setIdTwo(maxNodeId);
+        return template.selectList(SELECT_NODE_IDS_WITHOUT_ANCESTORS, ids);
+    }
+
+    @Override
+    protected void insertNodeAncestors(Long nodeId, Map<Long, Integer> ancestors)
+    {
+        if (ancestors.isEmpty())
+        {
+            return;
+        }
+        startBatch();
+        try
+        {
+            for (Map.Entry<Long, Integer> entry : ancestors.entrySet())
+            {
+                template.insert(INSERT_NODE_ANCESTOR, new NodeAncestorEntity(nodeId, entry.getKey(), entry.getValue()));
+            }
+        }
+        finally
+        {
+            executeBatch();
+        }
+    }
+
+    @Override
+    protected int deleteNodeAncestorsOfSubtree(Long nodeId)
+    {
+        return template.delete(DELETE_NODE_ANCESTORS_OF_SUBTREE, nodeId);
+    }
+
+    @Override
+    protected int deleteNodeAncestors(Long minNodeId, Long maxNodeId)
+    {
+        IdsEntity ids = new IdsEntity();
+        ids.setIdOne(minNodeId);
+        ids.setIdTwo(maxNodeId);
+        return template.delete(DELETE_NODE_ANCESTORS_BY_NODE_ID_RANGE, ids);
+    }
+
     @Override
     protected int updatePrimaryParentAssocs(
             Long childNodeId,
@@ -25,8 +25,11 @@
  */
 package org.alfresco.repo.domain.usage;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.alfresco.error.AlfrescoRuntimeException;
@@ -52,6 +55,9 @@ import org.springframework.extensions.surf.util.ParameterCheck;
  */
 public abstract class AbstractUsageDAOImpl implements UsageDAO
 {
+    /** The most deltas written by one insert statement, keeping it well within the bind parameter limits */
+    private static final int MAX_DELTAS_PER_INSERT = 500;
+    
     private NodeDAO nodeDAO;
     
     public void setNodeDAO(NodeDAO nodeDAO)
@@ -118,6 +124,29 @@ public abstract class AbstractUsageDAOImpl implements UsageDAO
         insertUsageDeltaEntity(entity);
     }
     
+    public Map<NodeRef, Long> insertDeltas(Map<NodeRef, Long> deltaSizes)
+    {
+        Map<NodeRef, Long> written = new HashMap<NodeRef, Long>(deltaSizes.size() * 2);
+        List<UsageDeltaEntity> entities = new ArrayList<UsageDeltaEntity>(deltaSizes.size());
+        for (Map.Entry<NodeRef, Long> deltaSize : deltaSizes.entrySet())
+        {
+            Pair<Long, NodeRef> nodePair = nodeDAO.getNodePair(deltaSize.getKey());
+            if (nodePair == null)
+            {
+                // Deleted in the meantime - its deltas go with it
+                continue;
+            }
+            entities.add(new UsageDeltaEntity(nodePair.getFirst(), deltaSize.getValue()));
+            written.put(deltaSize.getKey(), deltaSize.getValue());
+        }
+        // Multi-row inserts rather than one statement per delta
+        for (int i = 0; i < entities.size(); i += MAX_DELTAS_PER_INSERT)
+        {
+            insertUsageDeltaEntities(entities.subList(i, Math.min(i + MAX_DELTAS_PER_INSERT, entities.size())));
+        }
+        return written;
+    }
+    
     public Set<NodeRef> getUsageDeltaNodes()
     {
         // TODO move into nodeDAO to directly return set of nodeRefs
@@ -151,6 +180,7 @@ public abstract class AbstractUsageDAOImpl implements UsageDAO
     }
     
     protected abstract UsageDeltaEntity insertUsageDeltaEntity(UsageDeltaEntity entity);
+    protected abstract void insertUsageDeltaEntities(List<UsageDeltaEntity> entities);
     protected abstract UsageDeltaEntity selectTotalUsageDeltaSize(long nodeEntityId);
     protected abstract List<Long> selectUsageDeltaNodes();
     protected abstract void selectUsersWithoutUsage(StoreRef storeRef, MapHandler handler);
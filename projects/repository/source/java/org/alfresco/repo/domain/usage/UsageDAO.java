@@ -49,6 +49,15 @@ public interface UsageDAO
      */
     public void insertDelta(NodeRef usageNodeRef, long deltaSize);
     
+    /**
+     * Create a usage delta entry for each of a set of nodes.  Nodes that no longer exist
+     * are skipped.
+     * 
+     * @param deltaSizes    the size change for each node
+     * @return              the size changes that were written
+     */
+    public Map<NodeRef, Long> insertDeltas(Map<NodeRef, Long> deltaSizes);
+    
     /**
      * Get the total delta size for a node.
      * 
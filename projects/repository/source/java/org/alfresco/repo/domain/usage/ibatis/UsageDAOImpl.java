@@ -52,6 +52,7 @@ public class UsageDAOImpl extends AbstractUsageDAOImpl
     private static Log logger = LogFactory.getLog(UsageDAOImpl.class);
     
     private static final String INSERT_USAGE_DELTA = "alfresco.usage.insert.insert_UsageDelta";
+    private static final String INSERT_USAGE_DELTAS = "alfresco.usage.insert.insert_UsageDeltas";
     private static final String SELECT_USAGE_DELTA_TOTAL_SIZE_BY_NODE = "alfresco.usage.select_GetTotalDeltaSizeByNodeId";
     private static final String SELECT_USAGE_DELTA_NODES = "alfresco.usage.select_GetUsageDeltaNodes";
     private static final String SELECT_USERS_WITH_USAGE = "alfresco.usage.select_GetUsersWithUsage";
@@ -84,6 +85,20 @@ public class UsageDAOImpl extends AbstractUsageDAOImpl
         return entity;
     }
     
+    @Override
+    protected void insertUsageDeltaEntities(List<UsageDeltaEntity> entities)
+    {
+        if (entities.isEmpty())
+        {
+            return;
+        }
+        for (UsageDeltaEntity entity : entities)
+        {
+            entity.setVersion(0L);
+        }
+        template.insert(INSERT_USAGE_DELTAS, entities);
+    }
+    
     @Override
     protected UsageDeltaEntity selectTotalUsageDeltaSize(long nodeEntityId)
     {
@@ -84,10 +84,11 @@ public class CreateDownloadArchiveAction extends ActionExecuterAbstractBase
     private NodeService nodeService;
     private RetryingTransactionHelper transactionHelper;
     private DownloadStatusUpdateService updateService;
+    private ZipCompressionSettings compressionSettings;
 
     private long maximumContentSize = -1l;
     
-    private static class SizeEstimator extends BaseExporter 
+    static class SizeEstimator extends BaseExporter 
     {
         /**
          * @param checkOutCheckInService CheckOutCheckInService
@@ -166,6 +167,27 @@ public class CreateDownloadArchiveAction extends ActionExecuterAbstractBase
     {
         this.updateService = updateService;
     }
+    
+    public void setCompressionSettings(ZipCompressionSettings compressionSettings)
+    {
+        this.compressionSettings = compressionSettings;
+    }
+
+    /**
+     * Crawler parameters for exporting the given nodes into a download archive.
+     */
+    static ExporterCrawlerParameters createCrawlerParameters(NodeRef[] nodeRefs)
+    {
+        ExporterCrawlerParameters crawlerParameters = new ExporterCrawlerParameters();
+        
+        Location exportFrom = new Location(nodeRefs);
+        crawlerParameters.setExportFrom(exportFrom);
+        
+        crawlerParameters.setCrawlSelf(true);
+        crawlerParameters.setExcludeChildAssocs(new QName[] {RenditionModel.ASSOC_RENDITION, ForumModel.ASSOC_DISCUSSION});
+        crawlerParameters.setExcludeAspects(new QName[] {ContentModel.ASPECT_WORKING_COPY});
+        return crawlerParameters;
+    }
 
     /**
      * Create an archive file containing content from the repository.
@@ -190,14 +212,7 @@ public class CreateDownloadArchiveAction extends ActionExecuterAbstractBase
             public Object doWork() throws Exception
             {
         
-                ExporterCrawlerParameters crawlerParameters = new ExporterCrawlerParameters();
-                
-                Location exportFrom = new Location(downloadRequest.getRequetedNodeRefs());
-                crawlerParameters.setExportFrom(exportFrom);
-                
-                crawlerParameters.setCrawlSelf(true);
-                crawlerParameters.setExcludeChildAssocs(new QName[] {RenditionModel.ASSOC_RENDITION, ForumModel.ASSOC_DISCUSSION});
-                crawlerParameters.setExcludeAspects(new QName[] {ContentModel.ASPECT_WORKING_COPY});
+                ExporterCrawlerParameters crawlerParameters = createCrawlerParameters(downloadRequest.getRequetedNodeRefs());
         
                 // Get an estimate of the size for statuses
                 SizeEstimator estimator = new SizeEstimator(checkOutCheckInService, nodeService);
@@ -247,6 +262,7 @@ public class CreateDownloadArchiveAction extends ActionExecuterAbstractBase
         // perform the actual export
         final File tempFile = TempFileProvider.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
         final ZipDownloadExporter handler = new ZipDownloadExporter(tempFile, checkOutCheckInService, nodeService, transactionHelper, updateService, downloadStorage, actionedUponNodeRef, estimator.getSize(), estimator.getFileCount());
+        handler.setCompressionSettings(compressionSettings);
         
         try {
             exporterService.exportView(handler, crawlerParameters, null);
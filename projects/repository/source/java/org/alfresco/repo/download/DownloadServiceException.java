@@ -36,6 +36,11 @@ public class DownloadServiceException extends AlfrescoRuntimeException
 {
     private static final long serialVersionUID = 1826926526215676002L;
 
+    public DownloadServiceException(String message)
+    {
+        super(message);
+    }
+
     public DownloadServiceException(String message, Throwable cause)
     {
         super(message, cause);
@@ -25,15 +25,22 @@
  */
 package org.alfresco.repo.download;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 
+import org.alfresco.repo.download.CreateDownloadArchiveAction.SizeEstimator;
 import org.alfresco.repo.download.cannedquery.DownloadEntity;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.coci.CheckOutCheckInService;
 import org.alfresco.service.cmr.download.DownloadService;
 import org.alfresco.service.cmr.download.DownloadStatus;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.view.ExporterCrawlerParameters;
+import org.alfresco.service.cmr.view.ExporterService;
 import org.alfresco.util.ParameterCheck;
 
 /**
@@ -50,6 +57,11 @@ public class DownloadServiceImpl implements DownloadService {
     private ActionServiceHelper actionServiceHelper;
     private DownloadStorage downloadStorage;
     private RetryingTransactionHelper transactionHelper;
+    private CheckOutCheckInService checkOutCheckInService;
+    private ExporterService exporterService;
+    private NodeService nodeService;
+    private ZipCompressionSettings compressionSettings;
+    private long maximumContentSize = -1l;
     
     // Dependency setters
     public void setActionServiceHelper(ActionServiceHelper actionServiceHelper)
@@ -67,6 +79,35 @@ public class DownloadServiceImpl implements DownloadService {
         this.downloadStorage = downloadStorage;
     }
     
+    public void setCheckOutCheckInService(CheckOutCheckInService checkOutCheckInService)
+    {
+        this.checkOutCheckInService = checkOutCheckInService;
+    }
+    
+    public void setExporterService(ExporterService exporterService)
+    {
+        this.exporterService = exporterService;
+    }
+    
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+    
+    public void setCompressionSettings(ZipCompressionSettings compressionSettings)
+    {
+        this.compressionSettings = compressionSettings;
+    }
+    
+    /**
+     * Set the maximum total size of content that can be streamed in a single
+     * download. -1 indicates no limit.
+     */
+    public void setMaximumContentSize(long maximumContentSize)
+    {
+        this.maximumContentSize = maximumContentSize;
+    }
+    
 	@Override
 	public NodeRef createDownload(final NodeRef[] requestedNodes, final boolean recursive) {
 	    ParameterCheck.mandatory("nodeRefs", requestedNodes);
@@ -137,5 +178,42 @@ public class DownloadServiceImpl implements DownloadService {
         
         downloadStorage.cancelDownload(downloadNodeRef);
     }
+
+    /*
+     * @see org.alfresco.service.cmr.download.DownloadService#streamDownload(org.alfresco.service.cmr.repository.NodeRef[], java.io.OutputStream)
+     */
+    @Override
+    public void streamDownload(NodeRef[] requestedNodes, OutputStream outputStream)
+    {
+        ParameterCheck.mandatory("nodeRefs", requestedNodes);
+        ParameterCheck.mandatory("outputStream", outputStream);
+        if (requestedNodes.length < 1)
+        {
+            throw new IllegalArgumentException("Need at least 1 node ref");
+        }
+        
+        ExporterCrawlerParameters crawlerParameters = CreateDownloadArchiveAction.createCrawlerParameters(requestedNodes);
+        
+        // Only the metadata is visited, so this is cheap compared to the archive itself
+        SizeEstimator estimator = new SizeEstimator(checkOutCheckInService, nodeService);
+        exporterService.exportView(estimator, crawlerParameters, null);
+        if (maximumContentSize > 0 && estimator.getSize() > maximumContentSize)
+        {
+            throw new DownloadServiceException("Maximum content size (" + maximumContentSize + ") exceeded (" + estimator.getSize() + ")");
+        }
+        
+        ZipDownloadExporter handler = new ZipDownloadExporter(outputStream, checkOutCheckInService, nodeService, estimator.getSize(), estimator.getFileCount());
+        handler.setCompressionSettings(compressionSettings);
+        exporterService.exportView(handler, crawlerParameters, null);
+        
+        try
+        {
+            outputStream.flush();
+        }
+        catch (IOException e)
+        {
+            throw new DownloadServiceException("Failed to stream download", e);
+        }
+    }
     
 }
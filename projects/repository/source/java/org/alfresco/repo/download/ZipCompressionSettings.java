@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.download;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.alfresco.util.PropertyCheck;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Controls how the entries of a download archive are compressed.
+ * <p>
+ * Content whose mimetype is listed in the stored mimetypes is already compressed (images, video,
+ * archives and the like), so deflating it again costs CPU for no gain. These entries are written
+ * without compression.
+ * <p>
+ * When parallel compression is enabled, entries up to <tt>parallelMaxEntrySize</tt> bytes are
+ * deflated on the compression executor, with at most <tt>parallelWindow</tt> entries in flight per
+ * archive. Larger entries are always compressed by the thread writing the archive.
+ */
+public class ZipCompressionSettings implements InitializingBean
+{
+    private Set<String> storedMimetypes = Collections.emptySet();
+    private boolean parallelCompression = false;
+    private ExecutorService compressionExecutor;
+    private int parallelWindow = 16;
+    private long parallelMaxEntrySize = 4L * 1024L * 1024L;
+
+    /**
+     * @param storedMimetypes       comma-separated list of mimetypes that are written without compression
+     */
+    public void setStoredMimetypes(String storedMimetypes)
+    {
+        Set<String> mimetypes = new HashSet<String>();
+        if (storedMimetypes != null)
+        {
+            for (String mimetype : storedMimetypes.split(","))
+            {
+                mimetype = mimetype.trim().toLowerCase();
+                if (mimetype.length() > 0)
+                {
+                    mimetypes.add(mimetype);
+                }
+            }
+        }
+        this.storedMimetypes = mimetypes;
+    }
+
+    public void setParallelCompression(boolean parallelCompression)
+    {
+        this.parallelCompression = parallelCompression;
+    }
+
+    public void setCompressionExecutor(ExecutorService compressionExecutor)
+    {
+        this.compressionExecutor = compressionExecutor;
+    }
+
+    /**
+     * @param parallelWindow        the maximum number of entries per archive being compressed at once
+     */
+    public void setParallelWindow(int parallelWindow)
+    {
+        this.parallelWindow = parallelWindow;
+    }
+
+    /**
+     * @param parallelMaxEntrySize  the largest entry, in bytes, that is buffered and compressed in parallel
+     */
+    public void setParallelMaxEntrySize(long parallelMaxEntrySize)
+    {
+        this.parallelMaxEntrySize = parallelMaxEntrySize;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        if (parallelCompression)
+        {
+            PropertyCheck.mandatory(this, "compressionExecutor", compressionExecutor);
+            if (parallelWindow < 1)
+            {
+                throw new IllegalArgumentException("parallelWindow must be at least 1");
+            }
+        }
+    }
+
+    /**
+     * @return          <tt>true</tt> if content of the given mimetype should be written without compression
+     */
+    public boolean isStored(String mimetype)
+    {
+        return (mimetype != null) && storedMimetypes.contains(mimetype.toLowerCase());
+    }
+
+    /**
+     * @return          <tt>true</tt> if an entry of the given size should be compressed on the compression executor
+     */
+    public boolean isCompressedInParallel(long size)
+    {
+        return parallelCompression && (compressionExecutor != null) && (size <= parallelMaxEntrySize);
+    }
+
+    public ExecutorService getCompressionExecutor()
+    {
+        return compressionExecutor;
+    }
+
+    public int getParallelWindow()
+    {
+        return parallelWindow;
+    }
+}
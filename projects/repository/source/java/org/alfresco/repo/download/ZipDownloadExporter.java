@@ -25,15 +25,21 @@
  */
 package org.alfresco.repo.download;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
@@ -56,7 +62,10 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Handler for exporting node content to a ZIP file
+ * Handler for exporting node content to a ZIP file, or straight to an output stream
+ * such as an HTTP response.
+ * <p>
+ * How each entry is compressed is controlled by the optional {@link ZipCompressionSettings}.
  * 
  * @author Alex Miller
  */
@@ -82,8 +91,12 @@ public class ZipDownloadExporter extends BaseExporter
     private Deque<Pair<String, NodeRef>> path = new LinkedList<Pair<String, NodeRef>>();
     private String currentName;
 
+    private File zipFile;
     private OutputStream outputStream;
 
+    private ZipCompressionSettings compressionSettings;
+    private Deque<Pair<ZipArchiveEntry, Future<DeflatedContent>>> pendingEntries = new LinkedList<Pair<ZipArchiveEntry, Future<DeflatedContent>>>();
+
     /**
      * Construct
      *
@@ -100,27 +113,58 @@ public class ZipDownloadExporter extends BaseExporter
     public ZipDownloadExporter(File zipFile, CheckOutCheckInService checkOutCheckInService, NodeService nodeService, RetryingTransactionHelper transactionHelper, DownloadStatusUpdateService updateService, DownloadStorage downloadStorage, NodeRef downloadNodeRef, long total, long totalFileCount)
     {
         super(checkOutCheckInService, nodeService);
-        try
-        {
-            this.outputStream = new FileOutputStream(zipFile);
-            this.updateService = updateService;
-            this.transactionHelper = transactionHelper;
-            this.downloadStorage = downloadStorage;
-            
-            this.downloadNodeRef = downloadNodeRef;
-            this.total = total;
-            this.totalFileCount = totalFileCount;
-        }
-        catch (FileNotFoundException e)
-        {
-            throw new ExporterException("Failed to create zip file", e);
-        }
+        this.zipFile = zipFile;
+        this.updateService = updateService;
+        this.transactionHelper = transactionHelper;
+        this.downloadStorage = downloadStorage;
+
+        this.downloadNodeRef = downloadNodeRef;
+        this.total = total;
+        this.totalFileCount = totalFileCount;
+    }
+
+    /**
+     * Construct an exporter that writes the archive straight to the given stream as the nodes are
+     * visited.  No download node is involved, so there are no status updates and no cancellation.
+     *
+     * @param outputStream OutputStream
+     * @param checkOutCheckInService CheckOutCheckInService
+     * @param nodeService NodeService
+     * @param total long
+     * @param totalFileCount long
+     */
+    public ZipDownloadExporter(OutputStream outputStream, CheckOutCheckInService checkOutCheckInService, NodeService nodeService, long total, long totalFileCount)
+    {
+        super(checkOutCheckInService, nodeService);
+        this.outputStream = outputStream;
+        this.total = total;
+        this.totalFileCount = totalFileCount;
+    }
+
+    public void setCompressionSettings(ZipCompressionSettings compressionSettings)
+    {
+        this.compressionSettings = compressionSettings;
     }
 
     @Override
     public void start(final ExporterContext context)
     {
-        zipStream = new ZipArchiveOutputStream(outputStream);
+        if (zipFile != null)
+        {
+            try
+            {
+                // A file is seekable, so entries can be STORED without knowing their size and CRC up front
+                zipStream = new ZipArchiveOutputStream(zipFile);
+            }
+            catch (IOException e)
+            {
+                throw new ExporterException("Failed to create zip file", e);
+            }
+        }
+        else
+        {
+            zipStream = new ZipArchiveOutputStream(outputStream);
+        }
         // NOTE: This encoding allows us to workaround bug...
         //       http://bugs.sun.com/bugdatabase/view_bug.do;:WuuT?bug_id=4820807
         zipStream.setEncoding("UTF-8");
@@ -140,6 +184,7 @@ public class ZipDownloadExporter extends BaseExporter
             ZipArchiveEntry archiveEntry = new ZipArchiveEntry(path);
             try
             {
+                writePendingEntries(0);
                 zipStream.putArchiveEntry(archiveEntry);
                 zipStream.closeArchiveEntry();
             }
@@ -163,12 +208,23 @@ public class ZipDownloadExporter extends BaseExporter
         {
             // ALF-2016
             ZipArchiveEntry zipEntry=new ZipArchiveEntry(getPath());
-            zipStream.putArchiveEntry(zipEntry);
-            
-            // copy export stream to zip
-            copyStream(zipStream, content);
+            String mimetype = (contentData == null ? null : contentData.getMimetype());
+            long size = (contentData == null ? Long.MAX_VALUE : contentData.getSize());
             
-            zipStream.closeArchiveEntry();
+            if (compressionSettings != null && compressionSettings.isStored(mimetype))
+            {
+                writePendingEntries(0);
+                writeStoredEntry(zipEntry, content);
+            }
+            else if (compressionSettings != null && compressionSettings.isCompressedInParallel(size))
+            {
+                queueEntry(zipEntry, content);
+            }
+            else
+            {
+                writePendingEntries(0);
+                writeEntry(zipEntry, content);
+            }
             filesAddedCount = filesAddedCount + 1;
         }
         catch (IOException e)
@@ -188,6 +244,7 @@ public class ZipDownloadExporter extends BaseExporter
     {
         try
         {
+            writePendingEntries(0);
             zipStream.close();
         }
         catch (IOException error)
@@ -220,6 +277,134 @@ public class ZipDownloadExporter extends BaseExporter
         return pathBuilder.toString();
     }
 
+    private void writeEntry(ZipArchiveEntry zipEntry, InputStream content) throws IOException
+    {
+        zipStream.putArchiveEntry(zipEntry);
+        
+        // copy export stream to zip
+        copyStream(zipStream, content);
+        
+        zipStream.closeArchiveEntry();
+    }
+
+    /**
+     * Writes content that is already compressed.  A seekable archive gets a proper STORED entry;
+     * a streamed archive cannot know the CRC before the data, so the entry is deflated at level 0,
+     * which costs next to nothing.
+     */
+    private void writeStoredEntry(ZipArchiveEntry zipEntry, InputStream content) throws IOException
+    {
+        if (zipStream.isSeekable())
+        {
+            zipEntry.setMethod(ZipEntry.STORED);
+            writeEntry(zipEntry, content);
+        }
+        else
+        {
+            zipStream.setLevel(Deflater.NO_COMPRESSION);
+            try
+            {
+                writeEntry(zipEntry, content);
+            }
+            finally
+            {
+                zipStream.setLevel(Deflater.DEFAULT_COMPRESSION);
+            }
+        }
+    }
+
+    /**
+     * Reads the content into memory and hands it to the compression executor.  The compressed entries
+     * are written out in the order they were queued.
+     */
+    private void queueEntry(ZipArchiveEntry zipEntry, InputStream content) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        copyStream(buffer, content);
+        final byte[] data = buffer.toByteArray();
+        
+        Future<DeflatedContent> future = compressionSettings.getCompressionExecutor().submit(new Callable<DeflatedContent>()
+        {
+            @Override
+            public DeflatedContent call() throws Exception
+            {
+                return new DeflatedContent(data);
+            }
+        });
+        pendingEntries.add(new Pair<ZipArchiveEntry, Future<DeflatedContent>>(zipEntry, future));
+        
+        writePendingEntries(compressionSettings.getParallelWindow() - 1);
+    }
+
+    /**
+     * Writes queued entries until no more than <tt>maxPending</tt> are left.
+     */
+    private void writePendingEntries(int maxPending) throws IOException
+    {
+        while (pendingEntries.size() > maxPending)
+        {
+            Pair<ZipArchiveEntry, Future<DeflatedContent>> pending = pendingEntries.removeFirst();
+            DeflatedContent deflated;
+            try
+            {
+                deflated = pending.getSecond().get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new ExporterException("Interrupted while compressing zip entry", e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new ExporterException("Failed to compress zip entry", e.getCause());
+            }
+            
+            ZipArchiveEntry zipEntry = pending.getFirst();
+            zipEntry.setMethod(ZipEntry.DEFLATED);
+            zipEntry.setSize(deflated.size);
+            zipEntry.setCompressedSize(deflated.compressed.length);
+            zipEntry.setCrc(deflated.crc);
+            zipStream.addRawArchiveEntry(zipEntry, new ByteArrayInputStream(deflated.compressed));
+        }
+    }
+
+    /**
+     * Content deflated into a raw (headerless) deflate stream, ready to be written as an archive entry.
+     */
+    private static class DeflatedContent
+    {
+        private final long size;
+        private final long crc;
+        private final byte[] compressed;
+        
+        private DeflatedContent(byte[] data)
+        {
+            CRC32 crc32 = new CRC32();
+            crc32.update(data);
+            
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try
+            {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+                byte[] buffer = new byte[2048 * 10];
+                while (!deflater.finished())
+                {
+                    int len = deflater.deflate(buffer);
+                    out.write(buffer, 0, len);
+                }
+                this.compressed = out.toByteArray();
+            }
+            finally
+            {
+                deflater.end();
+            }
+            this.size = data.length;
+            this.crc = crc32.getValue();
+        }
+    }
+
     /**
      * Copy input stream to output stream
      * 
@@ -239,7 +424,7 @@ public class ZipDownloadExporter extends BaseExporter
             done = done + read;
             
             // ALF-16289 - only update the status every 10MB
-            if (i++%500 == 0)
+            if (i++%500 == 0 && downloadNodeRef != null)
             {
                 updateStatus();
                 checkCancelled();
@@ -25,6 +25,8 @@
  */
 package org.alfresco.repo.lock;
 
+import java.util.concurrent.Future;
+
 import org.alfresco.api.AlfrescoPublicApi;     
 import org.alfresco.service.namespace.QName;
 
@@ -163,6 +165,40 @@ public interface JobLockService
      * @throws LockAcquisitionException if the lock could not be acquired
      */
     String getLock(QName lockQName, long timeToLive, JobLockRefreshCallback callback);
+    
+    /**
+     * Attempt to take a manually-managed lock without waiting.  A single attempt is made
+     * and no exception is thrown if the lock is held by another process.
+     * 
+     * @param lockQName             the name of the lock to acquire
+     * @param timeToLive            the time (in milliseconds) for the lock to remain valid
+     * @return                      Returns the newly-created lock token or <tt>null</tt> if the
+     *                              lock is currently held by another process
+     * 
+     * @since 5.2
+     */
+    String tryLock(QName lockQName, long timeToLive);
+    
+    /**
+     * Take a manually-managed lock without blocking the calling thread.  The returned future
+     * completes with the lock token once the lock has been acquired.
+     * <p>
+     * Rather than retrying at fixed intervals, further attempts are made as soon as a related lock
+     * is released by this server or the lease of the current holder expires.  Releases made by
+     * other servers are picked up by a slower poll of the database.  If the lock cannot be acquired
+     * within <tt>maxWait</tt> the future fails with a {@link LockAcquisitionException}.
+     * <p>
+     * Cancelling the future stops any further attempts; a lock that has already been acquired
+     * must be released using the token.
+     * 
+     * @param lockQName             the name of the lock to acquire
+     * @param timeToLive            the time (in milliseconds) for the lock to remain valid
+     * @param maxWait               the maximum time (in milliseconds) to wait for the lock
+     * @return                      Returns a future holding the newly-created lock token
+     * 
+     * @since 5.2
+     */
+    Future<String> tryLock(QName lockQName, long timeToLive, long maxWait);
 
     /**
      * Refresh the lock using a valid lock token.
@@ -25,12 +25,29 @@
  */
 package org.alfresco.repo.lock;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.alfresco.repo.domain.locks.LockDAO;
+import org.alfresco.repo.domain.locks.LockEntity;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
@@ -59,10 +76,25 @@ public class JobLockServiceImpl implements JobLockService
     private RetryingTransactionHelper retryingTransactionHelper;
     private int defaultRetryCount;
     private long defaultRetryWait;
+    private long asyncPollInterval;
     
     private ScheduledExecutorService scheduler;
+    private ScheduledExecutorService waitScheduler;
     private VmShutdownListener shutdownListener;
     
+    /**
+     * Processes in this VM waiting for a lock, by lock name.  These are woken when a related
+     * lock is released rather than waiting out their retry interval.  There is an entry for each
+     * lock that is waited for and for each lock above it; entries are removed once unused.
+     */
+    private final ConcurrentMap<QName, LockWaiters> waiters = new ConcurrentHashMap<QName, LockWaiters>();
+    
+    /**
+     * Acquisition statistics by lock name, for the most recently requested locks
+     */
+    private final Map<QName, JobLockStatistics> statistics;
+    private volatile int maxLockStatistics;
+    
     /**
      * Stateless listener that does post-transaction cleanup.
      */
@@ -72,14 +104,35 @@ public class JobLockServiceImpl implements JobLockService
     {
         defaultRetryWait = 20;
         defaultRetryCount = 10;
+        asyncPollInterval = 5000;
+        maxLockStatistics = 1000;
         txnListener = new LockTransactionListener();
         
+        // Lock names often carry an ID, so only the most recently used ones are kept
+        statistics = new LinkedHashMap<QName, JobLockStatistics>(64, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QName, JobLockStatistics> eldest)
+            {
+                return size() > maxLockStatistics;
+            }
+        };
+        
         TraceableThreadFactory threadFactory = new TraceableThreadFactory();
         threadFactory.setThreadDaemon(false);
         threadFactory.setNamePrefix("JobLockService");
         
         scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
         
+        // Asynchronous lock attempts are kept apart from the lock refreshes
+        TraceableThreadFactory waitThreadFactory = new TraceableThreadFactory();
+        waitThreadFactory.setThreadDaemon(true);
+        waitThreadFactory.setNamePrefix("JobLockServiceWaiter");
+        
+        waitScheduler = Executors.newSingleThreadScheduledExecutor(waitThreadFactory);
+        
         shutdownListener = new VmShutdownListener("JobLockService");
     }
 
@@ -101,6 +154,16 @@ public class JobLockServiceImpl implements JobLockService
         
         // If we don't tell the thread pool to shutdown, then the JVM won't shutdown.
         scheduler.shutdown();
+        waitScheduler.shutdownNow();
+        
+        // Nothing will complete the outstanding asynchronous requests now
+        for (LockWaiters lockWaiters : waiters.values())
+        {
+            for (PendingLock pendingLock : lockWaiters.pendingLocks)
+            {
+                pendingLock.fail(new LockAcquisitionException(pendingLock.lockQName, pendingLock.lockToken));
+            }
+        }
     }
     
     
@@ -139,6 +202,64 @@ public class JobLockServiceImpl implements JobLockService
         this.defaultRetryWait = defaultRetryWait;
     }
 
+    /**
+     * Set the time to wait between database checks made on behalf of {@link #tryLock(QName, long, long) asynchronous}
+     * lock requests.  Further attempts are also made whenever a related lock is released in this VM or the lease
+     * on the current lock expires; the poll only picks up locks released by other servers.
+     * 
+     * @param asyncPollInterval         the poll interval in milliseconds
+     */
+    public void setAsyncPollInterval(long asyncPollInterval)
+    {
+        this.asyncPollInterval = asyncPollInterval;
+    }
+
+    /**
+     * Set the number of locks to keep acquisition statistics for.  The statistics of the lock
+     * that was requested least recently are dropped first.
+     * 
+     * @param maxLockStatistics         the maximum number of locks with statistics
+     */
+    public void setMaxLockStatistics(int maxLockStatistics)
+    {
+        this.maxLockStatistics = maxLockStatistics;
+    }
+
+    /**
+     * Get the acquisition statistics of the locks requested most recently through this service
+     * 
+     * @return                          the statistics by lock name
+     */
+    public Map<QName, JobLockStatistics> getLockStatistics()
+    {
+        synchronized (statistics)
+        {
+            return Collections.unmodifiableMap(new HashMap<QName, JobLockStatistics>(statistics));
+        }
+    }
+
+    /**
+     * Get the acquisition statistics for a lock
+     * 
+     * @param lockQName                 the name of the lock
+     * @return                          the statistics or <tt>null</tt> if the lock has not been requested
+     */
+    public JobLockStatistics getLockStatistics(QName lockQName)
+    {
+        synchronized (statistics)
+        {
+            return statistics.get(lockQName);
+        }
+    }
+
+    /**
+     * @return                          <tt>true</tt> if processes in this VM are waiting for the lock or a lock below it
+     */
+    boolean hasWaiters(QName lockQName)
+    {
+        return waiters.containsKey(lockQName);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -229,6 +350,42 @@ public class JobLockServiceImpl implements JobLockService
         // Done
         return lockToken;
     }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String tryLock(QName lockQName, long timeToLive)
+    {
+        String lockToken = GUID.generate();
+        try
+        {
+            getLockImpl(lockToken, lockQName, timeToLive, defaultRetryWait, 1);
+            return lockToken;
+        }
+        catch (LockAcquisitionException e)
+        {
+            // It is held elsewhere
+            return null;
+        }
+    }
+    
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<String> tryLock(QName lockQName, long timeToLive, long maxWait)
+    {
+        if (lockQName == null) throw new IllegalArgumentException("lock name null");
+        if (maxWait < 0)
+        {
+            throw new IllegalArgumentException("Job lock wait cannot be negative: " + maxWait);
+        }
+        PendingLock pendingLock = new PendingLock(GUID.generate(), lockQName, timeToLive, maxWait, retainWaiters(lockQName));
+        pendingLock.lockWaiters.pendingLocks.add(pendingLock);
+        pendingLock.schedule(0L);
+        return pendingLock;
+    }
                                               
     /**
      * {@inheritDoc}
@@ -460,6 +617,8 @@ public class JobLockServiceImpl implements JobLockService
             }
         };
         retryingTransactionHelper.doInTransaction(releaseCallback, false, true);
+        // Let anyone waiting know
+        notifyLockReleased(lockQName);
     }
 
     /**
@@ -474,7 +633,13 @@ public class JobLockServiceImpl implements JobLockService
                 return lockDAO.releaseLock(lockQName, lockToken, true);
             }
         };
-        return retryingTransactionHelper.doInTransaction(releaseCallback, false, true);
+        boolean released = retryingTransactionHelper.doInTransaction(releaseCallback, false, true);
+        if (released)
+        {
+            // Let anyone waiting know
+            notifyLockReleased(lockQName);
+        }
+        return released;
     }
 
     /**
@@ -495,9 +660,11 @@ public class JobLockServiceImpl implements JobLockService
                 return null;
             }
         };
+        long startTime = System.currentTimeMillis();
         try
         {
-            int iterations = doWithRetry(getLockCallback, retryWait, retryCount);
+            int iterations = doWithRetry(getLockCallback, lockQName, retryWait, retryCount);
+            getStatistics(lockQName).record(true, iterations, System.currentTimeMillis() - startTime);
             // Bind in a listener, if we are in a transaction
             if (AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_NONE)
             {
@@ -517,6 +684,7 @@ public class JobLockServiceImpl implements JobLockService
         catch (LockAcquisitionException e)
         {
             // Failure
+            getStatistics(lockQName).record(false, retryCount > 0 ? retryCount : 1, System.currentTimeMillis() - startTime);
             if (logger.isDebugEnabled())
             {
                 logger.debug(
@@ -532,41 +700,55 @@ public class JobLockServiceImpl implements JobLockService
     
     /**
      * Does the high-level retrying around the callback.  At least one attempt is made to call the
-     * provided callback.
+     * provided callback.  Between attempts the thread waits for the retry time, or until a related
+     * lock is released in this VM or the lease of the lock in the way expires, whichever is first.
      */
-    private int doWithRetry(RetryingTransactionCallback<? extends Object> callback, long retryWait, int retryCount)
+    private int doWithRetry(RetryingTransactionCallback<? extends Object> callback, QName lockQName, long retryWait, int retryCount)
     {
+        LockWaiters lockWaiters = retainWaiters(lockQName);
         int maxAttempts = retryCount > 0 ? retryCount : 1;
         int lockAttempt = 0;
         LockAcquisitionException lastException = null;
-        while (++lockAttempt <= maxAttempts)     // lockAttempt incremented before check i.e. 1 for first check
+        try
         {
-            try
-            {
-                retryingTransactionHelper.doInTransaction(callback, false, true);
-                // Success.  Clear the exception indicator! 
-                lastException = null;
-                break;
-            }
-            catch (LockAcquisitionException e)
+            while (++lockAttempt <= maxAttempts)     // lockAttempt incremented before check i.e. 1 for first check
             {
-                if (logger.isDebugEnabled())
+                // Note the releases seen so far; anything later is worth another attempt
+                long releaseCount = lockWaiters.getReleaseCount();
+                try
                 {
-                    logger.debug("Lock attempt " + lockAttempt + " of " + maxAttempts + " failed: " + e.getMessage());
+                    retryingTransactionHelper.doInTransaction(callback, false, true);
+                    // Success.  Clear the exception indicator! 
+                    lastException = null;
+                    break;
                 }
-                lastException = e;
-                if (lockAttempt >= maxAttempts)
+                catch (LockAcquisitionException e)
                 {
-                    // Avoid an unnecessary wait if this is the last attempt
-                    break;
+                    if (logger.isDebugEnabled())
+                    {
+                        logger.debug("Lock attempt " + lockAttempt + " of " + maxAttempts + " failed: " + e.getMessage());
+                    }
+                    lastException = e;
+                    if (lockAttempt >= maxAttempts)
+                    {
+                        // Avoid an unnecessary wait if this is the last attempt
+                        break;
+                    }
                 }
-            }
-            // Before running again, do a wait
-            synchronized(callback)
-            {
-                try { callback.wait(retryWait); } catch (InterruptedException e) {}
+                // Before running again, do a wait
+                long wait = retryWait;
+                long leaseExpiry = getLeaseExpiry(lastException);
+                if (leaseExpiry > 0L)
+                {
+                    wait = Math.min(wait, Math.max(1L, leaseExpiry - System.currentTimeMillis()));
+                }
+                lockWaiters.await(releaseCount, wait);
             }
         }
+        finally
+        {
+            releaseWaiters(lockQName);
+        }
         if (lastException == null)
         {
             // Success
@@ -579,6 +761,458 @@ public class JobLockServiceImpl implements JobLockService
         }
     }
     
+    private JobLockStatistics getStatistics(QName lockQName)
+    {
+        synchronized (statistics)
+        {
+            JobLockStatistics lockStatistics = statistics.get(lockQName);
+            if (lockStatistics == null)
+            {
+                lockStatistics = new JobLockStatistics(lockQName);
+                statistics.put(lockQName, lockStatistics);
+            }
+            return lockStatistics;
+        }
+    }
+    
+    /**
+     * Get the lock names at and above the given lock in the lock hierarchy, top first
+     */
+    private static List<QName> getLockQNamePath(QName lockQName)
+    {
+        String namespaceUri = lockQName.getNamespaceURI();
+        String localName = lockQName.getLocalName();
+        List<QName> lockQNames = new ArrayList<QName>(4);
+        for (int index = localName.indexOf('.'); index > 0; index = localName.indexOf('.', index + 1))
+        {
+            lockQNames.add(QName.createQName(namespaceUri, localName.substring(0, index)));
+        }
+        lockQNames.add(lockQName);
+        return lockQNames;
+    }
+    
+    /**
+     * Register a process waiting for the given lock.  The locks above it hold on to its waiters so
+     * that their release can wake it as well.  Each call must be matched by a call to
+     * {@link #releaseWaiters(QName)}.
+     * 
+     * @return                  the waiters for the lock
+     */
+    private LockWaiters retainWaiters(QName lockQName)
+    {
+        LockWaiters parent = null;
+        LockWaiters lockWaiters = null;
+        for (QName pathQName : getLockQNamePath(lockQName))
+        {
+            while (true)
+            {
+                lockWaiters = waiters.get(pathQName);
+                if (lockWaiters == null)
+                {
+                    lockWaiters = new LockWaiters();
+                    LockWaiters existing = waiters.putIfAbsent(pathQName, lockWaiters);
+                    if (existing != null)
+                    {
+                        lockWaiters = existing;
+                    }
+                }
+                if (lockWaiters.retain())
+                {
+                    break;
+                }
+                // The entry is being removed; wait for it to go
+                Thread.yield();
+            }
+            if (parent != null)
+            {
+                parent.below.add(lockWaiters);
+            }
+            parent = lockWaiters;
+        }
+        return lockWaiters;
+    }
+    
+    /**
+     * Unregister a process that was waiting for the given lock, removing the waiters that are no
+     * longer in use
+     */
+    private void releaseWaiters(QName lockQName)
+    {
+        List<QName> lockQNames = getLockQNamePath(lockQName);
+        LockWaiters removedBelow = null;
+        for (int i = lockQNames.size() - 1; i >= 0; i--)
+        {
+            QName pathQName = lockQNames.get(i);
+            LockWaiters lockWaiters = waiters.get(pathQName);
+            if (removedBelow != null)
+            {
+                lockWaiters.below.remove(removedBelow);
+                removedBelow = null;
+            }
+            if (lockWaiters.release())
+            {
+                waiters.remove(pathQName, lockWaiters);
+                removedBelow = lockWaiters;
+            }
+        }
+    }
+    
+    /**
+     * Wake up the processes waiting for the given lock and for any lock above or below it
+     * in the lock hierarchy, as they may have been held up by the shared lock resources.
+     */
+    private void notifyLockReleased(QName lockQName)
+    {
+        for (QName pathQName : getLockQNamePath(lockQName))
+        {
+            LockWaiters lockWaiters = waiters.get(pathQName);
+            if (lockWaiters == null)
+            {
+                // Nobody is waiting at or below this level
+                return;
+            }
+            lockWaiters.released();
+            if (pathQName.equals(lockQName))
+            {
+                lockWaiters.releasedBelow();
+            }
+        }
+    }
+    
+    /**
+     * Get the time at which the lock that caused the failure will expire, if known
+     * 
+     * @return                  the expiry time or <tt>0</tt> if it is not known
+     */
+    private static long getLeaseExpiry(LockAcquisitionException e)
+    {
+        if (e == null || !LockAcquisitionException.ERR_EXCLUSIVE_LOCK_EXISTS.equals(e.getMsgId()))
+        {
+            return 0L;
+        }
+        Object[] params = e.getMsgParams();
+        if (params != null && params.length > 2 && params[2] instanceof LockEntity)
+        {
+            Long expiryTime = ((LockEntity) params[2]).getExpiryTime();
+            return expiryTime == null ? 0L : expiryTime.longValue();
+        }
+        return 0L;
+    }
+    
+    /**
+     * The processes in this VM waiting for a particular lock
+     */
+    private static class LockWaiters
+    {
+        /** Asynchronous requests for the lock */
+        private final Set<PendingLock> pendingLocks = new CopyOnWriteArraySet<PendingLock>();
+        /** The waiters for the locks directly below this one */
+        private final Set<LockWaiters> below = Collections.newSetFromMap(new ConcurrentHashMap<LockWaiters, Boolean>());
+        /** Incremented each time a related lock is released */
+        private long releaseCount = 0L;
+        /** The processes waiting for this lock or a lock below it */
+        private int users = 0;
+        private boolean removed = false;
+        
+        /**
+         * @return              <tt>false</tt> if these waiters are no longer in use and must be replaced
+         */
+        private synchronized boolean retain()
+        {
+            if (removed)
+            {
+                return false;
+            }
+            users++;
+            return true;
+        }
+        
+        /**
+         * @return              <tt>true</tt> if these waiters are no longer in use
+         */
+        private synchronized boolean release()
+        {
+            if (--users == 0)
+            {
+                removed = true;
+            }
+            return removed;
+        }
+        
+        private synchronized long getReleaseCount()
+        {
+            return releaseCount;
+        }
+        
+        /**
+         * Wait until a release after the given one or until the time is up
+         */
+        private synchronized void await(long lastReleaseCount, long maxWait)
+        {
+            long endTime = System.currentTimeMillis() + maxWait;
+            long remaining = maxWait;
+            while (releaseCount == lastReleaseCount && remaining > 0L)
+            {
+                try { wait(remaining); } catch (InterruptedException e) { return; }
+                remaining = endTime - System.currentTimeMillis();
+            }
+        }
+        
+        private void released()
+        {
+            synchronized (this)
+            {
+                releaseCount++;
+                notifyAll();
+            }
+            for (PendingLock pendingLock : pendingLocks)
+            {
+                pendingLock.schedule(0L);
+            }
+        }
+        
+        private void releasedBelow()
+        {
+            for (LockWaiters lockWaiters : below)
+            {
+                lockWaiters.released();
+                lockWaiters.releasedBelow();
+            }
+        }
+    }
+    
+    /**
+     * An asynchronous lock request.  Each attempt is made on the wait scheduler thread and, on failure,
+     * the next one is scheduled for the earliest of the lease expiry of the lock in the way and the
+     * poll interval.  A release of a related lock in this VM brings the next attempt forward.
+     */
+    private class PendingLock implements Future<String>, Runnable
+    {
+        private final String lockToken;
+        private final QName lockQName;
+        private final LockWaiters lockWaiters;
+        private final long timeToLive;
+        private final long startTime;
+        private final long endTime;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int attempts = 0;
+        private ScheduledFuture<?> nextAttempt;
+        private volatile boolean cancelled = false;
+        private volatile LockAcquisitionException failure;
+        
+        private PendingLock(String lockToken, QName lockQName, long timeToLive, long maxWait, LockWaiters lockWaiters)
+        {
+            this.lockToken = lockToken;
+            this.lockQName = lockQName;
+            this.lockWaiters = lockWaiters;
+            this.timeToLive = timeToLive;
+            this.startTime = System.currentTimeMillis();
+            this.endTime = startTime + maxWait;
+        }
+        
+        /**
+         * Schedule the next attempt, unless one is due earlier
+         */
+        private synchronized void schedule(long delay)
+        {
+            if (isDone())
+            {
+                return;
+            }
+            if (nextAttempt != null)
+            {
+                if (nextAttempt.getDelay(TimeUnit.MILLISECONDS) <= delay)
+                {
+                    return;
+                }
+                nextAttempt.cancel(false);
+            }
+            try
+            {
+                nextAttempt = waitScheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            }
+            catch (RuntimeException e)
+            {
+                // The scheduler has shut down
+                fail(new LockAcquisitionException(e, LockAcquisitionException.ERR_FAILED_TO_ACQUIRE_LOCK, lockQName, lockToken));
+            }
+        }
+        
+        @Override
+        public void run()
+        {
+            synchronized (this)
+            {
+                nextAttempt = null;
+                if (isDone())
+                {
+                    return;
+                }
+                attempts++;
+            }
+            RetryingTransactionCallback<Object> getLockCallback = new RetryingTransactionCallback<Object>()
+            {
+                public Object execute() throws Throwable
+                {
+                    lockDAO.getLock(lockQName, lockToken, timeToLive);
+                    return null;
+                }
+            };
+            try
+            {
+                retryingTransactionHelper.doInTransaction(getLockCallback, false, true);
+                complete();
+            }
+            catch (LockAcquisitionException e)
+            {
+                long now = System.currentTimeMillis();
+                if (now >= endTime)
+                {
+                    fail(e);
+                    return;
+                }
+                long delay = Math.min(asyncPollInterval, endTime - now);
+                long leaseExpiry = getLeaseExpiry(e);
+                if (leaseExpiry > 0L)
+                {
+                    delay = Math.min(delay, Math.max(1L, leaseExpiry - now));
+                }
+                schedule(delay);
+            }
+            catch (Throwable e)
+            {
+                fail(new LockAcquisitionException(e, LockAcquisitionException.ERR_FAILED_TO_ACQUIRE_LOCK, lockQName, lockToken));
+            }
+        }
+        
+        private void complete()
+        {
+            // No longer waiting, before the caller learns of the lock
+            unregister();
+            boolean abandoned;
+            synchronized (this)
+            {
+                // The request may have been cancelled or failed while the attempt was in progress
+                abandoned = isDone();
+                done.countDown();
+            }
+            if (abandoned)
+            {
+                // Nobody will collect the lock
+                releaseLockVerify(lockToken, lockQName);
+                return;
+            }
+            getStatistics(lockQName).record(true, attempts, System.currentTimeMillis() - startTime);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(
+                        "Acquired Lock asynchronously: \n" +
+                        "   Lock:     " + lockQName + "\n" +
+                        "   TTL:      " + timeToLive + "\n" +
+                        "   Txn:      " + lockToken + "\n" +
+                        "   Attempts: " + attempts);
+            }
+        }
+        
+        private void fail(LockAcquisitionException e)
+        {
+            synchronized (this)
+            {
+                if (isDone())
+                {
+                    return;
+                }
+                failure = e;
+                unregister();
+                done.countDown();
+            }
+            getStatistics(lockQName).record(false, attempts, System.currentTimeMillis() - startTime);
+            if (logger.isDebugEnabled())
+            {
+                logger.debug(
+                        "Asynchronous lock acquisition failed: \n" +
+                        "   Lock:     " + lockQName + "\n" +
+                        "   TTL:      " + timeToLive + "\n" +
+                        "   Txn:      " + lockToken + "\n" +
+                        "   Error:    " + e.getMessage());
+            }
+        }
+        
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            synchronized (this)
+            {
+                if (isDone())
+                {
+                    return false;
+                }
+                cancelled = true;
+                done.countDown();
+                if (nextAttempt != null)
+                {
+                    nextAttempt.cancel(false);
+                    nextAttempt = null;
+                }
+            }
+            unregister();
+            return true;
+        }
+        
+        /**
+         * Stop waking this request up, once it is done
+         */
+        private void unregister()
+        {
+            if (lockWaiters.pendingLocks.remove(this))
+            {
+                releaseWaiters(lockQName);
+            }
+        }
+        
+        @Override
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+        
+        @Override
+        public boolean isDone()
+        {
+            return done.getCount() == 0;
+        }
+        
+        @Override
+        public String get() throws InterruptedException, ExecutionException
+        {
+            done.await();
+            return getResult();
+        }
+        
+        @Override
+        public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if (!done.await(timeout, unit))
+            {
+                throw new TimeoutException("Lock not acquired: " + lockQName);
+            }
+            return getResult();
+        }
+        
+        private String getResult() throws ExecutionException
+        {
+            if (cancelled)
+            {
+                throw new CancellationException("Lock request cancelled: " + lockQName);
+            }
+            if (failure != null)
+            {
+                throw new ExecutionException(failure);
+            }
+            return lockToken;
+        }
+    }
+    
     /**
      * Handles the transction synchronization activity, ensuring locks are rolled back as
      * required.
@@ -619,6 +1253,10 @@ public class JobLockServiceImpl implements JobLockService
             };
             retryingTransactionHelper.doInTransaction(releaseCallback, false, true);
             // So they were all successful
+            for (QName lockQName : heldLocks)
+            {
+                notifyLockReleased(lockQName);
+            }
             heldLocks.clear();
         }
 
@@ -651,6 +1289,7 @@ public class JobLockServiceImpl implements JobLockService
                 try
                 {
                     retryingTransactionHelper.doInTransaction(releaseCallback, false, true);
+                    notifyLockReleased(lockQName);
                 }
                 catch (Throwable e)
                 {
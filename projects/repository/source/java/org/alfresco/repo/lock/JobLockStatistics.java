@@ -0,0 +1,160 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.lock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Acquisition statistics for a single job lock, kept by the {@link JobLockServiceImpl}.
+ * <p>
+ * A lock acquisition is <i>contended</i> if the first attempt found the lock held by
+ * another token.  The wait time covers all attempts of an acquisition, whether it
+ * succeeded or failed.
+ * 
+ * @since 5.2
+ */
+public class JobLockStatistics
+{
+    private final QName lockQName;
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong totalWaitTime = new AtomicLong();
+    private final AtomicLong maxWaitTime = new AtomicLong();
+
+    public JobLockStatistics(QName lockQName)
+    {
+        this.lockQName = lockQName;
+    }
+
+    /**
+     * Record the outcome of a lock acquisition
+     * 
+     * @param success               <tt>true</tt> if the lock was acquired
+     * @param lockAttempts          the number of attempts made against the database
+     * @param waitTime              the time (in milliseconds) spent acquiring the lock
+     */
+    void record(boolean success, int lockAttempts, long waitTime)
+    {
+        if (success)
+        {
+            acquired.incrementAndGet();
+        }
+        else
+        {
+            failed.incrementAndGet();
+        }
+        if (lockAttempts > 1 || !success)
+        {
+            contended.incrementAndGet();
+        }
+        attempts.addAndGet(lockAttempts);
+        totalWaitTime.addAndGet(waitTime);
+        long max = maxWaitTime.get();
+        while (waitTime > max && !maxWaitTime.compareAndSet(max, waitTime))
+        {
+            max = maxWaitTime.get();
+        }
+    }
+
+    public QName getLockQName()
+    {
+        return lockQName;
+    }
+
+    /**
+     * @return          the number of times the lock was acquired
+     */
+    public long getAcquiredCount()
+    {
+        return acquired.get();
+    }
+
+    /**
+     * @return          the number of times the lock could not be acquired
+     */
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    /**
+     * @return          the number of acquisitions that found the lock held elsewhere
+     */
+    public long getContendedCount()
+    {
+        return contended.get();
+    }
+
+    /**
+     * @return          the number of attempts made against the database
+     */
+    public long getAttemptCount()
+    {
+        return attempts.get();
+    }
+
+    /**
+     * @return          the total time (in milliseconds) spent acquiring the lock
+     */
+    public long getTotalWaitTime()
+    {
+        return totalWaitTime.get();
+    }
+
+    /**
+     * @return          the longest time (in milliseconds) spent on a single acquisition
+     */
+    public long getMaxWaitTime()
+    {
+        return maxWaitTime.get();
+    }
+
+    /**
+     * @return          the average time (in milliseconds) spent on an acquisition
+     */
+    public double getAverageWaitTime()
+    {
+        long count = acquired.get() + failed.get();
+        return count == 0 ? 0.0 : (double) totalWaitTime.get() / (double) count;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "JobLockStatistics " +
+                "[lock=" + lockQName +
+                ", acquired=" + getAcquiredCount() +
+                ", failed=" + getFailedCount() +
+                ", contended=" + getContendedCount() +
+                ", attempts=" + getAttemptCount() +
+                ", avgWait=" + getAverageWaitTime() +
+                ", maxWait=" + getMaxWaitTime() + "]";
+    }
+}
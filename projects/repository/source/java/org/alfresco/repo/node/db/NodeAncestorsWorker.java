@@ -0,0 +1,359 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.node.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorker;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+/**
+ * <h1>Node Ancestors Worker</h1>
+ * 
+ * <h2>What it is</h2>
+ * A worker for a scheduled job that materialises the ancestors of nodes in <b>alf_node_ancestor</b>.
+ * New nodes get their ancestors as they are created, and moving, linking or unlinking a node discards
+ * the ancestors of everything below it; this job fills in whatever is missing.  It can also discard and
+ * rebuild the ancestors of every node.
+ * <p>
+ * <h2>Settings that control the behaviour</h2>
+ * <ul>
+ *  <li><b>${system.nodeAncestors.enabled}</b> - the job does nothing unless the ancestors are materialised.</li>
+ *  <li><b>${system.nodeAncestors.rebuild.full}</b> - <tt>true</tt> to rebuild all ancestors rather than only the missing ones.</li>
+ *  <li><b>${system.nodeAncestors.rebuild.jobQueryRange}</b> - the node ID range to build in one transaction.</li>
+ *  <li><b>${system.nodeAncestors.rebuild.jobThreadCount}</b> - the number of threads that will build ancestors.</li>
+ * </ul>
+ * 
+ * @since 5.2
+ */
+public class NodeAncestorsWorker implements ApplicationContextAware
+{
+    private static final QName LOCK = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "NodeAncestorsWorker");
+    private static final long LOCK_TTL = 60000L;
+    
+    private static Log logger = LogFactory.getLog(NodeAncestorsWorker.class);
+    
+    private final NodeDAO nodeDAO;
+    private final JobLockService jobLockService;
+    private final TransactionService transactionService;
+    private ApplicationContext ctx;
+    
+    private final boolean rebuild;
+    private final int queryRange;
+    private final int threadCount;
+    private final int batchSize;
+    
+    public NodeAncestorsWorker(
+            NodeDAO nodeDAO, JobLockService jobLockService, TransactionService transactionService,
+            boolean rebuild, int queryRange, int threadCount)
+    {
+        this.nodeDAO = nodeDAO;
+        this.jobLockService = jobLockService;
+        this.transactionService = transactionService;
+        
+        this.rebuild = rebuild;
+        this.queryRange = queryRange;
+        this.threadCount = threadCount;
+        this.batchSize = 1;
+    }
+
+    /**
+     * Set the application context for event publishing during batch processing
+     */
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException
+    {
+        this.ctx = applicationContext;
+    }
+
+    /**
+     * Performs the work, including logging details of progress.
+     */
+    public NodeAncestorsWorkResult execute()
+    {
+        final NodeAncestorsWorkResult progress = new NodeAncestorsWorkResult();
+        if (!nodeDAO.isNodeAncestorsEnabled())
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Skipping node ancestors job: the node ancestors are not materialised.");
+            }
+            return progress;
+        }
+        
+        // Build refresh callback
+        JobLockRefreshCallback lockCallback = new JobLockRefreshCallback()
+        {
+            @Override
+            public void lockReleased()
+            {
+                progress.inProgress.set(false);
+            }
+            
+            @Override
+            public boolean isActive()
+            {
+                return progress.inProgress.get();
+            }
+        };
+        
+        String lockToken = null;
+        try
+        {
+            progress.inProgress.set(true);
+            // Get the lock
+            lockToken = jobLockService.getLock(LOCK, LOCK_TTL);
+            // Start the refresh timer
+            jobLockService.refreshLock(lockToken, LOCK, LOCK_TTL, lockCallback);
+
+            if (logger.isInfoEnabled())
+            {
+                logger.info("NodeAncestorsWorker: Starting" + (rebuild ? " full rebuild" : ""));
+            }
+            
+            // Do the work
+            doWork(progress);
+            // Done
+            if (logger.isInfoEnabled())
+            {
+                logger.info("NodeAncestorsWorker: " + progress);
+            }
+        }
+        catch (LockAcquisitionException e)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Skipping node ancestors job: " + e.getMessage());
+            }
+        }
+        catch (Exception e)
+        {
+            progress.inProgress.set(false);
+            logger.error("Node ancestors job " + progress);
+            logger.error("Stopping node ancestors job with exception.", e);
+        }
+        finally
+        {
+            if (lockToken != null)
+            {
+                jobLockService.releaseLock(lockToken, LOCK);
+            }
+            progress.inProgress.set(false);
+        }
+        return progress;
+    }
+    
+    /**
+     * @param progress          the thread-safe progress
+     */
+    private synchronized void doWork(NodeAncestorsWorkResult progress) throws Exception
+    {
+        // Build batch processor
+        BatchProcessWorkProvider<Long> workProvider = new NodeAncestorsWorkProvider(progress);
+        BatchProcessWorker<Long> worker = new NodeAncestorsBatch(progress);
+        RetryingTransactionHelper retryingTransactionHelper = transactionService.getRetryingTransactionHelper();
+        retryingTransactionHelper.setForceWritable(true);
+        
+        BatchProcessor<Long> batchProcessor = new BatchProcessor<Long>(
+                "NodeAncestorsWorker",
+                retryingTransactionHelper,
+                workProvider,
+                threadCount,
+                batchSize,
+                ctx,
+                logger,
+                100);
+        batchProcessor.process(worker, true);
+    }
+    
+    /**
+     * Work provider for batch job providing the first node ID of each range to build
+     */
+    private class NodeAncestorsWorkProvider implements BatchProcessWorkProvider<Long>
+    {
+        private final long minNodeId;
+        private final long maxNodeId;
+        private final NodeAncestorsWorkResult progress;
+        
+        private NodeAncestorsWorkProvider(NodeAncestorsWorkResult progress)
+        {
+            this.progress = progress;
+            Long min = nodeDAO.getMinNodeId();
+            Long max = nodeDAO.getMaxNodeId();
+            this.minNodeId = (min == null ? 0L : min);
+            this.maxNodeId = (max == null ? 0L : max);
+            progress.currentMinNodeId.set(this.minNodeId);
+        }
+        
+        @Override
+        public int getTotalEstimatedWorkSize()
+        {
+            return (int) ((maxNodeId - minNodeId) / queryRange + 1);
+        }
+
+        @Override
+        public Collection<Long> getNextWork()
+        {
+            List<Long> ret = new ArrayList<Long>(threadCount * 10);
+            // Check that there are not too many errors
+            if (progress.errors.get() > 100)
+            {
+                logger.warn("Node ancestors work terminating; too many errors.");
+                return ret;
+            }
+            while (ret.size() < threadCount * 10 && progress.currentMinNodeId.get() <= maxNodeId)
+            {
+                ret.add(progress.currentMinNodeId.getAndAdd(queryRange));
+            }
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Node ancestors work provider found " + ret.size() + " node ID ranges.");
+            }
+            return ret;
+        }
+    }
+    
+    /**
+     * Builds the ancestors of the nodes in one node ID range
+     */
+    private class NodeAncestorsBatch extends BatchProcessWorkerAdaptor<Long>
+    {
+        private final NodeAncestorsWorkResult progress;
+        
+        private NodeAncestorsBatch(NodeAncestorsWorkResult progress)
+        {
+            this.progress = progress;
+        }
+
+        @Override
+        public void process(Long minNodeId) throws Throwable
+        {
+            try
+            {
+                int count = nodeDAO.buildNodeAncestors(minNodeId, minNodeId + queryRange, rebuild);
+                progress.nodesBuilt.addAndGet(count);
+            }
+            catch (Exception e)
+            {
+                // Record the failure
+                progress.errors.incrementAndGet();
+                // Rethrow so that the processing framework can handle things
+                throw e;
+            }
+        }
+
+        @Override
+        public String getIdentifier(Long minNodeId)
+        {
+            return "Node ID range [" + minNodeId + ", " + (minNodeId + queryRange) + ")";
+        }
+    }
+
+    /**
+     * Thread-safe helper class to carry the job progress information
+     */
+    public static class NodeAncestorsWorkResult
+    {
+        private final AtomicBoolean inProgress = new AtomicBoolean(false);
+        private final AtomicInteger nodesBuilt = new AtomicInteger(0);
+        private final AtomicInteger errors = new AtomicInteger(0);
+        private final AtomicLong currentMinNodeId = new AtomicLong(0L);
+        
+        @Override
+        public String toString()
+        {
+            String part1 = "Built";
+            String part2 = String.format(" the ancestors of %4d nodes. ", nodesBuilt.get());
+            String part3 = String.format("[%2d Errors]", errors.get());
+            return part1 + part2 + part3;
+        }
+        
+        public int getNodesBuilt()
+        {
+            return nodesBuilt.get();
+        }
+        
+        public int getErrors()
+        {
+            return errors.get();
+        }
+    }
+    
+    /**
+     * A scheduled job that materialises the ancestors of nodes.
+     * <p>
+     * Job data: 
+     * <ul>
+     *  <li><b>nodeAncestorsWorker</b> - The worker that performs the actual processing.</li>
+     * </ul>
+     * 
+     * @see NodeAncestorsWorker
+     */
+    public static class NodeAncestorsJob implements Job
+    {
+        public static final String JOB_DATA_WORKER = "nodeAncestorsWorker";
+        
+        public void execute(JobExecutionContext context) throws JobExecutionException
+        {
+            JobDataMap jobData = context.getJobDetail().getJobDataMap();
+            
+            Object workerObj = jobData.get(JOB_DATA_WORKER);
+            if (workerObj == null || !(workerObj instanceof NodeAncestorsWorker))
+            {
+                throw new AlfrescoRuntimeException(
+                        "NodeAncestorsJob data '" + JOB_DATA_WORKER + "' must reference a " + NodeAncestorsWorker.class.getSimpleName());
+            }
+            
+            NodeAncestorsWorker worker = (NodeAncestorsWorker) workerObj;
+            worker.execute();
+        }
+    }
+}
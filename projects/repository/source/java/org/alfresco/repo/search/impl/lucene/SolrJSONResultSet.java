@@ -25,6 +25,7 @@
  */
 package org.alfresco.repo.search.impl.lucene;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -123,45 +124,43 @@ public class SolrJSONResultSet implements ResultSet, JSONResult
             {
                 processedDenies = json.getBoolean("processedDenies");
             }
-            JSONArray docs = response.getJSONArray("docs");
+            SolrJSONStreamingResponse streamed = (json instanceof SolrJSONStreamingResponse) ? (SolrJSONStreamingResponse) json : null;
             
-            int numDocs = docs.length();
-            
-            ArrayList<Long> rawDbids = new ArrayList<Long>(numDocs);
-            ArrayList<Float> rawScores = new ArrayList<Float>(numDocs); 
-            for(int i = 0; i < numDocs; i++)
+            long[] rawDbids;
+            float[] rawScores;
+            if (streamed != null)
             {
-                JSONObject doc = docs.getJSONObject(i);
-                JSONArray dbids = doc.optJSONArray("DBID");
-                if(dbids != null)
-                {
-                    Long dbid = dbids.getLong(0);
-                    Float score = Float.valueOf(doc.getString("score"));
-                    rawDbids.add(dbid);
-                    rawScores.add(score);
-                }
-                else
+                // Already read without building the docs
+                rawDbids = streamed.getDbids();
+                rawScores = streamed.getScores();
+            }
+            else
+            {
+                JSONArray docs = response.getJSONArray("docs");
+                rawDbids = new long[docs.length()];
+                rawScores = new float[docs.length()];
+                for(int i = 0; i < docs.length(); i++)
                 {
-                    Long dbid = doc.optLong("DBID");
-                    if(dbid != null)
+                    JSONObject doc = docs.getJSONObject(i);
+                    JSONArray dbids = doc.optJSONArray("DBID");
+                    if(dbids != null)
                     {
-                        Float score = Float.valueOf(doc.getString("score"));
-                        rawDbids.add(dbid);
-                        rawScores.add(score);
+                        rawDbids[i] = dbids.getLong(0);
                     }
                     else
                     {
-                        // No DBID found 
-                        throw new LuceneQueryParserException("No DBID found for doc ...");
+                        rawDbids[i] = doc.optLong("DBID");
                     }
+                    rawScores[i] = Float.valueOf(doc.getString("score"));
                 }
-                
             }
             
+            int numDocs = rawDbids.length;
+            
             // bulk load
             if (searchParameters.isBulkFetchEnabled())
             {
-                nodeDao.cacheNodesById(rawDbids);
+                nodeDao.cacheNodesById(asList(rawDbids));
             }
             
             // filter out rubbish
@@ -170,16 +169,21 @@ public class SolrJSONResultSet implements ResultSet, JSONResult
             refs = new ArrayList<NodeRef>(numDocs);
             for(int i = 0; i < numDocs; i++)
             {
-                Long dbid = rawDbids.get(i);
+                Long dbid = rawDbids[i];
                 NodeRef nodeRef = nodeService.getNodeRef(dbid);
 
                 if(nodeRef != null)
                 {
-                    page.add(new Pair<Long, Float>(dbid, rawScores.get(i)));
+                    page.add(new Pair<Long, Float>(dbid, rawScores[i]));
                     refs.add(nodeRef);
                 }
             }
             
+            if (streamed != null && streamed.getFieldFacets() != null)
+            {
+                fieldFacets.putAll(streamed.getFieldFacets());
+            }
+            
             if(json.has("facet_counts"))
             {
                 JSONObject facet_counts = json.getJSONObject("facet_counts");
@@ -256,6 +260,27 @@ public class SolrJSONResultSet implements ResultSet, JSONResult
     }
     
 
+    /**
+     * A list view of the DBIDs, boxing each only when it is read.
+     */
+    private static List<Long> asList(final long[] dbids)
+    {
+        return new AbstractList<Long>()
+        {
+            @Override
+            public Long get(int index)
+            {
+                return dbids[index];
+            }
+
+            @Override
+            public int size()
+            {
+                return dbids.length;
+            }
+        };
+    }
+
     public NodeService getNodeService()
     {
         return nodeService;
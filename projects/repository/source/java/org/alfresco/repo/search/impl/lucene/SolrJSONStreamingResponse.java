@@ -0,0 +1,315 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.lucene;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.util.Pair;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * A Solr JSON response read with a streaming parser.
+ * <p>
+ * The bulky parts of a query response are not built as a JSON tree: the DBID and score of each document in
+ * <tt>response.docs</tt> go straight into primitive arrays and the <tt>facet_counts.facet_fields</tt> lists into
+ * name/count pairs. Those two entries are therefore absent from the JSON, and are read with {@link #getDbids()},
+ * {@link #getScores()} and {@link #getFieldFacets()}. Everything else in the response (header, counts, facet queries,
+ * spell check, stats...) is kept as ordinary JSON, so this can be used wherever the response was previously parsed
+ * with a {@link org.json.JSONTokener}.
+ * 
+ * @since 5.2
+ */
+public class SolrJSONStreamingResponse extends JSONObject
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final long[] NO_DBIDS = new long[0];
+
+    private static final float[] NO_SCORES = new float[0];
+
+    private long[] dbids = NO_DBIDS;
+
+    private float[] scores = NO_SCORES;
+
+    private boolean hasDocs;
+
+    private Map<String, List<Pair<String, Integer>>> fieldFacets;
+
+    private SolrJSONStreamingResponse()
+    {
+        super();
+    }
+
+    /**
+     * Read a response. The reader is not closed.
+     * 
+     * @throws JSONException if the text is not a JSON object
+     */
+    public static SolrJSONStreamingResponse parse(Reader reader) throws IOException, JSONException
+    {
+        JsonParser parser = JSON_FACTORY.createParser(reader);
+        try
+        {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+            {
+                throw new JSONException("A JSONObject text must begin with '{'");
+            }
+            SolrJSONStreamingResponse json = new SolrJSONStreamingResponse();
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("response".equals(name) && token == JsonToken.START_OBJECT)
+                {
+                    json.put(name, json.readResponse(parser));
+                }
+                else if ("facet_counts".equals(name) && token == JsonToken.START_OBJECT)
+                {
+                    json.put(name, json.readFacetCounts(parser));
+                }
+                else
+                {
+                    json.put(name, readValue(parser));
+                }
+            }
+            return json;
+        }
+        catch (JsonParseException e)
+        {
+            throw new JSONException(e.getMessage());
+        }
+        finally
+        {
+            parser.close();
+        }
+    }
+
+    /**
+     * @return the DBIDs of the returned documents, in order
+     */
+    public long[] getDbids()
+    {
+        return dbids;
+    }
+
+    /**
+     * @return the scores of the returned documents, in the same order as the DBIDs
+     */
+    public float[] getScores()
+    {
+        return scores;
+    }
+
+    /**
+     * @return <tt>true</tt> if the response had a list of documents
+     */
+    public boolean hasDocs()
+    {
+        return hasDocs;
+    }
+
+    /**
+     * @return the facet values and counts for each facet field, or <tt>null</tt> if there were no facet fields
+     */
+    public Map<String, List<Pair<String, Integer>>> getFieldFacets()
+    {
+        return fieldFacets;
+    }
+
+    private JSONObject readResponse(JsonParser parser) throws IOException, JSONException
+    {
+        JSONObject response = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("docs".equals(name) && token == JsonToken.START_ARRAY)
+            {
+                readDocs(parser);
+            }
+            else
+            {
+                response.put(name, readValue(parser));
+            }
+        }
+        return response;
+    }
+
+    private void readDocs(JsonParser parser) throws IOException
+    {
+        hasDocs = true;
+        long[] readDbids = new long[16];
+        float[] readScores = new float[16];
+        int count = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT)
+        {
+            Long dbid = null;
+            float score = 0.0f;
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("DBID".equals(name))
+                {
+                    // Multi-valued from the "*" wildcard field in the schema, so usually an array of one
+                    if (token == JsonToken.START_ARRAY)
+                    {
+                        if (parser.nextToken() != JsonToken.END_ARRAY)
+                        {
+                            dbid = parser.getValueAsLong();
+                            parser.skipChildren();
+                            while (parser.nextToken() != JsonToken.END_ARRAY)
+                            {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                    else if (token != JsonToken.VALUE_NULL)
+                    {
+                        dbid = parser.getValueAsLong();
+                    }
+                }
+                else if ("score".equals(name))
+                {
+                    score = (float) parser.getValueAsDouble();
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            if (dbid == null)
+            {
+                throw new LuceneQueryParserException("No DBID found for doc ...");
+            }
+            if (count == readDbids.length)
+            {
+                readDbids = Arrays.copyOf(readDbids, count * 2);
+                readScores = Arrays.copyOf(readScores, count * 2);
+            }
+            readDbids[count] = dbid;
+            readScores[count] = score;
+            count++;
+        }
+        dbids = Arrays.copyOf(readDbids, count);
+        scores = Arrays.copyOf(readScores, count);
+    }
+
+    private JSONObject readFacetCounts(JsonParser parser) throws IOException, JSONException
+    {
+        JSONObject facetCounts = new JSONObject();
+        while (parser.nextToken() == JsonToken.FIELD_NAME)
+        {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("facet_fields".equals(name) && token == JsonToken.START_OBJECT)
+            {
+                fieldFacets = new HashMap<String, List<Pair<String, Integer>>>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME)
+                {
+                    String fieldName = parser.getCurrentName();
+                    parser.nextToken();
+                    ArrayList<Pair<String, Integer>> facetValues = new ArrayList<Pair<String, Integer>>();
+                    // Solr's flat list of alternating values and counts
+                    while (parser.nextToken() != JsonToken.END_ARRAY)
+                    {
+                        String facetEntryName = parser.getText();
+                        parser.nextToken();
+                        Integer facetEntryCount = parser.getValueAsInt();
+                        facetValues.add(new Pair<String, Integer>(facetEntryName, facetEntryCount));
+                    }
+                    fieldFacets.put(fieldName, facetValues);
+                }
+            }
+            else
+            {
+                facetCounts.put(name, readValue(parser));
+            }
+        }
+        return facetCounts;
+    }
+
+    /**
+     * Build the value at the current token as {@link org.json.JSONTokener} would have.
+     */
+    private static Object readValue(JsonParser parser) throws IOException, JSONException
+    {
+        switch (parser.getCurrentToken())
+        {
+        case START_OBJECT:
+            JSONObject object = new JSONObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME)
+            {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                object.put(name, readValue(parser));
+            }
+            return object;
+        case START_ARRAY:
+            JSONArray array = new JSONArray();
+            while (parser.nextToken() != JsonToken.END_ARRAY)
+            {
+                array.put(readValue(parser));
+            }
+            return array;
+        case VALUE_STRING:
+            return parser.getText();
+        case VALUE_NUMBER_INT:
+            switch (parser.getNumberType())
+            {
+            case INT:
+                return Integer.valueOf(parser.getIntValue());
+            case LONG:
+                return Long.valueOf(parser.getLongValue());
+            default:
+                return Double.valueOf(parser.getDoubleValue());
+            }
+        case VALUE_NUMBER_FLOAT:
+            return Double.valueOf(parser.getDoubleValue());
+        case VALUE_TRUE:
+            return Boolean.TRUE;
+        case VALUE_FALSE:
+            return Boolean.FALSE;
+        case VALUE_NULL:
+            return JSONObject.NULL;
+        default:
+            throw new JSONException("Unexpected JSON token " + parser.getCurrentToken());
+        }
+    }
+}
@@ -68,6 +68,8 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
 
     private Long storeId;
 
+    private List<Long> storeIds;
+
     private Long sysDeletedType;
 
     private Long sinceTxId;
@@ -102,6 +104,23 @@ public class DBQuery extends BaseQuery implements DBQueryBuilderComponent
         this.storeId = storeId;
     }
 
+    /**
+     * @return the ids of all the stores to query, or null if only the store given by {@link #getStoreId()} is queried
+     */
+    public List<Long> getStoreIds()
+    {
+        return storeIds;
+    }
+
+    /**
+     * @param storeIds
+     *            the ids of all the stores to query, when there is more than one
+     */
+    public void setStoreIds(List<Long> storeIds)
+    {
+        this.storeIds = storeIds;
+    }
+
     /**
      * @return the sysDeletedType
      */
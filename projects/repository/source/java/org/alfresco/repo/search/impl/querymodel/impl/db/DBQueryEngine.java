@@ -171,16 +171,30 @@ public class DBQueryEngine implements QueryEngine
         Map<Set<String>, ResultSet> answer = new HashMap<Set<String>, ResultSet>();
         DBQuery dbQuery = (DBQuery)query;
         
-        if(options.getStores().size() > 1)
-        {
-            throw new QueryModelException("Multi-store queries are not supported");
-        }
-        
         // MT
         StoreRef storeRef = options.getStores().get(0);
         storeRef = storeRef != null ? tenantService.getName(storeRef) : null;
 
         dbQuery.setStoreId(nodeDAO.getStore(storeRef).getFirst());
+        if(options.getStores().size() > 1)
+        {
+            // One statement across all the stores, so that the database orders and pages the combined results
+            List<Long> storeIds = new ArrayList<Long>(options.getStores().size());
+            for(StoreRef store : options.getStores())
+            {
+                store = store != null ? tenantService.getName(store) : null;
+                Long storeId = nodeDAO.getStore(store).getFirst();
+                if(!storeIds.contains(storeId))
+                {
+                    storeIds.add(storeId);
+                }
+            }
+            dbQuery.setStoreIds(storeIds);
+        }
+        else
+        {
+            dbQuery.setStoreIds(null);
+        }
         Pair<Long, QName> sysDeletedType = qnameDAO.getQName(ContentModel.TYPE_DELETED);
         if(sysDeletedType == null)
         {
@@ -26,6 +26,7 @@
 package org.alfresco.repo.search.impl.solr;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
@@ -52,27 +53,46 @@ public class DynamicSolrStoreMappingWrapperFactory
      * @return
      */
     public static SolrStoreMappingWrapper wrap(List<ShardInstance> slice, BeanFactory beanFactory)
+    {
+        return wrap(slice, beanFactory, null);
+    }
+
+    /**
+     * @param slice
+     * @param beanFactory
+     * @param router chooses between the instances in the slice; if null an instance is chosen at random
+     * @return
+     */
+    public static SolrStoreMappingWrapper wrap(List<ShardInstance> slice, BeanFactory beanFactory, SolrInstanceRouter router)
     {
         HttpClientFactory httpClientFactory = (HttpClientFactory)beanFactory.getBean("solrHttpClientFactory");
         for(ShardInstance instance : slice)
         {
             Pair<String, Integer> key = new Pair<String, Integer>(instance.getHostName(), instance.getPort());
-            if(!clients.contains(key))
+            if(!clients.containsKey(key))
             {
-                clients.put(key, httpClientFactory.getHttpClient(key.getFirst(), key.getSecond()));
+                clients.putIfAbsent(key, httpClientFactory.getHttpClient(key.getFirst(), key.getSecond()));
             }
         }
         
-        return new DynamicSolrStoreMappingWrapper(slice);
+        return new DynamicSolrStoreMappingWrapper(slice, router);
     }
 
     static class DynamicSolrStoreMappingWrapper implements SolrStoreMappingWrapper
     {
         private List<ShardInstance> slice;
 
+        private SolrInstanceRouter router;
+
         DynamicSolrStoreMappingWrapper(List<ShardInstance> slice)
+        {
+            this(slice, null);
+        }
+
+        DynamicSolrStoreMappingWrapper(List<ShardInstance> slice, SolrInstanceRouter router)
         {
             this.slice = slice;
+            this.router = router;
         }
 
         /* (non-Javadoc)
@@ -81,13 +101,62 @@ public class DynamicSolrStoreMappingWrapperFactory
         @Override
         public Pair<HttpClient, String> getHttpClientAndBaseUrl()
         {
-           int base = ThreadLocalRandom.current().nextInt(slice.size());
-           ShardInstance instance = slice.get(base);
+           ShardInstance instance;
+           if (router == null)
+           {
+               int base = ThreadLocalRandom.current().nextInt(slice.size());
+               instance = slice.get(base);
+           }
+           else
+           {
+               instance = router.select(slice, null);
+           }
+           return getHttpClientAndBaseUrl(instance);
+        }
+
+        private Pair<HttpClient, String> getHttpClientAndBaseUrl(ShardInstance instance)
+        {
            Pair<String, Integer> key = new Pair<String, Integer>(instance.getHostName(), instance.getPort());
            HttpClient client = clients.get(key);
            return new Pair<HttpClient, String>(client, instance.getBaseUrl());
         }
 
+        /* (non-Javadoc)
+         * @see org.alfresco.repo.search.impl.solr.SolrStoreMappingWrapper#getAlternativeHttpClientAndBaseUrl(org.alfresco.util.Pair)
+         */
+        @Override
+        public Pair<HttpClient, String> getAlternativeHttpClientAndBaseUrl(Pair<HttpClient, String> current)
+        {
+            if (router == null)
+            {
+                return null;
+            }
+            for (ShardInstance instance : slice)
+            {
+                Pair<String, Integer> key = new Pair<String, Integer>(instance.getHostName(), instance.getPort());
+                if (clients.get(key) == current.getFirst() && instance.getBaseUrl().equals(current.getSecond()))
+                {
+                    ShardInstance alternative = router.select(slice, instance);
+                    return (alternative == null) ? null : getHttpClientAndBaseUrl(alternative);
+                }
+            }
+            return null;
+        }
+
+        /* (non-Javadoc)
+         * @see org.alfresco.repo.search.impl.solr.SolrStoreMappingWrapper#getShardHttpClientsAndBaseUrls()
+         */
+        @Override
+        public List<Pair<HttpClient, String>> getShardHttpClientsAndBaseUrls()
+        {
+            List<Pair<HttpClient, String>> shards = new ArrayList<Pair<HttpClient, String>>(slice.size());
+            for (ShardInstance instance : slice)
+            {
+                shards.add(getHttpClientAndBaseUrl(instance));
+            }
+            return shards;
+        }
+
         /* (non-Javadoc)
          * @see org.alfresco.repo.search.impl.solr.SolrStoreMappingWrapper#isSharded()
          */
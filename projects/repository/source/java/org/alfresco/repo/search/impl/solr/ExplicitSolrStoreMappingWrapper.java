@@ -26,6 +26,7 @@
 package org.alfresco.repo.search.impl.solr;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -407,5 +408,40 @@ public class ExplicitSolrStoreMappingWrapper implements SolrStoreMappingWrapper
         HttpClientAndBaseUrl httpClientAndBaseUrl = httpClientsAndBaseURLs.toArray(new HttpClientAndBaseUrl[0])[nodeId-1];
         return new Pair<>(httpClientAndBaseUrl.httpClient, isSharded() ? httpClientAndBaseUrl.baseUrl+"-"+shard : httpClientAndBaseUrl.baseUrl);
     }
+
+    /**
+     * Explicitly configured nodes are not hedged.
+     * 
+     * @return null
+     */
+    @Override
+    public Pair<HttpClient, String> getAlternativeHttpClientAndBaseUrl(Pair<HttpClient, String> current)
+    {
+        return null;
+    }
+
+    /**
+     * Picks one of the replicas of each shard at random, as for {@link #getShards()}.
+     */
+    @Override
+    public List<Pair<HttpClient, String>> getShardHttpClientsAndBaseUrls()
+    {
+        if (!policy.configurationIsValid())
+        {
+            throw new AlfrescoRuntimeException("Invalid shard configuration: shard = "
+                    + wrapped.getNumShards() + "   reoplicationFactor = " + wrapped.getReplicationFactor() + " with node count = " + httpClientsAndBaseURLs.size());
+        }
+
+        HttpClientAndBaseUrl[] nodes = httpClientsAndBaseURLs.toArray(new HttpClientAndBaseUrl[0]);
+        List<Pair<HttpClient, String>> shards = new ArrayList<Pair<HttpClient, String>>(wrapped.getNumShards());
+        for (int shard = 0; shard < wrapped.getNumShards(); shard++)
+        {
+            int position = random.nextInt(wrapped.getReplicationFactor());
+            Integer nodeId = policy.getNodeInstancesForShardId(shard).get(position);
+            HttpClientAndBaseUrl httpClientAndBaseUrl = nodes[nodeId-1];
+            shards.add(new Pair<>(httpClientAndBaseUrl.httpClient, isSharded() ? httpClientAndBaseUrl.baseUrl+"-"+shard : httpClientAndBaseUrl.baseUrl));
+        }
+        return shards;
+    }
     
 }
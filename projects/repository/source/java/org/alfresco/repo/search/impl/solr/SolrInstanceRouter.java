@@ -0,0 +1,581 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.index.shard.ShardInstance;
+import org.alfresco.repo.management.DynamicMBeanExportOperations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Chooses which Solr instance serves a query, in place of a uniform random choice.
+ * <p>
+ * Each instance (<tt>host:port</tt>) keeps an exponentially weighted moving average of its response time and error
+ * rate. Routing takes two healthy instances at random and uses the one with the lower expected cost per successful
+ * response, allowing for the requests it already has in flight; an instance that has never answered is preferred so
+ * that it is measured. An instance that fails {@link #setEjectionFailureCount(int) several times in a row} is left out
+ * for an {@link #setEjectionPeriod(long) ejection period} and then tried again.
+ * <p>
+ * If a {@link #setHedgeDelay(long) hedge delay} is set, a request that has not completed within that time is sent to a
+ * second instance as well and the first response wins. The slower request is then cancelled, and aborted if it is an
+ * {@link AbortableRequest}, so that it does not hold a connection or a pool thread; the time it had taken is recorded
+ * as its latency, but not as a failure.
+ * 
+ * @since 5.2
+ */
+public class SolrInstanceRouter implements SolrInstanceRouterMBean
+{
+    private static final Log logger = LogFactory.getLog(SolrInstanceRouter.class);
+
+    public static final String DEFAULT_OBJECT_NAME = "Alfresco:Type=Search,Name=SolrInstanceRouter";
+
+    private boolean enabled = true;
+
+    private double latencyDecay = 0.2d;
+
+    private int ejectionFailureCount = 3;
+
+    private long ejectionPeriod = 30000L;
+
+    private long hedgeDelay = 0L;
+
+    private ExecutorService hedgeExecutor;
+
+    private DynamicMBeanExportOperations mbeanExporter;
+
+    private String objectName = DEFAULT_OBJECT_NAME;
+
+    private ObjectName registeredName;
+
+    private final ConcurrentHashMap<String, InstanceStatistics> instances = new ConcurrentHashMap<String, InstanceStatistics>();
+
+    private final AtomicLong hedgedRequestCount = new AtomicLong();
+
+    private final AtomicLong hedgedRequestWinCount = new AtomicLong();
+
+    /**
+     * A request that can be aborted when the other request of a hedged pair has answered first. A thread blocked in
+     * socket I/O does not respond to being interrupted, so the request itself has to close its connection.
+     */
+    public interface AbortableRequest<T> extends Callable<T>
+    {
+        /**
+         * Abort the request, from another thread, whether or not it has started.
+         */
+        void abort();
+    }
+
+    /**
+     * @param enabled <tt>false</tt> to choose instances at random, as before, while still collecting statistics
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param latencyDecay the weight, between 0 and 1, given to each new sample in the moving averages
+     */
+    public void setLatencyDecay(double latencyDecay)
+    {
+        this.latencyDecay = latencyDecay;
+    }
+
+    /**
+     * @param ejectionFailureCount the number of consecutive failures after which an instance is ejected; 0 never ejects
+     */
+    public void setEjectionFailureCount(int ejectionFailureCount)
+    {
+        this.ejectionFailureCount = ejectionFailureCount;
+    }
+
+    /**
+     * @param ejectionPeriod the time in milliseconds for which an ejected instance is not chosen
+     */
+    public void setEjectionPeriod(long ejectionPeriod)
+    {
+        this.ejectionPeriod = ejectionPeriod;
+    }
+
+    /**
+     * @param hedgeDelay the time in milliseconds after which a hedged request is sent; 0 disables hedging
+     */
+    public void setHedgeDelay(long hedgeDelay)
+    {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * @param hedgeExecutor the pool that runs requests while hedging is enabled
+     */
+    public void setHedgeExecutor(ExecutorService hedgeExecutor)
+    {
+        this.hedgeExecutor = hedgeExecutor;
+    }
+
+    /**
+     * @param mbeanExporter optional exporter used to publish the routing statistics over JMX
+     */
+    public void setMbeanExporter(DynamicMBeanExportOperations mbeanExporter)
+    {
+        this.mbeanExporter = mbeanExporter;
+    }
+
+    /**
+     * @param objectName the JMX object name to register under
+     */
+    public void setObjectName(String objectName)
+    {
+        this.objectName = objectName;
+    }
+
+    public void init()
+    {
+        if (latencyDecay <= 0.0d || latencyDecay > 1.0d)
+        {
+            throw new AlfrescoRuntimeException("The Solr routing latency decay must be greater than 0 and at most 1: " + latencyDecay);
+        }
+        if (mbeanExporter != null)
+        {
+            try
+            {
+                registeredName = mbeanExporter.registerMBean(this, new ObjectName(objectName));
+            }
+            catch (MalformedObjectNameException e)
+            {
+                throw new AlfrescoRuntimeException("Invalid JMX object name: " + objectName, e);
+            }
+        }
+    }
+
+    public void destroy()
+    {
+        if (registeredName != null)
+        {
+            mbeanExporter.unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    /**
+     * @return the key under which statistics are kept for an instance
+     */
+    public static String getInstanceKey(String host, int port)
+    {
+        return host + ":" + port;
+    }
+
+    /**
+     * Choose an instance to send a request to.
+     * 
+     * @param slice the instances that can serve the request
+     * @param exclude an instance, or any instance on the same host and port, not to choose; may be <tt>null</tt>
+     * @return the chosen instance or <tt>null</tt> if there is none other than the excluded instance
+     */
+    public ShardInstance select(List<ShardInstance> slice, ShardInstance exclude)
+    {
+        String excludeKey = (exclude == null) ? null : getInstanceKey(exclude.getHostName(), exclude.getPort());
+        long now = System.currentTimeMillis();
+
+        List<ShardInstance> available = new ArrayList<ShardInstance>(slice.size());
+        List<ShardInstance> healthy = new ArrayList<ShardInstance>(slice.size());
+        for (ShardInstance instance : slice)
+        {
+            String key = getInstanceKey(instance.getHostName(), instance.getPort());
+            if (key.equals(excludeKey))
+            {
+                continue;
+            }
+            available.add(instance);
+            InstanceStatistics statistics = instances.get(key);
+            if (statistics == null || !statistics.isEjected(now))
+            {
+                healthy.add(instance);
+            }
+        }
+
+        if (available.isEmpty())
+        {
+            return null;
+        }
+        // With every instance ejected, trying one is better than failing outright
+        List<ShardInstance> candidates = (!enabled || healthy.isEmpty()) ? available : healthy;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ShardInstance first = candidates.get(random.nextInt(candidates.size()));
+        if (!enabled || candidates.size() == 1)
+        {
+            return first;
+        }
+        int offset = 1 + random.nextInt(candidates.size() - 1);
+        ShardInstance second = candidates.get((candidates.indexOf(first) + offset) % candidates.size());
+        return getScore(second) < getScore(first) ? second : first;
+    }
+
+    private double getScore(ShardInstance instance)
+    {
+        InstanceStatistics statistics = instances.get(getInstanceKey(instance.getHostName(), instance.getPort()));
+        return (statistics == null) ? 0.0d : statistics.getScore();
+    }
+
+    /**
+     * Record that a request has been sent to an instance. Each call must be matched by
+     * {@link #requestCompleted(String, int, long, boolean)}.
+     */
+    public void requestStarted(String host, int port)
+    {
+        getStatistics(getInstanceKey(host, port)).inFlight.incrementAndGet();
+    }
+
+    /**
+     * Record the outcome of a request.
+     * 
+     * @param elapsed the time in milliseconds the request took
+     * @param failed <tt>true</tt> if the instance could not answer, as opposed to rejecting the query
+     */
+    public void requestCompleted(String host, int port, long elapsed, boolean failed)
+    {
+        String key = getInstanceKey(host, port);
+        InstanceStatistics statistics = getStatistics(key);
+        statistics.inFlight.decrementAndGet();
+        boolean ejected = statistics.record(elapsed, failed, latencyDecay, ejectionFailureCount, ejectionPeriod, System.currentTimeMillis());
+        if (ejected && logger.isWarnEnabled())
+        {
+            logger.warn("Solr instance " + key + " ejected from query routing for " + ejectionPeriod + "ms after " + ejectionFailureCount + " consecutive failures");
+        }
+    }
+
+    private InstanceStatistics getStatistics(String key)
+    {
+        InstanceStatistics statistics = instances.get(key);
+        if (statistics == null)
+        {
+            InstanceStatistics created = new InstanceStatistics();
+            statistics = instances.putIfAbsent(key, created);
+            if (statistics == null)
+            {
+                statistics = created;
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Run a request, sending the hedged request as well if the first has not completed within the hedge delay.
+     * Whichever completes first is returned and the other is cancelled; if that failed, the outcome of the other is
+     * returned instead.
+     * 
+     * @param request the request to the chosen instance
+     * @param hedge the same request to a different instance; may be <tt>null</tt> if there is no other instance
+     */
+    public <T> T execute(Callable<T> request, Callable<T> hedge) throws Exception
+    {
+        if (hedge == null || !isHedgingEnabled())
+        {
+            return request.call();
+        }
+
+        CompletionService<T> completionService = new ExecutorCompletionService<T>(hedgeExecutor);
+        Future<T> first;
+        try
+        {
+            first = completionService.submit(request);
+        }
+        catch (RejectedExecutionException e)
+        {
+            return request.call();
+        }
+
+        Future<T> done = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+        if (done != null)
+        {
+            return getResult(done);
+        }
+
+        Future<T> second;
+        try
+        {
+            second = completionService.submit(hedge);
+        }
+        catch (RejectedExecutionException e)
+        {
+            return getResult(first);
+        }
+        hedgedRequestCount.incrementAndGet();
+
+        done = completionService.take();
+        T result;
+        try
+        {
+            result = getResult(done);
+        }
+        catch (Exception e)
+        {
+            Future<T> other = (done == first) ? second : first;
+            result = getResult(other);
+            if (other == second)
+            {
+                hedgedRequestWinCount.incrementAndGet();
+            }
+            return result;
+        }
+        if (done == second)
+        {
+            hedgedRequestWinCount.incrementAndGet();
+            cancel(first, request);
+        }
+        else
+        {
+            cancel(second, hedge);
+        }
+        return result;
+    }
+
+    private static void cancel(Future<?> future, Callable<?> request)
+    {
+        if (future.cancel(true) && request instanceof AbortableRequest)
+        {
+            ((AbortableRequest<?>) request).abort();
+        }
+    }
+
+    private <T> T getResult(Future<T> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+            {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public boolean isHedgingEnabled()
+    {
+        return hedgeDelay > 0L && hedgeExecutor != null;
+    }
+
+    @Override
+    public long getHedgeDelay()
+    {
+        return hedgeDelay;
+    }
+
+    @Override
+    public long getHedgedRequestCount()
+    {
+        return hedgedRequestCount.get();
+    }
+
+    @Override
+    public long getHedgedRequestWinCount()
+    {
+        return hedgedRequestWinCount.get();
+    }
+
+    @Override
+    public String[] getInstanceStatistics()
+    {
+        Map<String, InstanceStatistics> sorted = new TreeMap<String, InstanceStatistics>(instances);
+        long now = System.currentTimeMillis();
+        List<String> lines = new ArrayList<String>(sorted.size());
+        for (Map.Entry<String, InstanceStatistics> entry : sorted.entrySet())
+        {
+            lines.add(entry.getKey() + " " + entry.getValue().toString(now));
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public double getLatencyAverage(String instance)
+    {
+        InstanceStatistics statistics = instances.get(instance);
+        return (statistics == null) ? -1.0d : statistics.getLatency();
+    }
+
+    @Override
+    public double getErrorRate(String instance)
+    {
+        InstanceStatistics statistics = instances.get(instance);
+        return (statistics == null) ? -1.0d : statistics.getErrorRate();
+    }
+
+    @Override
+    public boolean isEjected(String instance)
+    {
+        InstanceStatistics statistics = instances.get(instance);
+        return (statistics != null) && statistics.isEjected(System.currentTimeMillis());
+    }
+
+    @Override
+    public void reinstate(String instance)
+    {
+        InstanceStatistics statistics = instances.get(instance);
+        if (statistics != null)
+        {
+            statistics.reinstate();
+        }
+    }
+
+    @Override
+    public void resetStatistics()
+    {
+        for (InstanceStatistics statistics : instances.values())
+        {
+            statistics.reset();
+        }
+        hedgedRequestCount.set(0L);
+        hedgedRequestWinCount.set(0L);
+    }
+
+    /**
+     * Moving averages and ejection state for one instance.
+     */
+    static class InstanceStatistics
+    {
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        private double latency = -1.0d;
+
+        private double errorRate;
+
+        private int consecutiveFailures;
+
+        private long requestCount;
+
+        private long failureCount;
+
+        private long ejectedUntil;
+
+        /**
+         * @return <tt>true</tt> if this failure caused the instance to be ejected
+         */
+        synchronized boolean record(long elapsed, boolean failed, double decay, int ejectionFailureCount, long ejectionPeriod, long now)
+        {
+            requestCount++;
+            errorRate = decay * (failed ? 1.0d : 0.0d) + (1.0d - decay) * errorRate;
+            if (!failed)
+            {
+                // Failures are often quick (connection refused) so would flatter the latency
+                latency = (latency < 0.0d) ? elapsed : decay * elapsed + (1.0d - decay) * latency;
+                consecutiveFailures = 0;
+                ejectedUntil = 0L;
+                return false;
+            }
+            failureCount++;
+            consecutiveFailures++;
+            if (ejectionFailureCount > 0 && consecutiveFailures >= ejectionFailureCount && ejectedUntil <= now)
+            {
+                ejectedUntil = now + ejectionPeriod;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * The expected time per successful response, allowing for queued requests; 0 if never measured.
+         */
+        synchronized double getScore()
+        {
+            if (latency < 0.0d)
+            {
+                return 0.0d;
+            }
+            double successRate = Math.max(1.0d - errorRate, 0.01d);
+            return (latency + 1.0d) * (inFlight.get() + 1) / successRate;
+        }
+
+        synchronized boolean isEjected(long now)
+        {
+            return ejectedUntil > now;
+        }
+
+        synchronized double getLatency()
+        {
+            return latency;
+        }
+
+        synchronized double getErrorRate()
+        {
+            return errorRate;
+        }
+
+        synchronized void reinstate()
+        {
+            ejectedUntil = 0L;
+            consecutiveFailures = 0;
+        }
+
+        synchronized void reset()
+        {
+            latency = -1.0d;
+            errorRate = 0.0d;
+            consecutiveFailures = 0;
+            requestCount = 0L;
+            failureCount = 0L;
+            ejectedUntil = 0L;
+        }
+
+        synchronized String toString(long now)
+        {
+            return "latency=" + Math.round(latency) + "ms errorRate=" + String.format("%.3f", errorRate) + " inFlight=" + inFlight.get()
+                    + " requests=" + requestCount + " failures=" + failureCount + " ejected=" + isEjected(now);
+        }
+    }
+}
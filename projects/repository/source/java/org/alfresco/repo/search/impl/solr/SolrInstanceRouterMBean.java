@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+/**
+ * A management interface for monitoring how queries are routed across Solr instances.
+ * 
+ * @since 5.2
+ */
+public interface SolrInstanceRouterMBean
+{
+    /**
+     * Is latency-aware routing enabled? If not instances are chosen at random.
+     */
+    public boolean isEnabled();
+
+    /**
+     * Are hedged requests sent to a second instance when the first is slow to respond?
+     */
+    public boolean isHedgingEnabled();
+
+    /**
+     * The time in milliseconds to wait for the first instance before sending a hedged request.
+     */
+    public long getHedgeDelay();
+
+    /**
+     * The number of hedged requests sent since the statistics were last reset.
+     */
+    public long getHedgedRequestCount();
+
+    /**
+     * The number of hedged requests that responded before the original request.
+     */
+    public long getHedgedRequestWinCount();
+
+    /**
+     * Lists the instances seen so far, as <tt>host:port</tt>, with their latency and error statistics.
+     */
+    public String[] getInstanceStatistics();
+
+    /**
+     * The moving average latency, in milliseconds, for the given <tt>host:port</tt> instance or -1 if it is not known.
+     */
+    public double getLatencyAverage(String instance);
+
+    /**
+     * The moving average error rate, between 0 and 1, for the given <tt>host:port</tt> instance or -1 if it is not known.
+     */
+    public double getErrorRate(String instance);
+
+    /**
+     * Is the given <tt>host:port</tt> instance currently ejected from routing?
+     */
+    public boolean isEjected(String instance);
+
+    /**
+     * Returns an ejected <tt>host:port</tt> instance to routing before its ejection period has expired.
+     */
+    public void reinstate(String instance);
+
+    /**
+     * Discards all latency and error statistics.
+     */
+    public void resetStatistics();
+}
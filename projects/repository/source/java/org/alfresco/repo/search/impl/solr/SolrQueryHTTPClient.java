@@ -30,12 +30,17 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -49,6 +54,7 @@ import org.alfresco.repo.index.shard.ShardRegistry;
 import org.alfresco.repo.search.impl.lucene.JSONResult;
 import org.alfresco.repo.search.impl.lucene.LuceneQueryParserException;
 import org.alfresco.repo.search.impl.lucene.SolrJSONResultSet;
+import org.alfresco.repo.search.impl.lucene.SolrJSONStreamingResponse;
 import org.alfresco.repo.search.impl.lucene.SolrJsonProcessor;
 import org.alfresco.repo.search.impl.lucene.SolrStatsResult;
 import org.alfresco.repo.tenant.TenantService;
@@ -72,6 +78,7 @@ import org.alfresco.util.ParameterCheck;
 import org.alfresco.util.PropertyCheck;
 import org.apache.commons.codec.net.URLCodec;
 import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpStatus;
@@ -132,6 +139,16 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
     private boolean anyDenyDenies;
     
     private boolean useDynamicShardRegistration = false;
+
+    private SolrInstanceRouter instanceRouter;
+
+    private boolean streamingResponseParsing = true;
+
+    private SolrQueryResultCache resultCache;
+
+    private boolean fanOutEnabled = false;
+
+    private ExecutorService fanOutExecutor;
 	
     public static final int DEFAULT_SAVEPOST_BUFFER = 4096;
     
@@ -200,6 +217,48 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
         this.useDynamicShardRegistration = useDynamicShardRegistration;
     }
 
+    /**
+     * @param instanceRouter records the latency of each Solr instance and chooses between dynamically registered ones
+     */
+    public void setInstanceRouter(SolrInstanceRouter instanceRouter)
+    {
+        this.instanceRouter = instanceRouter;
+    }
+
+    /**
+     * @param streamingResponseParsing <tt>true</tt> to read responses with a streaming parser that keeps
+     *        the documents and facet fields out of the JSON tree, <tt>false</tt> to build the whole tree
+     */
+    public void setStreamingResponseParsing(boolean streamingResponseParsing)
+    {
+        this.streamingResponseParsing = streamingResponseParsing;
+    }
+
+    /**
+     * @param resultCache optional cache of query responses, used while it is enabled
+     */
+    public void setResultCache(SolrQueryResultCache resultCache)
+    {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * @param fanOutEnabled <tt>true</tt> to send queries over several stores or shards to each of them from the
+     *        repository and merge the responses here, rather than have one Solr instance distribute the query
+     */
+    public void setFanOutEnabled(boolean fanOutEnabled)
+    {
+        this.fanOutEnabled = fanOutEnabled;
+    }
+
+    /**
+     * @param fanOutExecutor runs the requests to each store or shard of a query
+     */
+    public void setFanOutExecutor(ExecutorService fanOutExecutor)
+    {
+        this.fanOutExecutor = fanOutExecutor;
+    }
+
     public void setLanguageMappings(Map<String, String> languageMappings)
     {
         this.languageMappings = languageMappings;
@@ -283,7 +342,7 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
                 throw new AlfrescoRuntimeException("No http client for store " + store.toString());
             }
             
-            return (SolrStatsResult) postSolrQuery(httpClient, url, body, new SolrJsonProcessor<SolrStatsResult>() {
+            return (SolrStatsResult) postSolrQuery(mapping, httpClientAndBaseUrl, url, body, new SolrJsonProcessor<SolrStatsResult>() {
 
                 @Override
                 public SolrStatsResult getResult(JSONObject json)
@@ -291,7 +350,7 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
                     return new SolrStatsResult(json, searchParameters.isDateSearch());
                 }
                 
-            });
+            }, null);
             
         }
         catch (UnsupportedEncodingException e)
@@ -387,7 +446,17 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
             url.append("?wt=").append(encoder.encode("json", "UTF-8"));
             url.append("&fl=").append(encoder.encode("DBID,score", "UTF-8"));
             
-            if((searchParameters.getStores().size() > 1) || (mapping.isSharded()))
+            final List<Pair<HttpClient, String>> fanOutTargets;
+            if (fanOutEnabled && (fanOutExecutor != null) && SolrResponseMerger.canMerge(searchParameters))
+            {
+                fanOutTargets = getFanOutTargets(searchParameters.getStores());
+            }
+            else
+            {
+                fanOutTargets = null;
+            }
+            
+            if((fanOutTargets == null) && ((searchParameters.getStores().size() > 1) || (mapping.isSharded())))
             {
                 boolean requiresSeparator = false;
                 url.append("&shards=");
@@ -431,10 +500,18 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
                 }
                 limitBy = LimitBy.NUMBER_OF_PERMISSION_EVALUATIONS;
             }
-            url.append("&rows=").append(String.valueOf(maxResults));
+            if (fanOutTargets == null)
+            {
+                url.append("&rows=").append(String.valueOf(maxResults));
+            }
+            else
+            {
+                // Each target supplies everything up to the end of the page, which is then taken from the merged order
+                url.append("&rows=").append(String.valueOf(Math.min((long) searchParameters.getSkipCount() + maxResults, Integer.MAX_VALUE)));
+            }
             
             url.append("&df=").append(encoder.encode(searchParameters.getDefaultFieldName(), "UTF-8"));
-            url.append("&start=").append(encoder.encode("" + searchParameters.getSkipCount(), "UTF-8"));
+            url.append("&start=").append(encoder.encode("" + (fanOutTargets == null ? searchParameters.getSkipCount() : 0), "UTF-8"));
 
             url.append("&locale=");
             url.append(encoder.encode(locale.toString(), "UTF-8"));
@@ -540,17 +617,20 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
             boolean includeGroups = includeGroupsForRoleAdmin ? true : !allAuthorisations.contains(PermissionService.ADMINISTRATOR_AUTHORITY);
             
             JSONArray authorities = new JSONArray();
+            List<String> sentAuthorities = new ArrayList<String>(allAuthorisations.size());
             for (String authority : allAuthorisations)
             {
                 if(includeGroups)
                 {
                     authorities.put(authority);
+                    sentAuthorities.add(authority);
                 }
                 else
                 {
                     if(AuthorityType.getAuthorityType(authority) != AuthorityType.GROUP)
                     {
                         authorities.put(authority);
+                        sentAuthorities.add(authority);
                     }
                 }
             }
@@ -607,13 +687,49 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
 
             final int maximumResults = maxResults;  //just needed for the final parameter
             
-           
+            final SolrQueryResultCache.Key cacheKey;
+            if ((resultCache != null) && resultCache.isEnabled())
+            {
+                cacheKey = resultCache.getKey(language, searchParameters, locale, tenantService.getCurrentUserDomain(), sentAuthorities);
+                JSONObject cached = resultCache.get(cacheKey);
+                if (cached != null)
+                {
+                    return new SolrJSONResultSet(cached, searchParameters, nodeService, nodeDAO, limitBy, maximumResults);
+                }
+            }
+            else
+            {
+                cacheKey = null;
+            }
+            
+            if (fanOutTargets != null)
+            {
+                List<JSONObject> responses = postFanOutQueries(fanOutTargets, httpClientAndBaseUrl.getSecond(), url.toString(), body);
+                int defaultFacetLimit = mapping.isSharded() ? defaultShardedFacetLimit : defaultUnshardedFacetLimit;
+                JSONObject json = new SolrResponseMerger(searchParameters, defaultFacetLimit).merge(responses, maximumResults);
+                if (cacheKey != null)
+                {
+                    resultCache.put(cacheKey, json);
+                }
+                SolrJSONResultSet results = new SolrJSONResultSet(json, searchParameters, nodeService, nodeDAO, limitBy, maximumResults);
+                if (s_logger.isDebugEnabled())
+                {
+                    s_logger.debug("Sent :" + url + " to " + fanOutTargets.size() + " stores or shards");
+                    s_logger.debug("   with: " + body.toString());
+                    s_logger.debug("Got: " + results.getNumberFound() + " in " + results.getQueryTime() + " ms");
+                }
+                return results;
+            }
             
-            return (ResultSet) postSolrQuery(httpClient, url.toString(), body, new SolrJsonProcessor<SolrJSONResultSet>() {
+            return (ResultSet) postSolrQuery(mapping, httpClientAndBaseUrl, url.toString(), body, new SolrJsonProcessor<SolrJSONResultSet>() {
 
                 @Override
                 public SolrJSONResultSet getResult(JSONObject json)
                 {
+                    if (cacheKey != null)
+                    {
+                        resultCache.put(cacheKey, json);
+                    }
                     return new SolrJSONResultSet(json, searchParameters, nodeService, nodeDAO, limitBy, maximumResults);
                 }
                 
@@ -637,6 +753,86 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
         }
     }
 
+    /**
+     * Get the instances to send a query over the given stores to separately: one per store, or one per shard of a
+     * sharded store.
+     * 
+     * @return the targets, or <tt>null</tt> if there is only one
+     */
+    private List<Pair<HttpClient, String>> getFanOutTargets(List<StoreRef> stores)
+    {
+        List<Pair<HttpClient, String>> targets = new ArrayList<Pair<HttpClient, String>>();
+        for(StoreRef storeRef : stores)
+        {
+            SolrStoreMappingWrapper storeMapping = extractMapping(storeRef);
+            if(storeMapping.isSharded())
+            {
+                targets.addAll(storeMapping.getShardHttpClientsAndBaseUrls());
+            }
+            else
+            {
+                targets.add(storeMapping.getHttpClientAndBaseUrl());
+            }
+        }
+        return (targets.size() > 1) ? targets : null;
+    }
+
+    /**
+     * Post a query to each of the targets at once, rebasing the url from the given base url onto each target's.
+     * 
+     * @return the responses, in target order
+     */
+    protected List<JSONObject> postFanOutQueries(List<Pair<HttpClient, String>> targets, String baseUrl, String url, final JSONObject body)
+                throws UnsupportedEncodingException, IOException, HttpException, URIException, JSONException
+    {
+        String parameters = url.substring(baseUrl.length());
+        List<Callable<JSONObject>> requests = new ArrayList<Callable<JSONObject>>(targets.size());
+        for (final Pair<HttpClient, String> target : targets)
+        {
+            final String targetUrl = target.getSecond() + parameters;
+            requests.add(new Callable<JSONObject>()
+            {
+                @Override
+                public JSONObject call() throws Exception
+                {
+                    return postQuery(target.getFirst(), targetUrl, body);
+                }
+            });
+        }
+
+        List<JSONObject> responses = new ArrayList<JSONObject>(targets.size());
+        try
+        {
+            for (Future<JSONObject> response : fanOutExecutor.invokeAll(requests))
+            {
+                responses.add(response.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new LuceneQueryParserException("Interrupted while querying " + targets.size() + " stores or shards", e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+            {
+                throw (IOException) cause;
+            }
+            if (cause instanceof JSONException)
+            {
+                throw (JSONException) cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException) cause;
+            }
+            throw new LuceneQueryParserException("", cause);
+        }
+        return responses;
+    }
+
     protected JSONResult postSolrQuery(HttpClient httpClient, String url, JSONObject body, SolrJsonProcessor<?> jsonProcessor)
                 throws UnsupportedEncodingException, IOException, HttpException, URIException,
                 JSONException
@@ -648,13 +844,25 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
                 throws UnsupportedEncodingException, IOException, HttpException, URIException,
                 JSONException
     {
-        JSONObject json = postQuery(httpClient, url, body);
+        return postSolrQuery(null, new Pair<HttpClient, String>(httpClient, null), url, body, jsonProcessor, spellCheckParams);
+    }
+
+    /**
+     * Post a query to the client and base url taken from the mapping, which may also supply another instance for a
+     * hedged request.
+     */
+    protected JSONResult postSolrQuery(SolrStoreMappingWrapper mapping, Pair<HttpClient, String> httpClientAndBaseUrl, String url, JSONObject body,
+                SolrJsonProcessor<?> jsonProcessor, String spellCheckParams)
+                throws UnsupportedEncodingException, IOException, HttpException, URIException,
+                JSONException
+    {
+        JSONObject json = postQuery(mapping, httpClientAndBaseUrl, url, body);
         if (spellCheckParams != null)
         {
             SpellCheckDecisionManager manager = new SpellCheckDecisionManager(json, url, body, spellCheckParams);
             if (manager.isCollate())
             {
-                json = postQuery(httpClient, manager.getUrl(), body);
+                json = postQuery(mapping, httpClientAndBaseUrl, manager.getUrl(), body);
             }
             json.put("spellcheck", manager.getSpellCheckJsonValue());
         }
@@ -671,8 +879,83 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
             return results;
     }
 
+    /**
+     * Post a query, sending a hedged copy to another instance if the instance router asks for it.
+     */
+    protected JSONObject postQuery(SolrStoreMappingWrapper mapping, final Pair<HttpClient, String> httpClientAndBaseUrl, final String url,
+                final JSONObject body) throws UnsupportedEncodingException, IOException, HttpException, URIException, JSONException
+    {
+        String baseUrl = httpClientAndBaseUrl.getSecond();
+        if ((instanceRouter == null) || !instanceRouter.isHedgingEnabled() || (mapping == null) || (baseUrl == null) || !url.startsWith(baseUrl))
+        {
+            return postQuery(httpClientAndBaseUrl.getFirst(), url, body);
+        }
+        final Pair<HttpClient, String> alternative = mapping.getAlternativeHttpClientAndBaseUrl(httpClientAndBaseUrl);
+        if (alternative == null)
+        {
+            return postQuery(httpClientAndBaseUrl.getFirst(), url, body);
+        }
+        final String alternativeUrl = alternative.getSecond() + url.substring(baseUrl.length());
+
+        try
+        {
+            return instanceRouter.execute(new AbortablePost(httpClientAndBaseUrl.getFirst(), url, body),
+                        new AbortablePost(alternative.getFirst(), alternativeUrl, body));
+        }
+        catch (IOException e)
+        {
+            throw e;
+        }
+        catch (JSONException e)
+        {
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new LuceneQueryParserException("Hedged request failed " + url, e);
+        }
+    }
+
+    /**
+     * One of a hedged pair of query posts, which is aborted if the other answers first.
+     */
+    private class AbortablePost implements SolrInstanceRouter.AbortableRequest<JSONObject>
+    {
+        private final HttpClient httpClient;
+        private final String url;
+        private final PostMethod post;
+
+        private AbortablePost(HttpClient httpClient, String url, JSONObject body) throws UnsupportedEncodingException
+        {
+            this.httpClient = httpClient;
+            this.url = url;
+            this.post = createPost(url, body);
+        }
+
+        @Override
+        public JSONObject call() throws Exception
+        {
+            return postQuery(httpClient, post, url);
+        }
+
+        @Override
+        public void abort()
+        {
+            post.abort();
+        }
+    }
+
     protected JSONObject postQuery(HttpClient httpClient, String url, JSONObject body) throws UnsupportedEncodingException,
                 IOException, HttpException, URIException, JSONException
+    {
+        return postQuery(httpClient, createPost(url, body), url);
+    }
+
+    private PostMethod createPost(String url, JSONObject body) throws UnsupportedEncodingException
     {
         PostMethod post = new PostMethod(url);
         if (body.toString().length() > DEFAULT_SAVEPOST_BUFFER)
@@ -680,7 +963,19 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
             post.getParams().setBooleanParameter(HttpMethodParams.USE_EXPECT_CONTINUE, true);
         }
         post.setRequestEntity(new ByteArrayRequestEntity(body.toString().getBytes("UTF-8"), "application/json"));
+        return post;
+    }
 
+    private JSONObject postQuery(HttpClient httpClient, PostMethod post, String url) throws IOException, HttpException,
+                URIException, JSONException
+    {
+        HostConfiguration hostConfiguration = (instanceRouter == null) ? null : httpClient.getHostConfiguration();
+        if (hostConfiguration != null)
+        {
+            instanceRouter.requestStarted(hostConfiguration.getHost(), hostConfiguration.getPort());
+        }
+        long start = System.currentTimeMillis();
+        boolean answered = false;
         try
         {
             httpClient.executeMethod(post);
@@ -698,12 +993,22 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
 
             if (post.getStatusCode() != HttpServletResponse.SC_OK)
             {
+                // A rejected query says nothing about the health of the instance
+                answered = post.getStatusCode() < HttpStatus.SC_INTERNAL_SERVER_ERROR;
                 throw new LuceneQueryParserException("Request failed " + post.getStatusCode() + " " + url.toString());
             }
 
             Reader reader = new BufferedReader(new InputStreamReader(post.getResponseBodyAsStream(), post.getResponseCharSet()));
-            // TODO - replace with streaming-based solution e.g. SimpleJSON ContentHandler
-            JSONObject json = new JSONObject(new JSONTokener(reader));
+            JSONObject json;
+            if (streamingResponseParsing)
+            {
+                json = SolrJSONStreamingResponse.parse(reader);
+            }
+            else
+            {
+                json = new JSONObject(new JSONTokener(reader));
+            }
+            answered = true;
 
             if (json.has("status"))
             {
@@ -718,6 +1023,12 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
         finally
         {
             post.releaseConnection();
+            if (hostConfiguration != null)
+            {
+                // A hedged request aborted because the other answered first was slow, but did not fail
+                boolean failed = !answered && !post.isAborted();
+                instanceRouter.requestCompleted(hostConfiguration.getHost(), hostConfiguration.getPort(), System.currentTimeMillis() - start, failed);
+            }
         }
     }
 
@@ -800,7 +1111,7 @@ public class SolrQueryHTTPClient implements BeanFactoryAware, InitializingBean
                 }
                 return mappings;
             }
-            return DynamicSolrStoreMappingWrapperFactory.wrap(slice, beanFactory);
+            return DynamicSolrStoreMappingWrapperFactory.wrap(slice, beanFactory, instanceRouter);
         }
         else
         {
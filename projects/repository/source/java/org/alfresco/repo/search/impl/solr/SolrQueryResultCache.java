@@ -0,0 +1,384 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.management.DynamicMBeanExportOperations;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.JSONObject;
+
+/**
+ * Keeps Solr query responses so that an identical query from a caller with the same authorities is not sent to Solr
+ * again while the index has not changed.
+ * <p>
+ * Each response carries the last transaction Solr had indexed when it answered. The highest of these seen for a set of
+ * stores is the index watermark; a cached response is only used while its transaction is still the watermark, so the
+ * first fresh response after the index moves on retires every older entry for those stores. The cache's time to live
+ * bounds how long an entry can be used when no other query arrives to move the watermark.
+ * <p>
+ * Only the response is cached: nodes are still resolved, and permissions still checked, for each result set built
+ * from it.
+ * 
+ * @since 5.2
+ */
+public class SolrQueryResultCache implements SolrQueryResultCacheMBean
+{
+    private static final Log logger = LogFactory.getLog(SolrQueryResultCache.class);
+
+    public static final String DEFAULT_OBJECT_NAME = "Alfresco:Type=Search,Name=SolrQueryResultCache";
+
+    private static final String LAST_INDEXED_TX = "lastIndexedTx";
+
+    private SimpleCache<Key, CachedResult> cache;
+
+    private boolean enabled = false;
+
+    private DynamicMBeanExportOperations mbeanExporter;
+
+    private String objectName = DEFAULT_OBJECT_NAME;
+
+    private ObjectName registeredName;
+
+    private final ConcurrentHashMap<List<StoreRef>, AtomicLong> watermarks = new ConcurrentHashMap<List<StoreRef>, AtomicLong>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong staleCount = new AtomicLong();
+
+    /**
+     * @param cache the cache of responses, which bounds their number and age
+     */
+    public void setCache(SimpleCache<Key, CachedResult> cache)
+    {
+        this.cache = cache;
+    }
+
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param mbeanExporter optional exporter used to publish the cache statistics over JMX
+     */
+    public void setMbeanExporter(DynamicMBeanExportOperations mbeanExporter)
+    {
+        this.mbeanExporter = mbeanExporter;
+    }
+
+    /**
+     * @param objectName the JMX object name to register under
+     */
+    public void setObjectName(String objectName)
+    {
+        this.objectName = objectName;
+    }
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "cache", cache);
+        if (mbeanExporter != null)
+        {
+            try
+            {
+                registeredName = mbeanExporter.registerMBean(this, new ObjectName(objectName));
+            }
+            catch (MalformedObjectNameException e)
+            {
+                throw new AlfrescoRuntimeException("Invalid JMX object name: " + objectName, e);
+            }
+        }
+    }
+
+    public void destroy()
+    {
+        if (registeredName != null)
+        {
+            mbeanExporter.unregisterMBean(registeredName);
+            registeredName = null;
+        }
+    }
+
+    /**
+     * Build the key for a query.
+     * 
+     * @param language the query language
+     * @param searchParameters the query, which is copied
+     * @param locale the locale the query is run in
+     * @param tenant the caller's tenant domain
+     * @param authorities the authorities sent with the query
+     */
+    public Key getKey(String language, SearchParameters searchParameters, Locale locale, String tenant, Collection<String> authorities)
+    {
+        return new Key(language, searchParameters.copy(), locale, tenant, authorities);
+    }
+
+    /**
+     * @return the cached response for the query or <tt>null</tt> if there is none that is still current
+     */
+    public JSONObject get(Key key)
+    {
+        CachedResult result = cache.get(key);
+        // The response itself does not leave this JVM
+        if (result == null || result.getJson() == null)
+        {
+            missCount.incrementAndGet();
+            return null;
+        }
+        AtomicLong watermark = watermarks.get(key.getStores());
+        if (watermark != null && watermark.get() > result.getLastIndexedTxId())
+        {
+            cache.remove(key);
+            staleCount.incrementAndGet();
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return result.getJson();
+    }
+
+    /**
+     * Cache a response and move the watermark on to the transaction it reports. Responses that do not report the last
+     * indexed transaction cannot be checked later and are not cached.
+     */
+    public void put(Key key, JSONObject json)
+    {
+        if (!json.has(LAST_INDEXED_TX))
+        {
+            return;
+        }
+        long lastIndexedTxId = json.optLong(LAST_INDEXED_TX);
+        long watermark = advanceWatermark(key.getStores(), lastIndexedTxId);
+        if (lastIndexedTxId < watermark)
+        {
+            // Answered by an instance that is behind another
+            return;
+        }
+        cache.put(key, new CachedResult(json, lastIndexedTxId));
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Cached Solr response at transaction " + lastIndexedTxId + " for " + key);
+        }
+    }
+
+    private long advanceWatermark(List<StoreRef> stores, long lastIndexedTxId)
+    {
+        AtomicLong watermark = watermarks.get(stores);
+        if (watermark == null)
+        {
+            AtomicLong created = new AtomicLong(lastIndexedTxId);
+            watermark = watermarks.putIfAbsent(stores, created);
+            if (watermark == null)
+            {
+                return lastIndexedTxId;
+            }
+        }
+        long current = watermark.get();
+        while (lastIndexedTxId > current && !watermark.compareAndSet(current, lastIndexedTxId))
+        {
+            current = watermark.get();
+        }
+        return Math.max(current, lastIndexedTxId);
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return missCount.get();
+    }
+
+    @Override
+    public long getStaleCount()
+    {
+        return staleCount.get();
+    }
+
+    @Override
+    public double getHitRatio()
+    {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return (lookups == 0) ? 0.0d : (double) hits / lookups;
+    }
+
+    @Override
+    public String[] getIndexWatermarks()
+    {
+        List<String> lines = new ArrayList<String>(watermarks.size());
+        for (Map.Entry<List<StoreRef>, AtomicLong> entry : watermarks.entrySet())
+        {
+            lines.add(entry.getKey() + " " + entry.getValue().get());
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    @Override
+    public void clear()
+    {
+        cache.clear();
+        hitCount.set(0L);
+        missCount.set(0L);
+        staleCount.set(0L);
+    }
+
+    /**
+     * A query as sent to Solr: its normalised parameters and the caller's tenant, locale and authorities.
+     */
+    public static class Key implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String language;
+
+        private final SearchParameters searchParameters;
+
+        private final Locale locale;
+
+        private final String tenant;
+
+        private final String[] authorities;
+
+        private final int hashCode;
+
+        Key(String language, SearchParameters searchParameters, Locale locale, String tenant, Collection<String> authorities)
+        {
+            this.language = language;
+            this.searchParameters = searchParameters;
+            this.locale = locale;
+            this.tenant = tenant;
+            // The order the authorities were found in does not matter
+            this.authorities = authorities.toArray(new String[authorities.size()]);
+            Arrays.sort(this.authorities);
+
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + ((language == null) ? 0 : language.hashCode());
+            result = prime * result + searchParameters.hashCode();
+            result = prime * result + ((locale == null) ? 0 : locale.hashCode());
+            result = prime * result + ((tenant == null) ? 0 : tenant.hashCode());
+            result = prime * result + Arrays.hashCode(this.authorities);
+            this.hashCode = result;
+        }
+
+        List<StoreRef> getStores()
+        {
+            return searchParameters.getStores();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode
+                        && (language == null ? other.language == null : language.equals(other.language))
+                        && searchParameters.equals(other.searchParameters)
+                        && (locale == null ? other.locale == null : locale.equals(other.locale))
+                        && (tenant == null ? other.tenant == null : tenant.equals(other.tenant))
+                        && Arrays.equals(authorities, other.authorities);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Key [language=" + language + ", query=" + searchParameters.getQuery() + ", stores=" + searchParameters.getStores()
+                        + ", locale=" + locale + ", tenant=" + tenant + ", authorities=" + authorities.length + "]";
+        }
+    }
+
+    /**
+     * A cached response and the last transaction Solr had indexed when it was produced.
+     */
+    public static class CachedResult implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final transient JSONObject json;
+
+        private final long lastIndexedTxId;
+
+        CachedResult(JSONObject json, long lastIndexedTxId)
+        {
+            this.json = json;
+            this.lastIndexedTxId = lastIndexedTxId;
+        }
+
+        JSONObject getJson()
+        {
+            return json;
+        }
+
+        long getLastIndexedTxId()
+        {
+            return lastIndexedTxId;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+/**
+ * A management interface for monitoring the repository-side cache of Solr query results.
+ * 
+ * @since 5.2
+ */
+public interface SolrQueryResultCacheMBean
+{
+    /**
+     * Are query results being cached?
+     */
+    public boolean isEnabled();
+
+    /**
+     * The number of queries answered from the cache.
+     */
+    public long getHitCount();
+
+    /**
+     * The number of queries that had no cached result.
+     */
+    public long getMissCount();
+
+    /**
+     * The number of cached results discarded because the index had moved on since they were cached.
+     */
+    public long getStaleCount();
+
+    /**
+     * The proportion of lookups answered from the cache, between 0 and 1.
+     */
+    public double getHitRatio();
+
+    /**
+     * Lists the highest last indexed transaction seen for each set of stores queried.
+     */
+    public String[] getIndexWatermarks();
+
+    /**
+     * Discards all cached results and resets the counts.
+     */
+    public void clear();
+}
@@ -0,0 +1,418 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.alfresco.repo.search.impl.lucene.SolrJSONStreamingResponse;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchParameters.FieldFacet;
+import org.alfresco.service.cmr.search.SearchParameters.FieldFacetSort;
+import org.alfresco.service.cmr.search.SearchParameters.SortDefinition;
+import org.alfresco.util.Pair;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Combines the responses to one query sent separately to several stores or shards into the response a single
+ * distributed query would have given.
+ * <p>
+ * Each target is asked for the first <tt>skip + rows</tt> documents. Their documents, already in score order, are
+ * merged with a k-way merge, ties going to the earlier target, and the requested page is taken from the merged order.
+ * Hit counts and facet counts are summed, and the facet fields are sorted again as Solr would. The last
+ * indexed transaction is the lowest reported, so the combined response is never taken to be fresher than any part.
+ * <p>
+ * The responses only carry DBIDs and scores, so only queries in score order can be merged. Nor can limited facet
+ * fields: a value in the overall top values may be cut from the top values of one target, and then be undercounted
+ * or missed altogether. See {@link #canMerge(SearchParameters)}.
+ * 
+ * @since 5.2
+ */
+public class SolrResponseMerger
+{
+    private final SearchParameters searchParameters;
+
+    private final int defaultFacetLimit;
+
+    /**
+     * @param searchParameters the parameters of the query sent to each target
+     * @param defaultFacetLimit the limit used for facet fields that do not set one
+     */
+    public SolrResponseMerger(SearchParameters searchParameters, int defaultFacetLimit)
+    {
+        this.searchParameters = searchParameters;
+        this.defaultFacetLimit = defaultFacetLimit;
+    }
+
+    /**
+     * Can the responses to a query be merged in the repository? They can if the query is sorted by score alone, does
+     * not ask for spell checking or extra Solr parameters, and its facet fields return every value (no limit, offset
+     * or minimum count), as otherwise the results could not be combined exactly.
+     */
+    public static boolean canMerge(SearchParameters searchParameters)
+    {
+        for (SortDefinition sortDefinition : searchParameters.getSortDefinitions())
+        {
+            if (sortDefinition.getSortType() != SortDefinition.SortType.SCORE)
+            {
+                return false;
+            }
+        }
+        if ((searchParameters.getSearchTerm() != null) && searchParameters.isSpellCheck())
+        {
+            return false;
+        }
+        if (!searchParameters.getExtraParameters().isEmpty())
+        {
+            return false;
+        }
+        for (FieldFacet facet : searchParameters.getFieldFacets())
+        {
+            // Each target applies the limit and the minimum count to its own counts
+            if ((facet.getLimitOrNull() == null) || (facet.getLimitOrNull().intValue() >= 0) || (facet.getMinCount() > 1))
+            {
+                return false;
+            }
+            if (facet.getOffset() != 0)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param responses the responses, in target order
+     * @param rows the number of documents to return after skipping those before the requested page
+     * @return the combined response
+     */
+    public JSONObject merge(List<JSONObject> responses, int rows) throws JSONException
+    {
+        long status = 0;
+        long queryTime = 0;
+        long numFound = 0;
+        double maxScore = 0;
+        Long lastIndexedTx = null;
+        Boolean processedDenies = null;
+        List<Docs> allDocs = new ArrayList<Docs>(responses.size());
+        Map<String, Integer> facetQueries = new LinkedHashMap<String, Integer>();
+        Map<String, Map<String, Integer>> facetFields = new LinkedHashMap<String, Map<String, Integer>>();
+
+        for (int i = 0; i < responses.size(); i++)
+        {
+            JSONObject json = responses.get(i);
+            JSONObject responseHeader = json.getJSONObject("responseHeader");
+            status = Math.max(status, responseHeader.getLong("status"));
+            queryTime = Math.max(queryTime, responseHeader.getLong("QTime"));
+
+            JSONObject response = json.getJSONObject("response");
+            numFound += response.getLong("numFound");
+            maxScore = Math.max(maxScore, response.optDouble("maxScore", 0));
+            if (json.has("lastIndexedTx"))
+            {
+                long txId = json.getLong("lastIndexedTx");
+                lastIndexedTx = (lastIndexedTx == null) ? txId : Math.min(lastIndexedTx, txId);
+            }
+            if (json.has("processedDenies"))
+            {
+                boolean processed = json.getBoolean("processedDenies");
+                processedDenies = (processedDenies == null) ? processed : (processedDenies && processed);
+            }
+
+            allDocs.add(readDocs(json, response, i));
+            readFacets(json, facetQueries, facetFields);
+        }
+
+        JSONObject merged = new JSONObject();
+        JSONObject responseHeader = new JSONObject();
+        responseHeader.put("status", status);
+        responseHeader.put("QTime", queryTime);
+        merged.put("responseHeader", responseHeader);
+
+        JSONObject response = new JSONObject();
+        response.put("numFound", numFound);
+        response.put("start", searchParameters.getSkipCount());
+        response.put("maxScore", maxScore);
+        response.put("docs", mergeDocs(allDocs, searchParameters.getSkipCount(), rows));
+        merged.put("response", response);
+
+        if (lastIndexedTx != null)
+        {
+            merged.put("lastIndexedTx", lastIndexedTx.longValue());
+        }
+        if (processedDenies != null)
+        {
+            merged.put("processedDenies", processedDenies.booleanValue());
+        }
+
+        if (!facetQueries.isEmpty() || !facetFields.isEmpty())
+        {
+            JSONObject facetCounts = new JSONObject();
+            JSONObject mergedFacetQueries = new JSONObject();
+            for (Map.Entry<String, Integer> entry : facetQueries.entrySet())
+            {
+                mergedFacetQueries.put(entry.getKey(), entry.getValue().intValue());
+            }
+            facetCounts.put("facet_queries", mergedFacetQueries);
+            JSONObject mergedFacetFields = new JSONObject();
+            for (Map.Entry<String, Map<String, Integer>> entry : facetFields.entrySet())
+            {
+                mergedFacetFields.put(entry.getKey(), sortAndLimit(entry.getKey(), entry.getValue()));
+            }
+            facetCounts.put("facet_fields", mergedFacetFields);
+            merged.put("facet_counts", facetCounts);
+        }
+        return merged;
+    }
+
+    private JSONArray mergeDocs(List<Docs> allDocs, int skip, int rows) throws JSONException
+    {
+        boolean ascending = false;
+        if (!searchParameters.getSortDefinitions().isEmpty())
+        {
+            ascending = searchParameters.getSortDefinitions().get(0).isAscending();
+        }
+
+        PriorityQueue<Docs> heads = new PriorityQueue<Docs>(Math.max(1, allDocs.size()), new DocsComparator(ascending));
+        for (Docs docs : allDocs)
+        {
+            if (docs.position < docs.dbids.length)
+            {
+                heads.add(docs);
+            }
+        }
+
+        JSONArray page = new JSONArray();
+        int taken = 0;
+        while (!heads.isEmpty() && (page.length() < rows))
+        {
+            Docs docs = heads.poll();
+            if (taken++ >= skip)
+            {
+                JSONObject doc = new JSONObject();
+                doc.put("DBID", docs.dbids[docs.position]);
+                doc.put("score", (double) docs.scores[docs.position]);
+                page.put(doc);
+            }
+            docs.position++;
+            if (docs.position < docs.dbids.length)
+            {
+                heads.add(docs);
+            }
+        }
+        return page;
+    }
+
+    private JSONArray sortAndLimit(String fieldName, Map<String, Integer> counts)
+    {
+        FieldFacet facet = null;
+        for (FieldFacet candidate : searchParameters.getFieldFacets())
+        {
+            if (candidate.getField().equals(fieldName))
+            {
+                facet = candidate;
+                break;
+            }
+        }
+        int limit = ((facet == null) || (facet.getLimitOrNull() == null)) ? defaultFacetLimit : facet.getLimitOrNull().intValue();
+        // Solr sorts by count unless told otherwise or unlimited
+        boolean byCount = ((facet == null) || (facet.getSort() == null)) ? (limit > 0) : (facet.getSort() == FieldFacetSort.COUNT);
+
+        List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+        Collections.sort(entries, new FacetComparator(byCount));
+
+        JSONArray facets = new JSONArray();
+        int size = (limit < 0) ? entries.size() : Math.min(limit, entries.size());
+        for (int i = 0; i < size; i++)
+        {
+            facets.put(entries.get(i).getKey());
+            facets.put(entries.get(i).getValue().intValue());
+        }
+        return facets;
+    }
+
+    private static Docs readDocs(JSONObject json, JSONObject response, int target) throws JSONException
+    {
+        if ((json instanceof SolrJSONStreamingResponse) && ((SolrJSONStreamingResponse) json).hasDocs())
+        {
+            SolrJSONStreamingResponse streamed = (SolrJSONStreamingResponse) json;
+            return new Docs(target, streamed.getDbids(), streamed.getScores());
+        }
+
+        JSONArray docs = response.optJSONArray("docs");
+        int numDocs = (docs == null) ? 0 : docs.length();
+        long[] dbids = new long[numDocs];
+        float[] scores = new float[numDocs];
+        for (int i = 0; i < numDocs; i++)
+        {
+            JSONObject doc = docs.getJSONObject(i);
+            JSONArray multiValued = doc.optJSONArray("DBID");
+            dbids[i] = (multiValued != null) ? multiValued.getLong(0) : doc.optLong("DBID");
+            scores[i] = Float.valueOf(doc.getString("score"));
+        }
+        return new Docs(target, dbids, scores);
+    }
+
+    private static void readFacets(JSONObject json, Map<String, Integer> facetQueries, Map<String, Map<String, Integer>> facetFields) throws JSONException
+    {
+        JSONObject facetCounts = json.optJSONObject("facet_counts");
+        if (facetCounts != null)
+        {
+            JSONObject queries = facetCounts.optJSONObject("facet_queries");
+            if (queries != null)
+            {
+                for (Iterator<?> it = queries.keys(); it.hasNext(); /**/)
+                {
+                    String query = (String) it.next();
+                    add(facetQueries, query, Integer.parseInt(queries.getString(query)));
+                }
+            }
+            JSONObject fields = facetCounts.optJSONObject("facet_fields");
+            if (fields != null)
+            {
+                for (Iterator<?> it = fields.keys(); it.hasNext(); /**/)
+                {
+                    String fieldName = (String) it.next();
+                    JSONArray values = fields.getJSONArray(fieldName);
+                    Map<String, Integer> counts = getFieldCounts(facetFields, fieldName);
+                    for (int i = 0; i < values.length(); i += 2)
+                    {
+                        add(counts, values.getString(i), Integer.parseInt(values.getString(i + 1)));
+                    }
+                }
+            }
+        }
+
+        // The streaming parser keeps facet fields out of the JSON
+        if (json instanceof SolrJSONStreamingResponse)
+        {
+            Map<String, List<Pair<String, Integer>>> streamedFacets = ((SolrJSONStreamingResponse) json).getFieldFacets();
+            if (streamedFacets != null)
+            {
+                for (Map.Entry<String, List<Pair<String, Integer>>> entry : streamedFacets.entrySet())
+                {
+                    Map<String, Integer> counts = getFieldCounts(facetFields, entry.getKey());
+                    for (Pair<String, Integer> value : entry.getValue())
+                    {
+                        add(counts, value.getFirst(), value.getSecond());
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, Integer> getFieldCounts(Map<String, Map<String, Integer>> facetFields, String fieldName)
+    {
+        Map<String, Integer> counts = facetFields.get(fieldName);
+        if (counts == null)
+        {
+            counts = new HashMap<String, Integer>();
+            facetFields.put(fieldName, counts);
+        }
+        return counts;
+    }
+
+    private static void add(Map<String, Integer> counts, String key, int count)
+    {
+        Integer current = counts.get(key);
+        counts.put(key, (current == null) ? count : current + count);
+    }
+
+    /**
+     * The documents returned by one target, and the position of the next one to merge.
+     */
+    private static class Docs
+    {
+        final int target;
+
+        final long[] dbids;
+
+        final float[] scores;
+
+        int position;
+
+        Docs(int target, long[] dbids, float[] scores)
+        {
+            this.target = target;
+            this.dbids = dbids;
+            this.scores = scores;
+        }
+    }
+
+    private static class DocsComparator implements Comparator<Docs>
+    {
+        private final boolean ascending;
+
+        DocsComparator(boolean ascending)
+        {
+            this.ascending = ascending;
+        }
+
+        @Override
+        public int compare(Docs first, Docs second)
+        {
+            int order = Float.compare(first.scores[first.position], second.scores[second.position]);
+            if (order != 0)
+            {
+                return ascending ? order : -order;
+            }
+            return first.target - second.target;
+        }
+    }
+
+    private static class FacetComparator implements Comparator<Map.Entry<String, Integer>>
+    {
+        private final boolean byCount;
+
+        FacetComparator(boolean byCount)
+        {
+            this.byCount = byCount;
+        }
+
+        @Override
+        public int compare(Map.Entry<String, Integer> first, Map.Entry<String, Integer> second)
+        {
+            if (byCount)
+            {
+                int order = second.getValue().compareTo(first.getValue());
+                if (order != 0)
+                {
+                    return order;
+                }
+            }
+            return first.getKey().compareTo(second.getKey());
+        }
+    }
+}
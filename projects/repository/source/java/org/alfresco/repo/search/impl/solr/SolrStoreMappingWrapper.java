@@ -25,6 +25,8 @@
  */
 package org.alfresco.repo.search.impl.solr;
 
+import java.util.List;
+
 import org.alfresco.util.Pair;
 import org.apache.commons.httpclient.HttpClient;
 
@@ -50,4 +52,20 @@ public interface SolrStoreMappingWrapper
      */
     String getShards();
 
+    /**
+     * Get a client and base url on a different instance from the given one, to which a hedged copy of a request
+     * can be sent.
+     * 
+     * @param current the client and base url the request was sent to
+     * @return the alternative or <tt>null</tt> if there is none
+     */
+    Pair<HttpClient, String> getAlternativeHttpClientAndBaseUrl(Pair<HttpClient, String> current);
+
+    /**
+     * Get a client and base url for one instance of each shard, so that the shards can be queried separately.
+     * 
+     * @return one client and base url per shard
+     */
+    List<Pair<HttpClient, String>> getShardHttpClientsAndBaseUrls();
+
 }
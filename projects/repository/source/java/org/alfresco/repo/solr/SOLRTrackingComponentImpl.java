@@ -564,7 +564,12 @@ public class SOLRTrackingComponentImpl implements SOLRTrackingComponent
         
         // Pre-evaluate ancestors so we can bulk load them
         List<Long> ancestors;
-        if(cacheAncestors)
+        if(cacheAncestors && nodeDAO.isNodeAncestorsEnabled())
+        {
+            // The materialised ancestors give the whole set in one go
+            ancestors = new ArrayList<Long>(nodeDAO.cacheNodeAncestors(nodeIds));
+        }
+        else if(cacheAncestors)
         {
             ancestors = cacheAncestors(nodeIds);
         }
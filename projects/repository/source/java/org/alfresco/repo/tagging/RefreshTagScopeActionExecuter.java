@@ -61,6 +61,9 @@ public class RefreshTagScopeActionExecuter extends ActionExecuterAbstractBase
     /** Tagging Service */
     private TaggingService taggingService;
     
+    /** Tag Count Store */
+    private TagCountStore tagCountStore;
+    
     /** Action name and parameters */
     public static final String NAME = "refresh-tagscope";
     
@@ -94,6 +97,16 @@ public class RefreshTagScopeActionExecuter extends ActionExecuterAbstractBase
         this.taggingService = taggingService;
     }
     
+    /**
+     * Set the tag count store
+     * 
+     * @param tagCountStore    the tag count store
+     */
+    public void setTagCountStore(TagCountStore tagCountStore)
+    {
+        this.tagCountStore = tagCountStore;
+    }
+    
     /**
      * @see org.alfresco.repo.action.executer.ActionExecuterAbstractBase#executeImpl(org.alfresco.service.cmr.action.Action, org.alfresco.service.cmr.repository.NodeRef)
      */
@@ -118,6 +131,17 @@ public class RefreshTagScopeActionExecuter extends ActionExecuterAbstractBase
                     // Order the list
                     Collections.sort(tags);
                     
+                    if (tagCountStore != null && tagCountStore.isEnabled())
+                    {
+                        // Replace the stored counts, dropping any old cache content
+                        tagCountStore.setTagDetails(actionedUponNodeRef, tags);
+                        if (nodeService.getProperty(actionedUponNodeRef, ContentModel.PROP_TAGSCOPE_CACHE) != null)
+                        {
+                            nodeService.setProperty(actionedUponNodeRef, ContentModel.PROP_TAGSCOPE_CACHE, null);
+                        }
+                        return null;
+                    }
+                    
                     // Write new content back to tag scope
                     String tagContent = TaggingServiceImpl.tagDetailsToString(tags);
                     if(tagContent.length() > 0)
@@ -128,6 +152,12 @@ public class RefreshTagScopeActionExecuter extends ActionExecuterAbstractBase
 	                    contentWriter.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
 	                    contentWriter.putContent(tagContent);
                     }
+                    
+                    if (tagCountStore != null && tagCountStore.isBuilt(actionedUponNodeRef))
+                    {
+                        // The cache content is authoritative again
+                        tagCountStore.removeTagScope(actionedUponNodeRef);
+                    }
 
                     return null;
                 }
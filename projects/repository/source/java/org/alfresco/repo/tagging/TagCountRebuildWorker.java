@@ -0,0 +1,492 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.tagging;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorker;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.patch.PatchDAO;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.lock.LockAcquisitionException;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.tagging.TaggingService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
+import org.alfresco.util.ParameterCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+
+/**
+ * <h1>Tag Count Rebuild Worker</h1>
+ * 
+ * <h2>What it is</h2>
+ * A worker for a scheduled job that recounts the tags of every tag scope in the repository and
+ * stores the results in the {@link TagCountStore}.  It can be used to move all the tag scopes off
+ * their <b>cm:tagScopeCache</b> content in one go, rather than as each one is next updated, or to
+ * repair tag counts that have drifted.
+ * <p/>
+ * While the tag count store is disabled the job moves the other way: the tag scopes whose counts
+ * are still held in the store are recounted into their <b>cm:tagScopeCache</b> content and their
+ * stored counts are removed.
+ * 
+ * <h2>Settings that control the behaviour</h2>
+ * <ul>
+ *  <li><b>${tagging.tagCountStore.rebuild.jobBatchSize}</b> - the number of tag scopes to recount in one transaction.</li>
+ *  <li><b>${tagging.tagCountStore.rebuild.jobQueryRange}</b> - the node ID range to query for.
+ *         The process will repeat from the first to the last node, querying for up to this many nodes.
+ *         Only reduce the value if the NodeDAO query takes a long time.</li>
+ *  <li><b>${tagging.tagCountStore.rebuild.jobThreadCount}</b> - the number of threads that will recount tag scopes.</li>
+ * </ul>
+ * 
+ * @since 5.2
+ */
+public class TagCountRebuildWorker implements ApplicationContextAware, InitializingBean
+{
+    private static final QName LOCK = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "TagCountRebuildWorker");
+    private static final long LOCK_TTL = 60000L;
+    
+    private static Log logger = LogFactory.getLog(TagCountRebuildWorker.class);
+    
+    private JobLockService jobLockService;
+    private TransactionService transactionService;
+    private TaggingService taggingService;
+    private TagCountStore tagCountStore;
+    
+    private NodeDAO nodeDAO;
+    private PatchDAO patchDAO;
+    private QNameDAO qnameDAO;
+    
+    private ApplicationContext ctx;
+    
+    private int queryRange = 10000;
+    private int threadCount = 2;
+    private int batchSize = 10;
+    
+    public void setJobLockService(JobLockService jobLockService)
+    {
+        this.jobLockService = jobLockService;
+    }
+    
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    public void setTaggingService(TaggingService taggingService)
+    {
+        this.taggingService = taggingService;
+    }
+
+    public void setTagCountStore(TagCountStore tagCountStore)
+    {
+        this.tagCountStore = tagCountStore;
+    }
+
+    public void setNodeDAO(NodeDAO nodeDAO)
+    {
+        this.nodeDAO = nodeDAO;
+    }
+
+    public void setPatchDAO(PatchDAO patchDAO)
+    {
+        this.patchDAO = patchDAO;
+    }
+
+    public void setQnameDAO(QNameDAO qnameDAO)
+    {
+        this.qnameDAO = qnameDAO;
+    }
+    
+    /**
+     * Sets the node ID range to query for tag scopes in each query.
+     *  
+     * @param queryRange The query range
+     */
+    public void setQueryRange(int queryRange)
+    {
+        this.queryRange = queryRange;
+    }
+    
+    /**
+     * Sets the number of threads to use to recount tag scopes.
+     * 
+     * @param threadCount Number of threads
+     */
+    public void setThreadCount(int threadCount)
+    {
+        this.threadCount = threadCount;
+    }
+    
+    /**
+     * Sets the number of tag scopes to recount in one transaction.
+     * 
+     * @param batchSize The batch size
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Set the application context for event publishing during batch processing
+     */
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException
+    {
+        this.ctx = applicationContext;
+    }
+    
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        ParameterCheck.mandatory("jobLockService", jobLockService);
+        ParameterCheck.mandatory("transactionService", transactionService);
+        ParameterCheck.mandatory("taggingService", taggingService);
+        ParameterCheck.mandatory("tagCountStore", tagCountStore);
+        ParameterCheck.mandatory("nodeDAO", nodeDAO);
+        ParameterCheck.mandatory("patchDAO", patchDAO);
+        ParameterCheck.mandatory("qnameDAO", qnameDAO);
+    }
+    
+    /**
+     * Performs the work, including logging details of progress.
+     */
+    public TagCountRebuildWorkResult execute()
+    {
+        final TagCountRebuildWorkResult progress = new TagCountRebuildWorkResult();
+        
+        // Build refresh callback
+        JobLockRefreshCallback lockCallback = new JobLockRefreshCallback()
+        {
+            @Override
+            public void lockReleased()
+            {
+                progress.inProgress.set(false);
+            }
+            
+            @Override
+            public boolean isActive()
+            {
+                return progress.inProgress.get();
+            }
+        };
+        
+        String lockToken = null;
+        try
+        {
+            progress.inProgress.set(true);
+            
+            // Get the lock
+            lockToken = jobLockService.getLock(LOCK, LOCK_TTL);
+            
+            // Start the refresh timer
+            jobLockService.refreshLock(lockToken, LOCK, LOCK_TTL, lockCallback);
+
+            if (logger.isInfoEnabled())
+            {
+                logger.info("Starting tag count rebuild job.");
+            }
+            
+            // Do the work
+            doWork(progress);
+            
+            if (logger.isInfoEnabled())
+            {
+                logger.info("Finished tag count rebuild job: " + progress);
+            }
+        }
+        catch (LockAcquisitionException e)
+        {
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Skipping tag count rebuild job: " + e.getMessage());
+            }
+        }
+        catch (Exception e)
+        {
+            progress.inProgress.set(false);
+            logger.error("Tag count rebuild job " + progress);
+            logger.error("Stopping tag count rebuild job with exception.", e);
+        }
+        finally
+        {
+            if (lockToken != null)
+            {
+                jobLockService.releaseLock(lockToken, LOCK);
+            }
+            
+            progress.inProgress.set(false);
+        }
+        
+        return progress;
+    }
+    
+    /**
+     * @param progress          the thread-safe progress
+     */
+    private synchronized void doWork(TagCountRebuildWorkResult progress) throws Exception
+    {
+        // Build batch processor
+        BatchProcessWorkProvider<Long> workProvider = new TagCountRebuildWorkProvider(progress);
+        BatchProcessWorker<Long> worker = new TagCountRebuildBatch(progress);
+        RetryingTransactionHelper retryingTransactionHelper = transactionService.getRetryingTransactionHelper();
+        retryingTransactionHelper.setForceWritable(true);
+
+        BatchProcessor<Long> batchProcessor = new BatchProcessor<Long>(
+                "TagCountRebuildWorker",
+                retryingTransactionHelper,
+                workProvider,
+                threadCount,
+                batchSize,
+                ctx,
+                logger,
+                100);
+        batchProcessor.process(worker, true);
+    }
+    
+    /**
+     * Work provider for batch job providing the IDs of the tag scope nodes
+     */
+    private class TagCountRebuildWorkProvider implements BatchProcessWorkProvider<Long>
+    {
+        private final long maxNodeId;
+        private final TagCountRebuildWorkResult progress;
+        private final Pair<Long, QName> tagScopeAspectId;
+        
+        private TagCountRebuildWorkProvider(TagCountRebuildWorkResult progress)
+        {
+            this.progress = progress;
+            this.maxNodeId = patchDAO.getMaxAdmNodeID();
+            this.tagScopeAspectId = qnameDAO.getQName(ContentModel.ASPECT_TAGSCOPE);
+            
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Max NodeID: " + this.maxNodeId);
+            }
+        }
+        
+        @Override
+        public int getTotalEstimatedWorkSize()
+        {
+            long totalTagScopeCount = patchDAO.getCountNodesWithAspects(Collections.singleton(ContentModel.ASPECT_TAGSCOPE));
+            return (int)totalTagScopeCount;
+        }
+
+        @Override
+        public Collection<Long> getNextWork()
+        {
+            // Nothing has ever been made a tag scope
+            if (tagScopeAspectId == null)
+            {
+                return Collections.emptyList();
+            }
+            
+            // Check that there are not too many errors
+            if (progress.errors.get() > 100)
+            {
+                logger.warn("Tag count rebuild work terminating; too many errors.");
+                return Collections.emptyList();
+            }
+            
+            // Keep shifting the query window up until we get results or we hit the original max node ID
+            List<Long> ret = Collections.emptyList();
+            while (ret.isEmpty() && progress.currentMinNodeId.get() < maxNodeId)
+            {
+                // Calculate the node ID range
+                Long minNodeId = null;
+                if (progress.currentMinNodeId.get() == 0L)
+                {
+                    minNodeId = 1L;
+                    progress.currentMinNodeId.set(minNodeId);
+                }
+                else
+                {
+                    minNodeId = progress.currentMinNodeId.addAndGet(queryRange);
+                }
+                long maxNodeId = minNodeId + queryRange;
+                
+                // Query for the next set of tag scopes
+                ret = patchDAO.getNodesByAspectQNameId(this.tagScopeAspectId.getFirst(), minNodeId, maxNodeId);
+            }
+            
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Tag count rebuild work provider found " + ret.size() + " tag scopes.");
+            }
+            
+            return ret;
+        }
+    }
+    
+    /**
+     * Recounts the tags of each tag scope into the tag count store.
+     */
+    private class TagCountRebuildBatch extends BatchProcessWorkerAdaptor<Long>
+    {
+        private final TagCountRebuildWorkResult progress;
+        
+        private TagCountRebuildBatch(TagCountRebuildWorkResult progress)
+        {
+            this.progress = progress;
+        }
+
+        @Override
+        public void beforeProcess() throws Throwable
+        {
+            // Run as the systemuser
+            AuthenticationUtil.setRunAsUser(AuthenticationUtil.getSystemUserName());
+        }
+        
+        @Override
+        public void process(Long nodeId) throws Throwable
+        {
+            try
+            {
+                Pair<Long, NodeRef> nodePair = nodeDAO.getNodePair(nodeId);
+                if (nodePair == null)
+                {
+                    // Deleted since the query
+                    return;
+                }
+                if (!tagCountStore.isEnabled() && !tagCountStore.isBuilt(nodePair.getSecond()))
+                {
+                    // Already served from its cache content
+                    return;
+                }
+                
+                // The refresh writes the recounted tags into the tag count store, or back into the
+                // cache content if the store has been disabled
+                taggingService.refreshTagScope(nodePair.getSecond(), false);
+                progress.tagScopesRebuilt.incrementAndGet();
+            }
+            catch (Exception e)
+            {
+                // Record the failure
+                progress.errors.incrementAndGet();
+                
+                // Rethrow so that the processing framework can handle things
+                throw e;
+            }
+        }
+
+        @Override
+        public String getIdentifier(Long nodeId)
+        {
+            return "Tag scope " + nodeId;
+        }
+        
+        @Override
+        public void afterProcess() throws Throwable
+        {
+            AuthenticationUtil.clearCurrentSecurityContext();
+        }
+    }
+
+    /**
+     * Thread-safe helper class to carry the job progress information.
+     */
+    public static class TagCountRebuildWorkResult
+    {
+        private final AtomicBoolean inProgress = new AtomicBoolean(false);
+        private final AtomicInteger tagScopesRebuilt = new AtomicInteger(0);
+        private final AtomicInteger errors = new AtomicInteger(0);
+        private final AtomicLong currentMinNodeId = new AtomicLong(0L);
+        
+        @Override
+        public String toString()
+        {
+            String part1 = "Rebuilt";
+            String part2 = String.format(" %4d tag scopes. ", tagScopesRebuilt.get());
+            String part3 = String.format("[%2d Errors]", errors.get());
+            return part1 + part2 + part3;
+        }
+        
+        public int getTagScopesRebuilt()
+        {
+            return tagScopesRebuilt.get();
+        }
+        
+        public int getErrors()
+        {
+            return errors.get();
+        }
+    }
+    
+    /**
+     * A scheduled job that recounts the tags of all tag scopes into the tag count store.
+     * <p>
+     * Job data: 
+     * <ul>
+     *  <li><b>tagCountRebuildWorker</b> - The worker that performs the actual processing.</li>
+     * </ul>
+     * 
+     * @see TagCountRebuildWorker
+     */
+    public static class TagCountRebuildJob implements Job
+    {
+        public static final String JOB_DATA_WORKER = "tagCountRebuildWorker";
+        
+        public void execute(JobExecutionContext context) throws JobExecutionException
+        {
+            JobDataMap jobData = context.getJobDetail().getJobDataMap();
+            
+            Object workerObj = jobData.get(JOB_DATA_WORKER);
+            if (workerObj == null || !(workerObj instanceof TagCountRebuildWorker))
+            {
+                throw new AlfrescoRuntimeException(
+                        "TagCountRebuildJob data '" + JOB_DATA_WORKER + "' must reference a " + TagCountRebuildWorker.class.getSimpleName());
+            }
+            
+            TagCountRebuildWorker worker = (TagCountRebuildWorker)workerObj;
+            worker.execute();
+        }
+    }
+}
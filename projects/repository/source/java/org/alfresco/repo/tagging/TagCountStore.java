@@ -0,0 +1,277 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.tagging;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.tagging.TagDetails;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Keeps the per tag counts of each tag scope as individual counters in the attribute store, so
+ * that applying a tag to a node costs one counter update per tag scope ancestor rather than a
+ * read and rewrite of the whole <b>cm:tagScopeCache</b> content.
+ * <p/>
+ * A tag scope is only served from this store once it has been <i>built</i>, either by seeding
+ * it from its existing cache content on the first update, by a refresh of the tag scope, or by
+ * the {@link TagCountRebuildWorker}. Until then the cache content remains authoritative.
+ * <p/>
+ * Building a tag scope clears its cache content, so a built tag scope keeps being served from
+ * this store after the store has been disabled.  Its cache content is then written again from
+ * the stored counts by the next update or refresh of the tag scope, or by the
+ * {@link TagCountRebuildWorker}, after which the stored counts are removed.
+ * 
+ * @since 5.2
+ */
+public class TagCountStore implements InitializingBean
+{
+    private static final Log logger = LogFactory.getLog(TagCountStore.class);
+
+    /** Attribute key under which the tag counts are held: (key, tag scope, tag name) */
+    public static final String KEY_TAG_COUNTS = ".tagScopeCounts";
+    /** Attribute key marking the tag scopes whose counts are held in the store: (key, tag scope) */
+    public static final String KEY_TAG_COUNTS_BUILT = ".tagScopeCountsBuilt";
+
+    private AttributeService attributeService;
+    private SimpleCache<String, List<String>> summaryCache;
+    private boolean enabled = true;
+
+    /**
+     * Set the attribute service holding the counters
+     * 
+     * @param attributeService  the attribute service
+     */
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    /**
+     * Set the cache of the calculated <b>cm:tagScopeSummary</b> values, keyed by tag scope
+     * 
+     * @param summaryCache      the (transactional) tag scope summary cache
+     */
+    public void setSummaryCache(SimpleCache<String, List<String>> summaryCache)
+    {
+        this.summaryCache = summaryCache;
+    }
+
+    /**
+     * @param enabled           <tt>false</tt> to keep maintaining the <b>cm:tagScopeCache</b> content instead
+     */
+    public void setEnabled(boolean enabled)
+    {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception
+    {
+        PropertyCheck.mandatory(this, "attributeService", attributeService);
+        PropertyCheck.mandatory(this, "summaryCache", summaryCache);
+    }
+
+    /**
+     * @param tagScope          the tag scope node
+     * @return                  <tt>true</tt> if the store holds the counts of the tag scope, whether or not
+     *                          the store is still enabled
+     */
+    public boolean isBuilt(NodeRef tagScope)
+    {
+        return attributeService.exists(KEY_TAG_COUNTS_BUILT, tagScope.toString());
+    }
+
+    /**
+     * Get the tag details of a built tag scope, ordered by descending count
+     * 
+     * @param tagScope          the tag scope node
+     * @return                  the tag details, never <tt>null</tt>
+     */
+    public List<TagDetails> getTagDetails(NodeRef tagScope)
+    {
+        Map<String, Integer> counts = getCounts(tagScope.toString());
+        List<TagDetails> tagDetails = new ArrayList<TagDetails>(counts.size());
+        for (Map.Entry<String, Integer> count : counts.entrySet())
+        {
+            tagDetails.add(new TagDetailsImpl(count.getKey(), count.getValue()));
+        }
+        Collections.sort(tagDetails);
+        return tagDetails;
+    }
+
+    /**
+     * Read all the (positive) counts of a tag scope in one query
+     */
+    private Map<String, Integer> getCounts(String scopeKey)
+    {
+        final Map<String, Integer> counts = new HashMap<String, Integer>(13);
+        attributeService.getAttributes(new AttributeQueryCallback()
+        {
+            @Override
+            public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+            {
+                if (value instanceof Integer && (Integer) value > 0)
+                {
+                    counts.put((String) keys[2], (Integer) value);
+                }
+                return true;
+            }
+        }, KEY_TAG_COUNTS, scopeKey);
+        return counts;
+    }
+
+    /**
+     * Get the <b>cm:tagScopeSummary</b> value of a tag scope, in the form "tag=count"
+     * 
+     * @param tagScope          the tag scope node
+     * @return                  the (unmodifiable) summary or <tt>null</tt> if the tag scope is not built
+     */
+    public List<String> getTagSummary(NodeRef tagScope)
+    {
+        String cacheKey = tagScope.toString();
+        List<String> tagSummary = summaryCache.get(cacheKey);
+        if (tagSummary == null)
+        {
+            if (!isBuilt(tagScope))
+            {
+                return null;
+            }
+            List<TagDetails> tagDetails = getTagDetails(tagScope);
+            tagSummary = new ArrayList<String>(tagDetails.size());
+            for (TagDetails tagDetail : tagDetails)
+            {
+                tagSummary.add(tagDetail.getName() + "=" + tagDetail.getCount());
+            }
+            tagSummary = Collections.unmodifiableList(tagSummary);
+            summaryCache.put(cacheKey, tagSummary);
+        }
+        return tagSummary;
+    }
+
+    /**
+     * Apply count changes to the tags of a built tag scope.  The current counts are read in one
+     * query, then only the counters of the tags named in the updates are written; counters dropping
+     * to zero are removed.
+     * <p/>
+     * The caller is expected to hold the tag scope's update lock.
+     * 
+     * @param tagScope          the tag scope node
+     * @param updates           the change in count for each tag name
+     */
+    public void applyDeltas(NodeRef tagScope, Map<String, Integer> updates)
+    {
+        String scopeKey = tagScope.toString();
+        Map<String, Integer> counts = null;
+        for (Map.Entry<String, Integer> update : updates.entrySet())
+        {
+            int change = update.getValue();
+            if (change == 0)
+            {
+                continue;
+            }
+            if (counts == null)
+            {
+                counts = getCounts(scopeKey);
+            }
+            String tagName = update.getKey();
+            Integer current = counts.get(tagName);
+            int count = (current == null ? 0 : current) + change;
+            if (count <= 0)
+            {
+                if (current != null)
+                {
+                    attributeService.removeAttribute(KEY_TAG_COUNTS, scopeKey, tagName);
+                }
+            }
+            else
+            {
+                attributeService.setAttribute(Integer.valueOf(count), KEY_TAG_COUNTS, scopeKey, tagName);
+            }
+        }
+        summaryCache.remove(scopeKey);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Applied tag count updates " + updates + " to tag scope " + tagScope);
+        }
+    }
+
+    /**
+     * Replace all the counts of a tag scope, marking it as built
+     * 
+     * @param tagScope          the tag scope node
+     * @param tagDetails        the complete tag counts of the scope
+     */
+    public void setTagDetails(NodeRef tagScope, List<TagDetails> tagDetails)
+    {
+        String scopeKey = tagScope.toString();
+        attributeService.removeAttributes(KEY_TAG_COUNTS, scopeKey);
+        for (TagDetails tagDetail : tagDetails)
+        {
+            if (tagDetail.getCount() > 0)
+            {
+                attributeService.setAttribute(Integer.valueOf(tagDetail.getCount()), KEY_TAG_COUNTS, scopeKey, tagDetail.getName());
+            }
+        }
+        attributeService.setAttribute(Boolean.TRUE, KEY_TAG_COUNTS_BUILT, scopeKey);
+        summaryCache.remove(scopeKey);
+
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Stored " + tagDetails.size() + " tag counts for tag scope " + tagScope);
+        }
+    }
+
+    /**
+     * Remove all the counts held for a tag scope
+     * 
+     * @param tagScope          the tag scope node
+     */
+    public void removeTagScope(NodeRef tagScope)
+    {
+        String scopeKey = tagScope.toString();
+        attributeService.removeAttributes(KEY_TAG_COUNTS, scopeKey);
+        attributeService.removeAttribute(KEY_TAG_COUNTS_BUILT, scopeKey);
+        summaryCache.remove(scopeKey);
+    }
+}
@@ -71,6 +71,7 @@ public class TagScopePropertyMethodInterceptor implements MethodInterceptor
     private ContentService contentService;
     private NodeService nodeService;
     private SimpleCache<String, List<String>> cache;
+    private TagCountStore tagCountStore;
     
 
     public void setContentService(ContentService contentService)
@@ -88,6 +89,11 @@ public class TagScopePropertyMethodInterceptor implements MethodInterceptor
         this.cache = cache;
     }
 
+    public void setTagCountStore(TagCountStore tagCountStore)
+    {
+        this.tagCountStore = tagCountStore;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Object invoke(MethodInvocation invocation) throws Throwable
@@ -202,6 +208,11 @@ public class TagScopePropertyMethodInterceptor implements MethodInterceptor
                 }
             }
         }
+        else if (tagCountStore != null && nodeService.hasAspect(nodeRef, ContentModel.ASPECT_TAGSCOPE))
+        {
+            // The counts of this tag scope are held in the tag count store, if it has been built
+            tagSummary = tagCountStore.getTagSummary(nodeRef);
+        }
         return tagSummary;
     }
 
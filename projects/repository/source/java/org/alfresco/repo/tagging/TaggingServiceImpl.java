@@ -118,6 +118,7 @@ public class TaggingServiceImpl implements TaggingService,
     private NamespaceService namespaceService;
     private PolicyComponent policyComponent;
     private AuditComponent auditComponent;
+    private TagCountStore tagCountStore;
     
     /** Tag Details Delimiter */
     private static final String TAG_DETAILS_DELIMITER = "|";
@@ -202,6 +203,14 @@ public class TaggingServiceImpl implements TaggingService,
         this.auditComponent = auditComponent;
     }
     
+    /**
+     * Set the store holding the tag counts of the tag scopes
+     */
+    public void setTagCountStore(TagCountStore tagCountStore)
+    {
+        this.tagCountStore = tagCountStore;
+    }
+    
     /**
      * Init method
      */
@@ -212,6 +221,10 @@ public class TaggingServiceImpl implements TaggingService,
                 QName.createQName(NamespaceService.ALFRESCO_URI, "beforeDeleteNode"),
                 ContentModel.ASPECT_TAGGABLE, 
                 new JavaBehaviour(this, "beforeDeleteNode", NotificationFrequency.EVERY_EVENT));
+        this.policyComponent.bindClassBehaviour(
+                QName.createQName(NamespaceService.ALFRESCO_URI, "beforeDeleteNode"),
+                ContentModel.ASPECT_TAGSCOPE, 
+                new JavaBehaviour(this, "beforeDeleteTagScope", NotificationFrequency.EVERY_EVENT));
         
         // Create tag behaviour
         createTagBehaviour = new JavaBehaviour(this, "createTags", NotificationFrequency.FIRST_EVENT);
@@ -317,6 +330,32 @@ public class TaggingServiceImpl implements TaggingService,
        }
     }
     
+    /**
+     * Drops the stored tag counts of a tag scope node that is being deleted.
+     * <p/>
+     * A node that goes to the archive keeps its id, so its counts are kept for when it is restored.  Like
+     * its cache content, they are dropped when the archived node is purged.
+     */
+    public void beforeDeleteTagScope(NodeRef nodeRef)
+    {
+        if (tagCountStore == null)
+        {
+            return;
+        }
+        StoreRef storeRef = nodeRef.getStoreRef();
+        if (this.nodeServiceInternal.getStoreArchiveNode(storeRef) != null &&
+            this.nodeServiceInternal.hasAspect(nodeRef, ContentModel.ASPECT_TEMPORARY) == false)
+        {
+            return;
+        }
+        if (StoreRef.STORE_REF_ARCHIVE_SPACESSTORE.equals(storeRef))
+        {
+            // The counts are held against the node the archived node came from
+            nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, nodeRef.getId());
+        }
+        tagCountStore.removeTagScope(nodeRef);
+    }
+    
     /**
      * Fired once per node, before a copy overrides one node (which is possibly newly created) with the contents
      * of another one.
@@ -1097,6 +1136,10 @@ public class TaggingServiceImpl implements TaggingService,
         if (this.nodeService.hasAspect(nodeRef, ContentModel.ASPECT_TAGSCOPE) == true)
         {
             this.nodeService.removeAspect(nodeRef, ContentModel.ASPECT_TAGSCOPE);
+            if (tagCountStore != null)
+            {
+                tagCountStore.removeTagScope(nodeRef);
+            }
         }
     }
 
@@ -1128,6 +1171,10 @@ public class TaggingServiceImpl implements TaggingService,
      */
     private List<TagDetails> getTagDetails(NodeRef nodeRef)
     {
+        if (tagCountStore != null && tagCountStore.isBuilt(nodeRef))
+        {
+            return tagCountStore.getTagDetails(nodeRef);
+        }
         List<TagDetails> tagDetails = new ArrayList<TagDetails>(13);
         ContentReader reader = this.contentService.getReader(nodeRef, ContentModel.PROP_TAGSCOPE_CACHE);
         if (reader != null)
@@ -94,6 +94,9 @@ public class UpdateTagScopesActionExecuter extends ActionExecuterAbstractBase
     /** Used to disable policies/behaviours when changing tag scope properties */
     private BehaviourFilter behaviourFilter;
     
+    /** Store of the tag counts, used in place of the tag scope cache content when enabled */
+    private TagCountStore tagCountStore;
+    
     /** Action name and parameters */
     public static final String NAME = "update-tagscope";
     public static final String PARAM_TAG_SCOPES = "tag_scopes";
@@ -183,6 +186,16 @@ public class UpdateTagScopesActionExecuter extends ActionExecuterAbstractBase
         this.behaviourFilter = behaviourFilter;
     }
     
+    /**
+     * Set the tag count store
+     * 
+     * @param tagCountStore    the tag count store
+     */
+    public void setTagCountStore(TagCountStore tagCountStore)
+    {
+        this.tagCountStore = tagCountStore;
+    }
+    
     /**
      * @see org.alfresco.repo.action.executer.ActionExecuterAbstractBase#executeImpl(org.alfresco.service.cmr.action.Action, org.alfresco.service.cmr.repository.NodeRef)
      */
@@ -387,9 +400,23 @@ public class UpdateTagScopesActionExecuter extends ActionExecuterAbstractBase
           // As such, don't fire policies/behaviours during this
           behaviourFilter.disableBehaviour();
           
+          if (tagCountStore != null && tagCountStore.isEnabled())
+          {
+             updateTagCountStore(tagScopeNode, updates);
+             behaviourFilter.enableBehaviour();
+             return;
+          }
+          
           // Get the current tags
           ContentReader contentReader = contentService.getReader(tagScopeNode, ContentModel.PROP_TAGSCOPE_CACHE);
-          if (contentReader == null)
+          if (tagCountStore != null && tagCountStore.isBuilt(tagScopeNode))
+          {
+              // The tag count store has been disabled since this tag scope was moved into it,
+              //  so carry on from the stored counts and write them back into the cache content
+              tags = tagCountStore.getTagDetails(tagScopeNode);
+              tagCountStore.removeTagScope(tagScopeNode);
+          }
+          else if (contentReader == null)
           {
               tags = new ArrayList<TagDetails>(1);
           }
@@ -487,6 +514,36 @@ public class UpdateTagScopesActionExecuter extends ActionExecuterAbstractBase
        }
     }
     
+    /**
+     * Applies the updates as counter deltas in the tag count store.  A tag scope whose
+     *  counts are still held in its cache content is moved across to the store first,
+     *  after which the cache content is no longer written.
+     */
+    private void updateTagCountStore(NodeRef tagScopeNode, Map<String,Integer> updates)
+    {
+       if (!tagCountStore.isBuilt(tagScopeNode))
+       {
+          List<TagDetails> tags = new ArrayList<TagDetails>(1);
+          ContentReader contentReader = contentService.getReader(tagScopeNode, ContentModel.PROP_TAGSCOPE_CACHE);
+          if (contentReader != null)
+          {
+             tags = TaggingServiceImpl.readTagDetails(contentReader.getContentInputStream());
+          }
+          tagCountStore.setTagDetails(tagScopeNode, tags);
+          if (contentReader != null)
+          {
+             // Orphaned content will be deleted with content store cleaner job
+             nodeService.setProperty(tagScopeNode, ContentModel.PROP_TAGSCOPE_CACHE, null);
+          }
+          
+          if(logger.isDebugEnabled())
+          {
+             logger.debug("Moved " + tags.size() + " tag counts of tag scope " + tagScopeNode + " into the tag count store");
+          }
+       }
+       tagCountStore.applyDeltas(tagScopeNode, updates);
+    }
+    
     /**
      * Checks several batches of updates in the Audit event log,
      *  and returns the list of Tag Scope Node References found there.
@@ -27,11 +27,24 @@ package org.alfresco.repo.tenant;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.io.Serializable;
 import java.io.StringWriter;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Pattern;
 
 import javax.transaction.UserTransaction;
@@ -44,6 +57,7 @@ import org.alfresco.repo.admin.RepoModelDefinition;
 import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.content.ContentStoreCaps;
 import org.alfresco.repo.dictionary.DictionaryComponent;
+import org.alfresco.repo.dictionary.DictionaryDAO;
 import org.alfresco.repo.domain.tenant.TenantAdminDAO;
 import org.alfresco.repo.domain.tenant.TenantEntity;
 import org.alfresco.repo.domain.tenant.TenantUpdateEntity;
@@ -56,10 +70,15 @@ import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.ShaPasswordEncoderImpl;
 import org.alfresco.repo.tenant.TenantUtil.TenantRunAsWork;
 import org.alfresco.repo.thumbnail.ThumbnailRegistry;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.repo.usage.UserUsageTrackingComponent;
 import org.alfresco.repo.workflow.WorkflowDeployer;
 import org.alfresco.service.cmr.admin.RepoAdminService;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
 import org.alfresco.service.cmr.module.ModuleService;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
@@ -71,6 +90,10 @@ import org.alfresco.util.GUID;
 import org.alfresco.util.PropertyCheck;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.quartz.Job;
+import org.quartz.JobDataMap;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
 import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.ApplicationContext;
@@ -115,6 +138,24 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
 
     // Experimental: Thor
     private TenantRoutingDataSource trds;
+    
+    // Tenant bootstrap
+    private AttributeService attributeService;
+    private DictionaryDAO dictionaryDAO;
+    private ExecutorService tenantBootstrapExecutor;
+    private boolean lazyBootstrap = false;
+    private boolean parallelBootstrap = false;
+    private int warmupTenantCount = 50;
+    private long idleTenantTimeout = 0L;
+    
+    private final ConcurrentMap<String, TenantActivationStatistics> tenantStatistics = new ConcurrentHashMap<String, TenantActivationStatistics>();
+    private volatile List<TenantDeployer> bootstrapDeployers = Collections.emptyList();
+    // the starts in progress on the bootstrap thread pool, keyed by tenant domain
+    private final ConcurrentMap<String, Future<Boolean>> tenantStartups = new ConcurrentHashMap<String, Future<Boolean>>();
+    // set while the current thread is starting or unloading a tenant
+    private static final ThreadLocal<Boolean> startingTenant = new ThreadLocal<Boolean>();
+    // the tenants used by the current transaction
+    private static final String KEY_TENANT_ACCESS = "MultiTAdminServiceImpl.tenantAccess";
 
     /*
      * Tenant domain/ids are unique strings that are case-insensitive. Tenant ids must be valid filenames. 
@@ -242,6 +283,65 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         this.contentRootContainerPath = contentRootContainerPath;
     }
     
+    /**
+     * @param attributeService          used to remember when each tenant was last started
+     */
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+    
+    /**
+     * @param dictionaryDAO             used to unload the dictionary of idle tenants
+     */
+    public void setDictionaryDAO(DictionaryDAO dictionaryDAO)
+    {
+        this.dictionaryDAO = dictionaryDAO;
+    }
+    
+    /**
+     * @param tenantBootstrapExecutor   the (bounded) pool used to start tenants in parallel or on first access
+     */
+    public void setTenantBootstrapExecutor(ExecutorService tenantBootstrapExecutor)
+    {
+        this.tenantBootstrapExecutor = tenantBootstrapExecutor;
+    }
+    
+    /**
+     * @param lazyBootstrap             <tt>true</tt> to only start the most recently active tenants during bootstrap
+     *                                  and start all other tenants on first access (default: <tt>false</tt>)
+     */
+    public void setLazyBootstrap(boolean lazyBootstrap)
+    {
+        this.lazyBootstrap = lazyBootstrap;
+    }
+    
+    /**
+     * @param parallelBootstrap         <tt>true</tt> to start tenants in parallel, using the bootstrap thread pool,
+     *                                  rather than one after the other (default: <tt>false</tt>)
+     */
+    public void setParallelBootstrap(boolean parallelBootstrap)
+    {
+        this.parallelBootstrap = parallelBootstrap;
+    }
+    
+    /**
+     * @param warmupTenantCount         the maximum number of recently active tenants to start during a lazy bootstrap
+     */
+    public void setWarmupTenantCount(int warmupTenantCount)
+    {
+        this.warmupTenantCount = warmupTenantCount;
+    }
+    
+    /**
+     * @param idleTenantUnloadMinutes   the number of minutes after which a tenant that has not been accessed is
+     *                                  unloaded, or <tt>0</tt> to never unload tenants
+     */
+    public void setIdleTenantUnloadMinutes(int idleTenantUnloadMinutes)
+    {
+        this.idleTenantTimeout = idleTenantUnloadMinutes * 60000L;
+    }
+    
     public static final String PROTOCOL_STORE_USER = "user";
     public static final String PROTOCOL_STORE_WORKSPACE = "workspace";
     public static final String PROTOCOL_STORE_SYSTEM = "system";
@@ -261,6 +361,9 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
     
     private static final String WARN_MSG = "system.mt.warn.upgrade_mt_admin_context";
     
+    /** Attribute key under which the time each tenant was last started is kept */
+    private static final String KEY_TENANT_ACTIVITY = ".tenantActivity";
+    
     @Override
     public void afterPropertiesSet() throws Exception
     {
@@ -281,6 +384,9 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         PropertyCheck.mandatory(this, "WorkflowService", workflowService);
         PropertyCheck.mandatory(this, "RepositoryExporterService", repositoryExporterService);
         PropertyCheck.mandatory(this, "moduleService", moduleService);
+        PropertyCheck.mandatory(this, "attributeService", attributeService);
+        PropertyCheck.mandatory(this, "dictionaryDAO", dictionaryDAO);
+        PropertyCheck.mandatory(this, "tenantBootstrapExecutor", tenantBootstrapExecutor);
     }
     
     @Override
@@ -307,6 +413,12 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
             register(tenantDeployer(tenantFileContentStore), 0);
         }
         
+        long start = System.currentTimeMillis();
+        
+        List<String> enabledTenants = new ArrayList<String>();
+        int disabledCount = 0;
+        Map<String, Long> tenantActivity = null;
+        
         UserTransaction userTransaction = transactionService.getUserTransaction();
         
         try
@@ -317,9 +429,6 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
             // bootstrap Tenant Service internal cache
             List<Tenant> tenants = getAllTenants();
             
-            int enabledCount = 0;
-            int disabledCount = 0;
-            
             for (Tenant tenant : tenants)
             {
                 if ((! (isTenantRoutingContentStore(tenantFileContentStore))) && (! tenantFileContentStore.getRootLocation().equals(tenant.getRootContentStoreDir())))
@@ -332,9 +441,7 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
                 
                 if (tenant.isEnabled())
                 {
-                    // notify tenant deployers registered so far ...
-                    notifyAfterEnableTenant(tenantDomain);
-                    enabledCount++;
+                    enabledTenants.add(tenantDomain);
                 }
                 else
                 {
@@ -347,23 +454,12 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
                 }
             }
             
-            userTransaction.commit();
-            
-            if ((enabledCount+disabledCount) == 0)
+            if (lazyBootstrap)
             {
-                AuthenticationUtil.setMtEnabled(false); // explicitly disable if there are no tenants
+                tenantActivity = getTenantActivity();
             }
             
-            if (logger.isInfoEnabled() && ((enabledCount+disabledCount) > 0))
-            {
-                logger.info(String.format("Alfresco Multi-Tenant startup - %d enabled tenants, %d disabled tenants",
-                                          enabledCount, disabledCount));
-            }
-            else if (logger.isDebugEnabled())
-            {
-                logger.debug(String.format("Alfresco Multi-Tenant startup - %d enabled tenants, %d disabled tenants",
-                             enabledCount, disabledCount));
-            }
+            userTransaction.commit();
         }
         catch(Throwable e)
         {
@@ -375,11 +471,44 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         {
             authenticationContext.clearCurrentSecurityContext();
         }
+        
+        // start all tenants or, if lazy, only the most recently active ones
+        List<String> warmupTenants = lazyBootstrap ? selectWarmupTenants(enabledTenants, tenantActivity, warmupTenantCount) : enabledTenants;
+        
+        int failedCount = bootstrapTenants(warmupTenants);
+        if (failedCount > 0)
+        {
+            throw new AlfrescoRuntimeException("Failed to bootstrap tenants - " + failedCount + " tenant(s) failed to start");
+        }
+        
+        // remaining tenants are started on first access
+        tenantService.setTenantAdminService(this);
+        
+        int enabledCount = enabledTenants.size();
+        
+        if ((enabledCount+disabledCount) == 0)
+        {
+            AuthenticationUtil.setMtEnabled(false); // explicitly disable if there are no tenants
+        }
+        
+        String msg = String.format("Alfresco Multi-Tenant startup - %d enabled tenants (%d %s, %d deferred until first access), %d disabled tenants in %d ms",
+                                   enabledCount, warmupTenants.size(), (lazyBootstrap ? "warming up" : "started"), (enabledCount-warmupTenants.size()),
+                                   disabledCount, (System.currentTimeMillis()-start));
+        if (logger.isInfoEnabled() && ((enabledCount+disabledCount) > 0))
+        {
+            logger.info(msg);
+        }
+        else if (logger.isDebugEnabled())
+        {
+            logger.debug(msg);
+        }
     }
     
     @Override
     public void stopTenants()
     {
+        tenantService.setTenantAdminService(null);
+        bootstrapDeployers = Collections.emptyList();
         tenantDeployers.clear();
         tenantDeployers = null;
         AuthenticationUtil.setMtEnabled(false);
@@ -661,6 +790,9 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         tenantUpdateEntity.setEnabled(true);
         tenantAdminDAO.updateTenant(tenantUpdateEntity);
         
+        // all deployers are notified below, so there is no need to start the tenant on first access
+        getTenantStatistics(tenantDomain).markStarted();
+        
         notifyAfterEnableTenant(tenantDomain);
     }
     
@@ -668,6 +800,11 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
      * Call all {@link TenantDeployer#onEnableTenant() TenantDeployers} as the system tenant.
      */
     protected void notifyAfterEnableTenant(String tenantDomain)
+    {
+        notifyAfterEnableTenant(tenantDomain, tenantDeployers);
+    }
+    
+    private void notifyAfterEnableTenant(String tenantDomain, final List<TenantDeployer> deployers)
     {
         // Check that all the passed values are not null
         ParameterCheck.mandatory("tenantDomain", tenantDomain);
@@ -677,7 +814,7 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         {
             public Object doWork()
             {
-                for (TenantDeployer tenantDeployer : tenantDeployers)
+                for (TenantDeployer tenantDeployer : deployers)
                 {
                     tenantDeployer.onEnableTenant();
                 }
@@ -712,6 +849,8 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         TenantUpdateEntity tenantUpdateEntity = tenantAdminDAO.getTenantForUpdate(tenantDomain);
         tenantUpdateEntity.setEnabled(false);
         tenantAdminDAO.updateTenant(tenantUpdateEntity);
+        
+        getTenantStatistics(tenantDomain).markStopped();
     }
     
     private void notifyBeforeDisableTenant(String tenantDomain)
@@ -852,6 +991,9 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
                 
                 // remove tenant
                 tenantAdminDAO.deleteTenant(tenantDomain);
+                
+                attributeService.removeAttribute(KEY_TENANT_ACTIVITY, tenantDomain);
+                tenantStatistics.remove(tenantDomain);
             } 
             catch (Throwable t)
             {
@@ -1248,6 +1390,436 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         }
     }
     
+    /**
+     * Start the given tenants during bootstrap.
+     * <p>
+     * By default the tenants are started one after the other, on the calling thread, as they always have been.
+     * The bootstrap thread pool is only used if parallel bootstrap is enabled, in which case this method waits for
+     * all the tenants to start, or if lazy bootstrap is enabled, in which case it does not wait for the warm up.
+     * 
+     * @param tenantDomains     the tenants to start
+     * @return                  the number of tenants that failed to start (always <tt>0</tt> if lazy)
+     */
+    /* package */ int bootstrapTenants(List<String> tenantDomains)
+    {
+        // notify tenant deployers registered so far, whenever a tenant is started (now or later)
+        bootstrapDeployers = new ArrayList<TenantDeployer>(tenantDeployers);
+        
+        int failedCount = 0;
+        if (! (lazyBootstrap || parallelBootstrap))
+        {
+            for (String tenantDomain : tenantDomains)
+            {
+                TenantActivationStatistics stats = getTenantStatistics(tenantDomain);
+                if (stats.beginStart() && (! startTenant(stats)))
+                {
+                    failedCount++;
+                }
+            }
+            return failedCount;
+        }
+        
+        List<Future<Boolean>> startups = new ArrayList<Future<Boolean>>(tenantDomains.size());
+        for (String tenantDomain : tenantDomains)
+        {
+            Future<Boolean> startup = startTenantAsync(getTenantStatistics(tenantDomain));
+            if (startup != null)
+            {
+                startups.add(startup);
+            }
+        }
+        
+        if (! lazyBootstrap)
+        {
+            for (Future<Boolean> startup : startups)
+            {
+                if (! waitForStartup(startup))
+                {
+                    failedCount++;
+                }
+            }
+        }
+        return failedCount;
+    }
+    
+    /**
+     * Called by the {@link MultiTServiceImpl} whenever an enabled tenant is accessed.  If the tenant has not been
+     * started yet (or has since been unloaded) then it is started using the bootstrap thread pool and this method
+     * blocks until the start has completed, whether it was triggered by this or by a concurrent access.
+     * <p>
+     * The first access within a transaction marks the tenant as in use until the transaction completes, so that it is
+     * not unloaded while being worked on; later accesses only check that it is started.
+     * <p/>
+     * Accesses made while starting or unloading a tenant (eg. by a tenant deployer) do not block, to avoid waiting for
+     * themselves.
+     * 
+     * @throws AlfrescoRuntimeException if the tenant failed to start
+     */
+    /* package */ void onTenantAccess(String tenantDomain)
+    {
+        if (Boolean.TRUE.equals(startingTenant.get()))
+        {
+            return;
+        }
+        TenantActivationStatistics stats = getTenantStatistics(tenantDomain);
+        if (AlfrescoTransactionSupport.getTransactionReadState() == TxnReadState.TXN_NONE)
+        {
+            stats.accessed(System.currentTimeMillis());
+        }
+        else
+        {
+            TenantAccessListener accessListener = (TenantAccessListener) AlfrescoTransactionSupport.getResource(KEY_TENANT_ACCESS);
+            if (accessListener == null)
+            {
+                accessListener = new TenantAccessListener();
+                AlfrescoTransactionSupport.bindResource(KEY_TENANT_ACCESS, accessListener);
+                AlfrescoTransactionSupport.bindListener(accessListener);
+            }
+            accessListener.enter(stats);
+        }
+        if (stats.isStarted())
+        {
+            return;
+        }
+        
+        Future<Boolean> startup = startTenantAsync(stats);
+        if (startup == null)
+        {
+            // already being started by another thread (or has just completed)
+            startup = tenantStartups.get(tenantDomain);
+        }
+        if ((startup != null) && (! waitForStartup(startup)))
+        {
+            throw new AlfrescoRuntimeException("Failed to start tenant: " + tenantDomain);
+        }
+    }
+    
+    /**
+     * Keeps the tenants used by a transaction in use until the transaction completes
+     */
+    private static class TenantAccessListener extends TransactionListenerAdapter
+    {
+        private final List<TenantActivationStatistics> enteredTenants = new ArrayList<TenantActivationStatistics>(2);
+        
+        private void enter(TenantActivationStatistics stats)
+        {
+            if (! enteredTenants.contains(stats))
+            {
+                stats.entered(System.currentTimeMillis());
+                enteredTenants.add(stats);
+            }
+        }
+        
+        @Override
+        public void afterCommit()
+        {
+            exitAll();
+        }
+        
+        @Override
+        public void afterRollback()
+        {
+            exitAll();
+        }
+        
+        private void exitAll()
+        {
+            long now = System.currentTimeMillis();
+            for (TenantActivationStatistics stats : enteredTenants)
+            {
+                stats.exited(now);
+            }
+            enteredTenants.clear();
+        }
+    }
+    
+    /**
+     * @return                  <tt>true</tt> if the tenant was started successfully
+     */
+    private boolean waitForStartup(Future<Boolean> startup)
+    {
+        try
+        {
+            return startup.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AlfrescoRuntimeException("Interrupted while starting tenant", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new AlfrescoRuntimeException("Failed to start tenant", e.getCause());
+        }
+    }
+    
+    /**
+     * @return                  the start-up and activity statistics of all tenants that have been started or accessed
+     */
+    public Map<String, TenantActivationStatistics> getTenantActivationStatistics()
+    {
+        return Collections.unmodifiableMap(tenantStatistics);
+    }
+    
+    /**
+     * @return                  the start-up and activity statistics of the given tenant or <tt>null</tt>
+     */
+    public TenantActivationStatistics getTenantActivationStatistics(String tenantDomain)
+    {
+        return tenantStatistics.get(getTenantDomain(tenantDomain));
+    }
+    
+    private TenantActivationStatistics getTenantStatistics(String tenantDomain)
+    {
+        TenantActivationStatistics stats = tenantStatistics.get(tenantDomain);
+        if (stats == null)
+        {
+            stats = new TenantActivationStatistics(tenantDomain);
+            TenantActivationStatistics existing = tenantStatistics.putIfAbsent(tenantDomain, stats);
+            if (existing != null)
+            {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+    
+    /**
+     * Start the tenant using the bootstrap thread pool.  The start can be waited for, until it completes, by looking
+     * it up in {@link #tenantStartups}.
+     * 
+     * @return                  the result of the start or <tt>null</tt> if the tenant is already started or starting
+     */
+    private Future<Boolean> startTenantAsync(final TenantActivationStatistics stats)
+    {
+        final String tenantDomain = stats.getTenantDomain();
+        FutureTask<Boolean> startup = new FutureTask<Boolean>(new Callable<Boolean>()
+        {
+            public Boolean call() throws Exception
+            {
+                return startTenant(stats);
+            }
+        })
+        {
+            @Override
+            protected void done()
+            {
+                tenantStartups.remove(tenantDomain, this);
+            }
+        };
+        // register the start before beginning it, so that a concurrent access always finds a start to wait for
+        if (tenantStartups.putIfAbsent(tenantDomain, startup) != null)
+        {
+            return null;
+        }
+        if (! stats.beginStart())
+        {
+            tenantStartups.remove(tenantDomain, startup);
+            return null;
+        }
+        try
+        {
+            tenantBootstrapExecutor.execute(startup);
+            return startup;
+        }
+        catch (RejectedExecutionException e)
+        {
+            // eg. during shutdown
+            tenantStartups.remove(tenantDomain, startup);
+            stats.failed();
+            logger.warn("Unable to start tenant: " + stats.getTenantDomain() + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+    
+    /**
+     * Notify the tenant deployers registered during bootstrap that the tenant has been enabled
+     * 
+     * @return                  <tt>true</tt> if the tenant was started successfully
+     */
+    private boolean startTenant(TenantActivationStatistics stats)
+    {
+        final String tenantDomain = stats.getTenantDomain();
+        final List<TenantDeployer> deployers = bootstrapDeployers;
+        
+        long start = System.currentTimeMillis();
+        startingTenant.set(Boolean.TRUE);
+        try
+        {
+            RetryingTransactionCallback<Void> startCallback = new RetryingTransactionCallback<Void>()
+            {
+                public Void execute() throws Throwable
+                {
+                    notifyAfterEnableTenant(tenantDomain, deployers);
+                    
+                    if (! transactionService.isReadOnly())
+                    {
+                        attributeService.setAttribute(Long.valueOf(System.currentTimeMillis()), KEY_TENANT_ACTIVITY, tenantDomain);
+                    }
+                    return null;
+                }
+            };
+            transactionService.getRetryingTransactionHelper().doInTransaction(startCallback, transactionService.isReadOnly(), true);
+        }
+        catch (Throwable e)
+        {
+            stats.failed();
+            logger.error("Failed to start tenant: " + tenantDomain, e);
+            return false;
+        }
+        finally
+        {
+            startingTenant.remove();
+        }
+        
+        long startTime = System.currentTimeMillis() - start;
+        stats.started(startTime);
+        
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Tenant started: " + tenantDomain + " in " + startTime + " ms");
+        }
+        return true;
+    }
+    
+    /**
+     * Must be called within a transaction
+     * 
+     * @return                  the time each tenant was last started, keyed by tenant domain
+     */
+    private Map<String, Long> getTenantActivity()
+    {
+        final Map<String, Long> tenantActivity = new HashMap<String, Long>();
+        attributeService.getAttributes(new AttributeQueryCallback()
+        {
+            public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+            {
+                if ((keys.length > 1) && (keys[1] instanceof String) && (value instanceof Long))
+                {
+                    tenantActivity.put((String) keys[1], (Long) value);
+                }
+                return true;
+            }
+        }, KEY_TENANT_ACTIVITY);
+        return tenantActivity;
+    }
+    
+    /**
+     * Select the tenants to start during a lazy bootstrap
+     * 
+     * @param enabledTenants    the enabled tenants
+     * @param tenantActivity    the time each tenant was last started, keyed by tenant domain
+     * @param maxTenants        the maximum number of tenants to select
+     * @return                  the most recently started tenants, most recent first
+     */
+    /* package */ static List<String> selectWarmupTenants(List<String> enabledTenants, final Map<String, Long> tenantActivity, int maxTenants)
+    {
+        List<String> warmupTenants = new ArrayList<String>();
+        for (String tenantDomain : enabledTenants)
+        {
+            if (tenantActivity.containsKey(tenantDomain))
+            {
+                warmupTenants.add(tenantDomain);
+            }
+        }
+        
+        Collections.sort(warmupTenants, new Comparator<String>()
+        {
+            public int compare(String tenant1, String tenant2)
+            {
+                return tenantActivity.get(tenant2).compareTo(tenantActivity.get(tenant1));
+            }
+        });
+        
+        if (warmupTenants.size() > maxTenants)
+        {
+            warmupTenants = new ArrayList<String>(warmupTenants.subList(0, Math.max(maxTenants, 0)));
+        }
+        return warmupTenants;
+    }
+    
+    /**
+     * Unload the dictionary and content store of tenants that have not been accessed for longer than the
+     * configured idle time.  Unloaded tenants are started again on their next access.
+     * 
+     * @return                  the number of tenants unloaded
+     */
+    public int unloadIdleTenants()
+    {
+        if ((idleTenantTimeout <= 0L) || (! AuthenticationUtil.isMtEnabled()))
+        {
+            return 0;
+        }
+        
+        long idleSince = System.currentTimeMillis() - idleTenantTimeout;
+        int unloadedCount = 0;
+        
+        for (TenantActivationStatistics stats : tenantStatistics.values())
+        {
+            if (unloadIfIdle(stats, idleSince))
+            {
+                unloadedCount++;
+            }
+        }
+        
+        if ((unloadedCount > 0) && logger.isInfoEnabled())
+        {
+            logger.info("Unloaded " + unloadedCount + " idle tenant(s)");
+        }
+        return unloadedCount;
+    }
+    
+    /**
+     * Unload a tenant that is started, not in use and has not been accessed since the given time.  The tenant is
+     * locked throughout, so that it can neither be entered nor started again before the unload has completed.
+     * 
+     * @return                  <tt>true</tt> if the tenant was unloaded
+     */
+    private boolean unloadIfIdle(TenantActivationStatistics stats, long idleSince)
+    {
+        final String tenantDomain = stats.getTenantDomain();
+        synchronized (stats)
+        {
+            if (! (stats.isIdle(idleSince) && stats.beginUnload()))
+            {
+                return false;
+            }
+            startingTenant.set(Boolean.TRUE);
+            try
+            {
+                TenantUtil.runAsSystemTenant(new TenantRunAsWork<Object>()
+                {
+                    public Object doWork()
+                    {
+                        // note: both are re-initialised lazily on next access
+                        dictionaryDAO.unload();
+                        
+                        if (isTenantDeployer(tenantFileContentStore))
+                        {
+                            tenantDeployer(tenantFileContentStore).destroy();
+                        }
+                        return null;
+                    }
+                }, tenantDomain);
+            }
+            catch (Throwable e)
+            {
+                logger.warn("Failed to unload idle tenant: " + tenantDomain, e);
+                return false;
+            }
+            finally
+            {
+                startingTenant.remove();
+            }
+        }
+        
+        if (logger.isDebugEnabled())
+        {
+            logger.debug("Tenant unloaded: " + tenantDomain);
+        }
+        return true;
+    }
+    
     @Override
     public void register(TenantDeployer deployer)
     {
@@ -1378,6 +1950,9 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         tenantEntity.setDbUrl(dbUrl);
         
         tenantAdminDAO.createTenant(tenantEntity);
+        
+        // the tenant is bootstrapped by the caller, so there is no need to start it on first access
+        getTenantStatistics(tenantDomain).markStarted();
     }
     
     /**
@@ -1488,4 +2063,29 @@ public class MultiTAdminServiceImpl implements TenantAdminService, ApplicationCo
         ParameterCheck.mandatory("tenantDomain", tenantDomain);
         return tenantDomain.toLowerCase(I18NUtil.getLocale());
     }
+    
+    /**
+     * Job to unload idle tenants
+     * 
+     * @see MultiTAdminServiceImpl#unloadIdleTenants()
+     */
+    public static class IdleTenantUnloadJob implements Job
+    {
+        public static final String JOB_DATA_TENANT_ADMIN_SERVICE = "tenantAdminService";
+        
+        public void execute(JobExecutionContext context) throws JobExecutionException
+        {
+            JobDataMap jobData = context.getJobDetail().getJobDataMap();
+            
+            Object serviceObj = jobData.get(JOB_DATA_TENANT_ADMIN_SERVICE);
+            if (serviceObj == null || !(serviceObj instanceof MultiTAdminServiceImpl))
+            {
+                throw new AlfrescoRuntimeException(
+                        "IdleTenantUnloadJob data '" + JOB_DATA_TENANT_ADMIN_SERVICE + "' must reference a " + MultiTAdminServiceImpl.class.getSimpleName());
+            }
+            
+            MultiTAdminServiceImpl tenantAdminService = (MultiTAdminServiceImpl)serviceObj;
+            tenantAdminService.unloadIdleTenants();
+        }
+    }
 }
@@ -53,12 +53,22 @@ import org.springframework.extensions.surf.util.I18NUtil;
 public class MultiTServiceImpl implements TenantService
 {
     private TenantAdminDAO tenantAdminDAO;
+    private volatile MultiTAdminServiceImpl tenantAdminService;
 
     public void setTenantAdminDAO(TenantAdminDAO tenantAdminDAO)
     {
         this.tenantAdminDAO = tenantAdminDAO;
     }
 
+    /**
+     * Set by the {@link MultiTAdminServiceImpl} once tenants have been started, so that tenants which were
+     * not started during bootstrap can be started on first access.
+     */
+    /* package */ void setTenantAdminService(MultiTAdminServiceImpl tenantAdminService)
+    {
+        this.tenantAdminService = tenantAdminService;
+    }
+
     @Override
     public NodeRef getName(NodeRef nodeRef)
     {
@@ -741,6 +751,14 @@ public class MultiTServiceImpl implements TenantService
         {
             throw new TenantDisabledException(tenantDomain);
         }
+
+        MultiTAdminServiceImpl adminService = tenantAdminService;
+        if (adminService != null && tenant.isEnabled())
+        {
+            // note: cheap once the tenant has been recorded as in use by the current transaction; blocks until the
+            //       tenant has been started, if necessary
+            adminService.onTenantAccess(tenant.getTenantDomain());
+        }
     }
 
     @Override
@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.tenant;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Start-up and activity statistics for a single tenant, as maintained by the {@link MultiTAdminServiceImpl}.
+ * <p>
+ * A tenant is <i>started</i> when its {@link TenantDeployer tenant deployers} have been notified, either during
+ * bootstrap (warm-up) or in the background on first access.  An idle tenant may later be <i>unloaded</i>, after
+ * which it is started again on its next access.
+ * 
+ * @since 5.2
+ */
+public class TenantActivationStatistics
+{
+    /* package */ static final int STATE_STOPPED = 0;
+    /* package */ static final int STATE_STARTING = 1;
+    /* package */ static final int STATE_STARTED = 2;
+    
+    private final String tenantDomain;
+    private final AtomicInteger state = new AtomicInteger(STATE_STOPPED);
+    private final AtomicLong starts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong unloads = new AtomicLong();
+    private final AtomicLong totalStartTime = new AtomicLong();
+    private final AtomicLong maxStartTime = new AtomicLong();
+    private volatile long lastStartTime = -1L;
+    private volatile long lastStarted = -1L;
+    private volatile long lastAccessed = -1L;
+    // number of transactions currently using the tenant - guarded by this
+    private int inUse;
+    
+    public TenantActivationStatistics(String tenantDomain)
+    {
+        this.tenantDomain = tenantDomain;
+    }
+    
+    /**
+     * Move the tenant into the <i>starting</i> state
+     * 
+     * @return              <tt>true</tt> if the caller is responsible for starting the tenant
+     */
+    /* package */ synchronized boolean beginStart()
+    {
+        return state.compareAndSet(STATE_STOPPED, STATE_STARTING);
+    }
+    
+    /* package */ void started(long startTime)
+    {
+        starts.incrementAndGet();
+        totalStartTime.addAndGet(startTime);
+        long max = maxStartTime.get();
+        while (startTime > max && !maxStartTime.compareAndSet(max, startTime))
+        {
+            max = maxStartTime.get();
+        }
+        lastStartTime = startTime;
+        lastStarted = System.currentTimeMillis();
+        if (lastAccessed < lastStarted)
+        {
+            // a freshly started tenant is not idle
+            lastAccessed = lastStarted;
+        }
+        state.set(STATE_STARTED);
+    }
+    
+    /* package */ void failed()
+    {
+        failures.incrementAndGet();
+        state.set(STATE_STOPPED);
+    }
+    
+    /**
+     * Mark the tenant as started without recording a start time, eg. when the tenant has been created or
+     * enabled (and hence its deployers notified) by the tenant admin service itself.
+     */
+    /* package */ void markStarted()
+    {
+        lastAccessed = System.currentTimeMillis();
+        state.set(STATE_STARTED);
+    }
+    
+    /* package */ void markStopped()
+    {
+        state.set(STATE_STOPPED);
+    }
+    
+    /**
+     * Move the tenant from the <i>started</i> into the <i>stopped</i> state
+     * 
+     * @return              <tt>true</tt> if the caller is responsible for unloading the tenant
+     */
+    /* package */ synchronized boolean beginUnload()
+    {
+        if (state.compareAndSet(STATE_STARTED, STATE_STOPPED))
+        {
+            unloads.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    
+    /* package */ synchronized void accessed(long now)
+    {
+        lastAccessed = now;
+    }
+    
+    /**
+     * Mark the tenant as in use, eg. for the duration of a transaction.  Every call must be matched by a call to
+     * {@link #exited(long)}.
+     */
+    /* package */ synchronized void entered(long now)
+    {
+        inUse++;
+        lastAccessed = now;
+    }
+    
+    /* package */ synchronized void exited(long now)
+    {
+        if (inUse > 0)
+        {
+            inUse--;
+        }
+        lastAccessed = now;
+    }
+    
+    /**
+     * @param idleSince     the time before which the tenant must have been last accessed
+     * @return              <tt>true</tt> if the tenant is started, not in use and has not been accessed since the given time
+     */
+    /* package */ synchronized boolean isIdle(long idleSince)
+    {
+        return (state.get() == STATE_STARTED) && (inUse == 0) && (lastAccessed < idleSince);
+    }
+    
+    public String getTenantDomain()
+    {
+        return tenantDomain;
+    }
+    
+    /**
+     * @return              <tt>true</tt> if the tenant is currently started
+     */
+    public boolean isStarted()
+    {
+        return state.get() == STATE_STARTED;
+    }
+    
+    /**
+     * @return              the number of times the tenant has been started
+     */
+    public long getStarts()
+    {
+        return starts.get();
+    }
+    
+    /**
+     * @return              the number of failed attempts to start the tenant
+     */
+    public long getFailures()
+    {
+        return failures.get();
+    }
+    
+    /**
+     * @return              the number of times the tenant has been unloaded after being idle
+     */
+    public long getUnloads()
+    {
+        return unloads.get();
+    }
+    
+    /**
+     * @return              the time taken (ms) by the last start or <tt>-1</tt> if never started
+     */
+    public long getLastStartTime()
+    {
+        return lastStartTime;
+    }
+    
+    /**
+     * @return              the longest time taken (ms) to start the tenant
+     */
+    public long getMaxStartTime()
+    {
+        return maxStartTime.get();
+    }
+    
+    /**
+     * @return              the average time taken (ms) to start the tenant
+     */
+    public long getAverageStartTime()
+    {
+        long count = starts.get();
+        return (count == 0L) ? 0L : totalStartTime.get() / count;
+    }
+    
+    /**
+     * @return              when the tenant was last started or <tt>-1</tt> if never started
+     */
+    public long getLastStarted()
+    {
+        return lastStarted;
+    }
+    
+    /**
+     * @return              the number of transactions currently using the tenant
+     */
+    public synchronized int getInUseCount()
+    {
+        return inUse;
+    }
+    
+    /**
+     * @return              when the tenant was last accessed or <tt>-1</tt> if never accessed
+     */
+    public long getLastAccessed()
+    {
+        return lastAccessed;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "TenantActivationStatistics[tenant=" + tenantDomain +
+               ", started=" + isStarted() +
+               ", starts=" + getStarts() +
+               ", failures=" + getFailures() +
+               ", unloads=" + getUnloads() +
+               ", inUse=" + getInUseCount() +
+               ", lastStartTime=" + getLastStartTime() +
+               ", averageStartTime=" + getAverageStartTime() +
+               ", maxStartTime=" + getMaxStartTime() + "]";
+    }
+}
@@ -26,7 +26,6 @@
 package org.alfresco.repo.transfer;
 
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 
 import org.alfresco.service.cmr.repository.ContentData;
@@ -58,30 +57,30 @@ public class ContentChunkerImpl implements ContentChunker
      */
     private Set<ContentData> buffer = new HashSet<ContentData>();
     
+    /**
+     * The total size of the content in the buffer
+     */
+    private long bufferSize = 0;
+    
     /**
      * 
      */
     public void addContent(ContentData data) throws TransferException
     {
         logger.debug("add content size:" + data.getSize());
-        buffer.add(data);
+        if(buffer.add(data))
+        {
+            bufferSize += data.getSize();
+        }
         
         /**
          * work out whether the buffer has filled up and needs to be flushed
          */
-        Iterator<ContentData> iter = buffer.iterator();      
-        long totalContentSize = 0;
-        
-        while (iter.hasNext())
-        {
-            ContentData x = (ContentData)iter.next();
-            totalContentSize += x.getSize();
-        }
         if(logger.isDebugEnabled())
         {
-            logger.debug("elements " + buffer.size() + ", totalContentSize:" + totalContentSize);
+            logger.debug("elements " + buffer.size() + ", totalContentSize:" + bufferSize);
         }
-        if(totalContentSize >= chunkSize)
+        if(bufferSize >= chunkSize)
         {
             flush();
         }
@@ -98,6 +97,7 @@ public class ContentChunkerImpl implements ContentChunker
             handler.processChunk(buffer);
         }
         buffer.clear();
+        bufferSize = 0;
         logger.debug("buffer empty");
     }
 
@@ -29,6 +29,8 @@ package org.alfresco.repo.transfer;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.ContentService;
@@ -51,6 +53,7 @@ public class ContentDataPart extends PartBase
     private ContentService contentService;
     private ContentData data;
     private String filename;
+    private ContentHashStore hashStore;
 
     /**
      * ContentDataPart 
@@ -65,6 +68,18 @@ public class ContentDataPart extends PartBase
         this.filename = partName;
     }
 
+    /**
+     * ContentDataPart that hashes the content as it is sent
+     * @param contentService content service
+     * @param partName String
+     * @param data data
+     * @param hashStore where to remember the hash of the content, may be null
+     */
+    public ContentDataPart(ContentService contentService, String partName, ContentData data, ContentHashStore hashStore) {
+        this(contentService, partName, data);
+        this.hashStore = hashStore;
+    }
+
     /**
      * Write the disposition header to the output stream
      * @param out The output stream
@@ -101,6 +116,14 @@ public class ContentDataPart extends PartBase
         // Get the content from the content URL and write it to out
         InputStream is = contentService.getRawReader(data.getContentUrl()).getContentInputStream();
         
+        // hash the content on its way through, so it need not be read again to be hashed
+        MessageDigest digest = null;
+        if (hashStore != null)
+        {
+            digest = TransferCommons.newContentDigest();
+            is = new DigestInputStream(is, digest);
+        }
+        
         try 
         {
             byte[] tmp = new byte[4096];
@@ -109,6 +132,10 @@ public class ContentDataPart extends PartBase
             {
                 out.write(tmp, 0, len);
             }
+            if (digest != null)
+            {
+                hashStore.putHash(data.getContentUrl(), TransferCommons.encodeHash(digest.digest()));
+            }
         } 
         finally 
         {
@@ -0,0 +1,154 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transfer;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.ContentService;
+import org.alfresco.util.PropertyCheck;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Remembers the hash of each content item that the transfer service has read, keyed by content URL,
+ * so that a content item is read at most once to be hashed.
+ * <p>
+ * A content URL never refers to different content, so a remembered hash never goes stale.  Hashes are
+ * not removed when the content is cleaned up; they are a few bytes per content URL that has been
+ * transferred or compared.
+ *
+ * @since 5.2
+ */
+public class ContentHashStore
+{
+    private static final Log log = LogFactory.getLog(ContentHashStore.class);
+
+    /** content URL to the hash of its content */
+    private static final String KEY_CONTENT_HASH = ".transferContentHash";
+
+    private AttributeService attributeService;
+    private ContentService contentService;
+    private RetryingTransactionHelper transactionHelper;
+
+    public void init()
+    {
+        PropertyCheck.mandatory(this, "attributeService", attributeService);
+        PropertyCheck.mandatory(this, "contentService", contentService);
+        PropertyCheck.mandatory(this, "transactionHelper", transactionHelper);
+    }
+
+    /**
+     * Gets the remembered hash of a content item, without reading the content.
+     * 
+     * @param contentUrl the content URL
+     * @return the hex encoded hash or null if the content has not been hashed yet
+     */
+    public String getHash(final String contentUrl)
+    {
+        RetryingTransactionCallback<String> callback = new RetryingTransactionCallback<String>()
+        {
+            public String execute() throws Throwable
+            {
+                return (String) attributeService.getAttribute(KEY_CONTENT_HASH, contentUrl);
+            }
+        };
+        return transactionHelper.doInTransaction(callback, true, false);
+    }
+
+    /**
+     * Gets the hash of a content item, reading and hashing the content if it has not been hashed before.
+     * 
+     * @param contentUrl the content URL
+     * @return the hex encoded hash or null if the content does not exist
+     */
+    public String getOrComputeHash(final String contentUrl)
+    {
+        String hash = getHash(contentUrl);
+        if (hash == null)
+        {
+            hash = AuthenticationUtil.runAsSystem(new RunAsWork<String>()
+            {
+                public String doWork() throws Exception
+                {
+                    return TransferCommons.contentHash(contentService.getRawReader(contentUrl));
+                }
+            });
+            if (hash != null)
+            {
+                putHash(contentUrl, hash);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Remembers the hash of a content item.  The hash is written in its own transaction, and a failure
+     * to write it is only logged as the content can always be hashed again.
+     * 
+     * @param contentUrl the content URL
+     * @param hash the hex encoded hash of the content
+     */
+    public void putHash(final String contentUrl, final String hash)
+    {
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                attributeService.setAttribute(hash, KEY_CONTENT_HASH, contentUrl);
+                return null;
+            }
+        };
+        try
+        {
+            transactionHelper.doInTransaction(callback, false, true);
+        }
+        catch (RuntimeException e)
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Failed to remember the hash of " + contentUrl, e);
+            }
+        }
+    }
+
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    public void setContentService(ContentService contentService)
+    {
+        this.contentService = contentService;
+    }
+
+    public void setTransactionHelper(RetryingTransactionHelper transactionHelper)
+    {
+        this.transactionHelper = transactionHelper;
+    }
+}
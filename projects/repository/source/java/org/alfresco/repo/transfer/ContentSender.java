@@ -0,0 +1,261 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transfer;
+
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.transfer.TransferException;
+
+/**
+ * Sends content chunks to the transfer target and keeps the throughput statistics for the transfer.
+ * <p>
+ * If an executor is given then up to <code>maxChunksInFlight</code> chunks are posted to the target
+ * concurrently while the caller continues to read the manifest, otherwise each chunk is sent on the
+ * calling thread.   Chunks complete in the order they were sent, so a caller can wait for the chunks
+ * sent so far, see {@link #getChunkCount()} and {@link #waitForCompletion(long)}.
+ *
+ * @since 5.2
+ */
+class ContentSender
+{
+    private static final String MSG_CONTENT_SEND_INTERRUPTED = "transfer_service.content_send_interrupted";
+    private static final String MSG_CONTENT_SEND_FAILED = "transfer_service.content_send_failed";
+
+    private final TransferTransmitter transmitter;
+    private final Transfer transfer;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final String runAsUser = AuthenticationUtil.getRunAsUser();
+    private final long startTime = System.currentTimeMillis();
+    /** the chunks that have been sent but not yet checked, oldest first */
+    private final LinkedList<Future<?>> pending = new LinkedList<Future<?>>();
+    private final AtomicLong parts = new AtomicLong();
+    private final AtomicLong size = new AtomicLong();
+    private long chunkCount = 0;
+    private long completedChunkCount = 0;
+    private long skippedParts = 0;
+    private long elapsedTime = 0;
+
+    /**
+     * @param transmitter the transmitter that posts each chunk
+     * @param transfer the transfer the content belongs to
+     * @param executor the executor used to send chunks in parallel, or null to send them one at a time
+     * @param maxChunksInFlight the maximum number of chunks being sent at any one time
+     */
+    ContentSender(TransferTransmitter transmitter, Transfer transfer, ExecutorService executor, int maxChunksInFlight)
+    {
+        this.transmitter = transmitter;
+        this.transfer = transfer;
+        this.executor = executor;
+        this.inFlight = new Semaphore(Math.max(1, maxChunksInFlight));
+    }
+
+    /**
+     * Sends a chunk of content, blocking while the maximum number of chunks are in flight.
+     * 
+     * @param data the content to send, which must not be changed by the caller afterwards
+     */
+    void send(final Set<ContentData> data)
+    {
+        chunkCount++;
+        if(executor == null)
+        {
+            sendChunk(data);
+            completedChunkCount++;
+            return;
+        }
+
+        // fail fast if a chunk that is already complete has failed
+        checkCompleted();
+        try
+        {
+            inFlight.acquire();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferException(MSG_CONTENT_SEND_INTERRUPTED, new Object[] {transfer.getTransferId()}, e);
+        }
+
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    AuthenticationUtil.runAs(new RunAsWork<Void>()
+                    {
+                        public Void doWork() throws Exception
+                        {
+                            sendChunk(data);
+                            return null;
+                        }
+                    }, runAsUser);
+                }
+                finally
+                {
+                    inFlight.release();
+                }
+            }
+        };
+
+        try
+        {
+            pending.add(executor.submit(task));
+        }
+        catch (RuntimeException e)
+        {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Records a content item that the target did not need.
+     */
+    void skipped()
+    {
+        skippedParts++;
+    }
+
+    private void sendChunk(Set<ContentData> data)
+    {
+        transmitter.sendContent(transfer, data);
+
+        long chunkSize = 0;
+        for(ContentData file : data)
+        {
+            chunkSize += file.getSize();
+        }
+        parts.addAndGet(data.size());
+        size.addAndGet(chunkSize);
+    }
+
+    /**
+     * Checks the oldest chunks that have been sent, rethrowing the failure of any chunk that could not be sent.
+     */
+    private void checkCompleted()
+    {
+        while(!pending.isEmpty() && pending.getFirst().isDone())
+        {
+            getResult(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Waits for all the chunks in flight to be sent.
+     */
+    void waitForCompletion()
+    {
+        waitForCompletion(chunkCount);
+        elapsedTime = System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Waits for the first chunks to be sent, leaving any later chunks in flight.
+     * 
+     * @param chunks the number of chunks to wait for, as returned by {@link #getChunkCount()}
+     */
+    void waitForCompletion(long chunks)
+    {
+        while(completedChunkCount < chunks && !pending.isEmpty())
+        {
+            getResult(pending.removeFirst());
+        }
+    }
+
+    /**
+     * Cancels any chunks still in flight, used when the transfer fails or is cancelled.
+     */
+    void cancel()
+    {
+        for(Future<?> future : pending)
+        {
+            future.cancel(true);
+        }
+        pending.clear();
+    }
+
+    private void getResult(Future<?> future)
+    {
+        completedChunkCount++;
+        try
+        {
+            future.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new TransferException(MSG_CONTENT_SEND_INTERRUPTED, new Object[] {transfer.getTransferId()}, e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+            throw new TransferException(MSG_CONTENT_SEND_FAILED, new Object[] {transfer.getTransferId()}, cause);
+        }
+    }
+
+    /**
+     * @return the number of chunks sent so far, including those still in flight
+     */
+    long getChunkCount()
+    {
+        return chunkCount;
+    }
+
+    long getParts()
+    {
+        return parts.get();
+    }
+
+    long getSkippedParts()
+    {
+        return skippedParts;
+    }
+
+    long getSize()
+    {
+        return size.get();
+    }
+
+    long getElapsedTime()
+    {
+        return elapsedTime;
+    }
+}
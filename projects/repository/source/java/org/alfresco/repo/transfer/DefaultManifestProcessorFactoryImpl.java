@@ -59,6 +59,7 @@ public class DefaultManifestProcessorFactoryImpl implements ManifestProcessorFac
     private String transferSummaryReportLocation;
     private Properties properties;
     private FileFolderService fileFolderService;
+    private ContentHashStore contentHashStore;
 
     /*
      * (non-Javadoc)
@@ -154,6 +155,7 @@ public class DefaultManifestProcessorFactoryImpl implements ManifestProcessorFac
         CorrespondingNodeResolver nodeResolver = nodeResolverFactory.getResolver();       
         processor.setNodeResolver(nodeResolver);
         processor.setNodeService(nodeService);
+        processor.setContentHashStore(contentHashStore);
        
         return processor;
     }
@@ -183,6 +185,14 @@ public class DefaultManifestProcessorFactoryImpl implements ManifestProcessorFac
         this.fileFolderService = fileFolderService;
     }
 
+    /**
+     * @param contentHashStore the store of content hashes used to skip content the target already holds
+     */
+    public void setContentHashStore(ContentHashStore contentHashStore)
+    {
+        this.contentHashStore = contentHashStore;
+    }
+
     public void setProperties(Properties properties)
     {
         this.properties = properties;
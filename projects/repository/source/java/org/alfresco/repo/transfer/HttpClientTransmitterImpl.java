@@ -62,6 +62,7 @@ import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
 import org.apache.commons.httpclient.methods.multipart.Part;
@@ -105,6 +106,9 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
 
     private NodeService nodeService;
     private boolean isAuthenticationPreemptive = false;
+    private int maxConnectionsPerHost = 2;
+    private ContentHashStore contentHashStore;
+    private boolean computeContentHashes = false;
 
     public HttpClientTransmitterImpl()
     {
@@ -121,7 +125,14 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
     public void init()
     {
         PropertyCheck.mandatory(this, "contentService", contentService);
+        if (computeContentHashes)
+        {
+            PropertyCheck.mandatory(this, "contentHashStore", contentHashStore);
+        }
         httpClient.getParams().setAuthenticationPreemptive(isAuthenticationPreemptive);
+        HttpConnectionManagerParams connectionParams = httpClient.getHttpConnectionManager().getParams();
+        connectionParams.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        connectionParams.setMaxTotalConnections(Math.max(connectionParams.getMaxTotalConnections(), maxConnectionsPerHost));
     }
 
     /**
@@ -153,6 +164,35 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
     {
         this.isAuthenticationPreemptive = isAuthenticationPreemptive;
     }
+
+    /**
+     * The maximum number of concurrent connections to each transfer target, which limits
+     * how many content chunks may be posted in parallel.
+     * @param maxConnectionsPerHost int
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost)
+    {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Where to remember the hash of each content item sent, so that later manifests can carry the
+     * hash without reading the content again.
+     * @param contentHashStore ContentHashStore
+     */
+    public void setContentHashStore(ContentHashStore contentHashStore)
+    {
+        this.contentHashStore = contentHashStore;
+    }
+
+    /**
+     * Should content be hashed as it is sent?
+     * @param computeContentHashes boolean
+     */
+    public void setComputeContentHashes(boolean computeContentHashes)
+    {
+        this.computeContentHashes = computeContentHashes;
+    }
     
     /* (non-Javadoc)
      * @see org.alfresco.repo.transfer.Transmitter#verifyTarget(org.alfresco.service.cmr.transfer.TransferTarget)
@@ -346,6 +386,20 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
     }
 
     public void sendManifest(Transfer transfer, File manifest, OutputStream result) throws TransferException
+    {
+        postManifest(transfer, "sendManifest", "/post-snapshot", manifest, result,
+                new NameValuePair[] {new NameValuePair("transferId", transfer.getTransferId())});
+    }
+
+    public void sendManifestSegment(Transfer transfer, int segment, File manifest, OutputStream result) throws TransferException
+    {
+        postManifest(transfer, "sendManifestSegment", "/post-snapshot-segment", manifest, result,
+                new NameValuePair[] {new NameValuePair("transferId", transfer.getTransferId()),
+                                     new NameValuePair("segment", Integer.toString(segment))});
+    }
+
+    private void postManifest(Transfer transfer, String methodName, String command, File manifest, OutputStream result, 
+            NameValuePair[] queryString) throws TransferException
     {
         TransferTarget target = transfer.getTransferTarget();
         PostMethod postSnapshotRequest = getPostMethod();
@@ -365,11 +419,10 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
 
             try
             {
-                postSnapshotRequest.setPath(target.getEndpointPath() + "/post-snapshot");
+                postSnapshotRequest.setPath(target.getEndpointPath() + command);
 
                 //Put the transferId on the query string
-                postSnapshotRequest.setQueryString(
-                        new NameValuePair[] {new NameValuePair("transferId", transfer.getTransferId())});
+                postSnapshotRequest.setQueryString(queryString);
 
                 //TODO encapsulate the name of the manifest part
                 //And add the manifest file as a "part"
@@ -378,7 +431,7 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
                 postSnapshotRequest.setRequestEntity(requestEntity);
 
                 int responseStatus = httpClient.executeMethod(hostConfig, postSnapshotRequest, httpState);
-                checkResponseStatus("sendManifest", responseStatus, postSnapshotRequest);
+                checkResponseStatus(methodName, responseStatus, postSnapshotRequest);
 
                 InputStream is = postSnapshotRequest.getResponseBodyAsStream();
 
@@ -405,7 +458,7 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
             {
                 String error = "Failed to execute HTTP request to target";
                 log.debug(error, e);
-                throw new TransferException(MSG_HTTP_REQUEST_FAILED, new Object[]{"sendManifest", target.toString(), e.toString()}, e);
+                throw new TransferException(MSG_HTTP_REQUEST_FAILED, new Object[]{methodName, target.toString(), e.toString()}, e);
             }
         }
         finally
@@ -489,6 +542,43 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
         }
     }
 
+    public void commitSegment(Transfer transfer, int segment) throws TransferException
+    {
+        TransferTarget target = transfer.getTransferTarget();
+        HttpMethod commitRequest = getPostMethod();
+        try
+        {
+            HostConfiguration hostConfig = getHostConfig(target);
+            HttpState httpState = getHttpState(target);
+
+            commitRequest.setPath(target.getEndpointPath() + "/commit-segment");
+            //Put the transferId and segment on the query string
+            commitRequest.setQueryString(
+                    new NameValuePair[] {new NameValuePair("transferId", transfer.getTransferId()),
+                                         new NameValuePair("segment", Integer.toString(segment))});
+            try
+            {
+                int responseStatus = httpClient.executeMethod(hostConfig, commitRequest, httpState);
+                checkResponseStatus("commitSegment", responseStatus, commitRequest);
+                //If we get here then we've received a 200 response, the segment has been applied
+            }
+            catch (RuntimeException e)
+            {
+                throw e;
+            }
+            catch (Exception e)
+            {
+                String error = "Failed to execute HTTP request to target";
+                log.error(error, e);
+                throw new TransferException(MSG_HTTP_REQUEST_FAILED, new Object[]{"commitSegment", target.toString(), e.toString()}, e);
+            }
+        }
+        finally
+        {
+            commitRequest.releaseConnection();
+        }
+    }
+
     public void prepare(Transfer transfer) throws TransferException
     {
         TransferTarget target = transfer.getTransferTarget();
@@ -564,7 +654,8 @@ public class HttpClientTransmitterImpl implements TransferTransmitter
                     String fileName = TransferCommons.URLToPartName(contentUrl);
                     log.debug("content partName: " + fileName);
 
-                    parts[index++] = new ContentDataPart(getContentService(), fileName, content);
+                    parts[index++] = new ContentDataPart(getContentService(), fileName, content,
+                            computeContentHashes ? contentHashStore : null);
                 }
 
                 MultipartRequestEntity requestEntity = new MultipartRequestEntity(parts, postContentRequest.getParams());
@@ -43,6 +43,7 @@ import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.transfer.TransferReceiver;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -58,6 +59,7 @@ public class RepoRequisiteManifestProcessorImpl extends AbstractManifestProcesso
     private NodeService nodeService;
     private CorrespondingNodeResolver nodeResolver;
     private TransferRequsiteWriter out;
+    private ContentHashStore contentHashStore;
     
     
     private static final Log log = LogFactory.getLog(RepoRequisiteManifestProcessorImpl.class);
@@ -160,6 +162,13 @@ public class RepoRequisiteManifestProcessorImpl extends AbstractManifestProcesso
                                         log.debug("part already transferred, no need to send it again, partName:" + partName + ", nodeRef:" + node.getNodeRef());
                                     }   
                                 }
+                                else if(isSameContent(node, srcContent, destContent))
+                                {
+                                    if(log.isDebugEnabled())
+                                    {
+                                        log.debug("content hash matches, no need to send it again, partName:" + partName + ", nodeRef:" + node.getNodeRef());
+                                    }
+                                }
                                 else
                                 {
                                     if(log.isDebugEnabled())
@@ -169,6 +178,13 @@ public class RepoRequisiteManifestProcessorImpl extends AbstractManifestProcesso
                                     out.missingContent(node.getNodeRef(), propEntry.getKey(), TransferCommons.URLToPartName(srcContent.getContentUrl()));
                                 }
                             }
+                            else if(isSameContent(node, srcContent, destContent))
+                            {
+                                if(log.isDebugEnabled())
+                                {
+                                    log.debug("content hash matches, no need to send it again, partName:" + partName + ", nodeRef:" + node.getNodeRef());
+                                }
+                            }
                             else
                             {
                                 // dest from contents is null
@@ -228,6 +244,30 @@ public class RepoRequisiteManifestProcessorImpl extends AbstractManifestProcesso
         }        
     }
     
+    /**
+     * Does the destination already hold the same content as the source, albeit under a different content URL?
+     * <p>
+     * Only possible if the source sent a content hash in the manifest.   The destination content is only read
+     * when its size and format match the source content, and then only once as its hash is remembered.
+     */
+    private boolean isSameContent(TransferManifestNormalNode node, ContentData srcContent, ContentData destContent)
+    {
+        if (contentHashStore == null || node.getContentHashes() == null)
+        {
+            return false;
+        }
+        String srcHash = node.getContentHashes().get(srcContent.getContentUrl());
+        String destContentUrl = destContent.getContentUrl();
+        if (srcHash == null || destContentUrl == null || destContent.getSize() != srcContent.getSize() ||
+                !EqualsHelper.nullSafeEquals(srcContent.getMimetype(), destContent.getMimetype()) ||
+                !EqualsHelper.nullSafeEquals(srcContent.getEncoding(), destContent.getEncoding()) ||
+                !EqualsHelper.nullSafeEquals(srcContent.getLocale(), destContent.getLocale()))
+        {
+            return false;
+        }
+        return srcHash.equals(contentHashStore.getOrComputeHash(destContentUrl));
+    }
+    
     protected void processHeader(TransferManifestHeader header)
     {
         // T.B.D
@@ -261,4 +301,13 @@ public class RepoRequisiteManifestProcessorImpl extends AbstractManifestProcesso
     {
         this.nodeResolver = nodeResolver;
     }
+
+    /**
+     * @param contentHashStore
+     *            the store of content hashes used to compare content, may be null
+     */
+    public void setContentHashStore(ContentHashStore contentHashStore)
+    {
+        this.contentHashStore = contentHashStore;
+    }
 }
@@ -34,6 +34,7 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -68,6 +69,9 @@ import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.repo.transfer.ChangeCapturingProgressMonitor.TransferChangesRecord;
+import org.alfresco.repo.transfer.manifest.TransferManifestDeletedNode;
+import org.alfresco.repo.transfer.manifest.TransferManifestHeader;
+import org.alfresco.repo.transfer.manifest.TransferManifestNormalNode;
 import org.alfresco.repo.transfer.manifest.TransferManifestProcessor;
 import org.alfresco.repo.transfer.manifest.XMLTransferManifestReader;
 import org.alfresco.repo.transfer.requisite.XMLTransferRequsiteWriter;
@@ -180,6 +184,9 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
     private static final String MSG_INCOMPATIBLE_VERSIONS = "transfer_service.incompatible_versions";
 
     private static final String SNAPSHOT_FILE_NAME = "snapshot.xml";
+    private static final String SNAPSHOT_SEGMENT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SEGMENT_SUFFIX = ".xml";
+    private static final String SNAPSHOT_SEGMENT_COMMITTED_SUFFIX = ".committed";
 
     private NodeService nodeService;
     private SearchService searchService;
@@ -779,6 +786,16 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
     }
 
     public void saveSnapshot(String transferId, InputStream openStream) throws TransferException
+    {
+        saveSnapshot(transferId, getSnapshotFile(transferId), openStream);
+    }
+
+    public void saveSnapshotSegment(String transferId, int segment, InputStream openStream) throws TransferException
+    {
+        saveSnapshot(transferId, getSnapshotSegmentFile(transferId, segment), openStream);
+    }
+
+    private void saveSnapshot(String transferId, File snapshotFile, InputStream openStream) throws TransferException
     {
         // Check that this transfer still owns the lock
         Lock lock = checkLock(transferId);
@@ -786,10 +803,9 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
         {
             if (log.isDebugEnabled())
             {
-                log.debug("Saving snapshot for transferId =" + transferId);
+                log.debug("Saving snapshot for transferId =" + transferId + " to " + snapshotFile.getName());
             }
 
-            File snapshotFile = new File(getStagingFolder(transferId), SNAPSHOT_FILE_NAME);
             try
             {
                 if (snapshotFile.createNewFile())
@@ -908,18 +924,15 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
 
                     SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
                     SAXParser parser = saxParserFactory.newSAXParser();
-                    File snapshotFile = getSnapshotFile(transferId);
+                    List<File> snapshotFiles = getSnapshotFiles(transferId);
 
-                    if (snapshotFile.exists())
+                    if (!snapshotFiles.isEmpty())
                     {
-                        if (log.isDebugEnabled())
-                        {
-                            log.debug("Processing manifest file:" + snapshotFile.getAbsolutePath());
-                        }
-                        // We parse the file as many times as we have processors
+                        // We parse the snapshot as many times as we have processors, each processor sees
+                        // the segments of a segmented snapshot as one manifest
                         for (TransferManifestProcessor processor : commitProcessors)
                         {
-                            XMLTransferManifestReader reader = new XMLTransferManifestReader(processor);
+                            XMLTransferManifestReader reader = new XMLTransferManifestReader(new SegmentedManifestProcessor(processor));
 
                             //behaviourFilter.disableBehaviour(ContentModel.ASPECT_AUDITABLE);
                             behaviourFilter.disableBehaviour();
@@ -929,13 +942,28 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
                             }
                             try
                             {
-                                parser.parse(snapshotFile, reader);
+                                processor.startTransferManifest();
+                                for (int segment = 0; segment < snapshotFiles.size(); segment++)
+                                {
+                                    // the nodes of a segment committed by commitSegment are already in place
+                                    if (processor instanceof RepoPrimaryManifestProcessorImpl && isSnapshotSegmentCommitted(transferId, segment))
+                                    {
+                                        continue;
+                                    }
+                                    File snapshotFile = snapshotFiles.get(segment);
+                                    if (log.isDebugEnabled())
+                                    {
+                                        log.debug("Processing manifest file:" + snapshotFile.getAbsolutePath());
+                                    }
+                                    parser.parse(snapshotFile, reader);
+                                    parser.reset();
+                                }
+                                processor.endTransferManifest();
                             }
                             finally
                             {
                                 behaviourFilter.enableBehaviour();
                             }
-                            parser.reset();
                         }
 
                         for (TransferSummaryReport transferSummaryReport : summaryReports)
@@ -1013,6 +1041,107 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
         }
     }
 
+    public void commitSegment(final String transferId, int segment) throws TransferException
+    {
+        if (log.isDebugEnabled())
+        {
+            log.debug("Committing segment " + segment + " of transferId=" + transferId);
+        }
+
+        Lock lock = checkLock(transferId);
+
+        /**
+         * Turn off rules while the segment is being committed.
+         */
+        boolean rulesEnabled = ruleService.isEnabled();
+        ruleService.disableRules();
+
+        try
+        {
+            final File snapshotFile = getSnapshotSegmentFile(transferId, segment);
+            if (!snapshotFile.exists())
+            {
+                throw new TransferException(MSG_NO_SNAPSHOT_RECEIVED, new Object[]{transferId});
+            }
+
+            RetryingTransactionHelper.RetryingTransactionCallback<Object> commitWork = new RetryingTransactionCallback<Object>()
+            {
+                public Object execute() throws Throwable
+                {
+                    List<TransferManifestProcessor> commitProcessors = manifestProcessorFactory.getCommitProcessors(
+                            RepoTransferReceiverImpl.this, transferId);
+
+                    SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+                    SAXParser parser = saxParserFactory.newSAXParser();
+
+                    // Only the nodes are applied now, the associations and sync of all the segments 
+                    // are applied by the commit of the transfer
+                    for (TransferManifestProcessor processor : commitProcessors)
+                    {
+                        if (processor instanceof RepoPrimaryManifestProcessorImpl)
+                        {
+                            // The summary report is written by the commit of the transfer
+                            ((RepoPrimaryManifestProcessorImpl) processor).setTransferSummaryReport(null);
+                            XMLTransferManifestReader reader = new XMLTransferManifestReader(processor);
+                            behaviourFilter.disableBehaviour();
+                            try
+                            {
+                                parser.parse(snapshotFile, reader);
+                            }
+                            finally
+                            {
+                                behaviourFilter.enableBehaviour();
+                            }
+                        }
+                    }
+                    return null;
+                }
+            };
+
+            transactionService.getRetryingTransactionHelper().doInTransaction(commitWork, false, true);
+
+            Throwable error = progressMonitor.getProgress(transferId).getError();
+            if (error != null)
+            {
+                if (TransferException.class.isAssignableFrom(error.getClass()))
+                {
+                    throw (TransferException) error;
+                }
+                else
+                {
+                    throw new TransferException(MSG_ERROR_WHILE_COMMITTING_TRANSFER, new Object[]{transferId}, error);
+                }
+            }
+
+            // Remember that the nodes of the segment are in place for the commit of the transfer
+            getSnapshotSegmentCommittedFile(transferId, segment).createNewFile();
+
+            if (log.isDebugEnabled())
+            {
+                log.debug("Commit success for segment " + segment + " of transferId=" + transferId);
+            }
+        }
+        catch (Exception ex)
+        {
+            if (TransferException.class.isAssignableFrom(ex.getClass()))
+            {
+                throw (TransferException) ex;
+            }
+            else
+            {
+                throw new TransferException(MSG_ERROR_WHILE_COMMITTING_TRANSFER, ex);
+            }
+        }
+        finally
+        {
+            if(rulesEnabled)
+            {
+                ruleService.enableRules();
+            }
+            lock.enableLockTimeout();
+        }
+    }
+
     public TransferProgress getStatus(String transferId) throws TransferException
     {
         return getProgressMonitor().getProgress(transferId);
@@ -1023,6 +1152,40 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
         return new File(getStagingFolder(transferId), SNAPSHOT_FILE_NAME);
     }
 
+    private File getSnapshotSegmentFile(String transferId, int segment)
+    {
+        return new File(getStagingFolder(transferId), SNAPSHOT_SEGMENT_PREFIX + segment + SNAPSHOT_SEGMENT_SUFFIX);
+    }
+
+    private File getSnapshotSegmentCommittedFile(String transferId, int segment)
+    {
+        return new File(getStagingFolder(transferId), SNAPSHOT_SEGMENT_PREFIX + segment + SNAPSHOT_SEGMENT_COMMITTED_SUFFIX);
+    }
+
+    private boolean isSnapshotSegmentCommitted(String transferId, int segment)
+    {
+        return getSnapshotSegmentCommittedFile(transferId, segment).exists();
+    }
+
+    /**
+     * @return the snapshot file, or the segments of a snapshot sent in segments in order, or an empty list if no snapshot has been received
+     */
+    private List<File> getSnapshotFiles(String transferId)
+    {
+        File snapshotFile = getSnapshotFile(transferId);
+        if (snapshotFile.exists())
+        {
+            return Collections.singletonList(snapshotFile);
+        }
+        List<File> segmentFiles = new ArrayList<File>();
+        for (File segmentFile = getSnapshotSegmentFile(transferId, 0); segmentFile.exists(); 
+                segmentFile = getSnapshotSegmentFile(transferId, segmentFiles.size()))
+        {
+            segmentFiles.add(segmentFile);
+        }
+        return segmentFiles;
+    }
+
     /**
      * @param searchService
      *            the searchService to set
@@ -1159,11 +1322,23 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
      * Generate the requsite
      */
     public void generateRequsite(String transferId, OutputStream out) throws TransferException
+    {
+        generateRequsite(transferId, getSnapshotFile(transferId), out);
+    }
+
+    /**
+     * Generate the requsite for one segment of the snapshot
+     */
+    public void generateSegmentRequsite(String transferId, int segment, OutputStream out) throws TransferException
+    {
+        generateRequsite(transferId, getSnapshotSegmentFile(transferId, segment), out);
+    }
+
+    private void generateRequsite(String transferId, File snapshotFile, OutputStream out) throws TransferException
     {
         log.debug("Generate Requsite for transfer:" + transferId);
         try
         {
-            File snapshotFile = getSnapshotFile(transferId);
 
             if (snapshotFile.exists())
             {
@@ -1474,6 +1649,45 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
         return lockRefreshTime;
     }
 
+    /**
+     * Passes the headers and nodes of each segment of a snapshot to a manifest processor.  The caller starts 
+     * and ends the manifest once for all the segments, so that the processor sees them as one manifest.
+     */
+    private static class SegmentedManifestProcessor implements TransferManifestProcessor
+    {
+        private final TransferManifestProcessor processor;
+
+        SegmentedManifestProcessor(TransferManifestProcessor processor)
+        {
+            this.processor = processor;
+        }
+
+        public void startTransferManifest()
+        {
+            // NO-OP - started by the caller before the first segment
+        }
+
+        public void processTransferManifiestHeader(TransferManifestHeader header)
+        {
+            processor.processTransferManifiestHeader(header);
+        }
+
+        public void processTransferManifestNode(TransferManifestNormalNode node)
+        {
+            processor.processTransferManifestNode(node);
+        }
+
+        public void processTransferManifestNode(TransferManifestDeletedNode node)
+        {
+            processor.processTransferManifestNode(node);
+        }
+
+        public void endTransferManifest()
+        {
+            // NO-OP - ended by the caller after the last segment
+        }
+    }
+
     /**
      * A Transfer Lock
      */
@@ -1500,9 +1714,10 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
         private boolean active = false;
 
         /**
-         * Is the server processing ?
+         * How many requests is the server processing ? Content may be posted
+         * by several client connections at once.
          */
-        private boolean processing = false;
+        private int processing = 0;
 
         /**
          * When did we last check whether the lock is active
@@ -1555,7 +1770,7 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
             log.debug("suspend lock called");
             if (active)
             {
-                processing = true;
+                processing++;
             }
             else
             {
@@ -1575,7 +1790,10 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
                 log.debug("start waiting : lastActive:" + lastActive);
             }
 
-            processing = false;
+            if(processing > 0)
+            {
+                processing--;
+            }
         }
 
         /**
@@ -1607,7 +1825,7 @@ public class RepoTransferReceiverImpl implements TransferReceiver,
 
             if(active)
             {
-                if(!processing)
+                if(processing == 0)
                 {
                     if(now > lastActive + getLockTimeOut())
                     {
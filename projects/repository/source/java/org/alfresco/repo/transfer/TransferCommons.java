@@ -25,6 +25,14 @@
  */
 package org.alfresco.repo.transfer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.service.cmr.repository.ContentReader;
+
 /**
  * A bucket for little odds and ends for the transfer service.
  *
@@ -98,4 +106,85 @@ public class TransferCommons
     {
         return contentUrl.substring(contentUrl.lastIndexOf('/')+1);
     }
+
+    /**
+     * The digest algorithm used for content hashes in the manifest.
+     */
+    public final static String CONTENT_HASH_ALGORITHM = "SHA-256";
+
+    /**
+     * Calculate the hash of a content item, used to avoid sending content that the destination
+     * already holds under a different content URL.
+     *
+     * @param reader the reader of the content
+     * @return the hex encoded hash of the content or null if the content does not exist
+     */
+    public final static String contentHash(ContentReader reader)
+    {
+        if (reader == null || !reader.exists())
+        {
+            return null;
+        }
+        InputStream is = null;
+        try
+        {
+            MessageDigest digest = newContentDigest();
+            is = reader.getContentInputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1)
+            {
+                digest.update(buffer, 0, read);
+            }
+            return encodeHash(digest.digest());
+        }
+        catch (IOException e)
+        {
+            throw new AlfrescoRuntimeException("Unable to hash content: " + reader.getContentUrl(), e);
+        }
+        finally
+        {
+            if (is != null)
+            {
+                try
+                {
+                    is.close();
+                }
+                catch (IOException e)
+                {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @return a new digest for hashing content, see {@link #CONTENT_HASH_ALGORITHM}
+     */
+    public final static MessageDigest newContentDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new AlfrescoRuntimeException("Unable to create a " + CONTENT_HASH_ALGORITHM + " digest", e);
+        }
+    }
+
+    /**
+     * @param hash the digest of a content item
+     * @return the hex encoded hash as sent in the manifest
+     */
+    public final static String encodeHash(byte[] hash)
+    {
+        StringBuilder sb = new StringBuilder(hash.length * 2);
+        for (byte b : hash)
+        {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
 }
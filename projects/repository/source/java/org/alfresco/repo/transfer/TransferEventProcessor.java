@@ -41,6 +41,7 @@ import org.alfresco.service.cmr.transfer.TransferEventEnterState;
 import org.alfresco.service.cmr.transfer.TransferEventReport;
 import org.alfresco.service.cmr.transfer.TransferEventSendingContent;
 import org.alfresco.service.cmr.transfer.TransferEventSendingSnapshot;
+import org.alfresco.service.cmr.transfer.TransferEventSentContent;
 
 /**
  * Class to bring together all the transfer event stuff.
@@ -115,6 +116,27 @@ public class TransferEventProcessor
         notifyObservers();
     }
     
+    /**
+     * 
+     * @param parts long
+     * @param skippedParts long
+     * @param size long
+     * @param elapsedTime long
+     */
+    public void sentContent(long parts, long skippedParts, long size, long elapsedTime)
+    {
+        TransferEventSentContent event = new TransferEventSentContent();
+        event.setTransferState(TransferEvent.TransferState.SENDING_CONTENT);
+        event.setParts(parts);
+        event.setSkippedParts(skippedParts);
+        event.setSize(size);
+        event.setElapsedTime(elapsedTime);
+        event.setMessage("sent content " + parts + " parts, " + size + " bytes in " + elapsedTime + "ms, " +
+                    event.getBytesPerSecond() + " bytes/s, skipped " + skippedParts + " parts");
+        queue.add(event);
+        notifyObservers();
+    }
+    
     /**
      * 
      * @param range long
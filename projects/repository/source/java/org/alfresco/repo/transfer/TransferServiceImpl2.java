@@ -36,9 +36,11 @@ import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -47,6 +49,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 import javax.transaction.UserTransaction;
 import javax.xml.parsers.ParserConfigurationException;
@@ -176,6 +179,31 @@ public class TransferServiceImpl2 implements TransferService2
      */
     private long commitPollDelay = 2000;
     
+    /**
+     * Optional executor used to send content chunks to the target in parallel
+     */
+    private ExecutorService contentSendExecutor;
+    
+    /**
+     * The maximum number of content chunks in flight at any one time when sending in parallel
+     */
+    private int maxContentChunksInFlight = 4;
+    
+    /**
+     * The target size, in bytes, of each content chunk
+     */
+    private long contentChunkSize = 1000000;
+    
+    /**
+     * How many nodes to write to each manifest segment, or 0 to send the manifest in one piece
+     */
+    private int manifestSegmentSize = 0;
+    
+    /**
+     * Should the target apply each manifest segment as soon as its content has been sent?
+     */
+    private boolean commitManifestSegments = false;
+    
     /**
      * Create a new in memory transfer target
      */
@@ -598,7 +626,15 @@ public class TransferServiceImpl2 implements TransferService2
                     {
                         eventProcessor.start();
                      
-                        manifest = createManifest(definition, localRepositoryId, fromVersion, transferContext);
+                        if(manifestSegmentSize > 0)
+                        {
+                            // the manifest is written while it is sent
+                            getNodeCount(definition);
+                        }
+                        else
+                        {
+                            manifest = createManifest(definition, localRepositoryId, fromVersion, transferContext);
+                        }
                         logger.debug("transfer begin");
                         target = getTransferTarget(targetName);
                         checkTargetEnabled(target);
@@ -624,31 +660,41 @@ public class TransferServiceImpl2 implements TransferService2
                             throw new TransferException(MSG_INCOMPATIBLE_VERSIONS, new Object[] {transfer.getTransferId(), fromVersion, toVersion});
                         }
                         
-                        // send Manifest, get the requsite back.
-                        eventProcessor.sendSnapshot(1,1);
-                        
-                        requisite = createRequisiteFile();
-                        FileOutputStream reqOutput = new FileOutputStream(requisite);
-                        transmitter.sendManifest(transfer, manifest, reqOutput);
-                        logger.debug("manifest sent");
-                        checkCancel(transfer.getTransferId());
-
-                        if(logger.isDebugEnabled())
+                        if(manifestSegmentSize > 0)
                         {
-                            logger.debug("requisite file written to local filesystem");
-                            try
-                            {
-                                outputFile(requisite);
-                            }
-                            catch (IOException error)
+                            // send the manifest in segments along with the content for each segment
+                            manifest = sendManifestSegments(transfer, definition, localRepositoryId, fromVersion, transferContext, eventProcessor);
+                            logger.debug("manifest segments and content sent");
+                            checkCancel(transfer.getTransferId());
+                        }
+                        else
+                        {
+                            // send Manifest, get the requsite back.
+                            eventProcessor.sendSnapshot(1,1);
+                            
+                            requisite = createRequisiteFile();
+                            FileOutputStream reqOutput = new FileOutputStream(requisite);
+                            transmitter.sendManifest(transfer, manifest, reqOutput);
+                            logger.debug("manifest sent");
+                            checkCancel(transfer.getTransferId());
+    
+                            if(logger.isDebugEnabled())
                             {
-                                // This is debug code - so an exception thrown while debugging
-                                logger.debug("error while outputting snapshotFile");
-                                error.printStackTrace();
+                                logger.debug("requisite file written to local filesystem");
+                                try
+                                {
+                                    outputFile(requisite);
+                                }
+                                catch (IOException error)
+                                {
+                                    // This is debug code - so an exception thrown while debugging
+                                    logger.debug("error while outputting snapshotFile");
+                                    error.printStackTrace();
+                                }
                             }
+                            
+                            sendContent(transfer, definition, eventProcessor, manifest, requisite);
                         }
-                        
-                        sendContent(transfer, definition, eventProcessor, manifest, requisite);
                         logger.debug("content sending finished");
                         checkCancel(transfer.getTransferId());
 
@@ -928,8 +974,10 @@ public class TransferServiceImpl2 implements TransferService2
         }
     }
     
-    private File createManifest(TransferDefinition definition, String repositoryId, TransferVersion fromVersion, TransferContext transferContext)
-        throws IOException, SAXException
+    /**
+     * Check there are nodes to transfer and count them.
+     */
+    private int getNodeCount(TransferDefinition definition)
     {
         // which nodes to write to the snapshot
         Set<NodeRef>nodes = definition.getNodes();
@@ -948,7 +996,29 @@ public class TransferServiceImpl2 implements TransferService2
             nodes.removeAll(nodesToRemove);
         }
 
-        int nodeCount = ((nodes == null) ? 0 : nodes.size()) + ((nodesToRemove == null) ? 0 : nodesToRemove.size());
+        return ((nodes == null) ? 0 : nodes.size()) + ((nodesToRemove == null) ? 0 : nodesToRemove.size());
+    }
+    
+    private TransferManifestHeader createManifestHeader(TransferDefinition definition, String repositoryId, TransferVersion fromVersion, 
+            int nodeCount)
+    {
+        TransferManifestHeader header = new TransferManifestHeader();
+        header.setRepositoryId(repositoryId);
+        header.setTransferVersion(fromVersion);
+        header.setCreatedDate(new Date());
+        header.setNodeCount(nodeCount);
+        header.setSync(definition.isSync());
+        header.setReadOnly(definition.isReadOnly());
+        return header;
+    }
+    
+    private File createManifest(TransferDefinition definition, String repositoryId, TransferVersion fromVersion, TransferContext transferContext)
+        throws IOException, SAXException
+    {
+        // which nodes to write to the snapshot
+        Set<NodeRef>nodes = definition.getNodes();
+        Set<NodeRef>nodesToRemove = definition.getNodesToRemove();
+        int nodeCount = getNodeCount(definition);
         
         /**
          * create snapshot
@@ -962,15 +1032,8 @@ public class TransferServiceImpl2 implements TransferService2
         
         // Write the manifest file
         TransferManifestWriter formatter = new XMLTransferManifestWriter();
-        TransferManifestHeader header = new TransferManifestHeader();
-        header.setRepositoryId(repositoryId);
-        header.setTransferVersion(fromVersion);
-        header.setCreatedDate(new Date());
-        header.setNodeCount(nodeCount);
-        header.setSync(definition.isSync());
-        header.setReadOnly(definition.isReadOnly());
         formatter.startTransferManifest(snapshotWriter);
-        formatter.writeTransferManifestHeader(header);
+        formatter.writeTransferManifestHeader(createManifestHeader(definition, repositoryId, fromVersion, nodeCount));
         if (nodes != null)
         {
             for (NodeRef nodeRef : nodes)
@@ -1021,27 +1084,28 @@ public class TransferServiceImpl2 implements TransferService2
             File manifest, File requisite)
         throws SAXException, ParserConfigurationException, IOException
     {
-        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-        SAXParser parser;
-        parser = saxParserFactory.newSAXParser(); 
-        
-        /**
-         * Parse the requisite file to generate the delta list
-         */
-        DeltaListRequsiteProcessor reqProcessor = new DeltaListRequsiteProcessor(); 
-        XMLTransferRequsiteReader reqReader = new XMLTransferRequsiteReader(reqProcessor);
-        parser.parse(requisite, reqReader);
-        
-        final DeltaList deltaList = reqProcessor.getDeltaList();
+        ContentSender sender = new ContentSender(transmitter, transfer, contentSendExecutor, maxContentChunksInFlight);
+        ContentChunker chunker = createContentChunker(transfer, definition, eventProcessor, sender);
+        try
+        {
+            queueContent(transfer, manifest, requisite, chunker, sender);
+            sender.waitForCompletion();
+        }
+        finally
+        {
+            sender.cancel();
+        }
+        sentContent(eventProcessor, sender);
+    }
     
-        /**
-         * Parse the manifest file and transfer chunks over
-         * 
-         * ManifestFile -> Manifest Processor -> Chunker -> Transmitter
-         * 
-         * Step 1: Create a chunker and wire it up to the transmitter
-         */
-        final ContentChunker chunker = new ContentChunkerImpl();
+    /**
+     * Create a chunker wired up to the content sender
+     */
+    private ContentChunker createContentChunker(final Transfer transfer, TransferDefinition definition, 
+            final TransferEventProcessor eventProcessor, final ContentSender sender)
+    {
+        ContentChunkerImpl chunker = new ContentChunkerImpl();
+        chunker.setChunkSize(contentChunkSize);
         final Long removeNodesRange = Long.valueOf(definition.getNodesToRemove() != null ? definition.getNodesToRemove().size() : 0);
         final Long nodesRange = Long.valueOf( definition.getNodes() != null ? definition.getNodes().size() : 0);
 
@@ -1058,13 +1122,41 @@ public class TransferServiceImpl2 implements TransferService2
                         counter++;
                         eventProcessor.sendContent(file, fRange, counter);
                     }
-                    transmitter.sendContent(transfer, data);
+                    // the chunker re-uses its buffer, so hand the sender a copy of this chunk
+                    sender.send(new HashSet<ContentData>(data));
                 }
             }
         );
+        return chunker;
+    }
     
+    /**
+     * Queue the content of a manifest that the target requires with the content sender.   The content may still be
+     * in flight when this method returns.
+     */
+    private void queueContent(final Transfer transfer, File manifest, File requisite, final ContentChunker chunker, 
+            final ContentSender sender)
+        throws SAXException, ParserConfigurationException, IOException
+    {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+        SAXParser parser;
+        parser = saxParserFactory.newSAXParser(); 
+        
         /**
-         * Step 2 : create a manifest processor and wire it up to the chunker
+         * Parse the requisite file to generate the delta list
+         */
+        DeltaListRequsiteProcessor reqProcessor = new DeltaListRequsiteProcessor(); 
+        XMLTransferRequsiteReader reqReader = new XMLTransferRequsiteReader(reqProcessor);
+        parser.parse(requisite, reqReader);
+        
+        final DeltaList deltaList = reqProcessor.getDeltaList();
+    
+        /**
+         * Parse the manifest file and transfer chunks over
+         * 
+         * ManifestFile -> Manifest Processor -> Chunker -> Content Sender -> Transmitter
+         * 
+         * Step 1 : create a manifest processor and wire it up to the chunker
          */
         TransferManifestProcessor processor = new TransferManifestProcessor()
         {
@@ -1087,6 +1179,10 @@ public class TransferServiceImpl2 implements TransferService2
                             logger.debug("content is required :" + d.getContentUrl());
                             chunker.addContent(d);
                         }
+                        else
+                        {
+                            sender.skipped();
+                        }
                     }
                     else
                     {
@@ -1105,17 +1201,170 @@ public class TransferServiceImpl2 implements TransferService2
         };
         
         /**
-         * Step 3: wire up the manifest reader to a manifest processor
+         * Step 2: wire up the manifest reader to a manifest processor
          */
     
         XMLTransferManifestReader reader = new XMLTransferManifestReader(processor);
     
         /**
-         * Step 4: start the magic - Give the manifest file to the manifest reader
+         * Step 3: start the magic - Give the manifest file to the manifest reader
          */
         parser.parse(manifest, reader);
         chunker.flush();
     }
+    
+    private void sentContent(TransferEventProcessor eventProcessor, ContentSender sender)
+    {
+        eventProcessor.sentContent(sender.getParts(), sender.getSkippedParts(), sender.getSize(), sender.getElapsedTime());
+        if(logger.isDebugEnabled())
+        {
+            logger.debug("content sent, parts:" + sender.getParts() + ", bytes:" + sender.getSize() + 
+                        ", skipped:" + sender.getSkippedParts() + ", elapsed:" + sender.getElapsedTime() + "ms");
+        }
+    }
+    
+    /**
+     * Write the manifest in segments of <code>manifestSegmentSize</code> nodes, sending each segment to the target as
+     * soon as it is written.   The content that the target requires for a segment is sent in the background while
+     * the next segment is written and sent.
+     * <p>
+     * If <code>commitManifestSegments</code> is set then the target applies each segment once its content has been
+     * sent, and the nodes are written parents first so that a segment does not refer to a parent in a later segment.
+     * 
+     * @return the complete manifest, for the transfer report
+     */
+    private File sendManifestSegments(Transfer transfer, TransferDefinition definition, String repositoryId, 
+            TransferVersion fromVersion, TransferContext transferContext, TransferEventProcessor eventProcessor)
+        throws IOException, SAXException, ParserConfigurationException
+    {
+        int nodeCount = getNodeCount(definition);
+        List<NodeRef> nodes = new ArrayList<NodeRef>(nodeCount);
+        if (definition.getNodes() != null)
+        {
+            nodes.addAll(definition.getNodes());
+            if (commitManifestSegments)
+            {
+                sortParentsFirst(nodes);
+            }
+        }
+        int removedFrom = nodes.size();
+        if (definition.getNodesToRemove() != null)
+        {
+            nodes.addAll(definition.getNodesToRemove());
+        }
+        int segmentCount = (nodes.size() + manifestSegmentSize - 1) / manifestSegmentSize;
+        
+        File tempDir = TempFileProvider.getLongLifeTempDir(FILE_DIRECTORY);
+        File snapshotFile = TempFileProvider.createTempFile("TRX-SNAP", FILE_SUFFIX, tempDir);
+        Writer snapshotWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(snapshotFile), "UTF-8"));
+        boolean sent = false;
+
+        ContentSender sender = new ContentSender(transmitter, transfer, contentSendExecutor, maxContentChunksInFlight);
+        ContentChunker chunker = createContentChunker(transfer, definition, eventProcessor, sender);
+        try
+        {
+            TransferManifestWriter formatter = new XMLTransferManifestWriter();
+            formatter.startTransferManifest(snapshotWriter);
+            formatter.writeTransferManifestHeader(createManifestHeader(definition, repositoryId, fromVersion, nodeCount));
+            
+            long previousChunkCount = 0;
+            for (int segment = 0; segment < segmentCount; segment++)
+            {
+                checkCancel(transfer.getTransferId());
+                int from = segment * manifestSegmentSize;
+                int to = Math.min(nodes.size(), from + manifestSegmentSize);
+                
+                File segmentFile = TempFileProvider.createTempFile("TRX-SNAP", FILE_SUFFIX, tempDir);
+                File requisite = createRequisiteFile();
+                try
+                {
+                    Writer segmentWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(segmentFile), "UTF-8"));
+                    try
+                    {
+                        TransferManifestWriter segmentFormatter = new XMLTransferManifestWriter();
+                        segmentFormatter.startTransferManifest(segmentWriter);
+                        segmentFormatter.writeTransferManifestHeader(createManifestHeader(definition, repositoryId, fromVersion, to - from));
+                        for (int i = from; i < to; i++)
+                        {
+                            TransferManifestNode node = transferManifestNodeFactory.createTransferManifestNode(nodes.get(i), definition, 
+                                    transferContext, i >= removedFrom);
+                            segmentFormatter.writeTransferManifestNode(node);
+                            formatter.writeTransferManifestNode(node);
+                        }
+                        segmentFormatter.endTransferManifest();
+                    }
+                    finally
+                    {
+                        segmentWriter.close();
+                    }
+                    
+                    // send the segment, get the requisite for it back and queue its content
+                    eventProcessor.sendSnapshot(segment + 1, segmentCount);
+                    transmitter.sendManifestSegment(transfer, segment, segmentFile, new FileOutputStream(requisite));
+                    logger.debug("manifest segment sent :" + segment);
+                    queueContent(transfer, segmentFile, requisite, chunker, sender);
+                }
+                finally
+                {
+                    segmentFile.delete();
+                    requisite.delete();
+                }
+                
+                if (commitManifestSegments)
+                {
+                    // the previous segment is complete once the chunks queued before this segment have been sent
+                    if (segment > 0)
+                    {
+                        sender.waitForCompletion(previousChunkCount);
+                        checkCancel(transfer.getTransferId());
+                        transmitter.commitSegment(transfer, segment - 1);
+                    }
+                    previousChunkCount = sender.getChunkCount();
+                }
+            }
+            
+            sender.waitForCompletion();
+            if (commitManifestSegments)
+            {
+                checkCancel(transfer.getTransferId());
+                transmitter.commitSegment(transfer, segmentCount - 1);
+            }
+            
+            formatter.endTransferManifest();
+            sent = true;
+        }
+        finally
+        {
+            sender.cancel();
+            snapshotWriter.close();
+            if (!sent)
+            {
+                snapshotFile.delete();
+            }
+        }
+        sentContent(eventProcessor, sender);
+        
+        return snapshotFile;
+    }
+    
+    /**
+     * Sort nodes so that each node comes after its primary parent, by the depth of their primary path.
+     */
+    private void sortParentsFirst(List<NodeRef> nodes)
+    {
+        final Map<NodeRef, Integer> depths = new HashMap<NodeRef, Integer>(nodes.size() * 2);
+        for (NodeRef nodeRef : nodes)
+        {
+            depths.put(nodeRef, nodeService.exists(nodeRef) ? nodeService.getPath(nodeRef).size() : Integer.MAX_VALUE);
+        }
+        Collections.sort(nodes, new Comparator<NodeRef>()
+        {
+            public int compare(NodeRef node1, NodeRef node2)
+            {
+                return depths.get(node1).compareTo(depths.get(node2));
+            }
+        });
+    }
 
     /**
      * CancelAsync
@@ -1444,6 +1693,55 @@ public class TransferServiceImpl2 implements TransferService2
         this.namespaceService = namespaceService;
     }
 
+    /**
+     * @param contentSendExecutor the executor used to send content chunks in parallel, or null to send them one at a time
+     */
+    public void setContentSendExecutor(ExecutorService contentSendExecutor)
+    {
+        this.contentSendExecutor = contentSendExecutor;
+    }
+
+    /**
+     * @param maxContentChunksInFlight the maximum number of content chunks being sent at any one time
+     */
+    public void setMaxContentChunksInFlight(int maxContentChunksInFlight)
+    {
+        this.maxContentChunksInFlight = maxContentChunksInFlight;
+    }
+
+    /**
+     * @param contentChunkSize the target size, in bytes, of each content chunk
+     */
+    public void setContentChunkSize(long contentChunkSize)
+    {
+        this.contentChunkSize = contentChunkSize;
+    }
+
+    /**
+     * Send the manifest to the target in segments of this many nodes, along with the content of each segment,
+     * rather than writing the whole manifest before sending anything.   The target must support manifest
+     * segments, which a file system transfer receiver does not.
+     * 
+     * @param manifestSegmentSize the number of nodes in each segment, or 0 to send the manifest in one piece
+     */
+    public void setManifestSegmentSize(int manifestSegmentSize)
+    {
+        this.manifestSegmentSize = manifestSegmentSize;
+    }
+
+    /**
+     * Should the target apply each manifest segment as soon as its content has been sent, rather than applying 
+     * the whole manifest at commit?   The nodes in a segment become visible on the target sooner, but a failed 
+     * transfer leaves the segments that were applied before the failure in place.   Only used when the manifest 
+     * is sent in segments.
+     * 
+     * @param commitManifestSegments boolean
+     */
+    public void setCommitManifestSegments(boolean commitManifestSegments)
+    {
+        this.commitManifestSegments = commitManifestSegments;
+    }
+
     private class TransferStatus 
     {
         boolean cancelMe = false;
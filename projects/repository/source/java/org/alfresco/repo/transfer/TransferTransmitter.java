@@ -70,6 +70,19 @@ public interface TransferTransmitter
      */
     void sendManifest(Transfer transfer, File manifest, OutputStream results) throws TransferException;
     
+    /**
+     * Send one segment of the manifest, when the manifest is sent in segments rather than with 
+     * {@link #sendManifest(Transfer, File, OutputStream)}.
+     * 
+     * @param transfer the transfer object returned by an earlier call to begin
+     * @param segment the number of the segment, starting at 0
+     * @param manifest the manifest segment file
+     * @param results - where to write the requisite for the segment, the output stream should be 
+     * open and will be closed before the method returns.
+     * @throws TransferException
+     */
+    void sendManifestSegment(Transfer transfer, int segment, File manifest, OutputStream results) throws TransferException;
+    
     /**
      * Send the content of the specified urls
      * 
@@ -92,6 +105,16 @@ public interface TransferTransmitter
      */
     void commit(Transfer transfer) throws TransferException;
     
+    /**
+     * Ask the target to apply a manifest segment whose content has been sent, ahead of the commit
+     * of the whole transfer.
+     * 
+     * @param transfer the transfer object returned by an earlier call to begin
+     * @param segment the number of the segment, starting at 0
+     * @throws TransferException 
+     */
+    void commitSegment(Transfer transfer, int segment) throws TransferException;
+    
     /**
      * Abort the transfer
      * @param transfer the transfer object returned by an earlier call to begin 
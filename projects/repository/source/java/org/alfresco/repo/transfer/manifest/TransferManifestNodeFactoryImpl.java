@@ -34,11 +34,13 @@ import java.util.Map;
 import java.util.Set;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.transfer.ContentHashStore;
 import org.alfresco.repo.transfer.TransferContext;
 import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.dictionary.PropertyDefinition;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.Path;
@@ -50,6 +52,7 @@ import org.alfresco.service.cmr.transfer.TransferException;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.namespace.RegexQNamePattern;
+import org.alfresco.util.PropertyCheck;
 
 /**
  * Factory to build TransferManifestNodes given their repository NodeRef.
@@ -63,10 +66,15 @@ public class TransferManifestNodeFactoryImpl implements TransferManifestNodeFact
     private NodeService mlAwareNodeService;
     private PermissionService permissionService;
     private DictionaryService dictionaryService;
+    private ContentHashStore contentHashStore;
+    private boolean computeContentHashes = false;
 
     public void init()
     {
-        //NOOP
+        if (computeContentHashes)
+        {
+            PropertyCheck.mandatory(this, "contentHashStore", contentHashStore);
+        }
     }
 
     public TransferManifestNode createTransferManifestNode(NodeRef nodeRef, TransferDefinition definition, TransferContext transferContext)
@@ -160,6 +168,10 @@ public class TransferManifestNodeFactoryImpl implements TransferManifestNodeFact
             TransferManifestNormalNode node = new TransferManifestNormalNode();
             node.setNodeRef(nodeRef);
             node.setProperties(getNodeProperties(nodeRef, definition == null ? null : definition.getExcludedAspects()));
+            if (computeContentHashes)
+            {
+                node.setContentHashes(getContentHashes(node.getProperties()));
+            }
             node.setAspects(getNodeAspects(nodeRef, definition == null ? null : definition.getExcludedAspects()));
             node.setType(nodeService.getType(nodeRef));
             // For File Transfer Receiver, because FTS does not has access to the DictionaryService
@@ -325,6 +337,37 @@ public class TransferManifestNodeFactoryImpl implements TransferManifestNodeFact
         }
     }
     
+    /**
+     * Gets the hashes of the content properties, so that the destination can avoid requesting
+     * content it already holds under a different content URL.
+     * <p>
+     * Only hashes that are already known are sent, the content is not read here.   Content is hashed
+     * as it is sent to a target, so its hash is in the manifest of every later transfer.
+     *
+     * @param properties  the properties of the node
+     * @return  map of content URL to content hash
+     */
+    private Map<String, String> getContentHashes(Map<QName, Serializable> properties)
+    {
+        Map<String, String> hashes = new HashMap<String, String>(3);
+        for (Serializable value : properties.values())
+        {
+            if (value instanceof ContentData)
+            {
+                String contentUrl = ((ContentData) value).getContentUrl();
+                if (contentUrl != null && !contentUrl.isEmpty() && !hashes.containsKey(contentUrl))
+                {
+                    String hash = contentHashStore.getHash(contentUrl);
+                    if (hash != null)
+                    {
+                        hashes.put(contentUrl, hash);
+                    }
+                }
+            }
+        }
+        return hashes;
+    }
+    
     private ManifestCategory getManifestCategory(TransferContext transferContext, NodeRef categoryNodeRef)
     {
      	ManifestCategory c = transferContext.getManifestCategoriesCache().get(categoryNodeRef);
@@ -360,4 +403,18 @@ public class TransferManifestNodeFactoryImpl implements TransferManifestNodeFact
     {
         this.dictionaryService = dictionaryService;
     }
+
+    public void setContentHashStore(ContentHashStore contentHashStore)
+    {
+        this.contentHashStore = contentHashStore;
+    }
+
+    /**
+     * Should the known hash of each content property be sent in the manifest? The destination uses the hash
+     * to skip content that it already holds.
+     */
+    public void setComputeContentHashes(boolean computeContentHashes)
+    {
+        this.computeContentHashes = computeContentHashes;
+    }
 }
@@ -61,6 +61,9 @@ public class TransferManifestNormalNode implements TransferManifestNode
     
     // NodeRef is noderef of type d:category  ManifestCategory provides the extra meta-data
     private Map<NodeRef, ManifestCategory> categories;
+    
+    // content URL to hash of the content, may be null
+    private Map<String, String> contentHashes;
 
     public void setNodeRef(NodeRef nodeRef)
     {
@@ -196,6 +199,19 @@ public class TransferManifestNormalNode implements TransferManifestNode
         return ancestorType;
     }
 
+    /**
+     * @param contentHashes the hashes of the content properties of this node, keyed by content URL
+     */
+    public void setContentHashes(Map<String, String> contentHashes)
+    {
+        this.contentHashes = contentHashes;
+    }
+
+    public Map<String, String> getContentHashes()
+    {
+        return contentHashes;
+    }
+
     public void setAncestorType(QName ancestorType)
     {
         this.ancestorType = ancestorType;
@@ -322,6 +322,18 @@ public class XMLTransferManifestReader extends DefaultHandler implements Content
                 Long size = Long.valueOf(sizeStr);
                 ContentData contentHeader = new ContentData(contentURL, mimetype, size.longValue(), encoding, locale);
                 props.put("contentHeader", contentHeader);
+                
+                String contentHash = (String)atts.getValue("", "contentHash");
+                Object node = props.get("node");
+                if(contentHash != null && node instanceof TransferManifestNormalNode)
+                {
+                    TransferManifestNormalNode normalNode = (TransferManifestNormalNode)node;
+                    if(normalNode.getContentHashes() == null)
+                    {
+                        normalNode.setContentHashes(new HashMap<String, String>());
+                    }
+                    normalNode.getContentHashes().put(contentURL, contentHash);
+                }
             }
             else if(elementName.equals(ManifestModel.LOCALNAME_ELEMENT_ACL))
             {
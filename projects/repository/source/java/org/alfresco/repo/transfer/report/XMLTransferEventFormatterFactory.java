@@ -314,6 +314,11 @@ public class XMLTransferEventFormatterFactory
             TransferEventSentContent s = (TransferEventSentContent)event;
             AttributesImpl attributes = new AttributesImpl();
             attributes.addAttribute(TransferReportModel.TRANSFER_REPORT_MODEL_1_0_URI, "date", "date", "dateTime", ISO8601DateFormat.format(event.getTime()));
+            attributes.addAttribute(TransferReportModel.TRANSFER_REPORT_MODEL_1_0_URI, "parts", "parts", "string", String.valueOf(s.getParts()));
+            attributes.addAttribute(TransferReportModel.TRANSFER_REPORT_MODEL_1_0_URI, "skippedParts", "skippedParts", "string", String.valueOf(s.getSkippedParts()));
+            attributes.addAttribute(TransferReportModel.TRANSFER_REPORT_MODEL_1_0_URI, "size", "size", "string", String.valueOf(s.getSize()));
+            attributes.addAttribute(TransferReportModel.TRANSFER_REPORT_MODEL_1_0_URI, "elapsedTime", "elapsedTime", "string", String.valueOf(s.getElapsedTime()));
+            attributes.addAttribute(TransferReportModel.TRANSFER_REPORT_MODEL_1_0_URI, "bytesPerSecond", "bytesPerSecond", "string", String.valueOf(s.getBytesPerSecond()));
             return attributes;
         }
 
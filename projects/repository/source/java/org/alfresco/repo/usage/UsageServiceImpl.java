@@ -25,40 +25,113 @@
  */
 package org.alfresco.repo.usage;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
 
+import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.repo.domain.usage.UsageDAO;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport.TxnReadState;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.repo.transaction.TransactionalResourceHelper;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.usage.UsageService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * The implementation of the UsageService for tracking usages.
+ * <p>
+ * Deltas inserted within a read-write transaction are summed per usage node and only written,
+ * as a single delta per node, when the transaction commits.  The sum of the stored deltas of
+ * each usage node is held in a (cluster-aware) transactional cache so that quota checks do not
+ * need to sum the delta table.  The cache is only filled by reads: writing deltas invalidates the
+ * entry rather than adjusting it, as an entry read before the write may not include it.
  * 
  * @author janv
  * @since 2.9, 3.0
  */
 public class UsageServiceImpl implements UsageService
 {
+    private static Log logger = LogFactory.getLog(UsageServiceImpl.class);
+    
+    /** Key to the deltas not yet written in the current transaction */
+    private static final String KEY_PENDING_DELTAS = "usageService.pendingDeltas";
+    /** Key marking that the current transaction's deltas have been written */
+    private static final String KEY_DELTAS_FLUSHED = "usageService.deltasFlushed";
+    
     private UsageDAO usageDAO;
+    private SimpleCache<NodeRef, Long> usageDeltaSizeCache;
+    private boolean coalesceDeltas = true;
+    
+    private final DeltaFlushListener deltaFlushListener = new DeltaFlushListener();
     
     public void setUsageDAO(UsageDAO usageDAO)
     {
         this.usageDAO = usageDAO;
     }
     
+    /**
+     * @param usageDeltaSizeCache   cache of the total stored delta size, by usage node (optional)
+     */
+    public void setUsageDeltaSizeCache(SimpleCache<NodeRef, Long> usageDeltaSizeCache)
+    {
+        this.usageDeltaSizeCache = usageDeltaSizeCache;
+    }
+    
+    /**
+     * @param coalesceDeltas        <tt>true</tt> to write one delta per usage node per transaction
+     */
+    public void setCoalesceDeltas(boolean coalesceDeltas)
+    {
+        this.coalesceDeltas = coalesceDeltas;
+    }
+    
     public void insertDelta(NodeRef usageNodeRef, long deltaSize)
     {
-        usageDAO.insertDelta(usageNodeRef, deltaSize);
+        if (deltaSize == 0L)
+        {
+            return;
+        }
+        if (!coalesceDeltas ||
+            AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_READ_WRITE ||
+            AlfrescoTransactionSupport.getResource(KEY_DELTAS_FLUSHED) != null)
+        {
+            writeDelta(usageNodeRef, deltaSize);
+            return;
+        }
+        
+        Map<NodeRef, Long> pendingDeltas = TransactionalResourceHelper.getMap(KEY_PENDING_DELTAS);
+        Long pendingDelta = pendingDeltas.get(usageNodeRef);
+        pendingDeltas.put(usageNodeRef, (pendingDelta == null ? 0L : pendingDelta) + deltaSize);
+        AlfrescoTransactionSupport.bindListener(deltaFlushListener);
     }
     
     public long getTotalDeltaSize(NodeRef usageNodeRef)
     {
-        return usageDAO.getTotalDeltaSize(usageNodeRef, false);
+        Long storedDeltaSize = (usageDeltaSizeCache == null ? null : usageDeltaSizeCache.get(usageNodeRef));
+        if (storedDeltaSize == null)
+        {
+            storedDeltaSize = usageDAO.getTotalDeltaSize(usageNodeRef, false);
+            if (usageDeltaSizeCache != null)
+            {
+                usageDeltaSizeCache.put(usageNodeRef, storedDeltaSize);
+            }
+        }
+        return storedDeltaSize + getPendingDelta(usageNodeRef, false);
     }
     
     public long getAndRemoveTotalDeltaSize(NodeRef usageNodeRef)
     {
-        return usageDAO.getTotalDeltaSize(usageNodeRef, true);
+        long pendingDelta = getPendingDelta(usageNodeRef, true);
+        if (pendingDelta != 0L)
+        {
+            writeDelta(usageNodeRef, pendingDelta);
+        }
+        long totalDeltaSize = usageDAO.getTotalDeltaSize(usageNodeRef, true);
+        invalidateCachedDeltaSize(usageNodeRef);
+        return totalDeltaSize;
     }
 
     public Set<NodeRef> getUsageDeltaNodes()
@@ -68,6 +141,81 @@ public class UsageServiceImpl implements UsageService
     
     public int deleteDeltas(NodeRef usageNodeRef)
     {
-        return usageDAO.deleteDeltas(usageNodeRef);
+        getPendingDelta(usageNodeRef, true);
+        int deleted = usageDAO.deleteDeltas(usageNodeRef);
+        invalidateCachedDeltaSize(usageNodeRef);
+        return deleted;
+    }
+    
+    /**
+     * Get the delta of a usage node that has not been written yet in the current transaction
+     * 
+     * @param remove        <tt>true</tt> to also drop the pending delta
+     */
+    private long getPendingDelta(NodeRef usageNodeRef, boolean remove)
+    {
+        if (AlfrescoTransactionSupport.getTransactionReadState() != TxnReadState.TXN_READ_WRITE)
+        {
+            return 0L;
+        }
+        Map<NodeRef, Long> pendingDeltas = TransactionalResourceHelper.getMap(KEY_PENDING_DELTAS);
+        Long pendingDelta = (remove ? pendingDeltas.remove(usageNodeRef) : pendingDeltas.get(usageNodeRef));
+        return (pendingDelta == null ? 0L : pendingDelta);
+    }
+    
+    private void writeDelta(NodeRef usageNodeRef, long deltaSize)
+    {
+        usageDAO.insertDelta(usageNodeRef, deltaSize);
+        invalidateCachedDeltaSize(usageNodeRef);
+    }
+    
+    /**
+     * Drop the cached total of a usage node once its deltas have changed; the next read sums them again
+     */
+    private void invalidateCachedDeltaSize(NodeRef usageNodeRef)
+    {
+        if (usageDeltaSizeCache != null)
+        {
+            usageDeltaSizeCache.remove(usageNodeRef);
+        }
+    }
+    
+    /**
+     * Writes the summed deltas of the transaction, one per usage node.
+     */
+    private class DeltaFlushListener extends TransactionListenerAdapter
+    {
+        @Override
+        public void beforeCommit(boolean readOnly)
+        {
+            Map<NodeRef, Long> pendingDeltas = TransactionalResourceHelper.getMap(KEY_PENDING_DELTAS);
+            // Any deltas arriving after this point are written directly
+            AlfrescoTransactionSupport.bindResource(KEY_DELTAS_FLUSHED, Boolean.TRUE);
+            
+            Map<NodeRef, Long> deltas = new HashMap<NodeRef, Long>(pendingDeltas.size() * 2);
+            for (Map.Entry<NodeRef, Long> delta : pendingDeltas.entrySet())
+            {
+                // Changes that cancelled out need no row
+                if (delta.getValue() != 0L)
+                {
+                    deltas.put(delta.getKey(), delta.getValue());
+                }
+            }
+            pendingDeltas.clear();
+            if (deltas.isEmpty())
+            {
+                return;
+            }
+            Map<NodeRef, Long> written = usageDAO.insertDeltas(deltas);
+            for (NodeRef usageNodeRef : written.keySet())
+            {
+                invalidateCachedDeltaSize(usageNodeRef);
+            }
+            
+            if (logger.isDebugEnabled())
+            {
+                logger.debug("Wrote " + written.size() + " usage deltas for the transaction");
+            }
+        }
     }
 }
@@ -25,6 +25,7 @@
  */
 package org.alfresco.service.cmr.download;
 
+import java.io.OutputStream;
 import java.util.Date;
 
 import org.alfresco.service.cmr.repository.NodeRef;
@@ -73,4 +74,16 @@ public interface DownloadService
      * @param downloadNodeRef NodeRef of the download to cancel
      */
     public void cancelDownload(NodeRef downloadNodeRef);
+
+    /**
+     * Write a zip archive containing the content from the given nodeRefs straight to
+     * the given stream, as the nodes are visited.  Nothing is stored in the repository
+     * and the caller gets the first bytes without waiting for the whole archive.
+     * 
+     * The maximum content size is checked before anything is written.
+     * 
+     * @param nodeRefs NodeRefs of content to be added to the archive
+     * @param outputStream the stream to write the archive to, which is not closed
+     */
+    public void streamDownload(NodeRef[] nodeRefs, OutputStream outputStream);
 }
@@ -29,8 +29,79 @@ import org.alfresco.repo.transfer.TransferEventImpl;
 
 /**
  * Event for sent content.
+ * <p>
+ * Raised once all the content required by the destination has been sent and carries the
+ * throughput of the content phase of the transfer.
  */
 public class TransferEventSentContent extends TransferEventImpl implements TransferEvent
 {
+    private long parts;
+    private long skippedParts;
+    private long size;
+    private long elapsedTime;
 
+    public String toString()
+    {
+        return "TransferEventSentContent: " + parts + " parts, " + size + " bytes in " + elapsedTime + "ms";
+    }
+
+    /**
+     * @param parts the number of content items sent to the destination
+     */
+    public void setParts(long parts)
+    {
+        this.parts = parts;
+    }
+
+    public long getParts()
+    {
+        return parts;
+    }
+
+    /**
+     * @param skippedParts the number of content items not sent because the destination already has them
+     */
+    public void setSkippedParts(long skippedParts)
+    {
+        this.skippedParts = skippedParts;
+    }
+
+    public long getSkippedParts()
+    {
+        return skippedParts;
+    }
+
+    /**
+     * @param size the total number of content bytes sent
+     */
+    public void setSize(long size)
+    {
+        this.size = size;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @param elapsedTime the time, in milliseconds, taken to send the content
+     */
+    public void setElapsedTime(long elapsedTime)
+    {
+        this.elapsedTime = elapsedTime;
+    }
+
+    public long getElapsedTime()
+    {
+        return elapsedTime;
+    }
+
+    /**
+     * @return the content throughput in bytes per second
+     */
+    public long getBytesPerSecond()
+    {
+        return elapsedTime > 0 ? (size * 1000L) / elapsedTime : size;
+    }
 }
@@ -81,6 +81,18 @@ public interface TransferReceiver
      */
     void saveSnapshot(String transferId, InputStream snapshotStream) throws TransferException;
 
+    /**
+     * Store one segment of a snapshot that is sent in segments, rather than with {@link #saveSnapshot(String, InputStream)}.
+     * The segments are committed in the order of their numbers.
+     * The specified transfer must currently be the holder of the transfer lock, otherwise an exception is thrown.
+     * This operation does not close the supplied stream.
+     * @param transferId The identifier of the transfer with which this snapshot segment is associated
+     * @param segment The number of the segment, starting at 0
+     * @param snapshotStream The open stream that holds the snapshot segment.
+     * @throws TransferException If an error occurs while saving the snapshot segment.
+     */
+    void saveSnapshotSegment(String transferId, int segment, InputStream snapshotStream) throws TransferException;
+
     /**
      * Save a content item
      * @param transferId String
@@ -97,6 +109,15 @@ public interface TransferReceiver
      */
     void generateRequsite(String transferId, OutputStream requsiteStream) throws TransferException;
 
+    /**
+     * Write the requsite for one segment of the snapshot to the output stream.
+     * @param transferId String
+     * @param segment The number of the segment, starting at 0
+     * @param requsiteStream an open stream to receive the requisite
+     * @throws TransferException
+     */
+    void generateSegmentRequsite(String transferId, int segment, OutputStream requsiteStream) throws TransferException;
+
     /**
      * Prepare
      * @param transferId String
@@ -125,6 +146,17 @@ public interface TransferReceiver
      */
     void commit(String transferId) throws TransferException;
 
+    /**
+     * Apply the nodes of one snapshot segment, whose content has been saved, ahead of the commit of the
+     * whole transfer.   The segment is applied in its own transaction, so it stays in place if the transfer
+     * later fails.   The commit of the transfer then applies the remaining segments and the associations
+     * of all the segments.
+     * @param transferId String
+     * @param segment The number of the segment, starting at 0
+     * @throws TransferException
+     */
+    void commitSegment(String transferId, int segment) throws TransferException;
+
     /**
      *
      * @param transferId String
@@ -53,6 +53,7 @@ public class AllUnitTestsSuite extends TestSuite
         suite.addTest(new JUnit4TestAdapter(org.alfresco.filesys.config.ServerConfigurationBeanTest.class));
         suite.addTestSuite(org.alfresco.filesys.repo.CIFSContentComparatorTest.class);
         suite.addTestSuite(org.alfresco.filesys.repo.rules.ShuffleTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.opencmis.CMISTransactionChangeLogTest.class));
         suite.addTestSuite(org.alfresco.repo.admin.Log4JHierarchyInitTest.class);
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.attributes.PropTablesCleanupJobTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.cache.DefaultCacheFactoryTest.class));
@@ -60,6 +61,7 @@ public class AllUnitTestsSuite extends TestSuite
         suite.addTestSuite(org.alfresco.repo.cache.lookup.EntityLookupCacheTest.class);
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.calendar.CalendarHelpersTest.class));
         suite.addTestSuite(org.alfresco.repo.dictionary.RepoDictionaryDAOTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.download.ZipDownloadExporterTest.class));
         suite.addTestSuite(org.alfresco.repo.forms.processor.node.FieldProcessorTest.class);
         suite.addTestSuite(org.alfresco.repo.forms.processor.workflow.TaskFormProcessorTest.class);
         suite.addTestSuite(org.alfresco.repo.forms.processor.workflow.WorkflowFormProcessorTest.class);
@@ -79,11 +81,16 @@ public class AllUnitTestsSuite extends TestSuite
         suite.addTestSuite(org.alfresco.repo.replication.ReplicationServiceImplTest.class);
         suite.addTestSuite(org.alfresco.repo.service.StoreRedirectorProxyFactoryTest.class);
         suite.addTestSuite(org.alfresco.repo.site.RoleComparatorImplTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.tagging.TagCountStoreTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.tenant.MultiTAdminServiceImplTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.thumbnail.ThumbnailServiceImplParameterTest.class));
         suite.addTestSuite(org.alfresco.repo.transfer.ContentChunkerImplTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.transfer.ContentSenderTest.class));
         suite.addTestSuite(org.alfresco.repo.transfer.HttpClientTransmitterImplTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.transfer.RepoRequisiteManifestProcessorImplTest.class));
         suite.addTestSuite(org.alfresco.repo.transfer.manifest.TransferManifestTest.class);
         suite.addTestSuite(org.alfresco.repo.urlshortening.BitlyUrlShortenerTest.class);
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.usage.UsageServiceImplTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.service.cmr.calendar.CalendarRecurrenceHelperTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.service.cmr.calendar.CalendarTimezoneHelperTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.service.cmr.repository.TemporalSourceOptionsTest.class));
@@ -127,6 +134,11 @@ public class AllUnitTestsSuite extends TestSuite
         suite.addTest(new JUnit4TestAdapter(org.alfresco.util.BeanExtenderUnitTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SpellCheckDecisionManagerTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SolrStoreMappingWrapperTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SolrInstanceRouterTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SolrJSONStreamingResponseTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SolrQueryResultCacheTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.search.impl.solr.SolrResponseMergerTest.class));
+        suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.content.dedup.DeduplicatingContentStoreTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.security.authentication.CompositePasswordEncoderTest.class));
         suite.addTest(new JUnit4TestAdapter(org.alfresco.repo.security.authentication.PasswordHashingTest.class));
         suite.addTest(org.alfresco.traitextender.TraitExtenderUnitTestSuite.suite());
@@ -49,6 +49,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.model.RenditionModel;
 import org.alfresco.opencmis.dictionary.CMISDictionaryService;
 import org.alfresco.opencmis.dictionary.PropertyDefinitionWrapper;
 import org.alfresco.opencmis.dictionary.TypeDefinitionWrapper;
@@ -86,6 +87,7 @@ import org.alfresco.service.cmr.lock.LockService;
 import org.alfresco.service.cmr.lock.LockType;
 import org.alfresco.service.cmr.model.FileFolderService;
 import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.rendition.RenditionService;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.ContentService;
 import org.alfresco.service.cmr.repository.ContentWriter;
@@ -202,6 +204,7 @@ public class CMISTest
     private CMISConnector cmisConnector;
     
     private NodeDAO nodeDAO;
+    private RenditionService renditionService;
     
     /**
      * Test class to provide the service factory
@@ -360,6 +363,7 @@ public class CMISTest
         this.versionService = (VersionService) ctx.getBean("versionService");
     	this.cmisConnector = (CMISConnector) ctx.getBean("CMISConnector");
         this.nodeDAO = (NodeDAO) ctx.getBean("nodeDAO");
+        this.renditionService = (RenditionService) ctx.getBean("RenditionService");
         this.authorityService = (AuthorityService)ctx.getBean("AuthorityService");
         this.auditSubsystem = (AuditModelRegistryImpl) ctx.getBean("Audit");
         this.permissionService = (PermissionService) ctx.getBean("permissionService");
@@ -3579,4 +3583,145 @@ public class CMISTest
             AuthenticationUtil.popAuthentication();
         }
     }
+
+    /**
+     * Test that the renditions of a page of nodes are pre-loaded only for the nodes that have renditions.
+     */
+    @Test
+    public void testPreloadRenditions()
+    {
+        AuthenticationUtil.pushAuthentication();
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+
+        try
+        {
+            transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                @Override
+                public Void execute() throws Throwable
+                {
+                    NodeRef companyHomeNodeRef = repositoryHelper.getCompanyHome();
+                    NodeRef folderNodeRef = fileFolderService.create(companyHomeNodeRef, GUID.generate(), ContentModel.TYPE_FOLDER).getNodeRef();
+                    NodeRef plainNodeRef = fileFolderService.create(folderNodeRef, GUID.generate(), ContentModel.TYPE_CONTENT).getNodeRef();
+                    NodeRef renditionedNodeRef = fileFolderService.create(folderNodeRef, GUID.generate(), ContentModel.TYPE_CONTENT).getNodeRef();
+                    nodeService.addAspect(renditionedNodeRef, RenditionModel.ASPECT_RENDITIONED, null);
+                    NodeRef renditionNodeRef = nodeService.createNode(renditionedNodeRef, RenditionModel.ASSOC_RENDITION,
+                            QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "doclib"), ContentModel.TYPE_CONTENT).getChildRef();
+
+                    List<NodeRef> nodeRefs = Arrays.asList(plainNodeRef, renditionedNodeRef);
+                    nodeDAO.cacheNodes(nodeRefs);
+                    CMISRenditionMapping mapping = new CMISRenditionMapping(nodeService, contentService, renditionService,
+                            transactionService, permissionService, new HashMap<String, List<String>>());
+                    assertEquals(Collections.singletonList(renditionNodeRef), mapping.preloadRenditions(nodeRefs, nodeDAO));
+                    assertEquals(renditionNodeRef, renditionService.getRenditions(renditionedNodeRef).get(0).getChildRef());
+
+                    // nodes that have been pre-loaded already are not looked up again
+                    assertTrue(mapping.preloadRenditions(nodeRefs, nodeDAO).isEmpty());
+                    return null;
+                }
+            });
+        }
+        finally
+        {
+            AuthenticationUtil.popAuthentication();
+        }
+    }
+
+    /**
+     * Test that renditions the user cannot read are not pre-loaded.
+     */
+    @Test
+    public void testPreloadRenditionsChecksPermissions()
+    {
+        AuthenticationUtil.pushAuthentication();
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        final String userName = "cmisRenditionUser" + GUID.generate();
+
+        try
+        {
+            transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                @Override
+                public Void execute() throws Throwable
+                {
+                    NodeRef companyHomeNodeRef = repositoryHelper.getCompanyHome();
+                    NodeRef folderNodeRef = fileFolderService.create(companyHomeNodeRef, GUID.generate(), ContentModel.TYPE_FOLDER).getNodeRef();
+                    NodeRef renditionedNodeRef = fileFolderService.create(folderNodeRef, GUID.generate(), ContentModel.TYPE_CONTENT).getNodeRef();
+                    nodeService.addAspect(renditionedNodeRef, RenditionModel.ASPECT_RENDITIONED, null);
+                    NodeRef readableNodeRef = nodeService.createNode(renditionedNodeRef, RenditionModel.ASSOC_RENDITION,
+                            QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "doclib"), ContentModel.TYPE_CONTENT).getChildRef();
+                    NodeRef unreadableNodeRef = nodeService.createNode(renditionedNodeRef, RenditionModel.ASSOC_RENDITION,
+                            QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "imgpreview"), ContentModel.TYPE_CONTENT).getChildRef();
+                    permissionService.setInheritParentPermissions(unreadableNodeRef, false);
+
+                    final List<NodeRef> nodeRefs = Collections.singletonList(renditionedNodeRef);
+                    nodeDAO.cacheNodes(nodeRefs);
+                    final CMISRenditionMapping mapping = new CMISRenditionMapping(nodeService, contentService, renditionService,
+                            transactionService, permissionService, new HashMap<String, List<String>>());
+                    List<NodeRef> renditionNodeRefs = AuthenticationUtil.runAs(new RunAsWork<List<NodeRef>>()
+                    {
+                        @Override
+                        public List<NodeRef> doWork() throws Exception
+                        {
+                            return mapping.preloadRenditions(nodeRefs, nodeDAO);
+                        }
+                    }, userName);
+                    assertEquals(Collections.singletonList(readableNodeRef), renditionNodeRefs);
+                    return null;
+                }
+            });
+        }
+        finally
+        {
+            AuthenticationUtil.popAuthentication();
+        }
+    }
+
+    /**
+     * Test that the allowable actions of an object follow a change to its ACL made later in the same transaction.
+     */
+    @Test
+    public void testAllowableActionsAfterAclChange()
+    {
+        AuthenticationUtil.pushAuthentication();
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        final String userName = "cmisAclUser" + GUID.generate();
+
+        try
+        {
+            transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+            {
+                @Override
+                public Void execute() throws Throwable
+                {
+                    NodeRef companyHomeNodeRef = repositoryHelper.getCompanyHome();
+                    NodeRef folderNodeRef = fileFolderService.create(companyHomeNodeRef, GUID.generate(), ContentModel.TYPE_FOLDER).getNodeRef();
+                    NodeRef documentNodeRef = fileFolderService.create(folderNodeRef, GUID.generate(), ContentModel.TYPE_CONTENT).getNodeRef();
+                    final CMISNodeInfoImpl info = cmisConnector.createNodeInfo(documentNodeRef);
+                    RunAsWork<Set<Action>> getAllowableActions = new RunAsWork<Set<Action>>()
+                    {
+                        @Override
+                        public Set<Action> doWork() throws Exception
+                        {
+                            return cmisConnector.getAllowableActions(info).getAllowableActions();
+                        }
+                    };
+
+                    Set<Action> allowableActions = AuthenticationUtil.runAs(getAllowableActions, userName);
+                    assertTrue(allowableActions.contains(Action.CAN_GET_PROPERTIES));
+                    assertFalse(allowableActions.contains(Action.CAN_UPDATE_PROPERTIES));
+
+                    permissionService.setPermission(documentNodeRef, userName, PermissionService.COORDINATOR, true);
+
+                    allowableActions = AuthenticationUtil.runAs(getAllowableActions, userName);
+                    assertTrue(allowableActions.contains(Action.CAN_UPDATE_PROPERTIES));
+                    return null;
+                }
+            });
+        }
+        finally
+        {
+            AuthenticationUtil.popAuthentication();
+        }
+    }
 }
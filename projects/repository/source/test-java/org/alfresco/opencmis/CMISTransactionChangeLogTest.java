@@ -0,0 +1,284 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.opencmis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.alfresco.opencmis.CMISTransactionChangeLog.ChangeCallback;
+import org.alfresco.opencmis.CMISTransactionChangeLog.ChangeLogToken;
+import org.alfresco.repo.domain.node.Node;
+import org.alfresco.repo.domain.node.NodeDAO;
+import org.alfresco.repo.domain.node.TransactionEntity;
+import org.alfresco.repo.domain.qname.QNameDAO;
+import org.alfresco.repo.domain.solr.SOLRDAO;
+import org.alfresco.repo.solr.NodeParameters;
+import org.alfresco.repo.solr.Transaction;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.QName;
+import org.apache.chemistry.opencmis.commons.exceptions.CmisInvalidArgumentException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the change log tokens handed out by {@link CMISTransactionChangeLog} and the paging through transactions.
+ */
+public class CMISTransactionChangeLogTest
+{
+    /**
+     * Transactions as (id, commit time), where ids are not in commit order and several transactions share a
+     * commit time. Each transaction changes the node with ten times its id.
+     */
+    private static final long[][] TXNS = new long[][]
+    {
+        {10L, 100L},
+        {23L, 200L}, {20L, 200L}, {22L, 200L}, {21L, 200L}, {24L, 200L},
+        {5L, 300L},
+        {30L, 400L}, {4L, 400L}
+    };
+
+    /** The nodes in (commit time, transaction id) order */
+    private static final List<Long> NODE_IDS = Arrays.asList(100L, 200L, 210L, 220L, 230L, 240L, 50L, 40L, 300L);
+
+    private List<TransactionEntity> txns;
+    private NodeDAO nodeDAO;
+    private CMISTransactionChangeLog changeLog;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        txns = new ArrayList<TransactionEntity>();
+        for (long[] txn : TXNS)
+        {
+            TransactionEntity entity = new TransactionEntity();
+            entity.setId(txn[0]);
+            entity.setCommitTimeMs(txn[1]);
+            txns.add(entity);
+        }
+        Collections.sort(txns, new Comparator<TransactionEntity>()
+        {
+            @Override
+            public int compare(TransactionEntity t1, TransactionEntity t2)
+            {
+                int result = t1.getCommitTimeMs().compareTo(t2.getCommitTimeMs());
+                return result == 0 ? t1.getId().compareTo(t2.getId()) : result;
+            }
+        });
+
+        SOLRDAO solrDAO = mock(SOLRDAO.class);
+        when(solrDAO.getTransactions(any(Long.class), any(Long.class), any(Long.class), any(Long.class), anyInt())).thenAnswer(new Answer<List<Transaction>>()
+        {
+            @Override
+            public List<Transaction> answer(InvocationOnMock invocation) throws Throwable
+            {
+                Object[] args = invocation.getArguments();
+                return getTransactions((Long) args[0], (Long) args[1], (Long) args[3], (Integer) args[4]);
+            }
+        });
+        when(solrDAO.getNodes(any(NodeParameters.class))).thenAnswer(new Answer<List<Node>>()
+        {
+            @Override
+            public List<Node> answer(InvocationOnMock invocation) throws Throwable
+            {
+                return getNodes(((NodeParameters) invocation.getArguments()[0]).getTransactionIds());
+            }
+        });
+        nodeDAO = mock(NodeDAO.class);
+
+        changeLog = new CMISTransactionChangeLog();
+        changeLog.setSolrDAO(solrDAO);
+        changeLog.setNodeDAO(nodeDAO);
+        changeLog.setQnameDAO(mock(QNameDAO.class));
+        changeLog.setCommitTimeLagMs(0L);
+        changeLog.setTransactionBatchSize(2);
+        changeLog.afterPropertiesSet();
+    }
+
+    @Test
+    public void testAllChangesReadInCommitOrder()
+    {
+        List<Long> nodeIds = new ArrayList<Long>();
+        assertNull(changeLog.getChanges(null, null, 100, collect(nodeIds)));
+        assertEquals(NODE_IDS, nodeIds);
+    }
+
+    @Test
+    public void testPagingWithTokens()
+    {
+        for (int pageSize = 1; pageSize <= NODE_IDS.size(); pageSize++)
+        {
+            List<Long> nodeIds = new ArrayList<Long>();
+            String token = null;
+            int pages = 0;
+            do
+            {
+                List<Long> page = new ArrayList<Long>();
+                token = changeLog.getChanges(token, null, pageSize, collect(page));
+                assertTrue("Page too big: " + page, page.size() <= pageSize);
+                nodeIds.addAll(page);
+                pages++;
+            }
+            while (token != null && pages <= NODE_IDS.size());
+            assertEquals("Page size " + pageSize, NODE_IDS, nodeIds);
+        }
+    }
+
+    @Test
+    public void testLatestTokenIsLastCommit()
+    {
+        when(nodeDAO.getMaxTxnCommitTime()).thenReturn(400L);
+        when(nodeDAO.getMaxTxnId()).thenReturn(30L);
+
+        String token = changeLog.getLatestChangeLogToken();
+        assertEquals(new ChangeLogToken(400L, 30L, 0L).toString(), token);
+        List<Long> nodeIds = new ArrayList<Long>();
+        changeLog.getChanges(token, null, 100, collect(nodeIds));
+        assertEquals(Arrays.asList(300L), nodeIds);
+    }
+
+    @Test
+    public void testLatestTokenStaysBehindTheCommitTimeLag()
+    {
+        long lag = 60000L;
+        changeLog.setCommitTimeLagMs(lag);
+        long before = System.currentTimeMillis();
+        when(nodeDAO.getMaxTxnCommitTime()).thenReturn(before);
+
+        ChangeLogToken token = ChangeLogToken.parse(changeLog.getLatestChangeLogToken());
+        // A transaction that commits within the lag, before the latest commit, is still ahead of the token
+        assertFalse(token.isAfter(before - lag + 10L, 1L, 0L));
+        assertTrue(token.isAfter(before - lag - 10L, 1L, 0L));
+    }
+
+    private List<Transaction> getTransactions(Long minTxnId, Long fromCommitTime, Long toCommitTime, int maxResults)
+    {
+        List<Transaction> results = new ArrayList<Transaction>();
+        for (TransactionEntity txn : txns)
+        {
+            if ((minTxnId == null || txn.getId() >= minTxnId)
+                    && (fromCommitTime == null || txn.getCommitTimeMs() >= fromCommitTime)
+                    && (toCommitTime == null || txn.getCommitTimeMs() < toCommitTime))
+            {
+                results.add(txn);
+                if (results.size() == maxResults)
+                {
+                    break;
+                }
+            }
+        }
+        return results;
+    }
+
+    private List<Node> getNodes(List<Long> txnIds)
+    {
+        List<Node> nodes = new ArrayList<Node>();
+        // In node id order, as they come from the database
+        List<Long> sortedTxnIds = new ArrayList<Long>(txnIds);
+        Collections.sort(sortedTxnIds);
+        for (Long txnId : sortedTxnIds)
+        {
+            TransactionEntity txn = new TransactionEntity();
+            txn.setId(txnId);
+            Node node = mock(Node.class);
+            when(node.getId()).thenReturn(txnId * 10L);
+            when(node.getTransaction()).thenReturn(txn);
+            when(node.getNodeRef()).thenReturn(new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node-" + txnId * 10L));
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static ChangeCallback collect(final List<Long> nodeIds)
+    {
+        return new ChangeCallback()
+        {
+            @Override
+            public boolean handleChange(NodeRef nodeRef, QName typeQName, boolean deleted, long commitTimeMs)
+            {
+                nodeIds.add(Long.valueOf(nodeRef.getId().substring("node-".length())));
+                return true;
+            }
+        };
+    }
+
+    @Test
+    public void testEmptyTokenStartsAtTheBeginning()
+    {
+        for (String token : new String[] {null, "", "0"})
+        {
+            ChangeLogToken parsed = ChangeLogToken.parse(token);
+            assertEquals("0", parsed.toString());
+            assertFalse(parsed.isAfter(0L, 0L, 0L));
+        }
+    }
+
+    @Test
+    public void testTokenRoundTrip()
+    {
+        ChangeLogToken token = new ChangeLogToken(1466000000000L, 1234L, 5678L);
+        ChangeLogToken parsed = ChangeLogToken.parse(token.toString());
+        assertEquals(token.toString(), parsed.toString());
+    }
+
+    @Test
+    public void testTokenOrdering()
+    {
+        ChangeLogToken token = new ChangeLogToken(2000L, 20L, 200L);
+        assertTrue(token.isAfter(1000L, 30L, 300L));
+        assertTrue(token.isAfter(2000L, 10L, 300L));
+        assertTrue(token.isAfter(2000L, 20L, 100L));
+        assertFalse(token.isAfter(2000L, 20L, 200L));
+        assertFalse(token.isAfter(2000L, 30L, 0L));
+        assertFalse(token.isAfter(3000L, 0L, 0L));
+    }
+
+    @Test(expected = CmisInvalidArgumentException.class)
+    public void testMalformedToken()
+    {
+        ChangeLogToken.parse("abc");
+    }
+
+    @Test(expected = CmisInvalidArgumentException.class)
+    public void testNonNumericToken()
+    {
+        ChangeLogToken.parse("1.x!.3");
+    }
+}
@@ -30,6 +30,7 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 
 import org.alfresco.repo.content.cleanup.ContentStoreCleanerTest;
+import org.alfresco.repo.content.compression.CompressingContentStoreTest;
 import org.alfresco.repo.content.filestore.FileContentStoreTest;
 import org.alfresco.repo.content.filestore.NoRandomAccessFileContentStoreTest;
 import org.alfresco.repo.content.filestore.ReadOnlyFileContentStoreTest;
@@ -65,6 +66,7 @@ public class ContentFullContextTestSuite extends TestSuite
         //suite.addTestSuite(MimetypeMapTest.class);
         suite.addTestSuite(RoutingContentServiceTest.class);
         suite.addTest(new JUnit4TestAdapter(RoutingContentStoreTest.class));
+        suite.addTest(new JUnit4TestAdapter(CompressingContentStoreTest.class));
         suite.addTestSuite(GuessMimetypeTest.class);
         
         try
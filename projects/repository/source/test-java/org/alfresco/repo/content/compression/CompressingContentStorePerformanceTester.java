@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.compression;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.content.filestore.FileContentStore;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.GUID;
+import org.alfresco.util.TempFileProvider;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Measures the read and write throughput of the {@link CompressingContentStore} against the file-based store it wraps,
+ * for text that is compressed and for binary content that is passed through.
+ * <p>
+ * Note that this test is not designed to validate performance figures, but is rather a handy tool for doing
+ * benchmarking. It is therefore not named <i>*Test</i> as is the pattern for getting tests run by the continuous build.
+ * 
+ * @since 5.2
+ */
+public class CompressingContentStorePerformanceTester extends TestCase
+{
+    private static final int CONTENT_SIZE = 4 * 1024 * 1024;
+    private static final int WARM_UP_COUNT = 5;
+    private static final int RUN_COUNT = 20;
+
+    private FileContentStore fileStore;
+    private CompressingContentStore compressingStore;
+    private byte[] text;
+    private byte[] binary;
+
+    @Override
+    public void setUp() throws Exception
+    {
+        File root = new File(TempFileProvider.getTempDir(), "CompressingContentStorePerformanceTester-" + GUID.generate());
+        fileStore = new FileContentStore(mock(ApplicationContext.class), root);
+        compressingStore = new CompressingContentStore();
+        compressingStore.setBackingStore(fileStore);
+        compressingStore.setMimetypes(new HashSet<String>(Arrays.asList("text/*")));
+        compressingStore.init();
+
+        StringBuilder sb = new StringBuilder(CONTENT_SIZE);
+        Random random = new Random(42L);
+        while (sb.length() < CONTENT_SIZE)
+        {
+            sb.append("<entry id=\"").append(random.nextInt(100000)).append("\" modified=\"")
+              .append(System.currentTimeMillis() - random.nextInt(1000000)).append("\">")
+              .append(GUID.generate()).append("</entry>\n");
+        }
+        text = sb.toString().getBytes("UTF-8");
+        binary = new byte[CONTENT_SIZE];
+        random.nextBytes(binary);
+    }
+
+    public void testTextWithoutCompression() throws Exception
+    {
+        run("Text, file store", fileStore, MimetypeMap.MIMETYPE_XML, text);
+    }
+
+    public void testTextWithCompression() throws Exception
+    {
+        run("Text, compressing store", compressingStore, MimetypeMap.MIMETYPE_XML, text);
+    }
+
+    public void testBinaryWithoutCompression() throws Exception
+    {
+        run("Binary, file store", fileStore, MimetypeMap.MIMETYPE_BINARY, binary);
+    }
+
+    public void testBinaryPassedThrough() throws Exception
+    {
+        run("Binary, compressing store", compressingStore, MimetypeMap.MIMETYPE_BINARY, binary);
+    }
+
+    private void run(String name, ContentStore store, String mimetype, byte[] content) throws Exception
+    {
+        for (int i = 0; i < WARM_UP_COUNT; i++)
+        {
+            store.delete(write(store, mimetype, content));
+        }
+        long writeNanos = 0L;
+        long readNanos = 0L;
+        long stored = 0L;
+        byte[] buffer = new byte[8192];
+        for (int i = 0; i < RUN_COUNT; i++)
+        {
+            long start = System.nanoTime();
+            String contentUrl = write(store, mimetype, content);
+            writeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            ContentReader reader = store.getReader(contentUrl);
+            assertEquals(content.length, reader.getSize());
+            InputStream is = reader.getContentInputStream();
+            try
+            {
+                while (is.read(buffer) >= 0)
+                {
+                    // Just read it
+                }
+            }
+            finally
+            {
+                is.close();
+            }
+            readNanos += System.nanoTime() - start;
+
+            stored += fileStore.exists(contentUrl) ? fileStore.getReader(contentUrl).getSize() :
+                    fileStore.getReader(contentUrl + CompressingContentStore.COMPRESSED_URL_SUFFIX).getSize();
+            store.delete(contentUrl);
+        }
+        double megabytes = (double) content.length * RUN_COUNT / (1024 * 1024);
+        System.out.println("\n" +
+                name + ": \n" +
+                "   Write:  " + String.format("%.1f", megabytes * 1E9 / writeNanos) + " MB/s\n" +
+                "   Read:   " + String.format("%.1f", megabytes * 1E9 / readNanos) + " MB/s\n" +
+                "   Stored: " + String.format("%.1f", 100.0 * stored / ((long) content.length * RUN_COUNT)) + "%");
+    }
+
+    private String write(ContentStore store, String mimetype, byte[] content)
+    {
+        ContentWriter writer = store.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+        writer.setMimetype(mimetype);
+        writer.putContent(new ByteArrayInputStream(content));
+        return writer.getContentUrl();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.compression;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.alfresco.repo.content.AbstractWritableContentStoreTest;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.repo.content.filestore.FileContentStore;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.test_category.OwnJVMTestsCategory;
+import org.alfresco.util.TempFileProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the compressing store, wrapped around a file-based store, for text and other content.
+ * 
+ * @see CompressingContentStore
+ * @since 5.2
+ */
+@Category(OwnJVMTestsCategory.class)
+public class CompressingContentStoreTest extends AbstractWritableContentStoreTest
+{
+    private static final String SUFFIX = CompressingContentStore.COMPRESSED_URL_SUFFIX;
+
+    private FileContentStore backingStore;
+    private CompressingContentStore store;
+
+    @Before
+    public void before() throws Exception
+    {
+        File tempDir = TempFileProvider.getTempDir();
+        backingStore = new FileContentStore(ctx,
+                tempDir.getAbsolutePath() +
+                File.separatorChar +
+                getName());
+        store = new CompressingContentStore();
+        store.setBackingStore(backingStore);
+        store.setMimetypes(new HashSet<String>(Arrays.asList("text/*", MimetypeMap.MIMETYPE_JSON)));
+        store.init();
+    }
+
+    @Override
+    protected ContentStore getStore()
+    {
+        return store;
+    }
+
+    @Test
+    public void testMimetypesCompressed()
+    {
+        assertTrue(store.isCompressed(MimetypeMap.MIMETYPE_TEXT_PLAIN));
+        assertTrue(store.isCompressed(MimetypeMap.MIMETYPE_XML));
+        assertTrue(store.isCompressed(MimetypeMap.MIMETYPE_JSON));
+        assertFalse(store.isCompressed(MimetypeMap.MIMETYPE_IMAGE_PNG));
+        assertFalse(store.isCompressed(null));
+    }
+
+    @Test
+    public void testTextIsCompressed() throws Exception
+    {
+        String content = makeText(1000);
+        ContentWriter writer = getWriter();
+        writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
+        writer.setEncoding("UTF-8");
+        writer.putContent(content);
+        String contentUrl = writer.getContentUrl();
+        long length = content.getBytes("UTF-8").length;
+
+        assertEquals(length, writer.getSize());
+        assertFalse("Content should not be held uncompressed", backingStore.exists(contentUrl));
+        assertTrue("Compressed content not found", backingStore.exists(contentUrl + SUFFIX));
+        assertTrue("Content was not compressed", backingStore.getReader(contentUrl + SUFFIX).getSize() < length / 4);
+
+        ContentReader reader = store.getReader(contentUrl);
+        assertEquals(contentUrl, reader.getContentUrl());
+        assertTrue(reader.exists());
+        assertEquals(length, reader.getSize());
+        reader.setEncoding("UTF-8");
+        assertEquals(content, reader.getContentString());
+    }
+
+    @Test
+    public void testOtherContentIsNotCompressed() throws Exception
+    {
+        String content = makeText(10);
+        ContentWriter writer = getWriter();
+        writer.setMimetype(MimetypeMap.MIMETYPE_IMAGE_PNG);
+        writer.putContent(content);
+        String contentUrl = writer.getContentUrl();
+
+        assertFalse(backingStore.exists(contentUrl + SUFFIX));
+        assertEquals(content, backingStore.getReader(contentUrl).getContentString());
+        assertEquals(content, store.getReader(contentUrl).getContentString());
+    }
+
+    @Test
+    public void testRandomAccessReadOfCompressedContent() throws Exception
+    {
+        String content = makeText(100);
+        ContentWriter writer = getWriter();
+        writer.setMimetype(MimetypeMap.MIMETYPE_XML);
+        writer.setEncoding("UTF-8");
+        writer.putContent(content);
+        byte[] bytes = content.getBytes("UTF-8");
+
+        FileChannel channel = store.getReader(writer.getContentUrl()).getFileChannel();
+        try
+        {
+            assertEquals(bytes.length, channel.size());
+            ByteBuffer buffer = ByteBuffer.allocate(10);
+            channel.read(buffer, 100L);
+            assertEquals(new String(bytes, 100, 10, "UTF-8"), new String(buffer.array(), "UTF-8"));
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testDeleteCompressed() throws Exception
+    {
+        ContentWriter writer = getWriter();
+        writer.setMimetype(MimetypeMap.MIMETYPE_TEXT_PLAIN);
+        writer.putContent(makeText(10));
+        String contentUrl = writer.getContentUrl();
+        assertTrue(store.exists(contentUrl));
+
+        assertTrue(store.delete(contentUrl));
+        assertFalse(store.exists(contentUrl));
+        assertFalse(backingStore.exists(contentUrl + SUFFIX));
+        assertFalse(store.getReader(contentUrl).exists());
+    }
+
+    private static String makeText(int lines)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++)
+        {
+            sb.append("<line number=\"").append(i).append("\">The quick brown fox jumps over the lazy dog</line>\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.content.dedup;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.repo.content.ContentStore;
+import org.alfresco.repo.content.filestore.FileContentStore;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.alfresco.util.GUID;
+import org.alfresco.util.TempFileProvider;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationContext;
+
+/**
+ * Tests for the {@link DeduplicatingContentStore} class.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class DeduplicatingContentStoreTest
+{
+    private static final String CONTENT = "The quick brown fox jumps over the lazy dog";
+
+    private @Mock AttributeService attributeService;
+    private @Mock RetryingTransactionHelper transactionHelper;
+    private @Mock ApplicationContext applicationContext;
+    private Map<List<Serializable>, Serializable> attributes;
+    private FileContentStore backingStore;
+    private DeduplicatingContentStore store;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        attributes = new HashMap<List<Serializable>, Serializable>();
+        mockAttributeService();
+        doAnswer(new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                return ((RetryingTransactionCallback<?>) invocation.getArguments()[0]).execute();
+            }
+        }).when(transactionHelper).doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean());
+
+        File root = new File(TempFileProvider.getTempDir(), "DeduplicatingContentStoreTest-" + GUID.generate());
+        backingStore = new FileContentStore(applicationContext, root);
+
+        store = new DeduplicatingContentStore();
+        store.setBackingStore(backingStore);
+        store.setAttributeService(attributeService);
+        store.setTransactionHelper(transactionHelper);
+        store.setBeanName("deduplicatingContentStore");
+        store.init();
+    }
+
+    @Test
+    public void testIdenticalContentIsStoredOnce()
+    {
+        String first = write(CONTENT);
+        String second = write(CONTENT);
+
+        assertNotEquals(first, second);
+        assertEquals(CONTENT, store.getReader(first).getContentString());
+        assertEquals(CONTENT, store.getReader(second).getContentString());
+        assertEquals(CONTENT.length(), store.getReader(second).getSize());
+        assertTrue(store.exists(second));
+        assertTrue(backingStore.exists(first));
+        assertFalse("The duplicate should not have been kept", backingStore.exists(second));
+
+        assertEquals(2, store.getWriteCount());
+        assertEquals(1, store.getDuplicateWriteCount());
+        assertEquals(2 * CONTENT.length(), store.getLogicalBytes());
+        assertEquals(CONTENT.length(), store.getStoredBytes());
+        assertEquals(2.0, store.getDedupeRatio(), 0.0001);
+    }
+
+    @Test
+    public void testDifferentContentIsStoredSeparately()
+    {
+        String first = write(CONTENT);
+        String second = write(CONTENT + ".");
+
+        assertTrue(backingStore.exists(first));
+        assertTrue(backingStore.exists(second));
+        assertEquals(CONTENT + ".", store.getReader(second).getContentString());
+        assertEquals(0, store.getDuplicateWriteCount());
+        assertEquals(1.0, store.getDedupeRatio(), 0.0001);
+    }
+
+    @Test
+    public void testSharedFileIsDeletedWithLastReference()
+    {
+        String first = write(CONTENT);
+        String second = write(CONTENT);
+
+        assertTrue(store.delete(first));
+        assertFalse(store.exists(first));
+        assertTrue("The file is still referenced", backingStore.exists(first));
+        assertEquals(CONTENT, store.getReader(second).getContentString());
+
+        assertTrue(store.delete(second));
+        assertFalse(store.exists(second));
+        assertFalse(backingStore.exists(first));
+        assertTrue("Nothing should be left behind", attributes.isEmpty());
+    }
+
+    @Test
+    public void testCopyOfHeldContentIsNotWritten()
+    {
+        String first = write(CONTENT);
+
+        ContentWriter writer = store.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+        writer.putContent(store.getReader(first));
+        String copy = writer.getContentUrl();
+
+        assertTrue(writer.isClosed());
+        assertEquals(CONTENT.length(), writer.getSize());
+        assertEquals(CONTENT, writer.getReader().getContentString());
+        assertFalse(backingStore.exists(copy));
+        assertEquals(1, store.getDuplicateWriteCount());
+    }
+
+    @Test
+    public void testContentFromBeforeIsPassedThrough()
+    {
+        ContentWriter writer = backingStore.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+        writer.putContent(CONTENT);
+        String url = writer.getContentUrl();
+
+        assertTrue(store.exists(url));
+        assertEquals(CONTENT, store.getReader(url).getContentString());
+        assertTrue(store.delete(url));
+        assertFalse(backingStore.exists(url));
+    }
+
+    @Test
+    public void testContentFromBeforeIsLookedUpOnceWithCache()
+    {
+        store.setUrlHashCache(new DefaultSimpleCache<String, String>(100, "urlHashCache"));
+        ContentWriter writer = backingStore.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+        writer.putContent(CONTENT);
+        String url = writer.getContentUrl();
+
+        assertTrue(store.exists(url));
+        assertTrue(store.exists(url));
+        assertEquals(CONTENT, store.getReader(url).getContentString());
+        assertTrue(store.delete(url));
+        assertFalse(backingStore.exists(url));
+        verify(attributeService, times(1)).getAttribute((Serializable[]) anyVararg());
+        verify(attributeService, times(1)).exists((Serializable[]) anyVararg());
+    }
+
+    @Test
+    public void testSharedFileIsDeletedWithLastReferenceWithCache()
+    {
+        store.setUrlHashCache(new DefaultSimpleCache<String, String>(100, "urlHashCache"));
+        String first = write(CONTENT);
+        String second = write(CONTENT);
+        assertTrue(store.exists(second));
+
+        assertTrue(store.delete(first));
+        assertFalse(store.exists(first));
+        assertEquals(CONTENT, store.getReader(second).getContentString());
+
+        assertTrue(store.delete(second));
+        assertFalse(store.exists(second));
+        assertFalse(backingStore.exists(first));
+        assertTrue("Nothing should be left behind", attributes.isEmpty());
+    }
+
+    /**
+     * References are committed in their own transactions, so the reference of a write whose transaction is rolled
+     * back is only released when the cleaner deletes its content URL through the store.
+     */
+    @Test
+    public void testReferenceOfRolledBackWriteIsReleasedByTheCleaner()
+    {
+        String first = write(CONTENT);
+        String rolledBack = write(CONTENT);
+
+        assertTrue(store.delete(first));
+        assertTrue("The rolled back write still refers to the file", backingStore.exists(first));
+        assertEquals(CONTENT, store.getReader(rolledBack).getContentString());
+
+        // As the eager cleaner does for the new content URLs of a rolled back transaction, or the orphan cleanup later
+        assertTrue(store.delete(rolledBack));
+        assertFalse(backingStore.exists(first));
+        assertTrue("Nothing should be left behind", attributes.isEmpty());
+    }
+
+    @Test
+    public void testWriteAfterFileWentMissingStoresItAgain()
+    {
+        String first = write(CONTENT);
+        backingStore.delete(first);
+
+        String second = write(CONTENT);
+        assertTrue(backingStore.exists(second));
+        assertEquals(CONTENT, store.getReader(first).getContentString());
+        assertEquals(0, store.getDuplicateWriteCount());
+    }
+
+    private String write(String content)
+    {
+        ContentWriter writer = store.getWriter(ContentStore.NEW_CONTENT_CONTEXT);
+        writer.putContent(content);
+        return writer.getContentUrl();
+    }
+
+    private void mockAttributeService()
+    {
+        when(attributeService.getAttribute((Serializable[]) anyVararg())).thenAnswer(new Answer<Serializable>()
+        {
+            @Override
+            public Serializable answer(InvocationOnMock invocation) throws Throwable
+            {
+                return attributes.get(keys(invocation, 0));
+            }
+        });
+        when(attributeService.exists((Serializable[]) anyVararg())).thenAnswer(new Answer<Boolean>()
+        {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable
+            {
+                return attributes.containsKey(keys(invocation, 0));
+            }
+        });
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                attributes.put(keys(invocation, 1), (Serializable) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(attributeService).setAttribute(any(Serializable.class), (Serializable[]) anyVararg());
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                attributes.remove(keys(invocation, 0));
+                return null;
+            }
+        }).when(attributeService).removeAttribute((Serializable[]) anyVararg());
+    }
+
+    private static List<Serializable> keys(InvocationOnMock invocation, int from)
+    {
+        Object[] args = invocation.getArguments();
+        Serializable[] keys = new Serializable[args.length - from];
+        System.arraycopy(args, from, keys, 0, keys.length);
+        return Arrays.asList(keys);
+    }
+}
@@ -27,9 +27,11 @@ package org.alfresco.repo.domain.node;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -44,12 +46,16 @@ import org.alfresco.repo.transaction.RetryingTransactionHelper;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.ServiceRegistry;
 import org.alfresco.service.cmr.dictionary.DataTypeDefinition;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.test_category.OwnJVMTestsCategory;
 import org.alfresco.util.ApplicationContextHelper;
+import org.alfresco.util.GUID;
 import org.alfresco.util.Pair;
 import org.junit.Assert;
 import org.junit.experimental.categories.Category;
@@ -335,6 +341,118 @@ public class NodeDAOTest extends TestCase
         txnHelper.doInTransaction(callback, true);
     }
     
+    public void testGetNodeAncestors() throws Throwable
+    {
+        final StoreRef storeRef = new StoreRef(StoreRef.PROTOCOL_WORKSPACE, "SpacesStore");
+        final NodeService nodeService = (NodeService) ctx.getBean("nodeService");
+        final AbstractNodeDAOImpl nodeDAOImpl = (AbstractNodeDAOImpl) nodeDAO;
+        final boolean wasEnabled = nodeDAOImpl.isNodeAncestorsEnabled();
+        RetryingTransactionCallback<Void> callback = new RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                NodeRef rootNodeRef = nodeService.getRootNode(storeRef);
+                NodeRef parentNodeRef = createFolder(nodeService, rootNodeRef, ContentModel.ASSOC_CHILDREN);
+                NodeRef otherParentNodeRef = createFolder(nodeService, rootNodeRef, ContentModel.ASSOC_CHILDREN);
+                NodeRef childNodeRef = createFolder(nodeService, parentNodeRef, ContentModel.ASSOC_CONTAINS);
+                NodeRef grandchildNodeRef = createFolder(nodeService, childNodeRef, ContentModel.ASSOC_CONTAINS);
+                Long rootNodeId = nodeDAO.getNodePair(rootNodeRef).getFirst();
+                Long parentNodeId = nodeDAO.getNodePair(parentNodeRef).getFirst();
+                Long otherParentNodeId = nodeDAO.getNodePair(otherParentNodeRef).getFirst();
+                Long childNodeId = nodeDAO.getNodePair(childNodeRef).getFirst();
+                Long grandchildNodeId = nodeDAO.getNodePair(grandchildNodeRef).getFirst();
+                
+                Map<Long, Integer> ancestors = nodeDAO.getNodeAncestors(childNodeId);
+                assertEquals("Unexpected ancestors: " + ancestors, 2, ancestors.size());
+                assertEquals(Integer.valueOf(1), ancestors.get(parentNodeId));
+                assertEquals(Integer.valueOf(2), ancestors.get(rootNodeId));
+                
+                // Materialise the ancestors of the new nodes
+                nodeDAO.buildNodeAncestors(parentNodeId, grandchildNodeId + 1, true);
+                Map<Long, Integer> rows = getAncestorRows(nodeDAOImpl, childNodeId);
+                assertEquals(Integer.valueOf(0), rows.get(childNodeId));
+                assertEquals(Integer.valueOf(1), rows.get(parentNodeId));
+                assertEquals(Integer.valueOf(2), rows.get(rootNodeId));
+                assertEquals(Integer.valueOf(3), getAncestorRows(nodeDAOImpl, grandchildNodeId).get(rootNodeId));
+                assertEquals(ancestors, nodeDAO.getNodeAncestors(childNodeId));
+                
+                // A new node extends the ancestors of its parent
+                NodeRef newNodeRef = createFolder(nodeService, grandchildNodeRef, ContentModel.ASSOC_CONTAINS);
+                Long newNodeId = nodeDAO.getNodePair(newNodeRef).getFirst();
+                assertEquals(Integer.valueOf(4), getAncestorRows(nodeDAOImpl, newNodeId).get(rootNodeId));
+                
+                // Moving the child discards the ancestors of its subtree until they are rebuilt
+                ChildAssociationRef childAssocRef = nodeService.moveNode(
+                        childNodeRef, otherParentNodeRef, ContentModel.ASSOC_CONTAINS, createQName());
+                assertNoAncestorRows(nodeDAOImpl, childNodeId, grandchildNodeId, newNodeId);
+                nodeDAO.buildNodeAncestors(parentNodeId, newNodeId + 1, false);
+                rows = getAncestorRows(nodeDAOImpl, grandchildNodeId);
+                assertEquals(Integer.valueOf(2), rows.get(otherParentNodeId));
+                assertNull(rows.get(parentNodeId));
+                
+                // So does linking it under a second parent
+                ChildAssociationRef secondaryAssocRef = nodeService.addChild(
+                        parentNodeRef, childNodeRef, ContentModel.ASSOC_CONTAINS, createQName());
+                assertNoAncestorRows(nodeDAOImpl, childNodeId, grandchildNodeId, newNodeId);
+                nodeDAO.buildNodeAncestors(parentNodeId, newNodeId + 1, false);
+                rows = getAncestorRows(nodeDAOImpl, childNodeId);
+                assertEquals(Integer.valueOf(1), rows.get(parentNodeId));
+                assertEquals(Integer.valueOf(1), rows.get(otherParentNodeId));
+                
+                // And unlinking it again
+                assertTrue(nodeService.removeChildAssociation(secondaryAssocRef));
+                assertNoAncestorRows(nodeDAOImpl, childNodeId, grandchildNodeId, newNodeId);
+                nodeDAO.buildNodeAncestors(parentNodeId, newNodeId + 1, false);
+                rows = getAncestorRows(nodeDAOImpl, childNodeId);
+                assertNull(rows.get(parentNodeId));
+                assertEquals(Integer.valueOf(1), rows.get(otherParentNodeId));
+                assertEquals(childAssocRef, nodeService.getPrimaryParent(childNodeRef));
+                
+                Set<Long> cachedNodeIds = nodeDAO.cacheNodeAncestors(Collections.singletonList(grandchildNodeId));
+                assertTrue(cachedNodeIds.containsAll(Arrays.asList(grandchildNodeId, childNodeId, otherParentNodeId, rootNodeId)));
+                assertEquals(1, nodeDAO.getPaths(nodeDAO.getNodePair(grandchildNodeId), true).size());
+                return null;
+            }
+        };
+        nodeDAOImpl.setNodeAncestorsEnabled(true);
+        try
+        {
+            txnHelper.doInTransaction(callback);
+        }
+        finally
+        {
+            nodeDAOImpl.setNodeAncestorsEnabled(wasEnabled);
+        }
+    }
+    
+    private static NodeRef createFolder(NodeService nodeService, NodeRef parentNodeRef, QName assocTypeQName)
+    {
+        return nodeService.createNode(parentNodeRef, assocTypeQName, createQName(), ContentModel.TYPE_FOLDER).getChildRef();
+    }
+    
+    private static QName createQName()
+    {
+        return QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "ancestors-" + GUID.generate());
+    }
+    
+    /**
+     * @return              the rows of <b>alf_node_ancestor</b> for the node, or an empty map if it has none
+     */
+    private static Map<Long, Integer> getAncestorRows(AbstractNodeDAOImpl nodeDAOImpl, Long nodeId)
+    {
+        Map<Long, Integer> rows = nodeDAOImpl.selectNodeAncestors(Collections.singletonList(nodeId)).get(nodeId);
+        return (rows == null) ? Collections.<Long, Integer>emptyMap() : rows;
+    }
+    
+    private static void assertNoAncestorRows(AbstractNodeDAOImpl nodeDAOImpl, Long... nodeIds)
+    {
+        for (Long nodeId : nodeIds)
+        {
+            assertEquals("Ancestors of node " + nodeId + " should have been discarded",
+                    0, getAncestorRows(nodeDAOImpl, nodeId).size());
+        }
+    }
+    
     /**
      * Ensure that the {@link NodeEntity} values cached as root nodes are valid instances.
      * <p/>
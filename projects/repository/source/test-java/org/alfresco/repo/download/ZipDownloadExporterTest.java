@@ -0,0 +1,196 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.download;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.content.MimetypeMap;
+import org.alfresco.service.cmr.coci.CheckOutCheckInService;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.util.TempFileProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit tests for the compression options of {@link ZipDownloadExporter}.
+ */
+public class ZipDownloadExporterTest
+{
+    private static final String[] NAMES = new String[] {"a.txt", "b.jpg", "c.txt", "d.txt", "e.txt"};
+    private static final String[] MIMETYPES = new String[] {MimetypeMap.MIMETYPE_TEXT_PLAIN, MimetypeMap.MIMETYPE_IMAGE_JPEG,
+                MimetypeMap.MIMETYPE_TEXT_PLAIN, MimetypeMap.MIMETYPE_TEXT_PLAIN, MimetypeMap.MIMETYPE_TEXT_PLAIN};
+
+    private CheckOutCheckInService checkOutCheckInService;
+    private NodeService nodeService;
+    private ExecutorService executor;
+    private ZipCompressionSettings settings;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        checkOutCheckInService = mock(CheckOutCheckInService.class);
+        nodeService = mock(NodeService.class);
+        when(nodeService.getType(any(NodeRef.class))).thenReturn(ContentModel.TYPE_CONTENT);
+
+        executor = Executors.newFixedThreadPool(2);
+        settings = new ZipCompressionSettings();
+        settings.setStoredMimetypes(MimetypeMap.MIMETYPE_IMAGE_JPEG + ", application/zip");
+        settings.setCompressionExecutor(executor);
+        settings.setParallelWindow(2);
+        settings.setParallelMaxEntrySize(1024 * 1024);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testStoredMimetypes()
+    {
+        assertEquals(true, settings.isStored("IMAGE/JPEG"));
+        assertEquals(true, settings.isStored("application/zip"));
+        assertEquals(false, settings.isStored(MimetypeMap.MIMETYPE_TEXT_PLAIN));
+        assertEquals(false, settings.isStored(null));
+    }
+
+    @Test
+    public void testStreamedArchiveWithParallelCompression() throws Exception
+    {
+        settings.setParallelCompression(true);
+        settings.afterPropertiesSet();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipDownloadExporter exporter = new ZipDownloadExporter(out, checkOutCheckInService, nodeService, 0L, NAMES.length);
+        exporter.setCompressionSettings(settings);
+        export(exporter);
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        for (int i = 0; i < NAMES.length; i++)
+        {
+            ZipEntry entry = zip.getNextEntry();
+            assertEquals(NAMES[i], entry.getName());
+            assertArrayEquals(content(i), read(zip));
+        }
+        assertNull(zip.getNextEntry());
+        assertEquals(NAMES.length, exporter.getFilesAdded());
+    }
+
+    @Test
+    public void testStoredEntriesInFile() throws Exception
+    {
+        settings.afterPropertiesSet();
+
+        File file = TempFileProvider.createTempFile("ZipDownloadExporterTest", ".zip");
+        try
+        {
+            ZipDownloadExporter exporter = new ZipDownloadExporter(file, checkOutCheckInService, nodeService, null, null, null, null, 0L, NAMES.length);
+            exporter.setCompressionSettings(settings);
+            export(exporter);
+
+            ZipFile zip = new ZipFile(file);
+            try
+            {
+                for (int i = 0; i < NAMES.length; i++)
+                {
+                    ZipEntry entry = zip.getEntry(NAMES[i]);
+                    int expectedMethod = MIMETYPES[i].equals(MimetypeMap.MIMETYPE_IMAGE_JPEG) ? ZipEntry.STORED : ZipEntry.DEFLATED;
+                    assertEquals(expectedMethod, entry.getMethod());
+                    assertArrayEquals(content(i), read(zip.getInputStream(entry)));
+                }
+            }
+            finally
+            {
+                zip.close();
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+
+    private void export(ZipDownloadExporter exporter)
+    {
+        exporter.start(null);
+        for (int i = 0; i < NAMES.length; i++)
+        {
+            NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node" + i);
+            when(nodeService.getProperty(nodeRef, ContentModel.PROP_NAME)).thenReturn(NAMES[i]);
+
+            byte[] content = content(i);
+            ContentData contentData = new ContentData("store://" + i, MIMETYPES[i], content.length, "UTF-8");
+            exporter.startNode(nodeRef);
+            exporter.content(nodeRef, ContentModel.PROP_CONTENT, new ByteArrayInputStream(content), contentData, 0);
+            exporter.endNode(nodeRef);
+        }
+        exporter.end();
+    }
+
+    private byte[] content(int i)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int line = 0; line < 1000 * (i + 1); line++)
+        {
+            sb.append(NAMES[i]).append(" line ").append(line).append('\n');
+        }
+        return sb.toString().getBytes();
+    }
+
+    private byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -25,6 +25,11 @@
  */
 package org.alfresco.repo.lock;
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import junit.framework.TestCase;
 
 import org.alfresco.repo.domain.locks.LockDAO;
@@ -137,6 +142,158 @@ public class JobLockServiceTest extends TestCase
 
 
 
+    public void testTryLock()
+    {
+        String lockToken = jobLockService.tryLock(lockAAA, 5000L);
+        assertNotNull("Lock should be available", lockToken);
+        try
+        {
+            assertNull("Lock is held and should not be available", jobLockService.tryLock(lockAAA, 5000L));
+            assertNull("Shared lock is held and should not be available", jobLockService.tryLock(lockAA, 5000L));
+            String otherToken = jobLockService.tryLock(lockAAB, 5000L);
+            assertNotNull("Sibling lock should be available", otherToken);
+            jobLockService.releaseLock(otherToken, lockAAB);
+        }
+        finally
+        {
+            jobLockService.releaseLock(lockToken, lockAAA);
+        }
+        
+        JobLockStatistics stats = ((JobLockServiceImpl) jobLockService).getLockStatistics(lockAAA);
+        assertNotNull("No statistics for the lock", stats);
+        assertEquals(1, stats.getAcquiredCount());
+        assertEquals(1, stats.getFailedCount());
+        assertEquals(1, stats.getContendedCount());
+    }
+    
+    /**
+     * Checks that an asynchronous request is granted as soon as the lock in the way is released
+     * rather than when its lease expires.
+     */
+    public void testTryLockAsyncWokenOnRelease() throws Exception
+    {
+        String lockToken = jobLockService.getLock(lockAAA, 60000L);
+        Future<String> future = jobLockService.tryLock(lockAAA, 5000L, 30000L);
+        try
+        {
+            try
+            {
+                future.get(200L, TimeUnit.MILLISECONDS);
+                fail("Lock should not have been granted while held");
+            }
+            catch (TimeoutException e)
+            {
+                // Expected
+            }
+            long releaseTime = System.currentTimeMillis();
+            jobLockService.releaseLock(lockToken, lockAAA);
+            lockToken = null;
+            String asyncToken = future.get(10000L, TimeUnit.MILLISECONDS);
+            assertNotNull(asyncToken);
+            assertTrue("Waiter was not woken on release", System.currentTimeMillis() - releaseTime < 5000L);
+            jobLockService.releaseLock(asyncToken, lockAAA);
+        }
+        finally
+        {
+            future.cancel(false);
+            if (lockToken != null)
+            {
+                jobLockService.releaseLock(lockToken, lockAAA);
+            }
+        }
+    }
+    
+    public void testTryLockAsyncTimeout() throws Exception
+    {
+        String lockToken = jobLockService.getLock(lockAAA, 60000L);
+        try
+        {
+            Future<String> future = jobLockService.tryLock(lockAAA, 5000L, 100L);
+            try
+            {
+                future.get(10000L, TimeUnit.MILLISECONDS);
+                fail("Lock should not have been granted while held");
+            }
+            catch (ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof LockAcquisitionException);
+            }
+        }
+        finally
+        {
+            jobLockService.releaseLock(lockToken, lockAAA);
+        }
+    }
+    
+    public void testTryLockAsyncCancel() throws Exception
+    {
+        String lockToken = jobLockService.getLock(lockAAA, 60000L);
+        Future<String> future = jobLockService.tryLock(lockAAA, 5000L, 30000L);
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+        jobLockService.releaseLock(lockToken, lockAAA);
+        // The cancelled request must not have taken the lock
+        Thread.sleep(200L);
+        lockToken = jobLockService.tryLock(lockAAA, 5000L);
+        assertNotNull("Cancelled request took the lock", lockToken);
+        jobLockService.releaseLock(lockToken, lockAAA);
+    }
+    
+    /**
+     * Checks that an asynchronous request is woken by the release of a lock above it, and that nothing
+     * is left waiting once it is granted.
+     */
+    public void testTryLockAsyncWokenOnReleaseAbove() throws Exception
+    {
+        JobLockServiceImpl jobLockServiceImpl = (JobLockServiceImpl) jobLockService;
+        String lockToken = jobLockService.getLock(lockAA, 60000L);
+        Future<String> future = jobLockService.tryLock(lockAAA, 5000L, 30000L);
+        try
+        {
+            assertTrue(jobLockServiceImpl.hasWaiters(lockA));
+            assertTrue(jobLockServiceImpl.hasWaiters(lockAAA));
+            long releaseTime = System.currentTimeMillis();
+            jobLockService.releaseLock(lockToken, lockAA);
+            lockToken = null;
+            String asyncToken = future.get(10000L, TimeUnit.MILLISECONDS);
+            assertNotNull(asyncToken);
+            assertTrue("Waiter was not woken on release", System.currentTimeMillis() - releaseTime < 5000L);
+            jobLockService.releaseLock(asyncToken, lockAAA);
+            
+            assertFalse(jobLockServiceImpl.hasWaiters(lockAAA));
+            assertFalse(jobLockServiceImpl.hasWaiters(lockAA));
+            assertFalse(jobLockServiceImpl.hasWaiters(lockA));
+        }
+        finally
+        {
+            future.cancel(false);
+            if (lockToken != null)
+            {
+                jobLockService.releaseLock(lockToken, lockAA);
+            }
+        }
+    }
+    
+    public void testLockStatisticsAreBounded()
+    {
+        JobLockServiceImpl jobLockServiceImpl = (JobLockServiceImpl) jobLockService;
+        jobLockServiceImpl.setMaxLockStatistics(2);
+        try
+        {
+            for (QName lockQName : new QName[] {lockAAA, lockAAB, lockAAC})
+            {
+                jobLockService.releaseLock(jobLockService.getLock(lockQName, 5000L), lockQName);
+            }
+            assertNull("Least recently used statistics should have been dropped", jobLockServiceImpl.getLockStatistics(lockAAA));
+            assertNotNull(jobLockServiceImpl.getLockStatistics(lockAAC));
+            assertTrue(jobLockServiceImpl.getLockStatistics().size() <= 2);
+        }
+        finally
+        {
+            jobLockServiceImpl.setMaxLockStatistics(1000);
+        }
+    }
+    
     public void testEnforceTxn()
     {
         try
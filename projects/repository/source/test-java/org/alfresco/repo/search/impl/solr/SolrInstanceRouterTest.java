@@ -0,0 +1,280 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.repo.index.shard.ShardInstance;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @since 5.2
+ */
+public class SolrInstanceRouterTest
+{
+    private SolrInstanceRouter router;
+
+    private ShardInstance fast;
+
+    private ShardInstance slow;
+
+    private List<ShardInstance> slice;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        router = new SolrInstanceRouter();
+        router.init();
+        fast = newInstance("fast", 8983);
+        slow = newInstance("slow", 8983);
+        slice = Arrays.asList(fast, slow);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+        router.destroy();
+    }
+
+    private ShardInstance newInstance(String host, int port)
+    {
+        ShardInstance instance = new ShardInstance();
+        instance.setHostName(host);
+        instance.setPort(port);
+        instance.setBaseUrl("/solr4/alfresco");
+        return instance;
+    }
+
+    private void record(ShardInstance instance, long elapsed, boolean failed)
+    {
+        router.requestStarted(instance.getHostName(), instance.getPort());
+        router.requestCompleted(instance.getHostName(), instance.getPort(), elapsed, failed);
+    }
+
+    @Test
+    public void prefersFasterInstance()
+    {
+        for (int i = 0; i < 10; i++)
+        {
+            record(fast, 10, false);
+            record(slow, 500, false);
+        }
+        // With two instances both are always compared
+        for (int i = 0; i < 100; i++)
+        {
+            assertSame(fast, router.select(slice, null));
+        }
+        assertEquals(10.0d, router.getLatencyAverage("fast:8983"), 0.001d);
+    }
+
+    @Test
+    public void prefersUnmeasuredInstance()
+    {
+        record(fast, 10, false);
+        for (int i = 0; i < 100; i++)
+        {
+            assertSame(slow, router.select(slice, null));
+        }
+    }
+
+    @Test
+    public void ejectsAndReinstatesFailingInstance()
+    {
+        record(fast, 10, false);
+        record(slow, 10, false);
+        router.setEjectionPeriod(60000L);
+        record(fast, 10, true);
+        record(fast, 10, true);
+        assertFalse(router.isEjected("fast:8983"));
+        record(fast, 10, true);
+        assertTrue(router.isEjected("fast:8983"));
+        assertTrue(router.getErrorRate("fast:8983") > 0.0d);
+        for (int i = 0; i < 100; i++)
+        {
+            assertSame(slow, router.select(slice, null));
+        }
+
+        router.reinstate("fast:8983");
+        assertFalse(router.isEjected("fast:8983"));
+    }
+
+    @Test
+    public void usesEjectedInstancesWhenNoneAreHealthy()
+    {
+        record(fast, 10, true);
+        record(fast, 10, true);
+        record(fast, 10, true);
+        assertTrue(router.isEjected("fast:8983"));
+        assertSame(fast, router.select(Arrays.asList(fast), null));
+    }
+
+    @Test
+    public void alternativeExcludesCurrentInstance()
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            assertSame(slow, router.select(slice, fast));
+        }
+        assertNull(router.select(Arrays.asList(fast), fast));
+    }
+
+    @Test
+    public void disabledRoutingIgnoresStatistics()
+    {
+        router.setEnabled(false);
+        record(fast, 10, false);
+        record(slow, 500, false);
+        boolean choseSlow = false;
+        for (int i = 0; i < 1000 && !choseSlow; i++)
+        {
+            choseSlow = router.select(slice, null) == slow;
+        }
+        assertTrue(choseSlow);
+    }
+
+    @Test
+    public void hedgedRequestWinsWhenFirstIsSlow() throws Exception
+    {
+        router.setHedgeExecutor(executor);
+        router.setHedgeDelay(10L);
+        final CountDownLatch release = new CountDownLatch(1);
+        String result = router.execute(new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                release.await(10, TimeUnit.SECONDS);
+                return "first";
+            }
+        }, new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return "hedge";
+            }
+        });
+        release.countDown();
+        assertEquals("hedge", result);
+        assertEquals(1L, router.getHedgedRequestCount());
+        assertEquals(1L, router.getHedgedRequestWinCount());
+    }
+
+    @Test
+    public void losingRequestIsCancelledAndAborted() throws Exception
+    {
+        router.setHedgeExecutor(executor);
+        router.setHedgeDelay(10L);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        String result = router.execute(new SolrInstanceRouter.AbortableRequest<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                try
+                {
+                    aborted.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted.countDown();
+                }
+                return "first";
+            }
+
+            @Override
+            public void abort()
+            {
+                aborted.countDown();
+            }
+        }, new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return "hedge";
+            }
+        });
+        assertEquals("hedge", result);
+        assertTrue(aborted.await(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void noHedgeWhenFirstIsFast() throws Exception
+    {
+        router.setHedgeExecutor(executor);
+        router.setHedgeDelay(5000L);
+        String result = router.execute(new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return "first";
+            }
+        }, new Callable<String>()
+        {
+            @Override
+            public String call() throws Exception
+            {
+                return "hedge";
+            }
+        });
+        assertEquals("first", result);
+        assertEquals(0L, router.getHedgedRequestCount());
+    }
+
+    @Test
+    public void statisticsAreListed()
+    {
+        record(fast, 10, false);
+        String[] statistics = router.getInstanceStatistics();
+        assertEquals(1, statistics.length);
+        assertTrue(statistics[0].startsWith("fast:8983 latency=10ms"));
+        router.resetStatistics();
+        assertEquals(-1.0d, router.getLatencyAverage("fast:8983"), 0.001d);
+        assertEquals(-1.0d, router.getLatencyAverage("unknown:1"), 0.001d);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.alfresco.repo.search.impl.lucene.SolrJSONStreamingResponse;
+import org.alfresco.repo.search.impl.lucene.SolrStatsResult;
+import org.alfresco.util.Pair;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Test;
+
+/**
+ * Reading a solr response with the streaming parser
+ *
+ * @since 5.2
+ */
+public class SolrJSONStreamingResponseTest
+{
+    public static String TEST_QUERY = "{\"responseHeader\":{\"status\":0,\"QTime\":4},"
+                + "\"response\":{\"numFound\":3,\"start\":0,\"maxScore\":1.5,\"docs\":["
+                + "{\"DBID\":[101],\"score\":1.5},{\"DBID\":102,\"score\":0.75,\"other\":{\"a\":[1,2]}},{\"score\":0.5,\"DBID\":[103,104]}]},"
+                + "\"facet_counts\":{\"facet_queries\":{\"cm:name:a*\":2},"
+                + "\"facet_fields\":{\"@{http://www.alfresco.org/model/content/1.0}creator\":[\"admin\",2,\"abeecher\",1],\"SITE\":[]},"
+                + "\"facet_dates\":{}},"
+                + "\"spellcheck\":{\"suggestions\":[\"collation\",{\"hits\":3}]},"
+                + "\"processedDenies\":true,\"lastIndexedTx\":12345678901}";
+
+    @Test
+    public void testQueryResponse() throws IOException, JSONException
+    {
+        SolrJSONStreamingResponse json = SolrJSONStreamingResponse.parse(new StringReader(TEST_QUERY));
+
+        assertTrue(json.hasDocs());
+        assertArrayEquals(new long[] { 101, 102, 103 }, json.getDbids());
+        assertEquals(3, json.getScores().length);
+        assertEquals(1.5f, json.getScores()[0], 0.0f);
+        assertEquals(0.75f, json.getScores()[1], 0.0f);
+        assertEquals(0.5f, json.getScores()[2], 0.0f);
+
+        // The rest is still available as JSON
+        JSONObject response = json.getJSONObject("response");
+        assertEquals(3L, response.getLong("numFound"));
+        assertEquals(0L, response.getLong("start"));
+        assertEquals(1.5f, Float.valueOf(response.getString("maxScore")), 0.0f);
+        assertFalse(response.has("docs"));
+        assertEquals(4L, json.getJSONObject("responseHeader").getLong("QTime"));
+        assertEquals(12345678901L, json.getLong("lastIndexedTx"));
+        assertTrue(json.getBoolean("processedDenies"));
+        assertEquals(3L, json.getJSONObject("spellcheck").getJSONArray("suggestions").getJSONObject(1).getLong("hits"));
+
+        JSONObject facetCounts = json.getJSONObject("facet_counts");
+        assertEquals(2, Integer.parseInt(facetCounts.getJSONObject("facet_queries").getString("cm:name:a*")));
+        assertTrue(facetCounts.has("facet_dates"));
+        assertFalse(facetCounts.has("facet_fields"));
+
+        List<Pair<String, Integer>> creators = json.getFieldFacets().get("@{http://www.alfresco.org/model/content/1.0}creator");
+        assertEquals(2, creators.size());
+        assertEquals(new Pair<String, Integer>("admin", 2), creators.get(0));
+        assertEquals(new Pair<String, Integer>("abeecher", 1), creators.get(1));
+        assertTrue(json.getFieldFacets().get("SITE").isEmpty());
+    }
+
+    @Test
+    public void testStatsResponseMatchesTree() throws IOException, JSONException
+    {
+        JSONObject tree = new JSONObject(new JSONTokener(SolrStatsResultTest.TEST_MIMETYPE));
+        SolrJSONStreamingResponse streamed = SolrJSONStreamingResponse.parse(new StringReader(SolrStatsResultTest.TEST_MIMETYPE));
+        assertTrue(streamed.hasDocs());
+        assertEquals(0, streamed.getDbids().length);
+        assertNull(streamed.getFieldFacets());
+
+        SolrStatsResult fromTree = new SolrStatsResult(tree, false);
+        SolrStatsResult fromStream = new SolrStatsResult(streamed, false);
+        assertEquals(fromTree.getNumberFound(), fromStream.getNumberFound());
+        assertEquals(fromTree.getQueryTime(), fromStream.getQueryTime());
+        assertEquals(fromTree.getSum(), fromStream.getSum());
+        assertEquals(fromTree.getStats().size(), fromStream.getStats().size());
+    }
+
+    @Test(expected = JSONException.class)
+    public void testNotAnObject() throws IOException, JSONException
+    {
+        SolrJSONStreamingResponse.parse(new StringReader("[1,2]"));
+    }
+}
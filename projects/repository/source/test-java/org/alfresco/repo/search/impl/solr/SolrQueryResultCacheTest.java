@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.alfresco.repo.cache.DefaultSimpleCache;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @since 5.2
+ */
+public class SolrQueryResultCacheTest
+{
+    private SolrQueryResultCache resultCache;
+
+    private SearchParameters searchParameters;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        resultCache = new SolrQueryResultCache();
+        resultCache.setCache(new DefaultSimpleCache<SolrQueryResultCache.Key, SolrQueryResultCache.CachedResult>(100, "solrQueryResultCacheTest"));
+        resultCache.setEnabled(true);
+        resultCache.init();
+
+        searchParameters = new SearchParameters();
+        searchParameters.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        searchParameters.setLanguage(SearchService.LANGUAGE_FTS_ALFRESCO);
+        searchParameters.setQuery("TYPE:\"cm:content\"");
+    }
+
+    private SolrQueryResultCache.Key key(String... authorities)
+    {
+        return resultCache.getKey(SearchService.LANGUAGE_FTS_ALFRESCO, searchParameters, Locale.ENGLISH, "", Arrays.asList(authorities));
+    }
+
+    private JSONObject response(long lastIndexedTx) throws Exception
+    {
+        return new JSONObject("{\"response\":{\"numFound\":0,\"start\":0,\"docs\":[]},\"lastIndexedTx\":" + lastIndexedTx + "}");
+    }
+
+    @Test
+    public void testHitForSameQueryAndAuthorities() throws Exception
+    {
+        assertNull(resultCache.get(key("admin", "GROUP_EVERYONE")));
+        JSONObject json = response(10);
+        resultCache.put(key("admin", "GROUP_EVERYONE"), json);
+
+        // Authority order does not matter
+        assertSame(json, resultCache.get(key("GROUP_EVERYONE", "admin")));
+        assertEquals(1L, resultCache.getHitCount());
+        assertEquals(1L, resultCache.getMissCount());
+
+        // Nor do later changes to the parameters
+        searchParameters.setQuery("TYPE:\"cm:folder\"");
+        assertNull(resultCache.get(key("admin", "GROUP_EVERYONE")));
+    }
+
+    @Test
+    public void testMissForOtherAuthorities() throws Exception
+    {
+        resultCache.put(key("admin", "GROUP_EVERYONE"), response(10));
+        assertNull(resultCache.get(key("admin")));
+        assertNull(resultCache.get(key("bob", "GROUP_EVERYONE")));
+    }
+
+    @Test
+    public void testStaleWhenIndexMovesOn() throws Exception
+    {
+        resultCache.put(key("admin"), response(10));
+        assertNotNull(resultCache.get(key("admin")));
+
+        // Any newer response for the same stores moves the watermark
+        resultCache.put(key("bob"), response(11));
+        assertNull(resultCache.get(key("admin")));
+        assertEquals(1L, resultCache.getStaleCount());
+        assertNotNull(resultCache.get(key("bob")));
+
+        // A response from an instance that is behind is not kept
+        resultCache.put(key("admin"), response(9));
+        assertNull(resultCache.get(key("admin")));
+    }
+
+    @Test
+    public void testResponseWithoutTransactionIsNotCached() throws Exception
+    {
+        resultCache.put(key("admin"), new JSONObject("{\"response\":{\"numFound\":0}}"));
+        assertNull(resultCache.get(key("admin")));
+    }
+
+    @Test
+    public void testClear() throws Exception
+    {
+        resultCache.put(key("admin"), response(10));
+        assertNotNull(resultCache.get(key("admin")));
+        resultCache.clear();
+        assertNull(resultCache.get(key("admin")));
+        assertEquals(0L, resultCache.getHitCount());
+        assertEquals(1L, resultCache.getMissCount());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.search.impl.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.alfresco.repo.search.impl.lucene.SolrJSONStreamingResponse;
+import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchParameters.FieldFacet;
+import org.alfresco.service.cmr.search.SearchParameters.FieldFacetSort;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Merging the responses to a query sent to several stores or shards
+ *
+ * @since 5.2
+ */
+public class SolrResponseMergerTest
+{
+    private static final String FIRST = "{\"responseHeader\":{\"status\":0,\"QTime\":4},"
+                + "\"response\":{\"numFound\":3,\"start\":0,\"maxScore\":2.0,\"docs\":["
+                + "{\"DBID\":[1],\"score\":2.0},{\"DBID\":[2],\"score\":1.0},{\"DBID\":[3],\"score\":0.5}]},"
+                + "\"facet_counts\":{\"facet_queries\":{\"cm:name:a*\":2},"
+                + "\"facet_fields\":{\"SITE\":[\"swsdp\",2,\"other\",1]}},"
+                + "\"processedDenies\":true,\"lastIndexedTx\":20}";
+
+    private static final String SECOND = "{\"responseHeader\":{\"status\":0,\"QTime\":9},"
+                + "\"response\":{\"numFound\":4,\"start\":0,\"maxScore\":1.5,\"docs\":["
+                + "{\"DBID\":[11],\"score\":1.5},{\"DBID\":[12],\"score\":1.0},{\"DBID\":[13],\"score\":0.25}]},"
+                + "\"facet_counts\":{\"facet_queries\":{\"cm:name:a*\":1},"
+                + "\"facet_fields\":{\"SITE\":[\"third\",2,\"other\",2]}},"
+                + "\"processedDenies\":true,\"lastIndexedTx\":15}";
+
+    private static final String FIRST_ASCENDING = "{\"responseHeader\":{\"status\":0,\"QTime\":4},"
+                + "\"response\":{\"numFound\":3,\"start\":0,\"maxScore\":2.0,\"docs\":["
+                + "{\"DBID\":[3],\"score\":0.5},{\"DBID\":[2],\"score\":1.0},{\"DBID\":[1],\"score\":2.0}]}}";
+
+    private static final String SECOND_ASCENDING = "{\"responseHeader\":{\"status\":0,\"QTime\":9},"
+                + "\"response\":{\"numFound\":3,\"start\":0,\"maxScore\":1.5,\"docs\":["
+                + "{\"DBID\":[13],\"score\":0.25},{\"DBID\":[12],\"score\":1.0},{\"DBID\":[11],\"score\":1.5}]}}";
+
+    @Test
+    public void testDocumentsMergedInScoreOrder() throws IOException, JSONException
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        JSONObject merged = merge(searchParameters, 10, true);
+
+        JSONObject response = merged.getJSONObject("response");
+        assertEquals(7L, response.getLong("numFound"));
+        assertEquals(2.0f, Float.valueOf(response.getString("maxScore")), 0.0f);
+        // Equal scores keep the order of the targets
+        assertDbids(response.getJSONArray("docs"), 1, 11, 2, 12, 3, 13);
+        assertEquals(9L, merged.getJSONObject("responseHeader").getLong("QTime"));
+        assertEquals(15L, merged.getLong("lastIndexedTx"));
+        assertTrue(merged.getBoolean("processedDenies"));
+    }
+
+    @Test
+    public void testPageTakenFromMergedOrder() throws IOException, JSONException
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.setSkipCount(2);
+        JSONObject merged = merge(searchParameters, 3, false);
+
+        JSONObject response = merged.getJSONObject("response");
+        assertEquals(2L, response.getLong("start"));
+        assertDbids(response.getJSONArray("docs"), 2, 12, 3);
+    }
+
+    @Test
+    public void testAscendingScore() throws IOException, JSONException
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.addSort(SearchParameters.SORT_IN_SCORE_ORDER_ASCENDING);
+        JSONObject merged = merge(searchParameters, 10, false, FIRST_ASCENDING, SECOND_ASCENDING);
+
+        assertDbids(merged.getJSONObject("response").getJSONArray("docs"), 13, 3, 2, 12, 11, 1);
+    }
+
+    @Test
+    public void testFacetsSummed() throws IOException, JSONException
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        FieldFacet site = new FieldFacet("SITE");
+        site.setLimitOrNull(-1);
+        site.setSort(FieldFacetSort.COUNT);
+        searchParameters.addFieldFacet(site);
+        assertTrue(SolrResponseMerger.canMerge(searchParameters));
+        JSONObject merged = merge(searchParameters, 10, true);
+
+        JSONObject facetCounts = merged.getJSONObject("facet_counts");
+        assertEquals(3, Integer.parseInt(facetCounts.getJSONObject("facet_queries").getString("cm:name:a*")));
+        JSONArray sites = facetCounts.getJSONObject("facet_fields").getJSONArray("SITE");
+        assertEquals(6, sites.length());
+        assertEquals("other", sites.getString(0));
+        assertEquals(3, sites.getInt(1));
+        assertEquals("swsdp", sites.getString(2));
+        assertEquals(2, sites.getInt(3));
+        assertEquals("third", sites.getString(4));
+        assertEquals(2, sites.getInt(5));
+    }
+
+    @Test
+    public void testLimitedFacetsAreNotMerged() throws IOException, JSONException
+    {
+        // Overall "z" has 16 and "x" 11, but "z" is not in the top two of the first target, nor "x" of the second
+        String first = "{\"responseHeader\":{\"status\":0,\"QTime\":1},\"response\":{\"numFound\":28,\"docs\":[]},"
+                    + "\"facet_counts\":{\"facet_fields\":{\"SITE\":[\"x\",10,\"y\",9,\"z\",8]}}}";
+        String second = "{\"responseHeader\":{\"status\":0,\"QTime\":1},\"response\":{\"numFound\":16,\"docs\":[]},"
+                    + "\"facet_counts\":{\"facet_fields\":{\"SITE\":[\"z\",8,\"w\",7,\"x\",1]}}}";
+
+        SearchParameters searchParameters = new SearchParameters();
+        FieldFacet site = new FieldFacet("SITE");
+        site.setLimitOrNull(2);
+        searchParameters.addFieldFacet(site);
+        assertFalse(SolrResponseMerger.canMerge(searchParameters));
+
+        // Every value is returned by each target when there is no limit, so the counts add up
+        site.setLimitOrNull(-1);
+        site.setSort(FieldFacetSort.COUNT);
+        assertTrue(SolrResponseMerger.canMerge(searchParameters));
+        JSONArray sites = merge(searchParameters, 10, false, first, second)
+                    .getJSONObject("facet_counts").getJSONObject("facet_fields").getJSONArray("SITE");
+        assertEquals("z", sites.getString(0));
+        assertEquals(16, sites.getInt(1));
+        assertEquals("x", sites.getString(2));
+        assertEquals(11, sites.getInt(3));
+    }
+
+    @Test
+    public void testCanMerge()
+    {
+        SearchParameters searchParameters = new SearchParameters();
+        assertTrue(SolrResponseMerger.canMerge(searchParameters));
+        searchParameters.addSort(SearchParameters.SORT_IN_SCORE_ORDER_DESCENDING);
+        assertTrue(SolrResponseMerger.canMerge(searchParameters));
+        searchParameters.addSort("@cm:name", true);
+        assertFalse(SolrResponseMerger.canMerge(searchParameters));
+
+        searchParameters = new SearchParameters();
+        FieldFacet site = new FieldFacet("SITE");
+        searchParameters.addFieldFacet(site);
+        // Limited by default
+        assertFalse(SolrResponseMerger.canMerge(searchParameters));
+        site.setLimitOrNull(-1);
+        assertTrue(SolrResponseMerger.canMerge(searchParameters));
+        site.setMinCount(2);
+        assertFalse(SolrResponseMerger.canMerge(searchParameters));
+        site.setMinCount(1);
+        site.setOffset(10);
+        assertFalse(SolrResponseMerger.canMerge(searchParameters));
+    }
+
+    private JSONObject merge(SearchParameters searchParameters, int rows, boolean streamed) throws IOException, JSONException
+    {
+        return merge(searchParameters, rows, streamed, FIRST, SECOND);
+    }
+
+    private JSONObject merge(SearchParameters searchParameters, int rows, boolean streamed, String first, String second) throws IOException, JSONException
+    {
+        JSONObject firstJson = streamed ? SolrJSONStreamingResponse.parse(new StringReader(first)) : new JSONObject(first);
+        JSONObject secondJson = streamed ? SolrJSONStreamingResponse.parse(new StringReader(second)) : new JSONObject(second);
+        return new SolrResponseMerger(searchParameters, 100).merge(Arrays.asList(firstJson, secondJson), rows);
+    }
+
+    private static void assertDbids(JSONArray docs, long... expected) throws JSONException
+    {
+        assertEquals(expected.length, docs.length());
+        for (int i = 0; i < expected.length; i++)
+        {
+            assertEquals(expected[i], docs.getJSONObject(i).getLong("DBID"));
+        }
+    }
+}
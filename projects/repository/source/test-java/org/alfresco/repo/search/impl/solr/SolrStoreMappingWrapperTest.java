@@ -31,6 +31,8 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
 
+import java.util.List;
+
 import org.alfresco.httpclient.HttpClientFactory;
 import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.util.Pair;
@@ -232,6 +234,18 @@ public class SolrStoreMappingWrapperTest
         String[] fragments = shards.split(",");
         assertEquals(mapping.getNumShards(), fragments.length);
     }
+
+    @Test
+    public void testShardHttpClientsAndBaseUrls()
+    {
+        List<Pair<HttpClient, String>> shards = wrapper.getShardHttpClientsAndBaseUrls();
+        assertEquals(mapping.getNumShards(), shards.size());
+        for (int shard = 0; shard < shards.size(); shard++)
+        {
+            assertNotNull(shards.get(shard).getFirst());
+            assertTrue(shards.get(shard).getSecond().endsWith("-" + shard));
+        }
+    }
     
     @Test
     public void testDistribution()
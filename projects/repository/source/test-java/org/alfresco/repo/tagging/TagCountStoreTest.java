@@ -0,0 +1,206 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.tagging;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.repo.cache.MemoryCache;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.tagging.TagDetails;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests for the {@link TagCountStore} class.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TagCountStoreTest
+{
+    private static final NodeRef SCOPE = new NodeRef("workspace://SpacesStore/tag-scope");
+    private static final String SCOPE_KEY = SCOPE.toString();
+    
+    private @Mock AttributeService attributeService;
+    private TagCountStore tagCountStore;
+    
+    @Before
+    public void setUp() throws Exception
+    {
+        tagCountStore = new TagCountStore();
+        tagCountStore.setAttributeService(attributeService);
+        tagCountStore.setSummaryCache(new MemoryCache<String, List<String>>());
+        tagCountStore.afterPropertiesSet();
+    }
+    
+    @Test
+    public void testApplyDeltasOnlyTouchesChangedTags()
+    {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put("existing", 2);
+        counts.put("last", 1);
+        counts.put("other", 4);
+        mockStoredCounts(counts);
+        
+        Map<String, Integer> updates = new HashMap<String, Integer>();
+        updates.put("existing", 3);
+        updates.put("new", 1);
+        updates.put("last", -1);
+        updates.put("missing", -1);
+        updates.put("unchanged", 0);
+        tagCountStore.applyDeltas(SCOPE, updates);
+        
+        verify(attributeService).setAttribute(5, TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, "existing");
+        verify(attributeService).setAttribute(1, TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, "new");
+        verify(attributeService).removeAttribute(TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, "last");
+        verify(attributeService, never()).removeAttribute(TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, "missing");
+        verify(attributeService, never()).setAttribute(any(Serializable.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY), eq("other"));
+        verify(attributeService, never()).setAttribute(any(Serializable.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY), eq("unchanged"));
+        
+        // The current counts are read in one go rather than tag by tag
+        verify(attributeService, times(1)).getAttributes(any(AttributeQueryCallback.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY));
+        verify(attributeService, never()).getAttribute(TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, "existing");
+    }
+    
+    @Test
+    public void testApplyNoDeltasReadsNothing()
+    {
+        tagCountStore.applyDeltas(SCOPE, Collections.singletonMap("unchanged", 0));
+        verify(attributeService, never()).getAttributes(any(AttributeQueryCallback.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY));
+    }
+    
+    @Test
+    public void testGetTagDetailsOrderedByCount()
+    {
+        mockStoredCounts();
+        
+        List<TagDetails> tagDetails = tagCountStore.getTagDetails(SCOPE);
+        assertEquals(2, tagDetails.size());
+        assertEquals("popular", tagDetails.get(0).getName());
+        assertEquals(7, tagDetails.get(0).getCount());
+        assertEquals("rare", tagDetails.get(1).getName());
+        assertEquals(1, tagDetails.get(1).getCount());
+    }
+    
+    @Test
+    public void testTagSummaryIsCachedUntilUpdated()
+    {
+        when(attributeService.exists(TagCountStore.KEY_TAG_COUNTS_BUILT, SCOPE_KEY)).thenReturn(true);
+        mockStoredCounts();
+        
+        List<String> summary = tagCountStore.getTagSummary(SCOPE);
+        assertEquals(Arrays.asList("popular=7", "rare=1"), summary);
+        tagCountStore.getTagSummary(SCOPE);
+        verify(attributeService, times(1)).getAttributes(any(AttributeQueryCallback.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY));
+        
+        // One read to apply the update and one to rebuild the summary
+        tagCountStore.applyDeltas(SCOPE, Collections.singletonMap("rare", 1));
+        tagCountStore.getTagSummary(SCOPE);
+        verify(attributeService, times(3)).getAttributes(any(AttributeQueryCallback.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY));
+    }
+    
+    @Test
+    public void testTagSummaryOfUnbuiltScope()
+    {
+        assertFalse(tagCountStore.isBuilt(SCOPE));
+        assertNull(tagCountStore.getTagSummary(SCOPE));
+    }
+    
+    @Test
+    public void testSetTagDetailsMarksScopeBuilt()
+    {
+        List<TagDetails> tagDetails = Arrays.<TagDetails>asList(new TagDetailsImpl("a", 2), new TagDetailsImpl("b", 0));
+        tagCountStore.setTagDetails(SCOPE, tagDetails);
+        
+        verify(attributeService).removeAttributes(TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY);
+        verify(attributeService).setAttribute(2, TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, "a");
+        verify(attributeService, never()).setAttribute(any(Serializable.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY), eq("b"));
+        verify(attributeService).setAttribute(Boolean.TRUE, TagCountStore.KEY_TAG_COUNTS_BUILT, SCOPE_KEY);
+    }
+    
+    @Test
+    public void testDisabledStoreStillServesBuiltScopes()
+    {
+        tagCountStore.setEnabled(false);
+        assertFalse(tagCountStore.isEnabled());
+        assertFalse(tagCountStore.isBuilt(SCOPE));
+        
+        // A tag scope moved into the store before it was disabled has no cache content any more
+        when(attributeService.exists(TagCountStore.KEY_TAG_COUNTS_BUILT, SCOPE_KEY)).thenReturn(true);
+        mockStoredCounts();
+        assertTrue(tagCountStore.isBuilt(SCOPE));
+        assertEquals(Arrays.asList("popular=7", "rare=1"), tagCountStore.getTagSummary(SCOPE));
+    }
+    
+    private void mockStoredCounts()
+    {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put("rare", 1);
+        counts.put("gone", 0);
+        counts.put("popular", 7);
+        mockStoredCounts(counts);
+    }
+    
+    private void mockStoredCounts(final Map<String, Integer> counts)
+    {
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                AttributeQueryCallback callback = (AttributeQueryCallback) invocation.getArguments()[0];
+                long id = 1L;
+                for (Map.Entry<String, Integer> count : counts.entrySet())
+                {
+                    callback.handleAttribute(id++, count.getValue(), new Serializable[] {TagCountStore.KEY_TAG_COUNTS, SCOPE_KEY, count.getKey()});
+                }
+                return null;
+            }
+        }).when(attributeService).getAttributes(any(AttributeQueryCallback.class), eq(TagCountStore.KEY_TAG_COUNTS), eq(SCOPE_KEY));
+    }
+}
@@ -37,6 +37,7 @@ import javax.transaction.UserTransaction;
 import junit.framework.TestCase;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.node.archive.NodeArchiveService;
 import org.alfresco.repo.nodelocator.CompanyHomeNodeLocator;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
@@ -51,6 +52,7 @@ import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.ContentData;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.tagging.TagScope;
 import org.alfresco.service.cmr.tagging.TaggingService;
 import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.ApplicationContextHelper;
@@ -77,6 +79,10 @@ public class UpdateTagScopesActionExecuterTest extends TestCase
 
     private static final String UPDATE_TAGSCOPE_ACTION_EXECUTER_BEAN_NAME = "update-tagscope";
 
+    private static final String TAG_COUNT_STORE_BEAN_NAME = "tagCountStore";
+
+    private static final String NODE_ARCHIVE_SERVICE_BEAN_NAME = "nodeArchiveService";
+
     private static final String TEST_TAG_NAME_PATTERN = "testTag%d-%d-%d";
 
     private static final String TEST_FOLDER_NAME_PATTERN = "TestFolder-%d";
@@ -100,6 +106,12 @@ public class UpdateTagScopesActionExecuterTest extends TestCase
 
     private ActionTrackingService actionTrackingService;
 
+    private TagCountStore tagCountStore;
+
+    private NodeArchiveService nodeArchiveService;
+
+    private boolean tagCountStoreEnabled;
+
     private UserTransaction transaction;
 
     private List<NodeRef> expectedTagScopes;
@@ -119,6 +131,12 @@ public class UpdateTagScopesActionExecuterTest extends TestCase
         fileFolderService = registry.getFileFolderService();
         transactionService = registry.getTransactionService();
         actionTrackingService = (ActionTrackingService) applicationContext.getBean(ACTION_TRACKING_SERVICE_BEAN_NAME);
+        tagCountStore = (TagCountStore) applicationContext.getBean(TAG_COUNT_STORE_BEAN_NAME);
+        nodeArchiveService = (NodeArchiveService) applicationContext.getBean(NODE_ARCHIVE_SERVICE_BEAN_NAME);
+
+        // The tag scope cache content is only maintained while the tag count store is disabled
+        tagCountStoreEnabled = tagCountStore.isEnabled();
+        tagCountStore.setEnabled(false);
 
         AuthenticationUtil.setAdminUserAsFullyAuthenticatedUser();
 
@@ -230,6 +248,8 @@ public class UpdateTagScopesActionExecuterTest extends TestCase
 
         expectedTagScopes.clear();
         expectedTagScopes = null;
+
+        tagCountStore.setEnabled(tagCountStoreEnabled);
     }
 
     /**
@@ -313,6 +333,207 @@ public class UpdateTagScopesActionExecuterTest extends TestCase
         }
     }
 
+    /**
+     * Tests that, once the tag count store is enabled, the first update moves the counts of a tag scope out of its cache content and
+     * into the store, and that later updates are applied to the stored counts
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTagScopesUpdateWithTagCountStore() throws Exception
+    {
+        final NodeRef taggedTagScope = expectedTagScopes.iterator().next();
+        assertNotNull(getTagScopeCacheContentDataProperty(taggedTagScope));
+
+        tagCountStore.setEnabled(true);
+        final String newTag = "tagcountstoretag";
+        final NodeRef document = transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<NodeRef>()
+        {
+            @Override
+            public NodeRef execute() throws Throwable
+            {
+                NodeRef document = nodeService.getChildAssocs(taggedTagScope, Collections.singleton(ContentModel.TYPE_CONTENT)).get(0).getChildRef();
+                taggingService.addTag(document, newTag);
+                testTags.add(newTag);
+                return document;
+            }
+        }, false, true);
+
+        waitForTagScopeUpdate();
+
+        Action tagScopeUpdateAction = actionService.createAction(UpdateTagScopesActionExecuter.NAME);
+        tagScopeUpdateAction.setParameterValue(UpdateTagScopesActionExecuter.PARAM_TAG_SCOPES, (Serializable) expectedTagScopes);
+        actionExecuter.execute(tagScopeUpdateAction, null);
+
+        assertNull(getTagScopeCacheContentDataProperty(taggedTagScope));
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                assertTrue(tagCountStore.isBuilt(taggedTagScope));
+                TagScope tagScope = taggingService.findTagScope(document);
+                assertEquals(taggedTagScope, tagScope.getNodeRef());
+                assertEquals(testTags.size(), tagScope.getTags().size());
+                assertEquals(1, tagScope.getTag(newTag).getCount());
+                return null;
+            }
+        }, true, true);
+    }
+
+    /**
+     * Tests that a tag scope moved into the tag count store keeps its tags once the store is disabled, and that the next update writes
+     * its counts back into the cache content
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTagScopesUpdateAfterTagCountStoreDisabled() throws Exception
+    {
+        final NodeRef taggedTagScope = expectedTagScopes.iterator().next();
+        final Action tagScopeUpdateAction = actionService.createAction(UpdateTagScopesActionExecuter.NAME);
+        tagScopeUpdateAction.setParameterValue(UpdateTagScopesActionExecuter.PARAM_TAG_SCOPES, (Serializable) expectedTagScopes);
+
+        // Move the tag scope into the store
+        tagCountStore.setEnabled(true);
+        final String newTag = "tagcountstoredisabledtag";
+        final int tagCount = testTags.size();
+        final NodeRef document = transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<NodeRef>()
+        {
+            @Override
+            public NodeRef execute() throws Throwable
+            {
+                NodeRef document = nodeService.getChildAssocs(taggedTagScope, Collections.singleton(ContentModel.TYPE_CONTENT)).get(0).getChildRef();
+                taggingService.addTag(document, newTag);
+                testTags.add(newTag);
+                return document;
+            }
+        }, false, true);
+        waitForTagScopeUpdate();
+        actionExecuter.execute(tagScopeUpdateAction, null);
+        assertNull(getTagScopeCacheContentDataProperty(taggedTagScope));
+
+        // The stored counts are still read with the store disabled
+        tagCountStore.setEnabled(false);
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                TagScope tagScope = taggingService.findTagScope(document);
+                assertEquals(tagCount + 1, tagScope.getTags().size());
+                assertEquals(1, tagScope.getTag(newTag).getCount());
+                return null;
+            }
+        }, true, true);
+
+        // The next update goes back to the cache content
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                taggingService.removeTag(document, newTag);
+                return null;
+            }
+        }, false, true);
+        waitForTagScopeUpdate();
+        actionExecuter.execute(tagScopeUpdateAction, null);
+
+        assertNotNull(getTagScopeCacheContentDataProperty(taggedTagScope));
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                assertFalse(tagCountStore.isBuilt(taggedTagScope));
+                TagScope tagScope = taggingService.findTagScope(document);
+                assertEquals(tagCount, tagScope.getTags().size());
+                assertNull(tagScope.getTag(newTag));
+                return null;
+            }
+        }, true, true);
+    }
+
+    /**
+     * Tests that the stored counts of a tag scope are kept while it is in the archive, so that it still has its tags once restored, and
+     * that they are dropped when the archived tag scope is purged
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTagCountStoreArchiveAndRestore() throws Exception
+    {
+        final NodeRef tagScope = expectedTagScopes.get(1);
+        final Action tagScopeUpdateAction = actionService.createAction(UpdateTagScopesActionExecuter.NAME);
+        tagScopeUpdateAction.setParameterValue(UpdateTagScopesActionExecuter.PARAM_TAG_SCOPES, (Serializable) expectedTagScopes);
+
+        tagCountStore.setEnabled(true);
+        final String newTag = "tagcountstorearchivedtag";
+        final NodeRef document = transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<NodeRef>()
+        {
+            @Override
+            public NodeRef execute() throws Throwable
+            {
+                NodeRef document = nodeService.getChildAssocs(tagScope, Collections.singleton(ContentModel.TYPE_CONTENT)).get(0).getChildRef();
+                taggingService.addTag(document, newTag);
+                testTags.add(newTag);
+                return document;
+            }
+        }, false, true);
+        waitForTagScopeUpdate();
+        actionExecuter.execute(tagScopeUpdateAction, null);
+
+        RetryingTransactionCallback<NodeRef> deleteCallback = new RetryingTransactionCallback<NodeRef>()
+        {
+            @Override
+            public NodeRef execute() throws Throwable
+            {
+                assertTrue(tagCountStore.isBuilt(tagScope));
+                nodeService.deleteNode(tagScope);
+                return nodeArchiveService.getArchivedNode(tagScope);
+            }
+        };
+        final NodeRef archivedTagScope = transactionService.getRetryingTransactionHelper().doInTransaction(deleteCallback, false, true);
+        waitForTagScopeUpdate();
+
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                assertTrue(tagCountStore.isBuilt(tagScope));
+                nodeArchiveService.restoreArchivedNode(archivedTagScope);
+                return null;
+            }
+        }, false, true);
+
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                TagScope restoredTagScope = taggingService.findTagScope(document);
+                assertEquals(tagScope, restoredTagScope.getNodeRef());
+                assertEquals(1, restoredTagScope.getTag(newTag).getCount());
+                return null;
+            }
+        }, true, true);
+
+        // Purging the archived tag scope drops its counts
+        transactionService.getRetryingTransactionHelper().doInTransaction(deleteCallback, false, true);
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>()
+        {
+            @Override
+            public Void execute() throws Throwable
+            {
+                nodeArchiveService.purgeArchivedNode(archivedTagScope);
+                assertFalse(tagCountStore.isBuilt(tagScope));
+                return null;
+            }
+        }, false, true);
+    }
+
     /**
      * @param nodeRef - {@link NodeRef} instance which represents tag scope folder
      * @return {@link ContentModel#PROP_TAGSCOPE_CACHE} {@link ContentData} property instance for the given <code>nodeRef</code> or
@@ -26,13 +26,38 @@
 package org.alfresco.repo.tenant;
 
 import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.error.AlfrescoRuntimeException;
 import org.alfresco.repo.content.AbstractContentStore;
 import org.alfresco.repo.content.ContentStore;
 import org.alfresco.repo.content.ContentStoreCaps;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class MultiTAdminServiceImplTest
 {
@@ -43,6 +68,12 @@ public class MultiTAdminServiceImplTest
     {
         tenantAdmin = new MultiTAdminServiceImpl();
     }
+    
+    @After
+    public void tearDown()
+    {
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
 
     @Test
     public void testTenantDeployer()
@@ -110,10 +141,271 @@ public class MultiTAdminServiceImplTest
         assertNull(router);
     }
     
-
+    @Test
+    public void testSelectWarmupTenantsMostRecentFirst()
+    {
+        Map<String, Long> tenantActivity = new HashMap<String, Long>();
+        tenantActivity.put("acme.com", 100L);
+        tenantActivity.put("example.com", 300L);
+        tenantActivity.put("disabled.com", 400L);
+        tenantActivity.put("test.org", 200L);
+        
+        List<String> enabledTenants = Arrays.asList("acme.com", "example.com", "test.org", "never.com");
+        
+        // disabled and never started tenants are not warmed up
+        assertEquals(Arrays.asList("example.com", "test.org", "acme.com"),
+                     MultiTAdminServiceImpl.selectWarmupTenants(enabledTenants, tenantActivity, 10));
+        assertEquals(Arrays.asList("example.com", "test.org"),
+                     MultiTAdminServiceImpl.selectWarmupTenants(enabledTenants, tenantActivity, 2));
+        assertTrue(MultiTAdminServiceImpl.selectWarmupTenants(enabledTenants, tenantActivity, 0).isEmpty());
+    }
+    
+    @Test
+    public void testTenantActivationStatistics()
+    {
+        TenantActivationStatistics stats = new TenantActivationStatistics("acme.com");
+        assertFalse(stats.isStarted());
+        assertFalse(stats.beginUnload());
+        
+        // only one caller may start the tenant
+        assertTrue(stats.beginStart());
+        assertFalse(stats.beginStart());
+        stats.failed();
+        assertEquals(1, stats.getFailures());
+        
+        assertTrue(stats.beginStart());
+        stats.started(30L);
+        assertTrue(stats.isStarted());
+        assertFalse(stats.beginStart());
+        assertTrue(stats.getLastAccessed() >= stats.getLastStarted());
+        
+        assertTrue(stats.beginUnload());
+        assertFalse(stats.isStarted());
+        assertEquals(1, stats.getUnloads());
+        
+        assertTrue(stats.beginStart());
+        stats.started(10L);
+        assertEquals(2, stats.getStarts());
+        assertEquals(10L, stats.getLastStartTime());
+        assertEquals(30L, stats.getMaxStartTime());
+        assertEquals(20L, stats.getAverageStartTime());
+    }
+    
+    @Test
+    public void testTenantInUseIsNotIdle()
+    {
+        TenantActivationStatistics stats = new TenantActivationStatistics("acme.com");
+        assertFalse(stats.isIdle(Long.MAX_VALUE));
+        assertTrue(stats.beginStart());
+        stats.started(10L);
+        assertTrue(stats.isIdle(Long.MAX_VALUE));
+        
+        // in use by two transactions
+        stats.entered(System.currentTimeMillis());
+        stats.entered(System.currentTimeMillis());
+        assertEquals(2, stats.getInUseCount());
+        assertFalse(stats.isIdle(Long.MAX_VALUE));
+        stats.exited(System.currentTimeMillis());
+        assertFalse(stats.isIdle(Long.MAX_VALUE));
+        
+        stats.exited(System.currentTimeMillis());
+        assertEquals(0, stats.getInUseCount());
+        assertTrue(stats.isIdle(Long.MAX_VALUE));
+        assertFalse(stats.isIdle(stats.getLastAccessed()));
+    }
+    
+    @Test
+    public void testBootstrapIsSerialByDefault()
+    {
+        ExecutorService executor = mock(ExecutorService.class);
+        RecordingTenantDeployer deployer = new RecordingTenantDeployer();
+        setUpBootstrap(executor, deployer);
+        
+        assertEquals(0, tenantAdmin.bootstrapTenants(Arrays.asList("acme.com", "example.com")));
+        
+        assertEquals(Arrays.asList("acme.com", "example.com"), deployer.enabledTenants);
+        assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), deployer.threads);
+        assertTrue(tenantAdmin.getTenantActivationStatistics("acme.com").isStarted());
+        assertTrue(tenantAdmin.getTenantActivationStatistics("example.com").isStarted());
+        verifyZeroInteractions(executor);
+    }
     
+    @Test
+    public void testParallelBootstrapWaitsForAllTenants() throws Exception
+    {
+        // each start waits for the other one, so they can only complete if run in parallel
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        RecordingTenantDeployer deployer = new RecordingTenantDeployer()
+        {
+            @Override
+            public void onEnableTenant()
+            {
+                try
+                {
+                    barrier.await(10, TimeUnit.SECONDS);
+                }
+                catch (Exception e)
+                {
+                    throw new RuntimeException(e);
+                }
+                super.onEnableTenant();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            setUpBootstrap(executor, deployer);
+            tenantAdmin.setParallelBootstrap(true);
+            
+            assertEquals(0, tenantAdmin.bootstrapTenants(Arrays.asList("acme.com", "example.com")));
+            
+            assertEquals(2, deployer.enabledTenants.size());
+            assertFalse(deployer.threads.contains(Thread.currentThread()));
+            assertTrue(tenantAdmin.getTenantActivationStatistics("acme.com").isStarted());
+            assertTrue(tenantAdmin.getTenantActivationStatistics("example.com").isStarted());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testAccessWaitsForTenantToStart() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingTenantDeployer deployer = new RecordingTenantDeployer()
+        {
+            @Override
+            public void onEnableTenant()
+            {
+                try
+                {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    throw new RuntimeException(e);
+                }
+                super.onEnableTenant();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            setUpBootstrap(executor, deployer);
+            tenantAdmin.setLazyBootstrap(true);
+            assertEquals(0, tenantAdmin.bootstrapTenants(Collections.<String>emptyList()));
+            
+            // two concurrent accesses of a tenant that has not been started
+            final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+            Thread[] accesses = new Thread[2];
+            for (int i = 0; i < accesses.length; i++)
+            {
+                accesses[i] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            tenantAdmin.onTenantAccess("lazy.com");
+                        }
+                        catch (Throwable e)
+                        {
+                            failures.add(e);
+                        }
+                    }
+                };
+                accesses[i].start();
+            }
+            
+            for (Thread access : accesses)
+            {
+                access.join(200);
+                assertTrue("Access should wait for the tenant to start", access.isAlive());
+            }
+            
+            release.countDown();
+            for (Thread access : accesses)
+            {
+                access.join(10000);
+                assertFalse(access.isAlive());
+            }
+            
+            assertTrue(failures.isEmpty());
+            assertEquals(Arrays.asList("lazy.com"), deployer.enabledTenants);
+            assertTrue(tenantAdmin.getTenantActivationStatistics("lazy.com").isStarted());
+            
+            // a started tenant is not started again
+            tenantAdmin.onTenantAccess("lazy.com");
+            assertEquals(1, deployer.enabledTenants.size());
+        }
+        finally
+        {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
     
+    @Test
+    public void testAccessFailsIfTenantFailsToStart()
+    {
+        RecordingTenantDeployer deployer = new RecordingTenantDeployer()
+        {
+            @Override
+            public void onEnableTenant()
+            {
+                throw new IllegalStateException("Cannot start");
+            }
+        };
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            setUpBootstrap(executor, deployer);
+            tenantAdmin.setLazyBootstrap(true);
+            tenantAdmin.bootstrapTenants(Collections.<String>emptyList());
+            
+            try
+            {
+                tenantAdmin.onTenantAccess("broken.com");
+                fail("Access to a tenant that failed to start should fail");
+            }
+            catch (AlfrescoRuntimeException e)
+            {
+                // expected
+            }
+            assertFalse(tenantAdmin.getTenantActivationStatistics("broken.com").isStarted());
+            assertEquals(1, tenantAdmin.getTenantActivationStatistics("broken.com").getFailures());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
     
+    /**
+     * Start tenants with the given executor and deployer, running each start in a (read-only) transaction
+     */
+    @SuppressWarnings("unchecked")
+    private void setUpBootstrap(ExecutorService executor, TenantDeployer deployer)
+    {
+        RetryingTransactionHelper txnHelper = mock(RetryingTransactionHelper.class);
+        when(txnHelper.doInTransaction(any(RetryingTransactionCallback.class), anyBoolean(), anyBoolean())).thenAnswer(new Answer<Object>()
+        {
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                return ((RetryingTransactionCallback<Object>) invocation.getArguments()[0]).execute();
+            }
+        });
+        TransactionService transactionService = mock(TransactionService.class);
+        when(transactionService.isReadOnly()).thenReturn(true);
+        when(transactionService.getRetryingTransactionHelper()).thenReturn(txnHelper);
+        
+        tenantAdmin.setTransactionService(transactionService);
+        tenantAdmin.setTenantBootstrapExecutor(executor);
+        tenantAdmin.register(deployer);
+    }
+
 
     // This is implemented by the CryptodocSubsystemProxyFactory in real life.
     private static class FakeSubsystemProxy extends BaseStore implements ContentStoreCaps
@@ -163,6 +455,34 @@ public class MultiTAdminServiceImplTest
         }
     }
     
+    private static class RecordingTenantDeployer implements TenantDeployer
+    {
+        final List<String> enabledTenants = new CopyOnWriteArrayList<String>();
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        
+        @Override
+        public void onEnableTenant()
+        {
+            enabledTenants.add(TenantUtil.getCurrentDomain());
+            threads.add(Thread.currentThread());
+        }
+
+        @Override
+        public void onDisableTenant()
+        {
+        }
+
+        @Override
+        public void init()
+        {
+        }
+
+        @Override
+        public void destroy()
+        {
+        }
+    }
+    
     private static class ConcreteTenantRoutingContentStore extends BaseStore implements TenantRoutingContentStore
     {
         @Override
@@ -0,0 +1,214 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transfer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.transfer.TransferException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Unit test of the {@link ContentSender}
+ */
+public class ContentSenderTest
+{
+    private ExecutorService executor;
+    private TransferTransmitter transmitter;
+    private Transfer transfer;
+
+    @Before
+    public void setUp()
+    {
+        AuthenticationUtil.setFullyAuthenticatedUser(AuthenticationUtil.getAdminUserName());
+        executor = Executors.newFixedThreadPool(4);
+        transmitter = Mockito.mock(TransferTransmitter.class);
+        transfer = new Transfer();
+        transfer.setTransferId("transfer");
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+        AuthenticationUtil.clearCurrentSecurityContext();
+    }
+
+    @Test
+    public void testSendsOnCallingThreadWithoutExecutor()
+    {
+        final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                threads.add(Thread.currentThread());
+                return null;
+            }
+        }).when(transmitter).sendContent(Mockito.same(transfer), Mockito.<Set<ContentData>>any());
+
+        ContentSender sender = new ContentSender(transmitter, transfer, null, 2);
+        sender.send(chunk("a", 10));
+        sender.send(chunk("b", 20));
+        sender.skipped();
+        sender.waitForCompletion();
+
+        assertEquals(2, threads.size());
+        assertSame(Thread.currentThread(), threads.get(0));
+        assertSame(Thread.currentThread(), threads.get(1));
+        assertEquals(2, sender.getChunkCount());
+        assertEquals(2, sender.getParts());
+        assertEquals(30, sender.getSize());
+        assertEquals(1, sender.getSkippedParts());
+    }
+
+    @Test
+    public void testChunksInFlightAreBounded() throws Exception
+    {
+        final AtomicInteger sending = new AtomicInteger();
+        final AtomicInteger maxSending = new AtomicInteger();
+        final List<String> runAsUsers = new CopyOnWriteArrayList<String>();
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                int now = sending.incrementAndGet();
+                synchronized (maxSending)
+                {
+                    maxSending.set(Math.max(maxSending.get(), now));
+                }
+                runAsUsers.add(AuthenticationUtil.getRunAsUser());
+                Thread.sleep(20);
+                sending.decrementAndGet();
+                return null;
+            }
+        }).when(transmitter).sendContent(Mockito.same(transfer), Mockito.<Set<ContentData>>any());
+
+        ContentSender sender = new ContentSender(transmitter, transfer, executor, 2);
+        for (int i = 0; i < 10; i++)
+        {
+            sender.send(chunk("chunk" + i, 5));
+        }
+        sender.waitForCompletion();
+
+        assertEquals(10, sender.getParts());
+        assertEquals(50, sender.getSize());
+        assertTrue("More than 2 chunks in flight: " + maxSending.get(), maxSending.get() <= 2);
+        assertEquals(Collections.nCopies(10, AuthenticationUtil.getAdminUserName()), runAsUsers);
+    }
+
+    @Test
+    public void testWaitForFirstChunksLeavesLaterChunksInFlight() throws Exception
+    {
+        final CountDownLatch releaseSecond = new CountDownLatch(1);
+        final Set<ContentData> first = chunk("first", 1);
+        final Set<ContentData> second = chunk("second", 1);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (invocation.getArguments()[1].equals(second))
+                {
+                    assertTrue(releaseSecond.await(10, TimeUnit.SECONDS));
+                }
+                return null;
+            }
+        }).when(transmitter).sendContent(Mockito.same(transfer), Mockito.<Set<ContentData>>any());
+
+        ContentSender sender = new ContentSender(transmitter, transfer, executor, 4);
+        sender.send(first);
+        long firstChunks = sender.getChunkCount();
+        sender.send(second);
+
+        // returns although the second chunk is still being sent
+        sender.waitForCompletion(firstChunks);
+        assertEquals(1, sender.getParts());
+
+        releaseSecond.countDown();
+        sender.waitForCompletion();
+        assertEquals(2, sender.getParts());
+    }
+
+    @Test
+    public void testFailedChunkIsRethrown() throws Exception
+    {
+        final TransferException failure = new TransferException("send failed");
+        final Set<ContentData> bad = chunk("bad", 1);
+        Mockito.doAnswer(new Answer<Void>()
+        {
+            public Void answer(InvocationOnMock invocation) throws Throwable
+            {
+                if (invocation.getArguments()[1].equals(bad))
+                {
+                    throw failure;
+                }
+                return null;
+            }
+        }).when(transmitter).sendContent(Mockito.same(transfer), Mockito.<Set<ContentData>>any());
+
+        ContentSender sender = new ContentSender(transmitter, transfer, executor, 2);
+        sender.send(chunk("good", 1));
+        sender.send(bad);
+        sender.send(chunk("later", 1));
+        try
+        {
+            sender.waitForCompletion();
+            fail("The failure of a chunk should be rethrown");
+        }
+        catch (TransferException e)
+        {
+            assertSame(failure, e);
+        }
+        finally
+        {
+            sender.cancel();
+        }
+    }
+
+    private Set<ContentData> chunk(String name, long size)
+    {
+        return Collections.singleton(new ContentData("store://" + name, "text/plain", size, "UTF-8"));
+    }
+}
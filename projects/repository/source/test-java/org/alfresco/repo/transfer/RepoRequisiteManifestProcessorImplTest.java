@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.transfer;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.transfer.manifest.TransferManifestNormalNode;
+import org.alfresco.repo.transfer.requisite.TransferRequsiteWriter;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.Path;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.transfer.TransferProgressMonitor;
+import org.alfresco.service.cmr.transfer.TransferReceiver;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of the content hash comparison made by the {@link RepoRequisiteManifestProcessorImpl}
+ */
+public class RepoRequisiteManifestProcessorImplTest
+{
+    private static final String TRANSFER_ID = "transfer";
+    private static final String SRC_URL = "store://2016/1/1/source.bin";
+    private static final String DEST_URL = "store://2016/1/1/dest.bin";
+
+    private NodeService nodeService;
+    private ContentHashStore contentHashStore;
+    private TransferRequsiteWriter out;
+    private RepoRequisiteManifestProcessorImpl processor;
+
+    private NodeRef srcNode;
+    private NodeRef destNode;
+    private ChildAssociationRef primaryParentAssoc;
+
+    @Before
+    public void setUp()
+    {
+        TransferReceiver receiver = mock(TransferReceiver.class);
+        when(receiver.getProgressMonitor()).thenReturn(mock(TransferProgressMonitor.class));
+        nodeService = mock(NodeService.class);
+        contentHashStore = mock(ContentHashStore.class);
+        out = mock(TransferRequsiteWriter.class);
+
+        StoreRef store = StoreRef.STORE_REF_WORKSPACE_SPACESSTORE;
+        srcNode = new NodeRef(store, "source");
+        destNode = new NodeRef(store, "destination");
+        NodeRef parent = new NodeRef(store, "parent");
+        primaryParentAssoc = new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, parent,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "source"), srcNode);
+
+        CorrespondingNodeResolver nodeResolver = mock(CorrespondingNodeResolver.class);
+        when(nodeResolver.resolveCorrespondingNode(any(NodeRef.class), any(ChildAssociationRef.class), any(Path.class)))
+                .thenReturn(new CorrespondingNodeResolver.ResolvedParentChildPair(parent, destNode));
+
+        processor = new RepoRequisiteManifestProcessorImpl(receiver, TRANSFER_ID, out);
+        processor.setNodeService(nodeService);
+        processor.setNodeResolver(nodeResolver);
+        processor.setContentHashStore(contentHashStore);
+    }
+
+    @Test
+    public void testSameHashSkipsContent()
+    {
+        givenDestinationContent(content(DEST_URL, 100));
+        when(contentHashStore.getOrComputeHash(DEST_URL)).thenReturn("hash");
+
+        processor.processTransferManifestNode(sourceNode(content(SRC_URL, 100), "hash"));
+
+        verify(contentHashStore).getOrComputeHash(DEST_URL);
+        verify(out, never()).missingContent(any(NodeRef.class), any(QName.class), anyString());
+    }
+
+    @Test
+    public void testDifferentHashRequestsContent()
+    {
+        givenDestinationContent(content(DEST_URL, 100));
+        when(contentHashStore.getOrComputeHash(DEST_URL)).thenReturn("other");
+
+        processor.processTransferManifestNode(sourceNode(content(SRC_URL, 100), "hash"));
+
+        verify(out).missingContent(srcNode, ContentModel.PROP_CONTENT, TransferCommons.URLToPartName(SRC_URL));
+    }
+
+    @Test
+    public void testNoHashSentRequestsContent()
+    {
+        givenDestinationContent(content(DEST_URL, 100));
+
+        processor.processTransferManifestNode(sourceNode(content(SRC_URL, 100), null));
+
+        verify(contentHashStore, never()).getOrComputeHash(anyString());
+        verify(out).missingContent(srcNode, ContentModel.PROP_CONTENT, TransferCommons.URLToPartName(SRC_URL));
+    }
+
+    @Test
+    public void testDifferentSizeIsNotHashed()
+    {
+        givenDestinationContent(content(DEST_URL, 99));
+
+        processor.processTransferManifestNode(sourceNode(content(SRC_URL, 100), "hash"));
+
+        verify(contentHashStore, never()).getOrComputeHash(anyString());
+        verify(out).missingContent(srcNode, ContentModel.PROP_CONTENT, TransferCommons.URLToPartName(SRC_URL));
+    }
+
+    private void givenDestinationContent(ContentData destContent)
+    {
+        Map<QName, Serializable> destProps = new HashMap<QName, Serializable>();
+        destProps.put(ContentModel.PROP_CONTENT, destContent);
+        when(nodeService.getProperties(destNode)).thenReturn(destProps);
+    }
+
+    private TransferManifestNormalNode sourceNode(ContentData srcContent, String hash)
+    {
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(ContentModel.PROP_CONTENT, srcContent);
+
+        TransferManifestNormalNode node = new TransferManifestNormalNode();
+        node.setNodeRef(srcNode);
+        node.setPrimaryParentAssoc(primaryParentAssoc);
+        node.setProperties(props);
+        if (hash != null)
+        {
+            node.setContentHashes(Collections.singletonMap(srcContent.getContentUrl(), hash));
+        }
+        return node;
+    }
+
+    private ContentData content(String url, long size)
+    {
+        return new ContentData(url, "application/octet-stream", size, "UTF-8", Locale.ENGLISH);
+    }
+}
@@ -184,6 +184,55 @@ public class UnitTestInProcessTransmitterImpl implements TransferTransmitter
         }, false, true);
     }
 
+    public void sendManifestSegment(final Transfer transfer, final int segment, final File manifest, final OutputStream result) throws TransferException
+    {
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                try
+                {
+                    String transferId = transfer.getTransferId();
+                    FileInputStream fs = new FileInputStream(manifest);
+                    receiver.saveSnapshotSegment(transferId, segment, fs);
+
+                    // Now get the requsite for the segment
+                    try
+                    {
+                        receiver.generateSegmentRequsite(transferId, segment, result);
+                        result.close();
+
+                        return null;
+
+                    }
+                    catch(IOException ie)
+                    {
+                        log.error("Error in unit test code: should not get this", ie);
+                        return null;
+                    }
+
+                }
+                catch (FileNotFoundException error)
+                {
+                    throw new TransferException("test error", error);
+                }
+            }
+        }, false, true);
+    }
+
+    public void commitSegment(final Transfer transfer, final int segment) throws TransferException
+    {
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Void>()
+        {
+            public Void execute() throws Throwable
+            {
+                String transferId = transfer.getTransferId();
+                receiver.commitSegment(transferId, segment);
+                return null;
+            }
+        }, false, true);
+    }
+
     public void verifyTarget(TransferTarget target) throws TransferException
     {
 
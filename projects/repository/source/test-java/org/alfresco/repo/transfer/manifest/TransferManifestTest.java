@@ -203,6 +203,10 @@ public class TransferManifestTest extends TestCase
         
         node.setProperties(properties);
         
+        Map<String, String> contentHashes = new HashMap<String, String>();
+        contentHashes.put("http://wibble", "0123456789abcdef");
+        node.setContentHashes(contentHashes);
+        
         node.setType(QName.createQName("{gsxhjsx}", "trx:nsbbmbs"));
         
         List<AssociationRef> targetAssocs = new ArrayList<AssociationRef>();
@@ -284,6 +288,8 @@ public class TransferManifestTest extends TestCase
         assertNotNull("rxNodeA is null", rxNodeA);
         
         Map<QName, Serializable> rxNodeAProps = rxNodeA.getProperties();
+        assertNotNull("content hashes not read", rxNodeA.getContentHashes());
+        assertEquals("content hash not read", "0123456789abcdef", rxNodeA.getContentHashes().get("http://wibble"));
         System.out.println(rxNodeAProps.get(QName.createQName("{gsxhjsx}", "trx:password")));
         for(Map.Entry<QName, Serializable> value : rxNodeAProps.entrySet())
         {
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * Alfresco Repository
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.repo.usage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.alfresco.repo.cache.MemoryCache;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.domain.usage.UsageDAO;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+/**
+ * Tests the cached delta totals of the {@link UsageServiceImpl}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class UsageServiceImplTest
+{
+    private static final NodeRef PERSON = new NodeRef("workspace://SpacesStore/usage-person");
+    
+    private @Mock UsageDAO usageDAO;
+    private SimpleCache<NodeRef, Long> usageDeltaSizeCache;
+    private UsageServiceImpl usageService;
+    
+    @Before
+    public void setUp()
+    {
+        usageDeltaSizeCache = new MemoryCache<NodeRef, Long>();
+        usageService = new UsageServiceImpl();
+        usageService.setUsageDAO(usageDAO);
+        usageService.setUsageDeltaSizeCache(usageDeltaSizeCache);
+        usageService.setCoalesceDeltas(false);
+    }
+    
+    @Test
+    public void testWriteAfterCacheMiss()
+    {
+        // Nothing cached for the person when the delta is written
+        when(usageDAO.getTotalDeltaSize(PERSON, false)).thenReturn(15L);
+        
+        usageService.insertDelta(PERSON, 5L);
+        verify(usageDAO).insertDelta(PERSON, 5L);
+        assertNull(usageDeltaSizeCache.get(PERSON));
+        
+        assertEquals(15L, usageService.getTotalDeltaSize(PERSON));
+        assertEquals(Long.valueOf(15L), usageDeltaSizeCache.get(PERSON));
+    }
+    
+    @Test
+    public void testWriteInvalidatesCachedTotal()
+    {
+        when(usageDAO.getTotalDeltaSize(PERSON, false)).thenReturn(10L, 15L);
+        
+        assertEquals(10L, usageService.getTotalDeltaSize(PERSON));
+        assertEquals(10L, usageService.getTotalDeltaSize(PERSON));
+        verify(usageDAO, times(1)).getTotalDeltaSize(PERSON, false);
+        
+        usageService.insertDelta(PERSON, 5L);
+        assertNull(usageDeltaSizeCache.get(PERSON));
+        assertEquals(15L, usageService.getTotalDeltaSize(PERSON));
+        verify(usageDAO, times(2)).getTotalDeltaSize(PERSON, false);
+    }
+    
+    @Test
+    public void testCollapseInvalidatesCachedTotal()
+    {
+        when(usageDAO.getTotalDeltaSize(PERSON, false)).thenReturn(10L, 0L);
+        when(usageDAO.getTotalDeltaSize(PERSON, true)).thenReturn(10L);
+        
+        assertEquals(10L, usageService.getTotalDeltaSize(PERSON));
+        assertEquals(10L, usageService.getAndRemoveTotalDeltaSize(PERSON));
+        assertNull(usageDeltaSizeCache.get(PERSON));
+        assertEquals(0L, usageService.getTotalDeltaSize(PERSON));
+    }
+}
@@ -382,6 +382,62 @@ public class UserUsageTest extends TestCase
         delete(folder);
     }
     
+    public void testCollapseCoalescedDeltasAcrossTx() throws Exception
+    {
+        if(!contentUsageImpl.getEnabled())
+        {
+            return;
+        }
+        
+        runAs(TEST_USER);
+        
+        assertEquals(0, contentUsageImpl.getUserUsage(TEST_USER));
+        
+        NodeRef folder = this.nodeService.createNode(
+                this.rootNodeRef, 
+                ContentModel.ASSOC_CHILDREN, 
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, "testFolder"),
+                ContentModel.TYPE_FOLDER).getChildRef();
+        
+        // several changes for the same user are written as one delta on commit
+        NodeRef content1 = addTextContent(folder, "tqbfjotld.txt", "The quick brown fox jumps over the lazy dog"); // + 43
+        NodeRef content2 = addTextContent(folder, "afdpj.txt", "Amazingly few discotheques provide jukeboxes"); // + 44
+        updateTextContent(content1, "Few black taxis drive up major roads on quiet hazy nights"); // -43 + 57 = +14
+        assertEquals(101, contentUsageImpl.getUserUsage(TEST_USER));
+        
+        testTX.commit();
+        
+        testTX = transactionService.getUserTransaction();
+        testTX.begin();
+        runAs(TEST_USER);
+        
+        assertEquals(101, contentUsageImpl.getUserUsage(TEST_USER));
+        assertTrue(usageService.getUsageDeltaNodes().contains(personNodeRef));
+        
+        // collapse, as the UserUsageCollapseJob does
+        long usage = contentUsageImpl.getUserUsage(personNodeRef, true);
+        contentUsageImpl.setUserStoredUsage(personNodeRef, usage);
+        assertEquals(101, usage);
+        assertEquals(0, usageService.getTotalDeltaSize(personNodeRef));
+        assertEquals(101, contentUsageImpl.getUserUsage(TEST_USER));
+        
+        testTX.commit();
+        
+        testTX = transactionService.getUserTransaction();
+        testTX.begin();
+        runAs(TEST_USER);
+        
+        assertEquals(0, usageService.getTotalDeltaSize(personNodeRef));
+        assertEquals(101, contentUsageImpl.getUserUsage(TEST_USER));
+        
+        delete(content1);
+        delete(content2);
+        assertEquals(0, contentUsageImpl.getUserUsage(TEST_USER));
+        
+        // delete folder to cleanup
+        delete(folder);
+    }
+    
     public void testCreateDeleteRestoreInTx() throws Exception
     {
         if(!contentUsageImpl.getEnabled())
@@ -25,7 +25,10 @@
  */
 package org.alfresco.solr.client;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -100,6 +103,7 @@ public class SOLRAPIClient
     private static final String GET_METADATA_URL = "api/solr/metadata";
     private static final String GET_NODES_URL = "api/solr/nodes";
     private static final String GET_CONTENT = "api/solr/textContent";
+    private static final String GET_TEXT_CONTENTS = "api/solr/textContents";
     private static final String GET_MODEL = "api/solr/model";
     private static final String GET_MODELS_DIFF = "api/solr/modelsdiff";
 
@@ -1104,6 +1108,44 @@ public class SOLRAPIClient
         return new GetTextContentResponse(response);
     }
     
+    /**
+     * Get the text content of a property of many nodes in one request.  The repository transforms content shared
+     * by several of the nodes only once.
+     * 
+     * @param nodeIds                       the nodes to get the text of (not <tt>null</tt> or empty)
+     * @param propertyQName                 the content property (optional, cm:content if <tt>null</tt>)
+     * @return                              a response that must be read in order and then released
+     */
+    public GetTextContentsResponse getTextContents(List<Long> nodeIds, QName propertyQName) throws AuthenticationException, IOException, JSONException
+    {
+        if(nodeIds == null || nodeIds.isEmpty())
+        {
+            throw new IllegalArgumentException("getTextContents(): nodeIds cannot be null or empty.");
+        }
+        
+        JSONObject jsonReq = new JSONObject();
+        JSONArray nodeIdsJSON = new JSONArray();
+        for (Long nodeId : nodeIds)
+        {
+            nodeIdsJSON.put(nodeId);
+        }
+        jsonReq.put("nodeIds", nodeIdsJSON);
+        if(propertyQName != null)
+        {
+            jsonReq.put("propertyQName", propertyQName.toString());
+        }
+        
+        PostRequest req = new PostRequest(GET_TEXT_CONTENTS, jsonReq.toString(), "application/json");
+        Response response = repositoryHttpClient.sendRequest(req);
+        if(response.getStatus() != HttpStatus.SC_OK)
+        {
+            response.release();
+            throw new AlfrescoRuntimeException(GET_TEXT_CONTENTS + " return status:" + response.getStatus());
+        }
+        
+        return new GetTextContentsResponse(response);
+    }
+    
     public AlfrescoModel getModel(QName modelName) throws AuthenticationException, IOException, JSONException
     {
         // If the model is new to the SOLR side the prefix will be unknown so we can not generate prefixes for the request!
@@ -1534,6 +1576,165 @@ public class SOLRAPIClient
         }
     }
 
+    /**
+     * The text content of many nodes, read one node at a time in the order requested.
+     */
+    public static class GetTextContentsResponse extends SOLRResponse
+    {
+        private DataInputStream in;
+        private TextContent current;
+
+        public GetTextContentsResponse(Response response) throws IOException
+        {
+            super(response);
+            this.in = new DataInputStream(new BufferedInputStream(response.getContentAsStream(), 65536));
+        }
+
+        /**
+         * Move to the text of the next node, skipping any of the current text that was not read.
+         * 
+         * @return                          the text of the next node or <tt>null</tt> if there are no more
+         */
+        public TextContent next() throws IOException
+        {
+            if(current != null)
+            {
+                current.skip();
+                current = null;
+            }
+            try
+            {
+                long nodeId = in.readLong();
+                if(nodeId < 0)
+                {
+                    return null;
+                }
+                String statusStr = in.readUTF();
+                long duration = in.readLong();
+                String exception = in.readUTF();
+                long length = in.readLong();
+                current = new TextContent(in, nodeId, statusStr, duration, exception, length);
+                return current;
+            }
+            catch(EOFException e)
+            {
+                throw new AlfrescoRuntimeException(GET_TEXT_CONTENTS + " response ended early", e);
+            }
+        }
+
+        public void release()
+        {
+            response.release();
+        }
+    }
+    
+    /**
+     * The text content of one node in a {@link GetTextContentsResponse}
+     */
+    public static class TextContent
+    {
+        private final long nodeId;
+        private final SolrApiContentStatus status;
+        private final Long transformDuration;
+        private final String transformException;
+        private final InputStream content;
+        private final DataInputStream in;
+        private long remaining;
+
+        TextContent(DataInputStream in, long nodeId, String statusStr, long duration, String exception, long length)
+        {
+            this.in = in;
+            this.nodeId = nodeId;
+            this.status = SolrApiContentStatus.getStatus(statusStr);
+            this.transformDuration = (duration < 0 ? null : Long.valueOf(duration));
+            this.transformException = (exception.length() == 0 ? null : exception);
+            this.remaining = Math.max(0L, length);
+            this.content = (length < 0 ? null : new InputStream()
+            {
+                @Override
+                public int read() throws IOException
+                {
+                    if(remaining <= 0)
+                    {
+                        return -1;
+                    }
+                    int b = TextContent.this.in.read();
+                    if(b >= 0)
+                    {
+                        remaining--;
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException
+                {
+                    if(remaining <= 0)
+                    {
+                        return -1;
+                    }
+                    int read = TextContent.this.in.read(b, off, (int)Math.min(len, remaining));
+                    if(read > 0)
+                    {
+                        remaining -= read;
+                    }
+                    return read;
+                }
+                
+                @Override
+                public void close()
+                {
+                    // The stream is shared with the following nodes
+                }
+            });
+        }
+        
+        private void skip() throws IOException
+        {
+            while(remaining > 0)
+            {
+                long skipped = in.skip(remaining);
+                if(skipped <= 0)
+                {
+                    if(in.read() < 0)
+                    {
+                        throw new EOFException();
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        public long getNodeId()
+        {
+            return nodeId;
+        }
+
+        public SolrApiContentStatus getStatus()
+        {
+            return status;
+        }
+
+        public Long getTransformDuration()
+        {
+            return transformDuration;
+        }
+
+        public String getTransformException()
+        {
+            return transformException;
+        }
+
+        /**
+         * @return                          the UTF-8 text, valid until the next node is read, or <tt>null</tt> if there is none
+         */
+        public InputStream getContent()
+        {
+            return content;
+        }
+    }
+
     public void close()
     {
        repositoryHttpClient.close();
@@ -60,6 +60,12 @@ public class TrackerStats
     ConcurrentHashMap<String, IncrementalStats> elapsedAclTimes = new ConcurrentHashMap<String, IncrementalStats>();
     
     ConcurrentHashMap<String, IncrementalStats> elapsedContentTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    
+    ConcurrentHashMap<String, IncrementalStats> nodeFetchTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    
+    ConcurrentHashMap<String, IncrementalStats> nodeBuildTimes = new ConcurrentHashMap<String, IncrementalStats>();
+    
+    ConcurrentHashMap<String, IncrementalStats> nodeAddTimes = new ConcurrentHashMap<String, IncrementalStats>();
 
     private InformationServerCollectionProvider infoSrv;
     
@@ -169,6 +175,30 @@ public class TrackerStats
         return aggregateResults(docTransformationTimes);
     }
 
+    /**
+     * @return the time per node to fetch node metadata from the repository
+     */
+    public SimpleStats getNodeFetchTimes()
+    {
+        return aggregateResults(nodeFetchTimes);
+    }
+
+    /**
+     * @return the time per node to build and cache its doc
+     */
+    public SimpleStats getNodeBuildTimes()
+    {
+        return aggregateResults(nodeBuildTimes);
+    }
+
+    /**
+     * @return the time per node to add its doc to the index
+     */
+    public SimpleStats getNodeAddTimes()
+    {
+        return aggregateResults(nodeAddTimes);
+    }
+
     public double getMeanModelSyncTime()
     {
         return aggregateResults(modelTimes).getMean();
@@ -915,6 +945,57 @@ public class TrackerStats
         
     }
     
+    /**
+     * @param docCount int
+     * @param time long
+     */
+    public void addNodeFetchTime(int docCount, long time)
+    {
+        if(docCount < 1)
+        {
+            return;
+        }
+        IncrementalStats stats = nodeFetchTimes.get(Thread.currentThread().getName());
+        if (stats == null)
+        {
+            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
+            nodeFetchTimes.put(Thread.currentThread().getName(), stats);
+        }
+        long meanTime = time / docCount;
+        for(int i = 0; i < docCount; i++)
+        {
+            stats.add(meanTime);
+        }
+    }
+    
+    /**
+     * @param time long
+     */
+    public void addNodeBuildTime(long time)
+    {
+        IncrementalStats stats = nodeBuildTimes.get(Thread.currentThread().getName());
+        if (stats == null)
+        {
+            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
+            nodeBuildTimes.put(Thread.currentThread().getName(), stats);
+        }
+        stats.add(time);
+    }
+    
+    /**
+     * @param time long
+     */
+    public void addNodeAddTime(long time)
+    {
+        IncrementalStats stats = nodeAddTimes.get(Thread.currentThread().getName());
+        if (stats == null)
+        {
+            stats = new IncrementalStats(TIME_SCALE, 50, this.infoSrv);
+            nodeAddTimes.put(Thread.currentThread().getName(), stats);
+        }
+        stats.add(time);
+    }
+    
     /**
      * @param size int
      */
@@ -980,6 +1061,9 @@ public class TrackerStats
         txDocs.clear();
         docTransformationTimes.clear();
         nodeTimes.clear();
+        nodeFetchTimes.clear();
+        nodeBuildTimes.clear();
+        nodeAddTimes.clear();
     }
 
  
@@ -51,12 +51,16 @@ import org.alfresco.solr.adapters.IOpenBitSet;
 import org.alfresco.solr.client.Node;
 import org.alfresco.solr.tracker.AclTracker;
 import org.alfresco.solr.tracker.ContentTracker;
+import org.alfresco.solr.tracker.IncrementalIndexHealthChecker;
+import org.alfresco.solr.tracker.IncrementalIndexHealthChecker.RangeHealth;
 import org.alfresco.solr.tracker.IndexHealthReport;
 import org.alfresco.solr.tracker.MetadataTracker;
 import org.alfresco.solr.tracker.ModelTracker;
 import org.alfresco.solr.tracker.SolrTrackerScheduler;
 import org.alfresco.solr.tracker.Tracker;
 import org.alfresco.solr.tracker.TrackerRegistry;
+import org.alfresco.solr.tracker.pool.AdaptiveTrackerPoolManager;
+import org.alfresco.solr.tracker.pool.AdaptiveTrackerPoolManager.ManagedPool;
 import org.alfresco.util.CachingDateFormat;
 import org.alfresco.util.shard.ExplicitShardingPolicy;
 import org.apache.commons.codec.EncoderException;
@@ -287,6 +291,26 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                     }
                 }
             }
+            else if (a.equalsIgnoreCase("RANGEHEALTH"))
+            {
+                NamedList<Object> report = new SimpleOrderedMap<Object>();
+                if (cname != null)
+                {
+                    actionRANGEHEALTH(params, report, cname);
+                }
+                else
+                {
+                    for (String coreName : getTrackerRegistry().getCoreNames())
+                    {
+                        actionRANGEHEALTH(params, report, coreName);
+                    }
+                }
+                rsp.add("report", report);
+            }
+            else if (a.equalsIgnoreCase("TRACKERPOOLS"))
+            {
+                rsp.add("report", actionTRACKERPOOLS(cname));
+            }
             else if (a.equalsIgnoreCase("SUMMARY"))
             {
                 if (cname != null)
@@ -1043,6 +1067,82 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
         }
     }
 
+    private void actionRANGEHEALTH(SolrParams params, NamedList<Object> report, String coreName)
+    {
+        MetadataTracker metadataTracker = trackerRegistry.getTrackerForCore(coreName, MetadataTracker.class);
+        IncrementalIndexHealthChecker healthChecker = metadataTracker == null ? null : metadataTracker.getHealthChecker();
+        if (healthChecker == null)
+        {
+            report.add(coreName, "Incremental index health checking is not enabled");
+            return;
+        }
+        if (getSafeBoolean(params, "recheck"))
+        {
+            healthChecker.markAllRangesTouched();
+        }
+
+        NamedList<Object> coreReport = new SimpleOrderedMap<Object>();
+        coreReport.add("Range size", healthChecker.getRangeSize());
+        coreReport.add("Ranges checked", healthChecker.getCheckedRangeCount());
+        coreReport.add("Ranges touched since last check", healthChecker.getTouchedRangeCount());
+        coreReport.add("Last run", new Date(healthChecker.getLastRunTime()));
+        coreReport.add("Last run duration (ms)", healthChecker.getLastRunDuration());
+        coreReport.add("Last run ranges checked", healthChecker.getLastRunRangesChecked());
+        if (healthChecker.getLastRunError() != null)
+        {
+            coreReport.add("Last run error", healthChecker.getLastRunError());
+        }
+
+        List<RangeHealth> unhealthyRanges = healthChecker.getUnhealthyRanges();
+        coreReport.add("Unhealthy ranges", unhealthyRanges.size());
+        NamedList<Object> ranges = new SimpleOrderedMap<Object>();
+        for (RangeHealth health : unhealthyRanges)
+        {
+            long firstTxId = health.getRangeId() * healthChecker.getRangeSize();
+            NamedList<Object> range = new SimpleOrderedMap<Object>();
+            range.add("Checked", new Date(health.getCheckedTime()));
+            range.add("DB TX count", health.getDbChecksum().getCount());
+            range.add("Index TX count", health.getIndexChecksum().getCount());
+            range.add("Index duplicated TX count", health.getIndexChecksum().getDuplicates());
+            range.add("Missing from index", health.getMissingTxFromIndex());
+            range.add("In index but not DB", health.getTxInIndexButNotInDb());
+            range.add("Duplicated in index", health.getDuplicatedTxInIndex());
+            ranges.add(firstTxId + "-" + (firstTxId + healthChecker.getRangeSize() - 1), range);
+        }
+        coreReport.add("Ranges", ranges);
+        report.add(coreName, coreReport);
+    }
+
+    private NamedList<Object> actionTRACKERPOOLS(String cname)
+    {
+        AdaptiveTrackerPoolManager poolManager = AdaptiveTrackerPoolManager.getInstance();
+        NamedList<Object> report = new SimpleOrderedMap<Object>();
+        report.add("Max threads", poolManager.getMaxThreads());
+        report.add("Thread budget", poolManager.getBudget());
+        report.add("System load per processor", poolManager.getLoadRatio());
+        report.add("Last rebalance", new Date(poolManager.getLastRebalanceTime()));
+
+        NamedList<Object> pools = new SimpleOrderedMap<Object>();
+        for (ManagedPool pool : poolManager.getPools())
+        {
+            if (cname != null && !cname.equals(pool.getCoreName()))
+            {
+                continue;
+            }
+            NamedList<Object> poolReport = new SimpleOrderedMap<Object>();
+            poolReport.add("Priority", pool.getPriority());
+            poolReport.add("Threads", pool.getPoolSize());
+            poolReport.add("Max threads", pool.getMaxSize());
+            poolReport.add("Queued and running tasks", pool.getDemand());
+            poolReport.add("Completed tasks", pool.getCompletedTasks());
+            poolReport.add("Mean task time (ms)", pool.getMeanTaskTime());
+            poolReport.add("Latency factor", pool.getLatencyFactor());
+            pools.add(pool.getCoreName() + "-" + pool.getTrackerName(), poolReport);
+        }
+        report.add("Pools", pools);
+        return report;
+    }
+
     private void actionSUMMARY(SolrParams params, NamedList<Object> report, String coreName) throws IOException
     {
         boolean detail = getSafeBoolean(params, "detail");
@@ -1230,6 +1330,12 @@ public class AlfrescoCoreAdminHandler extends CoreAdminHandler
                     srv.getTrackerStats().getAclTimes().getNamedList(detail, hist, values));
         coreSummary.add("Node index time (ms)",
                     srv.getTrackerStats().getNodeTimes().getNamedList(detail, hist, values));
+        coreSummary.add("Node fetch time (ms)",
+                    srv.getTrackerStats().getNodeFetchTimes().getNamedList(detail, hist, values));
+        coreSummary.add("Node doc build time (ms)",
+                    srv.getTrackerStats().getNodeBuildTimes().getNamedList(detail, hist, values));
+        coreSummary.add("Node doc add time (ms)",
+                    srv.getTrackerStats().getNodeAddTimes().getNamedList(detail, hist, values));
         coreSummary.add("Docs/Tx", srv.getTrackerStats().getTxDocs().getNamedList(detail, hist, values));
         coreSummary.add("Doc Transformation time (ms)", srv.getTrackerStats().getDocTransformationTimes()
                     .getNamedList(detail, hist, values));
@@ -39,10 +39,12 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.alfresco.error.AlfrescoRuntimeException;
@@ -86,12 +88,15 @@ import org.alfresco.service.cmr.dictionary.ModelDefinition;
 import org.alfresco.service.cmr.dictionary.PropertyDefinition;
 import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.service.cmr.search.SearchParameters;
+import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.namespace.NamespaceException;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.solr.AlfrescoClientDataModelServicesFactory.DictionaryKey;
 import org.alfresco.solr.client.AlfrescoModel;
 import org.alfresco.solr.query.Lucene4QueryBuilderContextSolrImpl;
+import org.alfresco.solr.query.QueryModelCache;
+import org.alfresco.solr.query.QueryModelCache.ParseInfo;
 import org.alfresco.solr.query.Solr4QueryParser;
 import org.alfresco.solr.tracker.pool.DefaultTrackerPoolFactory;
 import org.alfresco.solr.tracker.pool.TrackerPoolFactory;
@@ -193,6 +198,12 @@ public class AlfrescoSolrDataModel implements QueryConstants
     
     private HashSet<QName> identifierProperties = new HashSet<QName>();
 
+    /** Changes whenever a model is loaded, so that cached query models parsed against older models are not used */
+    private final AtomicLong dictionaryVersion = new AtomicLong();
+
+    private final QueryModelCache queryModelCache = new QueryModelCache(
+                Integer.parseInt(System.getProperty("alfresco.queryModelCache.size", "1000")));
+
     
     public AlfrescoSolrDataModel()
     {
@@ -1398,6 +1409,7 @@ public class AlfrescoSolrDataModel implements QueryConstants
         {
             modelErrors.remove(model.getName());
             dictionaryDAO.putModelIgnoringConstraints(model);
+            dictionaryChanged();
             return true;
         }
         else
@@ -1456,11 +1468,67 @@ public class AlfrescoSolrDataModel implements QueryConstants
         {
             cds.afterDictionaryInit();
         }
+        dictionaryChanged();
+    }
+
+    private void dictionaryChanged()
+    {
+        dictionaryVersion.incrementAndGet();
+        queryModelCache.clear();
+    }
+
+    public QueryModelCache getQueryModelCache()
+    {
+        return queryModelCache;
+    }
+
+    /*
+     * Copies of the search parameters for query model cache keys, as the parameters may be changed after the query
+     */
+    private static Map<String, String> copyOf(Map<String, String> map)
+    {
+        return map == null ? null : new HashMap<String, String>(map);
+    }
+
+    private static Set<String> copyOf(Set<String> set)
+    {
+        return set == null ? null : new HashSet<String>(set);
+    }
+
+    private static List<Locale> copyOf(List<Locale> list)
+    {
+        return list == null ? null : new ArrayList<Locale>(list);
     }
     
     public org.alfresco.repo.search.impl.querymodel.Query parseCMISQueryToAlfrescoAbstractQuery(CMISQueryMode mode, SearchParameters searchParameters,
             SolrQueryRequest req, String alternativeDictionary, CmisVersion cmisVersion) 
     {
+        return parseCMISQueryToAlfrescoAbstractQuery(mode, searchParameters, req, alternativeDictionary, cmisVersion, null);
+    }
+
+    /**
+     * Parses the CMIS query, or finds the model of the same query parsed earlier against the same dictionary.
+     * Queries with parameter definitions are always parsed.
+     */
+    public org.alfresco.repo.search.impl.querymodel.Query parseCMISQueryToAlfrescoAbstractQuery(CMISQueryMode mode, SearchParameters searchParameters,
+            SolrQueryRequest req, String alternativeDictionary, CmisVersion cmisVersion, ParseInfo parseInfo) 
+    {
+        QueryModelCache.Key key = null;
+        if (searchParameters.getQueryParameterDefinitions().isEmpty())
+        {
+            key = new QueryModelCache.Key(SearchService.LANGUAGE_CMIS_ALFRESCO, searchParameters.getQuery(), mode,
+                        cmisVersion, alternativeDictionary, searchParameters.getDefaultFieldName(),
+                        searchParameters.getNamespace(), copyOf(searchParameters.getTextAttributes()),
+                        copyOf(searchParameters.getLocales()), searchParameters.getMlAnalaysisMode(),
+                        !searchParameters.excludeDataInTheCurrentTransaction(), dictionaryVersion.get());
+            org.alfresco.repo.search.impl.querymodel.Query cached = queryModelCache.get(key, parseInfo);
+            if (cached != null)
+            {
+                return cached;
+            }
+        }
+        long start = System.nanoTime();
+
         // convert search parameters to cmis query options
         // TODO: how to handle store ref
         CMISQueryOptions options = new CMISQueryOptions(searchParameters.getQuery(), StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
@@ -1497,6 +1565,10 @@ public class AlfrescoSolrDataModel implements QueryConstants
             }
             selectorGroup = selectorGroups.get(0);
         }
+        if (key != null)
+        {
+            queryModelCache.put(key, queryModelQuery, System.nanoTime() - start, parseInfo);
+        }
         return queryModelQuery;
     }
     
@@ -2279,29 +2351,49 @@ public class AlfrescoSolrDataModel implements QueryConstants
      * @throws ParseException
      */
      public Query getFTSQuery(Pair<SearchParameters, Boolean> searchParametersAndFilter, SolrQueryRequest req, FTSQueryParser.RerankPhase rerankPhase) throws ParseException
+     {
+         return getFTSQuery(searchParametersAndFilter, req, rerankPhase, null);
+     }
+
+     /**
+      * As {@link #getFTSQuery(Pair, SolrQueryRequest, RerankPhase)}, using the cached model of the query if the
+      * same query has been parsed against the same dictionary and schema.
+      */
+     public Query getFTSQuery(Pair<SearchParameters, Boolean> searchParametersAndFilter, SolrQueryRequest req, FTSQueryParser.RerankPhase rerankPhase, ParseInfo parseInfo) throws ParseException
      {
 
          SearchParameters searchParameters = searchParametersAndFilter.getFirst();
          Boolean isFilter = searchParametersAndFilter.getSecond();
 
-         QueryModelFactory factory = new LuceneQueryModelFactory<Query, Sort, SyntaxError>();
          AlfrescoFunctionEvaluationContext functionContext = new AlfrescoSolr4FunctionEvaluationContext(namespaceDAO, getDictionaryService(CMISStrictDictionaryService.DEFAULT), NamespaceService.CONTENT_MODEL_1_0_URI, req.getSchema());
 
-         FTSParser.Mode mode;
-
-         if (searchParameters.getDefaultFTSOperator() == org.alfresco.service.cmr.search.SearchParameters.Operator.AND)
+         QueryModelCache.Key key = new QueryModelCache.Key(SearchService.LANGUAGE_FTS_ALFRESCO, searchParameters.getQuery(),
+                 searchParameters.getDefaultFTSOperator(), copyOf(searchParameters.getQueryTemplates()),
+                 searchParameters.getDefaultFieldName(), searchParameters.getNamespace(),
+                 copyOf(searchParameters.getTextAttributes()), rerankPhase, req.getSchema(), dictionaryVersion.get());
+         org.alfresco.repo.search.impl.querymodel.Query queryModelQuery = queryModelCache.get(key, parseInfo);
+         if (queryModelQuery == null)
          {
-             mode = FTSParser.Mode.DEFAULT_CONJUNCTION;
-         }
-         else
-         {
-             mode = FTSParser.Mode.DEFAULT_DISJUNCTION;
-         }
+             long start = System.nanoTime();
+             QueryModelFactory factory = new LuceneQueryModelFactory<Query, Sort, SyntaxError>();
+
+             FTSParser.Mode mode;
+
+             if (searchParameters.getDefaultFTSOperator() == org.alfresco.service.cmr.search.SearchParameters.Operator.AND)
+             {
+                 mode = FTSParser.Mode.DEFAULT_CONJUNCTION;
+             }
+             else
+             {
+                 mode = FTSParser.Mode.DEFAULT_DISJUNCTION;
+             }
 
-         Constraint constraint = FTSQueryParser.buildFTS(searchParameters.getQuery(), factory, functionContext, null, null, mode,
-                 searchParameters.getDefaultFTSOperator() == org.alfresco.service.cmr.search.SearchParameters.Operator.OR ? Connective.OR : Connective.AND,
-                         searchParameters.getQueryTemplates(), searchParameters.getDefaultFieldName(), rerankPhase);
-         org.alfresco.repo.search.impl.querymodel.Query queryModelQuery = factory.createQuery(null, null, constraint, new ArrayList<Ordering>());
+             Constraint constraint = FTSQueryParser.buildFTS(searchParameters.getQuery(), factory, functionContext, null, null, mode,
+                     searchParameters.getDefaultFTSOperator() == org.alfresco.service.cmr.search.SearchParameters.Operator.OR ? Connective.OR : Connective.AND,
+                             searchParameters.getQueryTemplates(), searchParameters.getDefaultFieldName(), rerankPhase);
+             queryModelQuery = factory.createQuery(null, null, constraint, new ArrayList<Ordering>());
+             queryModelCache.put(key, queryModelQuery, System.nanoTime() - start, parseInfo);
+         }
 
          @SuppressWarnings("unchecked")
          LuceneQueryBuilder<Query, Sort, ParseException> builder = (LuceneQueryBuilder<Query, Sort, ParseException>) queryModelQuery;
@@ -0,0 +1,193 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.alfresco.util.TraceableThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded pool that builds the docs of a batch of nodes in parallel for the trackers of a core.
+ * <p/>
+ * Lifecycle: the pool is created with the core's {@link SolrInformationServer} and {@link #close() closed} by a
+ * close hook of the core. While it is open and all the builders are busy, a build is run by the calling (tracker)
+ * thread, so the queue stays bounded. Once it is closed a build is rejected rather than silently dropped, and a
+ * caller waiting for a build that was dropped by the close fails instead of waiting forever.
+ * 
+ * @since 5.2
+ */
+public class DocBuilderPool
+{
+    protected final static Logger log = LoggerFactory.getLogger(DocBuilderPool.class);
+    
+    private static final long WAIT_POLL_MILLIS = 1000L;
+    private static final long CLOSE_WAIT_SECONDS = 30L;
+    
+    private final ThreadPoolExecutor executor;
+    
+    /**
+     * @param name              the name of the pool, for its threads
+     * @param poolSize          the number of builders; up to four times as many builds are queued
+     */
+    public DocBuilderPool(String name, int poolSize)
+    {
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix(name + "-");
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 120, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(poolSize * 4), threadFactory, new CallerRunsUnlessShutdownPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+    
+    /**
+     * Run the builds and return their results in the order of the builds.
+     * <p/>
+     * All the builds that were started are finished before returning, even if one fails, so that none is still
+     * writing to the content store if the caller falls back to indexing the nodes one at a time. The first failure
+     * is then rethrown.
+     * 
+     * @throws RejectedExecutionException   if the pool has been closed
+     */
+    public <T> List<T> buildAll(List<Callable<T>> builds) throws Exception
+    {
+        List<Future<T>> futures = new ArrayList<Future<T>>(builds.size());
+        Exception failure = null;
+        for (Callable<T> build : builds)
+        {
+            try
+            {
+                futures.add(executor.submit(build));
+            }
+            catch (RejectedExecutionException e)
+            {
+                failure = e;
+                break;
+            }
+        }
+        
+        List<T> results = new ArrayList<T>(builds.size());
+        for (Future<T> future : futures)
+        {
+            try
+            {
+                results.add(waitFor(future));
+            }
+            catch (ExecutionException e)
+            {
+                if (failure == null)
+                {
+                    failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null)
+        {
+            throw failure;
+        }
+        return results;
+    }
+    
+    /**
+     * Wait for a build, checking that it has not been dropped by a {@link #close()} that timed out.
+     */
+    private <T> T waitFor(Future<T> future) throws InterruptedException, ExecutionException
+    {
+        while (true)
+        {
+            try
+            {
+                return future.get(WAIT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException e)
+            {
+                if (executor.isTerminated() && !future.isDone())
+                {
+                    future.cancel(false);
+                    throw new ExecutionException(new RejectedExecutionException("The doc builders have been closed"));
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return              <tt>true</tt> once the pool has been closed
+     */
+    public boolean isClosed()
+    {
+        return executor.isShutdown();
+    }
+    
+    /**
+     * Stop accepting builds and let the queued ones finish, waiting for a while before interrupting them.
+     */
+    public void close()
+    {
+        executor.shutdown();
+        try
+        {
+            if (!executor.awaitTermination(CLOSE_WAIT_SECONDS, TimeUnit.SECONDS))
+            {
+                log.warn("Doc builders did not finish within " + CLOSE_WAIT_SECONDS + "s of closing, interrupting them");
+                executor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Runs a build in the calling thread when the pool is saturated. Unlike
+     * {@link ThreadPoolExecutor.CallerRunsPolicy}, which silently discards the build once the pool is shut down and
+     * so leaves its future incomplete, this rejects it.
+     */
+    private static class CallerRunsUnlessShutdownPolicy implements RejectedExecutionHandler
+    {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+        {
+            if (executor.isShutdown())
+            {
+                throw new RejectedExecutionException("The doc builders have been closed");
+            }
+            r.run();
+        }
+    }
+}
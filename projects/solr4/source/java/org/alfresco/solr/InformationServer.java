@@ -115,10 +115,20 @@ public interface InformationServer extends InformationServerCollectionProvider
 
     IndexHealthReport reportIndexTransactions(Long minTxId, IOpenBitSet txIdsInDb, long maxTxId) throws IOException;
 
+    /**
+     * @return the number of transaction docs in the index for each transaction id from minTxId to maxTxId inclusive
+     */
+    Map<Long, Integer> getTransactionDocCountsInIndex(long minTxId, long maxTxId) throws IOException;
+
     List<TenantAclIdDbId> getDocsWithUncleanContent(int start, int rows) throws IOException;
 
     void updateContentToIndexAndCache(long dbId, String tenant) throws Exception;
 
+    /**
+     * Update the content of many docs, fetching the text of each content property in one request to the repository
+     */
+    void updateContentToIndexAndCache(List<TenantAclIdDbId> docs) throws Exception;
+
     void addCommonNodeReportInfo(NodeReport nodeReport);
 
     void addFTSStatusCounts(NamedList<Object> ihr);
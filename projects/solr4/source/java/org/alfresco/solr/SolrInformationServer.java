@@ -89,6 +89,7 @@ import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -97,6 +98,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -142,10 +144,14 @@ import org.alfresco.solr.client.NodeMetaDataParameters;
 import org.alfresco.solr.client.PropertyValue;
 import org.alfresco.solr.client.SOLRAPIClient;
 import org.alfresco.solr.client.SOLRAPIClient.GetTextContentResponse;
+import org.alfresco.solr.client.SOLRAPIClient.GetTextContentsResponse;
+import org.alfresco.solr.client.SOLRAPIClient.SolrApiContentStatus;
+import org.alfresco.solr.client.SOLRAPIClient.TextContent;
 import org.alfresco.solr.client.StringPropertyValue;
 import org.alfresco.solr.client.Transaction;
 import org.alfresco.solr.content.SolrContentStore;
 import org.alfresco.solr.content.SolrContentUrlBuilder;
+import org.alfresco.solr.query.DocValuesCache;
 import org.alfresco.solr.tracker.IndexHealthReport;
 import org.alfresco.solr.tracker.TrackerStats;
 import org.alfresco.util.ISO9075;
@@ -162,6 +168,7 @@ import org.apache.solr.common.params.ModifiableSolrParams;
 import org.apache.solr.common.util.JavaBinCodec;
 import org.apache.solr.common.util.NamedList;
 import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.CloseHook;
 import org.apache.solr.core.IndexDeletionPolicyWrapper;
 import org.apache.solr.core.SolrCore;
 import org.apache.solr.core.SolrInfoMBean;
@@ -238,6 +245,8 @@ public class SolrInformationServer implements InformationServer
     private long lag;
     private long holeRetention;
     private int contentStreamLimit;
+    /** Builds the docs of a batch of nodes in parallel, or <tt>null</tt> to build them in the tracker thread */
+    private DocBuilderPool docBuilderPool;
     
     // Metadata pulling control
     private boolean skipDescendantDocsForSpecificTypes;
@@ -310,6 +319,20 @@ public class SolrInformationServer implements InformationServer
 
         contentStreamLimit = Integer.parseInt(p.getProperty("alfresco.contentStreamLimit", "10000000"));
         
+        int docBuilderPoolSize = Integer.parseInt(p.getProperty("alfresco.docBuilder.poolSize",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+        if (docBuilderPoolSize > 1)
+        {
+            initDocBuilderPool(docBuilderPoolSize);
+        }
+        
+        // The doc values cache is shared by every core
+        String maxOffHeapMB = p.getProperty("alfresco.docValuesCache.maxOffHeapMB");
+        if (maxOffHeapMB != null)
+        {
+            DocValuesCache.setMaxOffHeapBytes(Long.parseLong(maxOffHeapMB) * 1024L * 1024L);
+        }
+        
         // build base URL - host and port have to come from configuration.
         
         Properties props = AlfrescoSolrDataModel.getCommonConfig();
@@ -657,6 +680,46 @@ public class SolrInformationServer implements InformationServer
         }
     }
     
+    @Override
+    public Map<Long, Integer> getTransactionDocCountsInIndex(long minTxId, long maxTxId) throws IOException
+    {
+        SolrQueryRequest request = null;
+        try
+        {
+            request = getLocalSolrQueryRequest();
+            ModifiableSolrParams params = new ModifiableSolrParams(request.getParams());
+            params.set("q", FIELD_TXID + ":[" + minTxId + " TO " + maxTxId + "]")
+                .set("rows", 0)
+                .set("facet", true)
+                .set("facet.field", FIELD_TXID)
+                .set("facet.mincount", 1)
+                .set("facet.limit", -1)
+                .set("facet.sort", "index");
+            SolrQueryResponse response = cloud.getResponse(nativeRequestHandler, request, params);
+            NamedList<?> facetCounts = (NamedList<?>) response.getValues().get("facet_counts");
+            NamedList<?> facetFields = (NamedList<?>) facetCounts.get("facet_fields");
+            NamedList<?> idCounts = (NamedList<?>) facetFields.get(FIELD_TXID);
+
+            Map<Long, Integer> txDocCounts = new LinkedHashMap<>();
+            for (int i = 0; i < idCounts.size(); i++)
+            {
+                long txId = Long.parseLong(idCounts.getName(i));
+                if (minTxId <= txId && txId <= maxTxId)
+                {
+                    txDocCounts.put(txId, ((Number) idCounts.getVal(i)).intValue());
+                }
+            }
+            return txDocCounts;
+        }
+        finally
+        {
+            if (request != null)
+            {
+                request.close();
+            }
+        }
+    }
+
     abstract class TransactionInfoReporter
     {
         protected IndexHealthReport report;
@@ -919,6 +982,10 @@ public class SolrInformationServer implements InformationServer
                 {
                     coreSummary.add("/alfrescoPathCache", infoMBean.getStatistics());
                 }
+                if (key.equals("alfrescoReaderAclCache"))
+                {
+                    coreSummary.add("/alfrescoReaderAclCache", infoMBean.getStatistics());
+                }
             }
 
             // Adds detailed stats for each registered searcher
@@ -936,6 +1003,16 @@ public class SolrInformationServer implements InformationServer
             // This is zero for Solr4, whereas we had some local caches before
             coreSummary.add("Total Searcher Cache (GB)", 0);
 
+            NamedList<Object> docValuesCache = new SimpleOrderedMap<Object>();
+            docValuesCache.add("Cached segments", DocValuesCache.getCachedSegmentCount());
+            docValuesCache.add("Memory (bytes)", DocValuesCache.ramBytesUsed());
+            docValuesCache.add("Off heap memory (bytes)", DocValuesCache.offHeapBytesUsed());
+            docValuesCache.add("Off heap memory budget (bytes)", DocValuesCache.getMaxOffHeapBytes());
+            docValuesCache.add("Evicted off heap memory not yet freed (bytes)", DocValuesCache.offHeapBytesPendingRelease());
+            docValuesCache.add("Heap fallbacks", DocValuesCache.getHeapFallbackCount());
+            coreSummary.add("/docValuesCache", docValuesCache);
+            coreSummary.add("/queryModelCache", dataModel.getQueryModelCache().getStatistics());
+
             IndexDeletionPolicyWrapper delPolicy = core.getDeletionPolicy();
             IndexCommit indexCommit = delPolicy.getLatestCommit();
             // race?
@@ -1991,8 +2068,13 @@ public class SolrInformationServer implements InformationServer
                 nmdp.setNodeIds(nodeIds);
 
                 // Fetches bulk metadata
+                long fetchStart = System.nanoTime();
                 List<NodeMetaData> nodeMetaDatas =  repositoryClient.getNodesMetaData(nmdp, Integer.MAX_VALUE);
+                this.trackerStats.addNodeFetchTime(nodeMetaDatas.size(), System.nanoTime() - fetchStart);
 
+                // Cascades and deletes are done in order, before the docs that replace the deleted ones are built
+                List<NodeMetaData> nodeMetaDatasToBuild = new ArrayList<>(nodeMetaDatas.size());
+                List<Long> prepareTimes = new ArrayList<>(nodeMetaDatas.size());
                 NEXT_NODE: for (NodeMetaData nodeMetaData : nodeMetaDatas)
                 {
                     long start = System.nanoTime();
@@ -2055,14 +2137,26 @@ public class SolrInformationServer implements InformationServer
                     }
                     deleteNode(processor, request, node);
                     
-                    SolrInputDocument doc = createNewDoc(nodeMetaData, DOC_TYPE_NODE);
-                    addToNewDocAndCache(nodeMetaData, doc);
-                    addDocCmd.solrDoc = doc;
+                    nodeMetaDatasToBuild.add(nodeMetaData);
+                    prepareTimes.add(System.nanoTime() - start);
+                } // Ends iteration over nodeMetadatas
+                
+                long[] buildTimes = new long[nodeMetaDatasToBuild.size()];
+                List<SolrInputDocument> docs = buildDocs(nodeMetaDatasToBuild, buildTimes);
+                
+                // The update processor is not thread safe, so the docs are added by the tracker thread in order
+                for (int i = 0; i < docs.size(); i++)
+                {
+                    long start = System.nanoTime();
+                    AddUpdateCommand addDocCmd = new AddUpdateCommand(request);
+                    addDocCmd.overwrite = overwrite;
+                    addDocCmd.solrDoc = docs.get(i);
                     processor.processAdd(addDocCmd);
                     
-                    long end = System.nanoTime();
-                    this.trackerStats.addNodeTime(end - start);
-                } // Ends iteration over nodeMetadatas
+                    long addTime = System.nanoTime() - start;
+                    this.trackerStats.addNodeAddTime(addTime);
+                    this.trackerStats.addNodeTime(prepareTimes.get(i) + buildTimes[i] + addTime);
+                }
             } // Ends checking for the existence of updated or unknown node ids 
            
         }
@@ -2082,6 +2176,68 @@ public class SolrInformationServer implements InformationServer
       
     }
 
+    /**
+     * The doc builders are shared by the trackers of the core and closed with it, after which a batch fails rather
+     * than being built.
+     */
+    private void initDocBuilderPool(int poolSize)
+    {
+        docBuilderPool = new DocBuilderPool("SolrDocBuilderPool-" + core.getName(), poolSize);
+        core.addCloseHook(new CloseHook()
+        {
+            @Override
+            public void preClose(SolrCore core)
+            {
+                docBuilderPool.close();
+            }
+
+            @Override
+            public void postClose(SolrCore core)
+            {
+            }
+        });
+    }
+    
+    /**
+     * Build and cache the docs of the nodes, in parallel if there is a doc builder pool.  The docs are returned in
+     * the order of the nodes; the build time of each is put into <tt>buildTimes</tt>.
+     * 
+     * @see DocBuilderPool#buildAll(List)
+     */
+    private List<SolrInputDocument> buildDocs(List<NodeMetaData> nodeMetaDatas, final long[] buildTimes) throws Exception
+    {
+        List<Callable<SolrInputDocument>> builds = new ArrayList<Callable<SolrInputDocument>>(nodeMetaDatas.size());
+        for (int i = 0; i < nodeMetaDatas.size(); i++)
+        {
+            final int index = i;
+            final NodeMetaData nodeMetaData = nodeMetaDatas.get(i);
+            builds.add(new Callable<SolrInputDocument>()
+            {
+                @Override
+                public SolrInputDocument call() throws Exception
+                {
+                    long start = System.nanoTime();
+                    SolrInputDocument doc = createNewDoc(nodeMetaData, DOC_TYPE_NODE);
+                    addToNewDocAndCache(nodeMetaData, doc);
+                    buildTimes[index] = System.nanoTime() - start;
+                    trackerStats.addNodeBuildTime(buildTimes[index]);
+                    return doc;
+                }
+            });
+        }
+        
+        if (docBuilderPool == null || builds.size() < 2)
+        {
+            List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(builds.size());
+            for (Callable<SolrInputDocument> build : builds)
+            {
+                docs.add(build.call());
+            }
+            return docs;
+        }
+        return docBuilderPool.buildAll(builds);
+    }
+
     private void addToNewDocAndCache(NodeMetaData nodeMetaData, SolrInputDocument newDoc) throws IOException,
                 AuthenticationException
     {
@@ -2462,7 +2618,8 @@ public class SolrInformationServer implements InformationServer
     }
 
     private void addContentPropertyMetadata(SolrInputDocument doc, QName propertyQName, 
-                AlfrescoSolrDataModel.ContentFieldType type, GetTextContentResponse textContentResponse)
+                AlfrescoSolrDataModel.ContentFieldType type, SolrApiContentStatus status,
+                String transformException, Long transformDuration)
     {
         IndexedField indexedField = AlfrescoSolrDataModel.getInstance().getIndexedFieldForContentPropertyMetadata(
                     propertyQName, type);
@@ -2472,13 +2629,13 @@ public class SolrInformationServer implements InformationServer
             switch(type)
             {
             case TRANSFORMATION_EXCEPTION:
-                doc.addField(fieldInstance.getField(), textContentResponse.getTransformException());
+                doc.addField(fieldInstance.getField(), transformException);
                 break;
             case TRANSFORMATION_STATUS:
-                doc.addField(fieldInstance.getField(), textContentResponse.getStatus());
+                doc.addField(fieldInstance.getField(), status);
                 break;
             case TRANSFORMATION_TIME:
-                doc.addField(fieldInstance.getField(), textContentResponse.getTransformDuration());
+                doc.addField(fieldInstance.getField(), transformDuration);
                 break;
                 // Skips the ones that require the ContentPropertyValue
                 default:
@@ -2650,6 +2807,127 @@ public class SolrInformationServer implements InformationServer
         }
     }
 
+    @Override
+    public void updateContentToIndexAndCache(List<TenantAclIdDbId> docs) throws Exception
+    {
+        SolrQueryRequest request = null;
+        UpdateRequestProcessor processor = null;
+        try
+        {
+            request = getLocalSolrQueryRequest();
+            processor = this.core.getUpdateProcessingChain(null).createProcessor(request, new SolrQueryResponse()); 
+
+            // The docs to update by DB ID, and the locale of each of their content properties by property
+            Map<Long, TenantAclIdDbId> found = new LinkedHashMap<Long, TenantAclIdDbId>();
+            Map<Long, SolrInputDocument> solrDocs = new HashMap<Long, SolrInputDocument>();
+            Map<QName, Map<Long, String>> contentLocales = new LinkedHashMap<QName, Map<Long, String>>();
+            for (TenantAclIdDbId tenantAclIdDbId : docs)
+            {
+                long dbId = tenantAclIdDbId.dbId;
+                String tenant = tenantAclIdDbId.tenant;
+                SolrInputDocument doc = retrieveDocFromSolrContentStore(tenant, dbId);
+                if (doc == null)
+                {
+                    log.warn("There is no cached doc in the Solr content store with tenant [" + tenant + "] and dbId ["
+                            + dbId + "].\n"
+                            + "This should only happen if the content has been removed from the Solr content store.\n"
+                            + "Recreating cached doc ... ");
+                    doc = recreateSolrDoc(dbId, tenant);
+                    
+                    // if we did not build it again it has been deleted (see updateContentToIndexAndCache(long, String))
+                    if(doc == null)
+                    {
+                        deleteNode(processor, request, dbId);
+                        continue;
+                    }
+                }
+                found.put(dbId, tenantAclIdDbId);
+                solrDocs.put(dbId, doc);
+                
+                for (String fieldName : doc.getFieldNames())
+                {
+                    if (fieldName.startsWith(AlfrescoSolrDataModel.CONTENT_S_LOCALE_PREFIX))
+                    {
+                        QName propertyQName = QName.createQName(fieldName.substring(AlfrescoSolrDataModel.CONTENT_S_LOCALE_PREFIX.length()));
+                        Map<Long, String> locales = contentLocales.get(propertyQName);
+                        if (locales == null)
+                        {
+                            locales = new LinkedHashMap<Long, String>();
+                            contentLocales.put(propertyQName, locales);
+                        }
+                        locales.put(dbId, String.valueOf(doc.getFieldValue(fieldName)));
+                    }
+                }
+            }
+
+            // One request per content property, which the repository answers transforming shared content once
+            for (Entry<QName, Map<Long, String>> entry : contentLocales.entrySet())
+            {
+                addContentToDocs(solrDocs, entry.getKey(), entry.getValue());
+            }
+            
+            for (TenantAclIdDbId tenantAclIdDbId : found.values())
+            {
+                SolrInputDocument doc = solrDocs.get(tenantAclIdDbId.dbId);
+                // Marks as clean since the doc's content is now up to date
+                markFTSStatus(doc, FTSStatus.Clean);
+                storeDocOnSolrContentStore(tenantAclIdDbId.tenant, tenantAclIdDbId.dbId, doc);
+
+                // Add to index
+                AddUpdateCommand addDocCmd = new AddUpdateCommand(request);
+                addDocCmd.overwrite = true;
+                addDocCmd.solrDoc = doc;
+                processor.processAdd(addDocCmd);
+            }
+        }
+        finally
+        {
+            if(processor != null) {processor.finish();}
+            if(request != null) {request.close();}
+        }
+    }
+    
+    private void addContentToDocs(Map<Long, SolrInputDocument> solrDocs, QName propertyQName, Map<Long, String> locales)
+                throws AuthenticationException, IOException, JSONException
+    {
+        long start = System.nanoTime();
+        
+        // Expensive call to be done with ContentTracker
+        GetTextContentsResponse response = repositoryClient.getTextContents(new ArrayList<Long>(locales.keySet()), propertyQName);
+        int count = 0;
+        try
+        {
+            TextContent textContent;
+            while ((textContent = response.next()) != null)
+            {
+                SolrInputDocument doc = solrDocs.get(textContent.getNodeId());
+                if (doc == null)
+                {
+                    continue;
+                }
+                addContentPropertyTransformation(doc, propertyQName, textContent.getStatus(),
+                            textContent.getTransformException(), textContent.getTransformDuration());
+                String text = readTextContent(textContent.getContent());
+                addContentPropertyText(doc, propertyQName, locales.get(textContent.getNodeId()), text);
+                count++;
+            }
+        }
+        finally
+        {
+            // release the response only when the content has been read
+            response.release();
+        }
+        
+        if (count > 0)
+        {
+            long average = (System.nanoTime() - start) / count;
+            for (int i = 0; i < count; i++)
+            {
+                this.getTrackerStats().addDocTransformationTime(average);
+            }
+        }
+    }
+
     private SolrInputDocument recreateSolrDoc(long dbId, String tenant) throws AuthenticationException, IOException,
             JSONException
     {
@@ -2712,23 +2990,13 @@ public class SolrInformationServer implements InformationServer
         // Expensive call to be done with ContentTracker
         GetTextContentResponse response = repositoryClient.getTextContent(dbId, propertyQName, null);
         
-        addContentPropertyMetadata(doc, propertyQName, AlfrescoSolrDataModel.ContentFieldType.TRANSFORMATION_STATUS,
-                response);
-        addContentPropertyMetadata(doc, propertyQName, AlfrescoSolrDataModel.ContentFieldType.TRANSFORMATION_EXCEPTION,
-                response);
-        addContentPropertyMetadata(doc, propertyQName, AlfrescoSolrDataModel.ContentFieldType.TRANSFORMATION_TIME,
-                response);
+        addContentPropertyTransformation(doc, propertyQName, response.getStatus(), response.getTransformException(),
+                    response.getTransformDuration());
 
-        InputStream ris = response.getContent();
-        String textContent = "";
+        String textContent;
         try
         {
-            if (ris != null)
-            {
-                // Get and copy content
-                byte[] bytes = FileCopyUtils.copyToByteArray(new BoundedInputStream(ris, contentStreamLimit));
-                textContent = new String(bytes, "UTF8");
-            }
+            textContent = readTextContent(response.getContent());
         }
         finally
         {
@@ -2739,6 +3007,33 @@ public class SolrInformationServer implements InformationServer
         long end = System.nanoTime();
         this.getTrackerStats().addDocTransformationTime(end - start);
         
+        addContentPropertyText(doc, propertyQName, locale, textContent);
+    }
+    
+    private void addContentPropertyTransformation(SolrInputDocument doc, QName propertyQName,
+                SolrApiContentStatus status, String transformException, Long transformDuration)
+    {
+        addContentPropertyMetadata(doc, propertyQName, AlfrescoSolrDataModel.ContentFieldType.TRANSFORMATION_STATUS,
+                status, transformException, transformDuration);
+        addContentPropertyMetadata(doc, propertyQName, AlfrescoSolrDataModel.ContentFieldType.TRANSFORMATION_EXCEPTION,
+                status, transformException, transformDuration);
+        addContentPropertyMetadata(doc, propertyQName, AlfrescoSolrDataModel.ContentFieldType.TRANSFORMATION_TIME,
+                status, transformException, transformDuration);
+    }
+    
+    private String readTextContent(InputStream ris) throws IOException
+    {
+        if (ris == null)
+        {
+            return "";
+        }
+        // Get and copy content
+        byte[] bytes = FileCopyUtils.copyToByteArray(new BoundedInputStream(ris, contentStreamLimit));
+        return new String(bytes, "UTF8");
+    }
+    
+    private void addContentPropertyText(SolrInputDocument doc, QName propertyQName, String locale, String textContent)
+    {
         StringBuilder builder = new StringBuilder(textContent.length() + 16);
         builder.append("\u0000").append(locale).append("\u0000");
         builder.append(textContent);
@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.alfresco.opencmis.dictionary.CMISStrictDictionaryService;
+import org.alfresco.solr.AlfrescoSolrDataModel;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.core.CloseHook;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.core.SolrEventListener;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms the alfrescoPathCache and alfrescoAuthorityCache (and the alfrescoReaderAclCache used by authority sets) of
+ * a new searcher with the hottest keys counted by {@link HotCacheKeys}, before the searcher is registered.
+ * <p>
+ * For the first searcher of a core the keys come from a snapshot in the data directory, so the caches are warm after
+ * a restart; the snapshot is rewritten when later searchers are opened, at most once per snapshot interval, and when
+ * the core is closed.  Configure as both a <tt>firstSearcher</tt> and a <tt>newSearcher</tt> listener:
+ * <pre>
+ *   &lt;listener event="firstSearcher" class="org.alfresco.solr.cache.HotCacheKeyWarmer"&gt;
+ *     &lt;bool name="enabled"&gt;true&lt;/bool&gt;
+ *     &lt;int name="warmCount"&gt;100&lt;/int&gt;
+ *     &lt;int name="maxKeys"&gt;10000&lt;/int&gt;
+ *     &lt;int name="snapshotIntervalSeconds"&gt;300&lt;/int&gt;
+ *   &lt;/listener&gt;
+ * </pre>
+ * 
+ * @since 5.2
+ */
+public class HotCacheKeyWarmer implements SolrEventListener
+{
+    protected final static Logger log = LoggerFactory.getLogger(HotCacheKeyWarmer.class);
+    
+    public static final String SNAPSHOT_FILE_NAME = "hotCacheKeys.txt";
+    
+    private boolean enabled = false;
+    private int warmCount = 100;
+    private int maxKeys = 10000;
+    private long snapshotIntervalMs = 300000L;
+    
+    private HotCacheKeys hotCacheKeys;
+    private File snapshotFile;
+    private long lastSnapshot = System.currentTimeMillis();
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public void init(NamedList args)
+    {
+        enabled = Boolean.parseBoolean(getArg(args, "enabled", "false"));
+        warmCount = Integer.parseInt(getArg(args, "warmCount", "100"));
+        maxKeys = Integer.parseInt(getArg(args, "maxKeys", "10000"));
+        snapshotIntervalMs = Long.parseLong(getArg(args, "snapshotIntervalSeconds", "300")) * 1000L;
+    }
+    
+    @SuppressWarnings("rawtypes")
+    private static String getArg(NamedList args, String name, String defaultValue)
+    {
+        Object value = (args == null) ? null : args.get(name);
+        return (value == null) ? defaultValue : value.toString();
+    }
+
+    @Override
+    public void postCommit()
+    {
+    }
+
+    @Override
+    public void postSoftCommit()
+    {
+    }
+
+    @Override
+    public void newSearcher(SolrIndexSearcher newSearcher, SolrIndexSearcher currentSearcher)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        SolrCore core = newSearcher.getCore();
+        if (hotCacheKeys == null)
+        {
+            init(core);
+        }
+        
+        if (currentSearcher == null)
+        {
+            // Only the firstSearcher listener writes the snapshot when the core is closed
+            core.addCloseHook(new CloseHook()
+            {
+                @Override
+                public void preClose(SolrCore core)
+                {
+                    writeSnapshot();
+                }
+
+                @Override
+                public void postClose(SolrCore core)
+                {
+                }
+            });
+            try
+            {
+                int read = hotCacheKeys.readSnapshot(snapshotFile);
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Read " + read + " hot cache keys for core " + core.getName() + " from " + snapshotFile);
+                }
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to read hot cache key snapshot " + snapshotFile, e);
+            }
+        }
+        else if (System.currentTimeMillis() - lastSnapshot >= snapshotIntervalMs)
+        {
+            writeSnapshot();
+        }
+        
+        warm(newSearcher);
+    }
+    
+    private synchronized void init(SolrCore core)
+    {
+        if (hotCacheKeys != null)
+        {
+            return;
+        }
+        // Shared by the firstSearcher and newSearcher listeners of the core
+        hotCacheKeys = HotCacheKeys.register(core.getName(), maxKeys);
+        snapshotFile = new File(core.getDataDir(), SNAPSHOT_FILE_NAME);
+    }
+    
+    private synchronized void writeSnapshot()
+    {
+        lastSnapshot = System.currentTimeMillis();
+        if (hotCacheKeys.size() == 0)
+        {
+            return;
+        }
+        try
+        {
+            File dir = snapshotFile.getParentFile();
+            if (dir != null && !dir.exists())
+            {
+                return;
+            }
+            hotCacheKeys.writeSnapshot(snapshotFile);
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to write hot cache key snapshot " + snapshotFile, e);
+        }
+    }
+    
+    /**
+     * Run the hottest cached queries against the new searcher, which caches their results as a side effect.
+     * A key that cannot be replayed, e.g. a path with a prefix whose model is not yet loaded, is skipped.
+     */
+    private void warm(SolrIndexSearcher newSearcher)
+    {
+        if (warmCount <= 0)
+        {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<String> keys = hotCacheKeys.getHotKeys(warmCount);
+        AlfrescoSolrDataModel dataModel = AlfrescoSolrDataModel.getInstance();
+        int warmed = 0;
+        HotCacheKeys.setReplaying(true);
+        try
+        {
+            for (String key : keys)
+            {
+                try
+                {
+                    Query query = HotCacheKeys.toQuery(key, dataModel.getNamespaceDAO(),
+                                dataModel.getDictionaryService(CMISStrictDictionaryService.DEFAULT));
+                    if (query != null)
+                    {
+                        newSearcher.getDocSet(query);
+                        warmed++;
+                    }
+                }
+                catch (Exception e)
+                {
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Skipping hot cache key that could not be replayed: " + key, e);
+                    }
+                }
+            }
+        }
+        finally
+        {
+            HotCacheKeys.setReplaying(false);
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Warmed " + warmed + " of " + keys.size() + " hot cache keys for " + newSearcher.getName() + " in "
+                        + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.cache;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.solr.query.SolrAuthorityQuery;
+import org.alfresco.solr.query.SolrAuthoritySetQuery;
+import org.alfresco.solr.query.SolrCachingPathQuery;
+import org.alfresco.solr.query.SolrPathQuery;
+import org.alfresco.solr.query.SolrXPathHandler;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.namespace.NamespacePrefixResolver;
+import org.apache.lucene.search.Query;
+import org.jaxen.saxpath.SAXPathException;
+import org.jaxen.saxpath.base.XPathReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the hits on the keys of the alfrescoPathCache and alfrescoAuthorityCache of a core, so that the hottest
+ * keys can be written to a snapshot and replayed to warm the caches of a new searcher, even after a restart.
+ * <p>
+ * Keys are held as strings that can be turned back into the cached query: the authority or authorities of an
+ * authority query, or the XPath, field and repeats flag of a path query.
+ * 
+ * @since 5.2
+ */
+public class HotCacheKeys
+{
+    protected final static Logger log = LoggerFactory.getLogger(HotCacheKeys.class);
+    
+    public static final String TYPE_AUTHORITY = "AUTHORITY";
+    public static final String TYPE_AUTHSET = "AUTHSET";
+    public static final String TYPE_PATH = "PATH";
+    
+    private static final char SEPARATOR = '\u0000';
+    private static final String ENCODING = "UTF-8";
+    
+    private static final ConcurrentHashMap<String, HotCacheKeys> coreHotCacheKeys = new ConcurrentHashMap<String, HotCacheKeys>();
+    
+    /** Set while replaying keys, so that warming does not count as hits */
+    private static final ThreadLocal<Boolean> replaying = new ThreadLocal<Boolean>();
+    
+    private final ConcurrentHashMap<String, AtomicLong> hits = new ConcurrentHashMap<String, AtomicLong>();
+    private final int maxKeys;
+    
+    HotCacheKeys(int maxKeys)
+    {
+        this.maxKeys = maxKeys;
+    }
+    
+    /**
+     * @return the hot keys of the core, or <tt>null</tt> if they are not being counted
+     */
+    public static HotCacheKeys getInstance(String coreName)
+    {
+        return coreName == null ? null : coreHotCacheKeys.get(coreName);
+    }
+    
+    /**
+     * Start counting the hot keys of a core
+     */
+    static HotCacheKeys register(String coreName, int maxKeys)
+    {
+        HotCacheKeys hotCacheKeys = new HotCacheKeys(maxKeys);
+        HotCacheKeys existing = coreHotCacheKeys.putIfAbsent(coreName, hotCacheKeys);
+        return existing == null ? hotCacheKeys : existing;
+    }
+    
+    static void unregister(String coreName)
+    {
+        coreHotCacheKeys.remove(coreName);
+    }
+    
+    static void setReplaying(boolean isReplaying)
+    {
+        if (isReplaying)
+        {
+            replaying.set(Boolean.TRUE);
+        }
+        else
+        {
+            replaying.remove();
+        }
+    }
+    
+    public void recordAuthority(String authority)
+    {
+        record(TYPE_AUTHORITY + SEPARATOR + authority, 1);
+    }
+    
+    public void recordAuthoritySet(String authorities)
+    {
+        record(TYPE_AUTHSET + SEPARATOR + authorities, 1);
+    }
+    
+    public void recordPath(SolrPathQuery pathQuery)
+    {
+        // Only a path query parsed from an XPath can be rebuilt
+        if (pathQuery.getXPath() != null)
+        {
+            record(TYPE_PATH + SEPARATOR + pathQuery.getPathField() + SEPARATOR + pathQuery.isRepeats() + SEPARATOR + pathQuery.getXPath(), 1);
+        }
+    }
+    
+    private void record(String key, long count)
+    {
+        if (replaying.get() != null)
+        {
+            return;
+        }
+        AtomicLong keyHits = hits.get(key);
+        if (keyHits == null)
+        {
+            if (hits.size() >= maxKeys * 2)
+            {
+                trim();
+            }
+            AtomicLong newKeyHits = new AtomicLong();
+            keyHits = hits.putIfAbsent(key, newKeyHits);
+            if (keyHits == null)
+            {
+                keyHits = newKeyHits;
+            }
+        }
+        keyHits.addAndGet(count);
+    }
+    
+    /**
+     * Drop all but the hottest keys
+     */
+    private synchronized void trim()
+    {
+        if (hits.size() < maxKeys * 2)
+        {
+            return;
+        }
+        List<String> hotKeys = getHotKeys(maxKeys);
+        hits.keySet().retainAll(hotKeys);
+    }
+    
+    /**
+     * @return the keys with the most hits, hottest first
+     */
+    public List<String> getHotKeys(int count)
+    {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(hits.size());
+        for (Map.Entry<String, AtomicLong> entry : hits.entrySet())
+        {
+            entries.add(new AbstractMap.SimpleEntry<String, Long>(entry.getKey(), entry.getValue().get()));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>()
+        {
+            @Override
+            public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2)
+            {
+                return o2.getValue().compareTo(o1.getValue());
+            }
+        });
+        List<String> hotKeys = new ArrayList<String>(Math.min(count, entries.size()));
+        for (int i = 0; i < count && i < entries.size(); i++)
+        {
+            hotKeys.add(entries.get(i).getKey());
+        }
+        return hotKeys;
+    }
+    
+    public int size()
+    {
+        return hits.size();
+    }
+    
+    /**
+     * Write the hottest keys and their hits, one per line, replacing the file in one step.  The hits are then halved
+     * so that keys that are no longer used cool down.
+     */
+    public synchronized void writeSnapshot(File file) throws IOException
+    {
+        List<String> hotKeys = getHotKeys(maxKeys);
+        File tmp = new File(file.getPath() + ".tmp");
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), ENCODING));
+        try
+        {
+            for (String key : hotKeys)
+            {
+                AtomicLong keyHits = hits.get(key);
+                long count = (keyHits == null) ? 0L : keyHits.get();
+                if (count > 0)
+                {
+                    writer.write(Long.toString(count));
+                    writer.write('\t');
+                    writer.write(URLEncoder.encode(key, ENCODING));
+                    writer.newLine();
+                }
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+        if (file.exists() && !file.delete())
+        {
+            throw new IOException("Failed to replace " + file);
+        }
+        if (!tmp.renameTo(file))
+        {
+            throw new IOException("Failed to rename " + tmp + " to " + file);
+        }
+        
+        for (AtomicLong keyHits : hits.values())
+        {
+            long count = keyHits.get();
+            keyHits.compareAndSet(count, count / 2);
+        }
+    }
+    
+    /**
+     * Add the hits of a snapshot, if there is one
+     * 
+     * @return the number of keys read
+     */
+    public int readSnapshot(File file) throws IOException
+    {
+        if (!file.exists())
+        {
+            return 0;
+        }
+        int read = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                int tab = line.indexOf('\t');
+                if (tab < 1)
+                {
+                    continue;
+                }
+                try
+                {
+                    long count = Long.parseLong(line.substring(0, tab));
+                    String key = URLDecoder.decode(line.substring(tab + 1), ENCODING);
+                    AtomicLong keyHits = hits.get(key);
+                    if (keyHits == null)
+                    {
+                        hits.putIfAbsent(key, new AtomicLong());
+                        keyHits = hits.get(key);
+                    }
+                    keyHits.addAndGet(count);
+                    read++;
+                }
+                catch (IllegalArgumentException e)
+                {
+                    log.debug("Skipping bad line in hot cache key snapshot " + file + ": " + line);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return read;
+    }
+    
+    /**
+     * Rebuild the query that was cached under a key
+     * 
+     * @return the query, or <tt>null</tt> if the key is not understood
+     */
+    public static Query toQuery(String key, NamespacePrefixResolver namespacePrefixResolver, DictionaryService dictionaryService)
+                throws SAXPathException
+    {
+        int separator = key.indexOf(SEPARATOR);
+        if (separator < 0)
+        {
+            return null;
+        }
+        String type = key.substring(0, separator);
+        String value = key.substring(separator + 1);
+        if (TYPE_AUTHORITY.equals(type))
+        {
+            return new SolrAuthorityQuery(value);
+        }
+        else if (TYPE_AUTHSET.equals(type))
+        {
+            return new SolrAuthoritySetQuery(value);
+        }
+        else if (TYPE_PATH.equals(type))
+        {
+            String[] parts = value.split(String.valueOf(SEPARATOR), 3);
+            if (parts.length != 3)
+            {
+                return null;
+            }
+            XPathReader reader = new XPathReader();
+            SolrXPathHandler handler = new SolrXPathHandler();
+            handler.setNamespacePrefixResolver(namespacePrefixResolver);
+            handler.setDictionaryService(dictionaryService);
+            reader.setXPathHandler(handler);
+            reader.parse(parts[2]);
+            SolrPathQuery pathQuery = handler.getQuery();
+            pathQuery.setPathField(parts[0]);
+            pathQuery.setRepeats(Boolean.parseBoolean(parts[1]));
+            pathQuery.setXPath(parts[2]);
+            return new SolrCachingPathQuery(pathQuery);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.cache;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.core.SolrCore;
+import org.apache.solr.search.CacheRegenerator;
+import org.apache.solr.search.SolrCache;
+import org.apache.solr.search.SolrIndexSearcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An LRU {@link SolrCache} bounded by the memory its values hold as well as by its number of entries.
+ * <p>
+ * Values that implement {@link Accountable} are measured when they are put and again whenever they are looked up, as
+ * they may grow while in the cache, and the least recently used entries are evicted while the cache holds more than
+ * <tt>maxRamMB</tt>.  The most recently used entry is never evicted for its size alone.  Other values are not counted.
+ * <pre>
+ *   &lt;cache name="alfrescoReaderAclCache"
+ *          class="org.alfresco.solr.cache.MemoryBoundedLRUCache"
+ *          size="16"
+ *          initialSize="8"
+ *          maxRamMB="64"
+ *          autowarmCount="4"
+ *          regenerator="org.alfresco.solr.cache.ReaderAclCacheRegenerator"/&gt;
+ * </pre>
+ * The <tt>autowarmCount</tt> is a number of entries (percentages are not supported).
+ * 
+ * @since 5.2
+ */
+public class MemoryBoundedLRUCache<K, V> implements SolrCache<K, V>
+{
+    protected final static Logger log = LoggerFactory.getLogger(MemoryBoundedLRUCache.class);
+    
+    private static final long MB = 1024L * 1024L;
+    
+    /**
+     * Statistics kept across the cache instances of the successive searchers of a core
+     */
+    private static class CumulativeStats
+    {
+        final AtomicLong lookups = new AtomicLong();
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong inserts = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+    
+    private static class SizedValue<V>
+    {
+        final V value;
+        long ramBytes;
+        
+        SizedValue(V value, long ramBytes)
+        {
+            this.value = value;
+            this.ramBytes = ramBytes;
+        }
+    }
+    
+    private String name;
+    private String description;
+    private State state;
+    private CacheRegenerator regenerator;
+    private int maxSize;
+    private long maxRamBytes;
+    private int autowarmCount;
+    private CumulativeStats stats;
+    
+    // guarded by map
+    private LinkedHashMap<K, SizedValue<V>> map;
+    private long ramBytes;
+    private long lookups;
+    private long hits;
+    private long inserts;
+    private long evictions;
+    private long ramEvictions;
+    private long warmupTime;
+    
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Object init(Map args, Object persistence, CacheRegenerator regenerator)
+    {
+        this.state = State.CREATED;
+        this.regenerator = regenerator;
+        this.name = getArg(args, "name", null);
+        this.maxSize = Integer.parseInt(getArg(args, "size", "1024"));
+        int initialSize = Math.min(Integer.parseInt(getArg(args, "initialSize", "16")), maxSize);
+        this.maxRamBytes = Long.parseLong(getArg(args, "maxRamMB", "-1")) * MB;
+        this.autowarmCount = Integer.parseInt(getArg(args, "autowarmCount", "0"));
+        this.map = new LinkedHashMap<K, SizedValue<V>>(initialSize, 0.75f, true);
+        this.description = "Memory bounded LRU Cache(maxSize=" + maxSize + ", maxRamMB=" + (maxRamBytes / MB) +
+                    ", initialSize=" + initialSize + ", autowarmCount=" + autowarmCount + ", regenerator=" + regenerator + ")";
+        
+        this.stats = (persistence instanceof CumulativeStats) ? (CumulativeStats) persistence : new CumulativeStats();
+        return stats;
+    }
+    
+    @SuppressWarnings("rawtypes")
+    private static String getArg(Map args, String name, String defaultValue)
+    {
+        Object value = args.get(name);
+        return (value == null) ? defaultValue : value.toString().trim();
+    }
+    
+    @Override
+    public String name()
+    {
+        return name;
+    }
+    
+    @Override
+    public int size()
+    {
+        synchronized (map)
+        {
+            return map.size();
+        }
+    }
+    
+    /**
+     * @return                  the memory held by the values, as last measured
+     */
+    public long ramBytesUsed()
+    {
+        synchronized (map)
+        {
+            return ramBytes;
+        }
+    }
+    
+    @Override
+    public V put(K key, V value)
+    {
+        synchronized (map)
+        {
+            if (state == State.LIVE)
+            {
+                stats.inserts.incrementAndGet();
+            }
+            inserts++;
+            
+            SizedValue<V> sized = new SizedValue<V>(value, sizeOf(value));
+            SizedValue<V> old = map.put(key, sized);
+            ramBytes += sized.ramBytes - ((old == null) ? 0L : old.ramBytes);
+            evict();
+            return (old == null) ? null : old.value;
+        }
+    }
+    
+    @Override
+    public V get(K key)
+    {
+        synchronized (map)
+        {
+            SizedValue<V> sized = map.get(key);
+            if (state == State.LIVE)
+            {
+                lookups++;
+                stats.lookups.incrementAndGet();
+                if (sized != null)
+                {
+                    hits++;
+                    stats.hits.incrementAndGet();
+                }
+            }
+            if (sized == null)
+            {
+                return null;
+            }
+            
+            // the value may have grown since it was last measured
+            long size = sizeOf(sized.value);
+            ramBytes += size - sized.ramBytes;
+            sized.ramBytes = size;
+            evict();
+            return sized.value;
+        }
+    }
+    
+    private long sizeOf(V value)
+    {
+        return (value instanceof Accountable) ? ((Accountable) value).ramBytesUsed() : 0L;
+    }
+    
+    /**
+     * Evict the least recently used entries while the cache is too big, keeping the most recently used one.
+     * Must be called holding the lock on the map.
+     */
+    private void evict()
+    {
+        Iterator<SizedValue<V>> eldest = map.values().iterator();
+        while ((map.size() > maxSize) || ((maxRamBytes > 0) && (ramBytes > maxRamBytes) && (map.size() > 1)))
+        {
+            if (map.size() <= maxSize)
+            {
+                ramEvictions++;
+            }
+            SizedValue<V> sized = eldest.next();
+            eldest.remove();
+            ramBytes -= sized.ramBytes;
+            evictions++;
+            stats.evictions.incrementAndGet();
+        }
+    }
+    
+    @Override
+    public void clear()
+    {
+        synchronized (map)
+        {
+            map.clear();
+            ramBytes = 0L;
+        }
+    }
+    
+    @Override
+    public void setState(State state)
+    {
+        this.state = state;
+    }
+    
+    @Override
+    public State getState()
+    {
+        return state;
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public void warm(SolrIndexSearcher searcher, SolrCache<K, V> old)
+    {
+        if ((regenerator == null) || (autowarmCount <= 0))
+        {
+            return;
+        }
+        long start = System.nanoTime();
+        
+        // the most recently used entries of the old cache, least recent first to keep their order
+        MemoryBoundedLRUCache<K, V> other = (MemoryBoundedLRUCache<K, V>) old;
+        Object[] keys;
+        Object[] values;
+        synchronized (other.map)
+        {
+            int count = Math.min(other.map.size(), autowarmCount);
+            keys = new Object[count];
+            values = new Object[count];
+            Iterator<Map.Entry<K, SizedValue<V>>> entries = other.map.entrySet().iterator();
+            for (int skip = other.map.size() - count; skip > 0; skip--)
+            {
+                entries.next();
+            }
+            for (int i = 0; i < count; i++)
+            {
+                Map.Entry<K, SizedValue<V>> entry = entries.next();
+                keys[i] = entry.getKey();
+                values[i] = entry.getValue().value;
+            }
+        }
+        
+        for (int i = 0; i < keys.length; i++)
+        {
+            try
+            {
+                if (! regenerator.regenerateItem(searcher, this, old, keys[i], values[i]))
+                {
+                    break;
+                }
+            }
+            catch (Exception e)
+            {
+                log.error("Error during auto-warming of key: " + keys[i], e);
+            }
+        }
+        
+        warmupTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+    
+    @Override
+    public void close()
+    {
+    }
+    
+    @Override
+    public String getName()
+    {
+        return MemoryBoundedLRUCache.class.getName();
+    }
+    
+    @Override
+    public String getVersion()
+    {
+        return SolrCore.version;
+    }
+    
+    @Override
+    public String getDescription()
+    {
+        return description;
+    }
+    
+    @Override
+    public Category getCategory()
+    {
+        return Category.CACHE;
+    }
+    
+    @Override
+    public String getSource()
+    {
+        return null;
+    }
+    
+    @Override
+    public URL[] getDocs()
+    {
+        return null;
+    }
+    
+    @SuppressWarnings("rawtypes")
+    @Override
+    public NamedList getStatistics()
+    {
+        NamedList<Object> lst = new SimpleOrderedMap<Object>();
+        synchronized (map)
+        {
+            lst.add("lookups", lookups);
+            lst.add("hits", hits);
+            lst.add("hitratio", hitRatio(lookups, hits));
+            lst.add("inserts", inserts);
+            lst.add("evictions", evictions);
+            lst.add("ramEvictions", ramEvictions);
+            lst.add("size", map.size());
+            lst.add("ramBytesUsed", ramBytes);
+            lst.add("maxRamMB", maxRamBytes / MB);
+        }
+        lst.add("warmupTime", warmupTime);
+        
+        long cumulativeLookups = stats.lookups.get();
+        long cumulativeHits = stats.hits.get();
+        lst.add("cumulative_lookups", cumulativeLookups);
+        lst.add("cumulative_hits", cumulativeHits);
+        lst.add("cumulative_hitratio", hitRatio(cumulativeLookups, cumulativeHits));
+        lst.add("cumulative_inserts", stats.inserts.get());
+        lst.add("cumulative_evictions", stats.evictions.get());
+        return lst;
+    }
+    
+    private static float hitRatio(long lookups, long hits)
+    {
+        return (lookups == 0) ? 0.0f : (float) hits / lookups;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return name + getStatistics().toString();
+    }
+}
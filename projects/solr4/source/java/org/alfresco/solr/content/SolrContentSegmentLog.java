@@ -0,0 +1,1265 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.alfresco.util.TraceableThreadFactory;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only, log-structured store for the documents held by the {@link SolrContentStore}.
+ * <p/>
+ * Rather than one file per document, the documents are appended to segment files of up to
+ * {@link #DEFAULT_MAX_SEGMENT_SIZE} bytes, each record being:
+ * <pre>
+ *   int magic | int URL length | int data length (-1 for a deletion) | int CRC32 | URL (UTF-8) | data
+ * </pre>
+ * The location of the latest record for each URL is held in memory and rebuilt by scanning the segments
+ * when the log is opened.  The URLs of node documents (<tt>solr://&lt;tenant&gt;/db/...</tt>) are indexed by
+ * tenant and DB ID in primitive maps, so the index costs a few tens of bytes per document.
+ * <p/>
+ * That index lives on the heap for as long as the JVM runs, so size the heap for it:
+ * <ul>
+ *   <li>A node document costs 24 to 48 bytes, as the open addressing table, of two longs per slot, is kept between
+ *       one and two thirds full.  The table briefly needs twice that while it doubles in size.</li>
+ *   <li>Any other document costs its URL string plus a <tt>HashMap</tt> entry and a boxed location, ie. over
+ *       100 bytes.</li>
+ *   <li>For example, 50 million node documents take from 1.2 to 2.4 GB of heap.</li>
+ * </ul>
+ * Opening the log reads the header and URL of every record of every segment (and the whole of the last segment, to
+ * check it), so startup takes longer as the store grows.  Opened logs are held in a static registry and are only
+ * released by {@link #close()}.
+ * <p/>
+ * Records that are overwritten or deleted leave dead space behind; segments in which at least
+ * {@link #DEFAULT_COMPACTION_THRESHOLD} of the bytes are dead are compacted in the background by copying the
+ * live records to the end of the log and deleting the segment.
+ * <p/>
+ * There is one log per directory, shared by all the {@link SolrContentStore} instances using it;
+ * see {@link #getLog(String)}.  The open log holds an exclusive lock on {@link #LOCK_FILE} in the directory, so that
+ * no other process can open it at the same time.
+ * 
+ * @since 5.2
+ */
+public class SolrContentSegmentLog
+{
+    protected final static Logger log = LoggerFactory.getLogger(SolrContentSegmentLog.class);
+    
+    /** The directory, below the content store root, holding the segments */
+    public static final String SEGMENT_DIRECTORY = "packed";
+    public static final String SEGMENT_EXTENSION = ".seg";
+    /** The file, in the segment directory, locked by the process that has the log open */
+    public static final String LOCK_FILE = "segments.lock";
+    
+    public static final long DEFAULT_MAX_SEGMENT_SIZE = 256L * 1024L * 1024L;
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+    
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int RECORD_MAGIC = 0x534C5243;
+    private static final int HEADER_SIZE = 16;
+    private static final int DELETED = -1;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final String NODE_PATH = "db/";
+    
+    private static final ConcurrentMap<String, SolrContentSegmentLog> logs = new ConcurrentHashMap<String, SolrContentSegmentLog>();
+    
+    private final File directory;
+    private final long maxSegmentSize;
+    private final double compactionThreshold;
+    private final FileChannel lockChannel;
+    private final FileLock directoryLock;
+    
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    /** Locations of node documents by tenant and DB ID */
+    private final Map<String, LongLongMap> nodeIndex = new HashMap<String, LongLongMap>();
+    /** Locations of all other documents by URL */
+    private final Map<String, Long> urlIndex = new HashMap<String, Long>();
+    private Segment activeSegment;
+    private boolean closed;
+    
+    private final ExecutorService compactionExecutor;
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    private volatile boolean compactionRequired;
+    
+    /**
+     * @param root              the root of the content store
+     * @return                  <tt>true</tt> if content has been packed into segments below the root
+     */
+    public static boolean hasSegments(String root)
+    {
+        String[] names = new File(root, SEGMENT_DIRECTORY).list();
+        if (names != null)
+        {
+            for (String name : names)
+            {
+                if (name.endsWith(SEGMENT_EXTENSION))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Get the log shared by all content stores with the given root, if it has been opened
+     * 
+     * @param root              the root of the content store
+     * @return                  the open log or <tt>null</tt>
+     */
+    public static SolrContentSegmentLog findLog(String root)
+    {
+        return logs.get(new File(root, SEGMENT_DIRECTORY).getAbsolutePath());
+    }
+    
+    /**
+     * Get the log shared by all content stores with the given root, opening it if necessary
+     * 
+     * @param root              the root of the content store
+     */
+    public static SolrContentSegmentLog getLog(String root)
+    {
+        File directory = new File(root, SEGMENT_DIRECTORY);
+        String key = directory.getAbsolutePath();
+        SolrContentSegmentLog segmentLog = logs.get(key);
+        if (segmentLog == null)
+        {
+            synchronized (logs)
+            {
+                segmentLog = logs.get(key);
+                if (segmentLog == null)
+                {
+                    try
+                    {
+                        segmentLog = new SolrContentSegmentLog(directory, DEFAULT_MAX_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new RuntimeException("Failed to open content segments: " + directory, e);
+                    }
+                    logs.put(key, segmentLog);
+                }
+            }
+        }
+        return segmentLog;
+    }
+    
+    /**
+     * Open a log, scanning any existing segments
+     * 
+     * @param directory             the directory holding the segments
+     * @param maxSegmentSize        the size at which a new segment is started
+     * @param compactionThreshold   the fraction of dead bytes at which a segment is compacted
+     * @throws IOException          if the segments cannot be read or are open in another process
+     */
+    public SolrContentSegmentLog(File directory, long maxSegmentSize, double compactionThreshold) throws IOException
+    {
+        FileUtils.forceMkdir(directory);
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.compactionThreshold = compactionThreshold;
+        
+        this.lockChannel = new RandomAccessFile(new File(directory, LOCK_FILE), "rw").getChannel();
+        FileLock directoryLock = null;
+        try
+        {
+            directoryLock = lockChannel.tryLock();
+        }
+        catch (OverlappingFileLockException e)
+        {
+            // Already open in this JVM
+        }
+        if (directoryLock == null)
+        {
+            lockChannel.close();
+            throw new IOException("Content segments are in use by another process: " + directory);
+        }
+        this.directoryLock = directoryLock;
+        
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("SolrContentCompaction");
+        this.compactionExecutor = Executors.newSingleThreadExecutor(threadFactory);
+        
+        long start = System.currentTimeMillis();
+        File[] files = directory.listFiles();
+        List<Integer> ids = new ArrayList<Integer>();
+        for (File file : (files == null ? new File[0] : files))
+        {
+            String name = file.getName();
+            if (name.endsWith(SEGMENT_EXTENSION))
+            {
+                try
+                {
+                    ids.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_EXTENSION.length())));
+                }
+                catch (NumberFormatException e)
+                {
+                    log.warn("Ignoring unexpected file in content segments: " + file);
+                }
+            }
+        }
+        Collections.sort(ids);
+        try
+        {
+            for (int i = 0; i < ids.size(); i++)
+            {
+                Segment segment = openSegment(ids.get(i));
+                // Only the last segment can have been torn by a crash
+                scan(segment, i == ids.size() - 1);
+                activeSegment = segment;
+            }
+        }
+        catch (IOException e)
+        {
+            compactionExecutor.shutdown();
+            for (Segment segment : segments.values())
+            {
+                segment.close();
+            }
+            releaseDirectoryLock();
+            throw e;
+        }
+        if (log.isInfoEnabled())
+        {
+            log.info("Opened content segments in " + directory + ": " + segments.size() + " segments, " + getDocumentCount() +
+                        " documents in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        if (isCompactionRequired())
+        {
+            scheduleCompaction();
+        }
+    }
+    
+    private Segment openSegment(int id) throws IOException
+    {
+        File file = new File(directory, String.format("%010d", id) + SEGMENT_EXTENSION);
+        Segment segment = new Segment(id, file);
+        segments.put(id, segment);
+        return segment;
+    }
+    
+    /**
+     * Rebuild the index from a segment, truncating any incomplete record at its end
+     */
+    private void scan(Segment segment, boolean verify) throws IOException
+    {
+        long end = segment.channel().size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (position + HEADER_SIZE <= end)
+        {
+            header.clear();
+            segment.read(header, position);
+            header.flip();
+            int magic = header.getInt();
+            int urlLength = header.getInt();
+            int dataLength = header.getInt();
+            int crc = header.getInt();
+            if (magic != RECORD_MAGIC || urlLength <= 0 || dataLength < DELETED)
+            {
+                break;
+            }
+            long recordSize = recordSize(urlLength, dataLength);
+            if (position + recordSize > end)
+            {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(verify ? (int) (recordSize - HEADER_SIZE) : urlLength);
+            segment.read(body, position + HEADER_SIZE);
+            if (verify && crc != crc(body.array(), 0, body.capacity()))
+            {
+                break;
+            }
+            String url = new String(body.array(), 0, urlLength, UTF8);
+            long previous;
+            if (dataLength == DELETED)
+            {
+                previous = removeLocation(url);
+            }
+            else
+            {
+                previous = putLocation(url, location(segment.id, position));
+                segment.liveBytes += recordSize;
+            }
+            if (previous >= 0)
+            {
+                release(previous);
+            }
+            position += recordSize;
+        }
+        if (position < end)
+        {
+            log.warn("Truncating incomplete record at " + position + " in content segment " + segment.file);
+            segment.channel().truncate(position);
+        }
+        segment.size = position;
+    }
+    
+    /**
+     * @return                  <tt>true</tt> if there is a document for the URL
+     */
+    public boolean exists(String url)
+    {
+        lock.readLock().lock();
+        try
+        {
+            return getLocation(url) >= 0;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return                  the size of the document or <tt>-1</tt> if there is no document for the URL
+     */
+    public long getSize(String url) throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            long location = getLocation(url);
+            if (location < 0)
+            {
+                return -1L;
+            }
+            ByteBuffer header = readHeader(segments.get(segmentId(location)), offset(location));
+            return header.getInt(8);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return                  the document or <tt>null</tt> if there is no document for the URL
+     */
+    public byte[] get(String url) throws IOException
+    {
+        lock.readLock().lock();
+        try
+        {
+            long location = getLocation(url);
+            if (location < 0)
+            {
+                return null;
+            }
+            Segment segment = segments.get(segmentId(location));
+            Record record = readRecord(segment, offset(location));
+            if (!url.equals(record.url))
+            {
+                throw new IOException("Content segment index is corrupt: expected " + url + " but found " + record.url);
+            }
+            return record.data;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Store a document, replacing any existing document for the URL
+     */
+    public void put(String url, byte[] data) throws IOException
+    {
+        ByteBuffer record = encode(url.getBytes(UTF8), data);
+        lock.writeLock().lock();
+        try
+        {
+            ensureOpen();
+            long location = append(record);
+            long previous = putLocation(url, location);
+            if (previous >= 0)
+            {
+                release(previous);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        if (compactionRequired)
+        {
+            scheduleCompaction();
+        }
+    }
+    
+    /**
+     * Store a document unless there is already a document for the URL.  The check and the write are made under the
+     * same lock, so a document stored concurrently is never overwritten.
+     * 
+     * @return                  <tt>true</tt> if the document was stored
+     */
+    public boolean putIfAbsent(String url, byte[] data) throws IOException
+    {
+        ByteBuffer record = encode(url.getBytes(UTF8), data);
+        lock.writeLock().lock();
+        try
+        {
+            ensureOpen();
+            if (getLocation(url) >= 0)
+            {
+                return false;
+            }
+            putLocation(url, append(record));
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+    
+    /**
+     * Delete the document for the URL
+     * 
+     * @return                  <tt>true</tt> if there was a document to delete
+     */
+    public boolean delete(String url) throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            ensureOpen();
+            if (getLocation(url) < 0)
+            {
+                return false;
+            }
+            append(encode(url.getBytes(UTF8), null));
+            release(removeLocation(url));
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        if (compactionRequired)
+        {
+            scheduleCompaction();
+        }
+        return true;
+    }
+    
+    /**
+     * Compact the segments that have reached the compaction threshold.  This is normally done in the background.
+     * 
+     * @return                  the number of segments compacted
+     */
+    public synchronized int compact() throws IOException
+    {
+        compactionRequired = false;
+        List<Segment> candidates = new ArrayList<Segment>();
+        lock.readLock().lock();
+        try
+        {
+            for (Segment segment : segments.values())
+            {
+                if (segment != activeSegment && segment.isCompactable(compactionThreshold))
+                {
+                    candidates.add(segment);
+                }
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+        
+        int compacted = 0;
+        for (Segment segment : candidates)
+        {
+            if (compact(segment))
+            {
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+    
+    /**
+     * Copy the live records of a segment to the end of the log and delete it.  The segment is no longer written to,
+     * so its records can be read without holding the lock; each copy is made under the write lock.  The segments
+     * holding the copies are forced to disk before the segment is deleted, as a crash would otherwise lose both.
+     */
+    private boolean compact(Segment segment) throws IOException
+    {
+        long start = System.currentTimeMillis();
+        long position = 0;
+        int copied = 0;
+        Set<Segment> written = new LinkedHashSet<Segment>();
+        while (position < segment.size)
+        {
+            Record record = readRecord(segment, position);
+            lock.writeLock().lock();
+            try
+            {
+                if (closed)
+                {
+                    return false;
+                }
+                long location = location(segment.id, position);
+                if (record.data != null)
+                {
+                    if (getLocation(record.url) == location)
+                    {
+                        putLocation(record.url, append(encode(record.url.getBytes(UTF8), record.data)));
+                        written.add(activeSegment);
+                        segment.liveBytes -= record.size;
+                        copied++;
+                    }
+                }
+                else if (getLocation(record.url) < 0 && segments.firstKey() != segment.id)
+                {
+                    // Older segments may still hold the deleted document
+                    append(encode(record.url.getBytes(UTF8), null));
+                    written.add(activeSegment);
+                }
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+            position += record.size;
+        }
+        
+        lock.writeLock().lock();
+        try
+        {
+            if (closed)
+            {
+                return false;
+            }
+            for (Segment copySegment : written)
+            {
+                force(copySegment);
+            }
+            segments.remove(segment.id);
+            segment.close();
+            if (!deleteSegment(segment.file))
+            {
+                log.warn("Failed to delete compacted content segment " + segment.file);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Compacted content segment " + segment.file + ", copying " + copied + " documents in " +
+                        (System.currentTimeMillis() - start) + "ms");
+        }
+        return true;
+    }
+    
+    private void scheduleCompaction()
+    {
+        if (compactionScheduled.compareAndSet(false, true))
+        {
+            compactionExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        compact();
+                    }
+                    catch (Throwable e)
+                    {
+                        log.error("Failed to compact content segments in " + directory, e);
+                    }
+                    finally
+                    {
+                        compactionScheduled.set(false);
+                    }
+                }
+            });
+        }
+    }
+    
+    private boolean isCompactionRequired()
+    {
+        for (Segment segment : segments.values())
+        {
+            if (segment != activeSegment && segment.isCompactable(compactionThreshold))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Force the active segment to disk
+     */
+    public void sync() throws IOException
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (!closed && activeSegment != null)
+            {
+                force(activeSegment);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Close the log.  A shared log obtained through {@link #getLog(String)} will be reopened by the next call.
+     */
+    public void close() throws IOException
+    {
+        // Not shutdownNow: interrupting a thread in a channel operation closes the channel
+        compactionExecutor.shutdown();
+        lock.writeLock().lock();
+        try
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            try
+            {
+                for (Segment segment : segments.values())
+                {
+                    if (segment == activeSegment)
+                    {
+                        force(segment);
+                    }
+                    segment.close();
+                }
+            }
+            finally
+            {
+                releaseDirectoryLock();
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+            logs.remove(directory.getAbsolutePath(), this);
+        }
+    }
+    
+    private void releaseDirectoryLock() throws IOException
+    {
+        try
+        {
+            directoryLock.release();
+        }
+        finally
+        {
+            lockChannel.close();
+        }
+    }
+    
+    private void force(Segment segment) throws IOException
+    {
+        force(segment.file, segment.channel());
+    }
+    
+    /**
+     * Force a segment to disk
+     */
+    protected void force(File file, FileChannel channel) throws IOException
+    {
+        channel.force(false);
+    }
+    
+    /**
+     * Delete a segment file
+     * 
+     * @return                  <tt>true</tt> if the file was deleted
+     */
+    protected boolean deleteSegment(File file)
+    {
+        return file.delete();
+    }
+    
+    public File getDirectory()
+    {
+        return directory;
+    }
+    
+    public int getSegmentCount()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return segments.size();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public long getDocumentCount()
+    {
+        lock.readLock().lock();
+        try
+        {
+            long count = urlIndex.size();
+            for (LongLongMap tenantIndex : nodeIndex.values())
+            {
+                count += tenantIndex.size();
+            }
+            return count;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return                  the bytes held by all the segments, including dead records
+     */
+    public long getTotalBytes()
+    {
+        lock.readLock().lock();
+        try
+        {
+            long total = 0;
+            for (Segment segment : segments.values())
+            {
+                total += segment.size;
+            }
+            return total;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * @return                  the bytes held by the current documents
+     */
+    public long getLiveBytes()
+    {
+        lock.readLock().lock();
+        try
+        {
+            long live = 0;
+            for (Segment segment : segments.values())
+            {
+                live += segment.liveBytes;
+            }
+            return live;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "SolrContentSegmentLog [directory=" + directory + "]";
+    }
+    
+    private void ensureOpen()
+    {
+        if (closed)
+        {
+            throw new IllegalStateException("The content segments have been closed: " + directory);
+        }
+    }
+    
+    /**
+     * Append a record to the active segment, starting a new segment if it is full
+     * 
+     * @return                  the location of the record
+     */
+    private long append(ByteBuffer record) throws IOException
+    {
+        int recordSize = record.remaining();
+        if (activeSegment == null || (activeSegment.size > 0 && activeSegment.size + recordSize > maxSegmentSize))
+        {
+            if (activeSegment != null)
+            {
+                force(activeSegment);
+            }
+            int id = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            activeSegment = openSegment(id);
+            // The segment that was active may already be compactable
+            compactionRequired = compactionRequired || isCompactionRequired();
+        }
+        long position = activeSegment.size;
+        record.mark();
+        activeSegment.write(record, position);
+        record.reset();
+        activeSegment.size += recordSize;
+        if (record.getInt(8) != DELETED)
+        {
+            activeSegment.liveBytes += recordSize;
+        }
+        return location(activeSegment.id, position);
+    }
+    
+    /**
+     * Account for a record that is no longer current
+     */
+    private void release(long location) throws IOException
+    {
+        Segment segment = segments.get(segmentId(location));
+        ByteBuffer header = readHeader(segment, offset(location));
+        segment.liveBytes -= recordSize(header.getInt(4), header.getInt(8));
+        if (segment != activeSegment && segment.isCompactable(compactionThreshold))
+        {
+            compactionRequired = true;
+        }
+    }
+    
+    private long getLocation(String url)
+    {
+        long dbId = getDbId(url);
+        if (dbId >= 0)
+        {
+            LongLongMap tenantIndex = nodeIndex.get(getTenant(url));
+            return (tenantIndex == null) ? -1L : tenantIndex.get(dbId);
+        }
+        Long location = urlIndex.get(url);
+        return (location == null) ? -1L : location;
+    }
+    
+    private long putLocation(String url, long location)
+    {
+        long dbId = getDbId(url);
+        if (dbId >= 0)
+        {
+            String tenant = getTenant(url);
+            LongLongMap tenantIndex = nodeIndex.get(tenant);
+            if (tenantIndex == null)
+            {
+                tenantIndex = new LongLongMap();
+                nodeIndex.put(tenant, tenantIndex);
+            }
+            return tenantIndex.put(dbId, location);
+        }
+        Long previous = urlIndex.put(url, location);
+        return (previous == null) ? -1L : previous;
+    }
+    
+    private long removeLocation(String url)
+    {
+        long dbId = getDbId(url);
+        if (dbId >= 0)
+        {
+            LongLongMap tenantIndex = nodeIndex.get(getTenant(url));
+            return (tenantIndex == null) ? -1L : tenantIndex.remove(dbId);
+        }
+        Long previous = urlIndex.remove(url);
+        return (previous == null) ? -1L : previous;
+    }
+    
+    private static String getTenant(String url)
+    {
+        int start = SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX.length();
+        return url.substring(start, url.indexOf('/', start));
+    }
+    
+    /**
+     * Get the DB ID from a node document URL, as built by the {@link SolrContentUrlBuilder}
+     * 
+     * @return                  the DB ID or <tt>-1</tt> if the URL is not in the canonical form of a node document URL
+     */
+    static long getDbId(String url)
+    {
+        if (!url.startsWith(SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX) || !url.endsWith(SolrContentUrlBuilder.FILE_EXTENSION))
+        {
+            return -1L;
+        }
+        int tenantEnd = url.indexOf('/', SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX.length());
+        if (tenantEnd < 0 || !url.startsWith(NODE_PATH, tenantEnd + 1))
+        {
+            return -1L;
+        }
+        int start = tenantEnd + 1 + NODE_PATH.length();
+        int end = url.length() - SolrContentUrlBuilder.FILE_EXTENSION.length();
+        int digits = end - start - (end - start) / 5;
+        if (digits <= 0 || digits > 18 || (url.charAt(start) == '0' && digits > 1))
+        {
+            return -1L;
+        }
+        long dbId = 0;
+        for (int i = start; i < end; i++)
+        {
+            char c = url.charAt(i);
+            if ((i - start) % 5 == 4)
+            {
+                // The builder separates each group of 4 digits
+                if (c != '/' || i == end - 1)
+                {
+                    return -1L;
+                }
+            }
+            else if (c >= '0' && c <= '9')
+            {
+                dbId = dbId * 10 + (c - '0');
+            }
+            else
+            {
+                return -1L;
+            }
+        }
+        return dbId;
+    }
+    
+    private static long location(int segmentId, long offset)
+    {
+        return ((long) segmentId << OFFSET_BITS) | offset;
+    }
+    
+    private static int segmentId(long location)
+    {
+        return (int) (location >>> OFFSET_BITS);
+    }
+    
+    private static long offset(long location)
+    {
+        return location & OFFSET_MASK;
+    }
+    
+    private static long recordSize(int urlLength, int dataLength)
+    {
+        return HEADER_SIZE + urlLength + Math.max(dataLength, 0);
+    }
+    
+    private static int crc(byte[] bytes, int offset, int length)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * @param data              the document or <tt>null</tt> for a deletion
+     */
+    private static ByteBuffer encode(byte[] url, byte[] data)
+    {
+        int dataLength = (data == null) ? 0 : data.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + url.length + dataLength);
+        record.position(HEADER_SIZE);
+        record.put(url);
+        if (data != null)
+        {
+            record.put(data);
+        }
+        int crc = crc(record.array(), HEADER_SIZE, url.length + dataLength);
+        record.putInt(0, RECORD_MAGIC);
+        record.putInt(4, url.length);
+        record.putInt(8, (data == null) ? DELETED : data.length);
+        record.putInt(12, crc);
+        record.flip();
+        return record;
+    }
+    
+    private static ByteBuffer readHeader(Segment segment, long position) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        segment.read(header, position);
+        if (header.getInt(0) != RECORD_MAGIC)
+        {
+            throw new IOException("No record at " + position + " in content segment " + segment.file);
+        }
+        return header;
+    }
+    
+    private static Record readRecord(Segment segment, long position) throws IOException
+    {
+        ByteBuffer header = readHeader(segment, position);
+        int urlLength = header.getInt(4);
+        int dataLength = header.getInt(8);
+        long recordSize = recordSize(urlLength, dataLength);
+        ByteBuffer body = ByteBuffer.allocate((int) (recordSize - HEADER_SIZE));
+        segment.read(body, position + HEADER_SIZE);
+        if (header.getInt(12) != crc(body.array(), 0, body.capacity()))
+        {
+            throw new IOException("Checksum failure for record at " + position + " in content segment " + segment.file);
+        }
+        String url = new String(body.array(), 0, urlLength, UTF8);
+        byte[] data = (dataLength == DELETED) ? null : Arrays.copyOfRange(body.array(), urlLength, body.capacity());
+        return new Record(url, data, recordSize);
+    }
+    
+    /**
+     * A segment file.  Reads are positional, so they may be made concurrently.  A thread that is interrupted while
+     * using a {@link FileChannel} closes it for every thread, so the channel is reopened if that happens.
+     */
+    private static class Segment
+    {
+        private final int id;
+        private final File file;
+        private volatile FileChannel channel;
+        private volatile boolean closed;
+        private long size;
+        private long liveBytes;
+        
+        private Segment(int id, File file) throws IOException
+        {
+            this.id = id;
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+        
+        private FileChannel channel() throws IOException
+        {
+            FileChannel current = channel;
+            if (current.isOpen())
+            {
+                return current;
+            }
+            synchronized (this)
+            {
+                if (!channel.isOpen() && !closed)
+                {
+                    channel = new RandomAccessFile(file, "rw").getChannel();
+                }
+                return channel;
+            }
+        }
+        
+        private void read(ByteBuffer buffer, long position) throws IOException
+        {
+            try
+            {
+                readFully(channel(), buffer, position);
+            }
+            catch (ClosedByInterruptException e)
+            {
+                throw e;
+            }
+            catch (ClosedChannelException e)
+            {
+                // Closed by an interrupt in another thread
+                buffer.clear();
+                readFully(channel(), buffer, position);
+            }
+        }
+        
+        private void write(ByteBuffer buffer, long position) throws IOException
+        {
+            FileChannel current = channel();
+            while (buffer.hasRemaining())
+            {
+                position += current.write(buffer, position);
+            }
+        }
+        
+        private synchronized void close() throws IOException
+        {
+            closed = true;
+            channel.close();
+        }
+        
+        private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+        {
+            while (buffer.hasRemaining())
+            {
+                int read = channel.read(buffer, position);
+                if (read < 0)
+                {
+                    throw new IOException("Unexpected end of content segment at " + position);
+                }
+                position += read;
+            }
+        }
+        
+        private boolean isCompactable(double threshold)
+        {
+            return size > 0 && (size - liveBytes) >= size * threshold;
+        }
+    }
+    
+    private static class Record
+    {
+        private final String url;
+        private final byte[] data;
+        private final long size;
+        
+        private Record(String url, byte[] data, long size)
+        {
+            this.url = url;
+            this.data = data;
+            this.size = size;
+        }
+    }
+    
+    /**
+     * Open addressing map of non-negative long keys to long values, with <tt>-1</tt> for missing values
+     */
+    static class LongLongMap
+    {
+        private static final long EMPTY = -1L;
+        
+        private long[] keys;
+        private long[] values;
+        private int mask;
+        private int size;
+        
+        LongLongMap()
+        {
+            allocate(64);
+        }
+        
+        private void allocate(int capacity)
+        {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            values = new long[capacity];
+            mask = capacity - 1;
+        }
+        
+        private int slot(long key)
+        {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+        
+        int size()
+        {
+            return size;
+        }
+        
+        long get(long key)
+        {
+            for (int i = slot(key); ; i = (i + 1) & mask)
+            {
+                if (keys[i] == key)
+                {
+                    return values[i];
+                }
+                if (keys[i] == EMPTY)
+                {
+                    return -1L;
+                }
+            }
+        }
+        
+        long put(long key, long value)
+        {
+            if ((size + 1) * 3 > keys.length * 2)
+            {
+                long[] oldKeys = keys;
+                long[] oldValues = values;
+                allocate(keys.length * 2);
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++)
+                {
+                    if (oldKeys[i] != EMPTY)
+                    {
+                        put(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            for (int i = slot(key); ; i = (i + 1) & mask)
+            {
+                if (keys[i] == key)
+                {
+                    long previous = values[i];
+                    values[i] = value;
+                    return previous;
+                }
+                if (keys[i] == EMPTY)
+                {
+                    keys[i] = key;
+                    values[i] = value;
+                    size++;
+                    return -1L;
+                }
+            }
+        }
+        
+        long remove(long key)
+        {
+            int gap = slot(key);
+            while (keys[gap] != key)
+            {
+                if (keys[gap] == EMPTY)
+                {
+                    return -1L;
+                }
+                gap = (gap + 1) & mask;
+            }
+            long previous = values[gap];
+            // Shift back any following entries that can no longer be reached past the gap
+            for (int i = (gap + 1) & mask; keys[i] != EMPTY; i = (i + 1) & mask)
+            {
+                int home = slot(keys[i]);
+                if (((i - home) & mask) >= ((i - gap) & mask))
+                {
+                    keys[gap] = keys[i];
+                    values[gap] = values[i];
+                    gap = i;
+                }
+            }
+            keys[gap] = EMPTY;
+            size--;
+            return previous;
+        }
+    }
+}
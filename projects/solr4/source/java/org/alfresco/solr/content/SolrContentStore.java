@@ -26,6 +26,7 @@
 package org.alfresco.solr.content;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 
 import org.alfresco.repo.content.ContentContext;
@@ -46,6 +47,16 @@ import org.slf4j.LoggerFactory;
  *   <li>Other metadata</li>
  * </ul>
  * The URL, if not known, can be reliably regenerated using the {@link SolrContentUrlBuilder}.
+ * <p/>
+ * By default the content is held in one file per URL.  Setting the system property <b>solr.content.packed</b> to
+ * <tt>true</tt> packs new content into the segments of a {@link SolrContentSegmentLog} below the root instead.  It is
+ * set for the whole node, eg. <tt>-Dsolr.content.packed=true</tt>, as all the cores share the content store.  Content in files is then still read and deleted until it is moved into the segments by the
+ * {@link SolrContentStoreMigration migration tool}.  Once there are segments below the root, ie. once the migration
+ * has run or packed content has been written, the store is packed whatever the property says, as is every other
+ * store in the JVM using the same root.
+ * <p/>
+ * A packed store holds the index of the segments on the heap for the lifetime of the JVM, at a few tens of bytes
+ * per document, and scans every segment when it is first opened; see {@link SolrContentSegmentLog}.
  * 
  * @author Derek Hulley
  * @since 5.0
@@ -54,9 +65,29 @@ public class SolrContentStore implements ContentStore
 {
     protected final static Logger log = LoggerFactory.getLogger(SolrContentStore.class);
     
+    /** System property selecting the packed layout for new content, <tt>false</tt> by default */
+    public static final String PROP_PACKED = "solr.content.packed";
+    
     private final String root;
+    private volatile SolrContentSegmentLog segmentLog;
     
+    /**
+     * A store that is packed if the {@link #PROP_PACKED system property} says so or if there is packed content below
+     * the root
+     * 
+     * @param rootStr           the root directory of the store
+     */
     public SolrContentStore(String rootStr)
+    {
+        this(rootStr, Boolean.getBoolean(PROP_PACKED));
+    }
+    
+    /**
+     * @param rootStr           the root directory of the store
+     * @param packed            <tt>true</tt> to pack content into segments or <tt>false</tt> to use a file per URL,
+     *                          unless there is packed content below the root already
+     */
+    public SolrContentStore(String rootStr, boolean packed)
     {
         File rootFile = new File(rootStr);
         try
@@ -68,6 +99,22 @@ public class SolrContentStore implements ContentStore
             throw new RuntimeException("Failed to create directory for content store: " + rootFile, e);
         }
         this.root = rootFile.getAbsolutePath();
+        this.segmentLog = (packed || SolrContentSegmentLog.hasSegments(root)) ? SolrContentSegmentLog.getLog(root) : null;
+    }
+    
+    /**
+     * @return                  the segments holding the content or <tt>null</tt> if the store uses a file per URL
+     */
+    public SolrContentSegmentLog getSegmentLog()
+    {
+        SolrContentSegmentLog segmentLog = this.segmentLog;
+        if (segmentLog == null)
+        {
+            // another store using the same root may have started packing content since
+            segmentLog = SolrContentSegmentLog.findLog(root);
+            this.segmentLog = segmentLog;
+        }
+        return segmentLog;
     }
 
     @Override
@@ -121,6 +168,11 @@ public class SolrContentStore implements ContentStore
     @Override
     public boolean exists(String contentUrl)
     {
+        SolrContentSegmentLog segmentLog = getSegmentLog();
+        if (segmentLog != null && segmentLog.exists(contentUrl))
+        {
+            return true;
+        }
         File file = getFileFromUrl(contentUrl);
         return file.exists();
     }
@@ -128,6 +180,20 @@ public class SolrContentStore implements ContentStore
     @Override
     public ContentReader getReader(String contentUrl)
     {
+        SolrContentSegmentLog segmentLog = getSegmentLog();
+        if (segmentLog != null)
+        {
+            if (segmentLog.exists(contentUrl))
+            {
+                return new SolrPackedContentReader(segmentLog, contentUrl);
+            }
+            File file = getFileFromUrl(contentUrl);
+            if (!file.exists())
+            {
+                return new SolrPackedContentReader(segmentLog, contentUrl);
+            }
+            // Not migrated yet
+        }
         File file = getFileFromUrl(contentUrl);
         return new SolrFileContentReader(file, contentUrl);
     }
@@ -141,6 +207,11 @@ public class SolrContentStore implements ContentStore
             throw new IllegalArgumentException("Retrieve a writer with a URL-providing ContentContext.");
         }
         String url = context.getContentUrl();
+        SolrContentSegmentLog segmentLog = getSegmentLog();
+        if (segmentLog != null)
+        {
+            return new SolrPackedContentWriter(segmentLog, url);
+        }
         File file = getFileFromUrl(url);
         SolrFileContentWriter writer = new SolrFileContentWriter(file, url);
         // Done
@@ -162,7 +233,20 @@ public class SolrContentStore implements ContentStore
     @Override
     public boolean delete(String contentUrl)
     {
+        boolean deleted = false;
+        SolrContentSegmentLog segmentLog = getSegmentLog();
+        if (segmentLog != null)
+        {
+            try
+            {
+                deleted = segmentLog.delete(contentUrl);
+            }
+            catch (IOException e)
+            {
+                throw new ContentIOException("Failed to delete content: " + contentUrl, e);
+            }
+        }
         File file = getFileFromUrl(contentUrl);
-        return file.delete();
+        return file.delete() || deleted;
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves the content of a {@link SolrContentStore} from the original layout, with one file per URL, into the
+ * segments of its {@link SolrContentSegmentLog}.
+ * <p/>
+ * Content that is already in the segments is newer than the file and is kept.  The migration can be run against a
+ * live store from within the Solr JVM, using the store's own log, as the store reads files that have not been
+ * migrated yet.  Otherwise it must be run offline, with Solr stopped, using:
+ * <pre>
+ *   java -cp ... org.alfresco.solr.content.SolrContentStoreMigration &lt;content store root&gt; [-keep]
+ * </pre>
+ * where <tt>-keep</tt> leaves the files in place.  An open log locks its directory, so the tool fails rather than
+ * write to segments that a running Solr has open.  Once it has run, every {@link SolrContentStore} using the root is
+ * packed, whether or not <tt>solr.content.packed</tt> is set.
+ * 
+ * @since 5.2
+ */
+public class SolrContentStoreMigration
+{
+    protected final static Logger log = LoggerFactory.getLogger(SolrContentStoreMigration.class);
+    
+    private static final int PROGRESS_INTERVAL = 10000;
+    
+    private final File root;
+    private final SolrContentSegmentLog segmentLog;
+    private final boolean deleteFiles;
+    
+    private long migrated;
+    private long skipped;
+    private long bytes;
+    
+    /**
+     * @param root              the root of the content store
+     * @param segmentLog        the segments to move the content into
+     * @param deleteFiles       <tt>true</tt> to delete each file (and empty directories) once migrated
+     */
+    public SolrContentStoreMigration(File root, SolrContentSegmentLog segmentLog, boolean deleteFiles)
+    {
+        this.root = root;
+        this.segmentLog = segmentLog;
+        this.deleteFiles = deleteFiles;
+    }
+    
+    /**
+     * Migrate all the files below the root
+     * 
+     * @return                  the number of files moved into the segments
+     */
+    public long migrate() throws IOException
+    {
+        long start = System.currentTimeMillis();
+        File[] children = root.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                // Skip the segments themselves
+                if (!child.equals(segmentLog.getDirectory()))
+                {
+                    migrate(child, SolrContentUrlBuilder.SOLR_PROTOCOL_PREFIX + child.getName());
+                }
+            }
+        }
+        segmentLog.sync();
+        log.info("Migrated " + migrated + " files (" + bytes + " bytes) into " + segmentLog.getDirectory() + " in " +
+                    (System.currentTimeMillis() - start) + "ms; skipped " + skipped + " files already migrated.");
+        return migrated;
+    }
+    
+    private void migrate(File file, String url) throws IOException
+    {
+        if (file.isDirectory())
+        {
+            File[] children = file.listFiles();
+            if (children != null)
+            {
+                for (File child : children)
+                {
+                    migrate(child, url + "/" + child.getName());
+                }
+            }
+            if (deleteFiles)
+            {
+                String[] remaining = file.list();
+                if (remaining != null && remaining.length == 0)
+                {
+                    file.delete();
+                }
+            }
+            return;
+        }
+        if (!url.endsWith(SolrContentUrlBuilder.FILE_EXTENSION))
+        {
+            return;
+        }
+        
+        if (segmentLog.exists(url))
+        {
+            skipped++;
+        }
+        else
+        {
+            byte[] data = FileUtils.readFileToByteArray(file);
+            if (!segmentLog.putIfAbsent(url, data))
+            {
+                // written by the live store since the check
+                skipped++;
+            }
+            else
+            {
+                migrated++;
+                bytes += data.length;
+                if (migrated % PROGRESS_INTERVAL == 0)
+                {
+                    log.info("Migrated " + migrated + " files into " + segmentLog.getDirectory());
+                }
+            }
+        }
+        if (deleteFiles && !file.delete())
+        {
+            log.warn("Failed to delete migrated file " + file);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.err.println("Usage: SolrContentStoreMigration <content store root> [-keep]");
+            System.exit(1);
+        }
+        File root = new File(args[0]).getAbsoluteFile();
+        boolean deleteFiles = !(args.length > 1 && "-keep".equals(args[1]));
+        
+        SolrContentSegmentLog segmentLog;
+        try
+        {
+            // Fails if Solr has the segments open
+            segmentLog = new SolrContentSegmentLog(new File(root, SolrContentSegmentLog.SEGMENT_DIRECTORY),
+                        SolrContentSegmentLog.DEFAULT_MAX_SEGMENT_SIZE, SolrContentSegmentLog.DEFAULT_COMPACTION_THRESHOLD);
+        }
+        catch (IOException e)
+        {
+            System.err.println("Failed to open the content segments; stop Solr before running the migration: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        try
+        {
+            long count = new SolrContentStoreMigration(root, segmentLog, deleteFiles).migrate();
+            System.out.println("Migrated " + count + " files into " + segmentLog.getDirectory());
+        }
+        finally
+        {
+            segmentLog.close();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.ContentIOException;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentStreamListener;
+import org.springframework.util.FileCopyUtils;
+
+/**
+ * Bare-bones implementation of the reader for SOLR purposes, reading from the {@link SolrContentSegmentLog}
+ * 
+ * @since 5.2
+ */
+public class SolrPackedContentReader implements ContentReader
+{
+    private final SolrContentSegmentLog segmentLog;
+    private final String contentUrl;
+
+    /**
+     * @param segmentLog    the log holding the content
+     * @param contentUrl    the content URL
+     */
+    protected SolrPackedContentReader(SolrContentSegmentLog segmentLog, String contentUrl)
+    {
+        this.segmentLog = segmentLog;
+        this.contentUrl = contentUrl;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SolrPackedContentReader [url=" + contentUrl + ", log=" + segmentLog + "]";
+    }
+
+    @Override
+    public long getSize()
+    {
+        try
+        {
+            return Math.max(segmentLog.getSize(contentUrl), 0L);
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to get size of content: " + contentUrl, e);
+        }
+    }
+
+    /**
+     * @return              the content, which must exist
+     */
+    private byte[] getBytes()
+    {
+        byte[] bytes;
+        try
+        {
+            bytes = segmentLog.get(contentUrl);
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to read content: " + contentUrl, e);
+        }
+        if (bytes == null)
+        {
+            throw new IllegalStateException("The content does not exist: " + contentUrl);
+        }
+        return bytes;
+    }
+
+    @Override
+    public final ContentReader getReader() throws ContentIOException
+    {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public synchronized final boolean isClosed()
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    public synchronized boolean isChannelOpen()
+    {
+        throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public FileChannel getFileChannel() throws ContentIOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean exists()
+    {
+        return segmentLog.exists(contentUrl);
+    }
+
+    @Override
+    public ReadableByteChannel getReadableChannel() throws ContentIOException
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public synchronized InputStream getContentInputStream() throws ContentIOException
+    {
+        return new ByteArrayInputStream(getBytes());
+    }
+
+    @Override
+    public synchronized void getContent(OutputStream os) throws ContentIOException
+    {
+        byte[] bytes = getBytes();
+        try
+        {
+            os.write(bytes);
+        }
+        catch (Throwable e)
+        {
+            throw new ContentIOException("Failed to copy content onto stream: " + contentUrl, e);
+        }
+    }
+
+    @Override
+    public synchronized void getContent(File targetFile) throws ContentIOException
+    {
+        if (targetFile.exists())
+        {
+            throw new IllegalStateException("The target file already exists: " + targetFile);
+        }
+        byte[] bytes = getBytes();
+        try
+        {
+            FileCopyUtils.copy(bytes, targetFile);
+        }
+        catch (Throwable e)
+        {
+            throw new ContentIOException("Failed to copy content onto file: " + targetFile, e);
+        }
+    }
+
+    @Override
+    public String getContentString(int length) throws ContentIOException
+    {
+        String str = getContentString();
+        if (str.length() > length)
+        {
+            return str.substring(0, length - 1);
+        }
+        else
+        {
+            return str;
+        }
+    }
+
+    @Override
+    public final String getContentString() throws ContentIOException
+    {
+        try
+        {
+            // read from the stream into a byte[]
+            InputStream is = getContentInputStream();
+            ByteArrayOutputStream os = new ByteArrayOutputStream();
+            FileCopyUtils.copy(is, os);  // both streams are closed
+            byte[] bytes = os.toByteArray();
+            // get the encoding for the string
+            String encoding = "UTF-8";
+            // create the string from the byte[] using encoding if necessary
+            String content = (encoding == null) ? new String(bytes) : new String(bytes, encoding);
+            // done
+            return content;
+        }
+        catch (IOException e)
+        {
+            throw new ContentIOException("Failed to copy content to string: \n" +
+                    "   accessor: " + this,
+                    e);
+        }
+    }
+    
+    /**
+     * @return              0 always, as the modification time is not recorded
+     */
+    @Override
+    public long getLastModified()
+    {
+        return 0L;
+    }
+
+    @Override
+    public void addListener(ContentStreamListener listener)
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public ContentData getContentData()
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public String getContentUrl()
+    {
+        return contentUrl;
+    }
+
+    @Override
+    public String getMimetype()
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public void setMimetype(String mimetype)
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public String getEncoding()
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public void setEncoding(String encoding)
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public Locale getLocale()
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+
+    @Override
+    public void setLocale(Locale locale)
+    {
+        throw new UnsupportedOperationException("Auto-created method not implemented.");
+    }
+}
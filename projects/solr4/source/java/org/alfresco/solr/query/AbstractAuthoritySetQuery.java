@@ -30,6 +30,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.solr.cache.CacheConstants;
+import org.alfresco.solr.cache.HotCacheKeys;
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.NumericDocValues;
@@ -155,6 +157,34 @@ public abstract class AbstractAuthoritySetQuery extends Query
         return hybridBitSet;
     }
 
+    /**
+     * Get the ACL bit sets for the authorities from the alfrescoReaderAclCache, building (and caching) them if required.
+     * The cache is optional; without it the bit sets are built for every call.
+     */
+    protected ReaderAclBitSets getReaderAclBitSets(String[] auths, String field, SolrIndexSearcher searcher) throws IOException
+    {
+        ReaderAclBitSets.Key key = new ReaderAclBitSets.Key(field, auths);
+        ReaderAclBitSets bitSets = (ReaderAclBitSets) searcher.cacheLookup(CacheConstants.ALFRESCO_READER_ACL_CACHE, key);
+        if (bitSets == null)
+        {
+            bitSets = ReaderAclBitSets.build(searcher.getTopReaderContext().leaves(), key, null);
+            searcher.cacheInsert(CacheConstants.ALFRESCO_READER_ACL_CACHE, key, bitSets);
+        }
+        return bitSets;
+    }
+
+    /**
+     * Count a use of the authorities, so that the caches of later searchers can be warmed with them.
+     */
+    protected void recordHotCacheKey(SolrIndexSearcher searcher)
+    {
+        HotCacheKeys hotCacheKeys = HotCacheKeys.getInstance(searcher.getCore().getName());
+        if (hotCacheKeys != null)
+        {
+            hotCacheKeys.recordAuthoritySet(authorities);
+        }
+    }
+
     protected BitsFilter getACLFilter(String[] auths, String field, SolrIndexSearcher searcher) throws IOException
     {
         HybridBitSet aclBits = getACLSet(auths, field, searcher);
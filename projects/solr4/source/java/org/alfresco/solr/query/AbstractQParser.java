@@ -58,6 +58,7 @@ import org.alfresco.solr.AlfrescoSolrDataModel;
 import org.alfresco.solr.AlfrescoSolrDataModel.ContentFieldType;
 import org.alfresco.solr.AlfrescoSolrDataModel.FieldUse;
 import org.alfresco.solr.AlfrescoSolrDataModel.IndexedField;
+import org.alfresco.solr.query.QueryModelCache.ParseInfo;
 import org.alfresco.util.Pair;
 import org.apache.commons.io.IOUtils;
 import org.apache.lucene.util.ArrayUtil;
@@ -132,6 +133,9 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
 	private HashSet<String> autoDetectQueryLocales = new HashSet<String>();
 	
 	private HashSet<String> fixedQueryLocales = new HashSet<String>();
+
+    /** How the query model was found by the last parse, for the debug output */
+    protected ParseInfo queryModelParseInfo = new ParseInfo();
     
     /**
      * @param qstr String
@@ -195,6 +199,15 @@ public abstract class AbstractQParser extends QParser implements QueryConstants
     }
 
     
+    @Override
+    public void addDebugInfo(NamedList<Object> debugInfo)
+    {
+        super.addDebugInfo(debugInfo);
+        debugInfo.add("queryModelCacheHit", queryModelParseInfo.isCacheHit());
+        debugInfo.add("queryModelParseTimeMs", queryModelParseInfo.getParseTimeMs());
+        debugInfo.add("queryModelCache", AlfrescoSolrDataModel.getInstance().getQueryModelCache().getStatistics());
+    }
+
     protected Pair<SearchParameters, Boolean> getSearchParameters()
     {
         SearchParameters searchParameters = new SearchParameters();
@@ -98,7 +98,7 @@ public class AlfrescoFTSQParserPlugin extends QParserPlugin
             {
                 Pair<SearchParameters, Boolean> searchParametersAndFilter = getSearchParameters();
 
-                Query query = AlfrescoSolrDataModel.getInstance().getFTSQuery(searchParametersAndFilter, req, rerankPhase);
+                Query query = AlfrescoSolrDataModel.getInstance().getFTSQuery(searchParametersAndFilter, req, rerankPhase, queryModelParseInfo);
                 if(log.isDebugEnabled())
                 {
                     log.debug("AFTS QP query as lucene:\t    "+query);
@@ -109,7 +109,7 @@ public class CmisQParserPlugin extends QParserPlugin
 
                 String altDic = this.params.get(SearchParameters.ALTERNATIVE_DICTIONARY);
                 org.alfresco.repo.search.impl.querymodel.Query queryModelQuery
-                = AlfrescoSolrDataModel.getInstance().parseCMISQueryToAlfrescoAbstractQuery(CMISQueryMode.CMS_WITH_ALFRESCO_EXTENSIONS, searchParameters, req, altDic, cmisVersion);
+                = AlfrescoSolrDataModel.getInstance().parseCMISQueryToAlfrescoAbstractQuery(CMISQueryMode.CMS_WITH_ALFRESCO_EXTENSIONS, searchParameters, req, altDic, cmisVersion, queryModelParseInfo);
 
                 // build the sort param and update the params on the request if required .....
 
@@ -1,38 +1,52 @@
-/*
- * #%L
- * Alfresco Solr 4
- * %%
- * Copyright (C) 2005 - 2016 Alfresco Software Limited
- * %%
- * This file is part of the Alfresco software. 
- * If the software was purchased under a paid Alfresco license, the terms of 
- * the paid license agreement will prevail.  Otherwise, the software is 
- * provided under the following open source license terms:
- * 
- * Alfresco is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Lesser General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- * 
- * Alfresco is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Lesser General Public License for more details.
- * 
- * You should have received a copy of the GNU Lesser General Public License
- * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
- * #L%
- */
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
 
 package org.alfresco.solr.query;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.WeakHashMap;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.FilterAtomicReader;
 import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.SegmentReader.CoreClosedListener;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
 
 
 /**
@@ -40,103 +54,465 @@ import org.apache.lucene.index.NumericDocValues;
  * possible access to numeric docValues. The DocValuesCache can be used instead of the Direct DocValues format which also
  * provides uncompressed in-memory docValues. The DocValuesCache can be used in situations when it is not
  * practical to re-index to use Direct docValues.
+ * <p>
+ * Values are loaded lazily for each segment and field, and shared by every searcher that uses the segment until the
+ * segment core is closed. Readers that are not, and do not wrap, a {@link SegmentReader} are not cached, as there is
+ * no core closed event to free their values. Each segment stores the values as offsets from the minimum value of the segment, in 1, 2, 4 or
+ * 8 bytes as the range of values requires, in a direct buffer outside of the java heap.
+ * <p>
+ * Direct buffers are reserved against a budget (see {@link #setMaxOffHeapBytes(long)}) before they are allocated;
+ * once the budget is used the values are held in a heap buffer instead, and counted as a heap fallback. The direct
+ * buffer of an evicted segment is freed straight away where the JVM allows it. Otherwise it stays charged to the
+ * budget until the garbage collector has freed it, so evicted buffers waiting for a GC can not push direct memory
+ * past the budget.
  **/
 
 public class DocValuesCache
 {
-    private static Map<String, WeakHashMap<Object, NumericDocValues>> cache = new HashMap();
+    private static final ConcurrentHashMap<String, Map<Object, PackedDocValues>> cache = new ConcurrentHashMap<String, Map<Object, PackedDocValues>>();
 
-    public static synchronized NumericDocValues getNumericDocValues(String field, AtomicReader reader) throws IOException
+    private static final AtomicLong bytesUsed = new AtomicLong();
+    private static final AtomicLong offHeapBytesUsed = new AtomicLong();
+    private static final AtomicInteger cachedSegments = new AtomicInteger();
+
+    /** Direct memory held by cached values and by evicted values that have not been freed yet */
+    private static final AtomicLong offHeapBytesReserved = new AtomicLong();
+    private static final AtomicLong heapFallbacks = new AtomicLong();
+    private static volatile long maxOffHeapBytes = defaultMaxOffHeapBytes();
+
+    /** Evicted direct buffers that could not be freed explicitly, released from the budget once collected */
+    private static final ReferenceQueue<ByteBuffer> collectedBuffers = new ReferenceQueue<ByteBuffer>();
+    private static final Set<CollectedBuffer> pendingBuffers = Collections.newSetFromMap(new ConcurrentHashMap<CollectedBuffer, Boolean>());
+
+    private static final Method CLEANER_METHOD;
+    private static final Method CLEAN_METHOD;
+    static
+    {
+        // As MMapDirectory unmaps its buffers
+        Method cleanerMethod = null;
+        Method cleanMethod = null;
+        try
+        {
+            cleanerMethod = Class.forName("java.nio.DirectByteBuffer").getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            cleanMethod.setAccessible(true);
+        }
+        catch(Exception e)
+        {
+            cleanerMethod = null;
+            cleanMethod = null;
+        }
+        CLEANER_METHOD = cleanerMethod;
+        CLEAN_METHOD = cleanMethod;
+    }
+
+    public static NumericDocValues getNumericDocValues(String field, AtomicReader reader) throws IOException
     {
-        WeakHashMap<Object, NumericDocValues> fieldCache = cache.get(field);
+        AtomicReader segmentReader = FilterAtomicReader.unwrap(reader);
+        if(!(segmentReader instanceof SegmentReader))
+        {
+            return reader.getNumericDocValues(field);
+        }
 
+        Map<Object, PackedDocValues> fieldCache = cache.get(field);
         if(fieldCache == null)
         {
-            fieldCache = new WeakHashMap();
-            cache.put(field, fieldCache);
+            cache.putIfAbsent(field, new ConcurrentHashMap<Object, PackedDocValues>());
+            fieldCache = cache.get(field);
         }
 
-        Object cacheKey = reader.getCoreCacheKey();
-        NumericDocValues cachedValues = fieldCache.get(cacheKey);
+        final Object cacheKey = reader.getCoreCacheKey();
+        PackedDocValues cachedValues = fieldCache.get(cacheKey);
+        if(cachedValues != null)
+        {
+            return cachedValues;
+        }
 
-        if(cachedValues == null)
+        // Only one thread loads the values of a field
+        synchronized(fieldCache)
         {
+            cachedValues = fieldCache.get(cacheKey);
+            if(cachedValues != null)
+            {
+                return cachedValues;
+            }
+
             NumericDocValues fieldValues = reader.getNumericDocValues(field);
             if(fieldValues == null)
             {
                 return null;
             }
-            else
+
+            cachedValues = PackedDocValues.load(fieldValues, reader.maxDoc());
+            fieldCache.put(cacheKey, cachedValues);
+            account(cachedValues, 1);
+        }
+
+        addCoreClosedListener((SegmentReader)segmentReader, fieldCache, cacheKey);
+        return cachedValues;
+    }
+
+    /*
+     * Frees the values when the segment core is closed, as the FieldCache does
+     */
+    private static void addCoreClosedListener(SegmentReader reader, final Map<Object, PackedDocValues> fieldCache,
+                final Object cacheKey)
+    {
+        reader.addCoreClosedListener(new CoreClosedListener()
+        {
+            @Override
+            public void onClose(Object ownerCoreCacheKey)
             {
-                int maxDoc = reader.maxDoc();
-                boolean longs = false;
-                int[] intValues = new int[maxDoc]; //Always start off with an int array.
-                SettableDocValues settableValues = new IntValues(intValues);
+                evict(fieldCache, cacheKey);
+            }
+        });
+    }
 
-                for(int i=0; i<maxDoc; i++)
+    /*
+     * Only called by the core closed event, once no reader of the segment can use the values any more, so their
+     * buffer can be freed
+     */
+    private static void evict(Map<Object, PackedDocValues> fieldCache, Object cacheKey)
+    {
+        PackedDocValues removed = fieldCache.remove(cacheKey);
+        if(removed != null)
+        {
+            account(removed, -1);
+            if(removed.isOffHeap())
+            {
+                free(removed.buffer);
+            }
+        }
+    }
+
+    private static void free(ByteBuffer buffer)
+    {
+        if(CLEANER_METHOD != null)
+        {
+            try
+            {
+                Object cleaner = CLEANER_METHOD.invoke(buffer);
+                if(cleaner != null)
                 {
-                    long value = fieldValues.get(i);
-                    if(value > Integer.MAX_VALUE && !longs)
-                    {
-                        longs = true;
-                        settableValues = new LongValues(intValues);
-                    }
-
-                    settableValues.set(i, value);
+                    CLEAN_METHOD.invoke(cleaner);
+                    offHeapBytesReserved.addAndGet(-buffer.capacity());
+                    return;
                 }
-                fieldCache.put(cacheKey, settableValues);
-                return settableValues;
+            }
+            catch(Exception e)
+            {
+                // Left to the garbage collector
             }
         }
-        else
+        pendingBuffers.add(new CollectedBuffer(buffer, collectedBuffers));
+    }
+
+    /*
+     * Release the budget of the evicted buffers that have been collected since the last time
+     */
+    private static void releaseCollectedBuffers()
+    {
+        Reference<? extends ByteBuffer> reference;
+        while((reference = collectedBuffers.poll()) != null)
         {
-            return cachedValues;
+            CollectedBuffer collected = (CollectedBuffer)reference;
+            if(pendingBuffers.remove(collected))
+            {
+                offHeapBytesReserved.addAndGet(-collected.size);
+            }
         }
     }
 
-    private static abstract class SettableDocValues extends NumericDocValues
+    private static boolean reserveOffHeap(int size)
     {
-        public abstract void set(int index, long value);
+        releaseCollectedBuffers();
+        while(true)
+        {
+            long reserved = offHeapBytesReserved.get();
+            if(reserved + size > maxOffHeapBytes)
+            {
+                return false;
+            }
+            if(offHeapBytesReserved.compareAndSet(reserved, reserved + size))
+            {
+                return true;
+            }
+        }
     }
 
-    private static class IntValues extends SettableDocValues
+    /*
+     * The JVM limits direct memory to -XX:MaxDirectMemorySize, or to the maximum heap size by default. Half of it is
+     * left for the other users of direct memory.
+     */
+    static long defaultMaxOffHeapBytes()
     {
-        private int[] values;
-
-        public IntValues(int[] values)
+        long maxDirectMemory = Runtime.getRuntime().maxMemory();
+        for(String argument : ManagementFactory.getRuntimeMXBean().getInputArguments())
         {
-            this.values = values;
+            if(argument.startsWith("-XX:MaxDirectMemorySize="))
+            {
+                maxDirectMemory = parseSize(argument.substring("-XX:MaxDirectMemorySize=".length()));
+            }
         }
+        return maxDirectMemory / 2;
+    }
 
-        public void set(int index, long value)
+    static long parseSize(String size)
+    {
+        String lowerCase = size.trim().toLowerCase();
+        long multiplier = 1L;
+        switch(lowerCase.isEmpty() ? ' ' : lowerCase.charAt(lowerCase.length() - 1))
         {
-            this.values[index] = (int)value;
+        case 'k':
+            multiplier = 1024L;
+            break;
+        case 'm':
+            multiplier = 1024L * 1024L;
+            break;
+        case 'g':
+            multiplier = 1024L * 1024L * 1024L;
+            break;
+        case 't':
+            multiplier = 1024L * 1024L * 1024L * 1024L;
+            break;
+        default:
+            return Long.parseLong(lowerCase);
         }
+        return Long.parseLong(lowerCase.substring(0, lowerCase.length() - 1)) * multiplier;
+    }
 
-        public long get(int index) {
-            return values[index];
+    /**
+     * Set the direct memory that the cached values of every core may use; values loaded once it is used are held on
+     * the heap. Values that are already cached are not moved.
+     */
+    public static void setMaxOffHeapBytes(long maxBytes)
+    {
+        maxOffHeapBytes = maxBytes;
+    }
+
+    public static long getMaxOffHeapBytes()
+    {
+        return maxOffHeapBytes;
+    }
+
+    private static void account(PackedDocValues values, int sign)
+    {
+        cachedSegments.addAndGet(sign);
+        bytesUsed.addAndGet(sign * values.ramBytesUsed());
+        if(values.isOffHeap())
+        {
+            offHeapBytesUsed.addAndGet(sign * values.ramBytesUsed());
         }
     }
 
-    private static class LongValues extends SettableDocValues
+    /**
+     * @return the bytes held by the cached values of every segment and field, on and off heap
+     */
+    public static long ramBytesUsed()
     {
-        private long[] values;
+        return bytesUsed.get();
+    }
+
+    /**
+     * @return the bytes held by cached values in direct buffers
+     */
+    public static long offHeapBytesUsed()
+    {
+        return offHeapBytesUsed.get();
+    }
 
-        public LongValues(int[] ivalues)
+    /**
+     * @return the bytes of evicted direct buffers that are waiting for the garbage collector to free them
+     */
+    public static long offHeapBytesPendingRelease()
+    {
+        releaseCollectedBuffers();
+        return Math.max(0L, offHeapBytesReserved.get() - offHeapBytesUsed.get());
+    }
+
+    /**
+     * @return the number of times values were held on the heap because the direct memory budget was used
+     */
+    public static long getHeapFallbackCount()
+    {
+        return heapFallbacks.get();
+    }
+
+    public static int getCachedSegmentCount()
+    {
+        return cachedSegments.get();
+    }
+
+    /**
+     * The values of one field in one segment, packed into the fewest whole bytes that hold the range of values.
+     */
+    static class PackedDocValues extends NumericDocValues implements Accountable
+    {
+        private final long minValue;
+        private final int bytesPerValue;
+        private final ByteBuffer buffer;
+        private final long[] longValues;
+
+        private PackedDocValues(long minValue, int bytesPerValue, ByteBuffer buffer, long[] longValues)
         {
-            values = new long[ivalues.length];
-            //TODO: Validate to you can copy an int[] into a long[].
-            System.arraycopy(ivalues, 0, values, 0, ivalues.length);
+            this.minValue = minValue;
+            this.bytesPerValue = bytesPerValue;
+            this.buffer = buffer;
+            this.longValues = longValues;
         }
 
-        public void set(int index, long value)
+        static PackedDocValues load(NumericDocValues fieldValues, int maxDoc)
         {
-            this.values[index] = value;
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for(int i=0; i<maxDoc; i++)
+            {
+                long value = fieldValues.get(i);
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            if(maxDoc == 0)
+            {
+                min = max = 0;
+            }
+
+            int bytesPerValue = bytesRequired(min, max);
+            long size = (long)maxDoc * bytesPerValue;
+            if(size > Integer.MAX_VALUE)
+            {
+                // Too big for one buffer
+                long[] longValues = new long[maxDoc];
+                for(int i=0; i<maxDoc; i++)
+                {
+                    longValues[i] = fieldValues.get(i);
+                }
+                return new PackedDocValues(0, 8, null, longValues);
+            }
+
+            ByteBuffer buffer = allocate((int)size);
+            for(int i=0; i<maxDoc; i++)
+            {
+                long delta = fieldValues.get(i) - min;
+                switch(bytesPerValue)
+                {
+                case 1:
+                    buffer.put(i, (byte)delta);
+                    break;
+                case 2:
+                    buffer.putShort(i << 1, (short)delta);
+                    break;
+                case 4:
+                    buffer.putInt(i << 2, (int)delta);
+                    break;
+                case 8:
+                    buffer.putLong(i << 3, delta);
+                    break;
+                default:
+                    // All values are the same
+                }
+            }
+            return new PackedDocValues(min, bytesPerValue, buffer, null);
+        }
+
+        static int bytesRequired(long min, long max)
+        {
+            long range = max - min;
+            if(range == 0)
+            {
+                return 0;
+            }
+            else if(range < 0 || range > 0xFFFFFFFFL)
+            {
+                // A negative range overflowed
+                return 8;
+            }
+            else if(range > 0xFFFFL)
+            {
+                return 4;
+            }
+            else if(range > 0xFFL)
+            {
+                return 2;
+            }
+            return 1;
+        }
+
+        private static ByteBuffer allocate(int size)
+        {
+            if(size == 0 || !reserveOffHeap(size))
+            {
+                if(size > 0)
+                {
+                    heapFallbacks.incrementAndGet();
+                }
+                return ByteBuffer.allocate(size);
+            }
+            boolean allocated = false;
+            try
+            {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+                allocated = true;
+                return buffer;
+            }
+            finally
+            {
+                if(!allocated)
+                {
+                    offHeapBytesReserved.addAndGet(-size);
+                }
+            }
         }
 
         public long get(int index)
         {
-            return values[index];
+            switch(bytesPerValue)
+            {
+            case 0:
+                return minValue;
+            case 1:
+                return minValue + (buffer.get(index) & 0xFFL);
+            case 2:
+                return minValue + (buffer.getShort(index << 1) & 0xFFFFL);
+            case 4:
+                return minValue + (buffer.getInt(index << 2) & 0xFFFFFFFFL);
+            default:
+                return longValues != null ? longValues[index] : minValue + buffer.getLong(index << 3);
+            }
+        }
+
+        int getBytesPerValue()
+        {
+            return bytesPerValue;
+        }
+
+        boolean isOffHeap()
+        {
+            return buffer != null && buffer.isDirect();
+        }
+
+        @Override
+        public long ramBytesUsed()
+        {
+            if(longValues != null)
+            {
+                return RamUsageEstimator.sizeOf(longValues);
+            }
+            return buffer == null ? 0 : buffer.capacity();
+        }
+    }
+
+    /**
+     * Tells when an evicted direct buffer that could not be freed explicitly has been collected
+     */
+    private static class CollectedBuffer extends PhantomReference<ByteBuffer>
+    {
+        private final int size;
+
+        CollectedBuffer(ByteBuffer buffer, ReferenceQueue<ByteBuffer> queue)
+        {
+            super(buffer, queue);
+            this.size = buffer.capacity();
         }
     }
-}
\ No newline at end of file
+}
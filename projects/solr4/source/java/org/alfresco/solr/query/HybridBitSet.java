@@ -27,6 +27,7 @@
 package org.alfresco.solr.query;
 
 import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
 
 import java.util.Set;
 import java.util.HashSet;
@@ -77,4 +78,13 @@ public class HybridBitSet
             return set.contains((long)bit);
         }
     }
+
+    /**
+     * @return an estimate of the memory used, counting each sparse bit as a boxed Long in a HashMap entry
+     */
+    public long ramBytesUsed()
+    {
+        long bytes = (bits == null) ? 0 : RamUsageEstimator.sizeOf(bits.getBits());
+        return bytes + set.size() * (RamUsageEstimator.NUM_BYTES_OBJECT_HEADER * 2L + RamUsageEstimator.NUM_BYTES_LONG + RamUsageEstimator.NUM_BYTES_OBJECT_REF * 3L + RamUsageEstimator.NUM_BYTES_INT);
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.repo.search.impl.querymodel.Query;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+
+/**
+ * A bounded LRU cache of the query models parsed from AFTS and CMIS query text, so that the same query is not
+ * parsed and resolved against the dictionary every time it is run.
+ * <p>
+ * The key holds the query language and text, and every option the parse depends on, including the version of the
+ * dictionary; so models parsed against a dictionary that has since changed are never returned. The models are only
+ * read when Lucene queries are built from them, so one model may be used by many requests at once.
+ * 
+ * @since 5.2
+ */
+public class QueryModelCache
+{
+    private final int maxSize;
+    private final Map<Key, Query> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong parseTimeNanos = new AtomicLong();
+
+    public QueryModelCache(final int maxSize)
+    {
+        this.maxSize = maxSize;
+        this.cache = new LinkedHashMap<Key, Query>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Query> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * @return the cached model, or null if it must be parsed
+     */
+    public Query get(Key key, ParseInfo parseInfo)
+    {
+        Query query = null;
+        if (maxSize > 0)
+        {
+            synchronized (cache)
+            {
+                query = cache.get(key);
+            }
+        }
+        if (query != null)
+        {
+            hits.incrementAndGet();
+            if (parseInfo != null)
+            {
+                parseInfo.cacheHit = true;
+                parseInfo.parseTimeNanos = 0;
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Caches a model that has just been parsed.
+     */
+    public void put(Key key, Query query, long parseNanos, ParseInfo parseInfo)
+    {
+        misses.incrementAndGet();
+        parseTimeNanos.addAndGet(parseNanos);
+        if (parseInfo != null)
+        {
+            parseInfo.cacheHit = false;
+            parseInfo.parseTimeNanos = parseNanos;
+        }
+        if (maxSize > 0)
+        {
+            synchronized (cache)
+            {
+                cache.put(key, query);
+            }
+        }
+    }
+
+    public void clear()
+    {
+        synchronized (cache)
+        {
+            cache.clear();
+        }
+    }
+
+    public int size()
+    {
+        synchronized (cache)
+        {
+            return cache.size();
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public NamedList<Object> getStatistics()
+    {
+        NamedList<Object> stats = new SimpleOrderedMap<Object>();
+        long lookups = hits.get() + misses.get();
+        stats.add("size", size());
+        stats.add("maxSize", maxSize);
+        stats.add("hits", hits.get());
+        stats.add("misses", misses.get());
+        stats.add("hitratio", lookups == 0 ? 0.0f : (float) hits.get() / lookups);
+        stats.add("meanParseTimeMs", misses.get() == 0 ? 0.0 : parseTimeNanos.get() / 1000000.0 / misses.get());
+        return stats;
+    }
+
+    /**
+     * The query language, text, parse options and dictionary version of a query model.
+     */
+    public static class Key
+    {
+        private final Object[] parts;
+        private final int hashCode;
+
+        public Key(Object... parts)
+        {
+            this.parts = parts;
+            this.hashCode = Arrays.hashCode(parts);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && Arrays.equals(parts, other.parts);
+        }
+
+        @Override
+        public String toString()
+        {
+            return Arrays.toString(parts);
+        }
+    }
+
+    /**
+     * How the model of one query was found, for the debug output of the request.
+     */
+    public static class ParseInfo
+    {
+        private boolean cacheHit;
+        private long parseTimeNanos;
+
+        public boolean isCacheHit()
+        {
+            return cacheHit;
+        }
+
+        public double getParseTimeMs()
+        {
+            return parseTimeNanos / 1000000.0;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.service.cmr.security.AuthorityType;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+
+/**
+ * The ACL bit sets for a set of authorities, as held in the alfrescoReaderAclCache.
+ * <p>
+ * The ACL ids granted to the authorities are held per segment, keyed by the segment's combined core and deletes key,
+ * so that a new searcher only has to recompute the segments that have changed (see {@link #build}).  The same applies
+ * to the documents owned by the user authorities and to the readable documents of each segment, which are computed
+ * lazily; the latter are only carried over when the ACL ids granted across the whole index are unchanged.
+ * <p>
+ * All the bit sets returned are shared by the queries using the cache entry and must not be modified.  The documents a
+ * query may see, combining the readable and owned documents, are computed once per segment by {@link #getVisibleDocs}.
+ * <p>
+ * The memory held by an entry grows as its per segment bit sets are computed, so it is reported by
+ * {@link #ramBytesUsed()} for the cache to evict entries by size (see {@link org.alfresco.solr.cache.MemoryBoundedLRUCache}).
+ */
+public class ReaderAclBitSets implements Accountable
+{
+    private static final long[] NO_ACL_IDS = new long[0];
+    
+    // The most ACL ids held in the fixed (non sparse) part of the HybridBitSet
+    private static final int MAX_FIXED_ACL_BITS = 60000000;
+    
+    private final Key key;
+    private final Map<Object, long[]> segmentAclIds;
+    private final Map<Object, FixedBitSet> segmentOwnerDocs;
+    private final Map<Object, FixedBitSet> segmentReadableDocs;
+    private final Map<Object, FixedBitSet> segmentVisibleDocs = new ConcurrentHashMap<Object, FixedBitSet>();
+    private final long[] aclIds;
+    private final HybridBitSet aclBits;
+    
+    private ReaderAclBitSets(Key key, Map<Object, long[]> segmentAclIds, Map<Object, FixedBitSet> segmentOwnerDocs,
+                Map<Object, FixedBitSet> segmentReadableDocs, long[] aclIds)
+    {
+        this.key = key;
+        this.segmentAclIds = segmentAclIds;
+        this.segmentOwnerDocs = segmentOwnerDocs;
+        this.segmentReadableDocs = segmentReadableDocs;
+        this.aclIds = aclIds;
+        
+        if (aclIds.length == 0)
+        {
+            this.aclBits = new EmptyHybridBitSet();
+        }
+        else
+        {
+            long maxAclId = aclIds[aclIds.length - 1];
+            this.aclBits = new HybridBitSet((int) Math.min(maxAclId + 1, MAX_FIXED_ACL_BITS));
+            for (long aclId : aclIds)
+            {
+                aclBits.set(aclId);
+            }
+        }
+    }
+    
+    /**
+     * Build the ACL bit sets for the given index segments
+     * 
+     * @param leaves            the segments of the searcher
+     * @param key               the authorities
+     * @param previous          the bit sets built for a previous searcher, to reuse unchanged segments (optional)
+     */
+    public static ReaderAclBitSets build(List<AtomicReaderContext> leaves, Key key, ReaderAclBitSets previous) throws IOException
+    {
+        Map<Object, long[]> segmentAclIds = new HashMap<Object, long[]>(leaves.size() * 2);
+        Map<Object, FixedBitSet> segmentOwnerDocs = new ConcurrentHashMap<Object, FixedBitSet>();
+        Map<Object, FixedBitSet> segmentReadableDocs = new ConcurrentHashMap<Object, FixedBitSet>();
+        
+        TreeSet<Long> allAclIds = new TreeSet<Long>();
+        for (AtomicReaderContext context : leaves)
+        {
+            AtomicReader reader = context.reader();
+            Object segmentKey = reader.getCombinedCoreAndDeletesKey();
+            
+            long[] ids = (previous == null) ? null : previous.segmentAclIds.get(segmentKey);
+            if (ids == null)
+            {
+                ids = getSegmentAclIds(reader, key);
+            }
+            else
+            {
+                // owner docs only depend on the segment
+                FixedBitSet ownerDocs = previous.segmentOwnerDocs.get(segmentKey);
+                if (ownerDocs != null)
+                {
+                    segmentOwnerDocs.put(segmentKey, ownerDocs);
+                }
+            }
+            segmentAclIds.put(segmentKey, ids);
+            for (long id : ids)
+            {
+                allAclIds.add(id);
+            }
+        }
+        
+        long[] aclIds = new long[allAclIds.size()];
+        int i = 0;
+        for (Long aclId : allAclIds)
+        {
+            aclIds[i++] = aclId;
+        }
+        
+        // readable docs depend on the ACL ids granted across all segments
+        if ((previous != null) && Arrays.equals(previous.aclIds, aclIds))
+        {
+            for (Object segmentKey : segmentAclIds.keySet())
+            {
+                FixedBitSet readableDocs = previous.segmentReadableDocs.get(segmentKey);
+                if (readableDocs != null)
+                {
+                    segmentReadableDocs.put(segmentKey, readableDocs);
+                }
+            }
+        }
+        
+        return new ReaderAclBitSets(key, segmentAclIds, segmentOwnerDocs, segmentReadableDocs, aclIds);
+    }
+    
+    private static long[] getSegmentAclIds(AtomicReader reader, Key key) throws IOException
+    {
+        Terms terms = reader.terms(key.field);
+        NumericDocValues aclValues = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, reader);
+        if ((terms == null) || (aclValues == null))
+        {
+            return NO_ACL_IDS;
+        }
+        
+        TreeSet<Long> ids = new TreeSet<Long>();
+        TermsEnum termsEnum = terms.iterator(null);
+        DocsEnum docsEnum = null;
+        for (String authority : key.authorities)
+        {
+            if (termsEnum.seekExact(new BytesRef(authority)))
+            {
+                docsEnum = termsEnum.docs(reader.getLiveDocs(), docsEnum, DocsEnum.FLAG_NONE);
+                for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc())
+                {
+                    ids.add(aclValues.get(doc));
+                }
+            }
+        }
+        
+        long[] result = new long[ids.size()];
+        int i = 0;
+        for (Long id : ids)
+        {
+            result[i++] = id;
+        }
+        return result;
+    }
+    
+    private FixedBitSet getSegmentOwnerDocs(AtomicReader reader) throws IOException
+    {
+        Object segmentKey = reader.getCombinedCoreAndDeletesKey();
+        FixedBitSet ownerDocs = segmentOwnerDocs.get(segmentKey);
+        if (ownerDocs == null)
+        {
+            ownerDocs = new FixedBitSet(reader.maxDoc());
+            Terms terms = reader.terms(QueryConstants.FIELD_OWNER);
+            if (terms != null)
+            {
+                TermsEnum termsEnum = terms.iterator(null);
+                DocsEnum docsEnum = null;
+                for (String authority : key.authorities)
+                {
+                    if ((AuthorityType.getAuthorityType(authority) == AuthorityType.USER) && termsEnum.seekExact(new BytesRef(authority)))
+                    {
+                        docsEnum = termsEnum.docs(reader.getLiveDocs(), docsEnum, DocsEnum.FLAG_NONE);
+                        for (int doc = docsEnum.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docsEnum.nextDoc())
+                        {
+                            ownerDocs.set(doc);
+                        }
+                    }
+                }
+            }
+            segmentOwnerDocs.put(segmentKey, ownerDocs);
+        }
+        return ownerDocs;
+    }
+    
+    private FixedBitSet getSegmentReadableDocs(AtomicReader reader) throws IOException
+    {
+        Object segmentKey = reader.getCombinedCoreAndDeletesKey();
+        FixedBitSet readableDocs = segmentReadableDocs.get(segmentKey);
+        if (readableDocs == null)
+        {
+            int maxDoc = reader.maxDoc();
+            readableDocs = new FixedBitSet(maxDoc);
+            NumericDocValues fieldValues = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, reader);
+            if ((fieldValues != null) && (aclIds.length > 0))
+            {
+                for (int i = 0; i < maxDoc; i++)
+                {
+                    if (aclBits.get(fieldValues.get(i)))
+                    {
+                        readableDocs.set(i);
+                    }
+                }
+            }
+            segmentReadableDocs.put(segmentKey, readableDocs);
+        }
+        return readableDocs;
+    }
+    
+    public Key getKey()
+    {
+        return key;
+    }
+    
+    /**
+     * @return                  the ACL ids granted to the authorities (shared - must not be modified)
+     */
+    public HybridBitSet getAclBits()
+    {
+        return aclBits;
+    }
+    
+    /**
+     * @return                  the number of ACL ids granted to the authorities
+     */
+    public int getAclCount()
+    {
+        return aclIds.length;
+    }
+    
+    /**
+     * @param leaves            the segments of the searcher the bit sets were built for
+     * @return                  the documents owned by the user authorities (shared - must not be modified)
+     */
+    public BitsFilter getOwnerDocs(List<AtomicReaderContext> leaves) throws IOException
+    {
+        List<FixedBitSet> bitSets = new ArrayList<FixedBitSet>(leaves.size());
+        for (AtomicReaderContext context : leaves)
+        {
+            bitSets.add(getSegmentOwnerDocs(context.reader()));
+        }
+        return new BitsFilter(bitSets);
+    }
+    
+    /**
+     * @param leaves            the segments of the searcher the bit sets were built for
+     * @return                  the documents readable by the authorities (shared - must not be modified)
+     */
+    public BitsFilter getReadableDocs(List<AtomicReaderContext> leaves) throws IOException
+    {
+        List<FixedBitSet> bitSets = new ArrayList<FixedBitSet>(leaves.size());
+        for (AtomicReaderContext context : leaves)
+        {
+            bitSets.add(getSegmentReadableDocs(context.reader()));
+        }
+        return new BitsFilter(bitSets);
+    }
+    
+    /**
+     * The documents that may be seen by the authorities: the readable documents and the documents they own.  Unless
+     * owners may always read their documents, owned documents are only visible if they are readable by the owner
+     * authority.  The result is computed once for each segment of a searcher and is not carried over to a new searcher,
+     * as it depends on the ACL ids granted to the owner authority as well.
+     * 
+     * @param leaves            the segments of the searcher the bit sets were built for
+     * @param ownerReadBitSets  the bit sets of the owner authority, or <code>null</code> if owners may always read
+     * @return                  the visible documents (shared - must not be modified)
+     */
+    public BitsFilter getVisibleDocs(List<AtomicReaderContext> leaves, ReaderAclBitSets ownerReadBitSets) throws IOException
+    {
+        List<FixedBitSet> bitSets = new ArrayList<FixedBitSet>(leaves.size());
+        for (AtomicReaderContext context : leaves)
+        {
+            AtomicReader reader = context.reader();
+            Object segmentKey = reader.getCombinedCoreAndDeletesKey();
+            FixedBitSet visibleDocs = segmentVisibleDocs.get(segmentKey);
+            if (visibleDocs == null)
+            {
+                visibleDocs = getSegmentOwnerDocs(reader).clone();
+                if (ownerReadBitSets != null)
+                {
+                    visibleDocs.and(ownerReadBitSets.getSegmentReadableDocs(reader));
+                }
+                visibleDocs.or(getSegmentReadableDocs(reader));
+                segmentVisibleDocs.put(segmentKey, visibleDocs);
+            }
+            bitSets.add(visibleDocs);
+        }
+        return new BitsFilter(bitSets);
+    }
+    
+    /**
+     * @return                  the memory held by the bit sets computed so far
+     */
+    @Override
+    public long ramBytesUsed()
+    {
+        long bytes = RamUsageEstimator.sizeOf(aclIds) + aclBits.ramBytesUsed();
+        for (long[] ids : segmentAclIds.values())
+        {
+            bytes += RamUsageEstimator.sizeOf(ids);
+        }
+        bytes += ramBytesUsed(segmentOwnerDocs) + ramBytesUsed(segmentReadableDocs) + ramBytesUsed(segmentVisibleDocs);
+        return bytes;
+    }
+    
+    private static long ramBytesUsed(Map<Object, FixedBitSet> segmentDocs)
+    {
+        long bytes = 0;
+        for (FixedBitSet docs : segmentDocs.values())
+        {
+            bytes += RamUsageEstimator.sizeOf(docs.getBits());
+        }
+        return bytes;
+    }
+    
+    @Override
+    public String toString()
+    {
+        return "ReaderAclBitSets[" + key + ", segments=" + segmentAclIds.size() + ", acls=" + aclIds.length + "]";
+    }
+    
+    /**
+     * Cache key for a set of authorities.  The authorities are sorted and duplicates removed, so the key (and its
+     * hash code) does not depend on the order in which the authorities were given.
+     */
+    public static final class Key
+    {
+        private final String field;
+        private final String[] authorities;
+        private final int hashCode;
+        
+        public Key(String field, String[] authorities)
+        {
+            this.field = field;
+            TreeSet<String> sorted = new TreeSet<String>(Arrays.asList(authorities));
+            this.authorities = sorted.toArray(new String[sorted.size()]);
+            this.hashCode = 31 * field.hashCode() + Arrays.hashCode(this.authorities);
+        }
+        
+        public String getField()
+        {
+            return field;
+        }
+        
+        public String[] getAuthorities()
+        {
+            return authorities.clone();
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return (hashCode == other.hashCode) && field.equals(other.field) && Arrays.equals(authorities, other.authorities);
+        }
+        
+        @Override
+        public String toString()
+        {
+            return field + ":" + authorities.length + " authorities (" + Integer.toHexString(hashCode) + ")";
+        }
+    }
+}
@@ -4622,6 +4622,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 		reader.setXPathHandler(handler);
 		reader.parse(queryText);
 		SolrPathQuery pathQuery = handler.getQuery();
+		pathQuery.setXPath(queryText);
 		pathQuery.setRepeats(withRepeats);
 		return new SolrCachingPathQuery(pathQuery);
 	}
@@ -4635,6 +4636,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 		reader.setXPathHandler(handler);
 		reader.parse("//" + queryText);
 		SolrPathQuery pathQuery = handler.getQuery();
+		pathQuery.setXPath("//" + queryText);
 		return new SolrCachingPathQuery(pathQuery);
 	}
 
@@ -4647,6 +4649,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 		reader.setXPathHandler(handler);
 		reader.parse("//" + queryText);
 		SolrPathQuery pathQuery = handler.getQuery();
+		pathQuery.setXPath("//" + queryText);
 		pathQuery.setPathField(FIELD_PRIMARYASSOCQNAME);
 		return new SolrCachingPathQuery(pathQuery);
 	}
@@ -4660,6 +4663,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 		reader.setXPathHandler(handler);
 		reader.parse("//" + queryText);
 		SolrPathQuery pathQuery = handler.getQuery();
+		pathQuery.setXPath("//" + queryText);
 		pathQuery.setPathField(FIELD_PRIMARYASSOCTYPEQNAME);
 		return new SolrCachingPathQuery(pathQuery);
 	}
@@ -4673,6 +4677,7 @@ public class Solr4QueryParser extends QueryParser implements QueryConstants
 		reader.setXPathHandler(handler);
 		reader.parse("//" + queryText);
 		SolrPathQuery pathQuery = handler.getQuery();
+		pathQuery.setXPath("//" + queryText);
 		pathQuery.setPathField(FIELD_ASSOCTYPEQNAME);
 		return new SolrCachingPathQuery(pathQuery);
 	}
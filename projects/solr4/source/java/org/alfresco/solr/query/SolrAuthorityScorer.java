@@ -31,6 +31,7 @@ import java.util.Properties;
 
 import org.alfresco.service.cmr.security.PermissionService;
 import org.alfresco.solr.cache.CacheConstants;
+import org.alfresco.solr.cache.HotCacheKeys;
 import org.alfresco.solr.data.GlobalReaders;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.search.MatchAllDocsQuery;
@@ -61,6 +62,11 @@ public class SolrAuthorityScorer extends AbstractSolrCachingScorer
         boolean doPermissionChecks = Boolean.parseBoolean(p.getProperty("alfresco.doPermissionChecks", "true"));
         
         Query key = new SolrAuthorityQuery(authority);
+        HotCacheKeys hotCacheKeys = HotCacheKeys.getInstance(searcher.getCore().getName());
+        if (hotCacheKeys != null)
+        {
+            hotCacheKeys.recordAuthority(authority);
+        }
         
         DocSet answer = (DocSet)searcher.cacheLookup(CacheConstants.ALFRESCO_AUTHORITY_CACHE, key);
         if(answer != null)
@@ -28,12 +28,10 @@ package org.alfresco.solr.query;
 import java.io.IOException;
 
 import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
-import org.alfresco.service.cmr.security.AuthorityType;
 import org.alfresco.service.cmr.security.PermissionService;
 import org.alfresco.solr.data.GlobalReaders;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.NumericDocValues;
-import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.util.FixedBitSet;
 import org.apache.solr.search.*;
@@ -83,20 +81,21 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
             return new MatchAllDocsQuery().createWeight(searcher);
         }
 
-        BitsFilter readFilter  = getACLFilter(auths, QueryConstants.FIELD_READER, solrIndexSearcher);
-        BitsFilter ownerFilter = getOwnerFilter(auths, solrIndexSearcher);
+        List<AtomicReaderContext> leaves = solrIndexSearcher.getTopReaderContext().leaves();
+        recordHotCacheKey(solrIndexSearcher);
+        ReaderAclBitSets readerBitSets = getReaderAclBitSets(auths, QueryConstants.FIELD_READER, solrIndexSearcher);
 
+        // the visible docs are shared through the cache, so are used read only
         if (globalReaders.contains(PermissionService.OWNER_AUTHORITY))
         {
-            readFilter.or(ownerFilter);
+            BitsFilter readFilter = readerBitSets.getVisibleDocs(leaves, null);
             return new ConstantScoreQuery(readFilter).createWeight(searcher);
         }
         else
         {
             String[] ownerAuth = {PermissionService.OWNER_AUTHORITY};
-            BitsFilter ownerReadFilter  = getACLFilter(ownerAuth, QueryConstants.FIELD_READER, solrIndexSearcher);
-            ownerReadFilter.and(ownerFilter);
-            readFilter.or(ownerReadFilter);
+            ReaderAclBitSets ownerReadBitSets = getReaderAclBitSets(ownerAuth, QueryConstants.FIELD_READER, solrIndexSearcher);
+            BitsFilter readFilter = readerBitSets.getVisibleDocs(leaves, ownerReadBitSets);
             return new ConstantScoreQuery(readFilter).createWeight(searcher);
         }
     }
@@ -128,8 +127,10 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
 
         try
         {
-            HybridBitSet aclSet = getACLSet(auths, QueryConstants.FIELD_READER, solrIndexSearcher);
-            BitsFilter ownerFilter = getOwnerFilter(auths, solrIndexSearcher);
+            recordHotCacheKey(solrIndexSearcher);
+            ReaderAclBitSets readerBitSets = getReaderAclBitSets(auths, QueryConstants.FIELD_READER, solrIndexSearcher);
+            HybridBitSet aclSet = readerBitSets.getAclBits();
+            BitsFilter ownerFilter = readerBitSets.getOwnerDocs(solrIndexSearcher.getTopReaderContext().leaves());
 
             if (globalReaders.contains(PermissionService.OWNER_AUTHORITY))
             {
@@ -138,7 +139,7 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
             else
             {
                 String[] ownerAuth = {PermissionService.OWNER_AUTHORITY};
-                HybridBitSet ownerAclSet = getACLSet(ownerAuth, QueryConstants.FIELD_READER, solrIndexSearcher);
+                HybridBitSet ownerAclSet = getReaderAclBitSets(ownerAuth, QueryConstants.FIELD_READER, solrIndexSearcher).getAclBits();
                 return new AccessControlCollectorWithoutOwnerRead(aclSet, ownerAclSet, ownerFilter);
             }
         }
@@ -183,54 +184,6 @@ public class SolrAuthoritySetQuery extends AbstractAuthoritySetQuery implements
         return stringBuilder.toString();
     }
 
-    private BitsFilter getOwnerFilter(String[] auths, SolrIndexSearcher searcher) throws IOException
-    {
-        BooleanQuery bQuery = new BooleanQuery();
-        for(String current : auths)
-        {
-            if (AuthorityType.getAuthorityType(current) == AuthorityType.USER)
-            {
-                bQuery.add(new TermQuery(new Term(QueryConstants.FIELD_OWNER, current)), BooleanClause.Occur.SHOULD);
-            }
-        }
-
-        BitsFilterCollector collector = new BitsFilterCollector(searcher.getTopReaderContext().leaves().size());
-        searcher.search(bQuery,collector);
-        return collector.getBitsFilter();
-    }
-
-    class BitsFilterCollector extends Collector
-    {
-        private List<FixedBitSet> sets;
-        private FixedBitSet set;
-
-        public BitsFilterCollector(int leafCount)
-        {
-            this.sets = new ArrayList(leafCount);
-        }
-
-        public BitsFilter getBitsFilter() {
-            return new BitsFilter(sets);
-        }
-
-        public boolean acceptsDocsOutOfOrder() {
-            return false;
-        }
-
-        public void setNextReader(AtomicReaderContext context) throws IOException {
-            set = new FixedBitSet(context.reader().maxDoc());
-            sets.add(set);
-        }
-
-        public void setScorer(Scorer scorer) {
-
-        }
-
-        public void collect(int doc) {
-            set.set(doc);
-        }
-    }
-
     class AccessControlCollector extends DelegatingCollector
     {
         private HybridBitSet aclIds;
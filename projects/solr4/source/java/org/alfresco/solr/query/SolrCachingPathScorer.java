@@ -28,6 +28,7 @@ package org.alfresco.solr.query;
 import java.io.IOException;
 
 import org.alfresco.solr.cache.CacheConstants;
+import org.alfresco.solr.cache.HotCacheKeys;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.search.Weight;
 import org.apache.lucene.util.Bits;
@@ -57,6 +58,11 @@ public class SolrCachingPathScorer extends AbstractSolrCachingScorer
                                                Bits acceptDocs, SolrIndexSearcher searcher,
                                                SolrPathQuery wrappedPathQuery) throws IOException
     {
+        HotCacheKeys hotCacheKeys = HotCacheKeys.getInstance(searcher.getCore().getName());
+        if (hotCacheKeys != null)
+        {
+            hotCacheKeys.recordPath(wrappedPathQuery);
+        }
         DocSet results = (DocSet) searcher.cacheLookup(CacheConstants.ALFRESCO_PATH_CACHE, wrappedPathQuery);
         if (results == null)
         {
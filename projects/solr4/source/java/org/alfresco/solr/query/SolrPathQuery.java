@@ -64,6 +64,8 @@ public class SolrPathQuery extends Query
     private DictionaryService dictionaryService;
 
     private boolean repeats = false;
+    
+    private String xpath;
 
     /**
      * The base query
@@ -314,6 +316,24 @@ public class SolrPathQuery extends Query
         this.repeats = repeats;
     }
 
+    public boolean isRepeats()
+    {
+        return repeats;
+    }
+
+    /**
+     * @param xpath the XPath the query was parsed from, if any, so that it can be parsed again (not part of the identity)
+     */
+    public void setXPath(String xpath)
+    {
+        this.xpath = xpath;
+    }
+
+    public String getXPath()
+    {
+        return xpath;
+    }
+
     @Override
     public int hashCode()
     {
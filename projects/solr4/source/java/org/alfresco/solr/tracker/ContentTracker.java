@@ -25,6 +25,7 @@
  */
     package org.alfresco.solr.tracker;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
 
@@ -45,6 +46,7 @@ public class ContentTracker extends AbstractTracker implements Tracker
     protected final static Logger log = LoggerFactory.getLogger(ContentTracker.class);
     private int contentReadBatchSize;
     private int contentUpdateBatchSize;
+    private int contentTextBatchSize;
     
 
     public ContentTracker(Properties p, SOLRAPIClient client, String coreName,
@@ -53,6 +55,7 @@ public class ContentTracker extends AbstractTracker implements Tracker
         super(p, client, coreName, informationServer);
         contentReadBatchSize = Integer.parseInt(p.getProperty("alfresco.contentReadBatchSize", "4000"));
         contentUpdateBatchSize = Integer.parseInt(p.getProperty("alfresco.contentUpdateBatchSize", "1000"));
+        contentTextBatchSize = Integer.parseInt(p.getProperty("alfresco.contentTextBatchSize", "100"));
         threadHandler = new ThreadHandler(p, coreName, "ContentTracker");
     }
     
@@ -82,17 +85,27 @@ public class ContentTracker extends AbstractTracker implements Tracker
         while (!docs.isEmpty())
         {
             int docsUpdatedSinceLastCommit = 0;
+            List<TenantAclIdDbId> batch = new ArrayList<TenantAclIdDbId>(contentTextBatchSize);
             for (TenantAclIdDbId doc : docs)
             {
-                ContentIndexWorkerRunnable ciwr = new ContentIndexWorkerRunnable(super.threadHandler, doc, infoSrv);
-                super.threadHandler.scheduleTask(ciwr);
+                batch.add(doc);
                 docsUpdatedSinceLastCommit ++;
+                if (batch.size() >= contentTextBatchSize)
+                {
+                    scheduleBatch(batch);
+                    batch = new ArrayList<TenantAclIdDbId>(contentTextBatchSize);
+                }
                 
                 if (docsUpdatedSinceLastCommit >= contentUpdateBatchSize)
                 {
                     registeredSearcherCount = super.infoSrv.getRegisteredSearcherCount();
                     if (registeredSearcherCount < getMaxLiveSearchers())
                     {
+                        if (!batch.isEmpty())
+                        {
+                            scheduleBatch(batch);
+                            batch = new ArrayList<TenantAclIdDbId>(contentTextBatchSize);
+                        }
                         super.waitForAsynchronous();
                         checkShutdown();
                         this.infoSrv.commit();
@@ -104,6 +117,10 @@ public class ContentTracker extends AbstractTracker implements Tracker
                 }
             }
             
+            if (!batch.isEmpty())
+            {
+                scheduleBatch(batch);
+            }
             if (docsUpdatedSinceLastCommit > 0)
             {
                 super.waitForAsynchronous();
@@ -121,15 +138,40 @@ public class ContentTracker extends AbstractTracker implements Tracker
         log.info("total number of docs with content updated: " + totalDocs);
     }
     
+    private void scheduleBatch(List<TenantAclIdDbId> batch)
+    {
+        ContentIndexWorkerRunnable ciwr = new ContentIndexWorkerRunnable(super.threadHandler, batch, infoSrv);
+        super.threadHandler.scheduleTask(ciwr);
+    }
+
+    @Override
+    public void close()
+    {
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            if (this.threadHandler != null)
+            {
+                this.threadHandler.shutDownThreadPool();
+            }
+        }
+    }
+    
+    /**
+     * Updates the content of a batch of docs, so that the repository is asked for their text in one request.
+     */
     class ContentIndexWorkerRunnable extends AbstractWorkerRunnable
     {
         InformationServer infoServer;
-        TenantAclIdDbId doc;
+        List<TenantAclIdDbId> docs;
 
-        ContentIndexWorkerRunnable(QueueHandler queueHandler, TenantAclIdDbId doc, InformationServer infoServer)
+        ContentIndexWorkerRunnable(QueueHandler queueHandler, List<TenantAclIdDbId> docs, InformationServer infoServer)
         {
             super(queueHandler);
-            this.doc = doc;
+            this.docs = docs;
             this.infoServer = infoServer;
         }
 
@@ -137,7 +179,7 @@ public class ContentTracker extends AbstractTracker implements Tracker
         protected void doWork() throws Exception
         {
             checkShutdown();
-            this.infoServer.updateContentToIndexAndCache(doc.dbId, doc.tenant);
+            this.infoServer.updateContentToIndexAndCache(docs);
         }
     }
 }
@@ -26,6 +26,7 @@
 
 package org.alfresco.solr.tracker;
 
+import java.io.File;
 import java.util.Properties;
 
 import javax.naming.Context;
@@ -147,6 +148,13 @@ public class CoreWatcherJob implements Job
             scheduler.schedule(contentTrkr, coreName, props);
 
             MetadataTracker metaTrkr = new MetadataTracker(props, repositoryClient, coreName, srv);
+            if (Boolean.parseBoolean(props.getProperty("alfresco.healthCheck.incremental", "false")))
+            {
+                IncrementalIndexHealthChecker healthChecker = new IncrementalIndexHealthChecker(props,
+                            repositoryClient, coreName, srv, metaTrkr, new File(core.getDataDir()));
+                metaTrkr.setHealthChecker(healthChecker);
+                healthChecker.start();
+            }
             trackerRegistry.register(coreName, metaTrkr);
             scheduler.schedule(metaTrkr, coreName, props);
         }
@@ -0,0 +1,596 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.solr.IndexTrackingShutdownException;
+import org.alfresco.solr.InformationServer;
+import org.alfresco.solr.TrackerState;
+import org.alfresco.solr.client.SOLRAPIClient;
+import org.alfresco.solr.client.Transaction;
+import org.alfresco.solr.client.Transactions;
+import org.alfresco.util.TraceableThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the transactions in the index against the repository a range of transaction ids at a time, in the
+ * background, rather than building bitsets of every transaction id in the repository and the index as
+ * {@link MetadataTracker#checkIndex(Long, Long, Long, Long)} does.
+ * <p>
+ * A {@link TxRangeChecksum} of the repository and of the index is kept for each range and persisted to the data
+ * directory of the core, so only ranges touched by the MetadataTracker since they were last checked, or not checked
+ * for longer than the recheck interval, are recomputed. The touched ranges are persisted with them, by each run and
+ * on shutdown, so they are still checked after a restart. Ranges are only checked once all of their transactions
+ * were committed before the hole retention window, so transactions that may still turn up are not reported as
+ * missing. Memory is bounded by the range size, and by the number of ids reported for each unhealthy range.
+ * 
+ * @since 5.2
+ */
+public class IncrementalIndexHealthChecker
+{
+    protected final static Logger log = LoggerFactory.getLogger(IncrementalIndexHealthChecker.class);
+
+    public static final String STATE_FILE_NAME = "txRangeHealth.state";
+    
+    private static final String ENCODING = "UTF-8";
+    private static final String DIRTY_RANGES_PREFIX = "dirty\t";
+
+    private final SOLRAPIClient client;
+    private final InformationServer infoSrv;
+    private final MetadataTracker metadataTracker;
+    private final String coreName;
+    private final File stateFile;
+
+    private final long rangeSize;
+    private final int maxRangesPerRun;
+    private final int maxReportedIds;
+    private final long checkIntervalSeconds;
+    private final long recheckIntervalMs;
+
+    private final ConcurrentSkipListMap<Long, RangeHealth> ranges = new ConcurrentSkipListMap<Long, RangeHealth>();
+    private final ConcurrentSkipListSet<Long> dirtyRanges = new ConcurrentSkipListSet<Long>();
+    private volatile boolean dirtyRangesChanged;
+
+    private ScheduledExecutorService executor;
+    private volatile long lastRunTime;
+    private volatile long lastRunDuration;
+    private volatile int lastRunRangesChecked;
+    private volatile String lastRunError;
+
+    public IncrementalIndexHealthChecker(Properties p, SOLRAPIClient client, String coreName,
+                InformationServer informationServer, MetadataTracker metadataTracker, File dataDir)
+    {
+        this.client = client;
+        this.coreName = coreName;
+        this.infoSrv = informationServer;
+        this.metadataTracker = metadataTracker;
+        this.stateFile = new File(dataDir, STATE_FILE_NAME);
+        this.rangeSize = Math.max(1, Long.parseLong(p.getProperty("alfresco.healthCheck.rangeSize", "10000")));
+        this.maxRangesPerRun = Integer.parseInt(p.getProperty("alfresco.healthCheck.maxRangesPerRun", "50"));
+        this.maxReportedIds = Integer.parseInt(p.getProperty("alfresco.healthCheck.maxReportedIds", "100"));
+        this.checkIntervalSeconds = Long.parseLong(p.getProperty("alfresco.healthCheck.intervalSeconds", "300"));
+        this.recheckIntervalMs = Long.parseLong(p.getProperty("alfresco.healthCheck.recheckIntervalHours", "24"))
+                    * 60L * 60L * 1000L;
+    }
+
+    /**
+     * Loads the persisted range state and schedules the checks on a background thread.
+     */
+    public synchronized void start()
+    {
+        if (executor != null)
+        {
+            return;
+        }
+        loadState();
+
+        TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+        threadFactory.setThreadDaemon(true);
+        threadFactory.setNamePrefix("IndexHealthChecker-" + coreName + "-");
+        threadFactory.setThreadPriority(Thread.MIN_PRIORITY);
+        executor = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    check();
+                }
+                catch (IndexTrackingShutdownException e)
+                {
+                    // The core is closing
+                }
+                catch (Throwable t)
+                {
+                    lastRunError = t.getMessage();
+                    log.warn("Incremental index health check failed for " + coreName, t);
+                }
+            }
+        }, checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+            try
+            {
+                saveState();
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to save the index health state to " + stateFile, e);
+            }
+        }
+    }
+
+    /**
+     * Marks the range holding the transaction to be checked again on the next run.
+     */
+    public void markTransactionTouched(long txId)
+    {
+        if (dirtyRanges.add(txId / rangeSize))
+        {
+            dirtyRangesChanged = true;
+        }
+    }
+
+    /**
+     * Marks every range that has been checked to be checked again.
+     */
+    public void markAllRangesTouched()
+    {
+        if (dirtyRanges.addAll(ranges.keySet()))
+        {
+            dirtyRangesChanged = true;
+        }
+    }
+
+    /**
+     * Checks the ranges that have not been checked, have been touched or are due a recheck, up to the maximum
+     * number of ranges per run. Ranges beyond the last indexed transaction, or holding transactions that were
+     * committed within the hole retention window, are left for a later run.
+     * 
+     * @return the number of ranges checked
+     */
+    public synchronized int check() throws Exception
+    {
+        long start = System.currentTimeMillis();
+        TrackerState state = metadataTracker.getTrackerState();
+        long lastIndexedTxId = state.getLastIndexedTxId();
+        long noHolesBefore = state.getTimeBeforeWhichThereCanBeNoHoles();
+        int checked = 0;
+
+        // Only ranges that end at or before the last indexed transaction are complete
+        long lastRangeId = (lastIndexedTxId + 1) / rangeSize - 1;
+        for (long rangeId = 0; rangeId <= lastRangeId && checked < maxRangesPerRun; rangeId++)
+        {
+            metadataTracker.checkShutdown();
+            RangeHealth health = ranges.get(rangeId);
+            boolean due = health == null
+                        || dirtyRanges.contains(rangeId)
+                        || start - health.getCheckedTime() > recheckIntervalMs;
+            if (!due)
+            {
+                continue;
+            }
+            if (!checkRange(rangeId, noHolesBefore))
+            {
+                // Later ranges can not be settled either
+                break;
+            }
+            checked++;
+        }
+
+        if (checked > 0 || dirtyRangesChanged)
+        {
+            saveState();
+        }
+        lastRunTime = start;
+        lastRunDuration = System.currentTimeMillis() - start;
+        lastRunRangesChecked = checked;
+        lastRunError = null;
+        return checked;
+    }
+
+    /**
+     * @return false if the range holds transactions that were committed within the hole retention window
+     */
+    boolean checkRange(long rangeId, long noHolesBefore) throws Exception
+    {
+        long firstTxId = rangeId * rangeSize;
+        long lastTxId = firstTxId + rangeSize - 1;
+
+        // Cleared before reading so that transactions indexed during the check mark the range again
+        dirtyRanges.remove(rangeId);
+
+        // The maximum transaction id is exclusive
+        Transactions transactions = client.getTransactions(null, firstTxId, null, lastTxId + 1, (int) rangeSize);
+        TxRangeChecksum dbChecksum = new TxRangeChecksum();
+        BitSet txIdsInDb = new BitSet((int) rangeSize);
+        for (Transaction tx : transactions.getTransactions())
+        {
+            if (tx.getCommitTimeMs() >= noHolesBefore)
+            {
+                dirtyRanges.add(rangeId);
+                return false;
+            }
+            dbChecksum.add(tx.getId());
+            txIdsInDb.set((int) (tx.getId() - firstTxId));
+        }
+
+        Map<Long, Integer> txDocCounts = infoSrv.getTransactionDocCountsInIndex(firstTxId, lastTxId);
+        TxRangeChecksum indexChecksum = new TxRangeChecksum();
+        for (Map.Entry<Long, Integer> txDocCount : txDocCounts.entrySet())
+        {
+            indexChecksum.add(txDocCount.getKey(), txDocCount.getValue());
+        }
+
+        RangeHealth health = new RangeHealth(rangeId, System.currentTimeMillis(), dbChecksum, indexChecksum);
+        if (!health.isHealthy())
+        {
+            // Only drill down into the ids of ranges that do not match
+            for (Map.Entry<Long, Integer> txDocCount : txDocCounts.entrySet())
+            {
+                long txId = txDocCount.getKey();
+                int offset = (int) (txId - firstTxId);
+                if (!txIdsInDb.get(offset))
+                {
+                    addBounded(health.txInIndexButNotInDb, txId);
+                }
+                if (txDocCount.getValue() > 1)
+                {
+                    addBounded(health.duplicatedTxInIndex, txId);
+                }
+                txIdsInDb.clear(offset);
+            }
+            // What is left was not found in the index
+            for (int offset = txIdsInDb.nextSetBit(0); offset >= 0; offset = txIdsInDb.nextSetBit(offset + 1))
+            {
+                if (!addBounded(health.missingTxFromIndex, firstTxId + offset))
+                {
+                    break;
+                }
+            }
+            log.warn("Index health check of " + coreName + " found problems in transactions " + firstTxId + " to "
+                        + lastTxId + ": " + health);
+        }
+        ranges.put(rangeId, health);
+        return true;
+    }
+
+    private boolean addBounded(List<Long> ids, long id)
+    {
+        if (ids.size() >= maxReportedIds)
+        {
+            return false;
+        }
+        ids.add(id);
+        return true;
+    }
+
+    public long getRangeSize()
+    {
+        return rangeSize;
+    }
+
+    public int getCheckedRangeCount()
+    {
+        return ranges.size();
+    }
+
+    public int getTouchedRangeCount()
+    {
+        return dirtyRanges.size();
+    }
+
+    public long getLastRunTime()
+    {
+        return lastRunTime;
+    }
+
+    public long getLastRunDuration()
+    {
+        return lastRunDuration;
+    }
+
+    public int getLastRunRangesChecked()
+    {
+        return lastRunRangesChecked;
+    }
+
+    public String getLastRunError()
+    {
+        return lastRunError;
+    }
+
+    /**
+     * @return the ranges that did not match when they were last checked, in transaction id order
+     */
+    public List<RangeHealth> getUnhealthyRanges()
+    {
+        List<RangeHealth> unhealthy = new ArrayList<RangeHealth>();
+        for (RangeHealth health : ranges.values())
+        {
+            if (!health.isHealthy())
+            {
+                unhealthy.add(health);
+            }
+        }
+        return unhealthy;
+    }
+
+    void saveState() throws IOException
+    {
+        File tmp = new File(stateFile.getParentFile(), stateFile.getName() + ".tmp");
+        BufferedWriter writer = null;
+        dirtyRangesChanged = false;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), ENCODING));
+            writer.write("rangeSize\t" + rangeSize);
+            writer.newLine();
+            writer.write(DIRTY_RANGES_PREFIX + RangeHealth.join(dirtyRanges));
+            writer.newLine();
+            for (RangeHealth health : ranges.values())
+            {
+                writer.write(health.toLine());
+                writer.newLine();
+            }
+        }
+        finally
+        {
+            if (writer != null)
+            {
+                writer.close();
+            }
+        }
+        if (!tmp.renameTo(stateFile))
+        {
+            // Windows will not rename over an existing file
+            stateFile.delete();
+            if (!tmp.renameTo(stateFile))
+            {
+                throw new IOException("Failed to rename " + tmp + " to " + stateFile);
+            }
+        }
+    }
+
+    void loadState()
+    {
+        if (!stateFile.exists())
+        {
+            return;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), ENCODING));
+            String line = reader.readLine();
+            if (line == null || !line.equals("rangeSize\t" + rangeSize))
+            {
+                log.info("Ignoring index health state of " + coreName + " written with a different range size");
+                return;
+            }
+            while ((line = reader.readLine()) != null)
+            {
+                if (line.startsWith(DIRTY_RANGES_PREFIX))
+                {
+                    try
+                    {
+                        RangeHealth.split(line.substring(DIRTY_RANGES_PREFIX.length()), dirtyRanges);
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        log.warn("Ignoring unreadable touched ranges in the index health state of " + coreName);
+                    }
+                    continue;
+                }
+                RangeHealth health = RangeHealth.fromLine(line);
+                if (health != null)
+                {
+                    ranges.put(health.getRangeId(), health);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            log.warn("Failed to read the index health state from " + stateFile, e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * The result of the last check of a range of transaction ids.
+     */
+    public static class RangeHealth
+    {
+        private final long rangeId;
+        private final long checkedTime;
+        private final TxRangeChecksum dbChecksum;
+        private final TxRangeChecksum indexChecksum;
+        private final List<Long> missingTxFromIndex = new ArrayList<Long>();
+        private final List<Long> txInIndexButNotInDb = new ArrayList<Long>();
+        private final List<Long> duplicatedTxInIndex = new ArrayList<Long>();
+
+        RangeHealth(long rangeId, long checkedTime, TxRangeChecksum dbChecksum, TxRangeChecksum indexChecksum)
+        {
+            this.rangeId = rangeId;
+            this.checkedTime = checkedTime;
+            this.dbChecksum = dbChecksum;
+            this.indexChecksum = indexChecksum;
+        }
+
+        public boolean isHealthy()
+        {
+            return dbChecksum.matches(indexChecksum) && indexChecksum.getDuplicates() == 0;
+        }
+
+        public long getRangeId()
+        {
+            return rangeId;
+        }
+
+        public long getCheckedTime()
+        {
+            return checkedTime;
+        }
+
+        public TxRangeChecksum getDbChecksum()
+        {
+            return dbChecksum;
+        }
+
+        public TxRangeChecksum getIndexChecksum()
+        {
+            return indexChecksum;
+        }
+
+        public List<Long> getMissingTxFromIndex()
+        {
+            return Collections.unmodifiableList(missingTxFromIndex);
+        }
+
+        public List<Long> getTxInIndexButNotInDb()
+        {
+            return Collections.unmodifiableList(txInIndexButNotInDb);
+        }
+
+        public List<Long> getDuplicatedTxInIndex()
+        {
+            return Collections.unmodifiableList(duplicatedTxInIndex);
+        }
+
+        String toLine()
+        {
+            StringBuilder line = new StringBuilder();
+            line.append(rangeId).append('\t').append(checkedTime)
+                .append('\t').append(dbChecksum.getCount()).append('\t').append(dbChecksum.getHash())
+                .append('\t').append(indexChecksum.getCount()).append('\t').append(indexChecksum.getHash())
+                .append('\t').append(indexChecksum.getDuplicates())
+                .append('\t').append(join(missingTxFromIndex))
+                .append('\t').append(join(txInIndexButNotInDb))
+                .append('\t').append(join(duplicatedTxInIndex));
+            return line.toString();
+        }
+
+        static RangeHealth fromLine(String line)
+        {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 10)
+            {
+                return null;
+            }
+            try
+            {
+                RangeHealth health = new RangeHealth(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                            new TxRangeChecksum(Long.parseLong(fields[2]), Long.parseLong(fields[3]), 0),
+                            new TxRangeChecksum(Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                                        Long.parseLong(fields[6])));
+                split(fields[7], health.missingTxFromIndex);
+                split(fields[8], health.txInIndexButNotInDb);
+                split(fields[9], health.duplicatedTxInIndex);
+                return health;
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+        }
+
+        private static String join(Collection<Long> ids)
+        {
+            StringBuilder joined = new StringBuilder();
+            for (Long id : ids)
+            {
+                if (joined.length() > 0)
+                {
+                    joined.append(',');
+                }
+                joined.append(id);
+            }
+            return joined.toString();
+        }
+
+        private static void split(String joined, Collection<Long> ids)
+        {
+            if (joined.isEmpty())
+            {
+                return;
+            }
+            for (String id : joined.split(","))
+            {
+                ids.add(Long.valueOf(id));
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "RangeHealth [rangeId=" + rangeId + ", db=" + dbChecksum + ", index=" + indexChecksum
+                        + ", missing=" + missingTxFromIndex + ", notInDb=" + txInIndexButNotInDb
+                        + ", duplicated=" + duplicatedTxInIndex + "]";
+        }
+    }
+}
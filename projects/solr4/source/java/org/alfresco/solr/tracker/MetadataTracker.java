@@ -73,6 +73,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
     private ConcurrentLinkedQueue<Long> nodesToIndex = new ConcurrentLinkedQueue<Long>();
     private ConcurrentLinkedQueue<Long> nodesToPurge = new ConcurrentLinkedQueue<Long>();
     private ConcurrentLinkedQueue<String> queriesToReindex = new ConcurrentLinkedQueue<String>();
+    private IncrementalIndexHealthChecker healthChecker;
 
 
     public MetadataTracker(Properties p, SOLRAPIClient client, String coreName,
@@ -302,6 +303,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
 
                     // Index the transaction doc after the node - if this is not found then a reindex will be done.
                     this.infoSrv.indexTransaction(info, false);
+                    markTransactionTouched(info.getId());
                     requiresCommit = true;
 
                     trackerStats.addTxDocs(nodes.size());
@@ -369,6 +371,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
             {
                 // make sure it is cleaned out so we do not miss deletes
                 this.infoSrv.deleteByTransactionId(transactionId);
+                markTransactionTouched(transactionId);
 
                 Transactions transactions = client.getTransactions(null, transactionId, null, transactionId+1, 1);
                 if ((transactions.getTransactions().size() > 0) && (transactionId.equals(transactions.getTransactions().get(0).getId())))
@@ -484,6 +487,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
             {
                 // make sure it is cleaned out so we do not miss deletes
                 this.infoSrv.deleteByTransactionId(transactionId);
+                markTransactionTouched(transactionId);
                 requiresCommit = true;
             }
             checkShutdown();
@@ -710,6 +714,7 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         for (Transaction tx : txsIndexed)
         {
             super.infoSrv.indexTransaction(tx, true);
+            markTransactionTouched(tx.getId());
             // Transactions are ordered by commit time and tie-broken by tx id
             if (tx.getCommitTimeMs() > state.getLastIndexedTxCommitTime()
                     || tx.getCommitTimeMs() == state.getLastIndexedTxCommitTime()
@@ -1036,4 +1041,45 @@ public class MetadataTracker extends AbstractTracker implements Tracker
         this.queriesToReindex.offer(query);
     }
 
+    /**
+     * @param healthChecker checks the ranges of transactions touched by this tracker in the background
+     */
+    public void setHealthChecker(IncrementalIndexHealthChecker healthChecker)
+    {
+        this.healthChecker = healthChecker;
+    }
+
+    public IncrementalIndexHealthChecker getHealthChecker()
+    {
+        return healthChecker;
+    }
+
+    private void markTransactionTouched(long txId)
+    {
+        if (healthChecker != null)
+        {
+            healthChecker.markTransactionTouched(txId);
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (healthChecker != null)
+        {
+            healthChecker.shutdown();
+        }
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            if (this.threadHandler != null)
+            {
+                this.threadHandler.shutDownThreadPool();
+            }
+        }
+    }
+
 }
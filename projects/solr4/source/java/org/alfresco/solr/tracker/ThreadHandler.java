@@ -30,6 +30,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.alfresco.solr.tracker.pool.AdaptiveTrackerPoolManager;
+import org.alfresco.solr.tracker.pool.AdaptiveTrackerPoolManager.ManagedPool;
 import org.alfresco.solr.tracker.pool.DefaultTrackerPoolFactory;
 import org.alfresco.solr.tracker.pool.TrackerPoolFactory;
 
@@ -44,12 +46,18 @@ public class ThreadHandler implements QueueHandler
     private ThreadPoolExecutor threadPool;
     private LinkedBlockingQueue<AbstractWorkerRunnable> threadQueue = new LinkedBlockingQueue<>();
     private ReentrantReadWriteLock threadLock = new ReentrantReadWriteLock(true);
+    /** set if the pool is sized by the node wide manager */
+    private ManagedPool managedPool;
 
     public ThreadHandler(Properties p, String coreName, String trackerName)
     {
         // construct the instance
         TrackerPoolFactory trackerPoolFactory = new DefaultTrackerPoolFactory(p, coreName, trackerName);
         threadPool = trackerPoolFactory.create();
+        if (AdaptiveTrackerPoolManager.isEnabled(p))
+        {
+            managedPool = AdaptiveTrackerPoolManager.getInstance().register(p, coreName, trackerName, threadPool);
+        }
     }
     
 
@@ -65,7 +73,7 @@ public class ThreadHandler implements QueueHandler
         {
             threadLock.writeLock().unlock();
         }
-        threadPool.execute(awr);
+        threadPool.execute(managedPool == null ? awr : managedPool.wrap(awr));
     }
     
     /**
@@ -103,6 +111,11 @@ public class ThreadHandler implements QueueHandler
     
     public void shutDownThreadPool()
     { 
+        if (managedPool != null)
+        {
+            AdaptiveTrackerPoolManager.getInstance().unregister(managedPool);
+            managedPool = null;
+        }
         if (threadPool != null)
         {
             threadPool.shutdownNow();
@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker;
+
+/**
+ * An order independent checksum of the transaction ids in a range, so that the transactions held by the
+ * repository and the transaction docs held by the index can be compared, and persisted, without keeping the ids.
+ * <p>
+ * The hash is the sum of the mixed ids, so it does not depend on the order in which the ids are added. Ids that
+ * are added more than once are counted as duplicates rather than being added to the hash again.
+ * 
+ * @since 5.2
+ */
+public class TxRangeChecksum
+{
+    private long count;
+    private long hash;
+    private long duplicates;
+    
+    public TxRangeChecksum()
+    {
+    }
+    
+    public TxRangeChecksum(long count, long hash, long duplicates)
+    {
+        this.count = count;
+        this.hash = hash;
+        this.duplicates = duplicates;
+    }
+    
+    /**
+     * @param txId a transaction id in the range
+     * @param occurrences the number of times the id was found, more than one for duplicated docs in the index
+     */
+    public void add(long txId, long occurrences)
+    {
+        count++;
+        hash += mix(txId);
+        if (occurrences > 1)
+        {
+            duplicates += occurrences - 1;
+        }
+    }
+    
+    public void add(long txId)
+    {
+        add(txId, 1);
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    public long getHash()
+    {
+        return hash;
+    }
+
+    public long getDuplicates()
+    {
+        return duplicates;
+    }
+    
+    /**
+     * @return true if both checksums hold the same set of unique ids, ignoring duplicates
+     */
+    public boolean matches(TxRangeChecksum other)
+    {
+        return other != null && count == other.count && hash == other.hash;
+    }
+
+    /*
+     * The finalisation step of MurmurHash3, which spreads consecutive ids over the full range of a long
+     */
+    static long mix(long id)
+    {
+        long h = id;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (hash ^ (hash >>> 32)) * 31 + (int) count;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+        {
+            return true;
+        }
+        if (!(obj instanceof TxRangeChecksum))
+        {
+            return false;
+        }
+        TxRangeChecksum other = (TxRangeChecksum) obj;
+        return count == other.count && hash == other.hash && duplicates == other.duplicates;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "TxRangeChecksum [count=" + count + ", hash=" + hash + ", duplicates=" + duplicates + "]";
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker.pool;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.alfresco.util.TraceableThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares one budget of tracker worker threads between the tracker pools of every core on the node, rather than each
+ * pool keeping the fixed size set by its properties.
+ * <p>
+ * The pools are resized periodically. Every pool keeps at least one thread. The rest of the budget is shared equally
+ * between the cores that have work, and within a core between its pools by priority (metadata, then ACL, then
+ * content) and by backlog, the tasks queued and running in the pool. Pools whose tasks have slowed down compared to
+ * their best observed time, usually because the repository is responding slowly, are given fewer threads. The budget
+ * shrinks when the system load is above the target load per processor. No pool grows beyond its configured maximum
+ * pool size.
+ * 
+ * @since 5.2
+ */
+public class AdaptiveTrackerPoolManager
+{
+    protected final static Logger log = LoggerFactory.getLogger(AdaptiveTrackerPoolManager.class);
+
+    private static final AdaptiveTrackerPoolManager INSTANCE = new AdaptiveTrackerPoolManager();
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    /** How quickly the best observed task time is forgotten, per rebalance */
+    private static final double BASELINE_DECAY = 1.01;
+
+    private final List<ManagedPool> pools = new CopyOnWriteArrayList<ManagedPool>();
+
+    private ScheduledExecutorService rebalancer;
+    private volatile int maxThreads;
+    private volatile double targetLoad;
+    private volatile int budget;
+    private volatile double loadRatio;
+    private volatile long lastRebalanceTime;
+
+    public static AdaptiveTrackerPoolManager getInstance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return true if the properties of the core ask for its tracker pools to be managed
+     */
+    public static boolean isEnabled(Properties p)
+    {
+        return Boolean.parseBoolean(p.getProperty("alfresco.trackerPool.adaptive", "false"));
+    }
+
+    /**
+     * Manages the pool of a tracker. The node wide settings are taken from the properties of the first core to
+     * register a pool.
+     */
+    public synchronized ManagedPool register(Properties p, String coreName, String trackerName,
+                ThreadPoolExecutor executor)
+    {
+        if (rebalancer == null)
+        {
+            int processors = Runtime.getRuntime().availableProcessors();
+            maxThreads = Integer.parseInt(p.getProperty("alfresco.trackerPool.maxThreads",
+                        String.valueOf(processors * 2)));
+            targetLoad = Double.parseDouble(p.getProperty("alfresco.trackerPool.targetLoad", "1.0"));
+            long interval = Long.parseLong(p.getProperty("alfresco.trackerPool.rebalanceIntervalSeconds", "10"));
+
+            TraceableThreadFactory threadFactory = new TraceableThreadFactory();
+            threadFactory.setThreadDaemon(true);
+            threadFactory.setNamePrefix("SolrTrackingPoolManager-");
+            rebalancer = Executors.newSingleThreadScheduledExecutor(threadFactory);
+            rebalancer.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        rebalance();
+                    }
+                    catch (Throwable t)
+                    {
+                        log.warn("Failed to rebalance the tracker pools", t);
+                    }
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+
+        ManagedPool pool = new ManagedPool(coreName, trackerName, executor);
+        pools.add(pool);
+        return pool;
+    }
+
+    public synchronized void unregister(ManagedPool pool)
+    {
+        pools.remove(pool);
+        if (pools.isEmpty() && rebalancer != null)
+        {
+            rebalancer.shutdownNow();
+            rebalancer = null;
+        }
+    }
+
+    /**
+     * Works out the thread budget from the system load and resizes every pool.
+     */
+    public synchronized void rebalance()
+    {
+        List<ManagedPool> current = new ArrayList<ManagedPool>(pools);
+        if (current.isEmpty())
+        {
+            return;
+        }
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        double systemLoad = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        loadRatio = systemLoad < 0 ? 0 : systemLoad / processors;
+        int newBudget = maxThreads;
+        if (loadRatio > targetLoad)
+        {
+            newBudget = (int) (maxThreads * targetLoad / loadRatio);
+        }
+        budget = Math.max(newBudget, current.size());
+
+        allocate(current, budget);
+        for (ManagedPool pool : current)
+        {
+            pool.resize();
+            pool.decayBaseline();
+        }
+        lastRebalanceTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Sets the target size of each pool from the budget.
+     */
+    static void allocate(List<ManagedPool> pools, int budget)
+    {
+        Map<String, List<ManagedPool>> poolsByCore = new LinkedHashMap<String, List<ManagedPool>>();
+        for (ManagedPool pool : pools)
+        {
+            pool.target = 1;
+            List<ManagedPool> corePools = poolsByCore.get(pool.getCoreName());
+            if (corePools == null)
+            {
+                corePools = new ArrayList<ManagedPool>();
+                poolsByCore.put(pool.getCoreName(), corePools);
+            }
+            corePools.add(pool);
+        }
+
+        List<List<ManagedPool>> busyCores = new ArrayList<List<ManagedPool>>();
+        for (List<ManagedPool> corePools : poolsByCore.values())
+        {
+            for (ManagedPool pool : corePools)
+            {
+                if (pool.getDemand() > 0)
+                {
+                    busyCores.add(corePools);
+                    break;
+                }
+            }
+        }
+
+        int remaining = budget - pools.size();
+        if (remaining <= 0 || busyCores.isEmpty())
+        {
+            return;
+        }
+
+        // Each busy core gets an equal share, and what a core can not use goes to the pools that still want more
+        int share = remaining / busyCores.size();
+        int extra = remaining % busyCores.size();
+        int leftOver = 0;
+        for (List<ManagedPool> corePools : busyCores)
+        {
+            int coreShare = share;
+            if (extra > 0)
+            {
+                coreShare++;
+                extra--;
+            }
+            leftOver += distribute(corePools, coreShare);
+        }
+        distribute(pools, leftOver);
+    }
+
+    /**
+     * @return the threads that could not be given to any pool
+     */
+    private static int distribute(List<ManagedPool> pools, int threads)
+    {
+        List<ManagedPool> byPriority = new ArrayList<ManagedPool>(pools);
+        Collections.sort(byPriority, new Comparator<ManagedPool>()
+        {
+            @Override
+            public int compare(ManagedPool p1, ManagedPool p2)
+            {
+                return p2.getPriority() - p1.getPriority();
+            }
+        });
+
+        double totalWeight = 0;
+        for (ManagedPool pool : byPriority)
+        {
+            if (pool.getWanted() > 0)
+            {
+                totalWeight += pool.getWeight();
+            }
+        }
+
+        int given = 0;
+        for (ManagedPool pool : byPriority)
+        {
+            int wanted = pool.getWanted();
+            if (wanted <= 0 || given >= threads)
+            {
+                continue;
+            }
+            int threadsForPool = (int) Math.ceil(threads * pool.getWeight() / totalWeight);
+            threadsForPool = Math.min(Math.min(threadsForPool, wanted), threads - given);
+            pool.target += threadsForPool;
+            given += threadsForPool;
+        }
+        return threads - given;
+    }
+
+    /**
+     * @return the pools being managed, in the order they were registered
+     */
+    public List<ManagedPool> getPools()
+    {
+        return new ArrayList<ManagedPool>(pools);
+    }
+
+    public int getMaxThreads()
+    {
+        return maxThreads;
+    }
+
+    public int getBudget()
+    {
+        return budget;
+    }
+
+    public double getLoadRatio()
+    {
+        return loadRatio;
+    }
+
+    public long getLastRebalanceTime()
+    {
+        return lastRebalanceTime;
+    }
+
+    static int getPriority(String trackerName)
+    {
+        if ("MetadataTracker".equals(trackerName))
+        {
+            return 3;
+        }
+        else if ("AclTracker".equals(trackerName))
+        {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * The pool of one tracker of one core.
+     */
+    public static class ManagedPool
+    {
+        private final String coreName;
+        private final String trackerName;
+        private final int priority;
+        private final ThreadPoolExecutor executor;
+        private final int maxSize;
+        private final AtomicLong completedTasks = new AtomicLong();
+        private volatile double meanTaskTime = -1;
+        private volatile double bestTaskTime = -1;
+        int target;
+
+        ManagedPool(String coreName, String trackerName, ThreadPoolExecutor executor)
+        {
+            this.coreName = coreName;
+            this.trackerName = trackerName;
+            this.priority = AdaptiveTrackerPoolManager.getPriority(trackerName);
+            this.executor = executor;
+            this.maxSize = executor.getMaximumPoolSize();
+            this.target = executor.getCorePoolSize();
+        }
+
+        /**
+         * @return the task, timed for the pool
+         */
+        public Runnable wrap(final Runnable task)
+        {
+            return new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long start = System.nanoTime();
+                    try
+                    {
+                        task.run();
+                    }
+                    finally
+                    {
+                        recordTaskTime((System.nanoTime() - start) / 1000000.0);
+                    }
+                }
+            };
+        }
+
+        synchronized void recordTaskTime(double millis)
+        {
+            completedTasks.incrementAndGet();
+            meanTaskTime = meanTaskTime < 0 ? millis : meanTaskTime + EWMA_ALPHA * (millis - meanTaskTime);
+            if (bestTaskTime < 0 || meanTaskTime < bestTaskTime)
+            {
+                bestTaskTime = meanTaskTime;
+            }
+        }
+
+        synchronized void decayBaseline()
+        {
+            if (bestTaskTime > 0)
+            {
+                bestTaskTime *= BASELINE_DECAY;
+            }
+        }
+
+        void resize()
+        {
+            int size = Math.max(1, Math.min(target, maxSize));
+            if (size > executor.getMaximumPoolSize())
+            {
+                executor.setMaximumPoolSize(size);
+                executor.setCorePoolSize(size);
+            }
+            else if (size != executor.getCorePoolSize() || size != executor.getMaximumPoolSize())
+            {
+                executor.setCorePoolSize(size);
+                executor.setMaximumPoolSize(size);
+            }
+        }
+
+        /**
+         * @return the tasks queued and running
+         */
+        public int getDemand()
+        {
+            return executor.getQueue().size() + executor.getActiveCount();
+        }
+
+        int getWanted()
+        {
+            return Math.min(getDemand(), maxSize) - target;
+        }
+
+        double getWeight()
+        {
+            return priority * Math.min(getDemand(), maxSize) * getLatencyFactor();
+        }
+
+        /**
+         * @return between 0.25 and 1, lower when tasks take longer than the best observed time
+         */
+        public double getLatencyFactor()
+        {
+            if (meanTaskTime <= 0 || bestTaskTime <= 0)
+            {
+                return 1;
+            }
+            return Math.max(0.25, Math.min(1, bestTaskTime / meanTaskTime));
+        }
+
+        public String getCoreName()
+        {
+            return coreName;
+        }
+
+        public String getTrackerName()
+        {
+            return trackerName;
+        }
+
+        public int getPriority()
+        {
+            return priority;
+        }
+
+        public int getPoolSize()
+        {
+            return executor.getCorePoolSize();
+        }
+
+        public int getMaxSize()
+        {
+            return maxSize;
+        }
+
+        public long getCompletedTasks()
+        {
+            return completedTasks.get();
+        }
+
+        public double getMeanTaskTime()
+        {
+            return meanTaskTime;
+        }
+    }
+}
@@ -76,12 +76,12 @@ public class DefaultTrackerPoolFactory implements TrackerPoolFactory
     
     public DefaultTrackerPoolFactory(Properties p, String coreName, String trackerName)
     {
-        corePoolSize = Integer.parseInt(p.getProperty("alfresco.corePoolSize", "3"));
-        maximumPoolSize = Integer.parseInt(p.getProperty("alfresco.maximumPoolSize", "-1"));
-        keepAliveTime = Integer.parseInt(p.getProperty("alfresco.keepAliveTime", "120"));
-        threadPriority = Integer.parseInt(p.getProperty("alfresco.threadPriority", "5"));
-        threadDaemon = Boolean.parseBoolean(p.getProperty("alfresco.threadDaemon", "true"));
-        workQueueSize = Integer.parseInt(p.getProperty("alfresco.workQueueSize", "-1"));
+        corePoolSize = Integer.parseInt(getProperty(p, trackerName, "corePoolSize", "3"));
+        maximumPoolSize = Integer.parseInt(getProperty(p, trackerName, "maximumPoolSize", "-1"));
+        keepAliveTime = Integer.parseInt(getProperty(p, trackerName, "keepAliveTime", "120"));
+        threadPriority = Integer.parseInt(getProperty(p, trackerName, "threadPriority", "5"));
+        threadDaemon = Boolean.parseBoolean(getProperty(p, trackerName, "threadDaemon", "true"));
+        workQueueSize = Integer.parseInt(getProperty(p, trackerName, "workQueueSize", "-1"));
         
         poolName = "SolrTrackingPool-" + coreName + "-" + trackerName + "-";
 
@@ -92,6 +92,21 @@ public class DefaultTrackerPoolFactory implements TrackerPoolFactory
         }
     }
     
+    /**
+     * Get a pool property for one tracker, e.g. <tt>alfresco.contentTracker.corePoolSize</tt>, falling back to the
+     * property for all trackers, e.g. <tt>alfresco.corePoolSize</tt>.
+     */
+    private static String getProperty(Properties p, String trackerName, String name, String defaultValue)
+    {
+        String value = null;
+        if (trackerName != null && trackerName.length() > 0)
+        {
+            String trackerPrefix = Character.toLowerCase(trackerName.charAt(0)) + trackerName.substring(1);
+            value = p.getProperty("alfresco." + trackerPrefix + "." + name);
+        }
+        return (value == null) ? p.getProperty("alfresco." + name, defaultValue) : value;
+    }
+    
     @Override
     public ThreadPoolExecutor create()
     {
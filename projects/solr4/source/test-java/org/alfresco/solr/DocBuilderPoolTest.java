@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for {@link DocBuilderPool}.
+ */
+public class DocBuilderPoolTest
+{
+    private DocBuilderPool pool;
+    
+    @After
+    public void tearDown()
+    {
+        if (pool != null)
+        {
+            pool.close();
+        }
+    }
+    
+    @Test(timeout = 10000)
+    public void resultsAreInTheOrderOfTheBuilds() throws Exception
+    {
+        pool = new DocBuilderPool("test", 4);
+        List<Callable<Integer>> builds = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 10; i++)
+        {
+            final int index = i;
+            builds.add(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    // The later builds finish first
+                    Thread.sleep(10 - index);
+                    return index;
+                }
+            });
+        }
+        
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), pool.buildAll(builds));
+    }
+    
+    @Test(timeout = 10000)
+    public void failureIsRethrownOnceAllBuildsHaveFinished() throws Exception
+    {
+        pool = new DocBuilderPool("test", 2);
+        final IllegalStateException failure = new IllegalStateException("Expected");
+        final AtomicInteger finished = new AtomicInteger();
+        List<Callable<Integer>> builds = new ArrayList<Callable<Integer>>();
+        builds.add(new Callable<Integer>()
+        {
+            @Override
+            public Integer call() throws Exception
+            {
+                throw failure;
+            }
+        });
+        for (int i = 0; i < 5; i++)
+        {
+            builds.add(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    Thread.sleep(50);
+                    return finished.incrementAndGet();
+                }
+            });
+        }
+        
+        try
+        {
+            pool.buildAll(builds);
+            fail("The failure of the first build should have been rethrown");
+        }
+        catch (IllegalStateException e)
+        {
+            assertSame(failure, e);
+        }
+        assertEquals(5, finished.get());
+    }
+    
+    @Test(timeout = 10000)
+    public void callerBuildsWhenThePoolIsSaturated() throws Exception
+    {
+        // One builder and a queue of four, so the sixth build is run by the caller
+        pool = new DocBuilderPool("test", 1);
+        final Thread caller = Thread.currentThread();
+        final CountDownLatch callerBuilt = new CountDownLatch(1);
+        final AtomicInteger builtByCaller = new AtomicInteger();
+        List<Callable<Integer>> builds = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 6; i++)
+        {
+            final int index = i;
+            builds.add(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    if (Thread.currentThread() == caller)
+                    {
+                        builtByCaller.incrementAndGet();
+                        callerBuilt.countDown();
+                    }
+                    else
+                    {
+                        assertTrue(callerBuilt.await(5, TimeUnit.SECONDS));
+                    }
+                    return index;
+                }
+            });
+        }
+        
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), pool.buildAll(builds));
+        assertEquals(1, builtByCaller.get());
+    }
+    
+    @Test(timeout = 10000)
+    public void buildsAreRejectedOnceClosed() throws Exception
+    {
+        pool = new DocBuilderPool("test", 2);
+        pool.close();
+        assertTrue(pool.isClosed());
+        
+        List<Callable<Integer>> builds = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 3; i++)
+        {
+            final int index = i;
+            builds.add(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws Exception
+                {
+                    return index;
+                }
+            });
+        }
+        try
+        {
+            pool.buildAll(builds);
+            fail("A closed pool should reject builds rather than leave them waiting");
+        }
+        catch (RejectedExecutionException e)
+        {
+            // Expected
+        }
+    }
+}
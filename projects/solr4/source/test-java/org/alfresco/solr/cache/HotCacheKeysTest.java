@@ -0,0 +1,136 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.alfresco.solr.query.SolrAuthorityQuery;
+import org.alfresco.solr.query.SolrAuthoritySetQuery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HotCacheKeysTest
+{
+    private File snapshotFile;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        snapshotFile = File.createTempFile("hotCacheKeys", ".txt");
+        snapshotFile.delete();
+    }
+
+    @After
+    public void tearDown()
+    {
+        snapshotFile.delete();
+    }
+
+    @Test
+    public void hotKeysAreOrderedByHits()
+    {
+        HotCacheKeys hotCacheKeys = new HotCacheKeys(10);
+        hotCacheKeys.recordAuthority("fred");
+        hotCacheKeys.recordAuthoritySet("|GROUP_EVERYONE|fred");
+        hotCacheKeys.recordAuthoritySet("|GROUP_EVERYONE|fred");
+        hotCacheKeys.recordAuthority("bill");
+        hotCacheKeys.recordAuthority("bill");
+        hotCacheKeys.recordAuthority("bill");
+
+        assertEquals(Arrays.asList(HotCacheKeys.TYPE_AUTHORITY + "\u0000bill", HotCacheKeys.TYPE_AUTHSET + "\u0000|GROUP_EVERYONE|fred"),
+                    hotCacheKeys.getHotKeys(2));
+    }
+
+    @Test
+    public void replayedKeysAreNotCounted()
+    {
+        HotCacheKeys hotCacheKeys = new HotCacheKeys(10);
+        HotCacheKeys.setReplaying(true);
+        try
+        {
+            hotCacheKeys.recordAuthority("fred");
+        }
+        finally
+        {
+            HotCacheKeys.setReplaying(false);
+        }
+        assertEquals(0, hotCacheKeys.size());
+    }
+
+    @Test
+    public void coldKeysAreTrimmed()
+    {
+        HotCacheKeys hotCacheKeys = new HotCacheKeys(2);
+        hotCacheKeys.recordAuthority("hot1");
+        hotCacheKeys.recordAuthority("hot1");
+        hotCacheKeys.recordAuthority("hot2");
+        hotCacheKeys.recordAuthority("hot2");
+        hotCacheKeys.recordAuthority("cold1");
+        hotCacheKeys.recordAuthority("cold2");
+        hotCacheKeys.recordAuthority("new");
+
+        // The two coldest keys were dropped to make room for the new one
+        assertEquals(3, hotCacheKeys.size());
+        assertEquals(new HashSet<String>(Arrays.asList(HotCacheKeys.TYPE_AUTHORITY + "\u0000hot1", HotCacheKeys.TYPE_AUTHORITY + "\u0000hot2")),
+                    new HashSet<String>(hotCacheKeys.getHotKeys(2)));
+    }
+
+    @Test
+    public void snapshotRoundTrip() throws Exception
+    {
+        HotCacheKeys hotCacheKeys = new HotCacheKeys(10);
+        hotCacheKeys.recordAuthority("line\nbreak");
+        hotCacheKeys.recordAuthoritySet(",GROUP_A,GROUP_B");
+        hotCacheKeys.recordAuthoritySet(",GROUP_A,GROUP_B");
+        hotCacheKeys.writeSnapshot(snapshotFile);
+        assertTrue(snapshotFile.exists());
+
+        HotCacheKeys restarted = new HotCacheKeys(10);
+        assertEquals(2, restarted.readSnapshot(snapshotFile));
+        assertEquals(hotCacheKeys.getHotKeys(10), restarted.getHotKeys(10));
+
+        // A missing snapshot is not an error
+        assertEquals(0, new HotCacheKeys(10).readSnapshot(new File(snapshotFile.getPath() + ".missing")));
+    }
+
+    @Test
+    public void keysAreTurnedBackIntoQueries() throws Exception
+    {
+        assertEquals(new SolrAuthorityQuery("fred"),
+                    HotCacheKeys.toQuery(HotCacheKeys.TYPE_AUTHORITY + "\u0000fred", null, null));
+        assertEquals(new SolrAuthoritySetQuery("|fred|bill"),
+                    HotCacheKeys.toQuery(HotCacheKeys.TYPE_AUTHSET + "\u0000|fred|bill", null, null));
+        assertNull(HotCacheKeys.toQuery("UNKNOWN\u0000fred", null, null));
+        assertNull(HotCacheKeys.toQuery("no separator", null, null));
+    }
+}
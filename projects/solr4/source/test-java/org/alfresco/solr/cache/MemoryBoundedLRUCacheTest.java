@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.solr.search.SolrCache;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MemoryBoundedLRUCacheTest
+{
+    private static final long MB = 1024L * 1024L;
+
+    private MemoryBoundedLRUCache<String, Object> cache;
+
+    @Before
+    public void setUp()
+    {
+        Map<String, String> args = new HashMap<String, String>();
+        args.put("name", "test");
+        args.put("size", "3");
+        args.put("maxRamMB", "2");
+        cache = new MemoryBoundedLRUCache<String, Object>();
+        cache.init(args, null, null);
+        cache.setState(SolrCache.State.LIVE);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedBySize()
+    {
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+        assertNotNull(cache.get("a"));
+        cache.put("d", "d");
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertEquals(0L, cache.ramBytesUsed());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedByMemory()
+    {
+        cache.put("a", new Sized(MB));
+        cache.put("b", new Sized(MB / 2));
+        assertEquals(MB + MB / 2, cache.ramBytesUsed());
+
+        cache.put("c", new Sized(MB));
+        assertEquals(2, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(MB + MB / 2, cache.ramBytesUsed());
+    }
+
+    @Test
+    public void measuresValuesAgainWhenLookedUp()
+    {
+        Sized growing = new Sized(MB / 2);
+        cache.put("a", new Sized(MB));
+        cache.put("b", growing);
+
+        growing.ramBytes = MB * 3;
+        assertNotNull(cache.get("b"));
+
+        // the value looked up is kept, even though it is too big on its own
+        assertEquals(1, cache.size());
+        assertNull(cache.get("a"));
+        assertEquals(MB * 3, cache.ramBytesUsed());
+        assertEquals(1L, cache.getStatistics().get("ramEvictions"));
+    }
+
+    private static class Sized implements Accountable
+    {
+        long ramBytes;
+
+        Sized(long ramBytes)
+        {
+            this.ramBytes = ramBytes;
+        }
+
+        @Override
+        public long ramBytesUsed()
+        {
+            return ramBytes;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link SolrContentSegmentLog}
+ * 
+ * @since 5.2
+ */
+public class SolrContentSegmentLogTest
+{
+    private File directory;
+    private SolrContentSegmentLog segmentLog;
+    
+    @Before
+    public void setUp() throws IOException
+    {
+        File tempFile = File.createTempFile("SolrContentSegmentLogTest-", ".bin");
+        directory = new File(tempFile.getParentFile(), "SolrContentSegmentLogTest-" + System.currentTimeMillis());
+        tempFile.delete();
+        segmentLog = open();
+    }
+    
+    @After
+    public void tearDown() throws IOException
+    {
+        segmentLog.close();
+        FileUtils.deleteDirectory(directory);
+    }
+    
+    private SolrContentSegmentLog open() throws IOException
+    {
+        // Small segments, to exercise rolling and compaction
+        return new SolrContentSegmentLog(directory, 1024, 0.5);
+    }
+    
+    private static String nodeUrl(String tenant, long dbId)
+    {
+        return SolrContentUrlBuilder.start()
+                .add(SolrContentUrlBuilder.KEY_TENANT, tenant)
+                .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                .get();
+    }
+    
+    private static File[] segments(File directory)
+    {
+        return directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.endsWith(SolrContentSegmentLog.SEGMENT_EXTENSION);
+            }
+        });
+    }
+    
+    private static byte[] data(int size, int seed)
+    {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+    
+    @Test
+    public void dbIdFromUrl()
+    {
+        Assert.assertEquals(4775808L, SolrContentSegmentLog.getDbId(nodeUrl("alfresco.com", 4775808L)));
+        Assert.assertEquals(0L, SolrContentSegmentLog.getDbId(nodeUrl("alfresco.com", 0L)));
+        Assert.assertEquals(12345678L, SolrContentSegmentLog.getDbId("solr://t/db/1234/5678.gz"));
+        Assert.assertEquals(-1L, SolrContentSegmentLog.getDbId("solr://t/db/12345/678.gz"));
+        Assert.assertEquals(-1L, SolrContentSegmentLog.getDbId("solr://t/db/0123/4.gz"));
+        Assert.assertEquals(-1L, SolrContentSegmentLog.getDbId("solr://t/acl/1234/5.gz"));
+        Assert.assertEquals(-1L, SolrContentSegmentLog.getDbId("solr://t/db/1234/.gz"));
+    }
+    
+    @Test
+    public void putGetDelete() throws IOException
+    {
+        String nodeUrl = nodeUrl("alfresco.com", 12345L);
+        String otherUrl = SolrContentUrlBuilder.start().add("data", "abc").get();
+        
+        Assert.assertNull(segmentLog.get(nodeUrl));
+        segmentLog.put(nodeUrl, data(10, 1));
+        segmentLog.put(otherUrl, data(20, 2));
+        Assert.assertTrue(segmentLog.exists(nodeUrl));
+        Assert.assertFalse(segmentLog.exists(nodeUrl("other.com", 12345L)));
+        Assert.assertArrayEquals(data(10, 1), segmentLog.get(nodeUrl));
+        Assert.assertArrayEquals(data(20, 2), segmentLog.get(otherUrl));
+        Assert.assertEquals(20L, segmentLog.getSize(otherUrl));
+        Assert.assertEquals(2L, segmentLog.getDocumentCount());
+        
+        // Overwrite
+        segmentLog.put(nodeUrl, data(5, 3));
+        Assert.assertArrayEquals(data(5, 3), segmentLog.get(nodeUrl));
+        Assert.assertEquals(2L, segmentLog.getDocumentCount());
+        
+        Assert.assertTrue(segmentLog.delete(nodeUrl));
+        Assert.assertFalse(segmentLog.delete(nodeUrl));
+        Assert.assertNull(segmentLog.get(nodeUrl));
+        Assert.assertEquals(-1L, segmentLog.getSize(nodeUrl));
+        Assert.assertEquals(1L, segmentLog.getDocumentCount());
+    }
+    
+    @Test
+    public void reopen() throws IOException
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            segmentLog.put(nodeUrl("alfresco.com", i), data(50, i));
+        }
+        for (int i = 0; i < 100; i += 2)
+        {
+            segmentLog.delete(nodeUrl("alfresco.com", i));
+        }
+        segmentLog.put(nodeUrl("alfresco.com", 1), data(30, 101));
+        Assert.assertTrue("Segments were not rolled", segmentLog.getSegmentCount() > 1);
+        segmentLog.close();
+        
+        segmentLog = open();
+        Assert.assertEquals(50L, segmentLog.getDocumentCount());
+        for (int i = 0; i < 100; i++)
+        {
+            String url = nodeUrl("alfresco.com", i);
+            if (i == 1)
+            {
+                Assert.assertArrayEquals(data(30, 101), segmentLog.get(url));
+            }
+            else if (i % 2 == 0)
+            {
+                Assert.assertFalse("Deleted document came back: " + i, segmentLog.exists(url));
+            }
+            else
+            {
+                Assert.assertArrayEquals(data(50, i), segmentLog.get(url));
+            }
+        }
+    }
+    
+    @Test
+    public void incompleteRecordIsTruncated() throws IOException
+    {
+        String url = nodeUrl("alfresco.com", 1L);
+        segmentLog.put(url, data(100, 1));
+        segmentLog.close();
+        
+        File[] segments = segments(directory);
+        Assert.assertEquals(1, segments.length);
+        long size = segments[0].length();
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw"))
+        {
+            // Half of a second record
+            file.seek(size);
+            file.write(new byte[] { 0x53, 0x4C, 0x52, 0x43, 0, 0, 0, 20, 0, 0 });
+        }
+        
+        segmentLog = open();
+        Assert.assertArrayEquals(data(100, 1), segmentLog.get(url));
+        Assert.assertEquals(size, segments[0].length());
+        
+        segmentLog.put(nodeUrl("alfresco.com", 2L), data(10, 2));
+        Assert.assertArrayEquals(data(10, 2), segmentLog.get(nodeUrl("alfresco.com", 2L)));
+    }
+    
+    @Test
+    public void compaction() throws IOException
+    {
+        for (int i = 0; i < 50; i++)
+        {
+            segmentLog.put(nodeUrl("alfresco.com", i), data(100, i));
+        }
+        int segmentCount = segmentLog.getSegmentCount();
+        for (int i = 0; i < 50; i++)
+        {
+            if (i % 10 != 0)
+            {
+                segmentLog.delete(nodeUrl("alfresco.com", i));
+            }
+        }
+        segmentLog.compact();
+        
+        Assert.assertTrue("Segments were not compacted", segmentLog.getSegmentCount() < segmentCount);
+        Assert.assertTrue(segmentLog.getTotalBytes() < 50 * 100);
+        Assert.assertEquals(5L, segmentLog.getDocumentCount());
+        for (int i = 0; i < 50; i += 10)
+        {
+            Assert.assertArrayEquals(data(100, i), segmentLog.get(nodeUrl("alfresco.com", i)));
+        }
+        
+        // Nothing comes back after compaction
+        segmentLog.close();
+        segmentLog = open();
+        Assert.assertEquals(5L, segmentLog.getDocumentCount());
+        Assert.assertFalse(segmentLog.exists(nodeUrl("alfresco.com", 1)));
+    }
+    
+    @Test
+    public void putIfAbsent() throws IOException
+    {
+        String url = nodeUrl("alfresco.com", 1L);
+        Assert.assertTrue(segmentLog.putIfAbsent(url, data(10, 1)));
+        Assert.assertFalse(segmentLog.putIfAbsent(url, data(10, 2)));
+        Assert.assertArrayEquals(data(10, 1), segmentLog.get(url));
+        Assert.assertEquals(1L, segmentLog.getDocumentCount());
+    }
+    
+    @Test
+    public void openLogIsLocked() throws IOException
+    {
+        try
+        {
+            open();
+            Assert.fail("Opened content segments that are already open");
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+        segmentLog.close();
+        segmentLog = open();
+    }
+    
+    @Test
+    public void compactionSyncsCopiesBeforeDelete() throws IOException
+    {
+        segmentLog.close();
+        // The length of each segment when it was last forced to disk
+        final Map<String, Long> forced = new HashMap<String, Long>();
+        final List<String> unsynced = new ArrayList<String>();
+        final int[] deleted = new int[1];
+        segmentLog = new SolrContentSegmentLog(directory, 1024, 0.5)
+        {
+            @Override
+            protected void force(File file, FileChannel channel) throws IOException
+            {
+                super.force(file, channel);
+                forced.put(file.getName(), channel.size());
+            }
+            
+            @Override
+            protected boolean deleteSegment(File file)
+            {
+                for (File segment : segments(directory))
+                {
+                    Long length = forced.get(segment.getName());
+                    if (!segment.equals(file) && (length == null || length != segment.length()))
+                    {
+                        unsynced.add(segment.getName());
+                    }
+                }
+                deleted[0]++;
+                return super.deleteSegment(file);
+            }
+        };
+        for (int i = 0; i < 50; i++)
+        {
+            segmentLog.put(nodeUrl("alfresco.com", i), data(100, i));
+        }
+        for (int i = 0; i < 50; i++)
+        {
+            if (i % 10 != 0)
+            {
+                segmentLog.delete(nodeUrl("alfresco.com", i));
+            }
+        }
+        segmentLog.sync();
+        Assert.assertTrue(segmentLog.compact() > 0);
+        
+        Assert.assertTrue("No segment was deleted", deleted[0] > 0);
+        Assert.assertTrue("Segments were written but not forced before a compacted segment was deleted: " + unsynced,
+                    unsynced.isEmpty());
+    }
+    
+    @Test
+    public void longLongMap()
+    {
+        SolrContentSegmentLog.LongLongMap map = new SolrContentSegmentLog.LongLongMap();
+        for (long i = 0; i < 10000; i++)
+        {
+            Assert.assertEquals(-1L, map.put(i * 7, i));
+        }
+        Assert.assertEquals(10000, map.size());
+        for (long i = 0; i < 10000; i += 2)
+        {
+            Assert.assertEquals(i, map.remove(i * 7));
+        }
+        Assert.assertEquals(5000, map.size());
+        for (long i = 0; i < 10000; i++)
+        {
+            Assert.assertEquals((i % 2 == 0) ? -1L : i, map.get(i * 7));
+        }
+        Assert.assertEquals(1L, map.put(7, 42L));
+        Assert.assertEquals(42L, map.get(7));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.content;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.alfresco.repo.content.ContentContext;
+import org.alfresco.service.cmr.repository.ContentReader;
+import org.alfresco.service.cmr.repository.ContentWriter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Compares the write and read throughput of the {@link SolrContentStore} with one file per document against the
+ * packed segments, following the access pattern of the SolrInformationServer: delete, write and random reads of
+ * gzipped documents by DB ID.  This is not a unit test; run it with:
+ * <pre>
+ *   java -cp ... org.alfresco.solr.content.SolrContentStoreBenchmark [documents] [document size] [directory]
+ * </pre>
+ * 
+ * @since 5.2
+ */
+public class SolrContentStoreBenchmark
+{
+    private final int documentCount;
+    private final byte[] document;
+    private final File directory;
+    
+    public SolrContentStoreBenchmark(int documentCount, int documentSize, File directory) throws IOException
+    {
+        this.documentCount = documentCount;
+        this.directory = directory;
+        // Text-like content, which compresses like a serialized document
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder(documentSize);
+        while (sb.length() < documentSize)
+        {
+            sb.append("word").append(random.nextInt(5000)).append(' ');
+        }
+        this.document = gzip(sb.toString().getBytes("UTF-8"));
+    }
+    
+    private static byte[] gzip(byte[] bytes) throws IOException
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(bos))
+        {
+            gzip.write(bytes);
+        }
+        return bos.toByteArray();
+    }
+    
+    private static String url(long dbId)
+    {
+        return SolrContentUrlBuilder.start()
+                    .add(SolrContentUrlBuilder.KEY_TENANT, "_DEFAULT_")
+                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(dbId))
+                    .get();
+    }
+    
+    public void run(boolean packed) throws IOException
+    {
+        File root = new File(directory, packed ? "packed-layout" : "file-layout");
+        FileUtils.deleteDirectory(root);
+        SolrContentStore store = new SolrContentStore(root.getPath(), packed);
+        try
+        {
+            long start = System.nanoTime();
+            for (long dbId = 1; dbId <= documentCount; dbId++)
+            {
+                write(store, url(dbId));
+            }
+            report(packed, "write", start);
+            
+            // Reindex a third of the documents
+            Random random = new Random(7);
+            start = System.nanoTime();
+            for (int i = 0; i < documentCount; i++)
+            {
+                write(store, url(1 + random.nextInt(documentCount / 3 + 1)));
+            }
+            report(packed, "rewrite", start);
+            
+            start = System.nanoTime();
+            long bytes = 0;
+            for (int i = 0; i < documentCount; i++)
+            {
+                ContentReader reader = store.getReader(url(1 + random.nextInt(documentCount)));
+                if (reader.exists())
+                {
+                    bytes += IOUtils.toByteArray(reader.getContentInputStream()).length;
+                }
+            }
+            report(packed, "random read", start);
+            System.out.println("    read " + bytes + " bytes, store size on disk " + FileUtils.sizeOfDirectory(root) +
+                        " bytes in " + countFiles(root) + " files");
+        }
+        finally
+        {
+            if (store.getSegmentLog() != null)
+            {
+                store.getSegmentLog().close();
+            }
+            FileUtils.deleteDirectory(root);
+        }
+    }
+    
+    private void write(SolrContentStore store, String url) throws IOException
+    {
+        store.delete(url);
+        ContentWriter writer = store.getWriter(new ContentContext(null, url));
+        try (OutputStream os = writer.getContentOutputStream())
+        {
+            os.write(document);
+        }
+    }
+    
+    private void report(boolean packed, String operation, long startNanos)
+    {
+        double seconds = (System.nanoTime() - startNanos) / 1.0E9;
+        System.out.println(String.format("%-7s %-12s %,10.0f docs/s (%,.1f MB/s)", packed ? "packed" : "files", operation,
+                    documentCount / seconds, documentCount * (double) document.length / seconds / (1024 * 1024)));
+    }
+    
+    private static long countFiles(File dir)
+    {
+        long count = 0;
+        File[] children = dir.listFiles();
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                count += child.isDirectory() ? countFiles(child) : 1;
+            }
+        }
+        return count;
+    }
+    
+    public static void main(String[] args) throws IOException
+    {
+        int documentCount = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+        int documentSize = (args.length > 1) ? Integer.parseInt(args[1]) : 4096;
+        File directory = (args.length > 2) ? new File(args[2]) : new File(System.getProperty("java.io.tmpdir"), "SolrContentStoreBenchmark");
+        
+        SolrContentStoreBenchmark benchmark = new SolrContentStoreBenchmark(documentCount, documentSize, directory);
+        System.out.println("Documents: " + documentCount + ", gzipped document size: " + benchmark.document.length + " bytes");
+        benchmark.run(false);
+        benchmark.run(true);
+    }
+}
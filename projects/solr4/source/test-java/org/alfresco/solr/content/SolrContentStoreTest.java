@@ -71,6 +71,10 @@ public class SolrContentStoreTest
         if (rootStr != null)
         {
             File rootDir = new File(rootStr);
+            if (rootDir.isDirectory())
+            {
+                SolrContentSegmentLog.getLog(rootStr).close();
+            }
             FileUtils.deleteDirectory(rootDir);
         }
     }
@@ -135,7 +139,7 @@ public class SolrContentStoreTest
     @Test
     public void contentByString()
     {
-        SolrContentStore store = new SolrContentStore(rootStr);
+        SolrContentStore store = new SolrContentStore(rootStr, false);
         
         ContentContext ctx = createContentContext("abc");
         ContentWriter writer = store.getWriter(ctx);
@@ -210,6 +214,115 @@ public class SolrContentStoreTest
         // Delete when already gone; should just not fail
         store.delete(url);
     }
+    
+    @Test
+    public void packedContent() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr, true);
+        
+        ContentContext ctx = createContentContext("abc");
+        String url = ctx.getContentUrl();
+        ContentWriter writer = store.getWriter(ctx);
+        writer.putContent("Content goes here.");
+        
+        File file = new File(rootStr + "/" + url.replace("solr://", ""));
+        Assert.assertFalse("Packed content must not be written to a file", file.exists());
+        Assert.assertTrue(store.exists(url));
+        Assert.assertEquals(1, store.getSegmentLog().getDocumentCount());
+        
+        ContentReader reader = store.getReader(url);
+        Assert.assertTrue(reader.exists());
+        Assert.assertEquals("Content goes here.".length(), reader.getSize());
+        Assert.assertEquals("Content goes here.", reader.getContentString());
+        
+        Assert.assertTrue(store.delete(url));
+        Assert.assertFalse(store.getReader(url).exists());
+        Assert.assertFalse(store.delete(url));
+    }
+    
+    @Test
+    public void filesByDefault() throws Exception
+    {
+        SolrContentStore store = new SolrContentStore(rootStr);
+        Assert.assertNull(store.getSegmentLog());
+        
+        ContentContext ctx = createContentContext("abc");
+        store.getWriter(ctx).putContent("In a file");
+        Assert.assertTrue(new File(rootStr + "/" + ctx.getContentUrl().replace("solr://", "")).exists());
+        Assert.assertFalse(new File(rootStr, SolrContentSegmentLog.SEGMENT_DIRECTORY).exists());
+    }
+    
+    @Test
+    public void packedOnceThereAreSegments() throws Exception
+    {
+        SolrContentStore packedStore;
+        System.setProperty(SolrContentStore.PROP_PACKED, "true");
+        try
+        {
+            packedStore = new SolrContentStore(rootStr);
+        }
+        finally
+        {
+            System.clearProperty(SolrContentStore.PROP_PACKED);
+        }
+        Assert.assertNotNull(packedStore.getSegmentLog());
+        
+        // a store opened before any content was packed follows the open log
+        SolrContentStore store = new SolrContentStore(rootStr, false);
+        ContentContext ctx = createContentContext("abc");
+        packedStore.getWriter(ctx).putContent("Packed");
+        Assert.assertEquals("Packed", store.getReader(ctx.getContentUrl()).getContentString());
+        
+        // and so does a store opened once there are segments
+        packedStore.getSegmentLog().close();
+        Assert.assertTrue(SolrContentSegmentLog.hasSegments(rootStr));
+        Assert.assertNotNull(new SolrContentStore(rootStr).getSegmentLog());
+        Assert.assertEquals("Packed", new SolrContentStore(rootStr).getReader(ctx.getContentUrl()).getContentString());
+    }
+    
+    @Test
+    public void unmigratedFileIsRead() throws Exception
+    {
+        SolrContentStore fileStore = new SolrContentStore(rootStr, false);
+        ContentContext ctx = createContentContext("abc");
+        String url = ctx.getContentUrl();
+        fileStore.getWriter(ctx).putContent("In a file");
+        
+        SolrContentStore store = new SolrContentStore(rootStr, true);
+        Assert.assertTrue(store.exists(url));
+        Assert.assertEquals("In a file", store.getReader(url).getContentString());
+        
+        // Deleting removes the file
+        Assert.assertTrue(store.delete(url));
+        Assert.assertFalse(fileStore.exists(url));
+    }
+    
+    @Test
+    public void migration() throws Exception
+    {
+        SolrContentStore fileStore = new SolrContentStore(rootStr, false);
+        String[] urls = new String[3];
+        for (int i = 0; i < urls.length; i++)
+        {
+            ContentContext ctx = SolrContentUrlBuilder.start()
+                    .add(SolrContentUrlBuilder.KEY_TENANT, "_DEFAULT_")
+                    .add(SolrContentUrlBuilder.KEY_DB_ID, String.valueOf(123456 + i))
+                    .getContentContext();
+            urls[i] = ctx.getContentUrl();
+            fileStore.getWriter(ctx).putContent("Document " + i);
+        }
+        
+        SolrContentStore store = new SolrContentStore(rootStr, true);
+        SolrContentStoreMigration migration = new SolrContentStoreMigration(new File(rootStr), store.getSegmentLog(), true);
+        Assert.assertEquals(3L, migration.migrate());
+        
+        for (int i = 0; i < urls.length; i++)
+        {
+            Assert.assertFalse("File was not deleted: " + urls[i], new File(rootStr + "/" + urls[i].replace("solr://", "")).exists());
+            Assert.assertEquals("Document " + i, store.getReader(urls[i]).getContentString());
+        }
+        Assert.assertFalse("Empty directories were not deleted", new File(rootStr, "_DEFAULT_").exists());
+    }
 //
 //    See ACE-2896.  There is actually no way of ensuring that the cached document is latest or perfect.
 //    /**
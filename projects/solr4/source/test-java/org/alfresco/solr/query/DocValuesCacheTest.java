@@ -0,0 +1,238 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterAtomicReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SlowCompositeReaderWrapper;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DocValuesCacheTest
+{
+    private RAMDirectory directory;
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_10_0, new KeywordAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void testBytesRequired()
+    {
+        assertEquals(0, DocValuesCache.PackedDocValues.bytesRequired(7, 7));
+        assertEquals(1, DocValuesCache.PackedDocValues.bytesRequired(1000, 1255));
+        assertEquals(2, DocValuesCache.PackedDocValues.bytesRequired(0, 256));
+        assertEquals(4, DocValuesCache.PackedDocValues.bytesRequired(-1, 0xFFFFL));
+        assertEquals(4, DocValuesCache.PackedDocValues.bytesRequired(0, 0xFFFFFFFFL));
+        assertEquals(8, DocValuesCache.PackedDocValues.bytesRequired(0, 0x100000000L));
+        assertEquals(8, DocValuesCache.PackedDocValues.bytesRequired(Long.MIN_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testValuesArePackedAndShared() throws Exception
+    {
+        long[] values = { 100000L, 100001L, 100255L, 100003L };
+        for (long value : values)
+        {
+            addDoc(value);
+        }
+        writer.commit();
+
+        DirectoryReader reader = DirectoryReader.open(directory);
+        AtomicReader segment = reader.leaves().get(0).reader();
+        NumericDocValues cached = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, segment);
+        for (int i = 0; i < values.length; i++)
+        {
+            assertEquals(values[i], cached.get(i));
+        }
+        assertEquals(1, ((DocValuesCache.PackedDocValues) cached).getBytesPerValue());
+        assertEquals(values.length, ((DocValuesCache.PackedDocValues) cached).ramBytesUsed());
+        assertNull(DocValuesCache.getNumericDocValues(QueryConstants.FIELD_DBID, segment));
+
+        // A new searcher over the same segment shares the values
+        int segments = DocValuesCache.getCachedSegmentCount();
+        DirectoryReader sameReader = DirectoryReader.open(directory);
+        assertSame(cached, DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, sameReader.leaves().get(0).reader()));
+        assertEquals(segments, DocValuesCache.getCachedSegmentCount());
+
+        // The values are freed once the segment is closed
+        sameReader.close();
+        reader.close();
+        assertEquals(segments - 1, DocValuesCache.getCachedSegmentCount());
+    }
+
+    @Test
+    public void testOnlySegmentsAreCached() throws Exception
+    {
+        addDoc(1L);
+        writer.commit();
+        addDoc(2L);
+        writer.commit();
+
+        DirectoryReader reader = DirectoryReader.open(directory);
+        try
+        {
+            // A filtered segment shares the values of the segment, which are freed when its core is closed
+            AtomicReader segment = reader.leaves().get(0).reader();
+            NumericDocValues cached = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, segment);
+            assertTrue(cached instanceof DocValuesCache.PackedDocValues);
+            assertSame(cached, DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID,
+                        new FilterAtomicReader(segment) {}));
+
+            // A reader over several segments has no core to free the values with
+            int segments = DocValuesCache.getCachedSegmentCount();
+            AtomicReader composite = SlowCompositeReaderWrapper.wrap(reader);
+            NumericDocValues uncached = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, composite);
+            assertFalse(uncached instanceof DocValuesCache.PackedDocValues);
+            assertEquals(2L, uncached.get(1));
+            assertEquals(segments, DocValuesCache.getCachedSegmentCount());
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testWideAndNegativeValues() throws Exception
+    {
+        long[] values = { -5L, Integer.MAX_VALUE + 10L, 0L, Long.MAX_VALUE / 2 };
+        for (long value : values)
+        {
+            addDoc(value);
+        }
+        writer.commit();
+
+        DirectoryReader reader = DirectoryReader.open(directory);
+        NumericDocValues cached = DocValuesCache.getNumericDocValues(QueryConstants.FIELD_ACLID, reader.leaves().get(0).reader());
+        for (int i = 0; i < values.length; i++)
+        {
+            assertEquals(values[i], cached.get(i));
+        }
+        assertEquals(8, ((DocValuesCache.PackedDocValues) cached).getBytesPerValue());
+        reader.close();
+    }
+
+    @Test
+    public void testHeapFallbackWhenTheBudgetIsUsed() throws Exception
+    {
+        long[] values = { 1L, 2L, 3L };
+        for (long value : values)
+        {
+            addDoc(value);
+        }
+        writer.commit();
+
+        long maxOffHeapBytes = DocValuesCache.getMaxOffHeapBytes();
+        long heapFallbacks = DocValuesCache.getHeapFallbackCount();
+        DocValuesCache.setMaxOffHeapBytes(0L);
+        DirectoryReader reader = DirectoryReader.open(directory);
+        try
+        {
+            DocValuesCache.PackedDocValues cached = (DocValuesCache.PackedDocValues) DocValuesCache.getNumericDocValues(
+                        QueryConstants.FIELD_ACLID, reader.leaves().get(0).reader());
+            assertFalse(cached.isOffHeap());
+            assertEquals(heapFallbacks + 1, DocValuesCache.getHeapFallbackCount());
+            for (int i = 0; i < values.length; i++)
+            {
+                assertEquals(values[i], cached.get(i));
+            }
+        }
+        finally
+        {
+            reader.close();
+            DocValuesCache.setMaxOffHeapBytes(maxOffHeapBytes);
+        }
+    }
+
+    @Test
+    public void testEvictedBufferIsReleasedFromTheBudget() throws Exception
+    {
+        long[] values = { 1L, 1000L, 70000L };
+        for (long value : values)
+        {
+            addDoc(value);
+        }
+        writer.commit();
+
+        long offHeapBytes = DocValuesCache.offHeapBytesUsed();
+        long pendingRelease = DocValuesCache.offHeapBytesPendingRelease();
+        DirectoryReader reader = DirectoryReader.open(directory);
+        DocValuesCache.PackedDocValues cached = (DocValuesCache.PackedDocValues) DocValuesCache.getNumericDocValues(
+                    QueryConstants.FIELD_ACLID, reader.leaves().get(0).reader());
+        assertTrue(cached.isOffHeap());
+        assertEquals(offHeapBytes + cached.ramBytesUsed(), DocValuesCache.offHeapBytesUsed());
+
+        // Freed straight away, or charged to the budget until it is collected
+        reader.close();
+        assertEquals(offHeapBytes, DocValuesCache.offHeapBytesUsed());
+        assertTrue(DocValuesCache.offHeapBytesPendingRelease() <= pendingRelease + cached.ramBytesUsed());
+    }
+
+    @Test
+    public void testParseSize()
+    {
+        assertEquals(512L, DocValuesCache.parseSize("512"));
+        assertEquals(64L * 1024L, DocValuesCache.parseSize("64k"));
+        assertEquals(256L * 1024L * 1024L, DocValuesCache.parseSize("256M"));
+        assertEquals(2L * 1024L * 1024L * 1024L, DocValuesCache.parseSize("2g"));
+    }
+
+    private void addDoc(long aclId) throws Exception
+    {
+        Document doc = new Document();
+        doc.add(new NumericDocValuesField(QueryConstants.FIELD_ACLID, aclId));
+        writer.addDocument(doc);
+    }
+}
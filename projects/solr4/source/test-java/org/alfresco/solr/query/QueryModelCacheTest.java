@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.alfresco.repo.search.impl.querymodel.Query;
+import org.alfresco.solr.query.QueryModelCache.Key;
+import org.alfresco.solr.query.QueryModelCache.ParseInfo;
+import org.junit.Test;
+
+public class QueryModelCacheTest
+{
+    @Test
+    public void testKeyEquality()
+    {
+        Key key1 = new Key("afts", "TEXT:alfresco", new HashSet<String>(Arrays.asList("a", "b")), null, 1L);
+        Key key2 = new Key("afts", "TEXT:alfresco", new HashSet<String>(Arrays.asList("b", "a")), null, 1L);
+        Key newerDictionary = new Key("afts", "TEXT:alfresco", new HashSet<String>(Arrays.asList("a", "b")), null, 2L);
+
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertNotEquals(key1, newerDictionary);
+    }
+
+    @Test
+    public void testHitsMissesAndEviction()
+    {
+        QueryModelCache cache = new QueryModelCache(2);
+        Query query1 = mock(Query.class);
+        Query query2 = mock(Query.class);
+        Query query3 = mock(Query.class);
+        ParseInfo parseInfo = new ParseInfo();
+
+        assertNull(cache.get(new Key("afts", "one"), parseInfo));
+        cache.put(new Key("afts", "one"), query1, 2000000L, parseInfo);
+        assertFalse(parseInfo.isCacheHit());
+        assertEquals(2.0, parseInfo.getParseTimeMs(), 0.0);
+
+        assertSame(query1, cache.get(new Key("afts", "one"), parseInfo));
+        assertTrue(parseInfo.isCacheHit());
+        assertEquals(0.0, parseInfo.getParseTimeMs(), 0.0);
+
+        cache.put(new Key("afts", "two"), query2, 1L, null);
+        // one was used more recently than two
+        cache.get(new Key("afts", "one"), null);
+        cache.put(new Key("afts", "three"), query3, 1L, null);
+
+        assertEquals(2, cache.size());
+        assertSame(query1, cache.get(new Key("afts", "one"), null));
+        assertNull(cache.get(new Key("afts", "two"), null));
+        assertEquals(3, cache.getHits());
+        assertEquals(3, cache.getMisses());
+
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        QueryModelCache cache = new QueryModelCache(0);
+        cache.put(new Key("cmis", "SELECT * FROM cmis:document"), mock(Query.class), 1L, null);
+        assertNull(cache.get(new Key("cmis", "SELECT * FROM cmis:document"), null));
+        assertEquals(0, cache.size());
+    }
+}
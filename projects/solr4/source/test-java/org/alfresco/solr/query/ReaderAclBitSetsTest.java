@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.alfresco.repo.search.adaptor.lucene.QueryConstants;
+import org.alfresco.service.cmr.security.PermissionService;
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReaderAclBitSetsTest
+{
+    private RAMDirectory directory;
+    private IndexWriter writer;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        directory = new RAMDirectory();
+        writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_4_10_0, new KeywordAnalyzer()));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        writer.close();
+        directory.close();
+    }
+
+    @Test
+    public void testKeyIgnoresAuthorityOrderAndDuplicates()
+    {
+        ReaderAclBitSets.Key key1 = new ReaderAclBitSets.Key(QueryConstants.FIELD_READER, new String[] { "GROUP_EVERYONE", "bob", "GROUP_A" });
+        ReaderAclBitSets.Key key2 = new ReaderAclBitSets.Key(QueryConstants.FIELD_READER, new String[] { "GROUP_A", "bob", "GROUP_EVERYONE", "bob" });
+        ReaderAclBitSets.Key key3 = new ReaderAclBitSets.Key(QueryConstants.FIELD_DENIED, new String[] { "GROUP_A", "bob", "GROUP_EVERYONE" });
+
+        assertEquals(key1, key2);
+        assertEquals(key1.hashCode(), key2.hashCode());
+        assertEquals(3, key2.getAuthorities().length);
+        assertNotEquals(key1, key3);
+    }
+
+    @Test
+    public void testBuildAndReuseSegments() throws Exception
+    {
+        addAcl(1, "GROUP_A");
+        addAcl(2, "GROUP_B");
+        addNode(1, "alice");
+        addNode(2, "bob");
+        writer.commit();
+
+        ReaderAclBitSets.Key key = new ReaderAclBitSets.Key(QueryConstants.FIELD_READER, new String[] { "GROUP_A", "bob" });
+        DirectoryReader reader = DirectoryReader.open(directory);
+        List<AtomicReaderContext> leaves = reader.leaves();
+        ReaderAclBitSets bitSets = ReaderAclBitSets.build(leaves, key, null);
+
+        assertEquals(1, bitSets.getAclCount());
+        assertTrue(bitSets.getAclBits().get(1));
+        assertFalse(bitSets.getAclBits().get(2));
+        assertEquals(2, countDocs(bitSets.getReadableDocs(leaves)));
+        assertEquals(1, countDocs(bitSets.getOwnerDocs(leaves)));
+
+        // The readable docs are computed once and shared
+        assertSame(bitSets.getReadableDocs(leaves).getBitSets().get(0), bitSets.getReadableDocs(leaves).getBitSets().get(0));
+
+        // A new segment granting another ACL to the authorities
+        addAcl(3, "bob");
+        addNode(3, "carol");
+        writer.commit();
+
+        DirectoryReader newReader = DirectoryReader.openIfChanged(reader);
+        List<AtomicReaderContext> newLeaves = newReader.leaves();
+        ReaderAclBitSets newBitSets = ReaderAclBitSets.build(newLeaves, key, bitSets);
+
+        assertEquals(2, newBitSets.getAclCount());
+        assertTrue(newBitSets.getAclBits().get(3));
+        assertEquals(4, countDocs(newBitSets.getReadableDocs(newLeaves)));
+        assertEquals(1, countDocs(newBitSets.getOwnerDocs(newLeaves)));
+        assertEquals(newLeaves.size(), newBitSets.getOwnerDocs(newLeaves).getBitSets().size());
+
+        newReader.close();
+        reader.close();
+    }
+
+    @Test
+    public void testVisibleDocs() throws Exception
+    {
+        addAcl(1, "GROUP_A");
+        addAcl(2, PermissionService.OWNER_AUTHORITY);
+        addNode(1, "alice");
+        addNode(2, "bob");
+        addNode(3, "bob");
+        writer.commit();
+
+        DirectoryReader reader = DirectoryReader.open(directory);
+        List<AtomicReaderContext> leaves = reader.leaves();
+        ReaderAclBitSets bitSets = ReaderAclBitSets.build(leaves, new ReaderAclBitSets.Key(QueryConstants.FIELD_READER, new String[] { "GROUP_A", "bob" }), null);
+        ReaderAclBitSets ownerBitSets = ReaderAclBitSets.build(leaves, new ReaderAclBitSets.Key(QueryConstants.FIELD_READER, new String[] { PermissionService.OWNER_AUTHORITY }), null);
+        long ramBytesUsed = bitSets.ramBytesUsed();
+
+        // owners may always read: the ACL 1 docs and both docs owned by bob
+        assertEquals(4, countDocs(bitSets.getVisibleDocs(leaves, null)));
+
+        // owners may only read the docs whose ACL grants read to the owner authority
+        ReaderAclBitSets otherBitSets = ReaderAclBitSets.build(leaves, new ReaderAclBitSets.Key(QueryConstants.FIELD_READER, new String[] { "GROUP_A", "bob" }), null);
+        BitsFilter visibleDocs = otherBitSets.getVisibleDocs(leaves, ownerBitSets);
+        assertEquals(3, countDocs(visibleDocs));
+        assertSame(visibleDocs.getBitSets().get(0), otherBitSets.getVisibleDocs(leaves, ownerBitSets).getBitSets().get(0));
+
+        // the cached sets are not modified
+        assertEquals(2, countDocs(otherBitSets.getReadableDocs(leaves)));
+        assertEquals(2, countDocs(otherBitSets.getOwnerDocs(leaves)));
+
+        // the memory held grows as the per segment sets are computed
+        assertTrue(bitSets.ramBytesUsed() > ramBytesUsed);
+
+        reader.close();
+    }
+
+    private void addAcl(long aclId, String reader) throws IOException
+    {
+        Document doc = new Document();
+        doc.add(new NumericDocValuesField(QueryConstants.FIELD_ACLID, aclId));
+        doc.add(new StringField(QueryConstants.FIELD_READER, reader, Field.Store.NO));
+        writer.addDocument(doc);
+    }
+
+    private void addNode(long aclId, String owner) throws IOException
+    {
+        Document doc = new Document();
+        doc.add(new NumericDocValuesField(QueryConstants.FIELD_ACLID, aclId));
+        doc.add(new StringField(QueryConstants.FIELD_OWNER, owner, Field.Store.NO));
+        writer.addDocument(doc);
+    }
+
+    private int countDocs(BitsFilter filter)
+    {
+        int count = 0;
+        for (int i = 0; i < filter.getBitSets().size(); i++)
+        {
+            count += filter.getBitSets().get(i).cardinality();
+        }
+        return count;
+    }
+}
@@ -28,6 +28,7 @@ package org.alfresco.solr.tracker;
 import static org.mockito.Mockito.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -75,10 +76,36 @@ public class ContentTrackerTest
     public void doTrackWithNoContentDoesNothing() throws Exception
     {
         this.contentTracker.doTrack();
-        verify(srv, never()).updateContentToIndexAndCache(anyLong(), anyString());
+        verify(srv, never()).updateContentToIndexAndCache(anyListOf(TenantAclIdDbId.class));
         verify(srv, never()).commit();
     }
 
+    @Test
+    public void doTrackBatchesContentText() throws Exception
+    {
+        doReturn("" + 10).when(props).getProperty(eq("alfresco.contentUpdateBatchSize"), anyString());
+        doReturn("" + 3).when(props).getProperty(eq("alfresco.contentTextBatchSize"), anyString());
+        this.contentTracker = new ContentTracker(props, repositoryClient, coreName, srv);
+        
+        List<TenantAclIdDbId> docs = new ArrayList<>();
+        for (long i = 0; i < 7; i++)
+        {
+            TenantAclIdDbId doc = new TenantAclIdDbId();
+            doc.dbId = i;
+            doc.tenant = "";
+            docs.add(doc);
+        }
+        when(this.srv.getDocsWithUncleanContent(anyInt(), anyInt()))
+                .thenReturn(docs)
+                .thenReturn(new ArrayList<TenantAclIdDbId>());
+        this.contentTracker.doTrack();
+        
+        verify(srv).updateContentToIndexAndCache(docs.subList(0, 3));
+        verify(srv).updateContentToIndexAndCache(docs.subList(3, 6));
+        verify(srv).updateContentToIndexAndCache(docs.subList(6, 7));
+        verify(srv, times(1)).commit();
+    }
+
     @Test
     public void doTrackWithContentUpdatesContent() throws Exception
     {
@@ -121,17 +148,17 @@ public class ContentTrackerTest
          * See https://code.google.com/p/mockito/issues/detail?id=296
          */
 
-        // From docs1
-        order.verify(srv, times(UPDATE_BATCH)).updateContentToIndexAndCache(1l, "1");
+        // From docs1, in one batch
+        order.verify(srv).updateContentToIndexAndCache(docs1.subList(0, UPDATE_BATCH));
         order.verify(srv).commit();
         // The one extra doc should be processed and then committed
-        order.verify(srv).updateContentToIndexAndCache(thirdDoc.dbId, thirdDoc.tenant);
+        order.verify(srv).updateContentToIndexAndCache(Collections.singletonList(thirdDoc));
         order.verify(srv).commit();
         
         order.verify(srv).getDocsWithUncleanContent(0 + READ_BATCH, READ_BATCH);
         
         // From docs2
-        order.verify(srv, times(UPDATE_BATCH)).updateContentToIndexAndCache(2l, "2");
+        order.verify(srv).updateContentToIndexAndCache(docs2);
         order.verify(srv).commit();
         
         order.verify(srv).getDocsWithUncleanContent(0 + READ_BATCH + READ_BATCH, READ_BATCH);
@@ -0,0 +1,235 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.alfresco.solr.InformationServer;
+import org.alfresco.solr.TrackerState;
+import org.alfresco.solr.client.SOLRAPIClient;
+import org.alfresco.solr.client.Transaction;
+import org.alfresco.solr.client.Transactions;
+import org.alfresco.solr.tracker.IncrementalIndexHealthChecker.RangeHealth;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IncrementalIndexHealthCheckerTest
+{
+    private static final long NO_HOLES_BEFORE = 1000L;
+
+    @Mock
+    private SOLRAPIClient repositoryClient;
+    @Mock
+    private InformationServer srv;
+    @Mock
+    private MetadataTracker metadataTracker;
+    private TrackerState state;
+    private Properties props;
+    private File dataDir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dataDir = File.createTempFile("healthCheck", "");
+        dataDir.delete();
+        dataDir.mkdirs();
+
+        props = new Properties();
+        props.setProperty("alfresco.healthCheck.rangeSize", "10");
+
+        state = new TrackerState();
+        state.setTimeBeforeWhichThereCanBeNoHoles(NO_HOLES_BEFORE);
+        when(metadataTracker.getTrackerState()).thenReturn(state);
+    }
+
+    @After
+    public void tearDown()
+    {
+        new File(dataDir, IncrementalIndexHealthChecker.STATE_FILE_NAME).delete();
+        dataDir.delete();
+    }
+
+    @Test
+    public void onlyCompleteRangesAreChecked() throws Exception
+    {
+        state.setLastIndexedTxId(25);
+        mockRange(0, 1L, 2L);
+        mockRange(10, 11L);
+
+        IncrementalIndexHealthChecker checker = newChecker();
+        assertEquals(2, checker.check());
+        assertEquals(2, checker.getCheckedRangeCount());
+        assertTrue(checker.getUnhealthyRanges().isEmpty());
+        verify(repositoryClient, never()).getTransactions(null, 20L, null, 30L, 10);
+    }
+
+    @Test
+    public void onlyTouchedRangesAreRechecked() throws Exception
+    {
+        state.setLastIndexedTxId(19);
+        mockRange(0, 1L, 2L);
+        mockRange(10, 11L);
+
+        IncrementalIndexHealthChecker checker = newChecker();
+        assertEquals(2, checker.check());
+        assertEquals(0, checker.check());
+
+        checker.markTransactionTouched(12);
+        assertEquals(1, checker.check());
+        verify(repositoryClient, times(1)).getTransactions(null, 0L, null, 10L, 10);
+        verify(repositoryClient, times(2)).getTransactions(null, 10L, null, 20L, 10);
+    }
+
+    @Test
+    public void touchedRangesSurviveARestart() throws Exception
+    {
+        state.setLastIndexedTxId(19);
+        mockRange(0, 1L, 2L);
+        mockRange(10, 11L);
+
+        IncrementalIndexHealthChecker checker = newChecker();
+        assertEquals(2, checker.check());
+        checker.markTransactionTouched(12);
+        // As on shutdown
+        checker.saveState();
+
+        IncrementalIndexHealthChecker restarted = newChecker();
+        restarted.loadState();
+        assertEquals(1, restarted.getTouchedRangeCount());
+        assertEquals(1, restarted.check());
+        verify(repositoryClient, times(2)).getTransactions(null, 10L, null, 20L, 10);
+    }
+
+    @Test
+    public void rangesWithinHoleRetentionAreNotChecked() throws Exception
+    {
+        state.setLastIndexedTxId(19);
+        mockRange(0, 1L, 2L);
+        List<Transaction> recent = Arrays.asList(newTransaction(11L, NO_HOLES_BEFORE + 1));
+        Transactions transactions = mock(Transactions.class);
+        when(transactions.getTransactions()).thenReturn(recent);
+        when(repositoryClient.getTransactions(null, 10L, null, 20L, 10)).thenReturn(transactions);
+
+        IncrementalIndexHealthChecker checker = newChecker();
+        assertEquals(1, checker.check());
+        assertEquals(1, checker.getTouchedRangeCount());
+        verify(srv, never()).getTransactionDocCountsInIndex(10L, 19L);
+    }
+
+    @Test
+    public void mismatchedRangesAreReported() throws Exception
+    {
+        state.setLastIndexedTxId(9);
+        List<Transaction> txs = Arrays.asList(newTransaction(1L, 1L), newTransaction(2L, 2L),
+                    newTransaction(3L, 3L));
+        Transactions transactions = mock(Transactions.class);
+        when(transactions.getTransactions()).thenReturn(txs);
+        when(repositoryClient.getTransactions(null, 0L, null, 10L, 10)).thenReturn(transactions);
+        Map<Long, Integer> counts = new HashMap<>();
+        counts.put(1L, 1);
+        counts.put(3L, 2);
+        counts.put(5L, 1);
+        when(srv.getTransactionDocCountsInIndex(0L, 9L)).thenReturn(counts);
+
+        IncrementalIndexHealthChecker checker = newChecker();
+        checker.check();
+        List<RangeHealth> unhealthy = checker.getUnhealthyRanges();
+        assertEquals(1, unhealthy.size());
+        RangeHealth health = unhealthy.get(0);
+        assertEquals(Arrays.asList(2L), health.getMissingTxFromIndex());
+        assertEquals(Arrays.asList(5L), health.getTxInIndexButNotInDb());
+        assertEquals(Arrays.asList(3L), health.getDuplicatedTxInIndex());
+
+        // The state survives a restart
+        IncrementalIndexHealthChecker restarted = newChecker();
+        restarted.loadState();
+        assertEquals(1, restarted.getCheckedRangeCount());
+        RangeHealth loaded = restarted.getUnhealthyRanges().get(0);
+        assertEquals(health.getDbChecksum(), loaded.getDbChecksum());
+        assertEquals(health.getIndexChecksum(), loaded.getIndexChecksum());
+        assertEquals(health.getMissingTxFromIndex(), loaded.getMissingTxFromIndex());
+        assertEquals(health.getTxInIndexButNotInDb(), loaded.getTxInIndexButNotInDb());
+        assertEquals(health.getDuplicatedTxInIndex(), loaded.getDuplicatedTxInIndex());
+    }
+
+    @Test
+    public void checksumIgnoresOrder()
+    {
+        TxRangeChecksum first = new TxRangeChecksum();
+        TxRangeChecksum second = new TxRangeChecksum();
+        for (long id = 1; id <= 5; id++)
+        {
+            first.add(id);
+            second.add(6 - id);
+        }
+        assertEquals(first, second);
+
+        second.add(7);
+        assertFalse(first.matches(second));
+    }
+
+    private IncrementalIndexHealthChecker newChecker()
+    {
+        return new IncrementalIndexHealthChecker(props, repositoryClient, "theCoreName", srv, metadataTracker, dataDir);
+    }
+
+    private void mockRange(long firstTxId, Long... txIds) throws Exception
+    {
+        List<Transaction> txs = new ArrayList<>();
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Long txId : txIds)
+        {
+            txs.add(newTransaction(txId, txId));
+            counts.put(txId, 1);
+        }
+        Transactions transactions = mock(Transactions.class);
+        when(transactions.getTransactions()).thenReturn(txs);
+        when(repositoryClient.getTransactions(null, firstTxId, null, firstTxId + 10, 10)).thenReturn(transactions);
+        when(srv.getTransactionDocCountsInIndex(firstTxId, firstTxId + 9)).thenReturn(counts);
+    }
+
+    private Transaction newTransaction(long id, long commitTime)
+    {
+        Transaction tx = new Transaction();
+        tx.setId(id);
+        tx.setCommitTimeMs(commitTime);
+        return tx;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * #%L
+ * Alfresco Solr 4
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.solr.tracker.pool;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.solr.tracker.pool.AdaptiveTrackerPoolManager.ManagedPool;
+import org.junit.Test;
+
+/**
+ * Tests for the allocation of threads by the {@link AdaptiveTrackerPoolManager}.
+ */
+public class AdaptiveTrackerPoolManagerTest
+{
+    @Test
+    public void testIdlePoolsKeepOneThread()
+    {
+        ManagedPool metadata = newPool("core1", "MetadataTracker", 8, 0);
+        ManagedPool content = newPool("core1", "ContentTracker", 8, 0);
+
+        AdaptiveTrackerPoolManager.allocate(Arrays.asList(metadata, content), 16);
+
+        assertEquals(1, metadata.target);
+        assertEquals(1, content.target);
+    }
+
+    @Test
+    public void testPrioritiesWithinCore()
+    {
+        ManagedPool metadata = newPool("core1", "MetadataTracker", 8, 20);
+        ManagedPool acl = newPool("core1", "AclTracker", 8, 20);
+        ManagedPool content = newPool("core1", "ContentTracker", 8, 20);
+
+        AdaptiveTrackerPoolManager.allocate(Arrays.asList(content, acl, metadata), 9);
+
+        assertEquals(9, metadata.target + acl.target + content.target);
+        assertTrue(metadata.target > acl.target);
+        assertTrue(acl.target > content.target);
+    }
+
+    @Test
+    public void testFairnessBetweenCores()
+    {
+        ManagedPool core1 = newPool("core1", "MetadataTracker", 16, 100);
+        ManagedPool core2 = newPool("core2", "ContentTracker", 16, 100);
+        ManagedPool core3 = newPool("core3", "MetadataTracker", 16, 0);
+
+        AdaptiveTrackerPoolManager.allocate(Arrays.asList(core1, core2, core3), 11);
+
+        // Content tracking of one core is not starved by metadata tracking of another
+        assertEquals(5, core1.target);
+        assertEquals(5, core2.target);
+        assertEquals(1, core3.target);
+    }
+
+    @Test
+    public void testUnusedShareGoesToOtherCores()
+    {
+        ManagedPool core1 = newPool("core1", "MetadataTracker", 16, 100);
+        ManagedPool core2 = newPool("core2", "MetadataTracker", 2, 100);
+
+        AdaptiveTrackerPoolManager.allocate(Arrays.asList(core1, core2), 12);
+
+        assertEquals(10, core1.target);
+        assertEquals(2, core2.target);
+    }
+
+    @Test
+    public void testSlowPoolsGetFewerThreads()
+    {
+        ManagedPool fast = newPool("core1", "MetadataTracker", 16, 100);
+        ManagedPool slow = newPool("core2", "MetadataTracker", 16, 100);
+        ManagedPool other = newPool("core2", "AclTracker", 16, 100);
+        fast.recordTaskTime(10);
+        slow.recordTaskTime(10);
+        for (int i = 0; i < 20; i++)
+        {
+            slow.recordTaskTime(100);
+        }
+        assertEquals(1.0, fast.getLatencyFactor(), 0.0);
+        assertTrue(slow.getLatencyFactor() < 0.5);
+
+        AdaptiveTrackerPoolManager.allocate(Arrays.asList(fast, slow, other), 21);
+
+        assertTrue(slow.target < other.target);
+    }
+
+    private ManagedPool newPool(String coreName, String trackerName, int maxSize, int queued)
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(maxSize, maxSize, 120, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+        for (int i = 0; i < queued; i++)
+        {
+            executor.getQueue().add(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                }
+            });
+        }
+        return new ManagedPool(coreName, trackerName, executor);
+    }
+}